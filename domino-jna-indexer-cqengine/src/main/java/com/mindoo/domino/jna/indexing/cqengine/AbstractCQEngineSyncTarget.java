@@ -27,18 +27,22 @@ import com.mindoo.domino.jna.IItemTableData;
 import com.mindoo.domino.jna.NotesIDTable;
 import com.mindoo.domino.jna.NotesNote;
 import com.mindoo.domino.jna.NotesTimeDate;
+import com.mindoo.domino.jna.sync.IConvertingSyncTarget;
 import com.mindoo.domino.jna.sync.ISyncTarget;
 import com.mindoo.domino.jna.sync.NotesOriginatorIdData;
 
 /**
  * Generic base class that implements {@link ISyncTarget} and syncs data with
- * CQEngine.
+ * CQEngine.<br>
+ * <br>
+ * In the pipelined sync mode, {@link #toObject(NotesOriginatorIdData, IItemTableData, NotesNote)}
+ * is called concurrently by multiple worker threads.
  * 
  * @author Karsten Lehmann
  * @param <T> data object type
  * @param <CTX> sync context type
  */
-public abstract class AbstractCQEngineSyncTarget<T extends BaseIndexObject, CTX> implements ISyncTarget<CTX> {
+public abstract class AbstractCQEngineSyncTarget<T extends BaseIndexObject, CTX> implements IConvertingSyncTarget<CTX,T> {
 	public final Attribute<BaseIndexObject, String> OBJ_UNID = new SimpleAttribute<BaseIndexObject, String>("unid") {
 		public String getValue(BaseIndexObject obj, QueryOptions queryOptions) {
 			return obj.getUNID();
@@ -62,6 +66,8 @@ public abstract class AbstractCQEngineSyncTarget<T extends BaseIndexObject, CTX>
 	private ThreadLocal<List<T>> m_objectsToAdd = new ThreadLocal<List<T>>();
 	private ThreadLocal<List<T>> m_objectsToRemove = new ThreadLocal<List<T>>();
 	private ThreadLocal<Boolean> m_wiped = new ThreadLocal<Boolean>();
+	//number of intermediate commits of the current initial sync, guarded by m_indexLock
+	private int m_intermediateCommits;
 	
 	//use lock to prevent parallel indexing in multiple threads
 	private ReentrantLock m_indexLock = new ReentrantLock();
@@ -77,6 +83,28 @@ public abstract class AbstractCQEngineSyncTarget<T extends BaseIndexObject, CTX>
 		addIndices(m_indexCollection);
 	}
 
+	/**
+	 * Creates a new sync target for a collection created by the subclass, e.g. one that
+	 * needs constructor arguments. The subclass is responsible for the indexes of the collection
+	 * and needs to override {@link #retrieveByUnid(String)} if it does not index {@link #OBJ_UNID}.
+	 * 
+	 * @param collection collection, may already contain the data of a previous sync
+	 */
+	protected AbstractCQEngineSyncTarget(IndexedCollection<T> collection) {
+		m_lastSyncEndDates = new HashMap<String, NotesTimeDate>();
+		m_indexCollection = collection;
+		m_initialSync = collection.isEmpty();
+	}
+
+	/**
+	 * Returns the internal CQEngine index collection
+	 * 
+	 * @return collection
+	 */
+	protected IndexedCollection<T> getIndexCollection() {
+		return m_indexCollection;
+	}
+
 	/**
 	 * Override this method and return a different collection implementation
 	 * in case you want the collection to be persistent.
@@ -98,6 +126,18 @@ public abstract class AbstractCQEngineSyncTarget<T extends BaseIndexObject, CTX>
 		//
 	}
 	
+	/**
+	 * Returns the maximum number of new objects that are collected during the initial sync
+	 * into an empty index before they get written into the collection. Queries see the partially
+	 * filled index until the initial sync is done. Incremental syncs always write their changes
+	 * in one step.
+	 * 
+	 * @return number of objects or 0 to write all objects at the end of the sync (default)
+	 */
+	protected int getMaxPendingObjects() {
+		return 0;
+	}
+	
 	@Override
 	public NotesIDTable getInitialNoteIdFilter() {
 		return null;
@@ -158,6 +198,7 @@ public abstract class AbstractCQEngineSyncTarget<T extends BaseIndexObject, CTX>
 		m_objectsToAdd.set(new ArrayList<T>());
 		m_objectsToRemove.set(new ArrayList<T>());
 		m_wiped.set(null);
+		m_intermediateCommits = 0;
 		
 		//optional context object not used
 		return null;
@@ -167,6 +208,7 @@ public abstract class AbstractCQEngineSyncTarget<T extends BaseIndexObject, CTX>
 	public void clear(Object ctx) {
 		//remember to wipe the collection on sync end before adding data
 		m_wiped.set(Boolean.TRUE);
+		m_objectsToRemove.get().clear();
 	}
 
 	@Override
@@ -187,14 +229,29 @@ public abstract class AbstractCQEngineSyncTarget<T extends BaseIndexObject, CTX>
 		if (Boolean.TRUE.equals(m_wiped.get()))
 			return null;
 		
-		Query<T> query = (Query<T>) equal(OBJ_UNID, oid.getUNID());
-
-		ResultSet<T> objectWithUNID = m_indexCollection.retrieve(query);
-		if (objectWithUNID.isNotEmpty()) {
-			T obj = objectWithUNID.iterator().next();
-			return obj;
+		ResultSet<T> objectWithUNID = retrieveByUnid(oid.getUNID());
+		try {
+			if (objectWithUNID.isNotEmpty()) {
+				T obj = objectWithUNID.iterator().next();
+				return obj;
+			}
+			return null;
 		}
-		return null;
+		finally {
+			objectWithUNID.close();
+		}
+	}
+
+	/**
+	 * Looks up the index objects with a UNID. The default implementation queries
+	 * the index on {@link #OBJ_UNID}.
+	 * 
+	 * @param unid UNID
+	 * @return result set, gets closed by the caller
+	 */
+	protected ResultSet<T> retrieveByUnid(String unid) {
+		Query<T> query = (Query<T>) equal(OBJ_UNID, unid);
+		return m_indexCollection.retrieve(query);
 	}
 
 	@Override
@@ -202,44 +259,75 @@ public abstract class AbstractCQEngineSyncTarget<T extends BaseIndexObject, CTX>
 			NotesNote note) {
 		
 		T obj = findObject(oid);
-		
-		boolean oldRemoved = false;
-		boolean add = true;
+		if (obj!=null && obj.getSequence() >= oid.getSequence()) {
+			//our version is the same or newer (maybe coming from another DB replica), so keep it
+			return TargetResult.None;
+		}
+		return replaceObject(obj, toObject(oid, summaryBufferData, note));
+	}
 
-		if (obj!=null) {
-			if (obj.getSequence() < oid.getSequence()) {
-				//remove existing older object
-				m_objectsToRemove.get().add(obj);
-				if (isLoggable(Level.FINE))
-					log(Level.FINE, "Removing entry: "+obj);
-				oldRemoved=true;
-			}
-			else {
-				//our version is the same or newer (maybe coming from another DB replica), so keep it
-				add = false;
-			}
+	@Override
+	public T convertNote(NotesOriginatorIdData oid, IItemTableData summaryBufferData, NotesNote note) {
+		return toObject(oid, summaryBufferData, note);
+	}
+
+	@Override
+	public TargetResult noteChangedMatchingFormula(CTX ctx, NotesOriginatorIdData oid, T convertedData) {
+		T obj = findObject(oid);
+		if (obj!=null && obj.getSequence() >= oid.getSequence()) {
+			//our version is the same or newer (maybe coming from another DB replica), so keep it
+			return TargetResult.None;
+		}
+		return replaceObject(obj, convertedData);
+	}
+
+	@Override
+	public void flushBatch(CTX ctx) {
+		//changes are collected and written to the collection in endingSync
+	}
+
+	/**
+	 * Schedules the removal of an older object and the addition of its new version
+	 * 
+	 * @param oldObj object to remove or null
+	 * @param newObj object to add or null
+	 * @return result for the statistics
+	 */
+	private TargetResult replaceObject(T oldObj, T newObj) {
+		boolean oldRemoved = false;
+		if (oldObj!=null) {
+			//remove existing older object
+			m_objectsToRemove.get().add(oldObj);
+			if (isLoggable(Level.FINE))
+				log(Level.FINE, "Removing entry: "+oldObj);
+			oldRemoved=true;
 		}
 		
-		if (add) {
-			T newObj = toObject(oid, summaryBufferData, note);
-			if (newObj!=null) {
-				m_objectsToAdd.get().add(newObj);
-				if (isLoggable(Level.FINE))
-					log(Level.FINE, "Adding entry: "+newObj);
-				return oldRemoved ? TargetResult.Updated : TargetResult.Added;
-			}
-			else {
-				return oldRemoved ? TargetResult.Removed : TargetResult.None;
+		if (newObj!=null) {
+			m_objectsToAdd.get().add(newObj);
+			if (isLoggable(Level.FINE))
+				log(Level.FINE, "Adding entry: "+newObj);
+			
+			int maxPendingObjects = getMaxPendingObjects();
+			if (m_initialSync && !Boolean.TRUE.equals(m_wiped.get()) && maxPendingObjects>0 &&
+					m_objectsToAdd.get().size() >= maxPendingObjects) {
+				//nothing to replace in an empty index, so we can write the objects early
+				commit(m_objectsToRemove.get(), m_objectsToAdd.get());
+				m_objectsToAdd.set(new ArrayList<T>());
+				m_objectsToRemove.set(new ArrayList<T>());
+				m_intermediateCommits++;
 			}
+			return oldRemoved ? TargetResult.Updated : TargetResult.Added;
 		}
 		else {
-			return TargetResult.None;
+			return oldRemoved ? TargetResult.Removed : TargetResult.None;
 		}
 	}
 
 	/**
 	 * Implement this method to convert summary buffer or {@link NotesNote} data
-	 * to an index object.
+	 * to an index object. In the pipelined sync mode, the method is called concurrently
+	 * from worker threads, so it must not modify shared state.
 	 * 
 	 * @param oid originator id of Domino data
 	 * @param summaryBufferData summary buffer if {@link #getWhichDataToRead()} returned {@link DataToRead#SummaryBufferAllItems} or {@link DataToRead#SummaryBufferSelectedItems}, null otherwise
@@ -304,13 +392,22 @@ public abstract class AbstractCQEngineSyncTarget<T extends BaseIndexObject, CTX>
 
 	@Override
 	public void abort(Object ctx, Throwable t) {
-		m_objectsToAdd.set(null);
-		m_objectsToRemove.set(null);
-		m_wiped.set(null);
-		
-		log(Level.SEVERE, "Sync error occurred in CQEngine sync target.", t);
-		
-		m_indexLock.unlock();
+		try {
+			log(Level.SEVERE, "Sync error occurred in CQEngine sync target.", t);
+			
+			if (m_intermediateCommits>0) {
+				//discard the partial initial sync, so that the next sync starts from scratch
+				m_indexCollection.clear();
+			}
+		}
+		finally {
+			m_objectsToAdd.set(null);
+			m_objectsToRemove.set(null);
+			m_wiped.set(null);
+			m_intermediateCommits = 0;
+			
+			m_indexLock.unlock();
+		}
 	}
 
 	/**
@@ -327,22 +424,58 @@ public abstract class AbstractCQEngineSyncTarget<T extends BaseIndexObject, CTX>
 	public void endingSync(Object ctx, String selectionFormulaForNextSync, String dbInstanceId,
 			NotesTimeDate startingDateForNextSync) {
 		
-		setLastSyncSelectionFormula(selectionFormulaForNextSync);
-		setLastSyncEndDate(dbInstanceId, startingDateForNextSync);
-		
-		if (Boolean.TRUE.equals(m_wiped.get())) {
-			m_indexCollection.clear();
+		try {
+			List<T> objectsToRemove = m_objectsToRemove.get();
+			List<T> objectsToAdd = m_objectsToAdd.get();
+			if (Boolean.TRUE.equals(m_wiped.get())) {
+				commitReplacingAll(objectsToAdd);
+			}
+			else if (!objectsToRemove.isEmpty() || !objectsToAdd.isEmpty()) {
+				commit(objectsToRemove, objectsToAdd);
+			}
+			
+			setLastSyncSelectionFormula(selectionFormulaForNextSync);
+			setLastSyncEndDate(dbInstanceId, startingDateForNextSync);
+			m_initialSync = false;
+			
+			log(Level.FINE, "Sync done in CQEngine sync target");
 		}
-		m_indexCollection.update(m_objectsToRemove.get(), m_objectsToAdd.get());
+		finally {
+			m_objectsToAdd.set(null);
+			m_objectsToRemove.set(null);
+			m_wiped.set(null);
+			m_intermediateCommits = 0;
+			
+			m_indexLock.unlock();
+		}
+	}
 
-		m_objectsToAdd.set(null);
-		m_objectsToRemove.set(null);
-		m_wiped.set(null);
-		m_initialSync = false;
-		
-		log(Level.FINE, "Sync done in CQEngine sync target");
-		
-		m_indexLock.unlock();
+	/**
+	 * Writes collected changes into the index collection, called in {@link #endingSync(Object, String, String, NotesTimeDate)}
+	 * and for the intermediate commits of the initial sync (see {@link #getMaxPendingObjects()})
+	 * 
+	 * @param objectsToRemove objects to remove
+	 * @param objectsToAdd objects to add
+	 */
+	protected void commit(List<T> objectsToRemove, List<T> objectsToAdd) {
+		m_indexCollection.update(objectsToRemove, objectsToAdd);
+	}
+
+	/**
+	 * Replaces the whole content of the index collection after the sync target has been
+	 * cleared, called in {@link #endingSync(Object, String, String, NotesTimeDate)}.<br>
+	 * <br>
+	 * The default implementation clears the collection and then calls {@link #commit(List, List)},
+	 * so queries running in between see an empty index. Subclasses with a transactional collection
+	 * override this method to publish the new content in one step.
+	 * 
+	 * @param objectsToAdd new content of the index
+	 */
+	protected void commitReplacingAll(List<T> objectsToAdd) {
+		m_indexCollection.clear();
+		if (!objectsToAdd.isEmpty()) {
+			commit(Collections.<T>emptyList(), objectsToAdd);
+		}
 	}
 
 	/**
@@ -0,0 +1,281 @@
+package com.mindoo.domino.jna.indexing.cqengine;
+
+import static com.googlecode.cqengine.query.QueryFactory.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Level;
+
+import com.googlecode.cqengine.IndexedCollection;
+import com.googlecode.cqengine.TransactionalIndexedCollection;
+import com.googlecode.cqengine.attribute.Attribute;
+import com.googlecode.cqengine.attribute.SimpleAttribute;
+import com.googlecode.cqengine.index.Index;
+import com.googlecode.cqengine.index.disk.DiskIndex;
+import com.googlecode.cqengine.index.offheap.OffHeapIndex;
+import com.googlecode.cqengine.persistence.Persistence;
+import com.googlecode.cqengine.persistence.disk.DiskPersistence;
+import com.googlecode.cqengine.persistence.offheap.OffHeapPersistence;
+import com.googlecode.cqengine.query.Query;
+import com.googlecode.cqengine.query.option.QueryOptions;
+import com.googlecode.cqengine.resultset.ResultSet;
+import com.mindoo.domino.jna.NotesTimeDate;
+import com.mindoo.domino.jna.sync.NotesOriginatorIdData;
+
+/**
+ * Alternative to {@link AbstractCQEngineSyncTarget} for large indexes that stores the
+ * index objects outside of the Java heap, either in CQEngine's off-heap persistence or
+ * in a disk file.<br>
+ * <br>
+ * The objects are stored in a {@link TransactionalIndexedCollection}, so the changes of a sync
+ * run get published atomically in {@link #endingSync(Object, String, String, NotesTimeDate)}
+ * via multi-version concurrency control: {@link #retrieve(Query)} does not wait for a running
+ * commit and sees either the index state before or after the commit, never a mix of both.
+ * The result sets returned by {@link #retrieve(Query)} must be closed after use, because the
+ * commit waits until readers of removed object versions are done and because the persistence
+ * keeps resources open while iterating.<br>
+ * <br>
+ * Index objects need to extend {@link VersionedIndexObject} and must be serializable by CQEngine
+ * (e.g. provide a no-argument constructor or have simple fields). {@link #getStatistics()} returns
+ * the memory footprint of the persistence and the commit latencies.<br>
+ * <br>
+ * The sync logic is inherited from {@link AbstractCQEngineSyncTarget}. Use {@link #retrieve(Query)}
+ * instead of {@link #getContent()} to read the index, because iterating the collection does not
+ * release the resources of the persistence.
+ *
+ * @author Karsten Lehmann
+ * @param <T> data object type
+ * @param <CTX> sync context type
+ */
+public abstract class AbstractPersistentCQEngineSyncTarget<T extends VersionedIndexObject, CTX> extends AbstractCQEngineSyncTarget<T, CTX> {
+	public final SimpleAttribute<T, String> OBJ_VERSIONKEY;
+	public final SimpleAttribute<T, String> OBJ_PERSISTENT_UNID;
+	public final SimpleAttribute<T, Integer> OBJ_PERSISTENT_SEQ;
+
+	private final Class<T> m_objectType;
+	private final File m_file;
+	private final Persistence<T, String> m_persistence;
+
+	//commit statistics, guarded by this
+	private long m_commitCount;
+	private long m_totalCommitDuration;
+	private long m_lastCommitDuration;
+	private long m_maxCommitDuration;
+	private int m_lastCommitAdded;
+	private int m_lastCommitRemoved;
+	private long m_lastCommitEndTime;
+
+	/**
+	 * Creates a new sync target that stores the index objects off-heap
+	 *
+	 * @param objectType class of index objects
+	 */
+	public AbstractPersistentCQEngineSyncTarget(Class<T> objectType) {
+		this(objectType, null);
+	}
+
+	/**
+	 * Creates a new sync target that stores the index objects in a disk file or off-heap
+	 *
+	 * @param objectType class of index objects
+	 * @param file disk file or null to store the objects off-heap
+	 */
+	public AbstractPersistentCQEngineSyncTarget(Class<T> objectType, File file) {
+		this(objectType, file, createPersistence(objectType, file));
+	}
+
+	private AbstractPersistentCQEngineSyncTarget(Class<T> objectType, File file, Persistence<T, String> persistence) {
+		//a disk file may already contain the data of a previous sync
+		super(new TransactionalIndexedCollection<T>(objectType, persistence));
+
+		m_objectType = objectType;
+		m_file = file;
+		m_persistence = persistence;
+
+		OBJ_VERSIONKEY = persistence.getPrimaryKeyAttribute();
+		OBJ_PERSISTENT_UNID = new SimpleAttribute<T, String>(objectType, String.class, "unid") {
+			public String getValue(T obj, QueryOptions queryOptions) {
+				return obj.getUNID();
+			}
+		};
+		OBJ_PERSISTENT_SEQ = new SimpleAttribute<T, Integer>(objectType, Integer.class, "seq") {
+			public Integer getValue(T obj, QueryOptions queryOptions) {
+				return obj.getSequence();
+			}
+		};
+
+		//make sure we have an index for the UNID
+		getIndexCollection().addIndex(createPersistentIndex(OBJ_PERSISTENT_UNID));
+		addIndices(getIndexCollection());
+	}
+
+	private static <T extends VersionedIndexObject> Persistence<T, String> createPersistence(Class<T> objectType, File file) {
+		SimpleAttribute<T, String> versionKeyAttr = new SimpleAttribute<T, String>(objectType, String.class, "versionkey") {
+			public String getValue(T obj, QueryOptions queryOptions) {
+				return obj.getVersionKey();
+			}
+		};
+
+		if (file==null) {
+			return OffHeapPersistence.onPrimaryKey(versionKeyAttr);
+		}
+		else {
+			return DiskPersistence.onPrimaryKeyInFile(versionKeyAttr, file);
+		}
+	}
+
+	/**
+	 * Creates an index on an attribute that is stored in the same way as the index objects,
+	 * either off-heap or in the disk file. Use this method in {@link #addIndices(IndexedCollection)}
+	 * to keep the indexes off the Java heap as well.
+	 *
+	 * @param attribute attribute
+	 * @return index
+	 * @param <A> attribute type
+	 */
+	protected <A extends Comparable<A>> Index<T> createPersistentIndex(Attribute<T, A> attribute) {
+		if (m_file==null) {
+			return OffHeapIndex.onAttribute(attribute);
+		}
+		else {
+			return DiskIndex.onAttribute(attribute);
+		}
+	}
+
+	/**
+	 * Override this method to add your own indices that CQEngine uses
+	 * to process queries fast. The default implementation does nothing, but we
+	 * already add an index for {@link #OBJ_PERSISTENT_UNID} before calling this method.
+	 *
+	 * @param collection collection
+	 */
+	@Override
+	protected void addIndices(IndexedCollection<T> collection) {
+		//
+	}
+
+	/**
+	 * Returns the maximum number of new objects that are kept on the Java heap during
+	 * the initial sync into an empty index. When this number is reached, the objects get
+	 * committed into the persistence, so the initial sync of a large database does not need
+	 * the whole index on the heap. Queries see the partially filled index until the initial
+	 * sync is done. Incremental syncs always commit their changes in one step.
+	 *
+	 * @return number of objects, default is 50000
+	 */
+	@Override
+	protected int getMaxPendingObjects() {
+		return 50000;
+	}
+
+	@Override
+	protected ResultSet<T> retrieveByUnid(String unid) {
+		return getIndexCollection().retrieve(equal(OBJ_PERSISTENT_UNID, unid));
+	}
+
+	@Override
+	public Collection<NotesOriginatorIdData> scanTargetData(Object ctx) {
+		List<NotesOriginatorIdData> oids = new ArrayList<NotesOriginatorIdData>();
+		//close the result set, iterating the collection would keep the persistence resources open
+		ResultSet<T> allObjects = getIndexCollection().retrieve(all(m_objectType));
+		try {
+			for (T currObj : allObjects) {
+				oids.add(new NotesOriginatorIdData(currObj.getUNID(), currObj.getSequence(), currObj.getSequenceTimeInnards()));
+			}
+		}
+		finally {
+			allObjects.close();
+		}
+		return oids;
+	}
+
+	@Override
+	protected void commit(List<T> objectsToRemove, List<T> objectsToAdd) {
+		long t0=System.currentTimeMillis();
+		//publishes all changes at once, readers with open result sets keep seeing the old versions
+		super.commit(objectsToRemove, objectsToAdd);
+		long t1=System.currentTimeMillis();
+
+		long duration = t1-t0;
+		synchronized (this) {
+			m_commitCount++;
+			m_totalCommitDuration += duration;
+			m_lastCommitDuration = duration;
+			m_maxCommitDuration = Math.max(m_maxCommitDuration, duration);
+			m_lastCommitAdded = objectsToAdd.size();
+			m_lastCommitRemoved = objectsToRemove.size();
+			m_lastCommitEndTime = t1;
+		}
+
+		if (isLoggable(Level.FINE))
+			log(Level.FINE, "Committed "+objectsToAdd.size()+" added and "+objectsToRemove.size()+" removed entries in "+duration+"ms");
+	}
+
+	/**
+	 * Replaces the content of the index in a single commit, so that queries see either the
+	 * old or the new content and never an empty index. Objects that did not change keep their
+	 * stored version; all other current objects are loaded to remove them in the same commit.
+	 *
+	 * @param objectsToAdd new content of the index
+	 */
+	@Override
+	protected void commitReplacingAll(List<T> objectsToAdd) {
+		Set<T> newObjects = new LinkedHashSet<T>(objectsToAdd);
+		List<T> objectsToRemove = new ArrayList<T>();
+		ResultSet<T> allObjects = getIndexCollection().retrieve(all(m_objectType));
+		try {
+			for (T currObj : allObjects) {
+				//equal objects have the same UNID and sequence, so they are already up to date
+				if (!newObjects.remove(currObj)) {
+					objectsToRemove.add(currObj);
+				}
+			}
+		}
+		finally {
+			allObjects.close();
+		}
+
+		if (!objectsToRemove.isEmpty() || !newObjects.isEmpty()) {
+			commit(objectsToRemove, new ArrayList<T>(newObjects));
+		}
+	}
+
+	/**
+	 * Returns the memory footprint of the index and statistics about the commit latencies
+	 *
+	 * @return statistics
+	 */
+	public CQEngineIndexStatistics getStatistics() {
+		int objectCount = getIndexCollection().size();
+
+		long bytesUsed;
+		if (m_persistence instanceof OffHeapPersistence) {
+			bytesUsed = ((OffHeapPersistence<T, String>) m_persistence).getBytesUsed();
+		}
+		else if (m_persistence instanceof DiskPersistence) {
+			bytesUsed = ((DiskPersistence<T, String>) m_persistence).getBytesUsed();
+		}
+		else {
+			bytesUsed = -1;
+		}
+
+		synchronized (this) {
+			return new CQEngineIndexStatistics(objectCount, bytesUsed, m_commitCount, m_totalCommitDuration,
+					m_lastCommitDuration, m_maxCommitDuration, m_lastCommitAdded, m_lastCommitRemoved,
+					m_lastCommitEndTime);
+		}
+	}
+
+	/**
+	 * Returns the number of objects in the index
+	 *
+	 * @return count
+	 */
+	public int size() {
+		return getIndexCollection().size();
+	}
+}
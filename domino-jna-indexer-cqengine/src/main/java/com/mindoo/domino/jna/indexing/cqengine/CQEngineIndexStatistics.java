@@ -0,0 +1,130 @@
+package com.mindoo.domino.jna.indexing.cqengine;
+
+/**
+ * Snapshot of the memory footprint and commit statistics of an {@link AbstractPersistentCQEngineSyncTarget}
+ *
+ * @author Karsten Lehmann
+ */
+public class CQEngineIndexStatistics {
+	private final int m_objectCount;
+	private final long m_bytesUsed;
+	private final long m_commitCount;
+	private final long m_totalCommitDurationMillis;
+	private final long m_lastCommitDurationMillis;
+	private final long m_maxCommitDurationMillis;
+	private final int m_lastCommitAdded;
+	private final int m_lastCommitRemoved;
+	private final long m_lastCommitEndTime;
+
+	public CQEngineIndexStatistics(int objectCount, long bytesUsed, long commitCount, long totalCommitDurationMillis,
+			long lastCommitDurationMillis, long maxCommitDurationMillis, int lastCommitAdded, int lastCommitRemoved,
+			long lastCommitEndTime) {
+		m_objectCount = objectCount;
+		m_bytesUsed = bytesUsed;
+		m_commitCount = commitCount;
+		m_totalCommitDurationMillis = totalCommitDurationMillis;
+		m_lastCommitDurationMillis = lastCommitDurationMillis;
+		m_maxCommitDurationMillis = maxCommitDurationMillis;
+		m_lastCommitAdded = lastCommitAdded;
+		m_lastCommitRemoved = lastCommitRemoved;
+		m_lastCommitEndTime = lastCommitEndTime;
+	}
+
+	/**
+	 * Returns the number of objects in the index
+	 *
+	 * @return count
+	 */
+	public int getObjectCount() {
+		return m_objectCount;
+	}
+
+	/**
+	 * Returns the number of bytes used by the off-heap or disk persistence
+	 *
+	 * @return bytes
+	 */
+	public long getBytesUsed() {
+		return m_bytesUsed;
+	}
+
+	/**
+	 * Returns the number of commits, including intermediate commits of an initial sync
+	 *
+	 * @return count
+	 */
+	public long getCommitCount() {
+		return m_commitCount;
+	}
+
+	/**
+	 * Returns the sum of all commit durations
+	 *
+	 * @return duration in milliseconds
+	 */
+	public long getTotalCommitDurationMillis() {
+		return m_totalCommitDurationMillis;
+	}
+
+	/**
+	 * Returns the average commit duration
+	 *
+	 * @return duration in milliseconds, 0 if there have not been any commits yet
+	 */
+	public double getAverageCommitDurationMillis() {
+		return m_commitCount==0 ? 0 : (double) m_totalCommitDurationMillis / m_commitCount;
+	}
+
+	/**
+	 * Returns the duration of the last commit
+	 *
+	 * @return duration in milliseconds
+	 */
+	public long getLastCommitDurationMillis() {
+		return m_lastCommitDurationMillis;
+	}
+
+	/**
+	 * Returns the duration of the slowest commit
+	 *
+	 * @return duration in milliseconds
+	 */
+	public long getMaxCommitDurationMillis() {
+		return m_maxCommitDurationMillis;
+	}
+
+	/**
+	 * Returns the number of objects added in the last commit
+	 *
+	 * @return count
+	 */
+	public int getLastCommitAdded() {
+		return m_lastCommitAdded;
+	}
+
+	/**
+	 * Returns the number of objects removed in the last commit
+	 *
+	 * @return count
+	 */
+	public int getLastCommitRemoved() {
+		return m_lastCommitRemoved;
+	}
+
+	/**
+	 * Returns the time when the last commit finished
+	 *
+	 * @return time in milliseconds since 1970, 0 if there have not been any commits yet
+	 */
+	public long getLastCommitEndTime() {
+		return m_lastCommitEndTime;
+	}
+
+	@Override
+	public String toString() {
+		return "CQEngineIndexStatistics [objects="+m_objectCount+", bytesUsed="+m_bytesUsed+
+				", commits="+m_commitCount+", avgCommitMillis="+getAverageCommitDurationMillis()+
+				", lastCommitMillis="+m_lastCommitDurationMillis+", maxCommitMillis="+m_maxCommitDurationMillis+
+				", lastCommitAdded="+m_lastCommitAdded+", lastCommitRemoved="+m_lastCommitRemoved+"]";
+	}
+}
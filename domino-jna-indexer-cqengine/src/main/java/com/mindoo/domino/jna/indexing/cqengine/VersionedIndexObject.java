@@ -0,0 +1,72 @@
+package com.mindoo.domino.jna.indexing.cqengine;
+
+import java.util.Arrays;
+
+/**
+ * Base class for objects that we store in an {@link AbstractPersistentCQEngineSyncTarget}.<br>
+ * <br>
+ * Objects in off-heap or disk persistence get serialized, so two instances read from the
+ * collection are never identical. This class implements {@link #equals(Object)} and
+ * {@link #hashCode()} based on the UNID, sequence number and sequence time, which is what
+ * CQEngine's MVCC needs to tell apart the old and new version of a document during a commit.
+ *
+ * @author Karsten Lehmann
+ */
+public class VersionedIndexObject extends BaseIndexObject {
+
+	public VersionedIndexObject(String unid, int sequence, int[] sequenceTimeInnards) {
+		super(unid, sequence, sequenceTimeInnards);
+	}
+
+	/**
+	 * Returns a key that is unique for this version of the document, used as primary key
+	 * of the persistence
+	 *
+	 * @return key in the format "UNID/seq/innard0/innard1"
+	 */
+	public String getVersionKey() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(getUNID()).append('/').append(getSequence());
+		int[] innards = getSequenceTimeInnards();
+		if (innards!=null) {
+			for (int currInnard : innards) {
+				sb.append('/').append(Integer.toHexString(currInnard));
+			}
+		}
+		return sb.toString();
+	}
+
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = 1;
+		result = prime * result + getSequence();
+		result = prime * result + Arrays.hashCode(getSequenceTimeInnards());
+		result = prime * result + ((getUNID() == null) ? 0 : getUNID().hashCode());
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null)
+			return false;
+		if (getClass() != obj.getClass())
+			return false;
+
+		VersionedIndexObject other = (VersionedIndexObject) obj;
+		if (getSequence() != other.getSequence())
+			return false;
+		if (!Arrays.equals(getSequenceTimeInnards(), other.getSequenceTimeInnards()))
+			return false;
+
+		if (getUNID() == null) {
+			if (other.getUNID() != null)
+				return false;
+		} else if (!getUNID().equals(other.getUNID()))
+			return false;
+
+		return true;
+	}
+}
@@ -0,0 +1,226 @@
+package com.mindoo.domino.jna.indexing.cqengine.test;
+
+import static com.googlecode.cqengine.query.QueryFactory.*;
+
+import java.io.File;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.googlecode.cqengine.resultset.ResultSet;
+import com.mindoo.domino.jna.IItemTableData;
+import com.mindoo.domino.jna.NotesDatabase;
+import com.mindoo.domino.jna.NotesDatabase.SearchCallback;
+import com.mindoo.domino.jna.NotesNote;
+import com.mindoo.domino.jna.NotesSearch.ISearchMatch;
+import com.mindoo.domino.jna.constants.NoteClass;
+import com.mindoo.domino.jna.constants.Search;
+import com.mindoo.domino.jna.gc.NotesGC;
+import com.mindoo.domino.jna.indexing.cqengine.AbstractPersistentCQEngineSyncTarget;
+import com.mindoo.domino.jna.indexing.cqengine.CQEngineIndexStatistics;
+import com.mindoo.domino.jna.indexing.cqengine.VersionedIndexObject;
+import com.mindoo.domino.jna.sync.NotesOriginatorIdData;
+import com.mindoo.domino.jna.sync.SyncResult;
+import com.mindoo.domino.jna.sync.SyncUtil;
+
+import junit.framework.Assert;
+import lotus.domino.Session;
+
+/**
+ * Tests cases for syncing data into {@link AbstractPersistentCQEngineSyncTarget} with
+ * off-heap and disk persistence
+ *
+ * @author Karsten Lehmann
+ */
+public class TestPersistentSync extends BaseJNATestClass {
+	/** small value to produce intermediate commits in the initial sync */
+	private static final int MAX_PENDING_OBJECTS = 100;
+
+	public static class PersistentPerson extends VersionedIndexObject {
+		private String m_lastName;
+		private String m_firstName;
+
+		public PersistentPerson(String unid, int sequence, int[] seqTimeInnards, String lastName, String firstName) {
+			super(unid, sequence, seqTimeInnards);
+			m_lastName = lastName;
+			m_firstName = firstName;
+		}
+
+		public String getLastName() {
+			return m_lastName;
+		}
+
+		public String getFirstName() {
+			return m_firstName;
+		}
+	}
+
+	private static class PersistentPersonSyncTarget extends AbstractPersistentCQEngineSyncTarget<PersistentPerson, Object> {
+
+		public PersistentPersonSyncTarget(File file) {
+			super(PersistentPerson.class, file);
+		}
+
+		@Override
+		protected int getMaxPendingObjects() {
+			return MAX_PENDING_OBJECTS;
+		}
+
+		@Override
+		public Map<String, String> getSummaryBufferItemsAndFormulas() {
+			Map<String,String> map = new LinkedHashMap<String,String>();
+			map.put("lastname", "");
+			map.put("firstname", "");
+			return map;
+		}
+
+		@Override
+		public EnumSet<DataToRead> getWhichDataToRead() {
+			return EnumSet.of(DataToRead.SummaryBufferSelectedItems);
+		}
+
+		@Override
+		protected PersistentPerson toObject(NotesOriginatorIdData oid, IItemTableData summaryBufferData, NotesNote note) {
+			return new PersistentPerson(oid.getUNID(), oid.getSequence(), oid.getSequenceTimeInnards(),
+					summaryBufferData.getAsString("Lastname", ""), summaryBufferData.getAsString("Firstname", ""));
+		}
+	}
+
+	private static Set<String> searchUnids(NotesDatabase db, String selectionFormula) {
+		final Set<String> unids = new HashSet<String>();
+		db.search(selectionFormula, "", EnumSet.of(Search.SESSION_USERNAME), EnumSet.of(NoteClass.DATA),
+				null, new SearchCallback() {
+
+			@Override
+			public Action noteFound(NotesDatabase parentDb, ISearchMatch searchMatch, IItemTableData summaryBufferData) {
+				unids.add(searchMatch.getUNID());
+				return Action.Continue;
+			}
+		});
+		return unids;
+	}
+
+	private static Set<String> getUnidsInIndex(PersistentPersonSyncTarget target) {
+		Set<String> unids = new HashSet<String>();
+		ResultSet<PersistentPerson> allObjects = target.retrieve(all(PersistentPerson.class));
+		try {
+			for (PersistentPerson currPerson : allObjects) {
+				Assert.assertTrue("UNID "+currPerson.getUNID()+" is unique in index", unids.add(currPerson.getUNID()));
+			}
+		}
+		finally {
+			allObjects.close();
+		}
+		return unids;
+	}
+
+	private void runSyncRoundtrip(NotesDatabase db, File file) {
+		PersistentPersonSyncTarget target = new PersistentPersonSyncTarget(file);
+		Assert.assertFalse("Initial sync not done yet", target.isInitialSyncDone());
+		Assert.assertEquals("Target is empty before first sync", 0, target.size());
+
+		String selectionFormula = "Form=\"Person\"";
+		Set<String> unidsOfAllPersons = searchUnids(db, selectionFormula);
+		Assert.assertTrue("Selection contains more data than the pending objects limit", unidsOfAllPersons.size() > MAX_PENDING_OBJECTS);
+
+		{
+			SyncResult result = SyncUtil.sync(db, selectionFormula, target);
+			Assert.assertEquals("All persons added", unidsOfAllPersons.size(), result.getAddedToTarget());
+			Assert.assertTrue("Initial sync done", target.isInitialSyncDone());
+			Assert.assertEquals("Target contains the expected UNIDs", unidsOfAllPersons, getUnidsInIndex(target));
+
+			CQEngineIndexStatistics stats = target.getStatistics();
+			Assert.assertEquals("Object count", unidsOfAllPersons.size(), stats.getObjectCount());
+			Assert.assertTrue("Intermediate commits in initial sync: "+stats, stats.getCommitCount() > 1);
+			Assert.assertTrue("Persistence uses memory or disk space: "+stats, stats.getBytesUsed() > 0);
+		}
+
+		{
+			//change one document and run an incremental sync
+			String unidToChange = unidsOfAllPersons.iterator().next();
+			NotesNote note = db.openNoteByUnid(unidToChange);
+			note.replaceItemValue("xyz", "123");
+			note.update();
+			int newSequence = note.getOID().getSequence();
+			note.recycle();
+
+			long commitsBefore = target.getStatistics().getCommitCount();
+			SyncResult result = SyncUtil.sync(db, selectionFormula, target);
+			Assert.assertEquals("Nothing got added", 0, result.getAddedToTarget());
+			Assert.assertEquals("One note got updated", 1, result.getUpdatedInTarget());
+			Assert.assertEquals("Nothing got removed", 0, result.getRemovedFromTarget());
+
+			CQEngineIndexStatistics stats = target.getStatistics();
+			Assert.assertEquals("Incremental sync commits once", commitsBefore+1, stats.getCommitCount());
+			Assert.assertEquals("Old version removed", 1, stats.getLastCommitRemoved());
+			Assert.assertEquals("New version added", 1, stats.getLastCommitAdded());
+			Assert.assertEquals("Object count unchanged", unidsOfAllPersons.size(), target.size());
+
+			ResultSet<PersistentPerson> changedPersons = target.retrieve(equal(target.OBJ_PERSISTENT_UNID, unidToChange));
+			try {
+				Assert.assertEquals("One version of the changed person", 1, changedPersons.size());
+				Assert.assertEquals("New sequence number", newSequence, changedPersons.uniqueResult().getSequence());
+			}
+			finally {
+				changedPersons.close();
+			}
+		}
+
+		{
+			//changed formula, removes all persons not matching it
+			selectionFormula = "Form=\"Person\" & @Begins(Lastname;\"L\")";
+			Set<String> unidsOfLPersons = searchUnids(db, selectionFormula);
+			Assert.assertFalse("Selection contains any data", unidsOfLPersons.isEmpty());
+
+			SyncResult result = SyncUtil.sync(db, selectionFormula, target);
+			Assert.assertEquals("Persons not matching the formula got removed", unidsOfAllPersons.size() - unidsOfLPersons.size(),
+					result.getRemovedFromTarget());
+			Assert.assertEquals("Index contains the expected UNIDs", unidsOfLPersons, getUnidsInIndex(target));
+		}
+
+		if (file!=null) {
+			//the disk file keeps the data for a new target instance
+			PersistentPersonSyncTarget reopenedTarget = new PersistentPersonSyncTarget(file);
+			Assert.assertTrue("Data of previous sync found", reopenedTarget.isInitialSyncDone());
+			Assert.assertEquals("Reopened index contains the same UNIDs", getUnidsInIndex(target), getUnidsInIndex(reopenedTarget));
+		}
+	}
+
+	@Test
+	public void testPersistentSync_offHeap() {
+		runWithSession(new IDominoCallable<Object>() {
+
+			@Override
+			public Object call(Session session) throws Exception {
+				NotesGC.setDebugLoggingEnabled(false);
+				runSyncRoundtrip(getFakeNamesDb(), null);
+				return null;
+			}
+		});
+	}
+
+	@Test
+	public void testPersistentSync_disk() {
+		runWithSession(new IDominoCallable<Object>() {
+
+			@Override
+			public Object call(Session session) throws Exception {
+				NotesGC.setDebugLoggingEnabled(false);
+				File file = File.createTempFile("dominojna-cqengine", ".db");
+				try {
+					runSyncRoundtrip(getFakeNamesDb(), file);
+				}
+				finally {
+					if (!file.delete()) {
+						file.deleteOnExit();
+					}
+				}
+				return null;
+			}
+		});
+	}
+}
@@ -2,7 +2,10 @@ package com.mindoo.domino.jna.indexing.cqengine.test;
 
 import java.util.EnumSet;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 
 import org.junit.Test;
@@ -16,6 +19,8 @@ import com.mindoo.domino.jna.NotesTimeDate;
 import com.mindoo.domino.jna.constants.NoteClass;
 import com.mindoo.domino.jna.constants.Search;
 import com.mindoo.domino.jna.gc.NotesGC;
+import com.mindoo.domino.jna.sync.NotesOriginatorIdData;
+import com.mindoo.domino.jna.sync.SyncPipelineSettings;
 import com.mindoo.domino.jna.sync.SyncResult;
 import com.mindoo.domino.jna.sync.SyncUtil;
 
@@ -232,4 +237,150 @@ public class TestSync extends BaseJNATestClass {
 		});
 	
 	}
+
+	/**
+	 * Returns the content of the target as map of UNID and person data, because the
+	 * order of the objects written by the pipelined sync is not defined
+	 * 
+	 * @param target target
+	 * @return content
+	 */
+	private static Map<String,String> getPersonData(PersonSyncTarget target) {
+		Map<String,String> data = new TreeMap<String,String>();
+		for (Person currPerson : target.getContent()) {
+			data.put(currPerson.getUNID(), currPerson.getSequence()+"|"+currPerson.getCompanyName()+"|"+
+					currPerson.getFullName()+"|"+currPerson.getLastName()+"|"+currPerson.getFirstName());
+		}
+		return data;
+	}
+	
+	private static void assertSameResult(String msg, SyncResult expected, SyncResult actual) {
+		Assert.assertEquals(msg+": added", expected.getAddedToTarget(), actual.getAddedToTarget());
+		Assert.assertEquals(msg+": updated", expected.getUpdatedInTarget(), actual.getUpdatedInTarget());
+		Assert.assertEquals(msg+": removed", expected.getRemovedFromTarget(), actual.getRemovedFromTarget());
+		Assert.assertEquals(msg+": matching formula", expected.getNoteCountMatchingFormula(), actual.getNoteCountMatchingFormula());
+		Assert.assertEquals(msg+": not matching formula", expected.getNoteCountNotMatchingFormula(), actual.getNoteCountNotMatchingFormula());
+		Assert.assertEquals(msg+": deleted", expected.getNoteCountDeleted(), actual.getNoteCountDeleted());
+	}
+	
+	@Test
+	public void testSyncUtil_pipelined() {
+		runWithSession(new IDominoCallable<Object>() {
+
+			@Override
+			public Object call(Session session) throws Exception {
+				NotesGC.setDebugLoggingEnabled(false);
+				NotesDatabase db = getFakeNamesDb();
+				
+				//small queues and batches to let the stages block each other
+				SyncPipelineSettings pipelineSettings = new SyncPipelineSettings(4, 50, 20);
+				
+				PersonSyncTarget sequentialTarget = new PersonSyncTarget();
+				PersonSyncTarget pipelinedTarget = new PersonSyncTarget();
+				
+				String selectionFormula = "Form=\"Person\"";
+				{
+					SyncResult sequentialResult = SyncUtil.sync(db, selectionFormula, sequentialTarget);
+					SyncResult pipelinedResult = SyncUtil.sync(db, selectionFormula, pipelinedTarget, null, pipelineSettings);
+					
+					Assert.assertTrue("Entries have been added to the target", pipelinedResult.getAddedToTarget() > 0);
+					assertSameResult("Initial sync", sequentialResult, pipelinedResult);
+					Assert.assertEquals("Initial sync produces the same content", getPersonData(sequentialTarget), getPersonData(pipelinedTarget));
+				}
+				
+				{
+					//change one document and run an incremental sync
+					String unidToChange = sequentialTarget.getContent().iterator().next().getUNID();
+					NotesNote note = db.openNoteByUnid(unidToChange);
+					note.replaceItemValue("xyz", "123");
+					note.update();
+					note.recycle();
+					
+					SyncResult sequentialResult = SyncUtil.sync(db, selectionFormula, sequentialTarget);
+					SyncResult pipelinedResult = SyncUtil.sync(db, selectionFormula, pipelinedTarget, null, pipelineSettings);
+					
+					Assert.assertEquals("One note got updated", 1, pipelinedResult.getUpdatedInTarget());
+					assertSameResult("Incremental sync", sequentialResult, pipelinedResult);
+					Assert.assertEquals("Incremental sync produces the same content", getPersonData(sequentialTarget), getPersonData(pipelinedTarget));
+				}
+				
+				{
+					//changed formula, removes all persons not matching it
+					selectionFormula = "Form=\"Person\" & @Begins(Lastname;\"L\")";
+					
+					SyncResult sequentialResult = SyncUtil.sync(db, selectionFormula, sequentialTarget);
+					SyncResult pipelinedResult = SyncUtil.sync(db, selectionFormula, pipelinedTarget, null, pipelineSettings);
+					
+					Assert.assertTrue("Entries have been removed", pipelinedResult.getRemovedFromTarget() > 0);
+					assertSameResult("Sync with changed formula", sequentialResult, pipelinedResult);
+					Assert.assertEquals("Sync with changed formula produces the same content", getPersonData(sequentialTarget), getPersonData(pipelinedTarget));
+				}
+				return null;
+			}
+		});
+	}
+	
+	@Test
+	public void testSyncUtil_pipelinedWorkerError() {
+		runWithSession(new IDominoCallable<Object>() {
+
+			@Override
+			public Object call(Session session) throws Exception {
+				NotesGC.setDebugLoggingEnabled(false);
+				NotesDatabase db = getFakeNamesDb();
+				
+				final String errorMsg = "Conversion error thrown by worker thread";
+				final boolean[] failConversion = new boolean[] {true};
+				
+				PersonSyncTarget target = new PersonSyncTarget() {
+					private AtomicInteger m_converted = new AtomicInteger();
+					
+					@Override
+					public boolean isLoggable(Level level) {
+						//the sync logs the expected error
+						return false;
+					}
+					
+					@Override
+					protected Person toObject(NotesOriginatorIdData oid, IItemTableData summaryBufferData, NotesNote note) {
+						if (failConversion[0] && m_converted.incrementAndGet() > 100) {
+							throw new IllegalStateException(errorMsg);
+						}
+						return super.toObject(oid, summaryBufferData, note);
+					}
+				};
+				
+				String selectionFormula = "Form=\"Person\"";
+				SyncPipelineSettings pipelineSettings = new SyncPipelineSettings(4, 50, 20);
+				
+				Throwable error = null;
+				try {
+					SyncUtil.sync(db, selectionFormula, target, null, pipelineSettings);
+				}
+				catch (Throwable t) {
+					error = t;
+				}
+				Assert.assertNotNull("Worker error has been propagated", error);
+				
+				boolean errorFound = false;
+				for (Throwable currError = error; currError!=null; currError = currError.getCause()) {
+					if (errorMsg.equals(currError.getMessage())) {
+						errorFound = true;
+						break;
+					}
+				}
+				Assert.assertTrue("Cause is the error of the worker", errorFound);
+				Assert.assertFalse("Sync has been aborted", target.isInitialSyncDone());
+				Assert.assertTrue("Nothing has been written", target.getContent().isEmpty());
+				
+				//the aborted sync must not block the next one
+				failConversion[0] = false;
+				PersonSyncTarget sequentialTarget = new PersonSyncTarget();
+				SyncUtil.sync(db, selectionFormula, sequentialTarget);
+				SyncUtil.sync(db, selectionFormula, target, null, pipelineSettings);
+				Assert.assertEquals("Sync after error produces the same content", getPersonData(sequentialTarget), getPersonData(target));
+				return null;
+			}
+		});
+	}
 }
@@ -13,34 +13,52 @@ import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Collections;
 import java.util.EnumSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.logging.Level;
 
 import javax.sql.DataSource;
 
 import org.flywaydb.core.Flyway;
 import org.flywaydb.core.api.MigrationVersion;
-import org.json.JSONArray;
 
 import com.mindoo.domino.jna.IItemTableData;
 import com.mindoo.domino.jna.NotesIDTable;
 import com.mindoo.domino.jna.NotesNote;
 import com.mindoo.domino.jna.NotesTimeDate;
+import com.mindoo.domino.jna.sync.IConvertingSyncTarget;
 import com.mindoo.domino.jna.sync.ISyncTarget;
 import com.mindoo.domino.jna.sync.NotesOriginatorIdData;
 import com.mindoo.domino.jna.utils.NotesDateTimeUtils;
 
 /**
- * Abstract sync target class to sync Domino data into a SQL database
+ * Abstract sync target class to sync Domino data into a SQL database.<br>
+ * <br>
+ * In the pipelined sync mode, the document rows are computed in {@link #convertNote(NotesOriginatorIdData, IItemTableData, NotesNote)}
+ * by multiple worker threads, so overridden methods like {@link #getReaders(NotesOriginatorIdData, IItemTableData, NotesNote)},
+ * {@link #writeJson(JsonWriter, NotesOriginatorIdData, IItemTableData, NotesNote)} or
+ * {@link #getCustomBinaryData(NotesOriginatorIdData, IItemTableData, NotesNote)} need to be thread-safe.
  * 
  * @author Karsten Lehmann
  */
-public abstract class AbstractSQLSyncTarget implements ISyncTarget<AbstractSQLSyncTarget.SyncContext> {
+public abstract class AbstractSQLSyncTarget implements IConvertingSyncTarget<AbstractSQLSyncTarget.SyncContext, AbstractSQLSyncTarget.DocumentRow> {
 	private static final String SQL_FLUSH_LASTSYNCDATA = "DELETE FROM syncdatainfo;";
 	private static final String SQL_FLUSH_DOCS = "DELETE FROM docs;";
+	private static final String SQL_FLUSH_DOCREADERS = "DELETE FROM docreaders;";
+	private static final String SQL_FLUSH_SYNCHISTORY = "DELETE FROM synchistory;";
+	private static final String SQL_FIND_ANY_DOC = "SELECT 1 FROM docs LIMIT 1;";
 	private String m_jdbcUrl;
 	private Connection m_conn;
+	/** one writer per thread, because {@link #convertNote(NotesOriginatorIdData, IItemTableData, NotesNote)} runs concurrently in pipelined mode */
+	private final ThreadLocal<JsonWriter> m_jsonWriter = new ThreadLocal<JsonWriter>() {
+		@Override
+		protected JsonWriter initialValue() {
+			return new JsonWriter(1024);
+		}
+	};
+
 
 	private static final String SQL_REMOVE_DOC_BY_UNID = "DELETE from docs where __unid = ?";
 	private static final String SQL_INSERT_DOMINODOC = "INSERT INTO docs ("
@@ -115,6 +133,31 @@ public abstract class AbstractSQLSyncTarget implements ISyncTarget<AbstractSQLSy
 			+ "newcutoffdate_innard1 "
 			+ "FROM synchistory WHERE dbinstanceid=? LIMIT 1;";
 	
+	/**
+	 * Column values and readers of a document row, computed by
+	 * {@link AbstractSQLSyncTarget#convertNote(NotesOriginatorIdData, IItemTableData, NotesNote)}
+	 * 
+	 * @author Karsten Lehmann
+	 */
+	public static class DocumentRow {
+		private final Object[] m_values;
+		private final List<String> m_readers;
+		
+		private DocumentRow(Object[] values, List<String> readers) {
+			m_values = values;
+			m_readers = readers;
+		}
+		
+		/**
+		 * Returns the readers of the document
+		 * 
+		 * @return readers converted to lowercase or null if there are no restrictions
+		 */
+		public List<String> getReaders() {
+			return m_readers;
+		}
+	}
+	
 	/**
 	 * Context class that captures all relevant data for a single sync run
 	 * 
@@ -135,6 +178,13 @@ public abstract class AbstractSQLSyncTarget implements ISyncTarget<AbstractSQLSy
 		private PreparedStatement m_stmtUpdateDominoDoc;
 		private PreparedStatement m_stmtDeleteAllDominoDocReaders;
 		
+		//state of initial load mode
+		private boolean m_initialLoad;
+		private InitialLoadWriter m_initialLoadWriter;
+		private long m_initialLoadUncommittedBytes;
+		private long m_initialLoadLastCommit;
+		private int m_initialLoadCommits;
+		
 		public SyncContext(ISyncTarget<AbstractSQLSyncTarget.SyncContext> target) {
 			this.target = target;
 		}
@@ -202,9 +252,32 @@ public abstract class AbstractSQLSyncTarget implements ISyncTarget<AbstractSQLSy
 				}
 				m_stmtDeleteAllDominoDocReaders = null;
 			}
+			
+			closeInitialLoadWriter();
 			this.target = null;
 		}
 		
+		private void closeInitialLoadWriter() {
+			if (m_initialLoadWriter!=null) {
+				try {
+					m_initialLoadWriter.close();
+				} catch (SQLException e1) {
+					target.log(Level.SEVERE, "Error closing initial load writer", e1);
+				}
+				m_initialLoadWriter = null;
+			}
+		}
+		
+		/**
+		 * Returns whether this sync run writes into an empty database in initial load mode,
+		 * see {@link AbstractSQLSyncTarget#isInitialLoadModeEnabled()}
+		 * 
+		 * @return true for initial load
+		 */
+		public boolean isInitialLoad() {
+			return m_initialLoad;
+		}
+		
 		public String getDbId() {
 			return dbId;
 		}
@@ -604,6 +677,14 @@ public abstract class AbstractSQLSyncTarget implements ISyncTarget<AbstractSQLSy
 		} catch (SQLException e) {
 			throw new SqlSyncException("Error starting new sync transaction", e);
 		}
+		
+		if (isInitialLoadModeEnabled() && isDocsTableEmpty()) {
+			beginInitialLoad(ctx);
+		}
+		else {
+			//make sure that indexes exist, e.g. if an earlier initial load has been interrupted
+			createDeferredIndexes();
+		}
 		return ctx;
 	}
 
@@ -612,8 +693,9 @@ public abstract class AbstractSQLSyncTarget implements ISyncTarget<AbstractSQLSy
 		try {
 			stmt = getConnection().createStatement();
 			stmt.executeUpdate(SQL_FLUSH_DOCS);
+			stmt.executeUpdate(SQL_FLUSH_DOCREADERS);
 		} catch (SQLException e) {
-			throw new SqlSyncException("Error deleting content of table docs", e);
+			throw new SqlSyncException("Error deleting content of tables docs and docreaders", e);
 		}
 		finally {
 			if (stmt!=null) {
@@ -624,6 +706,256 @@ public abstract class AbstractSQLSyncTarget implements ISyncTarget<AbstractSQLSy
 				}
 			}
 		}
+		
+		if (isInitialLoadModeEnabled() && !ctx.isInitialLoad()) {
+			beginInitialLoad(ctx);
+		}
+	}
+
+	/**
+	 * Override this method to disable the initial load mode. The mode is used when
+	 * the table docs is empty at the beginning of a sync run or after {@link #clear(SyncContext)}.
+	 * In initial load mode, we skip the lookup of existing documents, write documents
+	 * and readers with multi-row inserts (see {@link #getInitialLoadMaxStatementBytes()} and
+	 * {@link #getMaxStatementParameters()}), drop the indexes returned by {@link #getDeferredIndexes()}
+	 * and recreate them when the sync run is done, which is much faster than updating them
+	 * for every row.<br>
+	 * <br>
+	 * The data is committed in between based on {@link #getInitialLoadCommitBytes()} and
+	 * {@link #getInitialLoadCommitIntervalMillis()}. When doing that the first time, all sync
+	 * history entries get removed, so that the next sync run compares the content of
+	 * the database with the NSF if the current run gets aborted.
+	 * 
+	 * @return true to use initial load mode (default)
+	 */
+	protected boolean isInitialLoadModeEnabled() {
+		return true;
+	}
+
+	/**
+	 * Returns the secondary indexes that are dropped before an initial load and
+	 * recreated when the initial load is done. Override this method to add app specific indexes
+	 * on table docs or docreaders.
+	 * 
+	 * @return map with index name as key and the SQL statement to create the index as value; the statement should not fail if the index already exists
+	 */
+	protected Map<String,String> getDeferredIndexes() {
+		Map<String,String> indexes = new LinkedHashMap<String,String>();
+		indexes.put("docs_unid", "CREATE INDEX IF NOT EXISTS docs_unid ON docs (__unid);");
+		indexes.put("docs_form", "CREATE INDEX IF NOT EXISTS docs_form ON docs (__form);");
+		indexes.put("docreaders_unid", "CREATE INDEX IF NOT EXISTS docreaders_unid ON docreaders (__unid);");
+		indexes.put("docreaders_reader", "CREATE INDEX IF NOT EXISTS docreaders_reader ON docreaders (__reader);");
+		return indexes;
+	}
+
+	/**
+	 * Returns the SQL statement to drop an index returned by {@link #getDeferredIndexes()}
+	 * 
+	 * @param indexName index name
+	 * @return SQL statement
+	 */
+	protected String getDropIndexStatement(String indexName) {
+		return "DROP INDEX IF EXISTS "+indexName+";";
+	}
+
+	/**
+	 * Returns the maximum number of parameters in a single SQL statement, used
+	 * to compute the number of rows in a multi-row insert in initial load mode.
+	 * The default is 999, which is the default limit of SQLite.
+	 * 
+	 * @return max parameters
+	 */
+	protected int getMaxStatementParameters() {
+		return 999;
+	}
+
+	/**
+	 * Returns the estimated maximum size of the row data in a single multi-row insert
+	 * statement in initial load mode. The default is 1 MB.
+	 * 
+	 * @return size in bytes
+	 */
+	protected int getInitialLoadMaxStatementBytes() {
+		return 1024*1024;
+	}
+
+	/**
+	 * Returns the estimated amount of data written in initial load mode until the transaction
+	 * gets committed. The default is 64 MB.
+	 * 
+	 * @return size in bytes or 0 to not commit based on size
+	 */
+	protected long getInitialLoadCommitBytes() {
+		return 64*1024*1024;
+	}
+
+	/**
+	 * Returns the time in milliseconds after which the transaction gets committed in initial
+	 * load mode. The default is 60 seconds.
+	 * 
+	 * @return interval or 0 to not commit based on time
+	 */
+	protected long getInitialLoadCommitIntervalMillis() {
+		return 60*1000;
+	}
+
+	/**
+	 * Creates the writer for the documents of the initial load. The default implementation writes
+	 * them with multi-row inserts on the connection returned by {@link #getConnection()}.
+	 * 
+	 * @param ctx sync context
+	 * @return writer
+	 * @throws SQLException in case of SQL errors
+	 */
+	protected InitialLoadWriter createInitialLoadWriter(SyncContext ctx) throws SQLException {
+		return new MultiRowInitialLoadWriter(getConnection(), getMaxStatementParameters(), getInitialLoadMaxStatementBytes());
+	}
+
+	/**
+	 * Checks if the table docs contains any rows
+	 * 
+	 * @return true if empty
+	 */
+	protected boolean isDocsTableEmpty() {
+		Statement stmt = null;
+		try {
+			stmt = getConnection().createStatement();
+			ResultSet rs = stmt.executeQuery(SQL_FIND_ANY_DOC);
+			return !rs.next();
+		} catch (SQLException e) {
+			throw new SqlSyncException("Error checking if table docs is empty", e);
+		}
+		finally {
+			if (stmt!=null) {
+				try {
+					stmt.close();
+				} catch (SQLException e) {
+					log(Level.SEVERE, "Could not close statement", e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Switches the sync context to initial load mode: drops the deferred indexes
+	 * and creates the buffers for the multi-row inserts
+	 * 
+	 * @param ctx sync context
+	 */
+	private void beginInitialLoad(SyncContext ctx) {
+		List<String> sqls = new ArrayList<String>();
+		//docs is empty, so remove any leftover readers
+		sqls.add(SQL_FLUSH_DOCREADERS);
+		for (String currIndexName : getDeferredIndexes().keySet()) {
+			sqls.add(getDropIndexStatement(currIndexName));
+		}
+		executeUpdates(sqls, "Error preparing database for initial load");
+
+		try {
+			ctx.m_initialLoadWriter = createInitialLoadWriter(ctx);
+		} catch (SQLException e) {
+			throw new SqlSyncException("Error preparing database for initial load", e);
+		}
+		ctx.m_initialLoad = true;
+		ctx.m_initialLoadUncommittedBytes = 0;
+		ctx.m_initialLoadLastCommit = System.currentTimeMillis();
+		log(Level.INFO, "Starting initial load into empty database "+m_jdbcUrl);
+	}
+
+	/**
+	 * Writes all buffered rows of the initial load mode
+	 * 
+	 * @param ctx sync context
+	 */
+	private void flushInitialLoadBuffers(SyncContext ctx) {
+		try {
+			ctx.m_initialLoadUncommittedBytes += ctx.m_initialLoadWriter.flush();
+		} catch (SQLException e) {
+			throw new SqlSyncException("Error inserting documents into database", e);
+		}
+	}
+
+	/**
+	 * Commits the current transaction if the commit policy of the initial load mode
+	 * says so
+	 * 
+	 * @param ctx sync context
+	 */
+	private void commitInitialLoadIfRequired(SyncContext ctx) {
+		long commitBytes = getInitialLoadCommitBytes();
+		long commitInterval = getInitialLoadCommitIntervalMillis();
+		long now = System.currentTimeMillis();
+
+		boolean commit = (commitBytes>0 && ctx.m_initialLoadUncommittedBytes>=commitBytes) ||
+				(commitInterval>0 && (now-ctx.m_initialLoadLastCommit)>=commitInterval);
+		if (!commit) {
+			return;
+		}
+
+		//flush both buffers so that all committed documents have their readers
+		flushInitialLoadBuffers(ctx);
+
+		if (ctx.m_initialLoadCommits==0) {
+			//remove the cutoff dates, so that the next sync run compares the data with the NSF
+			//if this one does not complete
+			executeUpdates(Collections.singletonList(SQL_FLUSH_SYNCHISTORY), "Error deleting content of table synchistory");
+		}
+
+		try {
+			getConnection().commit();
+		} catch (SQLException e) {
+			throw new SqlSyncException("Error committing current transaction", e);
+		}
+		ctx.m_initialLoadCommits++;
+		ctx.m_initialLoadUncommittedBytes = 0;
+		ctx.m_initialLoadLastCommit = System.currentTimeMillis();
+	}
+
+	/**
+	 * Writes the remaining rows of the initial load and recreates the deferred indexes
+	 * 
+	 * @param ctx sync context
+	 */
+	private void endInitialLoad(SyncContext ctx) {
+		flushInitialLoadBuffers(ctx);
+		long docs = ctx.m_initialLoadWriter.getWrittenDocuments();
+		long readers = ctx.m_initialLoadWriter.getWrittenReaders();
+		ctx.closeInitialLoadWriter();
+		ctx.m_initialLoad = false;
+
+		long t0=System.currentTimeMillis();
+		createDeferredIndexes();
+		long t1=System.currentTimeMillis();
+		log(Level.INFO, "Initial load wrote "+docs+" documents and "+readers+" readers with "+ctx.m_initialLoadCommits+
+				" intermediate commits, creating the indexes took "+(t1-t0)+"ms");
+	}
+
+	/**
+	 * Creates the indexes returned by {@link #getDeferredIndexes()}
+	 */
+	private void createDeferredIndexes() {
+		executeUpdates(new ArrayList<String>(getDeferredIndexes().values()), "Error creating indexes");
+	}
+
+	private void executeUpdates(List<String> sqls, String errorMsg) {
+		Statement stmt = null;
+		try {
+			stmt = getConnection().createStatement();
+			for (String currSql : sqls) {
+				stmt.executeUpdate(currSql);
+			}
+		} catch (SQLException e) {
+			throw new SqlSyncException(errorMsg, e);
+		}
+		finally {
+			if (stmt!=null) {
+				try {
+					stmt.close();
+				} catch (SQLException e) {
+					log(Level.SEVERE, "Could not close statement", e);
+				}
+			}
+		}
 	}
 
 	public List<NotesOriginatorIdData> scanTargetData(SyncContext ctx) {
@@ -675,8 +1007,20 @@ public abstract class AbstractSQLSyncTarget implements ISyncTarget<AbstractSQLSy
 
 	public TargetResult noteChangedMatchingFormula(SyncContext ctx, NotesOriginatorIdData oid, IItemTableData summaryBufferData,
 			NotesNote note) {
-		NotesOriginatorIdData oidInDb = findDocumentByUnid(ctx, oid);
+		return noteChangedMatchingFormula(ctx, oid, convertNote(oid, summaryBufferData, note));
+	}
 
+	/**
+	 * Computes the column values and lowercase readers of the document row for a note.
+	 * In pipelined sync mode, this method is called concurrently from worker threads.
+	 * 
+	 * @param oid note originator id
+	 * @param summaryBufferData summary buffer if specified in {@link #getWhichDataToRead()}
+	 * @param note note  if specified in {@link #getWhichDataToRead()}
+	 * @return row data
+	 */
+	@Override
+	public DocumentRow convertNote(NotesOriginatorIdData oid, IItemTableData summaryBufferData, NotesNote note) {
 		List<String> readers = getReaders(oid, summaryBufferData, note);
 		if (readers!=null) {
 			//convert to lowercase, because reader fields are case-insensitive
@@ -687,10 +1031,29 @@ public abstract class AbstractSQLSyncTarget implements ISyncTarget<AbstractSQLSy
 			readers = readersLC;
 		}
 
+		Object[] values = createDocumentRowValues(oid, summaryBufferData, note, readers);
+		return new DocumentRow(values, readers);
+	}
+
+	@Override
+	public TargetResult noteChangedMatchingFormula(SyncContext ctx, NotesOriginatorIdData oid, DocumentRow row) {
+		if (ctx.isInitialLoad()) {
+			//the table was empty, so no need to search for an existing row
+			try {
+				insertDocumentRowInitialLoad(ctx, row);
+			}
+			catch (SQLException e) {
+				throw new SqlSyncException("Error inserting note with UNID "+oid.getUNID(), e);
+			}
+			return TargetResult.Added;
+		}
+
+		NotesOriginatorIdData oidInDb = findDocumentByUnid(ctx, oid);
+
 		if (oidInDb==null) {
 			try {
 				PreparedStatement insertDocStmt = ctx.getStatementInsertDominoDoc();
-				insertDocumentRowWithData(ctx, insertDocStmt, oid, summaryBufferData, note, readers);
+				insertDocumentRowWithData(ctx, insertDocStmt, oid, row);
 			}
 			catch (SQLException e) {
 				throw new SqlSyncException("Error inserting note with UNID "+oid.getUNID(), e);
@@ -700,7 +1063,7 @@ public abstract class AbstractSQLSyncTarget implements ISyncTarget<AbstractSQLSy
 		else {
 			try {
 				PreparedStatement updateDocStmt = ctx.getStatementUpdateDominoDoc();
-				updateDocumentRowWithData(ctx, updateDocStmt, oid, summaryBufferData, note, readers);
+				updateDocumentRowWithData(ctx, updateDocStmt, oid, row);
 			}
 			catch (SQLException e) {
 				throw new SqlSyncException("Error updating note with UNID "+oid.getUNID(), e);
@@ -709,6 +1072,11 @@ public abstract class AbstractSQLSyncTarget implements ISyncTarget<AbstractSQLSy
 		}
 	}
 
+	@Override
+	public void flushBatch(SyncContext ctx) {
+		//statements are executed in batches of getMaxBatchSize() and on sync end
+	}
+
 	/**
 	 * Method to fill the parameters of an update statement that updates an
 	 * existing document in the database
@@ -716,68 +1084,19 @@ public abstract class AbstractSQLSyncTarget implements ISyncTarget<AbstractSQLSy
 	 * @param ctx sync context
 	 * @param stmt update statement
 	 * @param oid note originator id
-	 * @param summaryBufferData summary buffer if specified in {@link #getWhichDataToRead()}
-	 * @param note note  if specified in {@link #getWhichDataToRead()}
-	 * @param readers readers of this note converted to lowercase or null if there are no restrictions
+	 * @param row row data computed by {@link #convertNote(NotesOriginatorIdData, IItemTableData, NotesNote)}
 	 * @throws SQLException in case of SQL errors
 	 */
 	private void updateDocumentRowWithData(SyncContext ctx, PreparedStatement stmt,
-			NotesOriginatorIdData oid, IItemTableData summaryBufferData,
-			NotesNote note, List<String> readers) throws SQLException {
+			NotesOriginatorIdData oid, DocumentRow row) throws SQLException {
 
 		String unid = oid.getUNID();
-		int seq = oid.getSequence();
-		int[] seqTimeInnards = oid.getSequenceTimeInnards();
-
-		stmt.setString(1, unid);
-		stmt.setInt(2, seq);
-		stmt.setLong(3, seqTimeInnards[0]);
-		stmt.setLong(4, seqTimeInnards[1]);
-		Calendar seqTimeCal = NotesDateTimeUtils.innardsToCalendar(seqTimeInnards);
-		stmt.setLong(5, seqTimeCal.getTimeInMillis());
-		stmt.setLong(6, seqTimeCal.getTimeInMillis());
-
-		int numReaders;
-		if (readers==null) {
-			numReaders = 0;
-		}
-		else {
-			numReaders = readers.size();
-		}
-		stmt.setInt(7, numReaders);
-
-		List<String> flags = getFlags(oid, summaryBufferData, note);
-		if (flags==null)
-			flags=Collections.emptyList();
-		stmt.setString(8, new JSONArray(flags).toString());
-
-		String form = null;
-		if (summaryBufferData!=null) {
-			form = summaryBufferData.getAsString("form", null);
-		}
-		if (form==null && note!=null) {
-			form = note.getItemValueString("form");
-		}
-		if (form==null)
-			form = "";
-		stmt.setString(9, form);
-
-		String jsonStr = toJson(oid, summaryBufferData, note);
-		if (jsonStr==null)
-			jsonStr = "{}";
-		stmt.setString(10, jsonStr);
-
-		String customTextData = getCustomTextData(oid, summaryBufferData, note);
-		if (customTextData!=null) {
-			stmt.setString(11, customTextData);
+		Object[] values = row.m_values;
+		List<String> readers = row.m_readers;
+		for (int i=0; i<values.length; i++) {
+			MultiRowInsertBuffer.setParameter(stmt, i+1, values[i], InitialLoadWriter.DOCS_COLUMN_TYPES[i]);
 		}
-		
-		byte[] customBinaryData = getCustomBinaryData(oid, summaryBufferData, note);
-		if (customBinaryData!=null) {
-			stmt.setBytes(12, customBinaryData);
-		}
-
-		stmt.setString(13, unid);
+		stmt.setString(values.length+1, unid);
 		
 		stmt.addBatch();
 		ctx.setChanged(ctx.getChanged()+1);
@@ -809,26 +1128,69 @@ public abstract class AbstractSQLSyncTarget implements ISyncTarget<AbstractSQLSy
 	 * @param ctx sync context
 	 * @param stmt insert statement
 	 * @param oid note originator id
-	 * @param summaryBufferData summary buffer if specified in {@link #getWhichDataToRead()}
-	 * @param note note  if specified in {@link #getWhichDataToRead()}
-	 * @param readers readers of this note converted to lowercase or null if there are no restrictions
+	 * @param row row data computed by {@link #convertNote(NotesOriginatorIdData, IItemTableData, NotesNote)}
 	 * @throws SQLException in case of SQL errors
 	 */
 	private void insertDocumentRowWithData(SyncContext ctx, PreparedStatement stmt,
-			NotesOriginatorIdData oid, IItemTableData summaryBufferData,
-			NotesNote note, List<String> readers) throws SQLException {
+			NotesOriginatorIdData oid, DocumentRow row) throws SQLException {
 
 		String unid = oid.getUNID();
-		int seq = oid.getSequence();
-		int[] seqTimeInnards = oid.getSequenceTimeInnards();
+		Object[] values = row.m_values;
+		List<String> readers = row.m_readers;
+		for (int i=0; i<values.length; i++) {
+			MultiRowInsertBuffer.setParameter(stmt, i+1, values[i], InitialLoadWriter.DOCS_COLUMN_TYPES[i]);
+		}
 		
-		stmt.setString(1, unid);
-		stmt.setInt(2, seq);
-		stmt.setLong(3, seqTimeInnards[0]);
-		stmt.setLong(4, seqTimeInnards[1]);
+		stmt.addBatch();
+		ctx.setAdded(ctx.getAdded()+1);
+		if ((ctx.getAdded() % getMaxBatchSize()) == 0) {
+			executeBatchedInserts(ctx);
+		}
+
+		if (readers!=null && !readers.isEmpty()) {
+			PreparedStatement insertDocReadersStmt = ctx.getStatementInsertDominoDocReaders();
+			for (String currReader : readers) {
+				insertDocReadersStmt.setString(1, unid);
+				insertDocReadersStmt.setString(2, currReader);
+				
+				insertDocReadersStmt.addBatch();
+			}
+			insertDocReadersStmt.executeBatch();
+		}
+	}
+
+	/**
+	 * Buffers a document and its readers for the multi-row inserts of the initial load mode
+	 * 
+	 * @param ctx sync context
+	 * @param row row data computed by {@link #convertNote(NotesOriginatorIdData, IItemTableData, NotesNote)}
+	 * @throws SQLException in case of SQL errors
+	 */
+	private void insertDocumentRowInitialLoad(SyncContext ctx, DocumentRow row) throws SQLException {
+		int written = ctx.m_initialLoadWriter.write(row.m_values, row.m_readers);
+		ctx.setAdded(ctx.getAdded()+1);
+
+		if (written>0) {
+			ctx.m_initialLoadUncommittedBytes += written;
+			commitInitialLoadIfRequired(ctx);
+		}
+	}
+
+	/**
+	 * Computes the column values of a document row in the order of the insert statement
+	 * 
+	 * @param oid note originator id
+	 * @param summaryBufferData summary buffer if specified in {@link #getWhichDataToRead()}
+	 * @param note note  if specified in {@link #getWhichDataToRead()}
+	 * @param readers readers of this note converted to lowercase or null if there are no restrictions
+	 * @return values
+	 */
+	private Object[] createDocumentRowValues(NotesOriginatorIdData oid, IItemTableData summaryBufferData,
+			NotesNote note, List<String> readers) {
+		
+		int[] seqTimeInnards = oid.getSequenceTimeInnards();
 		Calendar seqTimeCal = NotesDateTimeUtils.innardsToCalendar(seqTimeInnards);
-		stmt.setLong(5, seqTimeCal.getTimeInMillis());
-		stmt.setLong(6, seqTimeCal.getTimeInMillis());
+		long seqTimeMillis = seqTimeCal.getTimeInMillis();
 
 		int numReaders;
 		if (readers==null) {
@@ -837,13 +1199,16 @@ public abstract class AbstractSQLSyncTarget implements ISyncTarget<AbstractSQLSy
 		else {
 			numReaders = readers.size();
 		}
-		stmt.setInt(7, numReaders);
 
 		List<String> flags = getFlags(oid, summaryBufferData, note);
-		if (flags==null)
-			flags=Collections.emptyList();
-		stmt.setString(8, new JSONArray(flags).toString());
-		
+		String flagsStr;
+		if (flags==null || flags.isEmpty()) {
+			flagsStr = "[]";
+		}
+		else {
+			flagsStr = m_jsonWriter.get().reset().stringArray(flags).toString();
+		}
+
 		String form = null;
 		if (summaryBufferData!=null) {
 			form = summaryBufferData.getAsString("form", null);
@@ -853,39 +1218,28 @@ public abstract class AbstractSQLSyncTarget implements ISyncTarget<AbstractSQLSy
 		}
 		if (form==null)
 			form = "";
-		stmt.setString(9, form);
 
 		String jsonStr = toJson(oid, summaryBufferData, note);
 		if (jsonStr==null)
 			jsonStr = "{}";
-		stmt.setString(10, jsonStr);
 
 		String customTextData = getCustomTextData(oid, summaryBufferData, note);
-		if (customTextData!=null) {
-			stmt.setString(11, customTextData);
-		}
-		
 		byte[] customBinaryData = getCustomBinaryData(oid, summaryBufferData, note);
-		if (customBinaryData!=null) {
-			stmt.setBytes(12, customBinaryData);
-		}
-		
-		stmt.addBatch();
-		ctx.setAdded(ctx.getAdded()+1);
-		if ((ctx.getAdded() % getMaxBatchSize()) == 0) {
-			executeBatchedInserts(ctx);
-		}
 
-		if (numReaders>0) {
-			PreparedStatement insertDocReadersStmt = ctx.getStatementInsertDominoDocReaders();
-			for (String currReader : readers) {
-				insertDocReadersStmt.setString(1, unid);
-				insertDocReadersStmt.setString(2, currReader);
-				
-				insertDocReadersStmt.addBatch();
-			}
-			insertDocReadersStmt.executeBatch();
-		}
+		return new Object[] {
+				oid.getUNID(),
+				Integer.valueOf(oid.getSequence()),
+				Long.valueOf(seqTimeInnards[0]),
+				Long.valueOf(seqTimeInnards[1]),
+				Long.valueOf(seqTimeMillis),
+				Long.valueOf(seqTimeMillis),
+				Integer.valueOf(numReaders),
+				flagsStr,
+				form,
+				jsonStr,
+				customTextData,
+				customBinaryData
+		};
 	}
 
 	/**
@@ -951,17 +1305,50 @@ public abstract class AbstractSQLSyncTarget implements ISyncTarget<AbstractSQLSy
 	}
 
 	/**
-	 * Implement this method and extract relevant data from the summary buffer or note
+	 * Converts the relevant data from the summary buffer or note to a JSON string. The default
+	 * implementation writes a JSON object with a {@link JsonWriter} reused per thread and calls
+	 * {@link #writeJson(JsonWriter, NotesOriginatorIdData, IItemTableData, NotesNote)} to
+	 * add its content.
 	 * 
 	 * @param oid note originator id
 	 * @param summaryBufferData summary buffer if specified in {@link #getWhichDataToRead()}
 	 * @param note note  if specified in {@link #getWhichDataToRead()}
 	 * @return JSON string or null if there is no JSON to store
 	 */
-	protected abstract String toJson(NotesOriginatorIdData oid, IItemTableData summaryBufferData,
-			NotesNote note);
+	protected String toJson(NotesOriginatorIdData oid, IItemTableData summaryBufferData,
+			NotesNote note) {
+		JsonWriter writer = m_jsonWriter.get().reset();
+		writer.beginObject();
+		writeJson(writer, oid, summaryBufferData, note);
+		writer.endObject();
+		return writer.toString();
+	}
+
+	/**
+	 * Override this method to write the properties of the JSON object stored for a document.
+	 * This is faster than building a JSON object tree in {@link #toJson(NotesOriginatorIdData, IItemTableData, NotesNote)}.
+	 * The default implementation writes all items of the summary buffer.
+	 * 
+	 * @param writer writer, the JSON object has already been started
+	 * @param oid note originator id
+	 * @param summaryBufferData summary buffer if specified in {@link #getWhichDataToRead()}
+	 * @param note note  if specified in {@link #getWhichDataToRead()}
+	 */
+	protected void writeJson(JsonWriter writer, NotesOriginatorIdData oid, IItemTableData summaryBufferData,
+			NotesNote note) {
+		if (summaryBufferData!=null) {
+			for (String currItemName : summaryBufferData.getItemNames()) {
+				writer.name(currItemName).value(summaryBufferData.get(currItemName));
+			}
+		}
+	}
 
 	public TargetResult noteChangedNotMatchingFormula(SyncContext ctx, NotesOriginatorIdData oid) {
+		if (ctx.isInitialLoad()) {
+			//the table was empty when the initial load started and the sync reports every note
+			//only once, so the note cannot be in the database; no need to flush the buffered rows
+			return TargetResult.None;
+		}
 		NotesOriginatorIdData oidInDb = findDocumentByUnid(ctx, oid);
 		if (oidInDb==null)
 			return TargetResult.None;
@@ -1013,6 +1400,11 @@ public abstract class AbstractSQLSyncTarget implements ISyncTarget<AbstractSQLSy
 	}
 
 	public TargetResult noteDeleted(SyncContext ctx, NotesOriginatorIdData oid) {
+		if (ctx.isInitialLoad()) {
+			//the table was empty when the initial load started and the sync reports every note
+			//only once, so the note cannot be in the database; no need to flush the buffered rows
+			return TargetResult.None;
+		}
 		NotesOriginatorIdData oidInDb = findDocumentByUnid(ctx, oid);
 		if (oidInDb==null)
 			return TargetResult.None;
@@ -1077,11 +1469,26 @@ public abstract class AbstractSQLSyncTarget implements ISyncTarget<AbstractSQLSy
 			log(Level.SEVERE, "Error closing statement", e1);
 		}
 
+		boolean wasInitialLoad = ctx.isInitialLoad();
+		ctx.closeInitialLoadWriter();
+		ctx.m_initialLoad = false;
+		
 		try {
 			getConnection().rollback();
 		} catch (SQLException e) {
 			throw new SqlSyncException("Error rolling back current transaction", e);
 		}
+		
+		if (wasInitialLoad && ctx.m_initialLoadCommits>0) {
+			//the indexes have been dropped in a committed transaction, so we need to recreate them
+			try {
+				createDeferredIndexes();
+				getConnection().commit();
+			}
+			catch (Exception e) {
+				log(Level.SEVERE, "Error recreating indexes after aborted initial load", e);
+			}
+		}
 	}
 
 	/**
@@ -1114,6 +1521,11 @@ public abstract class AbstractSQLSyncTarget implements ISyncTarget<AbstractSQLSy
 
 		ctx.setEndDateTime(System.currentTimeMillis());
 
+		if (ctx.isInitialLoad()) {
+			//write buffered rows and recreate indexes
+			endInitialLoad(ctx);
+		}
+		
 		//write batched deletes
 		executeBatchedRemoves(ctx);
 		
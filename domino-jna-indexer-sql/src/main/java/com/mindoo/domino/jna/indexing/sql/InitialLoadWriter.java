@@ -0,0 +1,131 @@
+package com.mindoo.domino.jna.indexing.sql;
+
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.List;
+
+/**
+ * Writes the documents of an initial load into the tables docs and docreaders.
+ * {@link AbstractSQLSyncTarget} uses multi-row inserts on its connection by default.
+ * Subclasses can return their own implementation in
+ * {@link AbstractSQLSyncTarget#createInitialLoadWriter(AbstractSQLSyncTarget.SyncContext)},
+ * e.g. to write the data in parallel.
+ *
+ * @author Karsten Lehmann
+ */
+public abstract class InitialLoadWriter {
+	/** columns of table docs in the order used for inserts and updates */
+	static final String[] DOCS_COLUMNS = new String[] {
+			"__unid",
+			"__seq",
+			"__seqtime_innard0",
+			"__seqtime_innard1",
+			"__seqtime_millis",
+			"__modifiedinthisfile_millis",
+			"__numreaders",
+			"__flags",
+			"__form",
+			"__json",
+			"__customtext",
+			"__custombinary"
+	};
+	static final int[] DOCS_COLUMN_TYPES = new int[] {
+			Types.VARCHAR,
+			Types.INTEGER,
+			Types.BIGINT,
+			Types.BIGINT,
+			Types.BIGINT,
+			Types.BIGINT,
+			Types.INTEGER,
+			Types.VARCHAR,
+			Types.VARCHAR,
+			Types.VARCHAR,
+			Types.VARCHAR,
+			Types.BLOB
+	};
+	static final String[] DOCREADERS_COLUMNS = new String[] {
+			"__unid",
+			"__reader"
+	};
+	static final int[] DOCREADERS_COLUMN_TYPES = new int[] {
+			Types.VARCHAR,
+			Types.VARCHAR
+	};
+
+	/**
+	 * Returns the columns of table docs in the order of the values passed to {@link #write(Object[], List)}
+	 *
+	 * @return column names
+	 */
+	public static String[] getDocsColumns() {
+		return DOCS_COLUMNS.clone();
+	}
+
+	/**
+	 * Returns the SQL types of the columns returned by {@link #getDocsColumns()}
+	 *
+	 * @return types from {@link Types}
+	 */
+	public static int[] getDocsColumnTypes() {
+		return DOCS_COLUMN_TYPES.clone();
+	}
+
+	/**
+	 * Returns the columns of table docreaders
+	 *
+	 * @return column names
+	 */
+	public static String[] getDocReadersColumns() {
+		return DOCREADERS_COLUMNS.clone();
+	}
+
+	/**
+	 * Returns the SQL types of the columns returned by {@link #getDocReadersColumns()}
+	 *
+	 * @return types from {@link Types}
+	 */
+	public static int[] getDocReadersColumnTypes() {
+		return DOCREADERS_COLUMN_TYPES.clone();
+	}
+
+	/**
+	 * Writes a document
+	 *
+	 * @param docValues values for table docs in the order of {@link #getDocsColumns()}; the array must not be modified afterwards
+	 * @param readers lowercase readers of the document or null if there are no restrictions
+	 * @return estimated number of bytes written to the database of the sync target connection since the last call, used for the commit policy
+	 * @throws SQLException in case of SQL errors
+	 */
+	public abstract int write(Object[] docValues, List<String> readers) throws SQLException;
+
+	/**
+	 * Makes all documents written so far visible on the connection of the sync target,
+	 * e.g. before searching for documents or at the end of the initial load
+	 *
+	 * @return estimated number of bytes written to the database of the sync target connection
+	 * @throws SQLException in case of SQL errors
+	 */
+	public abstract int flush() throws SQLException;
+
+	/**
+	 * Returns the number of documents passed to {@link #write(Object[], List)}
+	 *
+	 * @return count
+	 */
+	public abstract long getWrittenDocuments();
+
+	/**
+	 * Returns the number of reader rows passed to {@link #write(Object[], List)}
+	 *
+	 * @return count
+	 */
+	public abstract long getWrittenReaders();
+
+	/**
+	 * Releases all resources. Data that has not been flushed gets discarded.
+	 *
+	 * @throws SQLException in case of SQL errors
+	 */
+	public abstract void close() throws SQLException;
+
+}
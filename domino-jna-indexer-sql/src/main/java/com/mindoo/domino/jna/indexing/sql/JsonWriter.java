@@ -0,0 +1,339 @@
+package com.mindoo.domino.jna.indexing.sql;
+
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TimeZone;
+
+import com.mindoo.domino.jna.NotesTimeDate;
+
+/**
+ * Reusable streaming JSON writer that appends directly to a {@link StringBuilder}
+ * instead of building a tree of JSON objects first.<br>
+ * <br>
+ * Call {@link #reset()} before writing a new JSON document, then use the begin/end methods
+ * together with {@link #name(String)} and the value methods and finally read the result
+ * with {@link #toString()}. The internal buffer is kept between documents to avoid
+ * reallocating it for every row. Instances are not thread-safe.
+ *
+ * @author Karsten Lehmann
+ */
+public class JsonWriter {
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+	private static final int MAX_NESTING = 64;
+
+	private final StringBuilder m_buf;
+	/** per nesting level: true if a value has already been written on that level */
+	private final boolean[] m_hasValue = new boolean[MAX_NESTING];
+	private int m_depth;
+	private boolean m_afterName;
+	private SimpleDateFormat m_dateFormat;
+
+	public JsonWriter() {
+		this(256);
+	}
+
+	/**
+	 * Creates a new writer
+	 *
+	 * @param initialCapacity initial buffer capacity in characters
+	 */
+	public JsonWriter(int initialCapacity) {
+		m_buf = new StringBuilder(initialCapacity);
+	}
+
+	/**
+	 * Clears the buffer to write a new JSON document
+	 *
+	 * @return this writer
+	 */
+	public JsonWriter reset() {
+		m_buf.setLength(0);
+		m_depth = 0;
+		m_hasValue[0] = false;
+		m_afterName = false;
+		return this;
+	}
+
+	/**
+	 * Returns the number of characters written since the last {@link #reset()}
+	 *
+	 * @return length
+	 */
+	public int length() {
+		return m_buf.length();
+	}
+
+	public JsonWriter beginObject() {
+		beforeValue();
+		m_buf.append('{');
+		push();
+		return this;
+	}
+
+	public JsonWriter endObject() {
+		pop();
+		m_buf.append('}');
+		return this;
+	}
+
+	public JsonWriter beginArray() {
+		beforeValue();
+		m_buf.append('[');
+		push();
+		return this;
+	}
+
+	public JsonWriter endArray() {
+		pop();
+		m_buf.append(']');
+		return this;
+	}
+
+	/**
+	 * Writes the name of an object member; must be followed by a value
+	 *
+	 * @param name name
+	 * @return this writer
+	 */
+	public JsonWriter name(String name) {
+		if (m_afterName)
+			throw new IllegalStateException("Value expected after name");
+		if (m_depth==0)
+			throw new IllegalStateException("Names can only be written inside an object");
+
+		if (m_hasValue[m_depth]) {
+			m_buf.append(',');
+		}
+		m_hasValue[m_depth] = true;
+		appendQuoted(name);
+		m_buf.append(':');
+		m_afterName = true;
+		return this;
+	}
+
+	public JsonWriter value(String value) {
+		if (value==null) {
+			return nullValue();
+		}
+		beforeValue();
+		appendQuoted(value);
+		return this;
+	}
+
+	public JsonWriter value(boolean value) {
+		beforeValue();
+		m_buf.append(value);
+		return this;
+	}
+
+	public JsonWriter value(long value) {
+		beforeValue();
+		m_buf.append(value);
+		return this;
+	}
+
+	/**
+	 * Writes a number. Integral values are written without decimal places, NaN and
+	 * infinite values are written as null, because JSON does not support them.
+	 *
+	 * @param value value
+	 * @return this writer
+	 */
+	public JsonWriter value(double value) {
+		if (Double.isNaN(value) || Double.isInfinite(value)) {
+			return nullValue();
+		}
+		beforeValue();
+		if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+			m_buf.append((long) value);
+		}
+		else {
+			m_buf.append(value);
+		}
+		return this;
+	}
+
+	public JsonWriter nullValue() {
+		beforeValue();
+		m_buf.append("null");
+		return this;
+	}
+
+	/**
+	 * Writes a value of one of the types found in summary buffers and items:
+	 * {@link String}, {@link Number}, {@link Boolean}, {@link Calendar}, {@link Date} and
+	 * {@link NotesTimeDate} (as ISO 8601 UTC string), {@link Collection}s, arrays
+	 * and {@link Map}s with string keys. Other objects are written as string using
+	 * {@link Object#toString()}.
+	 *
+	 * @param value value
+	 * @return this writer
+	 */
+	public JsonWriter value(Object value) {
+		if (value==null) {
+			return nullValue();
+		}
+		else if (value instanceof String) {
+			return value((String) value);
+		}
+		else if (value instanceof Double || value instanceof Float) {
+			return value(((Number) value).doubleValue());
+		}
+		else if (value instanceof Number) {
+			return value(((Number) value).longValue());
+		}
+		else if (value instanceof Boolean) {
+			return value(((Boolean) value).booleanValue());
+		}
+		else if (value instanceof Calendar) {
+			return value(((Calendar) value).getTime());
+		}
+		else if (value instanceof Date) {
+			beforeValue();
+			if (m_dateFormat==null) {
+				m_dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+				m_dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+			}
+			m_buf.append('"').append(m_dateFormat.format((Date) value)).append('"');
+			return this;
+		}
+		else if (value instanceof NotesTimeDate) {
+			return value(((NotesTimeDate) value).toDate());
+		}
+		else if (value instanceof Collection) {
+			beginArray();
+			for (Object currValue : (Collection<?>) value) {
+				value(currValue);
+			}
+			return endArray();
+		}
+		else if (value instanceof Object[]) {
+			beginArray();
+			for (Object currValue : (Object[]) value) {
+				value(currValue);
+			}
+			return endArray();
+		}
+		else if (value instanceof Map) {
+			beginObject();
+			Iterator<? extends Entry<?,?>> entries = ((Map<?,?>) value).entrySet().iterator();
+			while (entries.hasNext()) {
+				Entry<?,?> currEntry = entries.next();
+				name(String.valueOf(currEntry.getKey()));
+				value(currEntry.getValue());
+			}
+			return endObject();
+		}
+		else {
+			return value(value.toString());
+		}
+	}
+
+	/**
+	 * Convenience method to write a string array
+	 *
+	 * @param values values
+	 * @return this writer
+	 */
+	public JsonWriter stringArray(Collection<String> values) {
+		beginArray();
+		for (String currValue : values) {
+			value(currValue);
+		}
+		return endArray();
+	}
+
+	private void beforeValue() {
+		if (m_afterName) {
+			m_afterName = false;
+			return;
+		}
+		if (m_depth>0) {
+			if (m_hasValue[m_depth]) {
+				m_buf.append(',');
+			}
+			m_hasValue[m_depth] = true;
+		}
+		else if (m_hasValue[0]) {
+			throw new IllegalStateException("JSON document already complete, call reset() first");
+		}
+		else {
+			m_hasValue[0] = true;
+		}
+	}
+
+	private void push() {
+		if (m_depth+1 >= MAX_NESTING)
+			throw new IllegalStateException("Maximum nesting level of "+MAX_NESTING+" exceeded");
+		m_depth++;
+		m_hasValue[m_depth] = false;
+	}
+
+	private void pop() {
+		if (m_depth==0)
+			throw new IllegalStateException("No open object or array");
+		if (m_afterName)
+			throw new IllegalStateException("Value expected after name");
+		m_depth--;
+	}
+
+	private void appendQuoted(String str) {
+		m_buf.append('"');
+		int len = str.length();
+		int start = 0;
+		for (int i=0; i<len; i++) {
+			char c = str.charAt(i);
+			if (c >= 0x20 && c != '"' && c != '\\' && c != 0x2028 && c != 0x2029) {
+				continue;
+			}
+			//copy the unescaped part in one step
+			m_buf.append(str, start, i);
+			start = i+1;
+
+			switch (c) {
+			case '"':
+				m_buf.append("\\\"");
+				break;
+			case '\\':
+				m_buf.append("\\\\");
+				break;
+			case '\n':
+				m_buf.append("\\n");
+				break;
+			case '\r':
+				m_buf.append("\\r");
+				break;
+			case '\t':
+				m_buf.append("\\t");
+				break;
+			case '\b':
+				m_buf.append("\\b");
+				break;
+			case '\f':
+				m_buf.append("\\f");
+				break;
+			default:
+				m_buf.append("\\u")
+				.append(HEX_DIGITS[(c >> 12) & 0xf])
+				.append(HEX_DIGITS[(c >> 8) & 0xf])
+				.append(HEX_DIGITS[(c >> 4) & 0xf])
+				.append(HEX_DIGITS[c & 0xf]);
+			}
+		}
+		m_buf.append(str, start, len);
+		m_buf.append('"');
+	}
+
+	/**
+	 * Returns the JSON written since the last {@link #reset()}
+	 */
+	@Override
+	public String toString() {
+		return m_buf.toString();
+	}
+}
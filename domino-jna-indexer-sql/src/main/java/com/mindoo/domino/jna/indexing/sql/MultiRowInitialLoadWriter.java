@@ -0,0 +1,72 @@
+package com.mindoo.domino.jna.indexing.sql;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * Default {@link InitialLoadWriter} that writes documents and readers with multi-row
+ * inserts on a single connection
+ *
+ * @author Karsten Lehmann
+ */
+class MultiRowInitialLoadWriter extends InitialLoadWriter {
+	private final MultiRowInsertBuffer m_docs;
+	private final MultiRowInsertBuffer m_docReaders;
+	private long m_writtenDocs;
+	private long m_writtenReaders;
+
+	/**
+	 * Creates a new writer
+	 *
+	 * @param conn connection
+	 * @param maxParameters maximum number of parameters in a single statement
+	 * @param maxBytes estimated maximum size of the row data in a single statement
+	 */
+	MultiRowInitialLoadWriter(Connection conn, int maxParameters, int maxBytes) {
+		m_docs = new MultiRowInsertBuffer(conn, "docs", DOCS_COLUMNS, DOCS_COLUMN_TYPES,
+				maxParameters, maxBytes);
+		m_docReaders = new MultiRowInsertBuffer(conn, "docreaders", DOCREADERS_COLUMNS, DOCREADERS_COLUMN_TYPES,
+				maxParameters, maxBytes);
+	}
+
+	@Override
+	public int write(Object[] docValues, List<String> readers) throws SQLException {
+		int written = m_docs.add(docValues);
+		m_writtenDocs++;
+		if (readers!=null) {
+			Object unid = docValues[0];
+			for (String currReader : readers) {
+				written += m_docReaders.add(new Object[] {unid, currReader});
+				m_writtenReaders++;
+			}
+		}
+		return written;
+	}
+
+	@Override
+	public int flush() throws SQLException {
+		return m_docs.flush() + m_docReaders.flush();
+	}
+
+	@Override
+	public long getWrittenDocuments() {
+		return m_writtenDocs;
+	}
+
+	@Override
+	public long getWrittenReaders() {
+		return m_writtenReaders;
+	}
+
+	@Override
+	public void close() throws SQLException {
+		try {
+			m_docs.close();
+		}
+		finally {
+			m_docReaders.close();
+		}
+	}
+
+}
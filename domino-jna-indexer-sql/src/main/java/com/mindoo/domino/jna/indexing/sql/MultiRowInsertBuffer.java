@@ -0,0 +1,282 @@
+package com.mindoo.domino.jna.indexing.sql;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Buffer that collects table rows and writes them with multi-row
+ * <code>INSERT INTO table (...) VALUES (...), (...), ...</code> statements.<br>
+ * <br>
+ * The buffer is flushed when the estimated size of the buffered row data exceeds a
+ * byte limit or when the rows do not fit into a single statement anymore because of the
+ * database's limit for statement parameters.<br>
+ * <br>
+ * To be able to reuse prepared statements, the buffered rows are written in chunks
+ * of the maximum row count and powers of two, so that at most log2(maxRows)+1 different
+ * statements get prepared.
+ *
+ * @author Karsten Lehmann
+ */
+public class MultiRowInsertBuffer {
+	private final Connection m_conn;
+	private final String m_sqlPrefix;
+	private final String m_rowPlaceholders;
+	private final int[] m_sqlTypes;
+	private final int m_maxRows;
+	private final int m_maxBytes;
+	private final List<Object[]> m_rows;
+	private final Map<Integer,PreparedStatement> m_stmtByRowCount;
+	private int m_bufferedBytes;
+	private long m_writtenBytes;
+	private long m_writtenRows;
+
+	/**
+	 * Creates a new buffer
+	 *
+	 * @param conn connection
+	 * @param table table name
+	 * @param columns column names
+	 * @param sqlTypes SQL types of the columns from {@link java.sql.Types}, used to write null values
+	 * @param maxParameters maximum number of parameters in a single statement
+	 * @param maxBytes estimated maximum size of the row data in a single statement
+	 */
+	public MultiRowInsertBuffer(Connection conn, String table, String[] columns, int[] sqlTypes, int maxParameters, int maxBytes) {
+		if (columns.length==0)
+			throw new IllegalArgumentException("No columns specified");
+		if (columns.length!=sqlTypes.length)
+			throw new IllegalArgumentException("Number of columns and SQL types do not match: "+columns.length+"!="+sqlTypes.length);
+		if (maxParameters<columns.length)
+			throw new IllegalArgumentException("Max parameters must be at least the number of columns: "+maxParameters+"<"+columns.length);
+		if (maxBytes<=0)
+			throw new IllegalArgumentException("Max bytes must be greater than 0: "+maxBytes);
+
+		m_conn = conn;
+		m_sqlTypes = sqlTypes;
+		m_maxRows = maxParameters / columns.length;
+		m_maxBytes = maxBytes;
+
+		StringBuilder sqlPrefix = new StringBuilder();
+		sqlPrefix.append("INSERT INTO ").append(table).append(" (");
+		StringBuilder rowPlaceholders = new StringBuilder();
+		rowPlaceholders.append('(');
+		for (int i=0; i<columns.length; i++) {
+			if (i>0) {
+				sqlPrefix.append(", ");
+				rowPlaceholders.append(", ");
+			}
+			sqlPrefix.append(columns[i]);
+			rowPlaceholders.append('?');
+		}
+		sqlPrefix.append(") VALUES ");
+		rowPlaceholders.append(')');
+		m_sqlPrefix = sqlPrefix.toString();
+		m_rowPlaceholders = rowPlaceholders.toString();
+
+		m_rows = new ArrayList<Object[]>(m_maxRows);
+		m_stmtByRowCount = new HashMap<Integer,PreparedStatement>();
+	}
+
+	/**
+	 * Returns the estimated size of a row value in bytes
+	 *
+	 * @param value value
+	 * @return size
+	 */
+	public static int estimateSize(Object value) {
+		if (value==null) {
+			return 1;
+		}
+		else if (value instanceof String) {
+			return ((String) value).length() + 2;
+		}
+		else if (value instanceof byte[]) {
+			return ((byte[]) value).length + 2;
+		}
+		else {
+			return 8;
+		}
+	}
+
+	/**
+	 * Adds a row to the buffer and writes the buffered rows if one of the limits
+	 * has been reached
+	 *
+	 * @param values row values, one per column; the array is stored and must not be modified afterwards
+	 * @return number of bytes written to the database, 0 if the row has only been buffered
+	 * @throws SQLException in case of SQL errors
+	 */
+	public int add(Object[] values) throws SQLException {
+		if (values.length!=m_sqlTypes.length)
+			throw new IllegalArgumentException("Expected "+m_sqlTypes.length+" values, found "+values.length);
+
+		int rowBytes = 0;
+		for (Object currValue : values) {
+			rowBytes += estimateSize(currValue);
+		}
+
+		int written = 0;
+		if (!m_rows.isEmpty() && m_bufferedBytes+rowBytes > m_maxBytes) {
+			written = flush();
+		}
+		m_rows.add(values);
+		m_bufferedBytes += rowBytes;
+
+		if (m_rows.size() >= m_maxRows || m_bufferedBytes >= m_maxBytes) {
+			written += flush();
+		}
+		return written;
+	}
+
+	/**
+	 * Returns the number of rows in the buffer
+	 *
+	 * @return rows
+	 */
+	public int getBufferedRows() {
+		return m_rows.size();
+	}
+
+	/**
+	 * Returns the estimated number of bytes written so far
+	 *
+	 * @return bytes
+	 */
+	public long getWrittenBytes() {
+		return m_writtenBytes;
+	}
+
+	/**
+	 * Returns the number of rows written so far
+	 *
+	 * @return rows
+	 */
+	public long getWrittenRows() {
+		return m_writtenRows;
+	}
+
+	/**
+	 * Writes all buffered rows to the database
+	 *
+	 * @return estimated number of bytes written
+	 * @throws SQLException in case of SQL errors
+	 */
+	public int flush() throws SQLException {
+		if (m_rows.isEmpty()) {
+			return 0;
+		}
+
+		int offset = 0;
+		int remaining = m_rows.size();
+		while (remaining>0) {
+			int chunkSize;
+			if (remaining >= m_maxRows) {
+				chunkSize = m_maxRows;
+			}
+			else {
+				chunkSize = Integer.highestOneBit(remaining);
+			}
+
+			PreparedStatement stmt = getStatement(chunkSize);
+			int paramIdx = 1;
+			for (int i=offset; i<offset+chunkSize; i++) {
+				Object[] currRow = m_rows.get(i);
+				for (int col=0; col<currRow.length; col++) {
+					setParameter(stmt, paramIdx++, currRow[col], m_sqlTypes[col]);
+				}
+			}
+			stmt.executeUpdate();
+
+			offset += chunkSize;
+			remaining -= chunkSize;
+		}
+
+		int written = m_bufferedBytes;
+		m_writtenBytes += written;
+		m_writtenRows += m_rows.size();
+		m_rows.clear();
+		m_bufferedBytes = 0;
+		return written;
+	}
+
+	/**
+	 * Sets a statement parameter based on the type of the value
+	 *
+	 * @param stmt statement
+	 * @param idx parameter index
+	 * @param value value, either null, {@link String}, {@link Integer}, {@link Long}, {@link Double} or byte[]
+	 * @param sqlType SQL type to use for null values
+	 * @throws SQLException in case of SQL errors
+	 */
+	public static void setParameter(PreparedStatement stmt, int idx, Object value, int sqlType) throws SQLException {
+		if (value==null) {
+			stmt.setNull(idx, sqlType);
+		}
+		else if (value instanceof String) {
+			stmt.setString(idx, (String) value);
+		}
+		else if (value instanceof Integer) {
+			stmt.setInt(idx, ((Integer) value).intValue());
+		}
+		else if (value instanceof Long) {
+			stmt.setLong(idx, ((Long) value).longValue());
+		}
+		else if (value instanceof Double) {
+			stmt.setDouble(idx, ((Double) value).doubleValue());
+		}
+		else if (value instanceof byte[]) {
+			stmt.setBytes(idx, (byte[]) value);
+		}
+		else {
+			stmt.setObject(idx, value);
+		}
+	}
+
+	private PreparedStatement getStatement(int rowCount) throws SQLException {
+		Integer key = Integer.valueOf(rowCount);
+		PreparedStatement stmt = m_stmtByRowCount.get(key);
+		if (stmt==null) {
+			StringBuilder sql = new StringBuilder(m_sqlPrefix.length() + rowCount * (m_rowPlaceholders.length()+2));
+			sql.append(m_sqlPrefix);
+			for (int i=0; i<rowCount; i++) {
+				if (i>0) {
+					sql.append(", ");
+				}
+				sql.append(m_rowPlaceholders);
+			}
+			stmt = m_conn.prepareStatement(sql.toString());
+			m_stmtByRowCount.put(key, stmt);
+		}
+		return stmt;
+	}
+
+	/**
+	 * Discards the buffered rows and closes all prepared statements
+	 *
+	 * @throws SQLException of the first statement that could not be closed
+	 */
+	public void close() throws SQLException {
+		m_rows.clear();
+		m_bufferedBytes = 0;
+
+		SQLException firstException = null;
+		for (PreparedStatement currStmt : m_stmtByRowCount.values()) {
+			try {
+				currStmt.close();
+			}
+			catch (SQLException e) {
+				if (firstException==null) {
+					firstException = e;
+				}
+			}
+		}
+		m_stmtByRowCount.clear();
+		if (firstException!=null) {
+			throw firstException;
+		}
+	}
+}
@@ -0,0 +1,72 @@
+package com.mindoo.domino.jna.indexing.sql.test;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.mindoo.domino.jna.indexing.sql.JsonWriter;
+
+/**
+ * Tests cases for the output and string escaping of {@link JsonWriter}, no Notes runtime required
+ *
+ * @author Karsten Lehmann
+ */
+public class TestJsonWriter {
+
+	private static String quote(String value) {
+		return new JsonWriter().value(value).toString();
+	}
+
+	@Test
+	public void testJsonWriter_escapeControlCharacters() {
+		Assert.assertEquals("Short escapes", "\"\\\"\\\\\\n\\r\\t\\b\\f\"", quote("\"\\\n\r\t\b\f"));
+		Assert.assertEquals("Other control characters as unicode escapes", "\"\\u0000\\u0001\\u001f\"", quote("\u0000\u0001\u001f"));
+		Assert.assertEquals("Escapes between unescaped text", "\"a\\u0007b\\nc\"", quote("a\u0007b\nc"));
+		Assert.assertEquals("First character above the control characters", "\" /\"", quote(" /"));
+	}
+
+	@Test
+	public void testJsonWriter_escapeLineSeparators() {
+		//valid in JSON, but line terminators in JavaScript source before ES2019
+		Assert.assertEquals("Line and paragraph separator", "\"a\\u2028b\\u2029c\"", quote("a\u2028b\u2029c"));
+	}
+
+	@Test
+	public void testJsonWriter_surrogatePairs() {
+		String emoji = "\uD83D\uDE00";
+		Assert.assertEquals("Surrogate pair written unchanged", "\"x" + emoji + "y\"", quote("x" + emoji + "y"));
+		Assert.assertEquals("Non-ASCII text written unchanged", "\"\u00e4\u00f6\u00fc\u4e2d\"", quote("\u00e4\u00f6\u00fc\u4e2d"));
+	}
+
+	@Test
+	public void testJsonWriter_structure() {
+		Map<String,Object> map = new LinkedHashMap<String,Object>();
+		map.put("a", Integer.valueOf(1));
+		map.put("b\n", Arrays.asList("x", null, Double.valueOf(1.5)));
+
+		JsonWriter writer = new JsonWriter(4);
+		writer.beginObject()
+		.name("map").value(map)
+		.name("nan").value(Double.NaN)
+		.name("dbl").value(2.0)
+		.name("arr").beginArray().value(true).value(3L).endArray()
+		.endObject();
+		Assert.assertEquals("Nested JSON",
+				"{\"map\":{\"a\":1,\"b\\n\":[\"x\",null,1.5]},\"nan\":null,\"dbl\":2,\"arr\":[true,3]}",
+				writer.toString());
+
+		writer.reset().beginArray().endArray();
+		Assert.assertEquals("Buffer cleared by reset", "[]", writer.toString());
+
+		try {
+			writer.value("x");
+			Assert.fail("Second top level value should fail");
+		}
+		catch (IllegalStateException e) {
+			//expected
+		}
+	}
+}
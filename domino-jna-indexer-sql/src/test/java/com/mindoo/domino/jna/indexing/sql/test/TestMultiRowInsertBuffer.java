@@ -0,0 +1,192 @@
+package com.mindoo.domino.jna.indexing.sql.test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.mindoo.domino.jna.indexing.sql.MultiRowInsertBuffer;
+
+/**
+ * Tests cases for the statement splitting of {@link MultiRowInsertBuffer} against a
+ * connection that only records the executed statements, no database required
+ *
+ * @author Karsten Lehmann
+ */
+public class TestMultiRowInsertBuffer {
+
+	/**
+	 * Connection proxy that records the prepared SQL and the parameters of every executed statement
+	 */
+	private static class RecordingConnection {
+		private List<String> m_preparedSql = new ArrayList<String>();
+		/** row count of each executed statement */
+		private List<Integer> m_executedRows = new ArrayList<Integer>();
+		private List<Object> m_executedParams = new ArrayList<Object>();
+		private int m_columns;
+
+		public RecordingConnection(int columns) {
+			m_columns = columns;
+		}
+
+		public Connection getConnection() {
+			return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {Connection.class}, new InvocationHandler() {
+
+				@Override
+				public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+					if ("prepareStatement".equals(method.getName())) {
+						String sql = (String) args[0];
+						m_preparedSql.add(sql);
+						return createStatement(sql);
+					}
+					throw new UnsupportedOperationException(method.getName());
+				}
+			});
+		}
+
+		private PreparedStatement createStatement(final String sql) {
+			final List<Object> params = new ArrayList<Object>();
+
+			return (PreparedStatement) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {PreparedStatement.class}, new InvocationHandler() {
+
+				@Override
+				public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+					String name = method.getName();
+					if (name.startsWith("set")) {
+						int idx = ((Integer) args[0]).intValue();
+						while (params.size() < idx) {
+							params.add(null);
+						}
+						params.set(idx-1, "setNull".equals(name) ? null : args[1]);
+						return null;
+					}
+					else if ("executeUpdate".equals(name)) {
+						int placeholders = sql.length() - sql.replace("?", "").length();
+						Assert.assertEquals("All parameters set", placeholders, params.size());
+						int rows = placeholders / m_columns;
+						m_executedRows.add(rows);
+						m_executedParams.addAll(params);
+						params.clear();
+						return Integer.valueOf(rows);
+					}
+					else if ("close".equals(name)) {
+						return null;
+					}
+					throw new UnsupportedOperationException(name);
+				}
+			});
+		}
+
+		public List<String> getPreparedSql() {
+			return m_preparedSql;
+		}
+
+		public List<Integer> getExecutedRows() {
+			return m_executedRows;
+		}
+
+		public List<Object> getExecutedParams() {
+			return m_executedParams;
+		}
+	}
+
+	private static Object[] row(int id) {
+		return new Object[] {Integer.valueOf(id), "name"+id};
+	}
+
+	@Test
+	public void testMultiRowInsertBuffer_maxParameters() throws SQLException {
+		RecordingConnection conn = new RecordingConnection(2);
+		//15 parameters with two columns: max 7 rows per statement
+		MultiRowInsertBuffer buffer = new MultiRowInsertBuffer(conn.getConnection(), "docs", new String[] {"id", "name"},
+				new int[] {Types.INTEGER, Types.VARCHAR}, 15, 100000);
+
+		for (int i=1; i<=6; i++) {
+			Assert.assertEquals("Row "+i+" only buffered", 0, buffer.add(row(i)));
+		}
+		Assert.assertTrue("Seventh row fills the statement", buffer.add(row(7)) > 0);
+		Assert.assertEquals("Buffer empty after writing", 0, buffer.getBufferedRows());
+		Assert.assertEquals("One statement with 7 rows", Arrays.asList(7), conn.getExecutedRows());
+		Assert.assertEquals("SQL of the statement", "INSERT INTO docs (id, name) VALUES (?, ?), (?, ?), (?, ?), (?, ?), (?, ?), (?, ?), (?, ?)",
+				conn.getPreparedSql().get(0));
+
+		Assert.assertEquals("Eighth row only buffered", 0, buffer.add(row(8)));
+		Assert.assertEquals("One row buffered", 1, buffer.getBufferedRows());
+		Assert.assertEquals("Written rows", 7, buffer.getWrittenRows());
+
+		List<Object> expectedParams = new ArrayList<Object>();
+		for (int i=1; i<=7; i++) {
+			expectedParams.addAll(Arrays.asList(row(i)));
+		}
+		Assert.assertEquals("Parameters in row order", expectedParams, conn.getExecutedParams());
+		buffer.close();
+	}
+
+	@Test
+	public void testMultiRowInsertBuffer_maxStatementBytes() throws SQLException {
+		RecordingConnection conn = new RecordingConnection(1);
+		//a string is estimated with its length + 2
+		MultiRowInsertBuffer buffer = new MultiRowInsertBuffer(conn.getConnection(), "docs", new String[] {"name"},
+				new int[] {Types.VARCHAR}, 999, 20);
+
+		Assert.assertEquals("10 bytes buffered", 0, buffer.add(new Object[] {"12345678"}));
+		Assert.assertEquals("Exactly at the limit: both rows written", 20, buffer.add(new Object[] {"abcdefgh"}));
+		Assert.assertEquals("One statement with 2 rows", Arrays.asList(2), conn.getExecutedRows());
+
+		Assert.assertEquals("10 bytes buffered", 0, buffer.add(new Object[] {"12345678"}));
+		Assert.assertEquals("Row exceeding the limit: previous row written first", 10, buffer.add(new Object[] {"123456789"}));
+		Assert.assertEquals("Row exceeding the limit is buffered", 1, buffer.getBufferedRows());
+		Assert.assertEquals("Statements", Arrays.asList(2, 1), conn.getExecutedRows());
+
+		Assert.assertEquals("Row larger than the limit: previous row written, then the large row alone", 11+32,
+				buffer.add(new Object[] {"123456789012345678901234567890"}));
+		Assert.assertEquals("Statements", Arrays.asList(2, 1, 1, 1), conn.getExecutedRows());
+		Assert.assertEquals("Nothing buffered", 0, buffer.getBufferedRows());
+		Assert.assertEquals("Written bytes", 20+10+11+32, buffer.getWrittenBytes());
+		Assert.assertEquals("Statement for 1 row reused", 2, conn.getPreparedSql().size());
+		buffer.close();
+	}
+
+	@Test
+	public void testMultiRowInsertBuffer_flushPartialBatch() throws SQLException {
+		RecordingConnection conn = new RecordingConnection(2);
+		//max 8 rows per statement
+		MultiRowInsertBuffer buffer = new MultiRowInsertBuffer(conn.getConnection(), "docs", new String[] {"id", "name"},
+				new int[] {Types.INTEGER, Types.VARCHAR}, 16, 100000);
+
+		Assert.assertEquals("Nothing to flush", 0, buffer.flush());
+		Assert.assertTrue("No statement for an empty buffer", conn.getExecutedRows().isEmpty());
+
+		for (int i=1; i<=7; i++) {
+			buffer.add(row(i));
+		}
+		Assert.assertTrue("Partial batch written", buffer.flush() > 0);
+		//7 rows are written in chunks of powers of two
+		Assert.assertEquals("Chunks of partial batch", Arrays.asList(4, 2, 1), conn.getExecutedRows());
+		Assert.assertEquals("Written rows", 7, buffer.getWrittenRows());
+
+		buffer.add(new Object[] {Integer.valueOf(8), null});
+		buffer.add(row(9));
+		buffer.flush();
+		Assert.assertEquals("Statement for 2 rows reused", Arrays.asList(4, 2, 1, 2), conn.getExecutedRows());
+		Assert.assertEquals("Statements prepared per row count", 3, conn.getPreparedSql().size());
+
+		List<Object> params = conn.getExecutedParams();
+		Assert.assertEquals("Null value written", Arrays.asList(Integer.valueOf(8), null, Integer.valueOf(9), "name9"),
+				params.subList(params.size()-4, params.size()));
+
+		buffer.add(row(10));
+		buffer.close();
+		Assert.assertEquals("Close discards buffered rows", 0, buffer.getBufferedRows());
+		Assert.assertEquals("No statement executed by close", 4, conn.getExecutedRows().size());
+	}
+}
@@ -1,18 +1,62 @@
 package com.mindoo.domino.jna.indexing.sqlite;
 
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.logging.Level;
+
 import javax.sql.DataSource;
 
 import org.sqlite.SQLiteDataSource;
 
+import com.mindoo.domino.jna.NotesTimeDate;
 import com.mindoo.domino.jna.indexing.sql.AbstractSQLSyncTarget;
+import com.mindoo.domino.jna.indexing.sql.InitialLoadWriter;
+import com.mindoo.domino.jna.indexing.sql.SqlSyncException;
 
 /**
- * Abstract sync target class to sync Domino data into a Sqlite database
- * 
+ * Abstract sync target class to sync Domino data into a Sqlite database.<br>
+ * <br>
+ * The connection is configured with the pragmas returned by {@link #getConnectionPragmas()},
+ * by default WAL journal mode and a larger page cache and memory mapped I/O.<br>
+ * <br>
+ * If {@link #getPartitionCount()} returns a value greater than 1, the initial load of an empty
+ * database is written in parallel: each writer thread fills its own shard database and the
+ * shard databases get merged into the tables docs and docreaders at the end of the sync run.
+ *
  * @author Karsten Lehmann
  */
 public abstract class AbstractSQLiteSyncTarget extends AbstractSQLSyncTarget {
-	
+	private static final String SQL_CREATE_SHARD_DOCS = "CREATE TABLE IF NOT EXISTS docs ("
+			+ "__unid text, "
+			+ "__seq integer, "
+			+ "__seqtime_innard0 integer, "
+			+ "__seqtime_innard1 integer, "
+			+ "__seqtime_millis integer, "
+			+ "__modifiedinthisfile_millis integer, "
+			+ "__numreaders integer, "
+			+ "__flags text, "
+			+ "__form text, "
+			+ "__json text, "
+			+ "__customtext text, "
+			+ "__custombinary BLOB);";
+	private static final String SQL_CREATE_SHARD_DOCREADERS = "CREATE TABLE IF NOT EXISTS docreaders ("
+			+ "__unid text, "
+			+ "__reader text);";
+	private static final String SQL_ATTACH_SHARD = "ATTACH DATABASE ? AS ";
+	private static final String SQL_DETACH_SHARD = "DETACH DATABASE ";
+
+	private List<File> m_shardFiles;
+	private List<String> m_shardSchemas;
+
 	public AbstractSQLiteSyncTarget(String jdbcUrl) {
 		super(jdbcUrl);
 	}
@@ -24,4 +68,257 @@ public abstract class AbstractSQLiteSyncTarget extends AbstractSQLSyncTarget {
 		return ds;
 	}
 
+	@Override
+	protected Connection createConnection() throws SQLException {
+		Connection conn = super.createConnection();
+		applyPragmas(conn, getConnectionPragmas());
+		return conn;
+	}
+
+	/**
+	 * Returns the pragmas to configure the connection of this sync target. The default
+	 * implementation uses the WAL journal mode with synchronous=NORMAL, which is safe in WAL mode
+	 * and avoids a sync to disk for every commit, a 64 MB page cache, 256 MB of memory mapped I/O
+	 * and in-memory temporary tables and indexes.
+	 *
+	 * @return map of pragma name and value
+	 */
+	protected Map<String,String> getConnectionPragmas() {
+		Map<String,String> pragmas = new LinkedHashMap<String,String>();
+		pragmas.put("journal_mode", "WAL");
+		pragmas.put("synchronous", "NORMAL");
+		//negative value means KiB instead of pages
+		pragmas.put("cache_size", "-65536");
+		pragmas.put("mmap_size", Long.toString(256L*1024*1024));
+		pragmas.put("temp_store", "MEMORY");
+		return pragmas;
+	}
+
+	/**
+	 * Returns the pragmas to configure the connections to the shard databases of the
+	 * partitioned initial load. The shard databases are only temporary, so the
+	 * default implementation disables the journal and syncing to disk.
+	 *
+	 * @return map of pragma name and value
+	 */
+	protected Map<String,String> getShardConnectionPragmas() {
+		Map<String,String> pragmas = new LinkedHashMap<String,String>();
+		pragmas.put("journal_mode", "OFF");
+		pragmas.put("synchronous", "OFF");
+		pragmas.put("cache_size", "-16384");
+		pragmas.put("temp_store", "MEMORY");
+		return pragmas;
+	}
+
+	private void applyPragmas(Connection conn, Map<String,String> pragmas) throws SQLException {
+		if (pragmas==null || pragmas.isEmpty()) {
+			return;
+		}
+		Statement stmt = conn.createStatement();
+		try {
+			for (Entry<String,String> currEntry : pragmas.entrySet()) {
+				stmt.execute("PRAGMA "+currEntry.getKey()+"="+currEntry.getValue()+";");
+			}
+		}
+		finally {
+			stmt.close();
+		}
+	}
+
+	/**
+	 * Returns the number of writer threads and shard databases for a partitioned
+	 * initial load. The default is 1, which means that the initial load is written
+	 * on the connection of the sync target.
+	 *
+	 * @return number of partitions
+	 */
+	protected int getPartitionCount() {
+		return 1;
+	}
+
+	/**
+	 * Returns the number of document and reader rows that are passed to a writer thread of the partitioned
+	 * initial load in one step. The default is 500.
+	 *
+	 * @return batch size
+	 */
+	protected int getPartitionBatchSize() {
+		return 500;
+	}
+
+	/**
+	 * Returns the directory for the temporary shard databases of the partitioned
+	 * initial load.
+	 *
+	 * @return directory or null to use the default temporary-file directory (default)
+	 */
+	protected File getPartitionDirectory() {
+		return null;
+	}
+
+	@Override
+	public SyncContext startingSync(String dbReplicaId) {
+		if (getPartitionCount()>1 && isInitialLoadModeEnabled()) {
+			//attaching databases is not possible within a transaction, so we do this
+			//before the sync transaction starts and only if the docs table is empty
+			attachShardsForInitialLoad(getPartitionCount());
+		}
+		try {
+			return super.startingSync(dbReplicaId);
+		}
+		catch (RuntimeException e) {
+			detachShards();
+			throw e;
+		}
+	}
+
+	@Override
+	protected InitialLoadWriter createInitialLoadWriter(SyncContext ctx) throws SQLException {
+		InitialLoadWriter directWriter = super.createInitialLoadWriter(ctx);
+		if (m_shardSchemas==null) {
+			return directWriter;
+		}
+
+		List<String> shardJdbcUrls = new ArrayList<String>(m_shardFiles.size());
+		for (File currFile : m_shardFiles) {
+			shardJdbcUrls.add("jdbc:sqlite:"+currFile.getAbsolutePath());
+		}
+		return new PartitionedInitialLoadWriter(this, directWriter, getConnection(), m_shardSchemas, shardJdbcUrls,
+				getPartitionBatchSize(), getMaxStatementParameters(), getInitialLoadMaxStatementBytes());
+	}
+
+	/**
+	 * Opens a connection to a shard database of the partitioned initial load and creates the tables
+	 *
+	 * @param jdbcUrl JDBC url of shard database
+	 * @return connection with auto commit disabled
+	 * @throws SQLException in case of SQL errors
+	 */
+	Connection openShardConnection(String jdbcUrl) throws SQLException {
+		Connection conn = createDataSource(jdbcUrl).getConnection();
+		try {
+			applyPragmas(conn, getShardConnectionPragmas());
+			Statement stmt = conn.createStatement();
+			try {
+				stmt.executeUpdate(SQL_CREATE_SHARD_DOCS);
+				stmt.executeUpdate(SQL_CREATE_SHARD_DOCREADERS);
+			}
+			finally {
+				stmt.close();
+			}
+			conn.setAutoCommit(false);
+			return conn;
+		}
+		catch (SQLException e) {
+			conn.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Creates the shard databases and attaches them to the connection of the sync target
+	 * if the table docs is empty, which means that the sync run does an initial load
+	 *
+	 * @param count number of shards
+	 */
+	private void attachShardsForInitialLoad(int count) {
+		try {
+			Connection conn = getConnection();
+			conn.setAutoCommit(true);
+
+			if (!isDocsTableEmpty()) {
+				//incremental sync, rows are written directly
+				return;
+			}
+
+			m_shardFiles = new ArrayList<File>(count);
+			m_shardSchemas = new ArrayList<String>(count);
+			for (int i=0; i<count; i++) {
+				File shardFile = File.createTempFile("dominojna-shard", ".db", getPartitionDirectory());
+				m_shardFiles.add(shardFile);
+
+				String schema = "shard"+i;
+				PreparedStatement stmt = conn.prepareStatement(SQL_ATTACH_SHARD+schema+";");
+				try {
+					stmt.setString(1, shardFile.getAbsolutePath());
+					stmt.executeUpdate();
+				}
+				finally {
+					stmt.close();
+				}
+				m_shardSchemas.add(schema);
+			}
+		}
+		catch (SQLException e) {
+			detachShards();
+			throw new SqlSyncException("Error attaching shard databases", e);
+		}
+		catch (IOException e) {
+			detachShards();
+			throw new SqlSyncException("Error creating shard databases", e);
+		}
+	}
+
+	private void detachShards() {
+		if (m_shardFiles==null) {
+			return;
+		}
+
+		try {
+			Connection conn = getConnection();
+			if (!conn.getAutoCommit()) {
+				//the sync transaction has either been committed or needs to be discarded,
+				//setAutoCommit(true) would commit it
+				conn.rollback();
+			}
+			conn.setAutoCommit(true);
+			Statement stmt = conn.createStatement();
+			try {
+				for (String currSchema : m_shardSchemas) {
+					stmt.executeUpdate(SQL_DETACH_SHARD+currSchema+";");
+				}
+			}
+			finally {
+				stmt.close();
+			}
+			conn.setAutoCommit(false);
+		}
+		catch (SQLException e) {
+			log(Level.SEVERE, "Error detaching shard databases", e);
+		}
+
+		for (File currFile : m_shardFiles) {
+			String path = currFile.getAbsolutePath();
+			for (String currSuffix : new String[] {"", "-journal", "-wal", "-shm"}) {
+				File currFileToDelete = new File(path+currSuffix);
+				if (currFileToDelete.exists() && !currFileToDelete.delete()) {
+					log(Level.WARNING, "Could not delete shard database file "+currFileToDelete.getAbsolutePath());
+				}
+			}
+		}
+		m_shardFiles = null;
+		m_shardSchemas = null;
+	}
+
+	@Override
+	public void endingSync(SyncContext ctx, String selectionFormulaForNextSync, String dbInstanceId,
+			NotesTimeDate startingDateForNextSync) {
+		try {
+			super.endingSync(ctx, selectionFormulaForNextSync, dbInstanceId, startingDateForNextSync);
+		}
+		finally {
+			detachShards();
+		}
+	}
+
+	@Override
+	public void abort(SyncContext ctx, Throwable t) {
+		try {
+			super.abort(ctx, t);
+		}
+		finally {
+			detachShards();
+		}
+	}
+
 }
@@ -0,0 +1,364 @@
+package com.mindoo.domino.jna.indexing.sqlite;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+
+import com.mindoo.domino.jna.indexing.sql.InitialLoadWriter;
+import com.mindoo.domino.jna.indexing.sql.MultiRowInsertBuffer;
+import com.mindoo.domino.jna.indexing.sql.SqlSyncException;
+
+/**
+ * {@link InitialLoadWriter} that distributes the documents of an initial load to several
+ * writer threads. Each thread writes into its own shard database file, so that the
+ * SQLite write lock does not serialize the inserts. The shard databases are attached to the
+ * connection of the sync target and get merged into the tables docs and docreaders with
+ * <code>INSERT INTO ... SELECT</code> when the writer gets flushed.<br>
+ * <br>
+ * After flushing, all further documents are passed to the writer that writes directly
+ * into the database of the sync target.
+ *
+ * @author Karsten Lehmann
+ */
+class PartitionedInitialLoadWriter extends InitialLoadWriter {
+	private static final long POLL_INTERVAL_MS = 100;
+	/** marker to tell the shard writer threads that there is no more data */
+	private static final Batch END_OF_DATA = new Batch(0);
+
+	private final AbstractSQLiteSyncTarget m_target;
+	private final InitialLoadWriter m_directWriter;
+	private final Connection m_mainConn;
+	private final List<String> m_shardSchemas;
+	private final int m_batchSize;
+	private final int m_maxParameters;
+	private final int m_maxStatementBytes;
+	private final List<BlockingQueue<Batch>> m_queues;
+	private final List<Thread> m_threads;
+	private final AtomicReference<Throwable> m_error;
+
+	private volatile boolean m_aborted;
+	private boolean m_merged;
+	private Batch m_currBatch;
+	private int m_nextShard;
+	private long m_writtenDocs;
+	private long m_writtenReaders;
+
+	/**
+	 * Creates a new writer and starts the writer threads
+	 *
+	 * @param target sync target
+	 * @param directWriter writer to use after the shards have been merged
+	 * @param mainConn connection of the sync target with the attached shard databases
+	 * @param shardSchemas schema names of the attached shard databases
+	 * @param shardJdbcUrls JDBC urls of the shard databases in the same order
+	 * @param batchSize number of document and reader rows passed to a writer thread in one step
+	 * @param maxParameters maximum number of parameters in a single statement
+	 * @param maxStatementBytes estimated maximum size of the row data in a single statement
+	 * @throws SQLException in case of SQL errors
+	 */
+	PartitionedInitialLoadWriter(AbstractSQLiteSyncTarget target, InitialLoadWriter directWriter,
+			Connection mainConn, List<String> shardSchemas, List<String> shardJdbcUrls, int batchSize,
+			int maxParameters, int maxStatementBytes) throws SQLException {
+		if (shardSchemas.size()!=shardJdbcUrls.size())
+			throw new IllegalArgumentException("Number of shard schemas and JDBC urls do not match: "+shardSchemas.size()+"!="+shardJdbcUrls.size());
+		if (batchSize<=0)
+			throw new IllegalArgumentException("Batch size must be greater than 0: "+batchSize);
+
+		m_target = target;
+		m_directWriter = directWriter;
+		m_mainConn = mainConn;
+		m_shardSchemas = shardSchemas;
+		m_batchSize = batchSize;
+		m_maxParameters = maxParameters;
+		m_maxStatementBytes = maxStatementBytes;
+		m_error = new AtomicReference<Throwable>();
+		m_queues = new ArrayList<BlockingQueue<Batch>>(shardSchemas.size());
+		m_threads = new ArrayList<Thread>(shardSchemas.size());
+		m_currBatch = new Batch(batchSize);
+
+		//open connections in this thread to report errors early
+		List<Connection> shardConns = new ArrayList<Connection>(shardJdbcUrls.size());
+		try {
+			for (String currJdbcUrl : shardJdbcUrls) {
+				shardConns.add(target.openShardConnection(currJdbcUrl));
+			}
+		}
+		catch (SQLException e) {
+			for (Connection currConn : shardConns) {
+				try {
+					currConn.close();
+				}
+				catch (SQLException e1) {
+					target.log(Level.SEVERE, "Error closing shard database connection", e1);
+				}
+			}
+			throw e;
+		}
+
+		for (int i=0; i<shardConns.size(); i++) {
+			BlockingQueue<Batch> queue = new ArrayBlockingQueue<Batch>(4);
+			m_queues.add(queue);
+
+			Thread thread = new Thread(new ShardWriter(shardConns.get(i), queue), "SQLite shard writer "+(i+1)+"/"+shardConns.size());
+			thread.setDaemon(true);
+			m_threads.add(thread);
+		}
+		for (Thread currThread : m_threads) {
+			currThread.start();
+		}
+	}
+
+	/**
+	 * Document and reader rows passed to a shard writer in one step
+	 */
+	private static class Batch {
+		private final List<Object[]> m_docRows;
+		private final List<Object[]> m_readerRows;
+
+		public Batch(int capacity) {
+			m_docRows = new ArrayList<Object[]>(capacity);
+			m_readerRows = new ArrayList<Object[]>(capacity);
+		}
+
+		public int size() {
+			return m_docRows.size() + m_readerRows.size();
+		}
+
+		public boolean isEmpty() {
+			return m_docRows.isEmpty() && m_readerRows.isEmpty();
+		}
+	}
+
+	/**
+	 * Writes batches of documents into a shard database
+	 */
+	private class ShardWriter implements Runnable {
+		private final Connection m_conn;
+		private final BlockingQueue<Batch> m_queue;
+
+		public ShardWriter(Connection conn, BlockingQueue<Batch> queue) {
+			m_conn = conn;
+			m_queue = queue;
+		}
+
+		@Override
+		public void run() {
+			MultiRowInsertBuffer docs = null;
+			MultiRowInsertBuffer docReaders = null;
+			try {
+				docs = new MultiRowInsertBuffer(m_conn, "docs", getDocsColumns(), getDocsColumnTypes(),
+						m_maxParameters, m_maxStatementBytes);
+				docReaders = new MultiRowInsertBuffer(m_conn, "docreaders", getDocReadersColumns(), getDocReadersColumnTypes(),
+						m_maxParameters, m_maxStatementBytes);
+
+				while (!m_aborted) {
+					Batch batch = m_queue.poll(POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+					if (batch==null) {
+						continue;
+					}
+					if (batch==END_OF_DATA) {
+						break;
+					}
+
+					for (Object[] currRow : batch.m_docRows) {
+						docs.add(currRow);
+					}
+					for (Object[] currRow : batch.m_readerRows) {
+						docReaders.add(currRow);
+					}
+				}
+
+				if (!m_aborted) {
+					docs.flush();
+					docReaders.flush();
+					m_conn.commit();
+				}
+			}
+			catch (Throwable t) {
+				m_error.compareAndSet(null, t);
+				m_aborted = true;
+			}
+			finally {
+				try {
+					if (docs!=null) {
+						docs.close();
+					}
+					if (docReaders!=null) {
+						docReaders.close();
+					}
+					m_conn.close();
+				}
+				catch (SQLException e) {
+					m_target.log(Level.SEVERE, "Error closing shard database connection", e);
+				}
+			}
+		}
+	}
+
+	@Override
+	public int write(Object[] docValues, List<String> readers) throws SQLException {
+		if (m_merged) {
+			return m_directWriter.write(docValues, readers);
+		}
+
+		checkError();
+
+		m_currBatch.m_docRows.add(docValues);
+		m_writtenDocs++;
+		if (readers!=null) {
+			Object unid = docValues[0];
+			for (String currReader : readers) {
+				m_currBatch.m_readerRows.add(new Object[] {unid, currReader});
+				m_writtenReaders++;
+			}
+		}
+
+		if (m_currBatch.size() >= m_batchSize) {
+			dispatchBatch();
+		}
+		//the data is not written on the sync target connection yet
+		return 0;
+	}
+
+	private void dispatchBatch() {
+		if (m_currBatch.isEmpty()) {
+			return;
+		}
+
+		int numShards = m_queues.size();
+		try {
+			while (true) {
+				checkError();
+				//use the next shard with free capacity, so that a slow shard does not block the others
+				for (int i=0; i<numShards; i++) {
+					int shardIdx = (m_nextShard + i) % numShards;
+					if (m_queues.get(shardIdx).offer(m_currBatch)) {
+						m_nextShard = (shardIdx + 1) % numShards;
+						m_currBatch = new Batch(m_batchSize);
+						return;
+					}
+				}
+				if (m_queues.get(m_nextShard).offer(m_currBatch, POLL_INTERVAL_MS, TimeUnit.MILLISECONDS)) {
+					m_nextShard = (m_nextShard + 1) % numShards;
+					m_currBatch = new Batch(m_batchSize);
+					return;
+				}
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			m_aborted = true;
+			throw new SqlSyncException("Interrupted while waiting for shard writers", e);
+		}
+	}
+
+	private void checkError() {
+		Throwable t = m_error.get();
+		if (t!=null) {
+			throw new SqlSyncException("Error writing into shard database", t);
+		}
+	}
+
+	@Override
+	public int flush() throws SQLException {
+		if (m_merged) {
+			return m_directWriter.flush();
+		}
+
+		dispatchBatch();
+		waitForShardWriters();
+
+		long t0=System.currentTimeMillis();
+
+		String docsColumns = join(getDocsColumns());
+		String docReadersColumns = join(getDocReadersColumns());
+
+		Statement stmt = m_mainConn.createStatement();
+		try {
+			for (String currSchema : m_shardSchemas) {
+				stmt.executeUpdate("INSERT INTO main.docs ("+docsColumns+") SELECT "+docsColumns+" FROM "+currSchema+".docs;");
+				stmt.executeUpdate("INSERT INTO main.docreaders ("+docReadersColumns+") SELECT "+docReadersColumns+" FROM "+currSchema+".docreaders;");
+			}
+		}
+		finally {
+			stmt.close();
+		}
+		m_merged = true;
+
+		long t1=System.currentTimeMillis();
+		m_target.log(Level.INFO, "Merged "+m_writtenDocs+" documents from "+m_shardSchemas.size()+" shard databases in "+(t1-t0)+"ms");
+		return 0;
+	}
+
+	private void waitForShardWriters() {
+		try {
+			for (BlockingQueue<Batch> currQueue : m_queues) {
+				while (!currQueue.offer(END_OF_DATA, POLL_INTERVAL_MS, TimeUnit.MILLISECONDS)) {
+					checkError();
+				}
+			}
+			for (Thread currThread : m_threads) {
+				while (currThread.isAlive()) {
+					currThread.join(POLL_INTERVAL_MS);
+					checkError();
+				}
+			}
+			checkError();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			m_aborted = true;
+			throw new SqlSyncException("Interrupted while waiting for shard writers", e);
+		}
+	}
+
+	private static String join(String[] columns) {
+		StringBuilder sb = new StringBuilder();
+		for (int i=0; i<columns.length; i++) {
+			if (i>0) {
+				sb.append(", ");
+			}
+			sb.append(columns[i]);
+		}
+		return sb.toString();
+	}
+
+	@Override
+	public long getWrittenDocuments() {
+		if (m_merged) {
+			return m_writtenDocs + m_directWriter.getWrittenDocuments();
+		}
+		return m_writtenDocs;
+	}
+
+	@Override
+	public long getWrittenReaders() {
+		if (m_merged) {
+			return m_writtenReaders + m_directWriter.getWrittenReaders();
+		}
+		return m_writtenReaders;
+	}
+
+	@Override
+	public void close() throws SQLException {
+		m_aborted = true;
+		for (Thread currThread : m_threads) {
+			try {
+				currThread.join();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+		m_directWriter.close();
+	}
+
+}
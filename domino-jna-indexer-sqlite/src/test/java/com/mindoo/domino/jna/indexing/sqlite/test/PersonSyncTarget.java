@@ -4,10 +4,9 @@ import java.util.EnumSet;
 import java.util.LinkedHashMap;
 import java.util.Map;
 
-import org.json.JSONObject;
-
 import com.mindoo.domino.jna.IItemTableData;
 import com.mindoo.domino.jna.NotesNote;
+import com.mindoo.domino.jna.indexing.sql.JsonWriter;
 import com.mindoo.domino.jna.indexing.sqlite.AbstractSQLiteSyncTarget;
 import com.mindoo.domino.jna.sync.NotesOriginatorIdData;
 
@@ -42,7 +41,7 @@ public class PersonSyncTarget extends AbstractSQLiteSyncTarget {
 	}
 
 	@Override
-	protected String toJson(NotesOriginatorIdData oid, IItemTableData summaryBufferData, NotesNote note) {
+	protected void writeJson(JsonWriter writer, NotesOriginatorIdData oid, IItemTableData summaryBufferData, NotesNote note) {
 		String companyName;
 		String fullName;
 		String lastName;
@@ -61,13 +60,10 @@ public class PersonSyncTarget extends AbstractSQLiteSyncTarget {
 			firstName = summaryBufferData.getAsString("Firstname", "");
 		}
 		
-		JSONObject json = new JSONObject();
-		json.put("company", companyName);
-		json.put("fullname", fullName);
-		json.put("firstname", firstName);
-		json.put("lastname", lastName);
-		
-		return json.toString();
+		writer.name("company").value(companyName);
+		writer.name("fullname").value(fullName);
+		writer.name("firstname").value(firstName);
+		writer.name("lastname").value(lastName);
 	}
 
 }
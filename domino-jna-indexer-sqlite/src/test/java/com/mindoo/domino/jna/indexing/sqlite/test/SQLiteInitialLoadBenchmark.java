@@ -0,0 +1,266 @@
+package com.mindoo.domino.jna.indexing.sqlite.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.logging.Level;
+
+import com.mindoo.domino.jna.IItemTableData;
+import com.mindoo.domino.jna.NotesItem;
+import com.mindoo.domino.jna.NotesNote;
+import com.mindoo.domino.jna.NotesTimeDate;
+import com.mindoo.domino.jna.indexing.sql.AbstractSQLSyncTarget.SyncContext;
+import com.mindoo.domino.jna.indexing.sql.JsonWriter;
+import com.mindoo.domino.jna.indexing.sqlite.AbstractSQLiteSyncTarget;
+import com.mindoo.domino.jna.internal.InnardsConverter;
+import com.mindoo.domino.jna.internal.TypedItemAccess;
+import com.mindoo.domino.jna.sync.NotesOriginatorIdData;
+
+/**
+ * Benchmark that loads synthetic {@link IItemTableData} rows into an empty SQLite database,
+ * in initial load mode, in partitioned initial load mode with 4 shards and with per-row lookups and
+ * batched inserts. Does not need
+ * a Notes Client or Domino server, because the sync target is called directly.<br>
+ * <br>
+ * Usage: <code>SQLiteInitialLoadBenchmark [rows, default 1000000]</code>
+ *
+ * @author Karsten Lehmann
+ */
+public class SQLiteInitialLoadBenchmark {
+	private static final String[] COMPANIES = new String[] {"Mindoo", "Acme Corp.", "Initech", "Umbrella", "Stark Industries"};
+	private static final String[] FIRSTNAMES = new String[] {"Karsten", "Tammo", "Anna", "Maria", "John", "Jane", "Peter"};
+	private static final String[] LASTNAMES = new String[] {"Lehmann", "Riedinger", "Miller", "Smith", "Doe", "Schmidt"};
+
+	public static void main(String[] args) throws Exception {
+		int rows = args.length>0 ? Integer.parseInt(args[0]) : 1000000;
+
+		runBenchmark("initial load mode", rows, true, 1);
+		runBenchmark("partitioned initial load mode", rows, true, 4);
+		runBenchmark("per-row mode", rows, false, 1);
+	}
+
+	private static void runBenchmark(String name, int rows, boolean initialLoadMode, int partitions) throws IOException, SQLException {
+		File dbFile = File.createTempFile("initialload", ".db");
+		if (!dbFile.delete())
+			throw new IllegalStateException("Could not delete database "+dbFile.getAbsolutePath());
+
+		try {
+			BenchmarkSyncTarget target = new BenchmarkSyncTarget("jdbc:sqlite:"+dbFile.getAbsolutePath(), initialLoadMode, partitions);
+			//open connection and run the DB migration before measuring
+			target.getConnection();
+
+			SyntheticItemTableData summaryBufferData = new SyntheticItemTableData();
+			Calendar seqTime = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+			seqTime.set(2018, 0, 1, 0, 0, 0);
+
+			long t0=System.currentTimeMillis();
+
+			SyncContext ctx = target.startingSync("C1257F13004A2E5B");
+			for (int i=0; i<rows; i++) {
+				String unid = String.format("%032X", i);
+				seqTime.add(Calendar.SECOND, 1);
+				NotesOriginatorIdData oid = new NotesOriginatorIdData(unid, 1+(i % 5), InnardsConverter.encodeInnards(seqTime));
+
+				summaryBufferData.fill(i);
+				target.noteChangedMatchingFormula(ctx, oid, summaryBufferData, null);
+
+				if (((i+1) % 100000)==0) {
+					System.out.println(name+": "+(i+1)+" rows after "+(System.currentTimeMillis()-t0)+"ms");
+				}
+			}
+			target.endingSync(ctx, "SELECT Form=\"Person\"", "benchmark", new NotesTimeDate());
+
+			long t1=System.currentTimeMillis();
+
+			Connection conn = target.getConnection();
+			Statement stmt = conn.createStatement();
+			ResultSet rs = stmt.executeQuery("SELECT count(*) FROM docs");
+			rs.next();
+			int docCount = rs.getInt(1);
+			rs.close();
+			stmt.close();
+			target.closeConnection();
+
+			if (docCount!=rows)
+				throw new IllegalStateException("Expected "+rows+" rows, found "+docCount);
+
+			long duration = Math.max(1, t1-t0);
+			System.out.println(name+": loaded "+rows+" rows in "+duration+"ms ("+(rows*1000L/duration)+" rows/s), "+
+					"database size: "+(dbFile.length()/1024/1024)+" MB");
+		}
+		finally {
+			for (String currSuffix : new String[] {"", "-wal", "-shm"}) {
+				new File(dbFile.getAbsolutePath()+currSuffix).delete();
+			}
+		}
+	}
+
+	/**
+	 * Sync target that writes the synthetic data with the streaming JSON writer
+	 */
+	private static class BenchmarkSyncTarget extends AbstractSQLiteSyncTarget {
+		private boolean m_initialLoadMode;
+		private int m_partitions;
+
+		public BenchmarkSyncTarget(String jdbcUrl, boolean initialLoadMode, int partitions) {
+			super(jdbcUrl);
+			m_initialLoadMode = initialLoadMode;
+			m_partitions = partitions;
+		}
+
+		@Override
+		protected boolean isInitialLoadModeEnabled() {
+			return m_initialLoadMode;
+		}
+
+		@Override
+		protected int getPartitionCount() {
+			return m_partitions;
+		}
+
+		@Override
+		public boolean isLoggable(Level level) {
+			return level.intValue() >= Level.INFO.intValue();
+		}
+
+		@Override
+		public Map<String, String> getSummaryBufferItemsAndFormulas() {
+			return null;
+		}
+
+		@Override
+		public EnumSet<DataToRead> getWhichDataToRead() {
+			return EnumSet.of(DataToRead.SummaryBufferAllItems);
+		}
+
+		@Override
+		protected void writeJson(JsonWriter writer, NotesOriginatorIdData oid, IItemTableData summaryBufferData,
+				NotesNote note) {
+			writer.name("company").value(summaryBufferData.getAsString("companyname", ""));
+			writer.name("firstname").value(summaryBufferData.getAsString("firstname", ""));
+			writer.name("lastname").value(summaryBufferData.getAsString("lastname", ""));
+			writer.name("fullname").value(summaryBufferData.getAsString("fullname", ""));
+			writer.name("age").value(summaryBufferData.get("age"));
+			writer.name("comment").value(summaryBufferData.getAsString("comment", ""));
+		}
+	}
+
+	/**
+	 * Reused in-memory summary buffer with person data
+	 */
+	private static class SyntheticItemTableData extends TypedItemAccess implements IItemTableData {
+		private static final String[] ITEM_NAMES = new String[] {"form", "companyname", "firstname", "lastname", "fullname",
+				"age", "comment", "$C1$"};
+		private static final int[] ITEM_TYPES = new int[] {NotesItem.TYPE_TEXT, NotesItem.TYPE_TEXT, NotesItem.TYPE_TEXT,
+				NotesItem.TYPE_TEXT, NotesItem.TYPE_TEXT, NotesItem.TYPE_NUMBER, NotesItem.TYPE_TEXT, NotesItem.TYPE_TEXT_LIST};
+		private final Object[] m_values = new Object[ITEM_NAMES.length];
+		private boolean m_preferNotesTimeDates;
+
+		public void fill(int idx) {
+			String firstName = FIRSTNAMES[idx % FIRSTNAMES.length];
+			String lastName = LASTNAMES[(idx / FIRSTNAMES.length) % LASTNAMES.length];
+			m_values[0] = "Person";
+			m_values[1] = COMPANIES[idx % COMPANIES.length];
+			m_values[2] = firstName;
+			m_values[3] = lastName;
+			m_values[4] = "CN="+firstName+" "+lastName+" "+idx+"/O=Mindoo";
+			m_values[5] = Double.valueOf(20 + (idx % 50));
+			m_values[6] = "Line 1 of \"comment\" "+idx+"\nLine 2";
+			if ((idx % 10)==0) {
+				//every 10th document has reader restrictions
+				m_values[7] = Arrays.asList("CN="+firstName+" "+lastName+" "+idx+"/O=Mindoo", "[Admin]", "LocalDomainServers");
+			}
+			else {
+				m_values[7] = null;
+			}
+		}
+
+		@Override
+		public Object get(String itemName) {
+			for (int i=0; i<ITEM_NAMES.length; i++) {
+				if (ITEM_NAMES[i].equalsIgnoreCase(itemName)) {
+					return m_values[i];
+				}
+			}
+			return null;
+		}
+
+		@Override
+		public boolean has(String itemName) {
+			return get(itemName)!=null;
+		}
+
+		@Override
+		public String[] getItemNames() {
+			List<String> names = new ArrayList<String>(ITEM_NAMES.length);
+			for (int i=0; i<ITEM_NAMES.length; i++) {
+				if (m_values[i]!=null) {
+					names.add(ITEM_NAMES[i]);
+				}
+			}
+			return names.toArray(new String[names.size()]);
+		}
+
+		@Override
+		public Map<String, Object> asMap() {
+			return asMap(true);
+		}
+
+		@Override
+		public Map<String, Object> asMap(boolean decodeLMBCS) {
+			Map<String,Object> map = new LinkedHashMap<String,Object>();
+			for (int i=0; i<ITEM_NAMES.length; i++) {
+				if (m_values[i]!=null) {
+					map.put(ITEM_NAMES[i], m_values[i]);
+				}
+			}
+			return map;
+		}
+
+		@Override
+		public void free() {
+			//
+		}
+
+		@Override
+		public boolean isFreed() {
+			return false;
+		}
+
+		@Override
+		public Object getItemValue(int index) {
+			return m_values[index];
+		}
+
+		@Override
+		public int getItemDataType(int index) {
+			return ITEM_TYPES[index];
+		}
+
+		@Override
+		public int getItemsCount() {
+			return ITEM_NAMES.length;
+		}
+
+		@Override
+		public void setPreferNotesTimeDates(boolean b) {
+			m_preferNotesTimeDates = b;
+		}
+
+		@Override
+		public boolean isPreferNotesTimeDates() {
+			return m_preferNotesTimeDates;
+		}
+	}
+}
@@ -6,7 +6,10 @@ import java.sql.ResultSet;
 import java.sql.Statement;
 import java.util.EnumSet;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 
 import org.junit.Test;
@@ -20,6 +23,9 @@ import com.mindoo.domino.jna.NotesTimeDate;
 import com.mindoo.domino.jna.constants.NoteClass;
 import com.mindoo.domino.jna.constants.Search;
 import com.mindoo.domino.jna.gc.NotesGC;
+import com.mindoo.domino.jna.indexing.sql.JsonWriter;
+import com.mindoo.domino.jna.sync.NotesOriginatorIdData;
+import com.mindoo.domino.jna.sync.SyncPipelineSettings;
 import com.mindoo.domino.jna.sync.SyncResult;
 import com.mindoo.domino.jna.sync.SyncUtil;
 
@@ -308,4 +314,194 @@ public class TestSyncWithSQLite extends BaseJNATestClass {
 		});
 	
 	}
+
+	private static File createEmptyDbFile(String name) {
+		File sqliteDbFile = new File(name);
+		if (sqliteDbFile.exists()) {
+			if (!sqliteDbFile.delete())
+				throw new IllegalStateException("Could not delete database "+sqliteDbFile.getAbsolutePath());
+		}
+		return sqliteDbFile;
+	}
+	
+	/**
+	 * Reads the stored documents and readers as map of UNID and row data, because the
+	 * order of the rows written by the pipelined sync is not defined
+	 * 
+	 * @param conn connection
+	 * @return content
+	 * @throws Exception in case of SQL errors
+	 */
+	private static Map<String,String> getDocData(Connection conn) throws Exception {
+		Map<String,String> data = new TreeMap<String,String>();
+		Statement stmt = conn.createStatement();
+		try {
+			ResultSet rs = stmt.executeQuery("SELECT __unid, __seq, __numreaders, __form, __json FROM docs");
+			while (rs.next()) {
+				data.put(rs.getString("__unid"), rs.getInt("__seq")+"|"+rs.getInt("__numreaders")+"|"+
+						rs.getString("__form")+"|"+rs.getString("__json"));
+			}
+			
+			rs = stmt.executeQuery("SELECT __unid, __reader FROM docreaders ORDER BY __unid, __reader");
+			while (rs.next()) {
+				String unid = rs.getString("__unid");
+				data.put(unid, data.get(unid)+"|"+rs.getString("__reader"));
+			}
+		}
+		finally {
+			stmt.close();
+		}
+		return data;
+	}
+	
+	private static void assertSameResult(String msg, SyncResult expected, SyncResult actual) {
+		Assert.assertEquals(msg+": added", expected.getAddedToTarget(), actual.getAddedToTarget());
+		Assert.assertEquals(msg+": updated", expected.getUpdatedInTarget(), actual.getUpdatedInTarget());
+		Assert.assertEquals(msg+": removed", expected.getRemovedFromTarget(), actual.getRemovedFromTarget());
+		Assert.assertEquals(msg+": matching formula", expected.getNoteCountMatchingFormula(), actual.getNoteCountMatchingFormula());
+		Assert.assertEquals(msg+": not matching formula", expected.getNoteCountNotMatchingFormula(), actual.getNoteCountNotMatchingFormula());
+		Assert.assertEquals(msg+": deleted", expected.getNoteCountDeleted(), actual.getNoteCountDeleted());
+	}
+	
+	@Test
+	public void testSyncUtil_pipelined() {
+		runWithSession(new IDominoCallable<Object>() {
+
+			@Override
+			public Object call(Session session) throws Exception {
+				NotesGC.setDebugLoggingEnabled(false);
+				NotesDatabase db = getFakeNamesDb();
+				
+				File sequentialDbFile = createEmptyDbFile("persons_sequential.db");
+				File pipelinedDbFile = createEmptyDbFile("persons_pipelined.db");
+				
+				PersonSyncTarget sequentialTarget = new PersonSyncTarget("jdbc:sqlite:"+sequentialDbFile.getAbsolutePath());
+				PersonSyncTarget pipelinedTarget = new PersonSyncTarget("jdbc:sqlite:"+pipelinedDbFile.getAbsolutePath());
+				
+				try {
+					Connection sequentialConn = sequentialTarget.getConnection();
+					Connection pipelinedConn = pipelinedTarget.getConnection();
+					
+					//small queues and batches to let the stages block each other
+					SyncPipelineSettings pipelineSettings = new SyncPipelineSettings(4, 50, 20);
+					
+					String selectionFormula = "Form=\"Person\"";
+					{
+						SyncResult sequentialResult = SyncUtil.sync(db, selectionFormula, sequentialTarget);
+						SyncResult pipelinedResult = SyncUtil.sync(db, selectionFormula, pipelinedTarget, null, pipelineSettings);
+						
+						Assert.assertTrue("Entries have been added to the target", pipelinedResult.getAddedToTarget() > 0);
+						assertSameResult("Initial sync", sequentialResult, pipelinedResult);
+						Assert.assertEquals("Initial sync produces the same content", getDocData(sequentialConn), getDocData(pipelinedConn));
+					}
+					
+					{
+						//change one document and run an incremental sync
+						String unidToChange = getDocData(sequentialConn).keySet().iterator().next();
+						NotesNote note = db.openNoteByUnid(unidToChange);
+						note.replaceItemValue("xyz", "123");
+						note.update();
+						note.recycle();
+						
+						SyncResult sequentialResult = SyncUtil.sync(db, selectionFormula, sequentialTarget);
+						SyncResult pipelinedResult = SyncUtil.sync(db, selectionFormula, pipelinedTarget, null, pipelineSettings);
+						
+						Assert.assertEquals("One note got updated", 1, pipelinedResult.getUpdatedInTarget());
+						assertSameResult("Incremental sync", sequentialResult, pipelinedResult);
+						Assert.assertEquals("Incremental sync produces the same content", getDocData(sequentialConn), getDocData(pipelinedConn));
+					}
+					
+					{
+						//changed formula, removes all persons not matching it
+						selectionFormula = "Form=\"Person\" & @Begins(Lastname;\"L\")";
+						
+						SyncResult sequentialResult = SyncUtil.sync(db, selectionFormula, sequentialTarget);
+						SyncResult pipelinedResult = SyncUtil.sync(db, selectionFormula, pipelinedTarget, null, pipelineSettings);
+						
+						Assert.assertTrue("Entries have been removed", pipelinedResult.getRemovedFromTarget() > 0);
+						assertSameResult("Sync with changed formula", sequentialResult, pipelinedResult);
+						Assert.assertEquals("Sync with changed formula produces the same content", getDocData(sequentialConn), getDocData(pipelinedConn));
+					}
+				}
+				finally {
+					sequentialTarget.closeConnection();
+					pipelinedTarget.closeConnection();
+				}
+				return null;
+			}
+		});
+	}
+	
+	@Test
+	public void testSyncUtil_pipelinedWorkerError() {
+		runWithSession(new IDominoCallable<Object>() {
+
+			@Override
+			public Object call(Session session) throws Exception {
+				NotesGC.setDebugLoggingEnabled(false);
+				NotesDatabase db = getFakeNamesDb();
+				
+				File sequentialDbFile = createEmptyDbFile("persons_sequential.db");
+				File pipelinedDbFile = createEmptyDbFile("persons_pipelined.db");
+
+				final String errorMsg = "Conversion error thrown by worker thread";
+				final boolean[] failConversion = new boolean[] {true};
+				
+				PersonSyncTarget sequentialTarget = new PersonSyncTarget("jdbc:sqlite:"+sequentialDbFile.getAbsolutePath());
+				PersonSyncTarget pipelinedTarget = new PersonSyncTarget("jdbc:sqlite:"+pipelinedDbFile.getAbsolutePath()) {
+					private AtomicInteger m_converted = new AtomicInteger();
+					
+					@Override
+					public boolean isLoggable(Level level) {
+						//the sync logs the expected error
+						return false;
+					}
+					
+					@Override
+					protected void writeJson(JsonWriter writer, NotesOriginatorIdData oid, IItemTableData summaryBufferData, NotesNote note) {
+						if (failConversion[0] && m_converted.incrementAndGet() > 100) {
+							throw new IllegalStateException(errorMsg);
+						}
+						super.writeJson(writer, oid, summaryBufferData, note);
+					}
+				};
+				
+				try {
+					String selectionFormula = "Form=\"Person\"";
+					SyncPipelineSettings pipelineSettings = new SyncPipelineSettings(4, 50, 20);
+					
+					Throwable error = null;
+					try {
+						SyncUtil.sync(db, selectionFormula, pipelinedTarget, null, pipelineSettings);
+					}
+					catch (Throwable t) {
+						error = t;
+					}
+					Assert.assertNotNull("Worker error has been propagated", error);
+					
+					boolean errorFound = false;
+					for (Throwable currError = error; currError!=null; currError = currError.getCause()) {
+						if (errorMsg.equals(currError.getMessage())) {
+							errorFound = true;
+							break;
+						}
+					}
+					Assert.assertTrue("Cause is the error of the worker", errorFound);
+					Assert.assertNull("No selection formula stored", pipelinedTarget.getLastSyncSelectionFormula());
+					
+					//the next sync has to repair the target
+					failConversion[0] = false;
+					SyncUtil.sync(db, selectionFormula, sequentialTarget);
+					SyncUtil.sync(db, selectionFormula, pipelinedTarget, null, pipelineSettings);
+					Assert.assertEquals("Sync after error produces the same content", getDocData(sequentialTarget.getConnection()),
+							getDocData(pipelinedTarget.getConnection()));
+				}
+				finally {
+					sequentialTarget.closeConnection();
+					pipelinedTarget.closeConnection();
+				}
+				return null;
+			}
+		});
+	}
 }
@@ -3,10 +3,10 @@ package com.mindoo.domino.jna;
 import java.io.Serializable;
 import java.util.Collections;
 import java.util.EnumSet;
-import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import com.mindoo.domino.jna.NotesCollection.ViewLookupCallback;
@@ -19,7 +19,11 @@ import com.mindoo.domino.jna.constants.ReadMask;
  * <br>
  * Please note that according to IBM dev, this optimized view reading (differential view reads) does
  * only work in views that are not permuted (where documents do not appear multiple times, because
- * "Show multiple values as separate entries" has been set on any view column).
+ * "Show multiple values as separate entries" has been set on any view column).<br>
+ * <br>
+ * For caches that are shared across many threads or hold many entries, use
+ * {@link ShardedCollectionDataCache} instead, which is lock-striped and stores its
+ * data outside of the Java heap.
  * 
  * @author Karsten Lehmann
  */
@@ -32,6 +36,9 @@ public class CollectionDataCache implements Serializable {
 	private ReentrantReadWriteLock m_rwLock = new ReentrantReadWriteLock();
 	private EnumSet<ReadMask> m_readMask;
 	private static ThreadLocal<Long> m_cacheUseCounter = new ThreadLocal<Long>();
+	private final LongAdder m_hits = new LongAdder();
+	private final LongAdder m_misses = new LongAdder();
+	private final LongAdder m_evictions = new LongAdder();
 	
 	/**
 	 * Creates a new instance of an unbounded cache
@@ -56,6 +63,7 @@ public class CollectionDataCache implements Serializable {
 			@Override
 			protected boolean removeEldestEntry(java.util.Map.Entry<Integer, CacheableViewEntryData> eldest) {
 				if (size() > maxSize) {
+					m_evictions.increment();
 					return true;
 				}
 				else {
@@ -89,9 +97,77 @@ public class CollectionDataCache implements Serializable {
 		}
 	}
 	
+	/**
+	 * Returns the number of view entries that could be populated with cache data
+	 * since the cache has been created or {@link #resetStats()} has been called
+	 * 
+	 * @return hit count
+	 */
+	public long getHitCount() {
+		return m_hits.sum();
+	}
+	
+	/**
+	 * Returns the number of view entries skipped by NIF that could not be found in the cache
+	 * 
+	 * @return miss count
+	 */
+	public long getMissCount() {
+		return m_misses.sum();
+	}
+	
+	/**
+	 * Returns the number of entries that have been removed from the cache to
+	 * stay within its size limits
+	 * 
+	 * @return eviction count
+	 */
+	public long getEvictionCount() {
+		return m_evictions.sum();
+	}
+	
+	/**
+	 * Sets the hit, miss and eviction counters to 0
+	 */
+	public void resetStats() {
+		m_hits.reset();
+		m_misses.reset();
+		m_evictions.reset();
+	}
+	
+	/**
+	 * Increments the hit counter
+	 * 
+	 * @param count number of hits
+	 */
+	void recordHits(int count) {
+		m_hits.add(count);
+	}
+	
+	/**
+	 * Increments the miss counter
+	 * 
+	 * @param count number of misses
+	 */
+	void recordMisses(int count) {
+		m_misses.add(count);
+	}
+	
+	/**
+	 * Increments the eviction counter
+	 * 
+	 * @param count number of evictions
+	 */
+	void recordEvictions(int count) {
+		m_evictions.add(count);
+	}
+	
 	/**
 	 * Enables taking cache usage stats for the current thread
+	 * 
+	 * @deprecated use the per instance counters, e.g. {@link #getHitCount()}
 	 */
+	@Deprecated
 	public void enableUsageStats() {
 		Long counter = m_cacheUseCounter.get();
 		if (counter==null) {
@@ -101,7 +177,10 @@ public class CollectionDataCache implements Serializable {
 
 	/**
 	 * Disables taking cache usage stats for the current thread
+	 * 
+	 * @deprecated use the per instance counters, e.g. {@link #getHitCount()}
 	 */
+	@Deprecated
 	public void disableUsageStats() {
 		m_cacheUseCounter.set(null);
 	}
@@ -111,7 +190,9 @@ public class CollectionDataCache implements Serializable {
 	 * current thread is enabled
 	 * 
 	 * @return true if enabled
+	 * @deprecated use the per instance counters, e.g. {@link #getHitCount()}
 	 */
+	@Deprecated
 	public boolean isUsageStatsEnabled() {
 		return m_cacheUseCounter.get() != null;
 	}
@@ -120,7 +201,9 @@ public class CollectionDataCache implements Serializable {
 	 * Returns a statistic value with the number of view entries where we could use the cache data
 	 * 
 	 * @return count or -1 if logging stats are not enabled
+	 * @deprecated use {@link #getHitCount()}
 	 */
+	@Deprecated
 	public long getCacheUsageStats() {
 		Long counter = m_cacheUseCounter.get();
 		if (counter!=null) {
@@ -131,7 +214,10 @@ public class CollectionDataCache implements Serializable {
 	
 	/**
 	 * Sets the cache usage stats to 0
+	 * 
+	 * @deprecated use {@link #resetStats()}
 	 */
+	@Deprecated
 	public void resetCacheUsageStats() {
 		Long counter = m_cacheUseCounter.get();
 		if (counter!=null) {
@@ -219,6 +305,9 @@ public class CollectionDataCache implements Serializable {
 		long usageStatsPrim = usageStats==null ? -1 : usageStats.longValue();
 		
 		if (hasAnyMissingData) {
+			int hits = 0;
+			int misses = 0;
+			
 			m_rwLock.readLock().lock();
 			try {
 				for (NotesViewEntryData currEntry : entries) {
@@ -227,14 +316,21 @@ public class CollectionDataCache implements Serializable {
 						if (cacheData!=null) {
 							//updating data of stub entry from cache
 							currEntry.updateFromCache(cacheData);
+							hits++;
 							
 							if (usageStatsPrim!=-1) {
 								usageStatsPrim++;
 							}
 						}
+						else {
+							misses++;
+						}
 					}
 				}
 				
+				recordHits(hits);
+				recordMisses(misses);
+				
 				if (usageStatsPrim!=-1) {
 					m_cacheUseCounter.set(usageStatsPrim);
 				}
@@ -253,7 +349,16 @@ public class CollectionDataCache implements Serializable {
 	CacheState getCacheState() {
 		m_rwLock.readLock().lock();
 		try {
-			return new CacheState(m_readMask, m_diffTime, new HashMap<Integer, NotesViewEntryData.CacheableViewEntryData>(m_cacheEntries));
+			int[] noteIds;
+			//the map is in access order, so we need to block concurrent reads while iterating
+			synchronized (m_cacheEntries) {
+				noteIds = new int[m_cacheEntries.size()];
+				int idx = 0;
+				for (Integer currNoteId : m_cacheEntries.keySet()) {
+					noteIds[idx++] = currNoteId.intValue();
+				}
+			}
+			return new CacheState(m_readMask, m_diffTime, noteIds);
 		}
 		finally {
 			m_rwLock.readLock().unlock();
@@ -267,13 +372,13 @@ public class CollectionDataCache implements Serializable {
 	 */
 	static class CacheState {
 		private NotesTimeDate m_diffTime;
-		private Map<Integer,CacheableViewEntryData> m_cacheEntries;
+		private int[] m_noteIds;
 		private EnumSet<ReadMask> m_readMask;
 		
-		private CacheState(EnumSet<ReadMask> readMask, NotesTimeDate diffTime, Map<Integer,CacheableViewEntryData> cacheEntries) {
+		CacheState(EnumSet<ReadMask> readMask, NotesTimeDate diffTime, int[] noteIds) {
 			m_readMask = readMask;
 			m_diffTime = diffTime;
-			m_cacheEntries = cacheEntries;
+			m_noteIds = noteIds;
 		}
 		
 		public EnumSet<ReadMask> getReadMask() {
@@ -284,8 +389,13 @@ public class CollectionDataCache implements Serializable {
 			return m_diffTime;
 		}
 		
-		public Map<Integer,CacheableViewEntryData> getCacheEntries() {
-			return m_cacheEntries;
+		/**
+		 * Returns the note ids of all cached entries
+		 * 
+		 * @return note ids
+		 */
+		public int[] getNoteIds() {
+			return m_noteIds;
 		}
 	}
 	
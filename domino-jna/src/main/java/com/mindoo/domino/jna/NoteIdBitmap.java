@@ -0,0 +1,1143 @@
+package com.mindoo.domino.jna;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+
+import com.mindoo.domino.jna.NotesCollection.NoteIdsAsBitmapCallback;
+
+/**
+ * Compressed bitmap of note ids stored in the Java heap, an alternative to {@link NotesIDTable}
+ * and to collections of {@link Integer} objects when processing large amounts of note ids.<br>
+ * <br>
+ * The implementation follows the idea of roaring bitmaps: note ids are partitioned by their
+ * upper 16 bits into chunks. A chunk stores its lower 16 bits either as sorted <code>char</code>
+ * array (up to 4096 values) or as a bitset of 65536 bits, so the memory usage stays between 2 bits
+ * and 2 bytes per note id. Note ids are treated as unsigned values and iterated in ascending order.<br>
+ * <br>
+ * Use {@link #fromIDTable(NotesIDTable)} and {@link #toIDTable()} to convert from and to
+ * {@link NotesIDTable}, which inserts consecutive note id ranges in one C API call, and
+ * {@link NoteIdsAsBitmapCallback} to fill a bitmap with the note ids of a collection lookup.<br>
+ * <br>
+ * The set operations {@link #and(NoteIdBitmap)}, {@link #or(NoteIdBitmap)} and {@link #andNot(NoteIdBitmap)}
+ * run in Java without native calls, so chained operations on ID tables are faster when the tables are
+ * converted once, combined as bitmaps and the result converted back into a single {@link NotesIDTable}.
+ * For large bitmaps, the chunks can be combined in parallel in the common {@link ForkJoinPool}.<br>
+ * <br>
+ * This class is not thread-safe, but concurrent read-only access (including set operations that
+ * produce new bitmaps) is safe.
+ *
+ * @author Karsten Lehmann
+ */
+public class NoteIdBitmap {
+	/** maximum number of values in an array chunk, bitset chunks have the same size in bytes */
+	static final int MAX_ARRAY_SIZE = 4096;
+	private static final int INITIAL_CAPACITY = 4;
+	/** minimum number of chunks to be combined per fork/join task */
+	private static final int PARALLEL_CHUNKS_PER_TASK = 16;
+
+	private static final int OP_AND = 0;
+	private static final int OP_OR = 1;
+	private static final int OP_ANDNOT = 2;
+
+	private char[] m_keys;
+	private Chunk[] m_chunks;
+	private int m_size;
+
+	/**
+	 * Creates a new empty bitmap
+	 */
+	public NoteIdBitmap() {
+		m_keys = new char[INITIAL_CAPACITY];
+		m_chunks = new Chunk[INITIAL_CAPACITY];
+	}
+
+	/**
+	 * Creates a new bitmap with the specified note ids
+	 *
+	 * @param noteIds note ids
+	 */
+	public NoteIdBitmap(int... noteIds) {
+		this();
+		for (int i=0; i<noteIds.length; i++) {
+			add(noteIds[i]);
+		}
+	}
+
+	/**
+	 * Creates a new bitmap with the note ids of an ID table
+	 *
+	 * @param idTable ID table
+	 * @return bitmap
+	 */
+	public static NoteIdBitmap fromIDTable(NotesIDTable idTable) {
+		//IDs are returned in ascending order, so we always append to the last chunk
+		return new NoteIdBitmap(idTable.toArray());
+	}
+
+	/**
+	 * Creates a new {@link NotesIDTable} with the note ids of this bitmap. Consecutive
+	 * note ids are inserted as range.
+	 *
+	 * @return ID table
+	 */
+	public NotesIDTable toIDTable() {
+		NotesIDTable idTable = new NotesIDTable();
+		idTable.addNotes(this);
+		return idTable;
+	}
+
+	/**
+	 * Adds a note id
+	 *
+	 * @param noteId note id
+	 * @return true if added, false if already in the bitmap
+	 */
+	public boolean add(int noteId) {
+		char high = highBits(noteId);
+		int idx = findChunk(high);
+		if (idx < 0) {
+			idx = -idx - 1;
+			insertChunk(idx, high, new ArrayChunk());
+		}
+		Chunk chunk = m_chunks[idx];
+		int oldCardinality = chunk.cardinality();
+		Chunk newChunk = chunk.add(lowBits(noteId));
+		m_chunks[idx] = newChunk;
+		return newChunk.cardinality() != oldCardinality;
+	}
+
+	/**
+	 * Adds all note ids of another bitmap
+	 *
+	 * @param other other bitmap
+	 */
+	public void addAll(NoteIdBitmap other) {
+		for (int i=0; i<other.m_size; i++) {
+			char high = other.m_keys[i];
+			int idx = findChunk(high);
+			if (idx < 0) {
+				insertChunk(-idx - 1, high, other.m_chunks[i].copy());
+			}
+			else {
+				m_chunks[idx] = m_chunks[idx].or(other.m_chunks[i]);
+			}
+		}
+	}
+
+	/**
+	 * Removes a note id
+	 *
+	 * @param noteId note id
+	 * @return true if removed, false if not in the bitmap
+	 */
+	public boolean remove(int noteId) {
+		int idx = findChunk(highBits(noteId));
+		if (idx < 0) {
+			return false;
+		}
+		Chunk chunk = m_chunks[idx];
+		int oldCardinality = chunk.cardinality();
+		Chunk newChunk = chunk.remove(lowBits(noteId));
+		if (newChunk.cardinality()==0) {
+			removeChunk(idx);
+		}
+		else {
+			m_chunks[idx] = newChunk;
+		}
+		return newChunk.cardinality() != oldCardinality;
+	}
+
+	/**
+	 * Checks if the bitmap contains a note id
+	 *
+	 * @param noteId note id
+	 * @return true if contained
+	 */
+	public boolean contains(int noteId) {
+		int idx = findChunk(highBits(noteId));
+		return idx >= 0 && m_chunks[idx].contains(lowBits(noteId));
+	}
+
+	/**
+	 * Returns the number of note ids
+	 *
+	 * @return count
+	 */
+	public int size() {
+		int size = 0;
+		for (int i=0; i<m_size; i++) {
+			size += m_chunks[i].cardinality();
+		}
+		return size;
+	}
+
+	/**
+	 * Checks if the bitmap is empty
+	 *
+	 * @return true if empty
+	 */
+	public boolean isEmpty() {
+		return m_size==0;
+	}
+
+	/**
+	 * Removes all note ids
+	 */
+	public void clear() {
+		m_keys = new char[INITIAL_CAPACITY];
+		m_chunks = new Chunk[INITIAL_CAPACITY];
+		m_size = 0;
+	}
+
+	/**
+	 * Returns the approximate memory usage of the note id data
+	 *
+	 * @return size in bytes
+	 */
+	public long sizeInBytes() {
+		long bytes = 0;
+		for (int i=0; i<m_size; i++) {
+			bytes += 2 + m_chunks[i].sizeInBytes();
+		}
+		return bytes;
+	}
+
+	/**
+	 * Calls the consumer for each note id in ascending order
+	 *
+	 * @param consumer consumer
+	 */
+	public void forEachNoteId(IntConsumer consumer) {
+		for (int i=0; i<m_size; i++) {
+			m_chunks[i].forEach(m_keys[i] << 16, consumer);
+		}
+	}
+
+	/**
+	 * Returns an iterator over the note ids in ascending order
+	 *
+	 * @return iterator
+	 */
+	public PrimitiveIterator.OfInt intIterator() {
+		return new NoteIdIterator();
+	}
+
+	/**
+	 * Copies the note ids in ascending order into an array
+	 *
+	 * @param dest target array
+	 * @param offset offset in the target array
+	 * @return number of note ids copied
+	 * @throws IllegalArgumentException if the array is too small
+	 */
+	public int toArray(int[] dest, int offset) {
+		int size = size();
+		if (offset<0 || dest.length - offset < size)
+			throw new IllegalArgumentException("Array too small for "+size+" note ids at offset "+offset+": "+dest.length);
+
+		int pos = offset;
+		for (int i=0; i<m_size; i++) {
+			pos = m_chunks[i].toArray(m_keys[i] << 16, dest, pos);
+		}
+		return pos - offset;
+	}
+
+	/**
+	 * Returns the note ids in ascending order
+	 *
+	 * @return note ids
+	 */
+	public int[] toArray() {
+		int[] arr = new int[size()];
+		toArray(arr, 0);
+		return arr;
+	}
+
+	/**
+	 * Computes the intersection with another bitmap
+	 *
+	 * @param other other bitmap
+	 * @return new bitmap with the note ids contained in both bitmaps
+	 */
+	public NoteIdBitmap and(NoteIdBitmap other) {
+		return combine(other, OP_AND, false);
+	}
+
+	/**
+	 * Computes the intersection with another bitmap
+	 *
+	 * @param other other bitmap
+	 * @param parallel true to combine the chunks in parallel for large bitmaps
+	 * @return new bitmap with the note ids contained in both bitmaps
+	 */
+	public NoteIdBitmap and(NoteIdBitmap other, boolean parallel) {
+		return combine(other, OP_AND, parallel);
+	}
+
+	/**
+	 * Computes the union with another bitmap
+	 *
+	 * @param other other bitmap
+	 * @return new bitmap with the note ids contained in any of the bitmaps
+	 */
+	public NoteIdBitmap or(NoteIdBitmap other) {
+		return combine(other, OP_OR, false);
+	}
+
+	/**
+	 * Computes the union with another bitmap
+	 *
+	 * @param other other bitmap
+	 * @param parallel true to combine the chunks in parallel for large bitmaps
+	 * @return new bitmap with the note ids contained in any of the bitmaps
+	 */
+	public NoteIdBitmap or(NoteIdBitmap other, boolean parallel) {
+		return combine(other, OP_OR, parallel);
+	}
+
+	/**
+	 * Computes the difference to another bitmap
+	 *
+	 * @param other other bitmap
+	 * @return new bitmap with the note ids of this bitmap that are not contained in the other bitmap
+	 */
+	public NoteIdBitmap andNot(NoteIdBitmap other) {
+		return combine(other, OP_ANDNOT, false);
+	}
+
+	/**
+	 * Computes the difference to another bitmap
+	 *
+	 * @param other other bitmap
+	 * @param parallel true to combine the chunks in parallel for large bitmaps
+	 * @return new bitmap with the note ids of this bitmap that are not contained in the other bitmap
+	 */
+	public NoteIdBitmap andNot(NoteIdBitmap other, boolean parallel) {
+		return combine(other, OP_ANDNOT, parallel);
+	}
+
+	/**
+	 * Removes all note ids that are not contained in another bitmap
+	 *
+	 * @param other other bitmap
+	 */
+	public void retainAll(NoteIdBitmap other) {
+		replaceContent(and(other));
+	}
+
+	/**
+	 * Removes all note ids that are contained in another bitmap
+	 *
+	 * @param other other bitmap
+	 */
+	public void removeAll(NoteIdBitmap other) {
+		replaceContent(andNot(other));
+	}
+
+	private void replaceContent(NoteIdBitmap other) {
+		m_keys = other.m_keys;
+		m_chunks = other.m_chunks;
+		m_size = other.m_size;
+	}
+
+	/**
+	 * Combines the chunks of two bitmaps
+	 *
+	 * @param other other bitmap
+	 * @param op operation
+	 * @param parallel true to combine in parallel
+	 * @return new bitmap
+	 */
+	private NoteIdBitmap combine(NoteIdBitmap other, int op, boolean parallel) {
+		//collect pairs of chunks to be combined, -1 for a missing chunk
+		int maxPairs = m_size + other.m_size;
+		final char[] keys = new char[maxPairs];
+		final int[] idx1 = new int[maxPairs];
+		final int[] idx2 = new int[maxPairs];
+		int pairs = 0;
+
+		int i = 0, j = 0;
+		while (i < m_size && j < other.m_size) {
+			char key1 = m_keys[i];
+			char key2 = other.m_keys[j];
+			if (key1 < key2) {
+				if (op!=OP_AND) {
+					keys[pairs] = key1;
+					idx1[pairs] = i;
+					idx2[pairs++] = -1;
+				}
+				i++;
+			}
+			else if (key1 > key2) {
+				if (op==OP_OR) {
+					keys[pairs] = key2;
+					idx1[pairs] = -1;
+					idx2[pairs++] = j;
+				}
+				j++;
+			}
+			else {
+				keys[pairs] = key1;
+				idx1[pairs] = i++;
+				idx2[pairs++] = j++;
+			}
+		}
+		if (op!=OP_AND) {
+			for (; i < m_size; i++) {
+				keys[pairs] = m_keys[i];
+				idx1[pairs] = i;
+				idx2[pairs++] = -1;
+			}
+		}
+		if (op==OP_OR) {
+			for (; j < other.m_size; j++) {
+				keys[pairs] = other.m_keys[j];
+				idx1[pairs] = -1;
+				idx2[pairs++] = j;
+			}
+		}
+
+		Chunk[] results = new Chunk[pairs];
+		if (parallel && pairs >= 2 * PARALLEL_CHUNKS_PER_TASK) {
+			ForkJoinPool.commonPool().invoke(new CombineTask(other, op, idx1, idx2, results, 0, pairs));
+		}
+		else {
+			combineRange(other, op, idx1, idx2, results, 0, pairs);
+		}
+
+		NoteIdBitmap result = new NoteIdBitmap();
+		result.m_keys = new char[Math.max(INITIAL_CAPACITY, pairs)];
+		result.m_chunks = new Chunk[result.m_keys.length];
+		for (int k=0; k<pairs; k++) {
+			if (results[k]!=null) {
+				result.m_keys[result.m_size] = keys[k];
+				result.m_chunks[result.m_size++] = results[k];
+			}
+		}
+		return result;
+	}
+
+	private void combineRange(NoteIdBitmap other, int op, int[] idx1, int[] idx2, Chunk[] results, int from, int to) {
+		for (int k=from; k<to; k++) {
+			Chunk chunk1 = idx1[k]==-1 ? null : m_chunks[idx1[k]];
+			Chunk chunk2 = idx2[k]==-1 ? null : other.m_chunks[idx2[k]];
+
+			if (chunk1==null) {
+				results[k] = chunk2.copy();
+			}
+			else if (chunk2==null) {
+				results[k] = chunk1.copy();
+			}
+			else if (op==OP_AND) {
+				results[k] = chunk1.and(chunk2);
+			}
+			else if (op==OP_OR) {
+				results[k] = chunk1.copy().or(chunk2);
+			}
+			else {
+				results[k] = chunk1.andNot(chunk2);
+			}
+		}
+	}
+
+	/**
+	 * Fork/join task to combine a range of chunk pairs
+	 */
+	private class CombineTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final NoteIdBitmap m_other;
+		private final int m_op;
+		private final int[] m_idx1;
+		private final int[] m_idx2;
+		private final Chunk[] m_results;
+		private final int m_from;
+		private final int m_to;
+
+		private CombineTask(NoteIdBitmap other, int op, int[] idx1, int[] idx2, Chunk[] results, int from, int to) {
+			m_other = other;
+			m_op = op;
+			m_idx1 = idx1;
+			m_idx2 = idx2;
+			m_results = results;
+			m_from = from;
+			m_to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (m_to - m_from <= PARALLEL_CHUNKS_PER_TASK) {
+				combineRange(m_other, m_op, m_idx1, m_idx2, m_results, m_from, m_to);
+			}
+			else {
+				int mid = (m_from + m_to) >>> 1;
+				invokeAll(new CombineTask(m_other, m_op, m_idx1, m_idx2, m_results, m_from, mid),
+						new CombineTask(m_other, m_op, m_idx1, m_idx2, m_results, mid, m_to));
+			}
+		}
+	}
+
+	/**
+	 * Creates a copy of this bitmap
+	 *
+	 * @return copy
+	 */
+	public NoteIdBitmap copy() {
+		NoteIdBitmap copy = new NoteIdBitmap();
+		copy.m_keys = Arrays.copyOf(m_keys, Math.max(INITIAL_CAPACITY, m_size));
+		copy.m_chunks = new Chunk[copy.m_keys.length];
+		for (int i=0; i<m_size; i++) {
+			copy.m_chunks[i] = m_chunks[i].copy();
+		}
+		copy.m_size = m_size;
+		return copy;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this==obj) {
+			return true;
+		}
+		if (!(obj instanceof NoteIdBitmap)) {
+			return false;
+		}
+		NoteIdBitmap other = (NoteIdBitmap) obj;
+		if (m_size != other.m_size) {
+			return false;
+		}
+		for (int i=0; i<m_size; i++) {
+			if (m_keys[i]!=other.m_keys[i] || !m_chunks[i].equalsChunk(other.m_chunks[i])) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public int hashCode() {
+		final int[] hash = new int[] {1};
+		forEachNoteId(new IntConsumer() {
+
+			@Override
+			public void accept(int noteId) {
+				hash[0] = 31 * hash[0] + noteId;
+			}
+		});
+		return hash[0];
+	}
+
+	@Override
+	public String toString() {
+		return "NoteIdBitmap [size="+size()+", chunks="+m_size+"]";
+	}
+
+	private static char highBits(int noteId) {
+		return (char) (noteId >>> 16);
+	}
+
+	private static char lowBits(int noteId) {
+		return (char) noteId;
+	}
+
+	/**
+	 * Searches the chunk for the upper 16 bits
+	 *
+	 * @param high upper bits
+	 * @return chunk index or (-(insertion point) - 1)
+	 */
+	private int findChunk(char high) {
+		//fast path when adding ascending note ids
+		if (m_size>0 && m_keys[m_size-1]==high) {
+			return m_size-1;
+		}
+		return binarySearch(m_keys, m_size, high);
+	}
+
+	private void insertChunk(int idx, char high, Chunk chunk) {
+		if (m_size==m_keys.length) {
+			int newCapacity = m_keys.length * 2;
+			m_keys = Arrays.copyOf(m_keys, newCapacity);
+			m_chunks = Arrays.copyOf(m_chunks, newCapacity);
+		}
+		System.arraycopy(m_keys, idx, m_keys, idx+1, m_size-idx);
+		System.arraycopy(m_chunks, idx, m_chunks, idx+1, m_size-idx);
+		m_keys[idx] = high;
+		m_chunks[idx] = chunk;
+		m_size++;
+	}
+
+	private void removeChunk(int idx) {
+		System.arraycopy(m_keys, idx+1, m_keys, idx, m_size-idx-1);
+		System.arraycopy(m_chunks, idx+1, m_chunks, idx, m_size-idx-1);
+		m_size--;
+		m_chunks[m_size] = null;
+	}
+
+	private static int binarySearch(char[] arr, int length, char value) {
+		int low = 0;
+		int high = length - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			char midVal = arr[mid];
+			if (midVal < value) {
+				low = mid + 1;
+			}
+			else if (midVal > value) {
+				high = mid - 1;
+			}
+			else {
+				return mid;
+			}
+		}
+		return -(low + 1);
+	}
+
+	/**
+	 * Iterator over all chunks
+	 */
+	private class NoteIdIterator implements PrimitiveIterator.OfInt {
+		private int m_chunkIdx;
+		private ChunkCursor m_cursor;
+		private int m_next = -1;
+		private boolean m_hasNext;
+
+		private NoteIdIterator() {
+			fetchNext();
+		}
+
+		private void fetchNext() {
+			while (m_chunkIdx < m_size) {
+				if (m_cursor==null) {
+					m_cursor = m_chunks[m_chunkIdx].cursor();
+				}
+				int low = m_cursor.next();
+				if (low!=-1) {
+					m_next = (m_keys[m_chunkIdx] << 16) | low;
+					m_hasNext = true;
+					return;
+				}
+				m_cursor = null;
+				m_chunkIdx++;
+			}
+			m_hasNext = false;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return m_hasNext;
+		}
+
+		@Override
+		public int nextInt() {
+			if (!m_hasNext) {
+				throw new NoSuchElementException("No more elements");
+			}
+			int noteId = m_next;
+			fetchNext();
+			return noteId;
+		}
+	}
+
+	/**
+	 * Cursor over the lower 16 bits of a chunk
+	 */
+	private static interface ChunkCursor {
+
+		/**
+		 * Returns the next value
+		 *
+		 * @return value or -1 if there are no more values
+		 */
+		int next();
+	}
+
+	/**
+	 * Storage for the lower 16 bits of all note ids with the same upper 16 bits
+	 */
+	static abstract class Chunk {
+
+		abstract int cardinality();
+
+		abstract boolean contains(char low);
+
+		/**
+		 * Adds a value
+		 *
+		 * @param low value
+		 * @return this chunk or a chunk of a different type if converted
+		 */
+		abstract Chunk add(char low);
+
+		/**
+		 * Removes a value
+		 *
+		 * @param low value
+		 * @return this chunk or a chunk of a different type if converted
+		 */
+		abstract Chunk remove(char low);
+
+		abstract void forEach(int high, IntConsumer consumer);
+
+		abstract int toArray(int high, int[] dest, int offset);
+
+		abstract ChunkCursor cursor();
+
+		abstract Chunk copy();
+
+		abstract long sizeInBytes();
+
+		/**
+		 * Computes the union with another chunk, may modify this chunk
+		 *
+		 * @param other other chunk
+		 * @return union
+		 */
+		abstract Chunk or(Chunk other);
+
+		/**
+		 * Computes the intersection with another chunk without modifying this chunk
+		 *
+		 * @param other other chunk
+		 * @return intersection or null if empty
+		 */
+		abstract Chunk and(Chunk other);
+
+		/**
+		 * Computes the difference to another chunk without modifying this chunk
+		 *
+		 * @param other other chunk
+		 * @return difference or null if empty
+		 */
+		abstract Chunk andNot(Chunk other);
+
+		abstract BitsetChunk toBitset();
+
+		boolean equalsChunk(Chunk other) {
+			if (cardinality()!=other.cardinality()) {
+				return false;
+			}
+			ChunkCursor c1 = cursor();
+			ChunkCursor c2 = other.cursor();
+			int v1;
+			while ((v1 = c1.next()) != -1) {
+				if (v1 != c2.next()) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Chunk storing up to {@link NoteIdBitmap#MAX_ARRAY_SIZE} values as sorted array
+	 */
+	static final class ArrayChunk extends Chunk {
+		char[] m_values;
+		int m_cardinality;
+
+		ArrayChunk() {
+			m_values = new char[INITIAL_CAPACITY];
+		}
+
+		ArrayChunk(char[] values, int cardinality) {
+			m_values = values;
+			m_cardinality = cardinality;
+		}
+
+		@Override
+		int cardinality() {
+			return m_cardinality;
+		}
+
+		@Override
+		boolean contains(char low) {
+			return binarySearch(m_values, m_cardinality, low) >= 0;
+		}
+
+		@Override
+		Chunk add(char low) {
+			int idx;
+			if (m_cardinality==0 || m_values[m_cardinality-1] < low) {
+				//fast path for ascending values
+				idx = -(m_cardinality + 1);
+			}
+			else {
+				idx = binarySearch(m_values, m_cardinality, low);
+			}
+			if (idx >= 0) {
+				return this;
+			}
+			if (m_cardinality >= MAX_ARRAY_SIZE) {
+				return toBitset().add(low);
+			}
+			idx = -idx - 1;
+			if (m_cardinality==m_values.length) {
+				m_values = Arrays.copyOf(m_values, Math.min(MAX_ARRAY_SIZE, m_values.length * 2));
+			}
+			System.arraycopy(m_values, idx, m_values, idx+1, m_cardinality-idx);
+			m_values[idx] = low;
+			m_cardinality++;
+			return this;
+		}
+
+		@Override
+		Chunk remove(char low) {
+			int idx = binarySearch(m_values, m_cardinality, low);
+			if (idx >= 0) {
+				System.arraycopy(m_values, idx+1, m_values, idx, m_cardinality-idx-1);
+				m_cardinality--;
+			}
+			return this;
+		}
+
+		@Override
+		void forEach(int high, IntConsumer consumer) {
+			for (int i=0; i<m_cardinality; i++) {
+				consumer.accept(high | m_values[i]);
+			}
+		}
+
+		@Override
+		int toArray(int high, int[] dest, int offset) {
+			for (int i=0; i<m_cardinality; i++) {
+				dest[offset++] = high | m_values[i];
+			}
+			return offset;
+		}
+
+		@Override
+		ChunkCursor cursor() {
+			return new ChunkCursor() {
+				private int m_idx;
+
+				@Override
+				public int next() {
+					return m_idx < m_cardinality ? m_values[m_idx++] : -1;
+				}
+			};
+		}
+
+		@Override
+		Chunk copy() {
+			return new ArrayChunk(Arrays.copyOf(m_values, Math.max(INITIAL_CAPACITY, m_cardinality)), m_cardinality);
+		}
+
+		@Override
+		long sizeInBytes() {
+			return 2L * m_values.length;
+		}
+
+		@Override
+		Chunk or(Chunk other) {
+			if (other instanceof BitsetChunk) {
+				return other.copy().or(this);
+			}
+			ArrayChunk otherArr = (ArrayChunk) other;
+			int maxCardinality = m_cardinality + otherArr.m_cardinality;
+			if (maxCardinality > MAX_ARRAY_SIZE) {
+				return toBitset().or(other);
+			}
+			char[] merged = new char[Math.max(INITIAL_CAPACITY, maxCardinality)];
+			int i = 0, j = 0, k = 0;
+			while (i < m_cardinality && j < otherArr.m_cardinality) {
+				char v1 = m_values[i];
+				char v2 = otherArr.m_values[j];
+				if (v1 < v2) {
+					merged[k++] = v1;
+					i++;
+				}
+				else if (v1 > v2) {
+					merged[k++] = v2;
+					j++;
+				}
+				else {
+					merged[k++] = v1;
+					i++;
+					j++;
+				}
+			}
+			while (i < m_cardinality) {
+				merged[k++] = m_values[i++];
+			}
+			while (j < otherArr.m_cardinality) {
+				merged[k++] = otherArr.m_values[j++];
+			}
+			return new ArrayChunk(merged, k);
+		}
+
+		@Override
+		Chunk and(Chunk other) {
+			char[] values = new char[m_cardinality];
+			int k = 0;
+			if (other instanceof ArrayChunk) {
+				ArrayChunk otherArr = (ArrayChunk) other;
+				int i = 0, j = 0;
+				while (i < m_cardinality && j < otherArr.m_cardinality) {
+					char v1 = m_values[i];
+					char v2 = otherArr.m_values[j];
+					if (v1 < v2) {
+						i++;
+					}
+					else if (v1 > v2) {
+						j++;
+					}
+					else {
+						values[k++] = v1;
+						i++;
+						j++;
+					}
+				}
+			}
+			else {
+				for (int i=0; i<m_cardinality; i++) {
+					if (other.contains(m_values[i])) {
+						values[k++] = m_values[i];
+					}
+				}
+			}
+			return k==0 ? null : new ArrayChunk(values, k);
+		}
+
+		@Override
+		Chunk andNot(Chunk other) {
+			char[] values = new char[m_cardinality];
+			int k = 0;
+			if (other instanceof ArrayChunk) {
+				ArrayChunk otherArr = (ArrayChunk) other;
+				int i = 0, j = 0;
+				while (i < m_cardinality) {
+					char v1 = m_values[i];
+					if (j < otherArr.m_cardinality && otherArr.m_values[j] < v1) {
+						j++;
+					}
+					else {
+						if (j >= otherArr.m_cardinality || otherArr.m_values[j] != v1) {
+							values[k++] = v1;
+						}
+						i++;
+					}
+				}
+			}
+			else {
+				for (int i=0; i<m_cardinality; i++) {
+					if (!other.contains(m_values[i])) {
+						values[k++] = m_values[i];
+					}
+				}
+			}
+			return k==0 ? null : new ArrayChunk(values, k);
+		}
+
+		@Override
+		BitsetChunk toBitset() {
+			BitsetChunk bitset = new BitsetChunk();
+			for (int i=0; i<m_cardinality; i++) {
+				char v = m_values[i];
+				bitset.m_words[v >>> 6] |= 1L << v;
+			}
+			bitset.m_cardinality = m_cardinality;
+			return bitset;
+		}
+	}
+
+	/**
+	 * Chunk storing the values as bitset with 65536 bits
+	 */
+	static final class BitsetChunk extends Chunk {
+		static final int WORD_COUNT = 1024;
+
+		final long[] m_words;
+		int m_cardinality;
+
+		BitsetChunk() {
+			m_words = new long[WORD_COUNT];
+		}
+
+		BitsetChunk(long[] words, int cardinality) {
+			m_words = words;
+			m_cardinality = cardinality;
+		}
+
+		@Override
+		int cardinality() {
+			return m_cardinality;
+		}
+
+		@Override
+		boolean contains(char low) {
+			return (m_words[low >>> 6] & (1L << low)) != 0;
+		}
+
+		@Override
+		Chunk add(char low) {
+			int wordIdx = low >>> 6;
+			long bit = 1L << low;
+			if ((m_words[wordIdx] & bit)==0) {
+				m_words[wordIdx] |= bit;
+				m_cardinality++;
+			}
+			return this;
+		}
+
+		@Override
+		Chunk remove(char low) {
+			int wordIdx = low >>> 6;
+			long bit = 1L << low;
+			if ((m_words[wordIdx] & bit)!=0) {
+				m_words[wordIdx] &= ~bit;
+				m_cardinality--;
+				if (m_cardinality <= MAX_ARRAY_SIZE) {
+					return toArrayChunk();
+				}
+			}
+			return this;
+		}
+
+		/**
+		 * Converts this chunk to an array chunk if the cardinality is small enough
+		 *
+		 * @return chunk
+		 */
+		Chunk optimize() {
+			return m_cardinality <= MAX_ARRAY_SIZE ? toArrayChunk() : this;
+		}
+
+		ArrayChunk toArrayChunk() {
+			char[] values = new char[Math.max(INITIAL_CAPACITY, m_cardinality)];
+			int k = 0;
+			for (int i=0; i<WORD_COUNT; i++) {
+				long word = m_words[i];
+				while (word != 0) {
+					values[k++] = (char) ((i << 6) + Long.numberOfTrailingZeros(word));
+					word &= word - 1;
+				}
+			}
+			return new ArrayChunk(values, k);
+		}
+
+		@Override
+		void forEach(int high, IntConsumer consumer) {
+			for (int i=0; i<WORD_COUNT; i++) {
+				long word = m_words[i];
+				while (word != 0) {
+					consumer.accept(high | ((i << 6) + Long.numberOfTrailingZeros(word)));
+					word &= word - 1;
+				}
+			}
+		}
+
+		@Override
+		int toArray(int high, int[] dest, int offset) {
+			for (int i=0; i<WORD_COUNT; i++) {
+				long word = m_words[i];
+				while (word != 0) {
+					dest[offset++] = high | ((i << 6) + Long.numberOfTrailingZeros(word));
+					word &= word - 1;
+				}
+			}
+			return offset;
+		}
+
+		@Override
+		ChunkCursor cursor() {
+			return new ChunkCursor() {
+				private int m_wordIdx = -1;
+				private long m_word;
+
+				@Override
+				public int next() {
+					while (m_word == 0) {
+						m_wordIdx++;
+						if (m_wordIdx >= WORD_COUNT) {
+							return -1;
+						}
+						m_word = m_words[m_wordIdx];
+					}
+					int value = (m_wordIdx << 6) + Long.numberOfTrailingZeros(m_word);
+					m_word &= m_word - 1;
+					return value;
+				}
+			};
+		}
+
+		@Override
+		Chunk copy() {
+			return new BitsetChunk(m_words.clone(), m_cardinality);
+		}
+
+		@Override
+		long sizeInBytes() {
+			return 8L * WORD_COUNT;
+		}
+
+		@Override
+		Chunk or(Chunk other) {
+			if (other instanceof ArrayChunk) {
+				ArrayChunk otherArr = (ArrayChunk) other;
+				for (int i=0; i<otherArr.m_cardinality; i++) {
+					add(otherArr.m_values[i]);
+				}
+				return this;
+			}
+			long[] otherWords = ((BitsetChunk) other).m_words;
+			int cardinality = 0;
+			for (int i=0; i<WORD_COUNT; i++) {
+				m_words[i] |= otherWords[i];
+				cardinality += Long.bitCount(m_words[i]);
+			}
+			m_cardinality = cardinality;
+			return this;
+		}
+
+		@Override
+		Chunk and(Chunk other) {
+			if (other instanceof ArrayChunk) {
+				return other.and(this);
+			}
+			long[] otherWords = ((BitsetChunk) other).m_words;
+			long[] words = new long[WORD_COUNT];
+			int cardinality = 0;
+			for (int i=0; i<WORD_COUNT; i++) {
+				words[i] = m_words[i] & otherWords[i];
+				cardinality += Long.bitCount(words[i]);
+			}
+			return cardinality==0 ? null : new BitsetChunk(words, cardinality).optimize();
+		}
+
+		@Override
+		Chunk andNot(Chunk other) {
+			long[] words = m_words.clone();
+			int cardinality;
+			if (other instanceof ArrayChunk) {
+				ArrayChunk otherArr = (ArrayChunk) other;
+				cardinality = m_cardinality;
+				for (int i=0; i<otherArr.m_cardinality; i++) {
+					char v = otherArr.m_values[i];
+					long bit = 1L << v;
+					if ((words[v >>> 6] & bit) != 0) {
+						words[v >>> 6] &= ~bit;
+						cardinality--;
+					}
+				}
+			}
+			else {
+				long[] otherWords = ((BitsetChunk) other).m_words;
+				cardinality = 0;
+				for (int i=0; i<WORD_COUNT; i++) {
+					words[i] &= ~otherWords[i];
+					cardinality += Long.bitCount(words[i]);
+				}
+			}
+			return cardinality==0 ? null : new BitsetChunk(words, cardinality).optimize();
+		}
+
+		@Override
+		BitsetChunk toBitset() {
+			return this;
+		}
+	}
+}
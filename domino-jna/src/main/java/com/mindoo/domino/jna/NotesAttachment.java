@@ -1,5 +1,6 @@
 package com.mindoo.domino.jna;
 
+import java.io.InputStream;
 import java.security.AccessController;
 import java.security.PrivilegedActionException;
 import java.security.PrivilegedExceptionAction;
@@ -232,6 +233,45 @@ public class NotesAttachment {
 		}
 	}
 	
+	/**
+	 * Opens a channel to read the binary attachment data in chunks of {@link NotesAttachmentChannel#DEFAULT_CHUNK_SIZE}
+	 * bytes without read-ahead. The method is only supported when the attachment has no compression. Otherwise
+	 * we will throw an {@link UnsupportedOperationException}.<br>
+	 * <br>
+	 * <b>The channel must be closed to free its native memory.</b>
+	 * 
+	 * @return channel
+	 */
+	public NotesAttachmentChannel openChannel() {
+		return openChannel(NotesAttachmentChannel.DEFAULT_CHUNK_SIZE, false);
+	}
+	
+	/**
+	 * Opens a channel to read the binary attachment data. The method is only supported when
+	 * the attachment has no compression. Otherwise we will throw an {@link UnsupportedOperationException}.<br>
+	 * <br>
+	 * <b>The channel must be closed to free its native memory.</b>
+	 * 
+	 * @param chunkSize number of bytes to read from the database at once
+	 * @param readAhead true to read the next chunk on a background thread while the current one is consumed
+	 * @return channel
+	 */
+	public NotesAttachmentChannel openChannel(int chunkSize, boolean readAhead) {
+		return new NotesAttachmentChannel(this, chunkSize, readAhead);
+	}
+	
+	/**
+	 * Returns an {@link InputStream} to read the binary attachment data, see {@link #openChannel(int, boolean)}.
+	 * The stream must be closed to free its native memory.
+	 * 
+	 * @param chunkSize number of bytes to read from the database at once
+	 * @param readAhead true to read the next chunk on a background thread while the current one is consumed
+	 * @return stream
+	 */
+	public InputStream getInputStream(int chunkSize, boolean readAhead) {
+		return openChannel(chunkSize, readAhead).newInputStream();
+	}
+	
 	/**
 	 * Method to access the binary attachment data
 	 * 
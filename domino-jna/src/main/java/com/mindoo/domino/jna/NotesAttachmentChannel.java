@@ -0,0 +1,512 @@
+package com.mindoo.domino.jna;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.mindoo.domino.jna.constants.Compression;
+import com.mindoo.domino.jna.errors.NotesError;
+import com.mindoo.domino.jna.errors.NotesErrorUtils;
+import com.mindoo.domino.jna.gc.IRecyclableNotesObject;
+import com.mindoo.domino.jna.gc.NotesGC;
+import com.mindoo.domino.jna.gc.NotesGCExecutors;
+import com.mindoo.domino.jna.internal.Mem32;
+import com.mindoo.domino.jna.internal.Mem64;
+import com.mindoo.domino.jna.internal.NotesNativeAPI32;
+import com.mindoo.domino.jna.internal.NotesNativeAPI64;
+import com.mindoo.domino.jna.utils.PlatformUtils;
+import com.sun.jna.Pointer;
+import com.sun.jna.ptr.IntByReference;
+import com.sun.jna.ptr.LongByReference;
+
+/**
+ * Read-only {@link SeekableByteChannel} over the binary data of a {@link NotesAttachment},
+ * created via {@link NotesAttachment#openChannel()}.<br>
+ * <br>
+ * The data is read from the database object in chunks of a configurable size. Read operations
+ * copy the data from the native chunk memory directly into the target buffer, so no
+ * temporary <code>byte[]</code> is allocated per chunk. For direct {@link ByteBuffer}s and
+ * {@link #transferTo(WritableByteChannel)}, the data does not pass through the Java heap at all.<br>
+ * <br>
+ * With read-ahead enabled, the next chunk is read on a background thread while the caller
+ * processes the current one, which is useful to stream large files to slow clients.<br>
+ * <br>
+ * Like {@link NotesAttachment#readData(NotesAttachment.IDataCallback, int)}, the channel is only supported for
+ * attachments without compression, because it reads the raw object data.<br>
+ * <br>
+ * <b>The channel holds native memory and must be closed, and it must be closed before the parent
+ * database gets recycled.</b> When it is opened in a thread with a {@link NotesGC} context, the channel
+ * is registered in that context, so closing the context closes the channel and waits for a running
+ * read-ahead operation before the database gets recycled. The channel can be used from threads that have
+ * no {@link NotesGC} context, as long as they have been initialized for the Notes C API.
+ *
+ * @author Karsten Lehmann
+ */
+public class NotesAttachmentChannel implements SeekableByteChannel, IRecyclableNotesObject {
+	/** default size of the chunks read from the database */
+	public static final int DEFAULT_CHUNK_SIZE = 65535;
+	private static final AtomicLong m_syntheticHandles = new AtomicLong();
+
+	/** unique key in the GC context, the channel has no C handle of its own */
+	private final long m_handle = -m_syntheticHandles.incrementAndGet();
+
+	private final NotesDatabase m_db;
+	private final long m_hDB64;
+	private final int m_hDB32;
+	private final int m_rrv;
+	private final long m_size;
+	private final int m_chunkSize;
+	private final boolean m_readAhead;
+
+	private long m_position;
+	private Chunk m_currentChunk;
+	private Future<Chunk> m_nextChunk;
+	private boolean m_closed;
+	private boolean m_registeredInGC;
+
+	NotesAttachmentChannel(NotesAttachment attachment, int chunkSize, boolean readAhead) {
+		if (attachment.getCompression() != Compression.NONE) {
+			throw new UnsupportedOperationException("This operation is only supported on attachments without compression.");
+		}
+		if (chunkSize<=0)
+			throw new IllegalArgumentException("Chunk size must be a positive number");
+
+		NotesNote note = attachment.getParentNote();
+		note.checkHandle();
+		m_db = note.getParent();
+		m_hDB64 = m_db.getHandle64();
+		m_hDB32 = m_db.getHandle32();
+		m_rrv = attachment.getRRV();
+		m_size = attachment.getFileSize();
+		m_chunkSize = chunkSize;
+		m_readAhead = readAhead;
+
+		if (NotesGC.isAutoGCActive()) {
+			//registered after the database, so the context closes the channel first
+			NotesGC.__objectCreated(NotesAttachmentChannel.class, this);
+			m_registeredInGC = true;
+		}
+	}
+
+	/**
+	 * Returns the size of the chunks read from the database
+	 *
+	 * @return chunk size
+	 */
+	public int getChunkSize() {
+		return m_chunkSize;
+	}
+
+	/**
+	 * Checks whether the next chunk is read on a background thread
+	 *
+	 * @return true if read-ahead is enabled
+	 */
+	public boolean isReadAhead() {
+		return m_readAhead;
+	}
+
+	@Override
+	public synchronized boolean isOpen() {
+		return !m_closed;
+	}
+
+	@Override
+	public synchronized long position() throws IOException {
+		checkOpen();
+		return m_position;
+	}
+
+	@Override
+	public synchronized SeekableByteChannel position(long newPosition) throws IOException {
+		if (newPosition<0)
+			throw new IllegalArgumentException("Position cannot be negative: "+newPosition);
+		checkOpen();
+		m_position = newPosition;
+		return this;
+	}
+
+	@Override
+	public synchronized long size() throws IOException {
+		checkOpen();
+		return m_size;
+	}
+
+	@Override
+	public synchronized int read(ByteBuffer dst) throws IOException {
+		checkOpen();
+		if (m_position >= m_size) {
+			return -1;
+		}
+
+		int totalRead = 0;
+		while (dst.hasRemaining() && m_position < m_size) {
+			ByteBuffer chunkData = getChunkData(dst.remaining());
+			int len = chunkData.remaining();
+			dst.put(chunkData);
+			m_position += len;
+			totalRead += len;
+		}
+		return totalRead;
+	}
+
+	/**
+	 * Reads data into a byte array
+	 *
+	 * @param b target array
+	 * @param off offset in the array
+	 * @param len maximum number of bytes to read
+	 * @return number of bytes read or -1 at the end of the data
+	 * @throws IOException in case of I/O errors
+	 */
+	synchronized int read(byte[] b, int off, int len) throws IOException {
+		checkOpen();
+		if (m_position >= m_size) {
+			return -1;
+		}
+
+		int totalRead = 0;
+		while (totalRead < len && m_position < m_size) {
+			ByteBuffer chunkData = getChunkData(len - totalRead);
+			int chunkLen = chunkData.remaining();
+			chunkData.get(b, off + totalRead, chunkLen);
+			m_position += chunkLen;
+			totalRead += chunkLen;
+		}
+		return totalRead;
+	}
+
+	/**
+	 * Writes the data from the current position to the end of the attachment to the specified
+	 * channel. The data is written from the native chunk memory without copying it to the Java heap.
+	 * If the target channel does not accept more data (e.g. a non-blocking socket channel),
+	 * the method returns early and can be called again.
+	 *
+	 * @param target target channel
+	 * @return number of bytes written
+	 * @throws IOException in case of I/O errors
+	 */
+	public synchronized long transferTo(WritableByteChannel target) throws IOException {
+		checkOpen();
+
+		long totalWritten = 0;
+		while (m_position < m_size) {
+			ByteBuffer chunkData = getChunkData(Integer.MAX_VALUE);
+			int written = target.write(chunkData);
+			m_position += written;
+			totalWritten += written;
+			if (written==0) {
+				break;
+			}
+		}
+		return totalWritten;
+	}
+
+	@Override
+	public int write(ByteBuffer src) throws IOException {
+		throw new NonWritableChannelException();
+	}
+
+	@Override
+	public SeekableByteChannel truncate(long size) throws IOException {
+		throw new NonWritableChannelException();
+	}
+
+	/**
+	 * Frees the native memory of the current chunk and waits for a running read-ahead
+	 * operation to release its memory as well
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if (m_closed) {
+			return;
+		}
+		if (m_registeredInGC && NotesGC.isAutoGCActive()) {
+			NotesGC.__objectBeeingBeRecycled(NotesAttachmentChannel.class, this);
+		}
+		m_closed = true;
+
+		if (m_currentChunk!=null) {
+			m_currentChunk.free();
+			m_currentChunk = null;
+		}
+
+		if (m_nextChunk!=null) {
+			Future<Chunk> nextChunk = m_nextChunk;
+			m_nextChunk = null;
+
+			boolean interrupted = false;
+			try {
+				while (true) {
+					try {
+						nextChunk.get().free();
+						break;
+					} catch (InterruptedException e) {
+						//the native call cannot be cancelled, so we need to wait to free the memory
+						interrupted = true;
+					} catch (ExecutionException e) {
+						//no memory allocated
+						break;
+					}
+				}
+			}
+			finally {
+				if (interrupted) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Closes the channel, called by {@link NotesGC} when the context gets closed
+	 */
+	@Override
+	public void recycle() {
+		try {
+			close();
+		} catch (IOException e) {
+			throw new NotesError(0, "Error closing the attachment channel", e);
+		}
+	}
+
+	@Override
+	public synchronized boolean isRecycled() {
+		return m_closed;
+	}
+
+	@Override
+	public boolean isNoRecycle() {
+		return false;
+	}
+
+	@Override
+	public int getHandle32() {
+		return (int) m_handle;
+	}
+
+	@Override
+	public long getHandle64() {
+		return m_handle;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "NotesAttachmentChannel [rrv="+m_rrv+", size="+m_size+", position="+m_position+", closed="+m_closed+"]";
+	}
+
+	/**
+	 * Returns an {@link InputStream} that reads from this channel; closing the stream closes the channel
+	 *
+	 * @return stream
+	 */
+	public InputStream newInputStream() {
+		return new ChannelInputStream(this);
+	}
+
+	private void checkOpen() throws IOException {
+		if (m_closed) {
+			throw new ClosedChannelException();
+		}
+		if (m_db.isRecycled()) {
+			throw new NotesError(0, "Database already recycled");
+		}
+	}
+
+	/**
+	 * Returns a view on the chunk data at the current position
+	 *
+	 * @param maxLength maximum number of bytes in the returned buffer
+	 * @return buffer with position and limit set to the available data
+	 * @throws IOException in case of I/O errors
+	 */
+	private ByteBuffer getChunkData(int maxLength) throws IOException {
+		Chunk chunk = getChunk(m_position);
+		int chunkPos = (int) (m_position - chunk.m_offset);
+		int len = Math.min(maxLength, chunk.m_length - chunkPos);
+		ByteBuffer data = chunk.m_data;
+		data.limit(chunkPos + len);
+		data.position(chunkPos);
+		return data;
+	}
+
+	private Chunk getChunk(long position) throws IOException {
+		Chunk chunk = m_currentChunk;
+		if (chunk!=null && chunk.contains(position)) {
+			return chunk;
+		}
+		if (chunk!=null) {
+			m_currentChunk = null;
+			chunk.free();
+			chunk = null;
+		}
+
+		if (m_nextChunk!=null) {
+			Chunk nextChunk;
+			try {
+				nextChunk = m_nextChunk.get();
+			} catch (InterruptedException e) {
+				//keep the future so that close() can free the memory
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting for read-ahead of attachment data");
+			} catch (ExecutionException e) {
+				m_nextChunk = null;
+				if (e.getCause() instanceof RuntimeException)
+					throw (RuntimeException) e.getCause();
+				else
+					throw new NotesError(0, "Error reading attachment data", e.getCause());
+			}
+			m_nextChunk = null;
+
+			if (nextChunk.contains(position)) {
+				chunk = nextChunk;
+			}
+			else {
+				//caller changed the position
+				nextChunk.free();
+			}
+		}
+
+		if (chunk==null) {
+			chunk = readChunk(position);
+		}
+		m_currentChunk = chunk;
+
+		final long nextOffset = chunk.m_offset + chunk.m_length;
+		if (m_readAhead && nextOffset < m_size) {
+			m_nextChunk = ReadAheadExecutorHolder.m_executor.submit(new Callable<Chunk>() {
+
+				@Override
+				public Chunk call() throws Exception {
+					return readChunk(nextOffset);
+				}
+			});
+		}
+		return chunk;
+	}
+
+	/**
+	 * Reads a chunk of object data; can be called from any thread initialized for the Notes C API
+	 *
+	 * @param offset offset of the chunk
+	 * @return chunk
+	 */
+	private Chunk readChunk(long offset) {
+		int bytesToRead = (int) Math.min(m_chunkSize, m_size - offset);
+
+		if (PlatformUtils.is64Bit()) {
+			LongByReference rethBuffer = new LongByReference();
+			short result = NotesNativeAPI64.get().NSFDbReadObject(m_hDB64, m_rrv, (int) offset, bytesToRead, rethBuffer);
+			NotesErrorUtils.checkResult(result);
+
+			long hBuffer = rethBuffer.getValue();
+			Pointer ptr = Mem64.OSLockObject(hBuffer);
+			return new Chunk(offset, bytesToRead, hBuffer, ptr);
+		}
+		else {
+			IntByReference rethBuffer = new IntByReference();
+			short result = NotesNativeAPI32.get().NSFDbReadObject(m_hDB32, m_rrv, (int) offset, bytesToRead, rethBuffer);
+			NotesErrorUtils.checkResult(result);
+
+			int hBuffer = rethBuffer.getValue();
+			Pointer ptr = Mem32.OSLockObject(hBuffer);
+			return new Chunk(offset, bytesToRead, hBuffer, ptr);
+		}
+	}
+
+	/**
+	 * Locked memory handle with a part of the object data
+	 */
+	private static class Chunk {
+		private final long m_offset;
+		private final int m_length;
+		private final long m_hBuffer;
+		/** direct buffer on the locked native memory */
+		private final ByteBuffer m_data;
+
+		public Chunk(long offset, int length, long hBuffer, Pointer ptr) {
+			m_offset = offset;
+			m_length = length;
+			m_hBuffer = hBuffer;
+			m_data = ptr.getByteBuffer(0, length);
+		}
+
+		public boolean contains(long position) {
+			return position >= m_offset && position < (m_offset + m_length);
+		}
+
+		public void free() {
+			if (PlatformUtils.is64Bit()) {
+				Mem64.OSUnlockObject(m_hBuffer);
+				short result = Mem64.OSMemFree(m_hBuffer);
+				NotesErrorUtils.checkResult(result);
+			}
+			else {
+				Mem32.OSUnlockObject((int) m_hBuffer);
+				short result = Mem32.OSMemFree((int) m_hBuffer);
+				NotesErrorUtils.checkResult(result);
+			}
+		}
+	}
+
+	/**
+	 * Lazily creates the shared pool for read-ahead operations
+	 */
+	private static class ReadAheadExecutorHolder {
+		private static final ExecutorService m_executor = Executors.newCachedThreadPool(
+				NotesGCExecutors.newThreadFactory("Domino JNA attachment read-ahead #"));
+	}
+
+	/**
+	 * {@link InputStream} that reads directly from the chunk memory of the channel
+	 */
+	private static class ChannelInputStream extends InputStream {
+		private final NotesAttachmentChannel m_channel;
+		private final byte[] m_singleByte = new byte[1];
+
+		public ChannelInputStream(NotesAttachmentChannel channel) {
+			m_channel = channel;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int len = m_channel.read(m_singleByte, 0, 1);
+			return len==-1 ? -1 : (m_singleByte[0] & 0xff);
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (off<0 || len<0 || len > b.length - off)
+				throw new IndexOutOfBoundsException();
+			if (len==0)
+				return 0;
+			return m_channel.read(b, off, len);
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			synchronized (m_channel) {
+				long position = m_channel.position();
+				long skipped = Math.max(0, Math.min(n, m_channel.size() - position));
+				m_channel.position(position + skipped);
+				return skipped;
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			m_channel.close();
+		}
+	}
+}
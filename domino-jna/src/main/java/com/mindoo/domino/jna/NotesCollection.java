@@ -5,12 +5,14 @@ import java.security.PrivilegedActionException;
 import java.security.PrivilegedExceptionAction;
 import java.text.Collator;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.List;
@@ -23,7 +25,6 @@ import java.util.TreeSet;
 import com.mindoo.domino.jna.CollectionDataCache.CacheState;
 import com.mindoo.domino.jna.NotesCollection.ViewLookupCallback.Action;
 import com.mindoo.domino.jna.NotesSearch.ISearchMatch;
-import com.mindoo.domino.jna.NotesViewEntryData.CacheableViewEntryData;
 import com.mindoo.domino.jna.constants.FTSearch;
 import com.mindoo.domino.jna.constants.Find;
 import com.mindoo.domino.jna.constants.Navigate;
@@ -968,6 +969,18 @@ public class NotesCollection implements IRecyclableNotesObject {
 		return noteIds;
 	}
 	
+	/**
+	 * Convenience function that adds the note ids of documents matching the specified
+	 * search key(s) in the collection to a {@link NoteIdBitmap}
+	 * 
+	 * @param findFlags find flags, see {@link Find}
+	 * @param bitmap bitmap to fill, existing content is removed
+	 * @param keys lookup keys
+	 */
+	public void getAllIdsByKey(EnumSet<Find> findFlags, NoteIdBitmap bitmap, Object... keys) {
+		getAllEntriesByKey(findFlags, EnumSet.of(ReadMask.NOTEID), new NoteIdsAsBitmapCallback(bitmap), keys);
+	}
+	
 	/**
 	 * Method to check whether an optimized view lookup method can be used for
 	 * a set of find/return flags and the current Domino version
@@ -1114,6 +1127,34 @@ public class NotesCollection implements IRecyclableNotesObject {
 			return m_cacheInstance;
 		}
 		
+		/**
+		 * Override this method to return an optional {@link ViewPageSizeTuner} that adapts the
+		 * number of entries requested per NIF call to the size of the read entries, so that the
+		 * 64K summary buffer gets filled without being truncated. The preload entry count
+		 * passed to the lookup method is used as upper limit.<br>
+		 * The returned instance is shared for all calls done with this callback implementation.
+		 * 
+		 * @return tuner or null (default value)
+		 */
+		public ViewPageSizeTuner createPageSizeTuner() {
+			return null;
+		}
+		
+		private ViewPageSizeTuner m_pageSizeTunerInstance;
+		
+		/**
+		 * Standard implementation of this method calls {@link #createPageSizeTuner()} once
+		 * and stores the object instance in a member variable for later reuse.
+		 * 
+		 * @return tuner or null
+		 */
+		public ViewPageSizeTuner getPageSizeTuner() {
+			if (m_pageSizeTunerInstance==null) {
+				m_pageSizeTunerInstance = createPageSizeTuner();
+			}
+			return m_pageSizeTunerInstance;
+		}
+		
 		/**
 		 * Method is called when the lookup process is done
 		 * 
@@ -1157,6 +1198,11 @@ public class NotesCollection implements IRecyclableNotesObject {
 			return m_innerCallback.createDataCache();
 		}
 		
+		@Override
+		public ViewPageSizeTuner getPageSizeTuner() {
+			return m_innerCallback.getPageSizeTuner();
+		}
+		
 		@Override
 		public NotesTimeDate getNewDiffTime() {
 			return m_innerCallback.getNewDiffTime();
@@ -1361,6 +1407,75 @@ public class NotesCollection implements IRecyclableNotesObject {
 		
 	}
 	
+	/**
+	 * Subclass of {@link ViewLookupCallback} that stores the note ids of read collection entries
+	 * in a {@link NoteIdBitmap}, which does not keep the view order but avoids creating
+	 * {@link Integer} objects for large lookup results.
+	 * 
+	 * @author Karsten Lehmann
+	 */
+	public static class NoteIdsAsBitmapCallback extends ViewLookupCallback<NoteIdBitmap> {
+		private NoteIdBitmap m_bitmap;
+		
+		/**
+		 * Creates a new instance
+		 * 
+		 * @param bitmap bitmap to fill, note ids added on a previous lookup run are removed when the lookup is restarted
+		 */
+		public NoteIdsAsBitmapCallback(NoteIdBitmap bitmap) {
+			m_bitmap = bitmap;
+		}
+		
+		@Override
+		public NoteIdBitmap startingLookup() {
+			m_bitmap.clear();
+			return m_bitmap;
+		}
+		
+		@Override
+		public Action entryRead(NoteIdBitmap result, NotesViewEntryData entryData) {
+			int noteId = entryData.getNoteId();
+			if (noteId != 0) {
+				result.add(noteId);
+			}
+			return Action.Continue;
+		}
+		
+		@Override
+		public NoteIdBitmap lookupDone(NoteIdBitmap result) {
+			return result;
+		}
+	}
+	
+	/**
+	 * Callback interface for {@link NotesCollection#readChangesSince(ViewChangeToken, EnumSet, ViewChangeCallback)}
+	 * 
+	 * @author Karsten Lehmann
+	 */
+	public static abstract class ViewChangeCallback {
+		
+		/**
+		 * Method is called for each document that has been added, modified or removed
+		 * 
+		 * @param change change event
+		 * @return action, whether to continue or stop reading; if stopped, no new {@link ViewChangeToken} is returned
+		 */
+		public abstract Action changeFound(NotesViewChange change);
+		
+		/**
+		 * This method gets called when a view index change has been detected
+		 * while reading the changes, which would cause the read operation to be restarted.
+		 * Changes already reported are not reported again.
+		 * 
+		 * @param nrOfRetries number of retries already made (0 = first retry is about to begin)
+		 * @param durationSinceStart number of milliseconds elapsed since starting the lookup
+		 * @return action, whether to continue (default) or stop the lookup
+		 */
+		public Action retryingReadBecauseViewIndexChanged(int nrOfRetries, long durationSinceStart) {
+			return Action.Continue;
+		}
+	}
+	
 	/**
 	 * Fast method to count view entries taking read access rights into account.<br>
 	 * <br>
@@ -1427,6 +1542,16 @@ public class NotesCollection implements IRecyclableNotesObject {
 		return ids;
 	}
 	
+	/**
+	 * Convenience method that collects all note ids in the view in a {@link NoteIdBitmap}
+	 * 
+	 * @param navigator use {@link Navigate#NEXT} to read documents and categories, {@link Navigate#NEXT_CATEGORY} to only read categories and {@link Navigate#NEXT_NONCATEGORY} to only read documents
+	 * @param bitmap bitmap to fill, existing content is removed
+	 */
+	public void getAllIds(Navigate navigator, NoteIdBitmap bitmap) {
+		getAllEntries("0", 1, EnumSet.of(navigator), Integer.MAX_VALUE, EnumSet.of(ReadMask.NOTEID), new NoteIdsAsBitmapCallback(bitmap));
+	}
+	
 	/**
 	 * Reads all values of a collection column
 	 * 
@@ -1491,6 +1616,18 @@ public class NotesCollection implements IRecyclableNotesObject {
 				new NoteIdsAsOrderedSetCallback(Integer.MAX_VALUE));
 	}
 
+	/**
+	 * Convenience method that adds all note ids located under a category to a {@link NoteIdBitmap}
+	 * 
+	 * @param category category
+	 * @param returnNav navigator to be used to scan for collection entries
+	 * @param bitmap bitmap to fill, existing content is removed
+	 */
+	public void getAllIdsInCategory(String category, EnumSet<Navigate> returnNav, NoteIdBitmap bitmap) {
+		getAllEntriesInCategory(category, 0, returnNav, Integer.MAX_VALUE, EnumSet.of(ReadMask.NOTEID),
+				new NoteIdsAsBitmapCallback(bitmap));
+	}
+
 	/**
 	 * The method reads a number of entries located under a specified category from the collection/view.
 	 * It internally takes care of view index changes while reading view data and restarts reading
@@ -1713,7 +1850,200 @@ public class NotesCollection implements IRecyclableNotesObject {
 			
 		}, skipCount, returnNav, preloadEntryCount, returnMask, callback);
 	}
-	
+
+	/**
+	 * Reads all entries of the collection/view using multiple threads, e.g. to speed up
+	 * full exports of large views.<br>
+	 * <br>
+	 * The top level entries of the collection (top level categories in categorized views, documents in flat views)
+	 * are split into ranges of positions. Categories with many children get split at their child entries if there
+	 * are not enough top level entries to keep all threads busy. Each worker thread opens its own database and collection
+	 * handle for the user of this collection, reads one range after the other and decodes the
+	 * returned summary buffers concurrently to the other workers.<br>
+	 * <br>
+	 * If <code>ordered</code> is true, the read entries are passed to
+	 * {@link ViewLookupCallback#entryRead(Object, NotesViewEntryData)} in view order in the calling thread.
+	 * Otherwise, the entries are passed to the callback directly by the worker threads in no specific order,
+	 * so the callback implementation needs to be thread-safe.<br>
+	 * <br>
+	 * Like {@link #getAllEntries(String, int, EnumSet, int, EnumSet, ViewLookupCallback)}, the lookup is restarted
+	 * when the view index changes while reading. Differential view reads via
+	 * {@link ViewLookupCallback#createDataCache()} are not used. The method does not support
+	 * collections opened via {@link NotesDatabase#openCollectionWithExternalData(NotesDatabase, int, EnumSet)}.
+	 *
+	 * @param threadCount number of worker threads
+	 * @param returnNav navigator to specify how to move in the collection, only {@link Navigate#NEXT}, {@link Navigate#NEXT_NONCATEGORY} and {@link Navigate#NEXT_CATEGORY} are supported
+	 * @param preloadEntryCount amount of entries that is read from the view per NIF call
+	 * @param returnMask values to extract
+	 * @param ordered true to receive the entries in view order in the calling thread
+	 * @param callback callback that is called for each entry read from the collection
+	 * @return lookup result
+	 *
+	 * @param <T> type of lookup result object
+	 */
+	public <T> T getAllEntriesParallel(int threadCount, EnumSet<Navigate> returnNav, int preloadEntryCount,
+			EnumSet<ReadMask> returnMask, boolean ordered, ViewLookupCallback<T> callback) {
+		checkHandle();
+
+		return new NotesCollectionParallelReader<T>(this, threadCount, returnNav, preloadEntryCount,
+				returnMask, ordered, callback).read();
+	}
+
+	/**
+	 * Reads the documents of the collection that have been added, modified or removed since
+	 * a previous call of this method, e.g. to refresh the data of a dashboard that polls a view
+	 * periodically. Pass null as <code>since</code> to read the initial state, in which case all
+	 * documents are reported as {@link NotesViewChange.Type#ADDED}.<br>
+	 * <br>
+	 * If the index modified sequence number did not change since the token was produced, the method
+	 * returns immediately. Otherwise, it uses a differential view read with the diff time and the note
+	 * ids of the token, so that NIF only returns column values of documents that changed. Documents of the
+	 * token that are no longer in the collection are reported as {@link NotesViewChange.Type#REMOVED}
+	 * at the end.<br>
+	 * <br>
+	 * Make sure to call {@link #update()} before to see the latest index state. Only document entries
+	 * are read; like {@link CollectionDataCache}, the method does not support permuted views.
+	 * 
+	 * @param since token returned by the previous call or null to read all documents
+	 * @param returnMask values to extract, {@link ReadMask#NOTEID} and {@link ReadMask#SUMMARYVALUES} (unless {@link ReadMask#SUMMARY} is specified) are added automatically
+	 * @param callback callback that receives the changes
+	 * @return token to be passed to the next call or null if the callback stopped the lookup
+	 */
+	public ViewChangeToken readChangesSince(final ViewChangeToken since, EnumSet<ReadMask> returnMask,
+			final ViewChangeCallback callback) {
+		checkHandle();
+		
+		if (since!=null && since.getCollectionNoteId()!=getNoteId()) {
+			throw new IllegalArgumentException("Token has been produced for another collection: "+
+					since.getCollectionNoteId()+"!="+getNoteId());
+		}
+		
+		final EnumSet<ReadMask> useReturnMask = returnMask.clone();
+		useReturnMask.add(ReadMask.NOTEID);
+		if (!useReturnMask.contains(ReadMask.SUMMARY)) {
+			//we need the column values to detect modified documents
+			useReturnMask.add(ReadMask.SUMMARYVALUES);
+		}
+		
+		final boolean sameReadMask = since!=null && useReturnMask.equals(since.getReadMask());
+		if (sameReadMask && since.getIndexModifiedSequenceNo()==getIndexModifiedSequenceNo()) {
+			//index unchanged
+			return since;
+		}
+		
+		final NotesTimeDate sinceDiffTime = sameReadMask ? since.getDiffTime() : null;
+		final Set<Integer> reportedNoteIds = new HashSet<Integer>();
+		final Set<Integer> readNoteIds = new HashSet<Integer>();
+		final int[] indexModifiedSeqNo = new int[1];
+		final NotesTimeDate[] newDiffTime = new NotesTimeDate[1];
+		final boolean[] stopped = new boolean[1];
+		
+		Boolean completed = getAllEntries("0", 1, EnumSet.of(Navigate.NEXT_NONCATEGORY), Integer.MAX_VALUE,
+				useReturnMask, new ViewLookupCallback<Boolean>() {
+
+			@Override
+			public Boolean startingLookup() {
+				//sequence number before the read, a newer index state is detected on the next call
+				indexModifiedSeqNo[0] = getIndexModifiedSequenceNo();
+				readNoteIds.clear();
+				return Boolean.TRUE;
+			}
+
+			@Override
+			public Action entryRead(Boolean result, NotesViewEntryData entryData) {
+				int noteId = entryData.getNoteId();
+				if (!readNoteIds.add(noteId)) {
+					return Action.Continue;
+				}
+				
+				boolean existedBefore = since!=null && since.contains(noteId);
+				if (existedBefore && sinceDiffTime!=null && !entryData.hasAnyColumnValues()) {
+					//NIF skipped the column values, because the entry did not change since the diff time
+					return Action.Continue;
+				}
+				if (!reportedNoteIds.add(noteId)) {
+					//already reported before the lookup has been restarted
+					return Action.Continue;
+				}
+				
+				NotesViewChange change = new NotesViewChange(existedBefore ? NotesViewChange.Type.MODIFIED :
+					NotesViewChange.Type.ADDED, noteId, entryData);
+				Action action = callback.changeFound(change);
+				if (action==Action.Stop) {
+					stopped[0] = true;
+				}
+				return action;
+			}
+			
+			@Override
+			public Action retryingReadBecauseViewIndexChanged(int nrOfRetries, long durationSinceStart) {
+				return callback.retryingReadBecauseViewIndexChanged(nrOfRetries, durationSinceStart);
+			}
+			
+			@Override
+			public CollectionDataCache createDataCache() {
+				//provides the diff time and note ids for NIF and receives the new diff time
+				return new CollectionDataCache() {
+					private static final long serialVersionUID = 1L;
+
+					@Override
+					CacheState getCacheState() {
+						if (sinceDiffTime==null) {
+							return new CacheState(useReturnMask, null, null);
+						}
+						return new CacheState(useReturnMask, sinceDiffTime, since.getNoteIds());
+					}
+					
+					@Override
+					void populateEntryStubsWithData(List<NotesViewEntryData> entries) {
+						//keep the stubs to detect unchanged entries
+					}
+					
+					@Override
+					void addCacheValues(EnumSet<ReadMask> readMask, NotesTimeDate diffTime,
+							List<NotesViewEntryData> entries) {
+						//
+					}
+				};
+			}
+			
+			@Override
+			public void setNewDiffTime(NotesTimeDate diffTime) {
+				newDiffTime[0] = diffTime;
+			}
+			
+			@Override
+			public Boolean lookupDone(Boolean result) {
+				return result;
+			}
+		});
+		
+		if (completed==null || stopped[0]) {
+			//stopped by the callback or because of a view index change
+			return null;
+		}
+		
+		if (since!=null) {
+			for (int currNoteId : since.getNoteIds()) {
+				if (!readNoteIds.contains(currNoteId)) {
+					Action action = callback.changeFound(new NotesViewChange(NotesViewChange.Type.REMOVED, currNoteId, null));
+					if (action==Action.Stop) {
+						return null;
+					}
+				}
+			}
+		}
+		
+		int[] noteIds = new int[readNoteIds.size()];
+		int idx = 0;
+		for (Integer currNoteId : readNoteIds) {
+			noteIds[idx++] = currNoteId.intValue();
+		}
+		Arrays.sort(noteIds);
+		
+		return new ViewChangeToken(getNoteId(), newDiffTime[0], indexModifiedSeqNo[0], useReturnMask, noteIds);
+	}
+
 	/**
 	 * Callback to dynamically locate the start position of a collection scan, e.g.
 	 * the position of a category entry. We use a callback to be able to react on
@@ -1786,6 +2116,8 @@ public class NotesCollection implements IRecyclableNotesObject {
 			}
 		}
 
+		ViewPageSizeTuner pageSizeTuner = callback.getPageSizeTuner();
+		
 		long t0 = System.currentTimeMillis();
 		int runs = -1;
 		
@@ -1835,14 +2167,13 @@ public class NotesCollection implements IRecyclableNotesObject {
 				CacheState cacheState = dataCache.getCacheState();
 				
 				//only use cache content if read masks are compatible
-				Map<Integer,CacheableViewEntryData> cacheEntries = cacheState.getCacheEntries();
-				if (cacheEntries!=null && !cacheEntries.isEmpty()) {
+				int[] cachedNoteIds = cacheState.getNoteIds();
+				if (cachedNoteIds!=null && cachedNoteIds.length>0) {
 					EnumSet<ReadMask> cacheReadMask = cacheState.getReadMask();
 					if (useReturnMask.equals(cacheReadMask)) {
 						diffTime = cacheState.getDiffTime();
 
-						diffIDTable = new NotesIDTable();
-						diffIDTable.addNotes(cacheEntries.keySet());
+						diffIDTable = new NotesIDTable(cachedNoteIds);
 					}
 				}
 			}
@@ -1901,10 +2232,18 @@ public class NotesCollection implements IRecyclableNotesObject {
 				else {
 					skipNav = returnNav;
 				}
+				int useReturnCount = pageSizeTuner==null ? preloadEntryCount : pageSizeTuner.getNextReturnCount(preloadEntryCount);
+				long readStartNanos = pageSizeTuner==null ? 0 : System.nanoTime();
+				
 				NotesViewLookupResultData data;
-				data = readEntriesExt(posWrap, skipNav, useSkipCount, returnNav, preloadEntryCount, useReturnMask,
+				data = readEntriesExt(posWrap, skipNav, useSkipCount, returnNav, useReturnCount, useReturnMask,
 						diffTime, diffIDTable, readSingleColumnIndex);
 				
+				if (pageSizeTuner!=null) {
+					//measure before the data cache fills the entry stubs, so that we only count the bytes NIF returned
+					pageSizeTuner.pageRead(useReturnMask, useReturnCount, data, System.nanoTime() - readStartNanos);
+				}
+				
 				int indexModifiedAfterDataLookup = getIndexModifiedSequenceNo();
 
 				if (initialIndexModified != indexModifiedAfterDataLookup) {
@@ -3105,6 +3444,129 @@ public class NotesCollection implements IRecyclableNotesObject {
 		}
 	}
 
+	/**
+	 * Columnar read mode of {@link #readEntriesExt(NotesCollectionPosition, EnumSet, int, EnumSet, int, EnumSet, NotesTimeDate, NotesIDTable, Integer)}.<br>
+	 * <br>
+	 * The returned buffer is decoded into primitive arrays per column instead of one {@link NotesViewEntryData}
+	 * object per entry. Use {@link NotesViewLookupColumnarResultData#cursor()} to iterate over the
+	 * entries with a flyweight cursor. This mode produces much less garbage when reading large views
+	 * and should be preferred for bulk exports.<br>
+	 * <br>
+	 * Only {@link ReadMask#SUMMARYVALUES} is supported to read column values, {@link ReadMask#SUMMARY}
+	 * produces an {@link IllegalArgumentException}.
+	 *
+	 * @param startPos start position for the scan; will be modified by the method to reflect the current position
+	 * @param skipNavigator navigator to use for the skip operation
+	 * @param skipCount number of entries to skip
+	 * @param returnNavigator navigator to use for the read operation
+	 * @param returnCount number of entries to read
+	 * @param returnMask bitmask of data to read
+	 * @param diffTime If non-null, this is a "differential view read", see {@link #readEntriesExt(NotesCollectionPosition, EnumSet, int, EnumSet, int, EnumSet, NotesTimeDate, NotesIDTable, Integer)}
+	 * @param diffIDTable If DiffTime is non-null and DiffIDTable is not null it provides a
+	 * 				list of notes which the caller has current information on
+	 * @param columnNumber If not null, number of single column to return value for (0-based)
+	 * @return read data
+	 */
+	public NotesViewLookupColumnarResultData readEntriesExtColumnar(NotesCollectionPosition startPos,
+			EnumSet<Navigate> skipNavigator, int skipCount, EnumSet<Navigate> returnNavigator,
+			int returnCount, EnumSet<ReadMask> returnMask, NotesTimeDate diffTime,
+			NotesIDTable diffIDTable,
+			Integer columnNumber) {
+
+		checkHandle();
+
+		if (returnMask.contains(ReadMask.SUMMARY)) {
+			throw new IllegalArgumentException("Columnar read mode does not support "+ReadMask.SUMMARY+", use "+ReadMask.SUMMARYVALUES+" instead");
+		}
+
+		IntByReference retNumEntriesSkipped = new IntByReference();
+		IntByReference retNumEntriesReturned = new IntByReference();
+		ShortByReference retSignalFlags = new ShortByReference();
+		ShortByReference retBufferLength = new ShortByReference();
+
+		short skipNavBitMask = Navigate.toBitMask(skipNavigator);
+		short returnNavBitMask = Navigate.toBitMask(returnNavigator);
+		int readMaskBitMask = ReadMask.toBitMask(returnMask);
+		NotesCollectionPositionStruct startPosStruct = startPos==null ? null : startPos.getAdapter(NotesCollectionPositionStruct.class);
+
+		int flags = 0;
+
+		NotesTimeDateStruct retDiffTimeStruct = NotesTimeDateStruct.newInstance();
+		NotesTimeDateStruct retModifiedTimeStruct = NotesTimeDateStruct.newInstance();
+		IntByReference retSequence = new IntByReference();
+
+		String singleColumnLookupName = columnNumber == null ? null : getColumnName(columnNumber);
+
+		NotesTimeDateStruct diffTimeStruct = diffTime==null ? null : NotesTimeDateStruct.newInstance(diffTime.getInnards());
+
+		short result;
+		if (PlatformUtils.is64Bit()) {
+			LongByReference retBuffer = new LongByReference();
+			result = NotesNativeAPI64.get().NIFReadEntriesExt(m_hCollection64, startPosStruct,
+					skipNavBitMask,
+					skipCount, returnNavBitMask, returnCount, readMaskBitMask,
+					diffTimeStruct, diffIDTable==null ? 0 : diffIDTable.getHandle64(), columnNumber==null ? NotesConstants.MAXDWORD : columnNumber, flags, retBuffer, retBufferLength,
+					retNumEntriesSkipped, retNumEntriesReturned, retSignalFlags,
+					retDiffTimeStruct, retModifiedTimeStruct, retSequence);
+
+			if ((result & NotesConstants.ERR_MASK)!=1028) {
+				NotesErrorUtils.checkResult(result);
+			}
+
+			int indexModifiedSequenceNo = retModifiedTimeStruct.Innards[0];
+
+			NotesTimeDate retDiffTimeWrap = new NotesTimeDate(retDiffTimeStruct);
+
+			int iBufLength = retBufferLength.getValue() & 0xffff;
+			if (iBufLength==0 || ((result & NotesConstants.ERR_MASK)==1028)) {
+				NotesViewLookupColumnarResultData viewData = new NotesViewLookupColumnarResultData(this, returnMask, null,
+						retNumEntriesSkipped.getValue(), retNumEntriesReturned.getValue(),
+						retSignalFlags.getValue(), indexModifiedSequenceNo, retDiffTimeWrap, singleColumnLookupName);
+				viewData.decode(new byte[0], 0, 0);
+				return viewData;
+			}
+			else {
+				NotesViewLookupColumnarResultData viewData = NotesLookupResultBufferDecoder.b64_decodeCollectionLookupResultBufferColumnar(this,
+						retBuffer.getValue(), iBufLength,
+						retNumEntriesSkipped.getValue(), retNumEntriesReturned.getValue(), returnMask, retSignalFlags.getValue(),
+						indexModifiedSequenceNo, retDiffTimeWrap, singleColumnLookupName);
+				return viewData;
+			}
+		}
+		else {
+			IntByReference retBuffer = new IntByReference();
+			result = NotesNativeAPI32.get().NIFReadEntriesExt(m_hCollection32, startPosStruct,
+					skipNavBitMask,
+					skipCount, returnNavBitMask, returnCount, readMaskBitMask,
+					diffTimeStruct, diffIDTable==null ? 0 : diffIDTable.getHandle32(), columnNumber==null ? NotesConstants.MAXDWORD : columnNumber, flags, retBuffer, retBufferLength,
+					retNumEntriesSkipped, retNumEntriesReturned, retSignalFlags,
+					retDiffTimeStruct, retModifiedTimeStruct, retSequence);
+
+			if ((result & NotesConstants.ERR_MASK)!=1028) {
+				NotesErrorUtils.checkResult(result);
+			}
+			int indexModifiedSequenceNo = retModifiedTimeStruct.Innards[0];
+
+			NotesTimeDate retDiffTimeWrap = new NotesTimeDate(retDiffTimeStruct);
+
+			int iBufLength = retBufferLength.getValue() & 0xffff;
+			if (iBufLength==0 || ((result & NotesConstants.ERR_MASK)==1028)) {
+				NotesViewLookupColumnarResultData viewData = new NotesViewLookupColumnarResultData(this, returnMask, null,
+						retNumEntriesSkipped.getValue(), retNumEntriesReturned.getValue(),
+						retSignalFlags.getValue(), indexModifiedSequenceNo, retDiffTimeWrap, singleColumnLookupName);
+				viewData.decode(new byte[0], 0, 0);
+				return viewData;
+			}
+			else {
+				NotesViewLookupColumnarResultData viewData = NotesLookupResultBufferDecoder.b32_decodeCollectionLookupResultBufferColumnar(this,
+						retBuffer.getValue(), iBufLength,
+						retNumEntriesSkipped.getValue(), retNumEntriesReturned.getValue(), returnMask, retSignalFlags.getValue(),
+						indexModifiedSequenceNo, retDiffTimeWrap, singleColumnLookupName);
+				return viewData;
+			}
+		}
+	}
+
 	/**
 	 * Updates the view to reflect the current database content (using NIFUpdateCollection method)
 	 */
@@ -0,0 +1,561 @@
+package com.mindoo.domino.jna;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.mindoo.domino.jna.NotesCollection.EntriesAsListCallback;
+import com.mindoo.domino.jna.NotesCollection.ViewLookupCallback;
+import com.mindoo.domino.jna.NotesCollection.ViewLookupCallback.Action;
+import com.mindoo.domino.jna.constants.Navigate;
+import com.mindoo.domino.jna.constants.ReadMask;
+import com.mindoo.domino.jna.errors.NotesError;
+import com.mindoo.domino.jna.gc.NotesGC;
+import com.mindoo.domino.jna.utils.NotesInitUtils;
+
+/**
+ * Implementation of {@link NotesCollection#getAllEntriesParallel(int, EnumSet, int, EnumSet, boolean, ViewLookupCallback)}.<br>
+ * <br>
+ * The top level entries of the collection (the top level categories in categorized views,
+ * the documents in flat views) are split into contiguous position ranges. If there are fewer
+ * top level entries than ranges, e.g. in a categorized view with only a few top level categories,
+ * the entries with the most children are split at their child entries, level by level. Worker threads
+ * open their own database and collection handle, pick the next unprocessed range and read
+ * it with {@link NotesCollection#getAllEntries(String, int, EnumSet, int, EnumSet, ViewLookupCallback)}
+ * until the start position of the next range is reached.<br>
+ * <br>
+ * In ordered mode, the workers hand over pages of entries via small bounded queues (one per range)
+ * and the calling thread passes them to the {@link ViewLookupCallback} in view order. In unordered
+ * mode, the workers call {@link ViewLookupCallback#entryRead(Object, NotesViewEntryData)} directly.
+ *
+ * @author Karsten Lehmann
+ *
+ * @param <T> type of lookup result object
+ */
+class NotesCollectionParallelReader<T> {
+	private static final List<NotesViewEntryData> END_OF_PARTITION = Collections.emptyList();
+	/** number of ranges per worker thread, more ranges improve load balancing for categories of different size */
+	private static final int PARTITIONS_PER_THREAD = 4;
+	/** number of pages that may be buffered per range in ordered mode */
+	private static final int PAGES_PER_PARTITION = 4;
+	private static final int MAX_PAGE_SIZE = 1000;
+	private static final long POLL_INTERVAL_MS = 100;
+
+	private final NotesCollection m_collection;
+	private final int m_threadCount;
+	private final EnumSet<Navigate> m_returnNav;
+	private final int m_preloadEntryCount;
+	private final EnumSet<ReadMask> m_returnMask;
+	private final boolean m_ordered;
+	private final ViewLookupCallback<T> m_callback;
+
+	NotesCollectionParallelReader(NotesCollection collection, int threadCount, EnumSet<Navigate> returnNav,
+			int preloadEntryCount, EnumSet<ReadMask> returnMask, boolean ordered, ViewLookupCallback<T> callback) {
+		if (threadCount<=0)
+			throw new IllegalArgumentException("Thread count must be greater than 0: "+threadCount);
+		if (returnNav.size()!=1 || !(returnNav.contains(Navigate.NEXT) || returnNav.contains(Navigate.NEXT_NONCATEGORY) ||
+				returnNav.contains(Navigate.NEXT_CATEGORY)))
+			throw new IllegalArgumentException("Parallel reads only support one of the navigators NEXT, NEXT_NONCATEGORY or NEXT_CATEGORY: "+returnNav);
+
+		m_collection = collection;
+		m_threadCount = threadCount;
+		m_returnNav = returnNav;
+		m_preloadEntryCount = preloadEntryCount;
+		m_returnMask = returnMask.clone();
+		//we need the position to detect the end of a range
+		m_returnMask.add(ReadMask.INDEXPOSITION);
+		m_ordered = ordered;
+		m_callback = callback;
+	}
+
+	/**
+	 * Runs the parallel lookup
+	 *
+	 * @return lookup result
+	 */
+	T read() {
+		long t0 = System.currentTimeMillis();
+		int runs = -1;
+
+		while (true) {
+			runs++;
+
+			int topLevelEntries = m_collection.getTopLevelEntries();
+			T result = m_callback.startingLookup();
+
+			if (topLevelEntries==0 || m_preloadEntryCount==0) {
+				return m_callback.lookupDone(result);
+			}
+
+			LookupRun run = new LookupRun(topLevelEntries, result);
+			run.execute();
+
+			Throwable error = run.m_error.get();
+			if (error!=null) {
+				if (error instanceof RuntimeException) {
+					throw (RuntimeException) error;
+				}
+				else if (error instanceof Error) {
+					throw (Error) error;
+				}
+				else {
+					throw new NotesError(0, "Error reading collection entries in parallel", error);
+				}
+			}
+
+			if (run.m_indexChanged && !run.m_stopped) {
+				//view index was changed while reading; restart scan
+				Action retryAction = m_callback.retryingReadBecauseViewIndexChanged(runs, System.currentTimeMillis() - t0);
+				if (retryAction==Action.Stop) {
+					return null;
+				}
+				m_collection.update();
+				continue;
+			}
+
+			return m_callback.lookupDone(result);
+		}
+	}
+
+	/**
+	 * State of a single lookup run; a new run is started when the view index changes
+	 */
+	private class LookupRun {
+		private final int m_topLevelEntries;
+		private final T m_result;
+		private final int m_partitionCount;
+		/** view positions where the ranges start; a range ends before the start of the next one */
+		private final List<int[]> m_partitionStarts;
+		private final List<BlockingQueue<List<NotesViewEntryData>>> m_partitionQueues;
+		private final AtomicInteger m_nextPartition = new AtomicInteger();
+		private final AtomicReference<Throwable> m_error = new AtomicReference<Throwable>();
+		private volatile boolean m_aborted;
+		private volatile boolean m_indexChanged;
+		private volatile boolean m_stopped;
+
+		private LookupRun(int topLevelEntries, T result) {
+			m_topLevelEntries = topLevelEntries;
+			m_result = result;
+
+			m_partitionStarts = computePartitionStarts(topLevelEntries);
+			m_partitionCount = m_partitionStarts.size();
+
+			if (m_ordered) {
+				m_partitionQueues = new ArrayList<BlockingQueue<List<NotesViewEntryData>>>(m_partitionCount);
+				for (int i=0; i<m_partitionCount; i++) {
+					m_partitionQueues.add(new ArrayBlockingQueue<List<NotesViewEntryData>>(PAGES_PER_PARTITION));
+				}
+			}
+			else {
+				m_partitionQueues = null;
+			}
+		}
+
+		/**
+		 * Computes the start positions of the ranges. If there are enough top level entries, they
+		 * are split into ranges of the same size. Otherwise the entry with the most children is
+		 * replaced by its child entries until there are enough entries or no entry can be split any more.
+		 *
+		 * @param topLevelEntries number of top level entries
+		 * @return start positions in view order
+		 */
+		private List<int[]> computePartitionStarts(int topLevelEntries) {
+			int maxPartitions = (int) Math.min(Integer.MAX_VALUE, (long) m_threadCount * PARTITIONS_PER_THREAD);
+			List<int[]> starts = new ArrayList<int[]>();
+
+			if (topLevelEntries >= maxPartitions || m_threadCount==1) {
+				int partitionCount = Math.min(topLevelEntries, maxPartitions);
+				//top level positions are 1 based
+				int start = 1;
+				for (int i=0; i<partitionCount; i++) {
+					starts.add(new int[] {start});
+					start += topLevelEntries / partitionCount + (i < topLevelEntries % partitionCount ? 1 : 0);
+				}
+				return starts;
+			}
+
+			List<SplitUnit> units = new ArrayList<SplitUnit>();
+			for (NotesViewEntryData currEntry : readPeers("1")) {
+				units.add(new SplitUnit(currEntry.getPosition(), currEntry));
+			}
+
+			while (units.size() < maxPartitions) {
+				int splitIdx = -1;
+				for (int i=0; i<units.size(); i++) {
+					int childCount = units.get(i).m_childCount;
+					if (childCount>1 && (splitIdx==-1 || childCount > units.get(splitIdx).m_childCount)) {
+						splitIdx = i;
+					}
+				}
+				if (splitIdx==-1) {
+					break;
+				}
+
+				SplitUnit unit = units.get(splitIdx);
+				List<NotesViewEntryData> children = readPeers(toPositionString(unit.m_entryPos)+".1");
+				if (children.size()<2) {
+					unit.m_childCount = 0;
+					continue;
+				}
+
+				List<SplitUnit> childUnits = new ArrayList<SplitUnit>(children.size());
+				for (NotesViewEntryData currChild : children) {
+					//the range of the first child also contains the parent entry
+					int[] start = childUnits.isEmpty() ? unit.m_start : currChild.getPosition();
+					childUnits.add(new SplitUnit(start, currChild));
+				}
+				units.remove(splitIdx);
+				units.addAll(splitIdx, childUnits);
+			}
+
+			//ranges with about the same number of units
+			int partitionCount = Math.min(units.size(), maxPartitions);
+			int unitIdx = 0;
+			for (int i=0; i<partitionCount; i++) {
+				starts.add(units.get(unitIdx).m_start);
+				unitIdx += units.size() / partitionCount + (i < units.size() % partitionCount ? 1 : 0);
+			}
+			return starts;
+		}
+
+		/**
+		 * Reads an entry and its following peers with their child counts
+		 *
+		 * @param startPos position of the first entry
+		 * @return entries
+		 */
+		private List<NotesViewEntryData> readPeers(String startPos) {
+			return m_collection.getAllEntries(startPos, 0, EnumSet.of(Navigate.NEXT_PEER), MAX_PAGE_SIZE,
+					EnumSet.of(ReadMask.INDEXPOSITION, ReadMask.INDEXCHILDREN), new EntriesAsListCallback(Integer.MAX_VALUE));
+		}
+
+		private void execute() {
+			int workerCount = Math.min(m_threadCount, m_partitionCount);
+			List<Thread> workers = new ArrayList<Thread>(workerCount);
+
+			for (int i=0; i<workerCount; i++) {
+				Thread worker = new Thread(new Runnable() {
+
+					@Override
+					public void run() {
+						try {
+							NotesInitUtils.notesInitThread();
+							try {
+								NotesGC.runWithAutoGC(new Callable<Object>() {
+
+									@Override
+									public Object call() throws Exception {
+										readPartitions();
+										return null;
+									}
+								});
+							}
+							finally {
+								NotesInitUtils.notesTermThread();
+							}
+						}
+						catch (Throwable t) {
+							fail(t);
+						}
+					}
+
+				}, "Domino JNA parallel collection reader #"+(i+1));
+				worker.setDaemon(true);
+				workers.add(worker);
+				worker.start();
+			}
+
+			try {
+				if (m_ordered) {
+					deliverInViewOrder();
+				}
+			}
+			finally {
+				if (m_ordered) {
+					//all entries have been delivered or delivery has been stopped; make sure that
+					//workers blocked on full queues do not wait forever
+					m_aborted = true;
+				}
+
+				boolean interrupted = false;
+				for (Thread currWorker : workers) {
+					while (currWorker.isAlive()) {
+						try {
+							currWorker.join();
+						} catch (InterruptedException e) {
+							m_aborted = true;
+							interrupted = true;
+						}
+					}
+				}
+				if (interrupted) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+
+		/**
+		 * Passes the pages produced by the workers to the callback, range by range
+		 */
+		private void deliverInViewOrder() {
+			for (int p=0; p<m_partitionCount; p++) {
+				BlockingQueue<List<NotesViewEntryData>> queue = m_partitionQueues.get(p);
+
+				while (true) {
+					if (m_error.get()!=null || m_indexChanged) {
+						return;
+					}
+
+					List<NotesViewEntryData> page;
+					try {
+						page = queue.poll(POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						abort();
+						throw new NotesError(0, "Parallel collection read has been interrupted", e);
+					}
+
+					if (page==null) {
+						continue;
+					}
+					if (page==END_OF_PARTITION) {
+						break;
+					}
+
+					for (NotesViewEntryData currEntry : page) {
+						Action action = m_callback.entryRead(m_result, currEntry);
+						if (action==Action.Stop) {
+							stop();
+							return;
+						}
+					}
+				}
+			}
+		}
+
+		private void abort() {
+			m_aborted = true;
+		}
+
+		private void stop() {
+			m_stopped = true;
+			m_aborted = true;
+		}
+
+		private void fail(Throwable t) {
+			m_error.compareAndSet(null, t);
+			m_aborted = true;
+		}
+
+		private void indexChanged() {
+			m_indexChanged = true;
+			m_aborted = true;
+		}
+
+		/**
+		 * Worker method, opens a separate collection handle and reads ranges
+		 * until all have been processed
+		 */
+		private void readPartitions() {
+			NotesDatabase parentDb = m_collection.getParent();
+			NotesDatabase db = new NotesDatabase(parentDb.getServer(), parentDb.getRelativeFilePath(), m_collection.getContextUser());
+			NotesCollection col = db.openCollection(m_collection.getNoteId(), null);
+
+			int initialIndexModified = col.getIndexModifiedSequenceNo();
+			if (col.getTopLevelEntries() != m_topLevelEntries) {
+				//our range computation does not match this collection state
+				indexChanged();
+				return;
+			}
+
+			while (!m_aborted) {
+				int partitionIdx = m_nextPartition.getAndIncrement();
+				if (partitionIdx >= m_partitionCount) {
+					break;
+				}
+
+				readPartition(col, partitionIdx);
+
+				if (col.getIndexModifiedSequenceNo() != initialIndexModified) {
+					indexChanged();
+					return;
+				}
+			}
+		}
+
+		private void readPartition(NotesCollection col, final int partitionIdx) {
+			final int[] startPos = m_partitionStarts.get(partitionIdx);
+			final int[] nextStartPos = partitionIdx+1 < m_partitionCount ? m_partitionStarts.get(partitionIdx+1) : null;
+			final int pageSize = Math.max(1, Math.min(m_preloadEntryCount, MAX_PAGE_SIZE));
+			final List<List<NotesViewEntryData>> currPage = new ArrayList<List<NotesViewEntryData>>(1);
+			currPage.add(new ArrayList<NotesViewEntryData>(pageSize));
+
+			col.getAllEntries(toPositionString(startPos), 0, m_returnNav, m_preloadEntryCount, m_returnMask,
+					new ViewLookupCallback<Object>() {
+
+				@Override
+				public Object startingLookup() {
+					return null;
+				}
+
+				@Override
+				public String getNameForSingleColumnRead() {
+					return m_callback.getNameForSingleColumnRead();
+				}
+
+				@Override
+				public Action entryRead(Object result, NotesViewEntryData entryData) {
+					if (m_aborted) {
+						return Action.Stop;
+					}
+
+					int[] pos = entryData.getPosition();
+					if (nextStartPos!=null && comparePositions(pos, nextStartPos) >= 0) {
+						//reached the next range
+						return Action.Stop;
+					}
+					if (Arrays.equals(pos, startPos) && !isMatchingNavigator(entryData)) {
+						//NIF returns the start entry even if it does not match the navigator
+						return Action.Continue;
+					}
+
+					//entry should not reference the worker's collection, which gets recycled at the end
+					entryData.setParent(m_collection);
+
+					if (m_ordered) {
+						List<NotesViewEntryData> page = currPage.get(0);
+						page.add(entryData);
+						if (page.size() >= pageSize) {
+							if (!enqueue(partitionIdx, page)) {
+								return Action.Stop;
+							}
+							currPage.set(0, new ArrayList<NotesViewEntryData>(pageSize));
+						}
+					}
+					else {
+						Action action = m_callback.entryRead(m_result, entryData);
+						if (action==Action.Stop) {
+							stop();
+							return Action.Stop;
+						}
+					}
+					return Action.Continue;
+				}
+
+				@Override
+				public ViewPageSizeTuner getPageSizeTuner() {
+					//tuner instances are thread-safe and shared by all workers
+					return m_callback.getPageSizeTuner();
+				}
+
+				@Override
+				public Action retryingReadBecauseViewIndexChanged(int nrOfRetries, long durationSinceStart) {
+					//all ranges need to be read again
+					indexChanged();
+					return Action.Stop;
+				}
+
+				@Override
+				public Object lookupDone(Object result) {
+					return result;
+				}
+			});
+
+			if (m_ordered && !m_aborted) {
+				List<NotesViewEntryData> page = currPage.get(0);
+				if (!page.isEmpty()) {
+					if (!enqueue(partitionIdx, page)) {
+						return;
+					}
+				}
+				enqueue(partitionIdx, END_OF_PARTITION);
+			}
+		}
+
+		private boolean isMatchingNavigator(NotesViewEntryData entryData) {
+			if (m_returnNav.contains(Navigate.NEXT_NONCATEGORY)) {
+				return !entryData.isCategory();
+			}
+			else if (m_returnNav.contains(Navigate.NEXT_CATEGORY)) {
+				return entryData.isCategory();
+			}
+			return true;
+		}
+
+		/**
+		 * Adds a page to the queue of a range, blocking while the queue is full
+		 *
+		 * @param partitionIdx range index
+		 * @param page page
+		 * @return false if the lookup has been aborted
+		 */
+		private boolean enqueue(int partitionIdx, List<NotesViewEntryData> page) {
+			BlockingQueue<List<NotesViewEntryData>> queue = m_partitionQueues.get(partitionIdx);
+			while (!m_aborted) {
+				try {
+					if (queue.offer(page, POLL_INTERVAL_MS, TimeUnit.MILLISECONDS)) {
+						return true;
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					abort();
+					return false;
+				}
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * Compares two view positions in view order, e.g. 1.2 &lt; 1.2.1 &lt; 1.3
+	 *
+	 * @param pos1 first position
+	 * @param pos2 second position
+	 * @return comparison result
+	 */
+	private static int comparePositions(int[] pos1, int[] pos2) {
+		int len = Math.min(pos1.length, pos2.length);
+		for (int i=0; i<len; i++) {
+			if (pos1[i] != pos2[i]) {
+				return pos1[i] < pos2[i] ? -1 : 1;
+			}
+		}
+		return Integer.compare(pos1.length, pos2.length);
+	}
+
+	private static String toPositionString(int[] pos) {
+		StringBuilder sb = new StringBuilder();
+		for (int i=0; i<pos.length; i++) {
+			if (i>0) {
+				sb.append('.');
+			}
+			sb.append(pos[i]);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Entry that can be split into its child entries while computing the ranges
+	 */
+	private static class SplitUnit {
+		/** position where the range of this unit starts */
+		private final int[] m_start;
+		/** position of the entry */
+		private final int[] m_entryPos;
+		private int m_childCount;
+
+		private SplitUnit(int[] start, NotesViewEntryData entry) {
+			m_start = start;
+			m_entryPos = entry.getPosition();
+			m_childCount = entry.getChildCount();
+		}
+	}
+}
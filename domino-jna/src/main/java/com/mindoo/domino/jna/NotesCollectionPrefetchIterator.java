@@ -0,0 +1,425 @@
+package com.mindoo.domino.jna;
+
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.mindoo.domino.jna.NotesCollection.ViewLookupCallback;
+import com.mindoo.domino.jna.NotesCollection.ViewLookupCallback.Action;
+import com.mindoo.domino.jna.constants.Navigate;
+import com.mindoo.domino.jna.constants.ReadMask;
+import com.mindoo.domino.jna.errors.NotesError;
+import com.mindoo.domino.jna.gc.NotesGC;
+import com.mindoo.domino.jna.utils.NotesInitUtils;
+
+/**
+ * {@link Iterator} over collection entries that reads the next pages of entries in a
+ * background thread while the caller processes the current page, so that reading
+ * the view data and processing it (e.g. JSON serialization) overlap.<br>
+ * <br>
+ * The background thread gets started on the first call to {@link #hasNext()} or {@link #next()}.
+ * It opens its own database and collection handle and reads the entries with
+ * {@link NotesCollection#getAllEntries(String, int, EnumSet, int, EnumSet, ViewLookupCallback)}.
+ * Read pages are handed over via a bounded queue, so the background thread blocks when the
+ * caller cannot keep up.<br>
+ * <br>
+ * When the view index changes while reading, {@link #retryingReadBecauseViewIndexChanged(int, long)}
+ * is called. If it returns {@link Action#Stop}, the iterator throws a {@link ConcurrentModificationException}.
+ * If it returns {@link Action#Continue}, reading is restarted at the last document returned so far, because
+ * the index change shifts the view positions. After a restart, documents whose note id has already been
+ * returned are skipped, as well as the categories that had already been returned after the last document.
+ * If that document is no longer in the view, reading restarts at the start position and skips all entries
+ * up to the first document that has not been returned yet.<br>
+ * <b>A document that appears more than once in the view (e.g. in several categories) is only returned once
+ * after a restart.</b><br>
+ * <br>
+ * Please make sure to call {@link #close()} if the iteration is not completed, to stop the background thread.
+ *
+ * @author Karsten Lehmann
+ */
+public class NotesCollectionPrefetchIterator implements Iterator<NotesViewEntryData>, AutoCloseable {
+	//markers are compared by identity, so each needs its own instance
+	private static final List<NotesViewEntryData> END_OF_DATA = new ArrayList<NotesViewEntryData>(0);
+	private static final List<NotesViewEntryData> STOPPED_BY_INDEX_CHANGE = new ArrayList<NotesViewEntryData>(0);
+	private static final long POLL_INTERVAL_MS = 100;
+
+	private final NotesCollection m_collection;
+	private final String m_startPosStr;
+	private final int m_skipCount;
+	private final EnumSet<Navigate> m_returnNav;
+	private final int m_pageSize;
+	private final EnumSet<ReadMask> m_returnMask;
+	private final BlockingQueue<List<NotesViewEntryData>> m_queue;
+	private final AtomicReference<Throwable> m_error = new AtomicReference<Throwable>();
+
+	private Thread m_readerThread;
+	private volatile boolean m_closed;
+	private List<NotesViewEntryData> m_currPage;
+	private int m_currPageIdx;
+	private boolean m_done;
+
+	/**
+	 * Creates a new instance
+	 *
+	 * @param collection collection
+	 * @param startPosStr start position, e.g. "0" for the beginning of the view
+	 * @param skipCount number entries to skip before reading
+	 * @param returnNav navigator to specify how to move in the collection, navigators that do not return the entries in view order (e.g. {@link Navigate#NEXT_HIT}) are not supported
+	 * @param pageSize amount of entries that is read from the view per NIF call and handed over to the caller
+	 * @param prefetchPageCount maximum number of pages read ahead
+	 * @param returnMask values to extract
+	 */
+	public NotesCollectionPrefetchIterator(NotesCollection collection, String startPosStr, int skipCount,
+			EnumSet<Navigate> returnNav, int pageSize, int prefetchPageCount, EnumSet<ReadMask> returnMask) {
+		if (pageSize<=0)
+			throw new IllegalArgumentException("Page size must be greater than 0: "+pageSize);
+		if (prefetchPageCount<=0)
+			throw new IllegalArgumentException("Prefetch page count must be greater than 0: "+prefetchPageCount);
+		for (Navigate currNav : returnNav) {
+			if (currNav.name().endsWith("_HIT"))
+				throw new IllegalArgumentException("Navigators that do not return entries in view order are not supported: "+currNav);
+		}
+		if (collection.isRecycled())
+			throw new NotesError(0, "Collection already recycled");
+
+		m_collection = collection;
+		m_startPosStr = startPosStr;
+		m_skipCount = skipCount;
+		m_returnNav = returnNav.clone();
+		m_pageSize = pageSize;
+		m_returnMask = returnMask.clone();
+		//we need the note id to resume reading after view index changes
+		m_returnMask.add(ReadMask.NOTEID);
+
+		m_queue = new ArrayBlockingQueue<List<NotesViewEntryData>>(prefetchPageCount);
+	}
+
+	/**
+	 * Method is called in the background thread when a view index change has been detected
+	 * while reading. Override this method to log the retries or decide to stop reading when
+	 * too much time has passed.
+	 *
+	 * @param nrOfRetries number of retries already made (0 = first retry is about to begin)
+	 * @param durationSinceStart number of milliseconds elapsed since starting the lookup
+	 * @return action, whether to continue (default) or stop the lookup; on stop, the iterator throws a {@link ConcurrentModificationException}
+	 */
+	protected Action retryingReadBecauseViewIndexChanged(int nrOfRetries, long durationSinceStart) {
+		return Action.Continue;
+	}
+
+	/**
+	 * Returns a {@link Spliterator} for this iterator, e.g. to produce a stream
+	 * via {@link java.util.stream.StreamSupport#stream(Spliterator, boolean)}
+	 *
+	 * @return spliterator
+	 */
+	public Spliterator<NotesViewEntryData> spliterator() {
+		return Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL);
+	}
+
+	@Override
+	public boolean hasNext() {
+		if (m_done) {
+			return false;
+		}
+		if (m_currPage!=null && m_currPageIdx < m_currPage.size()) {
+			return true;
+		}
+		if (m_closed) {
+			throw new IllegalStateException("Iterator has been closed");
+		}
+
+		startReaderThread();
+
+		while (true) {
+			List<NotesViewEntryData> page;
+			try {
+				page = m_queue.poll(POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				close();
+				throw new NotesError(0, "Collection read has been interrupted", e);
+			}
+
+			if (page==null) {
+				if (!m_readerThread.isAlive() && m_queue.isEmpty()) {
+					//should not happen, the reader always adds an end marker
+					m_done = true;
+					rethrowError();
+					return false;
+				}
+				continue;
+			}
+
+			if (page==END_OF_DATA) {
+				m_done = true;
+				m_currPage = null;
+				rethrowError();
+				return false;
+			}
+			else if (page==STOPPED_BY_INDEX_CHANGE) {
+				m_done = true;
+				m_currPage = null;
+				throw new ConcurrentModificationException("View index changed while reading and the lookup has been stopped");
+			}
+			else if (!page.isEmpty()) {
+				m_currPage = page;
+				m_currPageIdx = 0;
+				return true;
+			}
+		}
+	}
+
+	@Override
+	public NotesViewEntryData next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		return m_currPage.get(m_currPageIdx++);
+	}
+
+	/**
+	 * Stops the background thread. Entries already read are discarded.
+	 */
+	@Override
+	public void close() {
+		m_closed = true;
+		//unblock the reader thread if the queue is full
+		m_queue.clear();
+	}
+
+	private void rethrowError() {
+		Throwable error = m_error.get();
+		if (error!=null) {
+			if (error instanceof RuntimeException) {
+				throw (RuntimeException) error;
+			}
+			else if (error instanceof Error) {
+				throw (Error) error;
+			}
+			else {
+				throw new NotesError(0, "Error reading collection entries", error);
+			}
+		}
+	}
+
+	private void startReaderThread() {
+		if (m_readerThread!=null) {
+			return;
+		}
+
+		final NotesDatabase parentDb = m_collection.getParent();
+		final String server = parentDb.getServer();
+		final String relPath = parentDb.getRelativeFilePath();
+		final String contextUser = m_collection.getContextUser();
+		final int viewNoteId = m_collection.getNoteId();
+
+		m_readerThread = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					NotesInitUtils.notesInitThread();
+					try {
+						NotesGC.runWithAutoGC(new Callable<Object>() {
+
+							@Override
+							public Object call() throws Exception {
+								NotesDatabase db = new NotesDatabase(server, relPath, contextUser);
+								NotesCollection col = db.openCollection(viewNoteId, null);
+								readEntries(col);
+								return null;
+							}
+						});
+					}
+					finally {
+						NotesInitUtils.notesTermThread();
+					}
+				}
+				catch (Throwable t) {
+					m_error.compareAndSet(null, t);
+				}
+				finally {
+					if (!m_closed && m_error.get()!=null) {
+						enqueue(END_OF_DATA);
+					}
+				}
+			}
+
+		}, "Domino JNA collection prefetch reader");
+		m_readerThread.setDaemon(true);
+		m_readerThread.start();
+	}
+
+	/**
+	 * Reader thread method, reads the collection entries and hands them over to the caller thread in pages
+	 *
+	 * @param col collection opened in the reader thread
+	 */
+	private void readEntries(NotesCollection col) {
+		long t0 = System.currentTimeMillis();
+		ReaderCallback callback = new ReaderCallback();
+
+		for (int runs=0; ; runs++) {
+			callback.m_retryRun = runs;
+			callback.m_retryStartTime = t0;
+
+			Boolean completed;
+			if (callback.m_lastNoteId==0) {
+				completed = col.getAllEntries(m_startPosStr, m_skipCount, m_returnNav, m_pageSize, m_returnMask, callback);
+			}
+			else {
+				//restart at the last returned document; it is skipped as duplicate
+				try {
+					completed = col.getAllEntriesStartingAtNoteId(callback.m_lastNoteId, 0, m_returnNav, m_pageSize, m_returnMask, callback);
+				}
+				catch (NotesError e) {
+					//document is no longer in the view; read from the start position and skip everything
+					//up to the first document that has not been returned yet
+					callback.m_lastNoteId = 0;
+					callback.m_categoriesToSkip = Integer.MAX_VALUE;
+					continue;
+				}
+			}
+
+			if (m_closed) {
+				return;
+			}
+
+			if (completed==null) {
+				//getAllEntries returns null if the lookup has been stopped because of a view index change
+				if (!callback.m_retry) {
+					enqueue(STOPPED_BY_INDEX_CHANGE);
+					return;
+				}
+				col.update();
+				callback.startResume();
+				continue;
+			}
+
+			List<NotesViewEntryData> page = callback.m_page;
+			if (page!=null && !page.isEmpty()) {
+				if (!enqueue(page)) {
+					return;
+				}
+			}
+			enqueue(END_OF_DATA);
+			return;
+		}
+	}
+
+	/**
+	 * Callback for the lookups of the reader thread that collects the entries in pages and
+	 * skips the entries that have already been returned when reading is restarted
+	 */
+	private class ReaderCallback extends ViewLookupCallback<Boolean> {
+		private List<NotesViewEntryData> m_page;
+		/** note ids of all documents returned so far */
+		private final NoteIdBitmap m_returnedNoteIds = new NoteIdBitmap();
+		/** note id of the last returned document */
+		private int m_lastNoteId;
+		/** number of categories returned after the last document */
+		private int m_categoriesAfterLastNoteId;
+		/** true after the first restart */
+		private boolean m_restarted;
+		/** number of categories to skip before the first new document of a restarted lookup */
+		private int m_categoriesToSkip;
+		private boolean m_retry;
+		private int m_retryRun;
+		private long m_retryStartTime;
+
+		private void startResume() {
+			m_restarted = true;
+			m_categoriesToSkip = m_categoriesAfterLastNoteId;
+		}
+
+		@Override
+		public Boolean startingLookup() {
+			if (m_page==null) {
+				m_page = new ArrayList<NotesViewEntryData>(m_pageSize);
+			}
+			return Boolean.TRUE;
+		}
+
+		@Override
+		public Action entryRead(Boolean result, NotesViewEntryData entryData) {
+			if (m_closed) {
+				return Action.Stop;
+			}
+
+			if (entryData.isCategory()) {
+				if (m_categoriesToSkip>0) {
+					m_categoriesToSkip--;
+					return Action.Continue;
+				}
+				m_categoriesAfterLastNoteId++;
+			}
+			else {
+				int noteId = entryData.getNoteId();
+				if (m_restarted && m_returnedNoteIds.contains(noteId)) {
+					return Action.Continue;
+				}
+				m_categoriesToSkip = 0;
+				m_returnedNoteIds.add(noteId);
+				m_lastNoteId = noteId;
+				m_categoriesAfterLastNoteId = 0;
+			}
+
+			//entry should not reference the reader's collection, which gets recycled at the end
+			entryData.setParent(m_collection);
+
+			m_page.add(entryData);
+			if (m_page.size() >= m_pageSize) {
+				if (!enqueue(m_page)) {
+					return Action.Stop;
+				}
+				m_page = new ArrayList<NotesViewEntryData>(m_pageSize);
+			}
+			return Action.Continue;
+		}
+
+		@Override
+		public Action retryingReadBecauseViewIndexChanged(int nrOfRetries, long durationSinceStart) {
+			//we restart the lookup ourselves at the last returned document instead of the start position
+			m_retry = NotesCollectionPrefetchIterator.this.retryingReadBecauseViewIndexChanged(m_retryRun,
+					System.currentTimeMillis() - m_retryStartTime) == Action.Continue;
+			return Action.Stop;
+		}
+
+		@Override
+		public Boolean lookupDone(Boolean result) {
+			return result;
+		}
+	}
+
+	/**
+	 * Adds a page to the queue, blocking while the queue is full
+	 *
+	 * @param page page
+	 * @return false if the iterator has been closed
+	 */
+	private boolean enqueue(List<NotesViewEntryData> page) {
+		while (!m_closed) {
+			try {
+				if (m_queue.offer(page, POLL_INTERVAL_MS, TimeUnit.MILLISECONDS)) {
+					return true;
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				m_closed = true;
+				return false;
+			}
+		}
+		return false;
+	}
+}
@@ -13,9 +13,11 @@ import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
+import java.util.function.IntConsumer;
 
 import com.mindoo.domino.jna.NotesIDTable.IEnumerateCallback.Action;
 import com.mindoo.domino.jna.NotesSearch.ISearchMatch;
@@ -111,11 +113,7 @@ public class NotesIDTable implements IRecyclableNotesObject, Iterable<Integer> {
 	 */
 	public NotesIDTable(int [] ids) {
 		this();
-		Set<Integer> idsAsList = new TreeSet<Integer>();
-		for (int i=0; i<ids.length; i++) {
-			idsAsList.add(Integer.valueOf(ids[i]));
-		}
-		addNotes(idsAsList, true);
+		addNotes(ids);
 	}
 	
 	/**
@@ -403,6 +401,104 @@ public class NotesIDTable implements IRecyclableNotesObject, Iterable<Integer> {
 		}
 	}
 	
+	/**
+	 * Adds an array of note ids to this id table without converting them to {@link Integer} objects.
+	 * Consecutive note ids are inserted as range. The array does not have to be sorted,
+	 * this is checked and done (if required) on a copy of the array.
+	 * 
+	 * @param noteIds ids to add
+	 */
+	public void addNotes(int[] noteIds) {
+		boolean isSorted = true;
+		for (int i=1; i<noteIds.length; i++) {
+			if (noteIds[i-1] > noteIds[i]) {
+				isSorted = false;
+				break;
+			}
+		}
+		
+		int[] sortedNoteIds = noteIds;
+		if (!isSorted) {
+			sortedNoteIds = noteIds.clone();
+			Arrays.sort(sortedNoteIds);
+		}
+		
+		final int[] fSortedNoteIds = sortedNoteIds;
+		addSortedNotes(new PrimitiveIterator.OfInt() {
+			private int m_idx;
+			
+			@Override
+			public boolean hasNext() {
+				return m_idx < fSortedNoteIds.length;
+			}
+			
+			@Override
+			public int nextInt() {
+				if (m_idx >= fSortedNoteIds.length) {
+					throw new NoSuchElementException("No more elements");
+				}
+				return fSortedNoteIds[m_idx++];
+			}
+		});
+	}
+	
+	/**
+	 * Adds the note ids of a {@link NoteIdBitmap} to this id table. Consecutive note ids are
+	 * inserted as range.
+	 * 
+	 * @param noteIds ids to add
+	 */
+	public void addNotes(NoteIdBitmap noteIds) {
+		addSortedNotes(noteIds.intIterator());
+	}
+	
+	/**
+	 * Inserts note ids in ascending order, finding consecutive id ranges to reduce the number
+	 * of insert operations
+	 * 
+	 * @param sortedNoteIds note ids in ascending order
+	 */
+	private void addSortedNotes(PrimitiveIterator.OfInt sortedNoteIds) {
+		checkHandle();
+		
+		if (!sortedNoteIds.hasNext()) {
+			return;
+		}
+		
+		//all ranges are higher than the existing ids if the table is empty
+		boolean addToEnd = getCount()==0;
+		
+		int rangeStart = sortedNoteIds.nextInt();
+		int rangeEnd = rangeStart;
+		
+		while (sortedNoteIds.hasNext()) {
+			int currNoteId = sortedNoteIds.nextInt();
+			if (currNoteId == rangeEnd) {
+				continue;
+			}
+			if (currNoteId == rangeEnd + 4) {
+				rangeEnd = currNoteId;
+			}
+			else {
+				insertRange(rangeStart, rangeEnd, addToEnd);
+				rangeStart = currNoteId;
+				rangeEnd = currNoteId;
+			}
+		}
+		insertRange(rangeStart, rangeEnd, addToEnd);
+	}
+	
+	private void insertRange(int firstNoteId, int lastNoteId, boolean addToEnd) {
+		short result;
+		if (PlatformUtils.is64Bit()) {
+			result = NotesNativeAPI64.get().IDInsertRange(m_idTableHandle64, firstNoteId, lastNoteId, addToEnd);
+		}
+		else {
+			result = NotesNativeAPI32.get().IDInsertRange(m_idTableHandle32, firstNoteId, lastNoteId, addToEnd);
+		}
+		NotesErrorUtils.checkResult(result);
+	}
+	
 	/**
 	 * Removes a set of note ids from this id table
 	 * 
@@ -789,13 +885,70 @@ public class NotesIDTable implements IRecyclableNotesObject, Iterable<Integer> {
 	 * @return int array
 	 */
 	public int[] toArray() {
-		List<Integer> idsAsList = toList();
-		int[] idsArr = new int[idsAsList.size()];
+		int[] idsArr = new int[getCount()];
+		toArray(idsArr, 0);
+		return idsArr;
+	}
+	
+	/**
+	 * Copies the content of this id table into an array of int. The ids are read
+	 * with IDScan, which avoids the callback from C to Java per id of {@link #enumerate(IEnumerateCallback)}.
+	 * 
+	 * @param dest target array
+	 * @param offset offset in the target array
+	 * @return number of ids copied
+	 * @throws IllegalArgumentException if the array is too small
+	 */
+	public int toArray(int[] dest, int offset) {
+		int count = getCount();
+		if (offset<0 || dest.length - offset < count)
+			throw new IllegalArgumentException("Array too small for "+count+" note ids at offset "+offset+": "+dest.length);
 		
-		for (int i=0; i<idsAsList.size(); i++) {
-			idsArr[i] = idsAsList.get(i).intValue();
+		IntByReference retID = new IntByReference();
+		int pos = offset;
+		int end = offset + count;
+		boolean first = true;
+		if (PlatformUtils.is64Bit()) {
+			while (pos < end && NotesNativeAPI64.get().IDScan(m_idTableHandle64, first, retID)) {
+				dest[pos++] = retID.getValue();
+				first = false;
+			}
 		}
-		return idsArr;
+		else {
+			while (pos < end && NotesNativeAPI32.get().IDScan(m_idTableHandle32, first, retID)) {
+				dest[pos++] = retID.getValue();
+				first = false;
+			}
+		}
+		return pos - offset;
+	}
+	
+	/**
+	 * Copies the content of this id table into a {@link NoteIdBitmap}, e.g. to run
+	 * a series of set operations in Java instead of calling {@link #intersect(NotesIDTable)},
+	 * {@link #addTable(NotesIDTable)} or {@link #removeTable(NotesIDTable)} for each step.
+	 * Use {@link NoteIdBitmap#toIDTable()} to convert the result back.
+	 * 
+	 * @return bitmap
+	 */
+	public NoteIdBitmap toBitmap() {
+		return NoteIdBitmap.fromIDTable(this);
+	}
+	
+	/**
+	 * Calls the consumer for each id in the table without converting the ids to {@link Integer} objects
+	 * 
+	 * @param consumer consumer
+	 */
+	public void forEachNoteId(final IntConsumer consumer) {
+		enumerate(new IEnumerateCallback() {
+
+			@Override
+			public Action noteVisited(int noteId) {
+				consumer.accept(noteId);
+				return Action.Continue;
+			}
+		});
 	}
 
 	/**
@@ -1300,10 +1453,31 @@ public class NotesIDTable implements IRecyclableNotesObject, Iterable<Integer> {
 		return new NoteIdIterator(this, true);
 	}
 
-	private static class NoteIdIterator implements Iterator<Integer> {
+	/**
+	 * Returns a primitive note id iterator starting with the first note id.
+	 * Use {@link PrimitiveIterator.OfInt#nextInt()} to avoid converting the ids to {@link Integer} objects.
+	 * 
+	 * @return iterator
+	 */
+	public PrimitiveIterator.OfInt intIterator() {
+		return new NoteIdIterator(this, false);
+	}
+
+	/**
+	 * Returns a primitive note id iterator starting with the last note id
+	 * Use {@link PrimitiveIterator.OfInt#nextInt()} to avoid converting the ids to {@link Integer} objects.
+	 * 
+	 * @return iterator
+	 */
+	public PrimitiveIterator.OfInt intIteratorBackwards() {
+		return new NoteIdIterator(this, true);
+	}
+
+	private static class NoteIdIterator implements PrimitiveIterator.OfInt {
 		private NotesIDTable m_idTable;
 		private IntByReference m_nextIdRef;
-		private Integer m_nextId;
+		private int m_nextId;
+		private boolean m_hasNext;
 		private boolean m_scanBackward;
 		
 		private NoteIdIterator(NotesIDTable idTable, boolean scanBackward) {
@@ -1323,7 +1497,7 @@ public class NotesIDTable implements IRecyclableNotesObject, Iterable<Integer> {
 				isFirstVal = true;
 				m_nextIdRef = new IntByReference();
 			}
-			else if (m_nextId==null) {
+			else if (!m_hasNext) {
 				//no more data
 				return;
 			}
@@ -1336,17 +1510,19 @@ public class NotesIDTable implements IRecyclableNotesObject, Iterable<Integer> {
 				if (m_scanBackward) {
 					if (NotesNativeAPI64.get().IDScanBack(m_idTable.getHandle64(), isFirstVal, m_nextIdRef)) {
 						m_nextId = m_nextIdRef.getValue();
+						m_hasNext = true;
 					}
 					else {
-						m_nextId = null;
+						m_hasNext = false;
 					}
 				}
 				else {
 					if (NotesNativeAPI64.get().IDScan(m_idTable.getHandle64(), isFirstVal, m_nextIdRef)) {
 						m_nextId = m_nextIdRef.getValue();
+						m_hasNext = true;
 					}
 					else {
-						m_nextId = null;
+						m_hasNext = false;
 					}
 				}
 			}
@@ -1354,17 +1530,19 @@ public class NotesIDTable implements IRecyclableNotesObject, Iterable<Integer> {
 				if (m_scanBackward) {
 					if (NotesNativeAPI32.get().IDScanBack(m_idTable.getHandle32(), isFirstVal, m_nextIdRef)) {
 						m_nextId = m_nextIdRef.getValue();
+						m_hasNext = true;
 					}
 					else {
-						m_nextId = null;
+						m_hasNext = false;
 					}
 				}
 				else {
 					if (NotesNativeAPI32.get().IDScan(m_idTable.getHandle32(), isFirstVal, m_nextIdRef)) {
 						m_nextId = m_nextIdRef.getValue();
+						m_hasNext = true;
 					}
 					else {
-						m_nextId = null;
+						m_hasNext = false;
 					}
 				}
 			}
@@ -1372,16 +1550,16 @@ public class NotesIDTable implements IRecyclableNotesObject, Iterable<Integer> {
 		
 		@Override
 		public boolean hasNext() {
-			return m_nextId!=null;
+			return m_hasNext;
 		}
 
 		@Override
-		public Integer next() {
-			if (m_nextId==null) {
+		public int nextInt() {
+			if (!m_hasNext) {
 				throw new NoSuchElementException("No more elements");
 			}
 			
-			Integer nextId = m_nextId;
+			int nextId = m_nextId;
 			fetchNext();
 			
 			return nextId;
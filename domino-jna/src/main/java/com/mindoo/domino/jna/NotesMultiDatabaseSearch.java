@@ -0,0 +1,820 @@
+package com.mindoo.domino.jna;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import com.mindoo.domino.jna.NotesSearch.ISearchMatch;
+import com.mindoo.domino.jna.NotesSearch.SearchCallback;
+import com.mindoo.domino.jna.NotesSearchIterator.SearchResult;
+import com.mindoo.domino.jna.constants.NoteClass;
+import com.mindoo.domino.jna.constants.Search;
+import com.mindoo.domino.jna.directory.DirectoryScanner;
+import com.mindoo.domino.jna.directory.DirectoryScanner.DatabaseData;
+import com.mindoo.domino.jna.directory.DirectoryScanner.SearchResultData;
+import com.mindoo.domino.jna.errors.NotesError;
+import com.mindoo.domino.jna.gc.NotesGC;
+import com.mindoo.domino.jna.internal.NotesLookupResultBufferDecoder;
+import com.mindoo.domino.jna.utils.CancellationToken;
+import com.mindoo.domino.jna.utils.NotesInitUtils;
+import com.mindoo.domino.jna.utils.NotesNamingUtils;
+import com.mindoo.domino.jna.utils.StringUtil;
+
+/**
+ * Runs the same database search in many databases in parallel, e.g. a selection formula
+ * across all mail files of a server, and returns the merged search results as {@link Iterator}
+ * or {@link Stream}. Each result is tagged with the server and file path of its database.<br>
+ * <br>
+ * The databases are opened and searched on a thread pool with {@link #setThreadCount(int)} threads.
+ * {@link #setMaxConcurrentSearchesPerServer(int)} limits the number of searches that
+ * run at the same time on the same server, so that a large fan-out does not overload a single server.
+ * Databases of a server whose limit has been reached wait in a queue without blocking a pool thread.<br>
+ * <br>
+ * Like {@link NotesSearchIterator}, the results are handed over via a bounded queue and the
+ * summary buffers are copied with {@link NotesLookupResultBufferDecoder#copyItemTable(IItemTableData)}.
+ * Errors opening or searching a single database do not stop the other searches by default (see
+ * {@link #setStopOnError(boolean)}); they are reported in the {@link DatabaseSearchStatistics}
+ * returned by {@link #getDatabaseStatistics()}, which also contain the latency of each database.<br>
+ * <br>
+ * The searches get started on the first call to {@link #hasNext()} or {@link #next()}.
+ * Please make sure to call {@link #close()} if the iteration is not completed, to stop the searches.
+ *
+ * @author Karsten Lehmann
+ */
+public class NotesMultiDatabaseSearch implements Iterator<NotesMultiDatabaseSearch.DatabaseSearchResult>, AutoCloseable {
+	private static final DatabaseSearchResult END_OF_DATA = new DatabaseSearchResult(null, null, null);
+	private static final long POLL_INTERVAL_MS = 100;
+
+	private final String m_formula;
+	private final LinkedHashMap<String,String> m_columnFormulas;
+	private final String m_viewTitle;
+	private final EnumSet<Search> m_searchFlags;
+	private final EnumSet<NoteClass> m_noteClasses;
+	private final NotesTimeDate m_since;
+	private final List<String[]> m_databases = new ArrayList<String[]>();
+	private final List<DatabaseSearchStatistics> m_statistics = new ArrayList<DatabaseSearchStatistics>();
+	private final AtomicReference<Throwable> m_error = new AtomicReference<Throwable>();
+
+	private String m_contextUser;
+	private int m_threadCount = 8;
+	private int m_maxConcurrentSearchesPerServer = 4;
+	private int m_queueSize = 1000;
+	private boolean m_stopOnError;
+	private long m_timeoutNanos;
+	private CancellationToken m_cancellationToken;
+
+	//scheduler state, guarded by m_pendingByServer
+	private final Map<String,Deque<String[]>> m_pendingByServer = new LinkedHashMap<String,Deque<String[]>>();
+	private final Map<String,AtomicInteger> m_runningByServer = new LinkedHashMap<String,AtomicInteger>();
+	private int m_remainingDatabases;
+
+	private BlockingQueue<DatabaseSearchResult> m_queue;
+	private ExecutorService m_executor;
+	private long m_deadlineNanos;
+	private volatile boolean m_closed;
+	private List<DatabaseSearchResult> m_currBatch;
+	private int m_currBatchIdx;
+	private boolean m_done;
+
+	/**
+	 * Search result of one of the searched databases
+	 */
+	public static class DatabaseSearchResult {
+		private final String m_server;
+		private final String m_filePath;
+		private final SearchResult m_searchResult;
+
+		public DatabaseSearchResult(String server, String filePath, SearchResult searchResult) {
+			m_server = server;
+			m_filePath = filePath;
+			m_searchResult = searchResult;
+		}
+
+		/**
+		 * Returns the server of the database
+		 *
+		 * @return server, empty string for local databases
+		 */
+		public String getServer() {
+			return m_server;
+		}
+
+		/**
+		 * Returns the file path of the database
+		 *
+		 * @return path
+		 */
+		public String getFilePath() {
+			return m_filePath;
+		}
+
+		/**
+		 * Returns the search result
+		 *
+		 * @return result
+		 */
+		public SearchResult getSearchResult() {
+			return m_searchResult;
+		}
+
+		/**
+		 * Returns data about the search match like note id, UNID and sequence number
+		 *
+		 * @return search match
+		 */
+		public ISearchMatch getSearchMatch() {
+			return m_searchResult.getSearchMatch();
+		}
+
+		/**
+		 * Returns the copied summary buffer data
+		 *
+		 * @return data if {@link Search#SUMMARY} was specified, null otherwise
+		 */
+		public IItemTableData getSummaryBufferData() {
+			return m_searchResult.getSummaryBufferData();
+		}
+
+		@Override
+		public String toString() {
+			return "DatabaseSearchResult [server="+m_server+", filepath="+m_filePath+", result="+m_searchResult+"]";
+		}
+	}
+
+	/**
+	 * Latency and result count of the search in one database
+	 */
+	public static class DatabaseSearchStatistics {
+		private final String m_server;
+		private final String m_filePath;
+		private final long m_waitDurationMillis;
+		private final long m_openDurationMillis;
+		private final long m_searchDurationMillis;
+		private final int m_resultCount;
+		private final NotesTimeDate m_searchEndDate;
+		private final Throwable m_error;
+
+		public DatabaseSearchStatistics(String server, String filePath, long waitDurationMillis, long openDurationMillis,
+				long searchDurationMillis, int resultCount, NotesTimeDate searchEndDate, Throwable error) {
+			m_server = server;
+			m_filePath = filePath;
+			m_waitDurationMillis = waitDurationMillis;
+			m_openDurationMillis = openDurationMillis;
+			m_searchDurationMillis = searchDurationMillis;
+			m_resultCount = resultCount;
+			m_searchEndDate = searchEndDate;
+			m_error = error;
+		}
+
+		/**
+		 * Returns the server of the database
+		 *
+		 * @return server, empty string for local databases
+		 */
+		public String getServer() {
+			return m_server;
+		}
+
+		/**
+		 * Returns the file path of the database
+		 *
+		 * @return path
+		 */
+		public String getFilePath() {
+			return m_filePath;
+		}
+
+		/**
+		 * Returns the time between starting the fan-out and starting to open this database,
+		 * e.g. because of the concurrency limits
+		 *
+		 * @return duration in milliseconds
+		 */
+		public long getWaitDurationMillis() {
+			return m_waitDurationMillis;
+		}
+
+		/**
+		 * Returns the time it took to open the database
+		 *
+		 * @return duration in milliseconds
+		 */
+		public long getOpenDurationMillis() {
+			return m_openDurationMillis;
+		}
+
+		/**
+		 * Returns the time it took to search the database, including the time the search
+		 * waited for free space in the result queue
+		 *
+		 * @return duration in milliseconds
+		 */
+		public long getSearchDurationMillis() {
+			return m_searchDurationMillis;
+		}
+
+		/**
+		 * Returns the number of search results of this database
+		 *
+		 * @return count
+		 */
+		public int getResultCount() {
+			return m_resultCount;
+		}
+
+		/**
+		 * Returns the ending (current) time/date of the search, which can be used as
+		 * <code>since</code> date of a subsequent search
+		 *
+		 * @return date or null if the search has been stopped or failed
+		 */
+		public NotesTimeDate getSearchEndDate() {
+			return m_searchEndDate;
+		}
+
+		/**
+		 * Returns the error that occurred opening or searching the database
+		 *
+		 * @return error or null
+		 */
+		public Throwable getError() {
+			return m_error;
+		}
+
+		@Override
+		public String toString() {
+			return "DatabaseSearchStatistics [server="+m_server+", filepath="+m_filePath+", wait="+m_waitDurationMillis+
+					"ms, open="+m_openDurationMillis+"ms, search="+m_searchDurationMillis+"ms, results="+m_resultCount+
+					(m_error==null ? "" : ", error="+m_error)+"]";
+		}
+	}
+
+	/**
+	 * Creates a new instance
+	 *
+	 * @param formula formula or null
+	 * @param columnFormulas map with programmatic column names (key) and formulas (value) with keys sorted in column order or null to output all items; automatically uses {@link Search#NOITEMNAMES} and {@link Search#SUMMARY} search flag
+	 * @param viewTitle optional view title that will be returned for "@ ViewTitle" within the formula or null
+	 * @param searchFlags flags to control searching ({@link Search})
+	 * @param noteClasses noteclasses to search
+	 * @param since The date of the earliest modified note that is matched. The note's "Modified in this file" date is compared to this date. Specify NULL if you do not wish any filtering by date.
+	 */
+	public NotesMultiDatabaseSearch(String formula, Map<String,String> columnFormulas, String viewTitle,
+			EnumSet<Search> searchFlags, EnumSet<NoteClass> noteClasses, NotesTimeDate since) {
+		m_formula = formula;
+		m_columnFormulas = columnFormulas==null ? null : new LinkedHashMap<String,String>(columnFormulas);
+		m_viewTitle = viewTitle;
+		m_searchFlags = searchFlags.clone();
+		m_noteClasses = noteClasses.clone();
+		m_since = since;
+	}
+
+	/**
+	 * Adds a database to search
+	 *
+	 * @param server server or empty string for local databases
+	 * @param filePath file path
+	 * @return this instance
+	 */
+	public NotesMultiDatabaseSearch addDatabase(String server, String filePath) {
+		checkNotStarted();
+		if (StringUtil.isEmpty(filePath))
+			throw new IllegalArgumentException("File path cannot be empty");
+		m_databases.add(new String[] {server==null ? "" : server, filePath});
+		return this;
+	}
+
+	/**
+	 * Adds all databases of a {@link DirectoryScanner} result, folders are ignored
+	 *
+	 * @param server server that has been scanned
+	 * @param scanResults result of {@link DirectoryScanner#scan()} or {@link DirectoryScanner#scan(String)}
+	 * @return this instance
+	 */
+	public NotesMultiDatabaseSearch addDatabases(String server, Collection<SearchResultData> scanResults) {
+		for (SearchResultData currData : scanResults) {
+			if (currData instanceof DatabaseData) {
+				addDatabase(server, ((DatabaseData) currData).getFilePath());
+			}
+		}
+		return this;
+	}
+
+	/**
+	 * Sets the user to open the databases, e.g. for web applications that
+	 * search on behalf of the current user. Must be called before the searches start.
+	 *
+	 * @param contextUser user or null to use the ID user (default)
+	 * @return this instance
+	 */
+	public NotesMultiDatabaseSearch setContextUser(String contextUser) {
+		checkNotStarted();
+		m_contextUser = contextUser;
+		return this;
+	}
+
+	/**
+	 * Sets the number of threads that open and search the databases. Must be called before the searches start.
+	 *
+	 * @param threadCount number of threads, default is 8
+	 * @return this instance
+	 */
+	public NotesMultiDatabaseSearch setThreadCount(int threadCount) {
+		if (threadCount<=0)
+			throw new IllegalArgumentException("Thread count must be greater than 0: "+threadCount);
+		checkNotStarted();
+		m_threadCount = threadCount;
+		return this;
+	}
+
+	/**
+	 * Sets the maximum number of searches that run at the same time on one server.
+	 * Must be called before the searches start.
+	 *
+	 * @param maxSearches maximum number of searches, default is 4
+	 * @return this instance
+	 */
+	public NotesMultiDatabaseSearch setMaxConcurrentSearchesPerServer(int maxSearches) {
+		if (maxSearches<=0)
+			throw new IllegalArgumentException("Max concurrent searches must be greater than 0: "+maxSearches);
+		checkNotStarted();
+		m_maxConcurrentSearchesPerServer = maxSearches;
+		return this;
+	}
+
+	/**
+	 * Sets the maximum number of search results read ahead. Must be called before the searches start.
+	 *
+	 * @param queueSize queue size, default is 1000
+	 * @return this instance
+	 */
+	public NotesMultiDatabaseSearch setQueueSize(int queueSize) {
+		if (queueSize<=0)
+			throw new IllegalArgumentException("Queue size must be greater than 0: "+queueSize);
+		checkNotStarted();
+		m_queueSize = queueSize;
+		return this;
+	}
+
+	/**
+	 * Sets whether an error opening or searching a single database stops all searches.
+	 * Must be called before the searches start.
+	 *
+	 * @param stopOnError true to stop and throw the error in the iterator, false to only report it in the {@link DatabaseSearchStatistics} (default)
+	 * @return this instance
+	 */
+	public NotesMultiDatabaseSearch setStopOnError(boolean stopOnError) {
+		checkNotStarted();
+		m_stopOnError = stopOnError;
+		return this;
+	}
+
+	/**
+	 * Sets the maximum duration of all searches, measured from the first call to {@link #hasNext()}.
+	 * When the time is up, the searches are stopped and the iterator throws a {@link NotesError}.
+	 * Must be called before the searches start.
+	 *
+	 * @param timeout timeout, 0 for no timeout (default)
+	 * @param unit time unit
+	 * @return this instance
+	 */
+	public NotesMultiDatabaseSearch setTimeout(long timeout, TimeUnit unit) {
+		if (timeout<0)
+			throw new IllegalArgumentException("Timeout cannot be negative: "+timeout);
+		checkNotStarted();
+		m_timeoutNanos = unit.toNanos(timeout);
+		return this;
+	}
+
+	/**
+	 * Sets a token to cancel the searches from another thread. When the token gets cancelled,
+	 * the searches are stopped and the iterator throws a {@link java.util.concurrent.CancellationException}.
+	 * Must be called before the searches start.
+	 *
+	 * @param token token or null
+	 * @return this instance
+	 */
+	public NotesMultiDatabaseSearch setCancellationToken(CancellationToken token) {
+		checkNotStarted();
+		m_cancellationToken = token;
+		return this;
+	}
+
+	private void checkNotStarted() {
+		if (m_queue!=null)
+			throw new IllegalStateException("Search has already been started");
+	}
+
+	/**
+	 * Returns the statistics of all databases that have been searched so far
+	 *
+	 * @return statistics in the order in which the searches have completed
+	 */
+	public List<DatabaseSearchStatistics> getDatabaseStatistics() {
+		synchronized (m_statistics) {
+			return new ArrayList<DatabaseSearchStatistics>(m_statistics);
+		}
+	}
+
+	/**
+	 * Returns a {@link Spliterator} for this iterator
+	 *
+	 * @return spliterator
+	 */
+	public Spliterator<DatabaseSearchResult> spliterator() {
+		return Spliterators.spliteratorUnknownSize(this, Spliterator.NONNULL);
+	}
+
+	/**
+	 * Returns a sequential {@link Stream} for this iterator. Closing the stream
+	 * closes this iterator.
+	 *
+	 * @return stream
+	 */
+	public Stream<DatabaseSearchResult> stream() {
+		return StreamSupport.stream(spliterator(), false).onClose(new Runnable() {
+
+			@Override
+			public void run() {
+				close();
+			}
+		});
+	}
+
+	@Override
+	public boolean hasNext() {
+		if (m_cancellationToken!=null && m_cancellationToken.isCancelled()) {
+			close();
+			m_cancellationToken.throwIfCancelled();
+		}
+		if (m_done) {
+			return false;
+		}
+		if (m_currBatch!=null && m_currBatchIdx < m_currBatch.size()) {
+			return true;
+		}
+		if (m_closed) {
+			throw new IllegalStateException("Iterator has been closed");
+		}
+
+		startSearches();
+
+		while (true) {
+			DatabaseSearchResult result;
+			try {
+				result = m_queue.poll(POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				close();
+				throw new NotesError(0, "Database search has been interrupted", e);
+			}
+
+			if (result==null) {
+				if (m_cancellationToken!=null && m_cancellationToken.isCancelled()) {
+					close();
+					m_cancellationToken.throwIfCancelled();
+				}
+				if (m_timeoutNanos>0 && System.nanoTime() > m_deadlineNanos) {
+					close();
+					throw createTimeoutError();
+				}
+				continue;
+			}
+
+			//take all results that are available to reduce the hand-over overhead
+			List<DatabaseSearchResult> batch = new ArrayList<DatabaseSearchResult>(m_queue.size()+1);
+			batch.add(result);
+			m_queue.drainTo(batch);
+
+			int endIdx = batch.indexOf(END_OF_DATA);
+			if (endIdx!=-1) {
+				batch = batch.subList(0, endIdx);
+				m_done = true;
+				if (m_executor!=null) {
+					m_executor.shutdown();
+				}
+				rethrowError();
+				if (batch.isEmpty()) {
+					m_currBatch = null;
+					return false;
+				}
+			}
+			m_currBatch = batch;
+			m_currBatchIdx = 0;
+			return true;
+		}
+	}
+
+	@Override
+	public DatabaseSearchResult next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		return m_currBatch.get(m_currBatchIdx++);
+	}
+
+	/**
+	 * Stops all searches. Results already read are discarded.
+	 */
+	@Override
+	public void close() {
+		m_closed = true;
+		//unblock the search threads if the queue is full
+		if (m_queue!=null) {
+			m_queue.clear();
+		}
+		if (m_executor!=null) {
+			m_executor.shutdown();
+		}
+	}
+
+	private NotesError createTimeoutError() {
+		return new NotesError(0, "Database searches did not complete within "+TimeUnit.NANOSECONDS.toMillis(m_timeoutNanos)+"ms");
+	}
+
+	private void rethrowError() {
+		Throwable error = m_error.get();
+		if (error!=null) {
+			if (error instanceof RuntimeException) {
+				throw (RuntimeException) error;
+			}
+			else if (error instanceof Error) {
+				throw (Error) error;
+			}
+			else {
+				throw new NotesError(0, "Error searching databases", error);
+			}
+		}
+	}
+
+	private void startSearches() {
+		if (m_queue!=null) {
+			return;
+		}
+
+		m_queue = new ArrayBlockingQueue<DatabaseSearchResult>(m_queueSize);
+		m_deadlineNanos = System.nanoTime() + m_timeoutNanos;
+
+		if (m_databases.isEmpty()) {
+			m_queue.add(END_OF_DATA);
+			return;
+		}
+
+		final AtomicInteger threadIdx = new AtomicInteger();
+		//each pool thread is initialized for Notes once and terminated when the pool shuts down
+		ThreadFactory threadFactory = new ThreadFactory() {
+
+			@Override
+			public Thread newThread(final Runnable r) {
+				Thread thread = new Thread(new Runnable() {
+
+					@Override
+					public void run() {
+						NotesInitUtils.notesInitThread();
+						try {
+							r.run();
+						}
+						finally {
+							NotesInitUtils.notesTermThread();
+						}
+					}
+				}, "Domino JNA multi database search #"+threadIdx.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(m_threadCount, m_threadCount, 1, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), threadFactory);
+		executor.allowCoreThreadTimeOut(true);
+		m_executor = executor;
+
+		final long startNanos = System.nanoTime();
+		synchronized (m_pendingByServer) {
+			for (String[] currDb : m_databases) {
+				String serverKey = toServerKey(currDb[0]);
+				Deque<String[]> pending = m_pendingByServer.get(serverKey);
+				if (pending==null) {
+					pending = new ArrayDeque<String[]>();
+					m_pendingByServer.put(serverKey, pending);
+					m_runningByServer.put(serverKey, new AtomicInteger());
+				}
+				pending.add(currDb);
+			}
+			m_remainingDatabases = m_databases.size();
+			dispatch(startNanos);
+		}
+	}
+
+	private static String toServerKey(String server) {
+		return StringUtil.isEmpty(server) ? "" : NotesNamingUtils.toCanonicalName(server).toLowerCase();
+	}
+
+	/**
+	 * Submits the pending database searches of all servers that are below their concurrency limit,
+	 * must be called while holding the lock on m_pendingByServer
+	 *
+	 * @param startNanos start time of the fan-out
+	 */
+	private void dispatch(final long startNanos) {
+		for (Entry<String,Deque<String[]>> currEntry : m_pendingByServer.entrySet()) {
+			final String serverKey = currEntry.getKey();
+			Deque<String[]> pending = currEntry.getValue();
+			AtomicInteger running = m_runningByServer.get(serverKey);
+
+			while (!pending.isEmpty() && running.get() < m_maxConcurrentSearchesPerServer) {
+				final String[] db = pending.poll();
+				running.incrementAndGet();
+
+				try {
+					m_executor.execute(new Runnable() {
+
+						@Override
+						public void run() {
+							try {
+								searchDatabase(db[0], db[1], startNanos);
+							}
+							finally {
+								databaseDone(serverKey, startNanos);
+							}
+						}
+					});
+				}
+				catch (RejectedExecutionException e) {
+					//iterator has been closed in the meantime
+					running.decrementAndGet();
+					return;
+				}
+			}
+		}
+	}
+
+	private void databaseDone(String serverKey, long startNanos) {
+		boolean allDone;
+		synchronized (m_pendingByServer) {
+			m_runningByServer.get(serverKey).decrementAndGet();
+			m_remainingDatabases--;
+			allDone = m_remainingDatabases==0;
+			if (!allDone && !isStopRequested()) {
+				dispatch(startNanos);
+			}
+		}
+		if (allDone || isStopRequested()) {
+			if (!m_closed) {
+				enqueue(END_OF_DATA);
+			}
+		}
+	}
+
+	/**
+	 * Opens and searches one database, runs in a pool thread
+	 *
+	 * @param server server
+	 * @param filePath file path
+	 * @param startNanos start time of the fan-out
+	 */
+	private void searchDatabase(final String server, final String filePath, long startNanos) {
+		if (isStopRequested()) {
+			return;
+		}
+
+		final long t0 = System.nanoTime();
+		final long[] t1 = new long[1];
+		final int[] resultCount = new int[1];
+		NotesTimeDate endDate = null;
+		Throwable error = null;
+		try {
+			endDate = NotesGC.runWithAutoGC(new Callable<NotesTimeDate>() {
+
+				@Override
+				public NotesTimeDate call() throws Exception {
+					NotesDatabase db = new NotesDatabase(server, filePath, m_contextUser);
+					t1[0] = System.nanoTime();
+
+					return NotesSearch.search(db, null, m_formula, m_columnFormulas, m_viewTitle,
+							m_searchFlags, m_noteClasses, m_since, new SearchCallback() {
+
+						@Override
+						public Action noteFound(NotesDatabase parentDb, ISearchMatch searchMatch, IItemTableData summaryBufferData) {
+							return enqueue(SearchResult.Type.NoteFound, searchMatch, summaryBufferData);
+						}
+
+						@Override
+						public Action noteFoundNotMatchingFormula(NotesDatabase parentDb, ISearchMatch searchMatch,
+								IItemTableData summaryBufferData) {
+							return enqueue(SearchResult.Type.NoteFoundNotMatchingFormula, searchMatch, summaryBufferData);
+						}
+
+						@Override
+						public Action deletionStubFound(NotesDatabase parentDb, ISearchMatch searchMatch,
+								IItemTableData summaryBufferData) {
+							return enqueue(SearchResult.Type.DeletionStubFound, searchMatch, summaryBufferData);
+						}
+
+						private Action enqueue(SearchResult.Type type, ISearchMatch searchMatch, IItemTableData summaryBufferData) {
+							if (isStopRequested()) {
+								return Action.Stop;
+							}
+							//the summary buffer is only valid during the callback
+							IItemTableData summaryCopy = summaryBufferData==null ? null : NotesLookupResultBufferDecoder.copyItemTable(summaryBufferData);
+							DatabaseSearchResult result = new DatabaseSearchResult(server, filePath, new SearchResult(type, searchMatch, summaryCopy));
+							if (NotesMultiDatabaseSearch.this.enqueue(result)) {
+								resultCount[0]++;
+								return Action.Continue;
+							}
+							return Action.Stop;
+						}
+					});
+				}
+			});
+		}
+		catch (Throwable t) {
+			error = t;
+			if (m_stopOnError) {
+				m_error.compareAndSet(null, t);
+			}
+		}
+		long t2 = System.nanoTime();
+		if (t1[0]==0) {
+			//opening the database failed
+			t1[0] = t2;
+		}
+
+		DatabaseSearchStatistics stats = new DatabaseSearchStatistics(server, filePath,
+				TimeUnit.NANOSECONDS.toMillis(t0 - startNanos), TimeUnit.NANOSECONDS.toMillis(t1[0] - t0),
+				TimeUnit.NANOSECONDS.toMillis(t2 - t1[0]), resultCount[0], endDate, error);
+		synchronized (m_statistics) {
+			m_statistics.add(stats);
+		}
+	}
+
+	/**
+	 * Checks whether the searches should be stopped because the iterator has been closed,
+	 * the cancellation token has been cancelled, the timeout has been reached or a search
+	 * failed with {@link #setStopOnError(boolean)} set to true
+	 *
+	 * @return true to stop
+	 */
+	private boolean isStopRequested() {
+		if (m_closed) {
+			return true;
+		}
+		if (m_error.get()!=null) {
+			return true;
+		}
+		if (m_cancellationToken!=null && m_cancellationToken.isCancelled()) {
+			return true;
+		}
+		if (m_timeoutNanos>0 && System.nanoTime() > m_deadlineNanos) {
+			m_error.compareAndSet(null, createTimeoutError());
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Adds a search result to the queue, blocking while the queue is full
+	 *
+	 * @param result search result
+	 * @return false if the searches should be stopped
+	 */
+	private boolean enqueue(DatabaseSearchResult result) {
+		if (m_queue.offer(result)) {
+			return true;
+		}
+		while (!isStopRequested() || result==END_OF_DATA && !m_closed) {
+			try {
+				if (m_queue.offer(result, POLL_INTERVAL_MS, TimeUnit.MILLISECONDS)) {
+					return true;
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				m_closed = true;
+				return false;
+			}
+		}
+		return false;
+	}
+}
@@ -59,6 +59,7 @@ import com.mindoo.domino.jna.internal.DisposableMemory;
 import com.mindoo.domino.jna.internal.ItemDecoder;
 import com.mindoo.domino.jna.internal.Mem32;
 import com.mindoo.domino.jna.internal.Mem64;
+import com.mindoo.domino.jna.internal.NativeMemoryArena;
 import com.mindoo.domino.jna.internal.NotesCallbacks;
 import com.mindoo.domino.jna.internal.NotesConstants;
 import com.mindoo.domino.jna.internal.NotesNativeAPI;
@@ -98,6 +99,7 @@ import com.mindoo.domino.jna.utils.Loop;
 import com.mindoo.domino.jna.utils.NotesDateTimeUtils;
 import com.mindoo.domino.jna.utils.NotesNamingUtils;
 import com.mindoo.domino.jna.utils.NotesStringUtils;
+import com.mindoo.domino.jna.utils.NotesStringUtils.LineBreakConversion;
 import com.mindoo.domino.jna.utils.PlatformUtils;
 import com.mindoo.domino.jna.utils.Ref;
 import com.mindoo.domino.jna.utils.StringUtil;
@@ -195,6 +197,10 @@ public class NotesNote implements IRecyclableNotesObject {
 					m_parentDb = (NotesDatabase) NotesGC.__b32_checkValidObjectHandle(NotesDatabase.class, (int) dbHandle);
 				}
 			} catch (NotesError e) {
+				m_parentDb = null;
+			}
+			if (m_parentDb==null) {
+				//database not registered in the current GC context or handle checks skipped in trusted mode
 				m_parentDb = LegacyAPIUtils.toNotesDatabase(legacyDb);
 			}
 			return;
@@ -3666,6 +3672,8 @@ public class NotesNote implements IRecyclableNotesObject {
 	 * <li>{@link List} of date range types for multiple date ranges (max. 65535 entries)</li>
 	 * <li>{@link NotesUniversalNoteId} for $REF like items</li>
 	 * </ul>
+	 * If a {@link NativeMemoryArena} is open in the current thread, temporary LMBCS
+	 * strings are allocated from the arena.
 	 * 
 	 * @param itemName item name
 	 * @param flagsOrig item flags
@@ -3674,6 +3682,22 @@ public class NotesNote implements IRecyclableNotesObject {
 	 */
 	public NotesItem appendItemValue(String itemName, EnumSet<ItemType> flagsOrig, Object value) {
 		checkHandle();
+		
+		if (NativeMemoryArena.current()==null) {
+			return appendItemValue(itemName, flagsOrig, value, null);
+		}
+		
+		//release the temporary strings when the item has been written
+		NativeMemoryArena arena = NativeMemoryArena.open();
+		try {
+			return appendItemValue(itemName, flagsOrig, value, arena);
+		}
+		finally {
+			arena.close();
+		}
+	}
+	
+	private NotesItem appendItemValue(String itemName, EnumSet<ItemType> flagsOrig, Object value, NativeMemoryArena arena) {
 
 		//remove our own pseudo flags:
 		boolean keepLineBreaks = flagsOrig.contains(ItemType.KEEPLINEBREAKS);
@@ -3687,7 +3711,11 @@ public class NotesNote implements IRecyclableNotesObject {
 		
 		if (value instanceof String) {
 			Memory strValueMem;
-			if (keepLineBreaks) {
+			if (arena!=null) {
+				strValueMem = NotesStringUtils.toLMBCS((String)value, false,
+						keepLineBreaks ? LineBreakConversion.LINEFEED : LineBreakConversion.NULL, arena);
+			}
+			else if (keepLineBreaks) {
 				strValueMem = NotesStringUtils.toLMBCS((String)value, false, false);
 			}
 			else {
@@ -3707,7 +3735,8 @@ public class NotesNote implements IRecyclableNotesObject {
 					valuePtr.setShort(0, (short) NotesItem.TYPE_TEXT);
 					valuePtr = valuePtr.share(2);
 					if (strValueMem!=null) {
-						valuePtr.write(0, strValueMem.getByteArray(0, (int) strValueMem.size()), 0, (int) strValueMem.size());
+						//native copy without a temporary byte array
+						valuePtr.getByteBuffer(0, strValueMem.size()).put(strValueMem.getByteBuffer(0, strValueMem.size()));
 					}
 					NotesItem item = appendItemValue(itemName, flags, NotesItem.TYPE_TEXT, (int) rethItem.getValue(), valueSize);
 					return item;
@@ -3727,7 +3756,8 @@ public class NotesNote implements IRecyclableNotesObject {
 					valuePtr.setShort(0, (short) NotesItem.TYPE_TEXT);
 					valuePtr = valuePtr.share(2);
 					if (strValueMem!=null) {
-						valuePtr.write(0, strValueMem.getByteArray(0, (int) strValueMem.size()), 0, (int) strValueMem.size());
+						//native copy without a temporary byte array
+						valuePtr.getByteBuffer(0, strValueMem.size()).put(strValueMem.getByteBuffer(0, strValueMem.size()));
 					}
 					NotesItem item = appendItemValue(itemName, flags, NotesItem.TYPE_TEXT, rethItem.getValue(), valueSize);
 					return item;
@@ -3882,7 +3912,8 @@ public class NotesNote implements IRecyclableNotesObject {
 				
 				for (int i=0; i<strList.size(); i++) {
 					String currStr = strList.get(i);
-					Memory currStrMem = NotesStringUtils.toLMBCS(currStr, false);
+					Memory currStrMem = arena!=null ? NotesStringUtils.toLMBCS(currStr, false, LineBreakConversion.NULL, arena) :
+						NotesStringUtils.toLMBCS(currStr, false);
 
 					result = NotesNativeAPI64.get().ListAddEntry(hList, 1, retListSize, (short) (i & 0xffff), currStrMem,
 							(short) (currStrMem==null ? 0 : (currStrMem.size() & 0xffff)));
@@ -3916,7 +3947,8 @@ public class NotesNote implements IRecyclableNotesObject {
 				
 				for (int i=0; i<strList.size(); i++) {
 					String currStr = strList.get(i);
-					Memory currStrMem = NotesStringUtils.toLMBCS(currStr, false);
+					Memory currStrMem = arena!=null ? NotesStringUtils.toLMBCS(currStr, false, LineBreakConversion.NULL, arena) :
+						NotesStringUtils.toLMBCS(currStr, false);
 
 					result = NotesNativeAPI32.get().ListAddEntry(hList, 1, retListSize, (short) (i & 0xffff), currStrMem,
 							(short) (currStrMem==null ? 0 : (currStrMem.size() & 0xffff)));
@@ -3,6 +3,7 @@ package com.mindoo.domino.jna;
 import java.security.AccessController;
 import java.security.PrivilegedActionException;
 import java.security.PrivilegedExceptionAction;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.EnumSet;
 import java.util.Iterator;
@@ -411,7 +412,6 @@ public class NotesSearch {
 						
 						if (isMatch && useSearchFlags.contains(Search.SUMMARY)) {
 							if (summaryBufferPtr!=null && Pointer.nativeValue(summaryBufferPtr)!=0) {
-								boolean convertStringsLazily = true;
 								boolean convertNotesTimeDateToCalendar = false;
 								
 								if (useSearchFlags.contains(Search.NOITEMNAMES)) {
@@ -420,11 +420,10 @@ public class NotesSearch {
 									//in the column order instead of an ITEM_TABLE with columnname/columnvalue
 									//pairs
 									//create an ItemTableData by adding the column names to make this invisible to callers
-									itemTableData = NotesLookupResultBufferDecoder.decodeItemValueTableWithColumnNames(columnItemNames, summaryBufferPtr, convertStringsLazily, convertNotesTimeDateToCalendar, false);
+									itemTableData = NotesLookupResultBufferDecoder.createItemValueTableViewWithColumnNames(columnItemNames, summaryBufferPtr, convertNotesTimeDateToCalendar);
 								}
 								else {
-									itemTableData = NotesLookupResultBufferDecoder.decodeItemTable(summaryBufferPtr,
-											convertStringsLazily, convertNotesTimeDateToCalendar, false);
+									itemTableData = NotesLookupResultBufferDecoder.createItemTableView(summaryBufferPtr, convertNotesTimeDateToCalendar);
 								}
 							}
 						}
@@ -464,7 +463,7 @@ public class NotesSearch {
 		
 			long hFormula = 0;
 			if (!StringUtil.isEmpty(formula)) {
-				hFormula = ViewFormulaCompiler.b64_compile(formula, columnFormulasFixedOrder);
+				hFormula = ViewFormulaCompiler.b64_compileCached(formula, columnFormulasFixedOrder);
 			}
 
 			NotesIDTable tableWithHighOrderBit = null;
@@ -613,7 +612,6 @@ public class NotesSearch {
 							
 							if (isMatch && useSearchFlags.contains(Search.SUMMARY)) {
 								if (summaryBufferPtr!=null && Pointer.nativeValue(summaryBufferPtr)!=0) {
-									boolean convertStringsLazily = true;
 									boolean convertNotesTimeDateToCalendar = false;
 									
 									if (useSearchFlags.contains(Search.NOITEMNAMES)) {
@@ -622,11 +620,10 @@ public class NotesSearch {
 										//in the column order instead of an ITEM_TABLE with columnname/columnvalue
 										//pairs
 										//create an ItemTableData by adding the column names to make this invisible to callers
-										itemTableData = NotesLookupResultBufferDecoder.decodeItemValueTableWithColumnNames(columnItemNames, summaryBufferPtr, convertStringsLazily, convertNotesTimeDateToCalendar, false);
+										itemTableData = NotesLookupResultBufferDecoder.createItemValueTableViewWithColumnNames(columnItemNames, summaryBufferPtr, convertNotesTimeDateToCalendar);
 									}
 									else {
-										itemTableData = NotesLookupResultBufferDecoder.decodeItemTable(summaryBufferPtr, 
-												convertStringsLazily, convertNotesTimeDateToCalendar, false);
+										itemTableData = NotesLookupResultBufferDecoder.createItemTableView(summaryBufferPtr, convertNotesTimeDateToCalendar);
 									}
 								}
 							}
@@ -678,7 +675,6 @@ public class NotesSearch {
 							
 							if (isMatch && useSearchFlags.contains(Search.SUMMARY)) {
 								if (summaryBufferPtr!=null && Pointer.nativeValue(summaryBufferPtr)!=0) {
-									boolean convertStringsLazily = true;
 									boolean convertNotesTimeDateToCalendar = false;
 									
 									if (useSearchFlags.contains(Search.NOITEMNAMES)) {
@@ -687,11 +683,10 @@ public class NotesSearch {
 										//in the column order instead of an ITEM_TABLE with columnname/columnvalue
 										//pairs
 										//create an ItemTableData by adding the column names to make this invisible to callers
-										itemTableData = NotesLookupResultBufferDecoder.decodeItemValueTableWithColumnNames(columnItemNames, summaryBufferPtr, convertStringsLazily, convertNotesTimeDateToCalendar, false);
+										itemTableData = NotesLookupResultBufferDecoder.createItemValueTableViewWithColumnNames(columnItemNames, summaryBufferPtr, convertNotesTimeDateToCalendar);
 									}
 									else {
-										itemTableData = NotesLookupResultBufferDecoder.decodeItemTable(summaryBufferPtr,
-												convertStringsLazily, convertNotesTimeDateToCalendar, false);
+										itemTableData = NotesLookupResultBufferDecoder.createItemTableView(summaryBufferPtr, convertNotesTimeDateToCalendar);
 									}
 								}
 							}
@@ -733,7 +728,7 @@ public class NotesSearch {
 			//formulaName only required of formula is used for collection columns
 			int hFormula = 0;
 			if (!StringUtil.isEmpty(formula)) {
-				hFormula = ViewFormulaCompiler.b32_compile(formula, columnFormulasFixedOrder);
+				hFormula = ViewFormulaCompiler.b32_compileCached(formula, columnFormulasFixedOrder);
 			}
 			
 			NotesIDTable tableWithHighOrderBit = null;
@@ -888,7 +883,7 @@ public class NotesSearch {
 		 * 
 		 * @param parentDb parent database
 		 * @param searchMatch data about search match
-		 * @param summaryBufferData gives access to the note's summary buffer if {@link Search#SUMMARY} was specified; otherwise this value is null
+		 * @param summaryBufferData gives access to the note's summary buffer if {@link Search#SUMMARY} was specified (an {@link ISummaryBufferAccess} that is only valid during the callback); otherwise this value is null
 		 * @return either {@link Action#Continue} to go on searching or {@link Action#Stop} to stop
 		 */
 		public abstract Action noteFound(NotesDatabase parentDb, ISearchMatch searchMatch, IItemTableData summaryBufferData);
@@ -899,7 +894,7 @@ public class NotesSearch {
 		 * 
 		 * @param parentDb parent database
 		 * @param searchMatch data about search match
-		 * @param summaryBufferData gives access to the note's summary buffer if {@link Search#SUMMARY} was specified; otherwise this value is null
+		 * @param summaryBufferData gives access to the note's summary buffer if {@link Search#SUMMARY} was specified (an {@link ISummaryBufferAccess} that is only valid during the callback); otherwise this value is null
 		 * @return either {@link Action#Continue} to go on searching or {@link Action#Stop} to stop
 		 */
 		public Action deletionStubFound(NotesDatabase parentDb, ISearchMatch searchMatch, IItemTableData summaryBufferData) {
@@ -912,7 +907,7 @@ public class NotesSearch {
 		 * 
 		 * @param parentDb parent database
 		 * @param searchMatch data about search match
-		 * @param summaryBufferData gives access to the note's summary buffer if {@link Search#SUMMARY} was specified; otherwise this value is null
+		 * @param summaryBufferData gives access to the note's summary buffer if {@link Search#SUMMARY} was specified (an {@link ISummaryBufferAccess} that is only valid during the callback); otherwise this value is null
 		 * @return either {@link Action#Continue} to go on searching or {@link Action#Stop} to stop
 		 */
 		public Action noteFoundNotMatchingFormula(NotesDatabase parentDb, ISearchMatch searchMatch, IItemTableData summaryBufferData) {
@@ -922,33 +917,93 @@ public class NotesSearch {
 	}
 	
 	/**
-	 * Interface to access the summary buffer, either item by item or to decode the whole buffer
+	 * Interface to access the summary buffer, either item by item or to decode the whole buffer.<br>
+	 * <br>
+	 * The {@link IItemTableData} passed to the {@link SearchCallback} implements this interface.
+	 * It only reads the item lengths upfront, locates items in the buffer on demand and decodes just
+	 * the values that are accessed. The buffer is only valid during the callback, use {@link #copy()}
+	 * to keep the data for later use.
 	 * 
 	 * @author Karsten Lehmann
 	 */
-	public static interface ISummaryBufferAccess {
+	public static interface ISummaryBufferAccess extends IItemTableData {
 		
-		public Iterator<String> getItemNames();
+		/**
+		 * Returns the data type of an item
+		 * 
+		 * @param itemName item name, case insensitive
+		 * @return type, e.g. {@link NotesItem#TYPE_TEXT}, or 0 if the item does not exist or is empty
+		 */
+		public int getItemType(String itemName);
 		
-		public Object getItemValue(String itemName);
+		/**
+		 * Decodes all item names and values
+		 * 
+		 * @return this object
+		 */
+		public IItemTableData decodeWholeBuffer();
 		
-		public int getItemType(String itemName);
+		/**
+		 * Creates a copy of the summary buffer that can be used after the search callback
+		 * has returned. Values that have not been decoded yet are still decoded on first access.
+		 * 
+		 * @return copy
+		 */
+		public ISummaryBufferAccess copy();
 		
-		public boolean hasItem(String itemName);
+		/**
+		 * Returns the value of an item
+		 * 
+		 * @param itemName item name, case insensitive
+		 * @return value or null if the item does not exist
+		 * @deprecated use {@link #get(String)}
+		 */
+		@Deprecated
+		public default Object getItemValue(String itemName) {
+			return get(itemName);
+		}
 		
-		public IItemTableData decodeWholeBuffer();
+		/**
+		 * Checks if an item exists
+		 * 
+		 * @param itemName item name, case insensitive
+		 * @return true if item exists
+		 * @deprecated use {@link #has(String)}
+		 */
+		@Deprecated
+		public default boolean hasItem(String itemName) {
+			return has(itemName);
+		}
+		
+		/**
+		 * Returns an iterator over the item names. {@link #getItemNames()} returns the names
+		 * as array since this interface extends {@link IItemTableData}.
+		 * 
+		 * @return item names
+		 * @deprecated use {@link #getItemNames()}
+		 */
+		@Deprecated
+		public default Iterator<String> getItemNamesIterator() {
+			return Arrays.asList(getItemNames()).iterator();
+		}
 		
-
 		/**
 		 * Frees the memory, if not already done
+		 * 
+		 * @deprecated internal method, no need to call this in client code
 		 */
+		@Deprecated
+		@Override
 		public void free();
 		
 		/**
 		 * Checks if this memory has already been freed
 		 * 
 		 * @return true if freed
+		 * @deprecated internal method, no need to call this in client code
 		 */
+		@Deprecated
+		@Override
 		public boolean isFreed();
 		
 	}
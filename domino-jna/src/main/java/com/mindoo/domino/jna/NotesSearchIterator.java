@@ -0,0 +1,546 @@
+package com.mindoo.domino.jna;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import com.mindoo.domino.jna.NotesSearch.ISearchMatch;
+import com.mindoo.domino.jna.NotesSearch.SearchCallback;
+import com.mindoo.domino.jna.constants.NoteClass;
+import com.mindoo.domino.jna.constants.Search;
+import com.mindoo.domino.jna.errors.NotesError;
+import com.mindoo.domino.jna.gc.NotesGC;
+import com.mindoo.domino.jna.internal.NotesLookupResultBufferDecoder;
+import com.mindoo.domino.jna.utils.CancellationToken;
+import com.mindoo.domino.jna.utils.NotesInitUtils;
+
+/**
+ * Pull-based alternative to {@link NotesSearch#search(NotesDatabase, NotesIDTable, String, Map, String, EnumSet, EnumSet, NotesTimeDate, SearchCallback)}
+ * that returns the search results as {@link Iterator} or {@link Stream}.<br>
+ * <br>
+ * The database search runs in a producer thread with its own database handle and hands
+ * over the results via a bounded queue, so the producer blocks when the caller cannot keep up
+ * and the memory usage does not depend on the size of the result set. The summary buffer of each
+ * result is copied with {@link NotesLookupResultBufferDecoder#copyItemTable(IItemTableData)}: the
+ * encoded item values are kept in one memory block and only decoded when they are read.<br>
+ * <br>
+ * The producer thread gets started on the first call to {@link #hasNext()} or {@link #next()}.
+ * By default, a daemon thread is created; use {@link #setThreadFactory(ThreadFactory)} to create it
+ * differently, e.g. to name or count the threads of a server application.<br>
+ * <br>
+ * Environments that do not allow to create threads can use {@link #setSynchronous(boolean)} to
+ * run the search on the caller's thread instead. In this mode, the whole search runs on the first call
+ * to {@link #hasNext()} and all results are kept in memory.<br>
+ * <br>
+ * The search can be limited in time via {@link #setTimeout(long, TimeUnit)} and
+ * stopped from another thread via {@link #setCancellationToken(CancellationToken)}.<br>
+ * <br>
+ * Please make sure to call {@link #close()} if the iteration is not completed, to stop the search.
+ *
+ * @author Karsten Lehmann
+ */
+public class NotesSearchIterator implements Iterator<NotesSearchIterator.SearchResult>, AutoCloseable {
+	private static final SearchResult END_OF_DATA = new SearchResult(SearchResult.Type.NoteFound, null, null);
+	private static final long POLL_INTERVAL_MS = 100;
+
+	private final NotesDatabase m_db;
+	private final int[] m_searchFilterIds;
+	private final String m_formula;
+	private final LinkedHashMap<String,String> m_columnFormulas;
+	private final String m_viewTitle;
+	private final EnumSet<Search> m_searchFlags;
+	private final EnumSet<NoteClass> m_noteClasses;
+	private final NotesTimeDate m_since;
+	private final BlockingQueue<SearchResult> m_queue;
+	private final AtomicReference<Throwable> m_error = new AtomicReference<Throwable>();
+
+	private ThreadFactory m_threadFactory;
+	private boolean m_synchronous;
+	private long m_timeoutNanos;
+	private CancellationToken m_cancellationToken;
+
+	private boolean m_started;
+	private Thread m_producerThread;
+	/** results of a synchronous search, null when searching in the producer thread */
+	private List<SearchResult> m_synchronousResults;
+	private long m_deadlineNanos;
+	private volatile boolean m_closed;
+	private volatile NotesTimeDate m_searchEndDate;
+	private List<SearchResult> m_currBatch;
+	private int m_currBatchIdx;
+	private boolean m_done;
+
+	/**
+	 * Search result with a copy of the summary buffer data
+	 */
+	public static class SearchResult {
+		public enum Type {
+			/** note matches the formula */
+			NoteFound,
+			/** note changed since the <code>since</code> date and does not match the formula anymore */
+			NoteFoundNotMatchingFormula,
+			/** deletion stub, only returned when a <code>since</code> date is specified */
+			DeletionStubFound
+		}
+
+		private final Type m_type;
+		private final ISearchMatch m_searchMatch;
+		private final IItemTableData m_summaryBufferData;
+
+		public SearchResult(Type type, ISearchMatch searchMatch, IItemTableData summaryBufferData) {
+			m_type = type;
+			m_searchMatch = searchMatch;
+			m_summaryBufferData = summaryBufferData;
+		}
+
+		/**
+		 * Returns the type of search result
+		 *
+		 * @return type
+		 */
+		public Type getType() {
+			return m_type;
+		}
+
+		/**
+		 * Returns data about the search match like note id, UNID and sequence number
+		 *
+		 * @return search match
+		 */
+		public ISearchMatch getSearchMatch() {
+			return m_searchMatch;
+		}
+
+		/**
+		 * Returns the copied summary buffer data
+		 *
+		 * @return data if {@link Search#SUMMARY} was specified, null otherwise
+		 */
+		public IItemTableData getSummaryBufferData() {
+			return m_summaryBufferData;
+		}
+
+		@Override
+		public String toString() {
+			return "SearchResult [type="+m_type+", noteid="+m_searchMatch.getNoteId()+", unid="+m_searchMatch.getUNID()+"]";
+		}
+	}
+
+	/**
+	 * Creates a new instance
+	 *
+	 * @param db database to search in
+	 * @param searchFilter optional search scope as {@link NotesIDTable} or null
+	 * @param formula formula or null
+	 * @param columnFormulas map with programmatic column names (key) and formulas (value) with keys sorted in column order or null to output all items; automatically uses {@link Search#NOITEMNAMES} and {@link Search#SUMMARY} search flag
+	 * @param viewTitle optional view title that will be returned for "@ ViewTitle" within the formula or null
+	 * @param searchFlags flags to control searching ({@link Search})
+	 * @param noteClasses noteclasses to search
+	 * @param since The date of the earliest modified note that is matched. The note's "Modified in this file" date is compared to this date. Specify NULL if you do not wish any filtering by date.
+	 * @param queueSize maximum number of search results read ahead
+	 */
+	public NotesSearchIterator(NotesDatabase db, NotesIDTable searchFilter, String formula, Map<String,String> columnFormulas,
+			String viewTitle, EnumSet<Search> searchFlags, EnumSet<NoteClass> noteClasses, NotesTimeDate since, int queueSize) {
+		if (queueSize<=0)
+			throw new IllegalArgumentException("Queue size must be greater than 0: "+queueSize);
+		if (db.isRecycled())
+			throw new NotesError(0, "Database already recycled");
+
+		m_db = db;
+		//ID tables are bound to the thread that allocated them, so the producer thread creates its own copy
+		m_searchFilterIds = searchFilter==null ? null : searchFilter.toArray();
+		m_formula = formula;
+		m_columnFormulas = columnFormulas==null ? null : new LinkedHashMap<String,String>(columnFormulas);
+		m_viewTitle = viewTitle;
+		m_searchFlags = searchFlags.clone();
+		m_noteClasses = noteClasses.clone();
+		m_since = since;
+		m_queue = new ArrayBlockingQueue<SearchResult>(queueSize);
+	}
+
+	/**
+	 * Sets the factory for the producer thread. Must be called before the iteration starts.
+	 *
+	 * @param threadFactory factory or null to create a daemon thread (default)
+	 */
+	public void setThreadFactory(ThreadFactory threadFactory) {
+		checkNotStarted();
+		m_threadFactory = threadFactory;
+	}
+
+	/**
+	 * Runs the search on the caller's thread instead of a producer thread. The search runs completely
+	 * on the first call to {@link #hasNext()} and all results are kept in memory until they are read, so this
+	 * mode is meant for small result sets or environments that do not allow to create threads.
+	 * The timeout and the cancellation token are checked between the search results.
+	 * Must be called before the iteration starts.
+	 *
+	 * @param synchronous true to search on the caller's thread, false to use a producer thread (default)
+	 */
+	public void setSynchronous(boolean synchronous) {
+		checkNotStarted();
+		m_synchronous = synchronous;
+	}
+
+	/**
+	 * Sets the maximum duration of the search, measured from the first call to {@link #hasNext()}.
+	 * When the time is up, the search is stopped and the iterator throws a {@link NotesError}.
+	 * Must be called before the iteration starts.
+	 *
+	 * @param timeout timeout, 0 for no timeout (default)
+	 * @param unit time unit
+	 */
+	public void setTimeout(long timeout, TimeUnit unit) {
+		if (timeout<0)
+			throw new IllegalArgumentException("Timeout cannot be negative: "+timeout);
+		checkNotStarted();
+		m_timeoutNanos = unit.toNanos(timeout);
+	}
+
+	/**
+	 * Sets a token to cancel the search from another thread. When the token gets cancelled,
+	 * the search is stopped and the iterator throws a {@link java.util.concurrent.CancellationException}.
+	 * Must be called before the iteration starts.
+	 *
+	 * @param token token or null
+	 */
+	public void setCancellationToken(CancellationToken token) {
+		checkNotStarted();
+		m_cancellationToken = token;
+	}
+
+	private void checkNotStarted() {
+		if (m_started)
+			throw new IllegalStateException("Search has already been started");
+	}
+
+	/**
+	 * Returns the ending (current) time/date of the search, which can be used as
+	 * <code>since</code> date of a subsequent search
+	 *
+	 * @return date or null if the search has not completed yet or has been stopped
+	 */
+	public NotesTimeDate getSearchEndDate() {
+		return m_searchEndDate;
+	}
+
+	/**
+	 * Returns a {@link Spliterator} for this iterator
+	 *
+	 * @return spliterator
+	 */
+	public Spliterator<SearchResult> spliterator() {
+		return Spliterators.spliteratorUnknownSize(this, Spliterator.NONNULL);
+	}
+
+	/**
+	 * Returns a sequential {@link Stream} for this iterator. Closing the stream
+	 * closes this iterator.
+	 *
+	 * @return stream
+	 */
+	public Stream<SearchResult> stream() {
+		return StreamSupport.stream(spliterator(), false).onClose(new Runnable() {
+
+			@Override
+			public void run() {
+				close();
+			}
+		});
+	}
+
+	@Override
+	public boolean hasNext() {
+		if (m_cancellationToken!=null && m_cancellationToken.isCancelled()) {
+			close();
+			m_cancellationToken.throwIfCancelled();
+		}
+		if (m_currBatch!=null && m_currBatchIdx < m_currBatch.size()) {
+			return true;
+		}
+		if (m_done) {
+			return false;
+		}
+		if (m_closed) {
+			throw new IllegalStateException("Iterator has been closed");
+		}
+
+		if (m_synchronous) {
+			return searchSynchronously();
+		}
+		startProducerThread();
+
+		while (true) {
+			SearchResult result;
+			try {
+				result = m_queue.poll(POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				close();
+				throw new NotesError(0, "Database search has been interrupted", e);
+			}
+
+			if (result==null) {
+				if (m_cancellationToken!=null && m_cancellationToken.isCancelled()) {
+					close();
+					m_cancellationToken.throwIfCancelled();
+				}
+				if (m_timeoutNanos>0 && System.nanoTime() > m_deadlineNanos) {
+					close();
+					throw createTimeoutError();
+				}
+				if (!m_producerThread.isAlive() && m_queue.isEmpty()) {
+					//should not happen, the producer always adds an end marker
+					m_done = true;
+					rethrowError();
+					return false;
+				}
+				continue;
+			}
+
+			//take all results that are available to reduce the hand-over overhead
+			List<SearchResult> batch = new ArrayList<SearchResult>(m_queue.size()+1);
+			batch.add(result);
+			m_queue.drainTo(batch);
+
+			int endIdx = batch.indexOf(END_OF_DATA);
+			if (endIdx!=-1) {
+				batch = batch.subList(0, endIdx);
+				m_done = true;
+				rethrowError();
+				if (batch.isEmpty()) {
+					m_currBatch = null;
+					return false;
+				}
+			}
+			m_currBatch = batch;
+			m_currBatchIdx = 0;
+			return true;
+		}
+	}
+
+	@Override
+	public SearchResult next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		return m_currBatch.get(m_currBatchIdx++);
+	}
+
+	/**
+	 * Stops the search. Results already read are discarded.
+	 */
+	@Override
+	public void close() {
+		m_closed = true;
+		//unblock the producer thread if the queue is full
+		m_queue.clear();
+	}
+
+	private NotesError createTimeoutError() {
+		return new NotesError(0, "Database search did not complete within "+TimeUnit.NANOSECONDS.toMillis(m_timeoutNanos)+"ms");
+	}
+
+	private void rethrowError() {
+		Throwable error = m_error.get();
+		if (error!=null) {
+			if (error instanceof RuntimeException) {
+				throw (RuntimeException) error;
+			}
+			else if (error instanceof Error) {
+				throw (Error) error;
+			}
+			else {
+				throw new NotesError(0, "Error searching database", error);
+			}
+		}
+	}
+
+	/**
+	 * Runs the whole search on the caller's thread and returns the results as a single batch
+	 *
+	 * @return true if there are results
+	 */
+	private boolean searchSynchronously() {
+		m_started = true;
+		m_deadlineNanos = System.nanoTime() + m_timeoutNanos;
+		m_synchronousResults = new ArrayList<SearchResult>();
+		m_done = true;
+
+		search(m_db);
+
+		if (m_cancellationToken!=null && m_cancellationToken.isCancelled()) {
+			close();
+			m_cancellationToken.throwIfCancelled();
+		}
+		rethrowError();
+
+		m_currBatch = m_synchronousResults;
+		m_currBatchIdx = 0;
+		m_synchronousResults = null;
+		return !m_currBatch.isEmpty();
+	}
+
+	private void startProducerThread() {
+		if (m_producerThread!=null) {
+			return;
+		}
+
+		m_started = true;
+		m_deadlineNanos = System.nanoTime() + m_timeoutNanos;
+
+		final String server = m_db.getServer();
+		final String relPath = m_db.getRelativeFilePath();
+		final String contextUser = m_db.getContextUser();
+
+		Runnable producer = new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					NotesInitUtils.notesInitThread();
+					try {
+						NotesGC.runWithAutoGC(new Callable<Object>() {
+
+							@Override
+							public Object call() throws Exception {
+								NotesDatabase db = new NotesDatabase(server, relPath, contextUser);
+								search(db);
+								return null;
+							}
+						});
+					}
+					finally {
+						NotesInitUtils.notesTermThread();
+					}
+				}
+				catch (Throwable t) {
+					m_error.compareAndSet(null, t);
+				}
+				finally {
+					if (!m_closed) {
+						enqueue(END_OF_DATA);
+					}
+				}
+			}
+
+		};
+
+		if (m_threadFactory!=null) {
+			m_producerThread = m_threadFactory.newThread(producer);
+		}
+		else {
+			m_producerThread = new Thread(producer, "Domino JNA search producer");
+			m_producerThread.setDaemon(true);
+		}
+		m_producerThread.start();
+	}
+
+	/**
+	 * Runs the search and hands over the results to the caller thread or collects them for a synchronous search
+	 *
+	 * @param db database opened in the producer thread or the database of this iterator for a synchronous search
+	 */
+	private void search(NotesDatabase db) {
+		NotesIDTable searchFilter = m_searchFilterIds==null ? null : new NotesIDTable(m_searchFilterIds);
+		try {
+			NotesTimeDate endDate = NotesSearch.search(db, searchFilter, m_formula, m_columnFormulas, m_viewTitle,
+					m_searchFlags, m_noteClasses, m_since, new SearchCallback() {
+
+				@Override
+				public Action noteFound(NotesDatabase parentDb, ISearchMatch searchMatch, IItemTableData summaryBufferData) {
+					return enqueue(SearchResult.Type.NoteFound, searchMatch, summaryBufferData);
+				}
+
+				@Override
+				public Action noteFoundNotMatchingFormula(NotesDatabase parentDb, ISearchMatch searchMatch,
+						IItemTableData summaryBufferData) {
+					return enqueue(SearchResult.Type.NoteFoundNotMatchingFormula, searchMatch, summaryBufferData);
+				}
+
+				@Override
+				public Action deletionStubFound(NotesDatabase parentDb, ISearchMatch searchMatch,
+						IItemTableData summaryBufferData) {
+					return enqueue(SearchResult.Type.DeletionStubFound, searchMatch, summaryBufferData);
+				}
+			});
+			m_searchEndDate = endDate;
+		}
+		finally {
+			if (searchFilter!=null) {
+				searchFilter.recycle();
+			}
+		}
+	}
+
+	private SearchCallback.Action enqueue(SearchResult.Type type, ISearchMatch searchMatch, IItemTableData summaryBufferData) {
+		if (isStopRequested()) {
+			return SearchCallback.Action.Stop;
+		}
+		//the summary buffer is only valid during the callback
+		IItemTableData summaryCopy = summaryBufferData==null ? null : NotesLookupResultBufferDecoder.copyItemTable(summaryBufferData);
+		if (m_synchronousResults!=null) {
+			m_synchronousResults.add(new SearchResult(type, searchMatch, summaryCopy));
+			return SearchCallback.Action.Continue;
+		}
+		return enqueue(new SearchResult(type, searchMatch, summaryCopy)) ? SearchCallback.Action.Continue : SearchCallback.Action.Stop;
+	}
+
+	/**
+	 * Checks whether the search should be stopped because the iterator has been closed,
+	 * the cancellation token has been cancelled or the timeout has been reached
+	 *
+	 * @return true to stop
+	 */
+	private boolean isStopRequested() {
+		if (m_closed) {
+			return true;
+		}
+		if (m_cancellationToken!=null && m_cancellationToken.isCancelled()) {
+			return true;
+		}
+		if (m_timeoutNanos>0 && System.nanoTime() > m_deadlineNanos) {
+			m_error.compareAndSet(null, createTimeoutError());
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Adds a search result to the queue, blocking while the queue is full
+	 *
+	 * @param result search result
+	 * @return false if the search should be stopped
+	 */
+	private boolean enqueue(SearchResult result) {
+		if (m_queue.offer(result)) {
+			return true;
+		}
+		while (!isStopRequested() || result==END_OF_DATA && !m_closed) {
+			try {
+				if (m_queue.offer(result, POLL_INTERVAL_MS, TimeUnit.MILLISECONDS)) {
+					return true;
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				m_closed = true;
+				return false;
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,65 @@
+package com.mindoo.domino.jna;
+
+import java.util.EnumSet;
+
+import com.mindoo.domino.jna.NotesCollection.ViewChangeCallback;
+
+/**
+ * Change event produced by {@link NotesCollection#readChangesSince(ViewChangeToken, EnumSet, ViewChangeCallback)}
+ *
+ * @author Karsten Lehmann
+ */
+public class NotesViewChange {
+
+	/** Type of change */
+	public static enum Type {
+		/** document has been added to the collection */
+		ADDED,
+		/** document is still in the collection, but its data has changed */
+		MODIFIED,
+		/** document has been removed from the collection */
+		REMOVED
+	}
+
+	private final Type m_type;
+	private final int m_noteId;
+	private final NotesViewEntryData m_entry;
+
+	NotesViewChange(Type type, int noteId, NotesViewEntryData entry) {
+		m_type = type;
+		m_noteId = noteId;
+		m_entry = entry;
+	}
+
+	/**
+	 * Returns the type of change
+	 *
+	 * @return type
+	 */
+	public Type getType() {
+		return m_type;
+	}
+
+	/**
+	 * Returns the note id of the document
+	 *
+	 * @return note id
+	 */
+	public int getNoteId() {
+		return m_noteId;
+	}
+
+	/**
+	 * Returns the current collection entry data
+	 *
+	 * @return entry or null for {@link Type#REMOVED}
+	 */
+	public NotesViewEntryData getEntry() {
+		return m_entry;
+	}
+
+	@Override
+	public String toString() {
+		return "NotesViewChange [type="+m_type+", noteId="+m_noteId+"]";
+	}
+}
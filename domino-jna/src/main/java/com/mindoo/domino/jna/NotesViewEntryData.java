@@ -1,5 +1,10 @@
 package com.mindoo.domino.jna;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.io.Serializable;
 import java.lang.ref.SoftReference;
 import java.util.ArrayList;
@@ -9,10 +14,12 @@ import java.util.Date;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.TreeMap;
 
 import com.mindoo.domino.jna.constants.ReadMask;
 import com.mindoo.domino.jna.internal.NotesConstants;
+import com.mindoo.domino.jna.internal.SummaryValueSerializer;
 import com.mindoo.domino.jna.utils.EmptyIterator;
 import com.mindoo.domino.jna.utils.LMBCSString;
 import com.mindoo.domino.jna.utils.NotesNamingUtils;
@@ -134,7 +141,203 @@ public class NotesViewEntryData implements INoteSummary {
 		m_convertedDataRef = data.m_convertedDataRef;
 		m_singleColumnLookupName = data.m_singleColumnLookupName;
 	}
-	
+
+	private static final int CACHEFIELD_POS = 1;
+	private static final int CACHEFIELD_POSSTR = 1 << 1;
+	private static final int CACHEFIELD_UNID = 1 << 2;
+	private static final int CACHEFIELD_UNIDASLONGS = 1 << 3;
+	private static final int CACHEFIELD_NOTECLASS = 1 << 4;
+	private static final int CACHEFIELD_SIBLINGCOUNT = 1 << 5;
+	private static final int CACHEFIELD_CHILDCOUNT = 1 << 6;
+	private static final int CACHEFIELD_DESCENDANTCOUNT = 1 << 7;
+	private static final int CACHEFIELD_ANYUNREAD = 1 << 8;
+	private static final int CACHEFIELD_INDENTLEVELS = 1 << 9;
+	private static final int CACHEFIELD_FTSCORE = 1 << 10;
+	private static final int CACHEFIELD_UNREAD = 1 << 11;
+	private static final int CACHEFIELD_COLUMNVALUES = 1 << 12;
+	private static final int CACHEFIELD_COLUMNVALUESIZES = 1 << 13;
+	private static final int CACHEFIELD_SUMMARYDATA = 1 << 14;
+	private static final int CACHEFIELD_SINGLECOLUMNLOOKUPNAME = 1 << 15;
+
+	/**
+	 * Method to write the cacheable data of this object in a compact binary format,
+	 * e.g. to store it outside of the Java heap
+	 *
+	 * @return data or null if the entry contains values that cannot be serialized
+	 */
+	byte[] getCacheableDataAsBytes() {
+		if (m_columnValues!=null) {
+			for (int i=0; i<m_columnValues.length; i++) {
+				if (!SummaryValueSerializer.isSupported(m_columnValues[i])) {
+					return null;
+				}
+			}
+		}
+		if (m_summaryData!=null) {
+			for (Object currVal : m_summaryData.values()) {
+				if (!SummaryValueSerializer.isSupported(currVal)) {
+					return null;
+				}
+			}
+		}
+
+		int fields = 0;
+		if (m_pos!=null) fields |= CACHEFIELD_POS;
+		if (m_posStr!=null) fields |= CACHEFIELD_POSSTR;
+		if (m_unid!=null) fields |= CACHEFIELD_UNID;
+		if (m_unidAsLongs!=null) fields |= CACHEFIELD_UNIDASLONGS;
+		if (m_noteClass!=null) fields |= CACHEFIELD_NOTECLASS;
+		if (m_siblingCount!=null) fields |= CACHEFIELD_SIBLINGCOUNT;
+		if (m_childCount!=null) fields |= CACHEFIELD_CHILDCOUNT;
+		if (m_descendantCount!=null) fields |= CACHEFIELD_DESCENDANTCOUNT;
+		if (m_isAnyUnread!=null) fields |= CACHEFIELD_ANYUNREAD;
+		if (m_indentLevels!=null) fields |= CACHEFIELD_INDENTLEVELS;
+		if (m_ftScore!=null) fields |= CACHEFIELD_FTSCORE;
+		if (m_isUnread!=null) fields |= CACHEFIELD_UNREAD;
+		if (m_columnValues!=null) fields |= CACHEFIELD_COLUMNVALUES;
+		if (m_columnValueSizes!=null) fields |= CACHEFIELD_COLUMNVALUESIZES;
+		if (m_summaryData!=null) fields |= CACHEFIELD_SUMMARYDATA;
+		if (m_singleColumnLookupName!=null) fields |= CACHEFIELD_SINGLECOLUMNLOOKUPNAME;
+
+		ByteArrayOutputStream bOut = new ByteArrayOutputStream(256);
+		DataOutputStream out = new DataOutputStream(bOut);
+		try {
+			out.writeInt(m_noteId.intValue());
+			out.writeInt(fields);
+
+			if (m_pos!=null) {
+				out.writeInt(m_pos.length);
+				for (int i=0; i<m_pos.length; i++) {
+					out.writeInt(m_pos[i]);
+				}
+			}
+			if (m_posStr!=null) {
+				SummaryValueSerializer.writeString(out, m_posStr);
+			}
+			if (m_unid!=null) {
+				SummaryValueSerializer.writeString(out, m_unid);
+			}
+			if (m_unidAsLongs!=null) {
+				out.writeLong(m_unidAsLongs[0]);
+				out.writeLong(m_unidAsLongs[1]);
+			}
+			if (m_noteClass!=null) out.writeInt(m_noteClass.intValue());
+			if (m_siblingCount!=null) out.writeInt(m_siblingCount.intValue());
+			if (m_childCount!=null) out.writeInt(m_childCount.intValue());
+			if (m_descendantCount!=null) out.writeInt(m_descendantCount.intValue());
+			if (m_isAnyUnread!=null) out.writeBoolean(m_isAnyUnread.booleanValue());
+			if (m_indentLevels!=null) out.writeInt(m_indentLevels.intValue());
+			if (m_ftScore!=null) out.writeInt(m_ftScore.intValue());
+			if (m_isUnread!=null) out.writeBoolean(m_isUnread.booleanValue());
+
+			if (m_columnValues!=null) {
+				out.writeInt(m_columnValues.length);
+				for (int i=0; i<m_columnValues.length; i++) {
+					SummaryValueSerializer.writeValue(out, m_columnValues[i]);
+				}
+			}
+			if (m_columnValueSizes!=null) {
+				out.writeInt(m_columnValueSizes.length);
+				for (int i=0; i<m_columnValueSizes.length; i++) {
+					out.writeInt(m_columnValueSizes[i]);
+				}
+			}
+			if (m_summaryData!=null) {
+				out.writeInt(m_summaryData.size());
+				for (Entry<String,Object> currEntry : m_summaryData.entrySet()) {
+					SummaryValueSerializer.writeString(out, currEntry.getKey());
+					SummaryValueSerializer.writeValue(out, currEntry.getValue());
+				}
+			}
+			if (m_singleColumnLookupName!=null) {
+				SummaryValueSerializer.writeString(out, m_singleColumnLookupName);
+			}
+			out.flush();
+		}
+		catch (IOException e) {
+			//should not happen, we write into memory
+			throw new IllegalStateException("Error serializing view entry data", e);
+		}
+		return bOut.toByteArray();
+	}
+
+	/**
+	 * Method to update the internal state from cache data written by {@link #getCacheableDataAsBytes()}
+	 *
+	 * @param data cache entry data
+	 */
+	void updateFromCacheBytes(byte[] data) {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+		try {
+			int noteId = in.readInt();
+			if (m_noteId.intValue()!=noteId)
+				throw new IllegalArgumentException("Note ids do not match: "+m_noteId+" != "+noteId);
+
+			int fields = in.readInt();
+
+			if ((fields & CACHEFIELD_POS)!=0) {
+				int[] pos = new int[in.readInt()];
+				for (int i=0; i<pos.length; i++) {
+					pos[i] = in.readInt();
+				}
+				m_pos = pos;
+			}
+			else {
+				m_pos = null;
+			}
+			m_posStr = (fields & CACHEFIELD_POSSTR)!=0 ? SummaryValueSerializer.readString(in) : null;
+			m_unid = (fields & CACHEFIELD_UNID)!=0 ? SummaryValueSerializer.readString(in) : null;
+			m_unidAsLongs = (fields & CACHEFIELD_UNIDASLONGS)!=0 ? new long[] {in.readLong(), in.readLong()} : null;
+			m_noteClass = (fields & CACHEFIELD_NOTECLASS)!=0 ? Integer.valueOf(in.readInt()) : null;
+			m_siblingCount = (fields & CACHEFIELD_SIBLINGCOUNT)!=0 ? Integer.valueOf(in.readInt()) : null;
+			m_childCount = (fields & CACHEFIELD_CHILDCOUNT)!=0 ? Integer.valueOf(in.readInt()) : null;
+			m_descendantCount = (fields & CACHEFIELD_DESCENDANTCOUNT)!=0 ? Integer.valueOf(in.readInt()) : null;
+			m_isAnyUnread = (fields & CACHEFIELD_ANYUNREAD)!=0 ? Boolean.valueOf(in.readBoolean()) : null;
+			m_indentLevels = (fields & CACHEFIELD_INDENTLEVELS)!=0 ? Integer.valueOf(in.readInt()) : null;
+			m_ftScore = (fields & CACHEFIELD_FTSCORE)!=0 ? Integer.valueOf(in.readInt()) : null;
+			m_isUnread = (fields & CACHEFIELD_UNREAD)!=0 ? Boolean.valueOf(in.readBoolean()) : null;
+
+			if ((fields & CACHEFIELD_COLUMNVALUES)!=0) {
+				Object[] columnValues = new Object[in.readInt()];
+				for (int i=0; i<columnValues.length; i++) {
+					columnValues[i] = SummaryValueSerializer.readValue(in);
+				}
+				m_columnValues = columnValues;
+			}
+			else {
+				m_columnValues = null;
+			}
+			if ((fields & CACHEFIELD_COLUMNVALUESIZES)!=0) {
+				int[] columnValueSizes = new int[in.readInt()];
+				for (int i=0; i<columnValueSizes.length; i++) {
+					columnValueSizes[i] = in.readInt();
+				}
+				m_columnValueSizes = columnValueSizes;
+			}
+			else {
+				m_columnValueSizes = null;
+			}
+			if ((fields & CACHEFIELD_SUMMARYDATA)!=0) {
+				int size = in.readInt();
+				Map<String,Object> summaryData = new TreeMap<String,Object>(String.CASE_INSENSITIVE_ORDER);
+				for (int i=0; i<size; i++) {
+					String key = SummaryValueSerializer.readString(in);
+					Object val = SummaryValueSerializer.readValue(in);
+					summaryData.put(key, val);
+				}
+				m_summaryData = summaryData;
+			}
+			else {
+				m_summaryData = null;
+			}
+			m_singleColumnLookupName = (fields & CACHEFIELD_SINGLECOLUMNLOOKUPNAME)!=0 ? SummaryValueSerializer.readString(in) : null;
+			m_convertedDataRef = null;
+		}
+		catch (IOException e) {
+			throw new IllegalStateException("Error deserializing view entry data", e);
+		}
+	}
+
 	/**
 	 * Returns the parent collection
 	 * 
@@ -143,7 +346,17 @@ public class NotesViewEntryData implements INoteSummary {
 	public NotesCollection getParent() {
 		return m_parentCollection;
 	}
-	
+
+	/**
+	 * Changes the parent collection, e.g. when the entry has been read in another
+	 * thread via a different handle of the same collection
+	 *
+	 * @param parentCollection new parent collection
+	 */
+	void setParent(NotesCollection parentCollection) {
+		m_parentCollection = parentCollection;
+	}
+
 	/**
 	 * Method to check whether an entry is a conflict document. Can only returns a true value
 	 * if {@link ReadMask#SUMMARYVALUES} or {@link ReadMask#SUMMARY} is used for the lookup.
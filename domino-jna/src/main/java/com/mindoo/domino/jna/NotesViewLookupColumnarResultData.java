@@ -0,0 +1,1054 @@
+package com.mindoo.domino.jna;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+
+import com.mindoo.domino.jna.constants.ReadMask;
+import com.mindoo.domino.jna.internal.NotesConstants;
+import com.mindoo.domino.jna.utils.LMBCSString;
+import com.mindoo.domino.jna.utils.NotesStringUtils;
+
+/**
+ * Columnar variant of {@link NotesViewLookupResultData} produced by
+ * {@link NotesCollection#readEntriesExtColumnar(NotesCollectionPosition, EnumSet, int, EnumSet, int, EnumSet, NotesTimeDate, NotesIDTable, Integer)}.<br>
+ * <br>
+ * Instead of creating one {@link NotesViewEntryData} object, one column value array and one position
+ * array per entry, the whole NIFReadEntries buffer is copied into a single byte array with one native
+ * call and decoded into primitive arrays per column (<code>double</code> values for numbers,
+ * <code>long</code> values for TIMEDATE innards and offsets into the byte array for LMBCS text and lists).<br>
+ * <br>
+ * Use {@link #cursor()} to get a flyweight {@link Cursor} that moves over the entries without allocating
+ * objects. Text values are only converted to Java Strings when requested; pure ASCII text is converted
+ * without calling the C API.<br>
+ * <br>
+ * {@link #getEntries()} is still supported for compatibility and materializes the
+ * {@link NotesViewEntryData} objects on the first call.
+ *
+ * @author Karsten Lehmann
+ */
+public class NotesViewLookupColumnarResultData extends NotesViewLookupResultData {
+	private NotesCollection m_parentCollection;
+	private EnumSet<ReadMask> m_returnMask;
+	private String m_singleColumnLookupName;
+	private int m_rowCount;
+	private int m_columnCount;
+
+	//copy of the NIFReadEntries buffer, all offsets point into this array
+	private byte[] m_data;
+	private ByteBuffer m_dataBuf;
+
+	private int[] m_noteIds;
+	private long[] m_unids;
+	private short[] m_noteClasses;
+	private int[] m_siblingCounts;
+	private int[] m_childCounts;
+	private int[] m_descendantCounts;
+	private boolean[] m_anyUnread;
+	private short[] m_indentLevels;
+	private short[] m_ftScores;
+	private boolean[] m_unread;
+	private int[] m_positionOffsets;
+	private int[] m_positions;
+
+	//column data; the int/short arrays are stored column by column (index = column * rowCount + row)
+	private short[] m_valueTypes;
+	private int[] m_valueOffsets;
+	private int[] m_valueLengths;
+	//per column arrays, only allocated for columns that contain numbers/timedates
+	private double[][] m_numbers;
+	private long[][] m_timeDates;
+
+	private List<NotesViewEntryData> m_materializedEntries;
+
+	/**
+	 * Creates a new instance
+	 *
+	 * @param parentCollection parent collection
+	 * @param returnMask read mask used to fill the buffer
+	 * @param stats collection statistics
+	 * @param numEntriesSkipped number of skipped entries
+	 * @param numEntriesReturned number of returned entries
+	 * @param signalFlags signal flags indicating view index changes and other stuff
+	 * @param indexModifiedSequenceNo index modified sequence number
+	 * @param retDiffTime returned diff time
+	 * @param singleColumnLookupName for single column lookups, programmatic name of lookup column
+	 */
+	public NotesViewLookupColumnarResultData(NotesCollection parentCollection, EnumSet<ReadMask> returnMask,
+			NotesCollectionStats stats, int numEntriesSkipped, int numEntriesReturned, short signalFlags,
+			int indexModifiedSequenceNo, NotesTimeDate retDiffTime, String singleColumnLookupName) {
+		super(stats, null, numEntriesSkipped, numEntriesReturned, signalFlags, null, indexModifiedSequenceNo, retDiffTime);
+		m_parentCollection = parentCollection;
+		m_returnMask = returnMask;
+		m_singleColumnLookupName = singleColumnLookupName;
+	}
+
+	/**
+	 * Decodes the entries of a NIFReadEntries buffer that has been copied to a byte array
+	 *
+	 * @param data buffer content
+	 * @param startOffset offset of the first entry (e.g. to skip the collection statistics)
+	 * @param rowCount number of entries in the buffer
+	 */
+	public void decode(byte[] data, int startOffset, int rowCount) {
+		m_data = data;
+		m_dataBuf = ByteBuffer.wrap(data).order(ByteOrder.nativeOrder());
+		m_rowCount = rowCount;
+		m_materializedEntries = null;
+
+		if (m_returnMask.contains(ReadMask.SUMMARY)) {
+			throw new IllegalArgumentException("Columnar decoding does not support "+ReadMask.SUMMARY+", use "+ReadMask.SUMMARYVALUES+" instead");
+		}
+
+		boolean readNoteId = m_returnMask.contains(ReadMask.NOTEID);
+		boolean readUnid = m_returnMask.contains(ReadMask.NOTEUNID);
+		boolean readNoteClass = m_returnMask.contains(ReadMask.NOTECLASS);
+		boolean readSiblings = m_returnMask.contains(ReadMask.INDEXSIBLINGS);
+		boolean readChildren = m_returnMask.contains(ReadMask.INDEXCHILDREN);
+		boolean readDescendants = m_returnMask.contains(ReadMask.INDEXDESCENDANTS);
+		boolean readAnyUnread = m_returnMask.contains(ReadMask.INDEXANYUNREAD);
+		boolean readIndentLevels = m_returnMask.contains(ReadMask.INDENTLEVELS);
+		boolean readScore = m_returnMask.contains(ReadMask.SCORE);
+		boolean readUnread = m_returnMask.contains(ReadMask.INDEXUNREAD);
+		boolean readPosition = m_returnMask.contains(ReadMask.INDEXPOSITION);
+		boolean readSummaryValues = m_returnMask.contains(ReadMask.SUMMARYVALUES);
+
+		m_noteIds = readNoteId ? new int[rowCount] : null;
+		m_unids = readUnid ? new long[2*rowCount] : null;
+		m_noteClasses = readNoteClass ? new short[rowCount] : null;
+		m_siblingCounts = readSiblings ? new int[rowCount] : null;
+		m_childCounts = readChildren ? new int[rowCount] : null;
+		m_descendantCounts = readDescendants ? new int[rowCount] : null;
+		m_anyUnread = readAnyUnread ? new boolean[rowCount] : null;
+		m_indentLevels = readIndentLevels ? new short[rowCount] : null;
+		m_ftScores = readScore ? new short[rowCount] : null;
+		m_unread = readUnread ? new boolean[rowCount] : null;
+
+		if (readPosition) {
+			m_positionOffsets = new int[rowCount+1];
+			//positions usually have a low number of levels; the array is grown if required
+			m_positions = new int[rowCount*2];
+		}
+
+		ByteBuffer buf = m_dataBuf;
+		int bufferPos = startOffset;
+		int positionsSize = 0;
+
+		for (int row=0; row<rowCount; row++) {
+			if (readNoteId) {
+				m_noteIds[row] = buf.getInt(bufferPos);
+				bufferPos += 4;
+			}
+			if (readUnid) {
+				m_unids[2*row] = buf.getLong(bufferPos);
+				m_unids[2*row+1] = buf.getLong(bufferPos+8);
+				bufferPos += 16;
+			}
+			if (readNoteClass) {
+				m_noteClasses[row] = buf.getShort(bufferPos);
+				bufferPos += 2;
+			}
+			if (readSiblings) {
+				m_siblingCounts[row] = buf.getInt(bufferPos);
+				bufferPos += 4;
+			}
+			if (readChildren) {
+				m_childCounts[row] = buf.getInt(bufferPos);
+				bufferPos += 4;
+			}
+			if (readDescendants) {
+				m_descendantCounts[row] = buf.getInt(bufferPos);
+				bufferPos += 4;
+			}
+			if (readAnyUnread) {
+				m_anyUnread[row] = buf.getShort(bufferPos) == 1;
+				bufferPos += 2;
+			}
+			if (readIndentLevels) {
+				m_indentLevels[row] = buf.getShort(bufferPos);
+				bufferPos += 2;
+			}
+			if (readScore) {
+				m_ftScores[row] = buf.getShort(bufferPos);
+				bufferPos += 2;
+			}
+			if (readUnread) {
+				m_unread[row] = buf.getShort(bufferPos) == 1;
+				bufferPos += 2;
+			}
+			if (readPosition) {
+				int level = buf.getShort(bufferPos);
+				int posLength = level + 1;
+
+				if (positionsSize + posLength > m_positions.length) {
+					int[] newPositions = new int[Math.max(m_positions.length*2, positionsSize + posLength)];
+					System.arraycopy(m_positions, 0, newPositions, 0, positionsSize);
+					m_positions = newPositions;
+				}
+				m_positionOffsets[row] = positionsSize;
+
+				int posArrStart = bufferPos + 2 /* level */  + 2 /* MinLevel+MaxLevel */;
+				for (int i=0; i<posLength; i++) {
+					m_positions[positionsSize++] = buf.getInt(posArrStart + 4*i);
+				}
+
+				bufferPos += 4 * (level + 2);
+			}
+			if (readSummaryValues) {
+				bufferPos = decodeItemValueTable(row, bufferPos);
+			}
+		}
+
+		if (readPosition) {
+			m_positionOffsets[rowCount] = positionsSize;
+		}
+	}
+
+	/**
+	 * Decodes the ITEM_VALUE_TABLE of a single entry
+	 *
+	 * @param row row index
+	 * @param startPos start position of the ITEM_VALUE_TABLE in the buffer
+	 * @return buffer position after the table
+	 */
+	private int decodeItemValueTable(int row, int startPos) {
+		ByteBuffer buf = m_dataBuf;
+
+		//	The information in a view summary of values is as follows:
+		//
+		//		ITEM_VALUE_TABLE containing header information (total length of summary, number of items in summary)
+		//		WORD containing the length of item #1 (including data type)
+		//		WORD containing the length of item #2 (including data type)
+		//		...
+		//		USHORT containing the data type of item #1
+		//		value of item #1
+		//		USHORT containing the data type of item #2
+		//		value of item #2
+		//		....
+		int totalBufferLength = buf.getShort(startPos) & 0xffff;
+		int itemsCount = buf.getShort(startPos+2) & 0xffff;
+
+		if (m_valueTypes==null) {
+			//we use the item count of the first row; all rows of a collection have the same column count
+			m_columnCount = itemsCount;
+			m_valueTypes = new short[itemsCount * m_rowCount];
+			m_valueOffsets = new int[itemsCount * m_rowCount];
+			m_valueLengths = new int[itemsCount * m_rowCount];
+			m_numbers = new double[itemsCount][];
+			m_timeDates = new long[itemsCount][];
+		}
+
+		int lengthsPos = startPos + NotesConstants.itemValueTableSize;
+		int valuePos = lengthsPos + 2*itemsCount;
+		int colCount = Math.min(itemsCount, m_columnCount);
+
+		for (int col=0; col<colCount; col++) {
+			int itemLength = buf.getShort(lengthsPos + 2*col) & 0xffff;
+			int idx = col * m_rowCount + row;
+
+			if (itemLength==0) {
+				//empty column value, e.g. in category rows or for response documents
+				continue;
+			}
+
+			short dataType = buf.getShort(valuePos);
+			int valueOffset = valuePos + 2;
+			int valueLength = itemLength - 2;
+
+			m_valueTypes[idx] = dataType;
+			m_valueOffsets[idx] = valueOffset;
+			m_valueLengths[idx] = valueLength;
+
+			int dataTypeAsInt = dataType & 0xffff;
+			if (dataTypeAsInt == NotesItem.TYPE_NUMBER) {
+				if (m_numbers[col]==null) {
+					m_numbers[col] = new double[m_rowCount];
+				}
+				m_numbers[col][row] = buf.getDouble(valueOffset);
+			}
+			else if (dataTypeAsInt == NotesItem.TYPE_TIME) {
+				if (m_timeDates[col]==null) {
+					m_timeDates[col] = new long[m_rowCount];
+				}
+				m_timeDates[col][row] = toTimeDateLong(buf.getInt(valueOffset), buf.getInt(valueOffset+4));
+			}
+
+			valuePos += itemLength;
+		}
+
+		return startPos + totalBufferLength;
+	}
+
+	/**
+	 * Packs the two innards of a TIMEDATE into a long value
+	 *
+	 * @param innard0 Innards[0] (time part)
+	 * @param innard1 Innards[1] (date part)
+	 * @return long value
+	 */
+	public static long toTimeDateLong(int innard0, int innard1) {
+		return (((long) innard1) << 32) | (innard0 & 0xffffffffL);
+	}
+
+	/**
+	 * Converts a long value produced by {@link #toTimeDateLong(int, int)} to a {@link NotesTimeDate}
+	 *
+	 * @param timeDateLong packed innards
+	 * @return timedate
+	 */
+	public static NotesTimeDate toNotesTimeDate(long timeDateLong) {
+		return new NotesTimeDate(new int[] {(int) (timeDateLong & 0xffffffffL), (int) (timeDateLong >>> 32)});
+	}
+
+	/**
+	 * Returns the parent collection
+	 *
+	 * @return collection
+	 */
+	public NotesCollection getParent() {
+		return m_parentCollection;
+	}
+
+	/**
+	 * Returns the read mask used to fill the buffer
+	 *
+	 * @return read mask
+	 */
+	public EnumSet<ReadMask> getReturnMask() {
+		return m_returnMask;
+	}
+
+	/**
+	 * Returns the number of decoded entries
+	 *
+	 * @return number of entries
+	 */
+	public int getRowCount() {
+		return m_rowCount;
+	}
+
+	/**
+	 * Returns the number of column values per entry ({@link ReadMask#SUMMARYVALUES})
+	 *
+	 * @return column count, 0 if no column values have been read
+	 */
+	public int getColumnCount() {
+		return m_columnCount;
+	}
+
+	/**
+	 * Returns a new flyweight cursor positioned before the first entry
+	 *
+	 * @return cursor
+	 */
+	public Cursor cursor() {
+		return new Cursor();
+	}
+
+	public int getNoteId(int row) {
+		return m_noteIds==null ? 0 : m_noteIds[row];
+	}
+
+	/**
+	 * Returns the note ids of all entries. The returned array is not copied, so do not modify it.
+	 *
+	 * @return note ids or null if {@link ReadMask#NOTEID} has not been used for the lookup
+	 */
+	public int[] getNoteIds() {
+		return m_noteIds;
+	}
+
+	public boolean isCategory(int row) {
+		return (getNoteId(row) & NotesConstants.NOTEID_CATEGORY) == NotesConstants.NOTEID_CATEGORY;
+	}
+
+	public boolean isTotal(int row) {
+		return (getNoteId(row) & NotesConstants.NOTEID_CATEGORY_TOTAL) == NotesConstants.NOTEID_CATEGORY_TOTAL;
+	}
+
+	public boolean isDocument(int row) {
+		return !isCategory(row) && !isTotal(row);
+	}
+
+	public String getUNID(int row) {
+		if (m_unids==null) {
+			return null;
+		}
+		return NotesStringUtils.toUNID(m_unids[2*row], m_unids[2*row+1]);
+	}
+
+	public int getNoteClass(int row) {
+		return m_noteClasses==null ? 0 : m_noteClasses[row];
+	}
+
+	public int getSiblingCount(int row) {
+		return m_siblingCounts==null ? 0 : m_siblingCounts[row];
+	}
+
+	public int getChildCount(int row) {
+		return m_childCounts==null ? 0 : m_childCounts[row];
+	}
+
+	public int getDescendantCount(int row) {
+		return m_descendantCounts==null ? 0 : m_descendantCounts[row];
+	}
+
+	public boolean isAnyUnread(int row) {
+		return m_anyUnread==null ? false : m_anyUnread[row];
+	}
+
+	public int getIndentLevels(int row) {
+		return m_indentLevels==null ? 0 : m_indentLevels[row];
+	}
+
+	public int getFTScore(int row) {
+		return m_ftScores==null ? 0 : m_ftScores[row];
+	}
+
+	public boolean isUnread(int row) {
+		return m_unread==null ? false : m_unread[row];
+	}
+
+	/**
+	 * Returns the level of the entry in the view (position 1 = level 0, position 1.1 = level 1)
+	 *
+	 * @param row row index
+	 * @return level or -1 if {@link ReadMask#INDEXPOSITION} has not been used for the lookup
+	 */
+	public int getLevel(int row) {
+		if (m_positionOffsets==null) {
+			return -1;
+		}
+		return m_positionOffsets[row+1] - m_positionOffsets[row] - 1;
+	}
+
+	/**
+	 * Returns a part of the entry position without allocating a position array
+	 *
+	 * @param row row index
+	 * @param level level, 0 for the top level
+	 * @return position part
+	 */
+	public int getPositionPart(int row, int level) {
+		return m_positions[m_positionOffsets[row] + level];
+	}
+
+	/**
+	 * Returns the entry position as an int array
+	 *
+	 * @param row row index
+	 * @return position or null if {@link ReadMask#INDEXPOSITION} has not been used for the lookup
+	 */
+	public int[] getPosition(int row) {
+		if (m_positionOffsets==null) {
+			return null;
+		}
+		int start = m_positionOffsets[row];
+		int[] pos = new int[m_positionOffsets[row+1] - start];
+		System.arraycopy(m_positions, start, pos, 0, pos.length);
+		return pos;
+	}
+
+	/**
+	 * Returns the entry position as a string (e.g. 1.2.3)
+	 *
+	 * @param row row index
+	 * @return position string or empty string
+	 */
+	public String getPositionStr(int row) {
+		if (m_positionOffsets==null) {
+			return "";
+		}
+		StringBuilder sb = new StringBuilder();
+		for (int i=m_positionOffsets[row]; i<m_positionOffsets[row+1]; i++) {
+			if (sb.length()>0)
+				sb.append(".");
+			sb.append(m_positions[i]);
+		}
+		return sb.toString();
+	}
+
+	private int checkColumn(int column) {
+		if (column<0 || column>=m_columnCount) {
+			throw new IndexOutOfBoundsException("Column index "+column+" out of range (0-"+(m_columnCount-1)+")");
+		}
+		return column;
+	}
+
+	/**
+	 * Returns the data type of a column value, e.g. {@link NotesItem#TYPE_TEXT}
+	 *
+	 * @param row row index
+	 * @param column column values index
+	 * @return data type or 0 for empty values
+	 */
+	public int getColumnDataType(int row, int column) {
+		return m_valueTypes[checkColumn(column) * m_rowCount + row] & 0xffff;
+	}
+
+	/**
+	 * Checks if the column value is empty (e.g. in category rows)
+	 *
+	 * @param row row index
+	 * @param column column values index
+	 * @return true if empty
+	 */
+	public boolean isColumnValueEmpty(int row, int column) {
+		return getColumnDataType(row, column) == 0;
+	}
+
+	/**
+	 * Returns the size of the encoded column value in bytes including the data type, like
+	 * {@link NotesViewEntryData#getColumnValueSizesInBytes()}
+	 *
+	 * @param row row index
+	 * @param column column values index
+	 * @return size
+	 */
+	public int getColumnValueSizeInBytes(int row, int column) {
+		int idx = checkColumn(column) * m_rowCount + row;
+		return m_valueTypes[idx]==0 ? 0 : m_valueLengths[idx] + 2;
+	}
+
+	/**
+	 * Returns a {@link NotesItem#TYPE_NUMBER} column value without boxing
+	 *
+	 * @param row row index
+	 * @param column column values index
+	 * @param defaultValue value to return if the column value is not a number
+	 * @return number
+	 */
+	public double getNumber(int row, int column, double defaultValue) {
+		if (getColumnDataType(row, column) != NotesItem.TYPE_NUMBER) {
+			return defaultValue;
+		}
+		return m_numbers[column][row];
+	}
+
+	/**
+	 * Returns all {@link NotesItem#TYPE_NUMBER} values of a column. Rows with other data types contain 0.
+	 * The returned array is not copied, so do not modify it.
+	 *
+	 * @param column column values index
+	 * @return numbers or null if the column does not contain any number
+	 */
+	public double[] getNumbers(int column) {
+		return m_numbers[checkColumn(column)];
+	}
+
+	/**
+	 * Returns a {@link NotesItem#TYPE_TIME} column value as long value
+	 *
+	 * @param row row index
+	 * @param column column values index
+	 * @param defaultValue value to return if the column value is not a timedate
+	 * @return packed innards, see {@link #toNotesTimeDate(long)}
+	 */
+	public long getTimeDateAsLong(int row, int column, long defaultValue) {
+		if (getColumnDataType(row, column) != NotesItem.TYPE_TIME) {
+			return defaultValue;
+		}
+		return m_timeDates[column][row];
+	}
+
+	/**
+	 * Returns all {@link NotesItem#TYPE_TIME} values of a column, see {@link #toNotesTimeDate(long)}.
+	 * Rows with other data types contain 0. The returned array is not copied, so do not modify it.
+	 *
+	 * @param column column values index
+	 * @return packed innards or null if the column does not contain any timedate
+	 */
+	public long[] getTimeDatesAsLong(int column) {
+		return m_timeDates[checkColumn(column)];
+	}
+
+	/**
+	 * Returns a {@link NotesItem#TYPE_TIME} column value
+	 *
+	 * @param row row index
+	 * @param column column values index
+	 * @return timedate or null if the column value is not a timedate
+	 */
+	public NotesTimeDate getTimeDate(int row, int column) {
+		if (getColumnDataType(row, column) != NotesItem.TYPE_TIME) {
+			return null;
+		}
+		return toNotesTimeDate(m_timeDates[column][row]);
+	}
+
+	/**
+	 * Returns the buffer containing the encoded column values. Use {@link #getValueOffset(int, int)}
+	 * and {@link #getValueLength(int, int)} to locate values in the buffer. The returned array is not copied,
+	 * so do not modify it.
+	 *
+	 * @return buffer
+	 */
+	public byte[] getData() {
+		return m_data;
+	}
+
+	/**
+	 * Returns the offset of an encoded column value in the array returned by {@link #getData()}
+	 *
+	 * @param row row index
+	 * @param column column values index
+	 * @return offset
+	 */
+	public int getValueOffset(int row, int column) {
+		return m_valueOffsets[checkColumn(column) * m_rowCount + row];
+	}
+
+	/**
+	 * Returns the length of an encoded column value in the array returned by {@link #getData()}
+	 *
+	 * @param row row index
+	 * @param column column values index
+	 * @return length in bytes, without data type
+	 */
+	public int getValueLength(int row, int column) {
+		return m_valueLengths[checkColumn(column) * m_rowCount + row];
+	}
+
+	/**
+	 * Converts LMBCS text in the buffer to a Java String. Text consisting of printable
+	 * 7 bit characters is identical in LMBCS and ASCII and gets converted without a C API call.
+	 *
+	 * @param offset offset in the buffer
+	 * @param length length in bytes
+	 * @return string
+	 */
+	private String decodeText(int offset, int length) {
+		if (length==0) {
+			return "";
+		}
+
+		byte[] data = m_data;
+		boolean isAscii = true;
+		for (int i=offset, end=offset+length; i<end; i++) {
+			byte b = data[i];
+			if (b < 0x20) {
+				//LMBCS group bytes, \0 as line delimiter and all bytes >= 0x80 (negative values)
+				isAscii = false;
+				break;
+			}
+		}
+
+		if (isAscii) {
+			char[] chars = new char[length];
+			for (int i=0; i<length; i++) {
+				chars[i] = (char) data[offset+i];
+			}
+			return new String(chars);
+		}
+		else {
+			byte[] lmbcsData = new byte[length];
+			System.arraycopy(data, offset, lmbcsData, 0, length);
+			return new LMBCSString(lmbcsData).getValue();
+		}
+	}
+
+	/**
+	 * Returns a {@link NotesItem#TYPE_TEXT} column value or the first value of a
+	 * {@link NotesItem#TYPE_TEXT_LIST}
+	 *
+	 * @param row row index
+	 * @param column column values index
+	 * @param defaultValue value to return if the column value is empty or not a text
+	 * @return string
+	 */
+	public String getString(int row, int column, String defaultValue) {
+		int dataType = getColumnDataType(row, column);
+		int idx = column * m_rowCount + row;
+
+		if (dataType == NotesItem.TYPE_TEXT) {
+			return decodeText(m_valueOffsets[idx], m_valueLengths[idx]);
+		}
+		else if (dataType == NotesItem.TYPE_TEXT_LIST) {
+			if (getTextListSize(row, column)==0) {
+				return defaultValue;
+			}
+			return getTextListEntry(row, column, 0);
+		}
+		return defaultValue;
+	}
+
+	/**
+	 * Returns the number of entries of a {@link NotesItem#TYPE_TEXT_LIST} column value
+	 *
+	 * @param row row index
+	 * @param column column values index
+	 * @return list size, 1 for {@link NotesItem#TYPE_TEXT} and 0 for other data types
+	 */
+	public int getTextListSize(int row, int column) {
+		int dataType = getColumnDataType(row, column);
+		if (dataType == NotesItem.TYPE_TEXT) {
+			return 1;
+		}
+		else if (dataType == NotesItem.TYPE_TEXT_LIST) {
+			int idx = column * m_rowCount + row;
+			if (m_valueLengths[idx]==0) {
+				return 0;
+			}
+			return m_dataBuf.getShort(m_valueOffsets[idx]) & 0xffff;
+		}
+		return 0;
+	}
+
+	/**
+	 * Returns an entry of a {@link NotesItem#TYPE_TEXT_LIST} column value. The LIST structure is
+	 * parsed in Java, no C API call is made.
+	 *
+	 * @param row row index
+	 * @param column column values index
+	 * @param index list index
+	 * @return list entry
+	 */
+	public String getTextListEntry(int row, int column, int index) {
+		int dataType = getColumnDataType(row, column);
+		int idx = column * m_rowCount + row;
+
+		if (dataType == NotesItem.TYPE_TEXT && index==0) {
+			return decodeText(m_valueOffsets[idx], m_valueLengths[idx]);
+		}
+
+		int listSize = getTextListSize(row, column);
+		if (dataType != NotesItem.TYPE_TEXT_LIST || index<0 || index>=listSize) {
+			throw new IndexOutOfBoundsException("List index "+index+" out of range (0-"+(listSize-1)+")");
+		}
+
+		//LIST structure: WORD ListEntries, WORD lengths[ListEntries], packed text
+		int listOffset = m_valueOffsets[idx];
+		int textOffset = listOffset + 2 + 2*listSize;
+		for (int i=0; i<index; i++) {
+			textOffset += m_dataBuf.getShort(listOffset + 2 + 2*i) & 0xffff;
+		}
+		int textLength = m_dataBuf.getShort(listOffset + 2 + 2*index) & 0xffff;
+		return decodeText(textOffset, textLength);
+	}
+
+	/**
+	 * Decodes a column value to the same object types that {@link NotesViewEntryData#get(String)}
+	 * returns, e.g. {@link String}, {@link List} of {@link String}, {@link Double} or {@link NotesTimeDate}.
+	 * This method allocates objects, prefer the typed getters for large result sets.
+	 *
+	 * @param row row index
+	 * @param column column values index
+	 * @return value or null if empty
+	 */
+	public Object getColumnValue(int row, int column) {
+		int dataType = getColumnDataType(row, column);
+		int idx = column * m_rowCount + row;
+
+		if (dataType==0) {
+			return null;
+		}
+		else if (dataType == NotesItem.TYPE_TEXT) {
+			return decodeText(m_valueOffsets[idx], m_valueLengths[idx]);
+		}
+		else if (dataType == NotesItem.TYPE_TEXT_LIST) {
+			int listSize = getTextListSize(row, column);
+			if (listSize==0) {
+				return Collections.emptyList();
+			}
+			List<Object> values = new ArrayList<Object>(listSize);
+			for (int i=0; i<listSize; i++) {
+				values.add(getTextListEntry(row, column, i));
+			}
+			return values;
+		}
+		else if (dataType == NotesItem.TYPE_NUMBER) {
+			return m_numbers[column][row];
+		}
+		else if (dataType == NotesItem.TYPE_TIME) {
+			return toNotesTimeDate(m_timeDates[column][row]);
+		}
+		else if (dataType == NotesItem.TYPE_NUMBER_RANGE) {
+			return decodeNumberRange(m_valueOffsets[idx]);
+		}
+		else if (dataType == NotesItem.TYPE_TIME_RANGE) {
+			return decodeTimeDateRange(m_valueOffsets[idx]);
+		}
+		return null;
+	}
+
+	private List<Object> decodeNumberRange(int offset) {
+		ByteBuffer buf = m_dataBuf;
+		//RANGE structure: USHORT ListEntries, USHORT RangeEntries
+		int listEntries = buf.getShort(offset) & 0xffff;
+		int rangeEntries = buf.getShort(offset+2) & 0xffff;
+
+		List<Object> values = new ArrayList<Object>(listEntries + rangeEntries);
+		int pos = offset + 4;
+		for (int i=0; i<listEntries; i++) {
+			values.add(buf.getDouble(pos));
+			pos += 8;
+		}
+		for (int i=0; i<rangeEntries; i++) {
+			values.add(new double[] {buf.getDouble(pos), buf.getDouble(pos+8)});
+			pos += 16;
+		}
+		return values;
+	}
+
+	private List<Object> decodeTimeDateRange(int offset) {
+		ByteBuffer buf = m_dataBuf;
+		//RANGE structure: USHORT ListEntries, USHORT RangeEntries
+		int listEntries = buf.getShort(offset) & 0xffff;
+		int rangeEntries = buf.getShort(offset+2) & 0xffff;
+
+		List<Object> values = new ArrayList<Object>(listEntries + rangeEntries);
+		int pos = offset + 4;
+		for (int i=0; i<listEntries; i++) {
+			values.add(new NotesTimeDate(new int[] {buf.getInt(pos), buf.getInt(pos+4)}));
+			pos += 8;
+		}
+		for (int i=0; i<rangeEntries; i++) {
+			NotesTimeDate lower = new NotesTimeDate(new int[] {buf.getInt(pos), buf.getInt(pos+4)});
+			NotesTimeDate upper = new NotesTimeDate(new int[] {buf.getInt(pos+8), buf.getInt(pos+12)});
+			values.add(new NotesDateRange(lower, upper));
+			pos += 16;
+		}
+		return values;
+	}
+
+	/**
+	 * Returns the view entry data as {@link NotesViewEntryData} objects. The objects are created on
+	 * the first call of this method, so this is only provided for compatibility with code that processes
+	 * {@link NotesViewLookupResultData}; use {@link #cursor()} for best performance.
+	 *
+	 * @return list of view entry data
+	 */
+	@Override
+	public List<NotesViewEntryData> getEntries() {
+		if (m_materializedEntries==null) {
+			List<NotesViewEntryData> entries = new ArrayList<NotesViewEntryData>(m_rowCount);
+
+			for (int row=0; row<m_rowCount; row++) {
+				NotesViewEntryData entry = new NotesViewEntryData(m_parentCollection);
+				if (m_noteIds!=null) {
+					entry.setNoteId(m_noteIds[row]);
+				}
+				if (m_unids!=null) {
+					entry.setUNID(new long[] {m_unids[2*row], m_unids[2*row+1]});
+				}
+				if (m_noteClasses!=null) {
+					entry.setNoteClass(m_noteClasses[row]);
+				}
+				if (m_siblingCounts!=null) {
+					entry.setSiblingCount(m_siblingCounts[row]);
+				}
+				if (m_childCounts!=null) {
+					entry.setChildCount(m_childCounts[row]);
+				}
+				if (m_descendantCounts!=null) {
+					entry.setDescendantCount(m_descendantCounts[row]);
+				}
+				if (m_anyUnread!=null) {
+					entry.setAnyUnread(m_anyUnread[row]);
+				}
+				if (m_indentLevels!=null) {
+					entry.setIndentLevels(m_indentLevels[row]);
+				}
+				if (m_ftScores!=null) {
+					entry.setFTScore(m_ftScores[row]);
+				}
+				if (m_unread!=null) {
+					entry.setUnread(m_unread[row]);
+				}
+				if (m_positionOffsets!=null) {
+					entry.setPosition(getPosition(row));
+				}
+				if (m_returnMask.contains(ReadMask.SUMMARYVALUES)) {
+					Object[] values = new Object[m_columnCount];
+					int[] sizes = new int[m_columnCount];
+					for (int col=0; col<m_columnCount; col++) {
+						values[col] = getColumnValue(row, col);
+						sizes[col] = getColumnValueSizeInBytes(row, col);
+					}
+					entry.setColumnValues(values);
+					entry.setColumnValueSizesInBytes(sizes);
+				}
+				if (m_singleColumnLookupName!=null) {
+					entry.setSingleColumnLookupName(m_singleColumnLookupName);
+				}
+				entries.add(entry);
+			}
+			m_materializedEntries = entries;
+		}
+		return m_materializedEntries;
+	}
+
+	/**
+	 * Flyweight cursor to iterate over the entries of a {@link NotesViewLookupColumnarResultData}
+	 * without creating objects per entry.
+	 *
+	 * @author Karsten Lehmann
+	 */
+	public class Cursor {
+		private int m_row = -1;
+
+		private Cursor() {
+		}
+
+		/**
+		 * Moves the cursor to the next entry
+		 *
+		 * @return true if there is an entry, false if the end has been reached
+		 */
+		public boolean next() {
+			if ((m_row+1) < m_rowCount) {
+				m_row++;
+				return true;
+			}
+			m_row = m_rowCount;
+			return false;
+		}
+
+		/**
+		 * Moves the cursor to the specified entry
+		 *
+		 * @param row row index
+		 */
+		public void moveTo(int row) {
+			if (row<-1 || row>=m_rowCount) {
+				throw new IndexOutOfBoundsException("Row index "+row+" out of range (0-"+(m_rowCount-1)+")");
+			}
+			m_row = row;
+		}
+
+		/**
+		 * Moves the cursor before the first entry
+		 */
+		public void reset() {
+			m_row = -1;
+		}
+
+		/**
+		 * Returns the current row index
+		 *
+		 * @return row index, -1 before the first {@link #next()} call
+		 */
+		public int getRow() {
+			return m_row;
+		}
+
+		public int getNoteId() {
+			return NotesViewLookupColumnarResultData.this.getNoteId(m_row);
+		}
+
+		public boolean isCategory() {
+			return NotesViewLookupColumnarResultData.this.isCategory(m_row);
+		}
+
+		public boolean isTotal() {
+			return NotesViewLookupColumnarResultData.this.isTotal(m_row);
+		}
+
+		public boolean isDocument() {
+			return NotesViewLookupColumnarResultData.this.isDocument(m_row);
+		}
+
+		public String getUNID() {
+			return NotesViewLookupColumnarResultData.this.getUNID(m_row);
+		}
+
+		public int getNoteClass() {
+			return NotesViewLookupColumnarResultData.this.getNoteClass(m_row);
+		}
+
+		public int getSiblingCount() {
+			return NotesViewLookupColumnarResultData.this.getSiblingCount(m_row);
+		}
+
+		public int getChildCount() {
+			return NotesViewLookupColumnarResultData.this.getChildCount(m_row);
+		}
+
+		public int getDescendantCount() {
+			return NotesViewLookupColumnarResultData.this.getDescendantCount(m_row);
+		}
+
+		public boolean isAnyUnread() {
+			return NotesViewLookupColumnarResultData.this.isAnyUnread(m_row);
+		}
+
+		public int getIndentLevels() {
+			return NotesViewLookupColumnarResultData.this.getIndentLevels(m_row);
+		}
+
+		public int getFTScore() {
+			return NotesViewLookupColumnarResultData.this.getFTScore(m_row);
+		}
+
+		public boolean isUnread() {
+			return NotesViewLookupColumnarResultData.this.isUnread(m_row);
+		}
+
+		public int getLevel() {
+			return NotesViewLookupColumnarResultData.this.getLevel(m_row);
+		}
+
+		public int getPositionPart(int level) {
+			return NotesViewLookupColumnarResultData.this.getPositionPart(m_row, level);
+		}
+
+		public int[] getPosition() {
+			return NotesViewLookupColumnarResultData.this.getPosition(m_row);
+		}
+
+		public String getPositionStr() {
+			return NotesViewLookupColumnarResultData.this.getPositionStr(m_row);
+		}
+
+		public int getColumnDataType(int column) {
+			return NotesViewLookupColumnarResultData.this.getColumnDataType(m_row, column);
+		}
+
+		public boolean isColumnValueEmpty(int column) {
+			return NotesViewLookupColumnarResultData.this.isColumnValueEmpty(m_row, column);
+		}
+
+		public int getColumnValueSizeInBytes(int column) {
+			return NotesViewLookupColumnarResultData.this.getColumnValueSizeInBytes(m_row, column);
+		}
+
+		public double getNumber(int column, double defaultValue) {
+			return NotesViewLookupColumnarResultData.this.getNumber(m_row, column, defaultValue);
+		}
+
+		public long getTimeDateAsLong(int column, long defaultValue) {
+			return NotesViewLookupColumnarResultData.this.getTimeDateAsLong(m_row, column, defaultValue);
+		}
+
+		public NotesTimeDate getTimeDate(int column) {
+			return NotesViewLookupColumnarResultData.this.getTimeDate(m_row, column);
+		}
+
+		public String getString(int column, String defaultValue) {
+			return NotesViewLookupColumnarResultData.this.getString(m_row, column, defaultValue);
+		}
+
+		public int getTextListSize(int column) {
+			return NotesViewLookupColumnarResultData.this.getTextListSize(m_row, column);
+		}
+
+		public String getTextListEntry(int column, int index) {
+			return NotesViewLookupColumnarResultData.this.getTextListEntry(m_row, column, index);
+		}
+
+		public int getValueOffset(int column) {
+			return NotesViewLookupColumnarResultData.this.getValueOffset(m_row, column);
+		}
+
+		public int getValueLength(int column) {
+			return NotesViewLookupColumnarResultData.this.getValueLength(m_row, column);
+		}
+
+		public Object getColumnValue(int column) {
+			return NotesViewLookupColumnarResultData.this.getColumnValue(m_row, column);
+		}
+	}
+}
@@ -0,0 +1,494 @@
+package com.mindoo.domino.jna;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.EnumSet;
+import java.util.List;
+
+import com.mindoo.domino.jna.NotesCollection.ViewLookupCallback;
+import com.mindoo.domino.jna.constants.ReadMask;
+import com.mindoo.domino.jna.internal.DisposableMemory;
+
+/**
+ * Replacement for {@link CollectionDataCache} to be returned in {@link ViewLookupCallback#createDataCache()}
+ * when a cache instance is shared across many threads or needs to hold many entries.<br>
+ * <br>
+ * The cache is split into independently locked shards, keyed by the primitive note id. Entries are
+ * stored in a compact serialized form in native memory outside of the Java heap and are
+ * only deserialized when NIF skipped an entry because it is already up to date in the cache.
+ * The size of the cache is limited by both a maximum number of entries and a byte budget
+ * for the serialized data. When a shard exceeds its share of these limits, entries are evicted
+ * using a CLOCK algorithm (an approximation of LRU that does not need to reorder entries on read).<br>
+ * <br>
+ * Native memory is released on eviction, on {@link #flush()} and when the cache instance
+ * gets garbage collected.
+ *
+ * @author Karsten Lehmann
+ */
+public class ShardedCollectionDataCache extends CollectionDataCache {
+	private static final long serialVersionUID = -2389614437187960735L;
+
+	private static final int MIN_SHARD_CAPACITY = 16;
+
+	private final int m_maxEntries;
+	private final long m_maxBytes;
+	private final int m_shardCount;
+	private volatile CacheGeneration m_generation;
+	private transient Shard[] m_shards;
+	private transient Object m_generationLock;
+
+	/**
+	 * Creates a new instance with no limit for the number of entries and the default number of shards
+	 *
+	 * @param maxBytes maximum number of bytes to store in native memory
+	 */
+	public ShardedCollectionDataCache(long maxBytes) {
+		this(Integer.MAX_VALUE, maxBytes);
+	}
+
+	/**
+	 * Creates a new instance with the default number of shards
+	 *
+	 * @param maxEntries maximum number of entries in the cache
+	 * @param maxBytes maximum number of bytes to store in native memory
+	 */
+	public ShardedCollectionDataCache(int maxEntries, long maxBytes) {
+		this(maxEntries, maxBytes, getDefaultShardCount());
+	}
+
+	/**
+	 * Creates a new instance
+	 *
+	 * @param maxEntries maximum number of entries in the cache
+	 * @param maxBytes maximum number of bytes to store in native memory
+	 * @param shardCount number of independently locked shards, will be rounded up to a power of two
+	 */
+	public ShardedCollectionDataCache(int maxEntries, long maxBytes, int shardCount) {
+		super(maxEntries);
+
+		if (maxBytes <= 0)
+			throw new IllegalArgumentException("Max bytes must be greater than 0: "+maxBytes);
+		if (shardCount <= 0)
+			throw new IllegalArgumentException("Shard count must be greater than 0: "+shardCount);
+
+		m_maxEntries = maxEntries;
+		m_maxBytes = maxBytes;
+		m_shardCount = shardCount==1 ? 1 : Integer.highestOneBit(shardCount - 1) << 1;
+		m_generation = new CacheGeneration(0, null, null);
+		initShards();
+	}
+
+	private static int getDefaultShardCount() {
+		int shardCount = Runtime.getRuntime().availableProcessors() * 4;
+		return Math.max(16, Math.min(256, shardCount));
+	}
+
+	private void initShards() {
+		int maxEntriesPerShard = m_maxEntries==Integer.MAX_VALUE ? Integer.MAX_VALUE : Math.max(1, (m_maxEntries + m_shardCount - 1) / m_shardCount);
+		long maxBytesPerShard = Math.max(1, (m_maxBytes + m_shardCount - 1) / m_shardCount);
+
+		m_generationLock = new Object();
+		m_shards = new Shard[m_shardCount];
+		for (int i=0; i<m_shardCount; i++) {
+			m_shards[i] = new Shard(this, maxEntriesPerShard, maxBytesPerShard, m_generation.m_id);
+		}
+	}
+
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		//native memory is not serialized, so we start with an empty cache
+		m_generation = new CacheGeneration(m_generation.m_id+1, null, null);
+		initShards();
+	}
+
+	private Shard getShard(int noteId) {
+		return m_shards[hash(noteId) & (m_shardCount-1)];
+	}
+
+	private static int hash(int noteId) {
+		//note ids are multiples of 4, so we need to spread the bits
+		int h = noteId * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	@Override
+	public int getMaxCacheSize() {
+		return m_maxEntries;
+	}
+
+	/**
+	 * Returns the maximum number of bytes to store in native memory
+	 *
+	 * @return byte budget
+	 */
+	public long getMaxBytes() {
+		return m_maxBytes;
+	}
+
+	/**
+	 * Returns the number of independently locked shards
+	 *
+	 * @return shard count
+	 */
+	public int getShardCount() {
+		return m_shardCount;
+	}
+
+	@Override
+	public int size() {
+		int size = 0;
+		for (Shard currShard : m_shards) {
+			synchronized (currShard) {
+				size += currShard.m_size;
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * Returns the number of bytes currently allocated in native memory for cache entries
+	 *
+	 * @return size in bytes
+	 */
+	public long getSizeInBytes() {
+		long bytes = 0;
+		for (Shard currShard : m_shards) {
+			synchronized (currShard) {
+				bytes += currShard.m_bytes;
+			}
+		}
+		return bytes;
+	}
+
+	@Override
+	public void flush() {
+		synchronized (m_generationLock) {
+			startNewGeneration(null, null);
+		}
+	}
+
+	/**
+	 * Clears all shards and assigns a new generation id, so that entries written by
+	 * lookups that started before can no longer be added to the cache
+	 */
+	private CacheGeneration startNewGeneration(EnumSet<ReadMask> readMask, NotesTimeDate diffTime) {
+		CacheGeneration newGeneration = new CacheGeneration(m_generation.m_id+1, readMask, diffTime);
+		m_generation = newGeneration;
+		for (Shard currShard : m_shards) {
+			synchronized (currShard) {
+				currShard.clear(newGeneration.m_id);
+			}
+		}
+		return newGeneration;
+	}
+
+	@Override
+	void addCacheValues(EnumSet<ReadMask> readMask, NotesTimeDate diffTime, List<NotesViewEntryData> entries) {
+		CacheGeneration generation;
+
+		synchronized (m_generationLock) {
+			generation = m_generation;
+
+			boolean flush = false;
+			if (generation.m_diffTime!=null && !generation.m_diffTime.equals(diffTime)) {
+				flush = true;
+			}
+			else if (generation.m_readMask!=null && !generation.m_readMask.equals(readMask)) {
+				flush = true;
+			}
+
+			if (flush) {
+				generation = startNewGeneration(readMask, diffTime);
+				cacheFlushed();
+			}
+			else if (generation.m_readMask==null || generation.m_diffTime==null) {
+				//first write after flush, keep generation id, because the shards are empty anyway
+				generation = new CacheGeneration(generation.m_id, readMask, diffTime);
+				m_generation = generation;
+			}
+		}
+
+		for (NotesViewEntryData currEntry : entries) {
+			if (currEntry.hasAnyColumnValues()) {
+				int noteId = currEntry.getNoteId();
+				if (noteId==0) {
+					continue;
+				}
+
+				byte[] data = currEntry.getCacheableDataAsBytes();
+				if (data==null) {
+					//entry contains values we cannot serialize
+					continue;
+				}
+
+				Shard shard = getShard(noteId);
+				synchronized (shard) {
+					shard.put(generation.m_id, noteId, data);
+				}
+			}
+		}
+	}
+
+	@Override
+	void populateEntryStubsWithData(List<NotesViewEntryData> entries) {
+		int hits = 0;
+		int misses = 0;
+
+		for (NotesViewEntryData currEntry : entries) {
+			if (!currEntry.hasAnyColumnValues()) {
+				int noteId = currEntry.getNoteId();
+				Shard shard = getShard(noteId);
+
+				byte[] data;
+				synchronized (shard) {
+					data = shard.get(noteId);
+				}
+
+				if (data!=null) {
+					//deserialize outside of the shard lock
+					currEntry.updateFromCacheBytes(data);
+					hits++;
+				}
+				else {
+					misses++;
+				}
+			}
+		}
+
+		if (hits>0) {
+			recordHits(hits);
+		}
+		if (misses>0) {
+			recordMisses(misses);
+		}
+	}
+
+	@Override
+	CacheState getCacheState() {
+		CacheGeneration generation = m_generation;
+
+		int[][] noteIdsPerShard = new int[m_shardCount][];
+		int total = 0;
+		for (int i=0; i<m_shardCount; i++) {
+			Shard currShard = m_shards[i];
+			synchronized (currShard) {
+				noteIdsPerShard[i] = currShard.m_generation==generation.m_id ? currShard.getKeys() : new int[0];
+			}
+			total += noteIdsPerShard[i].length;
+		}
+
+		int[] noteIds = new int[total];
+		int offset = 0;
+		for (int i=0; i<m_shardCount; i++) {
+			System.arraycopy(noteIdsPerShard[i], 0, noteIds, offset, noteIdsPerShard[i].length);
+			offset += noteIdsPerShard[i].length;
+		}
+
+		return new CacheState(generation.m_readMask, generation.m_diffTime, noteIds);
+	}
+
+	/**
+	 * Immutable cache state that gets replaced when the cache is flushed
+	 */
+	private static class CacheGeneration implements java.io.Serializable {
+		private static final long serialVersionUID = -1591453427542290785L;
+
+		private final int m_id;
+		private final EnumSet<ReadMask> m_readMask;
+		private final NotesTimeDate m_diffTime;
+
+		private CacheGeneration(int id, EnumSet<ReadMask> readMask, NotesTimeDate diffTime) {
+			m_id = id;
+			m_readMask = readMask;
+			m_diffTime = diffTime;
+		}
+	}
+
+	/**
+	 * Open addressing hash table with linear probing that maps note ids to native memory
+	 * blocks. All methods need to be called while holding the shard monitor.
+	 */
+	private static class Shard {
+		private final ShardedCollectionDataCache m_parent;
+		private final int m_maxEntries;
+		private final long m_maxBytes;
+		private int m_generation;
+		private int[] m_keys;
+		private DisposableMemory[] m_values;
+		private boolean[] m_referenced;
+		private int m_size;
+		private long m_bytes;
+		private int m_clockHand;
+
+		private Shard(ShardedCollectionDataCache parent, int maxEntries, long maxBytes, int generation) {
+			m_parent = parent;
+			m_maxEntries = maxEntries;
+			m_maxBytes = maxBytes;
+			m_generation = generation;
+			allocate(MIN_SHARD_CAPACITY);
+		}
+
+		private void allocate(int capacity) {
+			m_keys = new int[capacity];
+			m_values = new DisposableMemory[capacity];
+			m_referenced = new boolean[capacity];
+		}
+
+		private int indexOf(int noteId) {
+			int mask = m_keys.length - 1;
+			int idx = (hash(noteId) >>> 8) & mask;
+			while (true) {
+				int currKey = m_keys[idx];
+				if (currKey==noteId) {
+					return idx;
+				}
+				else if (currKey==0) {
+					return -1;
+				}
+				idx = (idx + 1) & mask;
+			}
+		}
+
+		byte[] get(int noteId) {
+			int idx = indexOf(noteId);
+			if (idx==-1) {
+				return null;
+			}
+			m_referenced[idx] = true;
+			DisposableMemory mem = m_values[idx];
+			return mem.getByteArray(0, (int) mem.size());
+		}
+
+		void put(int generation, int noteId, byte[] data) {
+			if (generation!=m_generation) {
+				//cache has been flushed since the data was read
+				return;
+			}
+			if (data.length > m_maxBytes) {
+				return;
+			}
+
+			DisposableMemory mem = new DisposableMemory(data.length);
+			mem.write(0, data, 0, data.length);
+
+			int idx = indexOf(noteId);
+			if (idx!=-1) {
+				m_bytes -= m_values[idx].size();
+				m_values[idx].dispose();
+				m_values[idx] = mem;
+				m_referenced[idx] = true;
+				m_bytes += data.length;
+			}
+			else {
+				if ((m_size+1) * 4 > m_keys.length * 3) {
+					resize(m_keys.length * 2);
+				}
+				insert(noteId, mem, true);
+				m_size++;
+				m_bytes += data.length;
+			}
+
+			evictIfRequired();
+		}
+
+		private void insert(int noteId, DisposableMemory mem, boolean referenced) {
+			int mask = m_keys.length - 1;
+			int idx = (hash(noteId) >>> 8) & mask;
+			while (m_keys[idx]!=0) {
+				idx = (idx + 1) & mask;
+			}
+			m_keys[idx] = noteId;
+			m_values[idx] = mem;
+			m_referenced[idx] = referenced;
+		}
+
+		private void resize(int newCapacity) {
+			int[] oldKeys = m_keys;
+			DisposableMemory[] oldValues = m_values;
+			boolean[] oldReferenced = m_referenced;
+
+			allocate(newCapacity);
+			for (int i=0; i<oldKeys.length; i++) {
+				if (oldKeys[i]!=0) {
+					insert(oldKeys[i], oldValues[i], oldReferenced[i]);
+				}
+			}
+			m_clockHand = 0;
+		}
+
+		private void evictIfRequired() {
+			int evicted = 0;
+
+			while (m_size > 0 && (m_size > m_maxEntries || m_bytes > m_maxBytes)) {
+				int idx = m_clockHand;
+				if (m_keys[idx]!=0) {
+					if (m_referenced[idx]) {
+						//give the entry a second chance
+						m_referenced[idx] = false;
+					}
+					else {
+						removeAt(idx);
+						evicted++;
+						//removeAt may have moved another entry into this slot
+						continue;
+					}
+				}
+				m_clockHand = (m_clockHand + 1) & (m_keys.length - 1);
+			}
+
+			if (evicted>0) {
+				m_parent.recordEvictions(evicted);
+			}
+		}
+
+		private void removeAt(int idx) {
+			m_bytes -= m_values[idx].size();
+			m_values[idx].dispose();
+			m_size--;
+
+			//backward shift deletion to keep the probe sequences intact
+			int mask = m_keys.length - 1;
+			int gap = idx;
+			int curr = (idx + 1) & mask;
+			while (m_keys[curr]!=0) {
+				int home = (hash(m_keys[curr]) >>> 8) & mask;
+				//move entry into the gap if its home slot is not between gap and curr (cyclic)
+				boolean move = gap <= curr ? (home <= gap || home > curr) : (home <= gap && home > curr);
+				if (move) {
+					m_keys[gap] = m_keys[curr];
+					m_values[gap] = m_values[curr];
+					m_referenced[gap] = m_referenced[curr];
+					gap = curr;
+				}
+				curr = (curr + 1) & mask;
+			}
+			m_keys[gap] = 0;
+			m_values[gap] = null;
+			m_referenced[gap] = false;
+		}
+
+		int[] getKeys() {
+			int[] keys = new int[m_size];
+			int idx = 0;
+			for (int i=0; i<m_keys.length; i++) {
+				if (m_keys[i]!=0) {
+					keys[idx++] = m_keys[i];
+				}
+			}
+			return keys;
+		}
+
+		void clear(int newGeneration) {
+			for (int i=0; i<m_values.length; i++) {
+				if (m_values[i]!=null) {
+					m_values[i].dispose();
+				}
+			}
+			m_generation = newGeneration;
+			m_size = 0;
+			m_bytes = 0;
+			m_clockHand = 0;
+			allocate(MIN_SHARD_CAPACITY);
+		}
+	}
+}
@@ -0,0 +1,110 @@
+package com.mindoo.domino.jna;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.EnumSet;
+
+import com.mindoo.domino.jna.NotesCollection.ViewChangeCallback;
+import com.mindoo.domino.jna.constants.ReadMask;
+
+/**
+ * Index state of a collection returned by
+ * {@link NotesCollection#readChangesSince(ViewChangeToken, EnumSet, ViewChangeCallback)}
+ * to be passed to the next call of this method in order to only receive the changes
+ * since then.<br>
+ * <br>
+ * The token contains the diff time returned by NIF, the index modified sequence number
+ * and the note ids of all documents in the collection (needed to detect removals).
+ * It is serializable, so it can be stored between application runs.
+ *
+ * @author Karsten Lehmann
+ */
+public class ViewChangeToken implements Serializable {
+	private static final long serialVersionUID = -2683520743015626347L;
+
+	private final int m_collectionNoteId;
+	private final int[] m_diffTimeInnards;
+	private final int m_indexModifiedSequenceNo;
+	private final EnumSet<ReadMask> m_readMask;
+	private final int[] m_noteIds;
+
+	ViewChangeToken(int collectionNoteId, NotesTimeDate diffTime, int indexModifiedSequenceNo,
+			EnumSet<ReadMask> readMask, int[] sortedNoteIds) {
+		m_collectionNoteId = collectionNoteId;
+		m_diffTimeInnards = diffTime==null ? null : diffTime.getInnards().clone();
+		m_indexModifiedSequenceNo = indexModifiedSequenceNo;
+		m_readMask = readMask.clone();
+		m_noteIds = sortedNoteIds;
+	}
+
+	/**
+	 * Returns the note id of the collection design note
+	 *
+	 * @return note id
+	 */
+	public int getCollectionNoteId() {
+		return m_collectionNoteId;
+	}
+
+	/**
+	 * Returns the diff time returned by NIF when reading the collection data
+	 *
+	 * @return diff time or null if NIF did not return one
+	 */
+	public NotesTimeDate getDiffTime() {
+		return m_diffTimeInnards==null ? null : new NotesTimeDate(m_diffTimeInnards.clone());
+	}
+
+	/**
+	 * Returns the index modified sequence number at the time of reading
+	 *
+	 * @return sequence number
+	 * @see NotesCollection#getIndexModifiedSequenceNo()
+	 */
+	public int getIndexModifiedSequenceNo() {
+		return m_indexModifiedSequenceNo;
+	}
+
+	/**
+	 * Returns the read mask used to read the collection data
+	 *
+	 * @return read mask
+	 */
+	public EnumSet<ReadMask> getReadMask() {
+		return m_readMask.clone();
+	}
+
+	/**
+	 * Returns the number of documents in the collection
+	 *
+	 * @return count
+	 */
+	public int getDocumentCount() {
+		return m_noteIds.length;
+	}
+
+	/**
+	 * Checks if a document was part of the collection
+	 *
+	 * @param noteId note id
+	 * @return true if contained
+	 */
+	public boolean contains(int noteId) {
+		return Arrays.binarySearch(m_noteIds, noteId) >= 0;
+	}
+
+	/**
+	 * Returns the sorted note ids of all documents in the collection
+	 *
+	 * @return note ids
+	 */
+	int[] getNoteIds() {
+		return m_noteIds;
+	}
+
+	@Override
+	public String toString() {
+		return "ViewChangeToken [collectionNoteId="+m_collectionNoteId+", diffTime="+getDiffTime()+
+				", indexModifiedSequenceNo="+m_indexModifiedSequenceNo+", documents="+m_noteIds.length+"]";
+	}
+}
@@ -0,0 +1,235 @@
+package com.mindoo.domino.jna;
+
+import java.util.EnumSet;
+import java.util.List;
+
+import com.mindoo.domino.jna.NotesCollection.ViewLookupCallback;
+import com.mindoo.domino.jna.constants.ReadMask;
+
+/**
+ * Adaptive page sizing for collection reads, to be returned in {@link ViewLookupCallback#createPageSizeTuner()}.<br>
+ * <br>
+ * NIF returns view data in a summary buffer with a maximum size of 64K. If more entries are requested
+ * than fit into this buffer, NIF returns less entries and we need another call, if less are requested, we
+ * waste round trips. This class measures the number of bytes each read entry occupies in the summary
+ * buffer (based on {@link NotesViewEntryData#getColumnValueSizesInBytes()} and the read mask) and the
+ * read/decode time per entry, and computes the number of entries to request in the next
+ * call so that the buffer gets filled without being truncated.<br>
+ * <br>
+ * The preload entry count passed to the lookup methods is used as upper limit. Override
+ * {@link #pageRead(int, int, int, long, int)} to collect metrics about the chosen page sizes.<br>
+ * <br>
+ * Instances are thread-safe and can be shared across lookups to reuse the collected statistics.
+ *
+ * @author Karsten Lehmann
+ */
+public class ViewPageSizeTuner {
+	/** maximum size of the NIF summary buffer */
+	public static final int MAX_BUFFER_SIZE = 0xffff;
+
+	private static final double DEFAULT_FILL_RATIO = 0.9;
+	/** weight of the last page when updating the average values */
+	private static final double SMOOTHING_FACTOR = 0.3;
+
+	private final int m_minReturnCount;
+	private final int m_maxReturnCount;
+	private final int m_targetBufferSize;
+
+	private double m_avgBytesPerEntry;
+	private double m_avgNanosPerEntry;
+	private int m_nextReturnCount;
+	private long m_pagesRead;
+	private long m_truncatedPages;
+
+	/**
+	 * Creates a new instance that tries to fill 90% of the summary buffer
+	 */
+	public ViewPageSizeTuner() {
+		this(1, Integer.MAX_VALUE, DEFAULT_FILL_RATIO);
+	}
+
+	/**
+	 * Creates a new instance
+	 *
+	 * @param minReturnCount minimum number of entries to request
+	 * @param maxReturnCount maximum number of entries to request
+	 * @param fillRatio ratio of the 64K summary buffer that should be filled (between 0 and 1), leaves room for entries that are larger than average
+	 */
+	public ViewPageSizeTuner(int minReturnCount, int maxReturnCount, double fillRatio) {
+		if (minReturnCount<=0)
+			throw new IllegalArgumentException("Min return count must be greater than 0: "+minReturnCount);
+		if (maxReturnCount<minReturnCount)
+			throw new IllegalArgumentException("Max return count must not be less than min return count: "+maxReturnCount+" < "+minReturnCount);
+		if (fillRatio<=0 || fillRatio>1)
+			throw new IllegalArgumentException("Fill ratio must be between 0 and 1: "+fillRatio);
+
+		m_minReturnCount = minReturnCount;
+		m_maxReturnCount = maxReturnCount;
+		m_targetBufferSize = (int) (MAX_BUFFER_SIZE * fillRatio);
+		m_nextReturnCount = maxReturnCount;
+	}
+
+	/**
+	 * Returns the number of entries to request in the next NIF call
+	 *
+	 * @param preloadEntryCount preload entry count passed to the lookup method, used as upper limit
+	 * @return return count
+	 */
+	public synchronized int getNextReturnCount(int preloadEntryCount) {
+		return Math.min(preloadEntryCount, m_nextReturnCount);
+	}
+
+	/**
+	 * Method is called after each NIF call to update the statistics
+	 *
+	 * @param returnMask read mask used for the lookup
+	 * @param requestedCount number of entries requested
+	 * @param data lookup result
+	 * @param readDurationNanos duration of the NIF call and buffer decoding in nanoseconds
+	 */
+	void pageRead(EnumSet<ReadMask> returnMask, int requestedCount, NotesViewLookupResultData data, long readDurationNanos) {
+		List<NotesViewEntryData> entries = data.getEntries();
+		int returnedCount = entries.size();
+
+		int bytes = 0;
+		boolean hasSizes = true;
+		for (NotesViewEntryData currEntry : entries) {
+			int currBytes = estimateBufferSize(returnMask, currEntry);
+			if (currBytes==-1) {
+				hasSizes = false;
+				break;
+			}
+			bytes += currBytes;
+		}
+
+		int nextReturnCount;
+		synchronized (this) {
+			m_pagesRead++;
+			if (returnedCount < requestedCount && data.hasMoreToDo()) {
+				//NIF could not return all requested entries because the buffer was full
+				m_truncatedPages++;
+			}
+
+			if (returnedCount>0) {
+				double nanosPerEntry = (double) readDurationNanos / returnedCount;
+				m_avgNanosPerEntry = m_avgNanosPerEntry==0 ? nanosPerEntry : (m_avgNanosPerEntry * (1-SMOOTHING_FACTOR) + nanosPerEntry * SMOOTHING_FACTOR);
+
+				if (hasSizes) {
+					double bytesPerEntry = (double) bytes / returnedCount;
+					m_avgBytesPerEntry = m_avgBytesPerEntry==0 ? bytesPerEntry : (m_avgBytesPerEntry * (1-SMOOTHING_FACTOR) + bytesPerEntry * SMOOTHING_FACTOR);
+
+					long count = (long) (m_targetBufferSize / Math.max(1, m_avgBytesPerEntry));
+					m_nextReturnCount = (int) Math.max(m_minReturnCount, Math.min(m_maxReturnCount, count));
+				}
+			}
+			nextReturnCount = m_nextReturnCount;
+		}
+
+		pageRead(requestedCount, returnedCount, hasSizes ? bytes : -1, readDurationNanos, nextReturnCount);
+	}
+
+	/**
+	 * Computes the number of bytes an entry occupied in the NIF summary buffer
+	 *
+	 * @param returnMask read mask
+	 * @param entry entry
+	 * @return size in bytes or -1 if unknown (e.g. when reading {@link ReadMask#SUMMARY})
+	 */
+	static int estimateBufferSize(EnumSet<ReadMask> returnMask, NotesViewEntryData entry) {
+		int bytes = 0;
+
+		if (returnMask.contains(ReadMask.NOTEID)) bytes += 4;
+		if (returnMask.contains(ReadMask.NOTEUNID)) bytes += 16;
+		if (returnMask.contains(ReadMask.NOTECLASS)) bytes += 2;
+		if (returnMask.contains(ReadMask.INDEXSIBLINGS)) bytes += 4;
+		if (returnMask.contains(ReadMask.INDEXCHILDREN)) bytes += 4;
+		if (returnMask.contains(ReadMask.INDEXDESCENDANTS)) bytes += 4;
+		if (returnMask.contains(ReadMask.INDEXANYUNREAD)) bytes += 2;
+		if (returnMask.contains(ReadMask.INDENTLEVELS)) bytes += 2;
+		if (returnMask.contains(ReadMask.SCORE)) bytes += 2;
+		if (returnMask.contains(ReadMask.INDEXUNREAD)) bytes += 2;
+
+		if (returnMask.contains(ReadMask.INDEXPOSITION)) {
+			int[] pos = entry.getPosition();
+			//WORD level, BYTE minlevel, BYTE maxlevel, DWORD tumbler[level+1]
+			bytes += 4 + 4 * (pos==null ? 1 : pos.length);
+		}
+
+		if (returnMask.contains(ReadMask.SUMMARYVALUES)) {
+			int[] sizes = entry.getColumnValueSizesInBytes();
+			if (sizes==null) {
+				//entry skipped by NIF in differential reads
+				if (!entry.hasAnyColumnValues()) {
+					return bytes;
+				}
+				return -1;
+			}
+			//ITEM_VALUE_TABLE header, one WORD per value length and the values including data type
+			bytes += 4 + 2 * sizes.length;
+			for (int i=0; i<sizes.length; i++) {
+				bytes += sizes[i];
+			}
+		}
+		else if (returnMask.contains(ReadMask.SUMMARY)) {
+			return -1;
+		}
+
+		return bytes;
+	}
+
+	/**
+	 * Override this method to collect metrics about the page sizes. Empty by default.
+	 *
+	 * @param requestedCount number of entries requested from NIF
+	 * @param returnedCount number of entries returned by NIF
+	 * @param bytes summary buffer bytes of the returned entries or -1 if unknown
+	 * @param readDurationNanos duration of the NIF call and buffer decoding in nanoseconds
+	 * @param nextReturnCount number of entries that will be requested in the next call
+	 */
+	protected void pageRead(int requestedCount, int returnedCount, int bytes, long readDurationNanos, int nextReturnCount) {
+		//
+	}
+
+	/**
+	 * Returns the average number of summary buffer bytes per entry
+	 *
+	 * @return bytes or 0 if not measured yet
+	 */
+	public synchronized double getAverageBytesPerEntry() {
+		return m_avgBytesPerEntry;
+	}
+
+	/**
+	 * Returns the average read and decode time per entry
+	 *
+	 * @return time in nanoseconds or 0 if not measured yet
+	 */
+	public synchronized double getAverageNanosPerEntry() {
+		return m_avgNanosPerEntry;
+	}
+
+	/**
+	 * Returns the total number of NIF calls measured
+	 *
+	 * @return count
+	 */
+	public synchronized long getPagesRead() {
+		return m_pagesRead;
+	}
+
+	/**
+	 * Returns the number of NIF calls that returned less entries than requested, because
+	 * the summary buffer was full
+	 *
+	 * @return count
+	 */
+	public synchronized long getTruncatedPages() {
+		return m_truncatedPages;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "ViewPageSizeTuner [nextReturnCount="+m_nextReturnCount+", avgBytesPerEntry="+m_avgBytesPerEntry+
+				", avgNanosPerEntry="+m_avgNanosPerEntry+", pagesRead="+m_pagesRead+", truncatedPages="+m_truncatedPages+"]";
+	}
+}
@@ -0,0 +1,510 @@
+package com.mindoo.domino.jna.formula;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.mindoo.domino.jna.NotesNote;
+import com.mindoo.domino.jna.NotesSearch;
+import com.mindoo.domino.jna.errors.FormulaCompilationError;
+import com.mindoo.domino.jna.errors.NotesErrorUtils;
+import com.mindoo.domino.jna.formula.FormulaExecution.FormulaExecutionResult;
+import com.mindoo.domino.jna.internal.Mem32;
+import com.mindoo.domino.jna.internal.Mem64;
+import com.mindoo.domino.jna.internal.SizeLimitedLRUCache;
+import com.mindoo.domino.jna.internal.ViewFormulaCompiler;
+import com.mindoo.domino.jna.utils.PlatformUtils;
+import com.sun.jna.Memory;
+import com.sun.jna.Pointer;
+import com.sun.jna.ptr.IntByReference;
+
+/**
+ * Process wide cache for compiled formulas, keyed by the formula text.<br>
+ * <br>
+ * Compiling a formula with NSFFormulaCompile is much more expensive than running it. This
+ * cache compiles each formula once, keeps the compiled formula in memory and evicts
+ * rarely used formulas when the total size of all compiled formulas exceeds the
+ * maximum size.<br>
+ * <br>
+ * For formula evaluation, each cached formula has a pool of {@link FormulaExecution} objects
+ * with their own compute context. A thread checks out an instance via {@link #checkout(String)}
+ * for exclusive use and returns it via {@link #checkin(FormulaExecution)}, so that many threads can
+ * evaluate the same formula in parallel without compiling it again.<br>
+ * <br>
+ * Pooled {@link FormulaExecution} objects are not bound to the {@link com.mindoo.domino.jna.gc.NotesGC}
+ * context of a thread. They are recycled when their formula gets evicted from the cache or when the
+ * pool of the formula or the whole cache already contains enough idle instances. The size limit of the
+ * cache only covers the compiled formulas, the number of idle compute contexts is limited separately.<br>
+ * <br>
+ * The idle compute contexts hold native memory of the Notes runtime. Call {@link #clear()} before
+ * the Notes runtime gets terminated, e.g. before calling {@link com.mindoo.domino.jna.utils.NotesInitUtils#notesTerm()};
+ * there is no JVM shutdown hook, because the runtime may already be gone when it runs.<br>
+ * <br>
+ * The cache is also used by {@link NotesSearch} for selection formulas with column formulas,
+ * which is how {@link com.mindoo.domino.jna.NotesIDTable#filter(com.mindoo.domino.jna.NotesDatabase, String)},
+ * {@link com.mindoo.domino.jna.NotesCollection#select(String, boolean)} and the sync classes avoid recompiling
+ * the same formula for every call.
+ *
+ * @author Karsten Lehmann
+ */
+public class CompiledFormulaCache {
+	/** default maximum size of all cached formulas in bytes */
+	public static final int DEFAULT_MAX_SIZE_BYTES = 4 * 1024 * 1024;
+	/** factor for the number of processors to compute the default maximum of idle compute contexts of all formulas */
+	public static final int DEFAULT_MAX_IDLE_EXECUTIONS_PER_PROCESSOR = 4;
+
+	private static volatile CompiledFormulaCache m_instance;
+
+	private final FormulaLRUCache m_cache;
+	private final int m_maxIdleExecutionsPerFormula;
+	private final int m_maxIdleExecutions;
+	/** number of idle {@link FormulaExecution} objects of all formulas */
+	private final AtomicInteger m_idleExecutionCount = new AtomicInteger();
+
+	private final LongAdder m_compileCount = new LongAdder();
+	private final LongAdder m_compileTimeNanos = new LongAdder();
+	private final AtomicLong m_maxCompileTimeNanos = new AtomicLong();
+	private final LongAdder m_checkoutCount = new LongAdder();
+	private final LongAdder m_computeStartCount = new LongAdder();
+
+	/**
+	 * Returns the process wide cache instance
+	 *
+	 * @return cache
+	 */
+	public static CompiledFormulaCache getInstance() {
+		if (m_instance==null) {
+			synchronized (CompiledFormulaCache.class) {
+				if (m_instance==null) {
+					int processors = Runtime.getRuntime().availableProcessors();
+					m_instance = new CompiledFormulaCache("CompiledFormulas", DEFAULT_MAX_SIZE_BYTES,
+							processors, DEFAULT_MAX_IDLE_EXECUTIONS_PER_PROCESSOR * processors);
+				}
+			}
+		}
+		return m_instance;
+	}
+
+	/**
+	 * Creates a new cache
+	 *
+	 * @param name name for statistics or null
+	 * @param maxSizeBytes maximum size of all compiled formulas and formula texts
+	 * @param maxIdleExecutionsPerFormula maximum number of idle {@link FormulaExecution} objects to keep per formula
+	 * @param maxIdleExecutions maximum number of idle {@link FormulaExecution} objects to keep for all formulas
+	 */
+	public CompiledFormulaCache(String name, int maxSizeBytes, int maxIdleExecutionsPerFormula, int maxIdleExecutions) {
+		if (maxIdleExecutionsPerFormula<0)
+			throw new IllegalArgumentException("Max idle executions per formula cannot be negative: "+maxIdleExecutionsPerFormula);
+		if (maxIdleExecutions<0)
+			throw new IllegalArgumentException("Max idle executions cannot be negative: "+maxIdleExecutions);
+
+		m_cache = new FormulaLRUCache(name, maxSizeBytes);
+		m_maxIdleExecutionsPerFormula = maxIdleExecutionsPerFormula;
+		m_maxIdleExecutions = maxIdleExecutions;
+	}
+
+	/**
+	 * Returns the maximum number of idle {@link FormulaExecution} objects kept per formula
+	 *
+	 * @return count
+	 */
+	public int getMaxIdleExecutionsPerFormula() {
+		return m_maxIdleExecutionsPerFormula;
+	}
+
+	/**
+	 * Returns the maximum number of idle {@link FormulaExecution} objects kept for all formulas
+	 *
+	 * @return count
+	 */
+	public int getMaxIdleExecutions() {
+		return m_maxIdleExecutions;
+	}
+
+	/**
+	 * Checks out a {@link FormulaExecution} for exclusive use by the current thread. The formula
+	 * is compiled on first use. Call {@link #checkin(FormulaExecution)} when you are done, preferably
+	 * in a finally block.
+	 *
+	 * @param formula formula
+	 * @return formula execution
+	 * @throws FormulaCompilationError if formula has wrong syntax
+	 */
+	public FormulaExecution checkout(String formula) throws FormulaCompilationError {
+		CachedFormula cachedFormula = getCachedFormula(new FormulaKey(formula, null, false));
+		m_checkoutCount.increment();
+
+		FormulaExecution execution = cachedFormula.m_idleExecutions.poll();
+		if (execution!=null) {
+			cachedFormula.m_idleCount.decrementAndGet();
+			m_idleExecutionCount.decrementAndGet();
+			return execution;
+		}
+
+		execution = new FormulaExecution(cachedFormula);
+		m_computeStartCount.increment();
+		return execution;
+	}
+
+	/**
+	 * Returns a {@link FormulaExecution} to its pool after {@link #checkout(String)}.
+	 * The instance must not be used by the caller afterwards.
+	 *
+	 * @param execution formula execution
+	 */
+	public void checkin(FormulaExecution execution) {
+		CachedFormula cachedFormula = execution.m_cachedFormula;
+		if (cachedFormula==null || cachedFormula.m_owner!=this)
+			throw new IllegalArgumentException("Formula execution has not been checked out from this cache: "+execution);
+
+		if (execution.isRecycled()) {
+			return;
+		}
+
+		execution.setPreferNotesTimeDates(false);
+
+		if (cachedFormula.m_disposed) {
+			execution.recycle();
+			return;
+		}
+		if (cachedFormula.m_idleCount.incrementAndGet() > m_maxIdleExecutionsPerFormula) {
+			//pool is full
+			cachedFormula.m_idleCount.decrementAndGet();
+			execution.recycle();
+			return;
+		}
+		if (m_idleExecutionCount.incrementAndGet() > m_maxIdleExecutions) {
+			//enough idle compute contexts in the whole cache
+			m_idleExecutionCount.decrementAndGet();
+			cachedFormula.m_idleCount.decrementAndGet();
+			execution.recycle();
+			return;
+		}
+
+		cachedFormula.m_idleExecutions.offer(execution);
+
+		if (cachedFormula.m_disposed) {
+			//formula got evicted while we added the execution
+			cachedFormula.recycleIdleExecutions();
+		}
+	}
+
+	/**
+	 * Evaluates a formula on a note using a pooled {@link FormulaExecution}
+	 *
+	 * @param formula formula
+	 * @param note note or null
+	 * @return computation result
+	 * @throws FormulaCompilationError if formula has wrong syntax
+	 */
+	public List<Object> evaluate(String formula, NotesNote note) throws FormulaCompilationError {
+		return evaluateExt(formula, note).getValue();
+	}
+
+	/**
+	 * Evaluates a formula on a note using a pooled {@link FormulaExecution}. Provides extended information.
+	 *
+	 * @param formula formula
+	 * @param note note or null
+	 * @return computation result with flags
+	 * @throws FormulaCompilationError if formula has wrong syntax
+	 */
+	public FormulaExecutionResult evaluateExt(String formula, NotesNote note) throws FormulaCompilationError {
+		FormulaExecution execution = checkout(formula);
+		try {
+			return execution.evaluateExt(note);
+		}
+		finally {
+			checkin(execution);
+		}
+	}
+
+	/**
+	 * Returns the compiled data of a selection formula combined with column formulas as
+	 * produced by {@link ViewFormulaCompiler#b64_compile(String, LinkedHashMap)}
+	 *
+	 * @param selectionFormula selection formula
+	 * @param columnItemNamesAndFormulas map with programmatic column names as keys and their formula as values or null
+	 * @return compiled formula, must not be modified
+	 * @throws FormulaCompilationError if a formula has wrong syntax
+	 */
+	public Memory getCompiledSearchFormula(String selectionFormula, LinkedHashMap<String,String> columnItemNamesAndFormulas)
+			throws FormulaCompilationError {
+		LinkedHashMap<String,String> columnsCopy = columnItemNamesAndFormulas==null ? null : new LinkedHashMap<String,String>(columnItemNamesAndFormulas);
+		return getCachedFormula(new FormulaKey(selectionFormula, columnsCopy, true)).getCompiledFormula();
+	}
+
+	private CachedFormula getCachedFormula(FormulaKey key) {
+		CachedFormula cachedFormula = m_cache.get(key);
+		if (cachedFormula!=null) {
+			return cachedFormula;
+		}
+
+		long t0=System.nanoTime();
+		Memory compiledFormula = key.m_searchFormula ? compileSearchFormula(key) : compileFormula(key.m_formula);
+		long compileTimeNanos = System.nanoTime() - t0;
+
+		m_compileCount.increment();
+		m_compileTimeNanos.add(compileTimeNanos);
+		long maxNanos;
+		while (compileTimeNanos > (maxNanos = m_maxCompileTimeNanos.get())) {
+			if (m_maxCompileTimeNanos.compareAndSet(maxNanos, compileTimeNanos)) {
+				break;
+			}
+		}
+
+		cachedFormula = new CachedFormula(this, key.m_formula, compiledFormula);
+		m_cache.put(key, cachedFormula);
+		if (!m_cache.containsKey(key)) {
+			//too large to be cached; we can still use it, but should not pool executions
+			cachedFormula.m_disposed = true;
+		}
+		return cachedFormula;
+	}
+
+	private static Memory compileFormula(String formula) throws FormulaCompilationError {
+		FormulaExecution compiler = new FormulaExecution(formula);
+		try {
+			byte[] compiledFormula = compiler.getAdapter(byte[].class);
+			return toMemory(compiledFormula);
+		}
+		finally {
+			compiler.recycle();
+		}
+	}
+
+	private static Memory compileSearchFormula(FormulaKey key) throws FormulaCompilationError {
+		byte[] compiledFormula;
+
+		if (PlatformUtils.is64Bit()) {
+			long hFormula = ViewFormulaCompiler.b64_compile(key.m_formula, key.m_columnItemNamesAndFormulas);
+			try {
+				IntByReference retSize = new IntByReference();
+				short result = Mem64.OSMemGetSize(hFormula, retSize);
+				NotesErrorUtils.checkResult(result);
+
+				Pointer ptr = Mem64.OSLockObject(hFormula);
+				try {
+					compiledFormula = ptr.getByteArray(0, retSize.getValue());
+				}
+				finally {
+					Mem64.OSUnlockObject(hFormula);
+				}
+			}
+			finally {
+				short result = Mem64.OSMemFree(hFormula);
+				NotesErrorUtils.checkResult(result);
+			}
+		}
+		else {
+			int hFormula = ViewFormulaCompiler.b32_compile(key.m_formula, key.m_columnItemNamesAndFormulas);
+			try {
+				IntByReference retSize = new IntByReference();
+				short result = Mem32.OSMemGetSize(hFormula, retSize);
+				NotesErrorUtils.checkResult(result);
+
+				Pointer ptr = Mem32.OSLockObject(hFormula);
+				try {
+					compiledFormula = ptr.getByteArray(0, retSize.getValue());
+				}
+				finally {
+					Mem32.OSUnlockObject(hFormula);
+				}
+			}
+			finally {
+				short result = Mem32.OSMemFree(hFormula);
+				NotesErrorUtils.checkResult(result);
+			}
+		}
+		return toMemory(compiledFormula);
+	}
+
+	private static Memory toMemory(byte[] data) {
+		Memory mem = new Memory(data.length);
+		mem.write(0, data, 0, data.length);
+		return mem;
+	}
+
+	/**
+	 * Removes all formulas from the cache and recycles their idle {@link FormulaExecution} objects.
+	 * Must be called before the Notes runtime gets terminated.
+	 */
+	public void clear() {
+		m_cache.clear();
+	}
+
+	/**
+	 * Returns a snapshot of the cache statistics
+	 *
+	 * @return statistics
+	 */
+	public CompiledFormulaCacheStatistics getStatistics() {
+		return new CompiledFormulaCacheStatistics(m_cache.getStatistics(), m_compileCount.sum(),
+				m_compileTimeNanos.sum(), m_maxCompileTimeNanos.get(), m_checkoutCount.sum(), m_computeStartCount.sum(),
+				m_idleExecutionCount.get());
+	}
+
+	/**
+	 * Resets all counters of the statistics
+	 */
+	public void resetStatistics() {
+		m_cache.resetStatistics();
+		m_compileCount.reset();
+		m_compileTimeNanos.reset();
+		m_maxCompileTimeNanos.set(0);
+		m_checkoutCount.reset();
+		m_computeStartCount.reset();
+	}
+
+	@Override
+	public String toString() {
+		return "CompiledFormulaCache [name="+m_cache.getName()+", size="+m_cache.getCurrentCacheSizeInUnits()+"]";
+	}
+
+	/**
+	 * Cache key, combining the formula text with the column formulas of search formulas
+	 */
+	private static class FormulaKey {
+		private final String m_formula;
+		private final LinkedHashMap<String,String> m_columnItemNamesAndFormulas;
+		private final boolean m_searchFormula;
+		private final int m_hashCode;
+
+		public FormulaKey(String formula, LinkedHashMap<String,String> columnItemNamesAndFormulas, boolean searchFormula) {
+			if (formula==null)
+				throw new IllegalArgumentException("Formula cannot be null");
+
+			m_formula = formula;
+			m_columnItemNamesAndFormulas = columnItemNamesAndFormulas;
+			m_searchFormula = searchFormula;
+
+			int hashCode = formula.hashCode();
+			if (columnItemNamesAndFormulas!=null) {
+				hashCode = 31 * hashCode + columnItemNamesAndFormulas.hashCode();
+			}
+			m_hashCode = 31 * hashCode + (searchFormula ? 1 : 0);
+		}
+
+		/**
+		 * Returns the number of characters of all formulas and column names
+		 *
+		 * @return length
+		 */
+		public int getTextLength() {
+			int length = m_formula.length();
+			if (m_columnItemNamesAndFormulas!=null) {
+				for (Entry<String,String> currEntry : m_columnItemNamesAndFormulas.entrySet()) {
+					length += currEntry.getKey().length();
+					if (currEntry.getValue()!=null) {
+						length += currEntry.getValue().length();
+					}
+				}
+			}
+			return length;
+		}
+
+		@Override
+		public int hashCode() {
+			return m_hashCode;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (!(obj instanceof FormulaKey))
+				return false;
+
+			FormulaKey other = (FormulaKey) obj;
+			if (m_hashCode != other.m_hashCode || m_searchFormula != other.m_searchFormula)
+				return false;
+			if (!m_formula.equals(other.m_formula))
+				return false;
+			if (m_columnItemNamesAndFormulas==null) {
+				return other.m_columnItemNamesAndFormulas==null;
+			}
+			if (other.m_columnItemNamesAndFormulas==null) {
+				return false;
+			}
+			if (m_columnItemNamesAndFormulas.size() != other.m_columnItemNamesAndFormulas.size()) {
+				return false;
+			}
+			//column order is relevant for the compiled formula
+			Iterator<Entry<String,String>> otherEntries = other.m_columnItemNamesAndFormulas.entrySet().iterator();
+			for (Entry<String,String> currEntry : m_columnItemNamesAndFormulas.entrySet()) {
+				if (!currEntry.equals(otherEntries.next())) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Cache entry with the compiled formula and the pool of idle {@link FormulaExecution} objects
+	 */
+	static class CachedFormula {
+		private final CompiledFormulaCache m_owner;
+		private final String m_formula;
+		private final Memory m_compiledFormula;
+		private final ConcurrentLinkedQueue<FormulaExecution> m_idleExecutions = new ConcurrentLinkedQueue<FormulaExecution>();
+		private final AtomicInteger m_idleCount = new AtomicInteger();
+		private volatile boolean m_disposed;
+
+		private CachedFormula(CompiledFormulaCache owner, String formula, Memory compiledFormula) {
+			m_owner = owner;
+			m_formula = formula;
+			m_compiledFormula = compiledFormula;
+		}
+
+		String getFormula() {
+			return m_formula;
+		}
+
+		Memory getCompiledFormula() {
+			return m_compiledFormula;
+		}
+
+		private void dispose() {
+			m_disposed = true;
+			recycleIdleExecutions();
+		}
+
+		private void recycleIdleExecutions() {
+			FormulaExecution execution;
+			while ((execution = m_idleExecutions.poll()) != null) {
+				m_idleCount.decrementAndGet();
+				m_owner.m_idleExecutionCount.decrementAndGet();
+				execution.recycle();
+			}
+		}
+	}
+
+	private static class FormulaLRUCache extends SizeLimitedLRUCache<FormulaKey, CachedFormula> {
+
+		public FormulaLRUCache(String name, int maxSizeUnits) {
+			super(name, maxSizeUnits);
+		}
+
+		/**
+		 * Computes the weight of the compiled formula. The idle compute contexts are not included,
+		 * because their number changes after insertion; they are limited by the maximum number of
+		 * idle executions instead.
+		 */
+		@Override
+		protected int computeSize(FormulaKey key, CachedFormula value) {
+			return key.getTextLength()*2 + (int) value.getCompiledFormula().size();
+		}
+
+		@Override
+		protected void entryRemoved(FormulaKey key, CachedFormula value) {
+			value.dispose();
+		}
+	}
+}
@@ -0,0 +1,131 @@
+package com.mindoo.domino.jna.formula;
+
+import com.mindoo.domino.jna.utils.CacheStatistics;
+
+/**
+ * Snapshot of the usage statistics of a {@link CompiledFormulaCache}
+ *
+ * @author Karsten Lehmann
+ */
+public class CompiledFormulaCacheStatistics {
+	private final CacheStatistics m_cacheStatistics;
+	private final long m_compileCount;
+	private final long m_totalCompileTimeNanos;
+	private final long m_maxCompileTimeNanos;
+	private final long m_checkoutCount;
+	private final long m_computeStartCount;
+	private final int m_idleExecutionCount;
+
+	public CompiledFormulaCacheStatistics(CacheStatistics cacheStatistics, long compileCount, long totalCompileTimeNanos,
+			long maxCompileTimeNanos, long checkoutCount, long computeStartCount, int idleExecutionCount) {
+		m_cacheStatistics = cacheStatistics;
+		m_compileCount = compileCount;
+		m_totalCompileTimeNanos = totalCompileTimeNanos;
+		m_maxCompileTimeNanos = maxCompileTimeNanos;
+		m_checkoutCount = checkoutCount;
+		m_computeStartCount = computeStartCount;
+		m_idleExecutionCount = idleExecutionCount;
+	}
+
+	/**
+	 * Returns hit, miss and eviction counts and the size of the compiled formulas
+	 *
+	 * @return statistics
+	 */
+	public CacheStatistics getCacheStatistics() {
+		return m_cacheStatistics;
+	}
+
+	/**
+	 * Returns the number of formula lookups that found a compiled formula
+	 *
+	 * @return count
+	 */
+	public long getHitCount() {
+		return m_cacheStatistics.getHitCount();
+	}
+
+	/**
+	 * Returns the number of formula lookups that required compiling the formula
+	 *
+	 * @return count
+	 */
+	public long getMissCount() {
+		return m_cacheStatistics.getMissCount();
+	}
+
+	/**
+	 * Returns the number of compiled formulas
+	 *
+	 * @return count
+	 */
+	public long getCompileCount() {
+		return m_compileCount;
+	}
+
+	/**
+	 * Returns the time spent compiling formulas
+	 *
+	 * @return time in nanoseconds
+	 */
+	public long getTotalCompileTimeNanos() {
+		return m_totalCompileTimeNanos;
+	}
+
+	/**
+	 * Returns the average time to compile a formula
+	 *
+	 * @return time in nanoseconds, 0 if no formula has been compiled yet
+	 */
+	public double getAverageCompileTimeNanos() {
+		return m_compileCount==0 ? 0 : (double) m_totalCompileTimeNanos / m_compileCount;
+	}
+
+	/**
+	 * Returns the time spent for the slowest formula compilation
+	 *
+	 * @return time in nanoseconds
+	 */
+	public long getMaxCompileTimeNanos() {
+		return m_maxCompileTimeNanos;
+	}
+
+	/**
+	 * Returns how often a {@link FormulaExecution} has been checked out
+	 *
+	 * @return count
+	 */
+	public long getCheckoutCount() {
+		return m_checkoutCount;
+	}
+
+	/**
+	 * Returns how often a new compute context had to be started because the
+	 * pool did not contain an idle {@link FormulaExecution}
+	 *
+	 * @return count
+	 */
+	public long getComputeStartCount() {
+		return m_computeStartCount;
+	}
+
+	/**
+	 * Returns the number of idle {@link FormulaExecution} objects with their compute contexts
+	 * in the pools of all formulas
+	 *
+	 * @return count
+	 */
+	public int getIdleExecutionCount() {
+		return m_idleExecutionCount;
+	}
+
+	@Override
+	public String toString() {
+		return "CompiledFormulaCacheStatistics [hits="+getHitCount()+", misses="+getMissCount()+
+				", hitRate="+m_cacheStatistics.getHitRate()+", evictions="+m_cacheStatistics.getEvictionCount()+
+				", entries="+m_cacheStatistics.getEntryCount()+", size="+m_cacheStatistics.getSize()+
+				", compiles="+m_compileCount+", avgCompileNanos="+getAverageCompileTimeNanos()+
+				", maxCompileNanos="+m_maxCompileTimeNanos+", checkouts="+m_checkoutCount+
+				", computeStarts="+m_computeStartCount+", idleExecutions="+m_idleExecutionCount+"]";
+	}
+}
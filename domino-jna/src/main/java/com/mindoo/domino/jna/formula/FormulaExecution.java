@@ -3,12 +3,22 @@ package com.mindoo.domino.jna.formula;
 import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Collections;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import com.mindoo.domino.jna.IAdaptable;
+import com.mindoo.domino.jna.NotesDatabase;
+import com.mindoo.domino.jna.NotesDatabase.INoteOpenCallback;
+import com.mindoo.domino.jna.NotesIDTable;
 import com.mindoo.domino.jna.NotesItem;
 import com.mindoo.domino.jna.NotesNote;
 import com.mindoo.domino.jna.NotesTimeDate;
+import com.mindoo.domino.jna.constants.GetNotes;
+import com.mindoo.domino.jna.constants.OpenNote;
 import com.mindoo.domino.jna.errors.FormulaCompilationError;
 import com.mindoo.domino.jna.errors.INotesErrorConstants;
 import com.mindoo.domino.jna.errors.NotesError;
@@ -21,6 +31,7 @@ import com.mindoo.domino.jna.internal.Mem32;
 import com.mindoo.domino.jna.internal.Mem64;
 import com.mindoo.domino.jna.internal.NotesNativeAPI32;
 import com.mindoo.domino.jna.internal.NotesNativeAPI64;
+import com.mindoo.domino.jna.utils.NotesInitUtils;
 import com.mindoo.domino.jna.utils.NotesStringUtils;
 import com.mindoo.domino.jna.utils.PlatformUtils;
 import com.sun.jna.Memory;
@@ -35,6 +46,8 @@ import com.sun.jna.ptr.ShortByReference;
  * @author Karsten Lehmann
  */
 public class FormulaExecution implements IRecyclableNotesObject, IAdaptable {
+	private static final int DEFAULT_EVALUATION_BATCH_SIZE = 500;
+	
 	private String m_formula;
 	
 	private long m_hFormula64;
@@ -46,6 +59,10 @@ public class FormulaExecution implements IRecyclableNotesObject, IAdaptable {
 	private int m_compiledFormulaLength;
 	
 	private Pointer m_ptrCompiledFormula;
+	/** compiled formula shared by the pooled instances of a {@link CompiledFormulaCache} */
+	private Memory m_compiledFormulaMem;
+	/** cache entry if this instance is pooled by a {@link CompiledFormulaCache} */
+	CompiledFormulaCache.CachedFormula m_cachedFormula;
 	
 	private boolean m_preferNotesTimeDates;
 
@@ -148,6 +165,37 @@ public class FormulaExecution implements IRecyclableNotesObject, IAdaptable {
 		}
 	}
 	
+	/**
+	 * Creates an instance for a {@link CompiledFormulaCache} that starts a compute context for
+	 * an already compiled formula. The instance is not registered with {@link NotesGC}, because
+	 * it may be used by several threads and has to outlive their auto GC blocks; the cache
+	 * recycles it when the formula gets evicted.
+	 * 
+	 * @param cachedFormula cache entry with the compiled formula
+	 */
+	FormulaExecution(CompiledFormulaCache.CachedFormula cachedFormula) {
+		m_formula = cachedFormula.getFormula();
+		m_cachedFormula = cachedFormula;
+		m_compiledFormulaMem = cachedFormula.getCompiledFormula();
+		m_compiledFormulaLength = (int) m_compiledFormulaMem.size();
+		m_ptrCompiledFormula = m_compiledFormulaMem;
+		
+		short computeFlags = 0;
+		
+		if (PlatformUtils.is64Bit()) {
+			LongByReference rethCompute = new LongByReference();
+			short result = NotesNativeAPI64.get().NSFComputeStart(computeFlags, m_ptrCompiledFormula, rethCompute);
+			NotesErrorUtils.checkResult(result);
+			m_hCompute64 = rethCompute.getValue();
+		}
+		else {
+			IntByReference rethCompute = new IntByReference();
+			short result = NotesNativeAPI32.get().NSFComputeStart(computeFlags, m_ptrCompiledFormula, rethCompute);
+			NotesErrorUtils.checkResult(result);
+			m_hCompute32 = rethCompute.getValue();
+		}
+	}
+	
 	@SuppressWarnings("unchecked")
 	@Override
 	public <T> T getAdapter(Class<T> clazz) {
@@ -198,11 +246,9 @@ public class FormulaExecution implements IRecyclableNotesObject, IAdaptable {
 	/**
 	 * Convenience method to execute a formula on a single note and return the result as a string.<br>
 	 * <br>
-	 * <b>Please note:<br>
-	 * If the same formula should be run
-	 * on multiple notes, you should consider to create a shared instance of {@link FormulaExecution}
-	 * and run its {@link #evaluate(NotesNote)} method. Then the formula is parsed and compiled only
-	 * once, which results in better performance and optimized memory usage.</b>
+	 * The compiled formula and its compute context are taken from the process wide
+	 * {@link CompiledFormulaCache#getInstance()}, so repeated calls with the same formula
+	 * do not compile it again.
 	 * 
 	 * @param formula formula
 	 * @param note note
@@ -221,11 +267,9 @@ public class FormulaExecution implements IRecyclableNotesObject, IAdaptable {
 	/**
 	 * Convenience method to execute a formula on a single note.<br>
 	 * <br>
-	 * <b>Please note:<br>
-	 * If the same formula should be run
-	 * on multiple notes, you should consider to create a shared instance of {@link FormulaExecution}
-	 * and run its {@link #evaluate(NotesNote)} method. Then the formula is parsed and compiled only
-	 * once, which results in better performance and optimized memory usage.</b>
+	 * The compiled formula and its compute context are taken from the process wide
+	 * {@link CompiledFormulaCache#getInstance()}, so repeated calls with the same formula
+	 * do not compile it again.
 	 * 
 	 * @param formula formula
 	 * @param note note
@@ -233,24 +277,15 @@ public class FormulaExecution implements IRecyclableNotesObject, IAdaptable {
 	 * @throws FormulaCompilationError if formula has wrong syntax
 	 */
 	public static List<Object> evaluate(String formula, NotesNote note) throws FormulaCompilationError {
-		FormulaExecution instance = new FormulaExecution(formula);
-		try {
-			List<Object> result = instance.evaluate(note);
-			return result;
-		}
-		finally {
-			instance.recycle();
-		}
+		return CompiledFormulaCache.getInstance().evaluate(formula, note);
 	}
 
 	/**
 	 * Convenience method to execute a formula on a single note. Provides extended information.<br>
 	 * <br>
-	 * <b>Please note:<br>
-	 * If the same formula should be run
-	 * on multiple notes, you should consider to create a shared instance of {@link FormulaExecution}
-	 * and run its {@link #evaluate(NotesNote)} method. Then the formula is parsed and compiled only
-	 * once, which results in better performance.</b>
+	 * The compiled formula and its compute context are taken from the process wide
+	 * {@link CompiledFormulaCache#getInstance()}, so repeated calls with the same formula
+	 * do not compile it again.
 	 * 
 	 * @param formula formula
 	 * @param note note
@@ -258,14 +293,7 @@ public class FormulaExecution implements IRecyclableNotesObject, IAdaptable {
 	 * @throws FormulaCompilationError if formula has wrong syntax
 	 */
 	public static FormulaExecutionResult evaluateExt(String formula, NotesNote note) throws FormulaCompilationError {
-		FormulaExecution instance = new FormulaExecution(formula);
-		try {
-			FormulaExecutionResult result = instance.evaluateExt(note);
-			return result;
-		}
-		finally {
-			instance.recycle();
-		}
+		return CompiledFormulaCache.getInstance().evaluateExt(formula, note);
 	}
 	
 	private void checkHandle() {
@@ -273,17 +301,11 @@ public class FormulaExecution implements IRecyclableNotesObject, IAdaptable {
 			if (m_hCompute64==0) {
 				throw new NotesError(0, "Object already recycled");
 			}
-			if (m_hFormula64==0) {
-				throw new NotesError(0, "Object already recycled");
-			}
 		}
 		else {
 			if (m_hCompute32==0) {
 				throw new NotesError(0, "Object already recycled");
 			}
-			if (m_hFormula32==0) {
-				throw new NotesError(0, "Object already recycled");
-			}
 		}
 	}
 	
@@ -473,6 +495,392 @@ public class FormulaExecution implements IRecyclableNotesObject, IAdaptable {
 		}
 	}
 	
+	/**
+	 * Evaluates the formula on many notes of a database, reusing the compute context of
+	 * this instance. The notes are loaded in batches of 500 via
+	 * {@link NotesDatabase#getNotes(int[], EnumSet[], int[], EnumSet, NotesDatabase, com.mindoo.domino.jna.NotesDatabase.IGetNotesCallback, INoteOpenCallback, com.mindoo.domino.jna.NotesDatabase.IObjectAllocCallback, com.mindoo.domino.jna.NotesDatabase.IObjectWriteCallback, NotesTimeDate, com.mindoo.domino.jna.NotesDatabase.IFolderAddCallback)}
+	 * and the results are passed to the callback while the notes are read.
+	 * 
+	 * @param db database
+	 * @param idTable note ids
+	 * @param callback callback to receive the results
+	 */
+	public void evaluateAll(NotesDatabase db, NotesIDTable idTable, EvaluationCallback callback) {
+		evaluateAll(db, idTable.toArray(), null, DEFAULT_EVALUATION_BATCH_SIZE, callback);
+	}
+	
+	/**
+	 * Evaluates the formula on many notes of a database, reusing the compute context of
+	 * this instance. The notes are loaded in batches of 500 and the results are passed
+	 * to the callback while the notes are read.
+	 * 
+	 * @param db database
+	 * @param noteIds note ids
+	 * @param callback callback to receive the results
+	 */
+	public void evaluateAll(NotesDatabase db, int[] noteIds, EvaluationCallback callback) {
+		evaluateAll(db, noteIds, null, DEFAULT_EVALUATION_BATCH_SIZE, callback);
+	}
+	
+	/**
+	 * Evaluates the formula on many notes of a database, reusing the compute context of
+	 * this instance. The notes are loaded in batches and the results are passed
+	 * to the callback while the notes are read.
+	 * 
+	 * @param db database
+	 * @param noteIds note ids
+	 * @param openFlags flags to open the notes or null for default flags
+	 * @param batchSize number of notes to load in one call
+	 * @param callback callback to receive the results
+	 */
+	public void evaluateAll(NotesDatabase db, int[] noteIds, EnumSet<OpenNote> openFlags, int batchSize,
+			EvaluationCallback callback) {
+		checkHandle();
+		if (batchSize<=0)
+			throw new IllegalArgumentException("Batch size must be greater than 0: "+batchSize);
+		
+		evaluateBatches(this, db, noteIds, openFlags, batchSize, new AtomicInteger(), new AtomicBoolean(), callback);
+	}
+	
+	/**
+	 * Evaluates the formula on many notes of a database, reusing the compute context of
+	 * this instance, and returns the results as primitive arrays
+	 * 
+	 * @param db database
+	 * @param noteIds note ids
+	 * @return result columns in the order of the note ids
+	 */
+	public FormulaResultColumns evaluateAllToColumns(NotesDatabase db, int[] noteIds) {
+		final FormulaResultColumns columns = new FormulaResultColumns(noteIds);
+		evaluateAll(db, noteIds, new ColumnsEvaluationCallback(columns));
+		return columns;
+	}
+	
+	/**
+	 * Evaluates a formula on many notes of a database and returns the results as primitive arrays.
+	 * With a <code>threadCount</code> greater than 1, the notes are split into batches that are
+	 * loaded and evaluated by worker threads in parallel; each worker opens its own
+	 * database instance and uses its own compute context from {@link CompiledFormulaCache#getInstance()}.
+	 * 
+	 * @param formula formula
+	 * @param db database
+	 * @param noteIds note ids
+	 * @param threadCount number of worker threads, 1 to evaluate in the current thread
+	 * @return result columns in the order of the note ids
+	 * @throws FormulaCompilationError if formula has wrong syntax
+	 */
+	public static FormulaResultColumns evaluateAllToColumns(String formula, NotesDatabase db, int[] noteIds,
+			int threadCount) throws FormulaCompilationError {
+		FormulaResultColumns columns = new FormulaResultColumns(noteIds);
+		evaluateAll(formula, db, noteIds, null, DEFAULT_EVALUATION_BATCH_SIZE, threadCount, new ColumnsEvaluationCallback(columns));
+		return columns;
+	}
+	
+	/**
+	 * Evaluates a formula on many notes of a database and passes the results to the callback while the
+	 * notes are read. With a <code>threadCount</code> greater than 1, the notes are split into batches that are
+	 * loaded and evaluated by worker threads in parallel; each worker opens its own database instance and uses
+	 * its own compute context from {@link CompiledFormulaCache#getInstance()}. In that case, the callback
+	 * is invoked concurrently from the worker threads and must be thread-safe.<br>
+	 * <br>
+	 * When the callback returns {@link EvaluationCallback.Action#Stop} or a worker fails, the batches that are
+	 * currently loaded get cancelled before the next note is read instead of loading them completely.
+	 * 
+	 * @param formula formula
+	 * @param db database
+	 * @param noteIds note ids
+	 * @param openFlags flags to open the notes or null for default flags
+	 * @param batchSize number of notes to load in one call
+	 * @param threadCount number of worker threads, 1 to evaluate in the current thread
+	 * @param callback callback to receive the results
+	 * @throws FormulaCompilationError if formula has wrong syntax
+	 */
+	public static void evaluateAll(final String formula, NotesDatabase db, final int[] noteIds, final EnumSet<OpenNote> openFlags,
+			final int batchSize, int threadCount, final EvaluationCallback callback) throws FormulaCompilationError {
+		if (batchSize<=0)
+			throw new IllegalArgumentException("Batch size must be greater than 0: "+batchSize);
+		if (threadCount<=0)
+			throw new IllegalArgumentException("Thread count must be greater than 0: "+threadCount);
+		
+		final CompiledFormulaCache cache = CompiledFormulaCache.getInstance();
+		final AtomicInteger nextIndex = new AtomicInteger();
+		final AtomicBoolean stopped = new AtomicBoolean();
+		
+		//compile the formula in the current thread to report syntax errors directly
+		FormulaExecution execution = cache.checkout(formula);
+		
+		int batchCount = (noteIds.length + batchSize - 1) / batchSize;
+		threadCount = Math.min(threadCount, batchCount);
+		
+		if (threadCount<=1) {
+			try {
+				evaluateBatches(execution, db, noteIds, openFlags, batchSize, nextIndex, stopped, callback);
+			}
+			finally {
+				cache.checkin(execution);
+			}
+			return;
+		}
+		cache.checkin(execution);
+		
+		final String server = db.getServer();
+		final String filePath = db.getRelativeFilePath();
+		final String contextUser = db.getContextUser();
+		final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+		
+		Thread[] workers = new Thread[threadCount];
+		for (int i=0; i<threadCount; i++) {
+			workers[i] = new Thread(new Runnable() {
+				
+				@Override
+				public void run() {
+					NotesInitUtils.notesInitThread();
+					try {
+						NotesGC.runWithAutoGC(new Callable<Object>() {
+
+							@Override
+							public Object call() throws Exception {
+								NotesDatabase workerDb = new NotesDatabase(server, filePath, contextUser);
+								FormulaExecution workerExecution = cache.checkout(formula);
+								try {
+									evaluateBatches(workerExecution, workerDb, noteIds, openFlags, batchSize, nextIndex, stopped, callback);
+								}
+								finally {
+									cache.checkin(workerExecution);
+								}
+								return null;
+							}
+						});
+					}
+					catch (Throwable t) {
+						error.compareAndSet(null, t);
+						//stop the other workers
+						stopped.set(true);
+					}
+					finally {
+						NotesInitUtils.notesTermThread();
+					}
+				}
+			}, "Domino JNA formula evaluation #"+(i+1));
+			workers[i].setDaemon(true);
+			workers[i].start();
+		}
+		
+		try {
+			for (Thread currWorker : workers) {
+				currWorker.join();
+			}
+		}
+		catch (InterruptedException e) {
+			stopped.set(true);
+			Thread.currentThread().interrupt();
+			throw new NotesError(0, "Interrupted while waiting for formula evaluation", e);
+		}
+		
+		Throwable t = error.get();
+		if (t instanceof RuntimeException) {
+			throw (RuntimeException) t;
+		}
+		else if (t instanceof Error) {
+			throw (Error) t;
+		}
+		else if (t!=null) {
+			throw new NotesError(0, "Error evaluating formula", t);
+		}
+	}
+	
+	/**
+	 * Thrown in the callback of NSFDbGetNotes to cancel loading the current batch
+	 * when the evaluation has been stopped
+	 */
+	private static class EvaluationStoppedException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+	}
+	
+	/**
+	 * Worker method that takes batches of note ids, loads the notes and evaluates the formula.
+	 * The <code>stopped</code> flag is checked for every loaded note, so a stop request cancels
+	 * the current batch within one note.
+	 * 
+	 * @param execution formula execution
+	 * @param db database
+	 * @param noteIds all note ids
+	 * @param openFlags flags to open the notes or null
+	 * @param batchSize batch size
+	 * @param nextIndex index of the next note to process, shared by all workers
+	 * @param stopped flag to stop all workers
+	 * @param callback callback
+	 */
+	private static void evaluateBatches(final FormulaExecution execution, NotesDatabase db, int[] noteIds,
+			EnumSet<OpenNote> openFlags, int batchSize, AtomicInteger nextIndex, final AtomicBoolean stopped,
+			final EvaluationCallback callback) {
+		
+		EnumSet<OpenNote> useOpenFlags = openFlags==null ? EnumSet.noneOf(OpenNote.class) : openFlags;
+		
+		while (!stopped.get()) {
+			final int start = nextIndex.getAndAdd(batchSize);
+			if (start>=noteIds.length) {
+				break;
+			}
+			final int count = Math.min(batchSize, noteIds.length - start);
+			
+			final int[] batchNoteIds = Arrays.copyOfRange(noteIds, start, start+count);
+			@SuppressWarnings("unchecked")
+			EnumSet<OpenNote>[] batchOpenFlags = (EnumSet<OpenNote>[]) new EnumSet<?>[count];
+			Arrays.fill(batchOpenFlags, useOpenFlags);
+			int[] sinceSeqNum = new int[count];
+			
+			final boolean[] processed = new boolean[count];
+			final int[] nextPos = new int[1];
+			final RuntimeException[] callbackException = new RuntimeException[1];
+			final Error[] callbackError = new Error[1];
+			
+			try {
+				db.getNotes(batchNoteIds, batchOpenFlags, sinceSeqNum, EnumSet.noneOf(GetNotes.class), null, null, new INoteOpenCallback() {
+
+					@Override
+					public void noteOpened(NotesNote note, int noteId, short status) {
+						if (stopped.get()) {
+							//cancel NSFDbGetNotes instead of loading the rest of the batch
+							throw new EvaluationStoppedException();
+						}
+						
+						//notes are usually returned in the requested order
+						int pos = nextPos[0];
+						if (pos>=count || batchNoteIds[pos]!=noteId || processed[pos]) {
+							pos = -1;
+							for (int i=0; i<count; i++) {
+								if (batchNoteIds[i]==noteId && !processed[i]) {
+									pos = i;
+									break;
+								}
+							}
+							if (pos==-1) {
+								return;
+							}
+						}
+						
+						if (status!=0) {
+							//reopened one by one later to get the error details
+							return;
+						}
+						
+						processed[pos] = true;
+						nextPos[0] = pos+1;
+						
+						try {
+							FormulaExecutionResult result = execution.evaluateExt(note);
+							if (callback.resultComputed(start+pos, noteId, result) == EvaluationCallback.Action.Stop) {
+								stopped.set(true);
+							}
+						}
+						catch (RuntimeException e) {
+							callbackException[0] = e;
+							throw e;
+						}
+						catch (Error e) {
+							callbackError[0] = e;
+							throw e;
+						}
+					}
+				}, null, null, null, null);
+			}
+			catch (RuntimeException e) {
+				if (callbackException[0]!=null) {
+					throw callbackException[0];
+				}
+				if (callbackError[0]!=null) {
+					throw callbackError[0];
+				}
+				//remaining notes get opened one by one, unless the evaluation has been stopped
+			}
+			
+			//open notes one by one that have not been returned, e.g. deleted notes
+			for (int i=0; i<count && !stopped.get(); i++) {
+				if (processed[i]) {
+					continue;
+				}
+				
+				NotesNote note;
+				try {
+					note = db.openNoteById(batchNoteIds[i], useOpenFlags);
+				}
+				catch (NotesError e) {
+					if (callback.noteNotLoaded(start+i, batchNoteIds[i], e.getId()) == EvaluationCallback.Action.Stop) {
+						stopped.set(true);
+					}
+					continue;
+				}
+				
+				try {
+					FormulaExecutionResult result = execution.evaluateExt(note);
+					if (callback.resultComputed(start+i, batchNoteIds[i], result) == EvaluationCallback.Action.Stop) {
+						stopped.set(true);
+					}
+				}
+				finally {
+					note.recycle();
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Callback to receive the results of {@link FormulaExecution#evaluateAll(NotesDatabase, int[], EvaluationCallback)}
+	 * 
+	 * @author Karsten Lehmann
+	 */
+	public static abstract class EvaluationCallback {
+		public static enum Action {Continue, Stop}
+		
+		/**
+		 * Method is called for each evaluated note
+		 * 
+		 * @param index index of the note id in the array of note ids
+		 * @param noteId note id
+		 * @param result computation result
+		 * @return action to continue or stop the evaluation
+		 */
+		public abstract Action resultComputed(int index, int noteId, FormulaExecutionResult result);
+		
+		/**
+		 * Method is called for notes that could not be loaded, e.g. because they have been deleted.
+		 * Empty default implementation.
+		 * 
+		 * @param index index of the note id in the array of note ids
+		 * @param noteId note id
+		 * @param status error code
+		 * @return action to continue or stop the evaluation
+		 */
+		public Action noteNotLoaded(int index, int noteId, int status) {
+			return Action.Continue;
+		}
+	}
+	
+	/**
+	 * Callback that writes the results into {@link FormulaResultColumns}. Can be used by several
+	 * threads, because each index is only written once.
+	 */
+	private static class ColumnsEvaluationCallback extends EvaluationCallback {
+		private FormulaResultColumns m_columns;
+		
+		public ColumnsEvaluationCallback(FormulaResultColumns columns) {
+			m_columns = columns;
+		}
+		
+		@Override
+		public Action resultComputed(int index, int noteId, FormulaExecutionResult result) {
+			m_columns.setResult(index, result);
+			return Action.Continue;
+		}
+		
+		@Override
+		public Action noteNotLoaded(int index, int noteId, int status) {
+			m_columns.setError(index, status);
+			return Action.Continue;
+		}
+	}
+	
 	/**
 	 * Formula computation result
 	 * 
@@ -527,7 +935,6 @@ public class FormulaExecution implements IRecyclableNotesObject, IAdaptable {
 				
 				NotesGC.__objectBeeingBeRecycled(FormulaExecution.class, this);
 				m_hFormula64 = 0;
-				m_ptrCompiledFormula=null;
 			}
 		}
 		else {
@@ -543,20 +950,22 @@ public class FormulaExecution implements IRecyclableNotesObject, IAdaptable {
 				
 				NotesGC.__objectBeeingBeRecycled(FormulaExecution.class, this);
 				m_hFormula32 = 0;
-				m_ptrCompiledFormula=null;
 			}
 		}
+		m_ptrCompiledFormula=null;
+		m_compiledFormulaMem=null;
 	}
 
 	@Override
 	public boolean isRecycled() {
+		//instances created by the CompiledFormulaCache only own a compute handle
 		if (PlatformUtils.is64Bit()) {
-			if (m_hFormula64==0) {
+			if (m_hCompute64==0 && m_hFormula64==0) {
 				return true;
 			}
 		}
 		else {
-			if (m_hFormula32==0) {
+			if (m_hCompute32==0 && m_hFormula32==0) {
 				return true;
 			}
 		}
@@ -0,0 +1,158 @@
+package com.mindoo.domino.jna.formula;
+
+import java.util.Arrays;
+import java.util.List;
+
+import com.mindoo.domino.jna.formula.FormulaExecution.FormulaExecutionResult;
+
+/**
+ * Column oriented result of a formula evaluated on many notes via
+ * {@link FormulaExecution#evaluateAllToColumns(com.mindoo.domino.jna.NotesDatabase, int[])}.<br>
+ * <br>
+ * Values are stored in primitive arrays in the order of the note ids passed to the
+ * evaluation, so that large reports do not need one {@link List} per note. For multi value
+ * results, only the first value is stored.
+ *
+ * @author Karsten Lehmann
+ */
+public class FormulaResultColumns {
+	private final int[] m_noteIds;
+	private final double[] m_numbers;
+	private final String[] m_strings;
+	private final boolean[] m_matches;
+	private final boolean[] m_loaded;
+	private final int[] m_errors;
+
+	/**
+	 * Creates a new empty result for the specified note ids
+	 *
+	 * @param noteIds note ids
+	 */
+	FormulaResultColumns(int[] noteIds) {
+		m_noteIds = noteIds;
+		m_numbers = new double[noteIds.length];
+		Arrays.fill(m_numbers, Double.NaN);
+		m_strings = new String[noteIds.length];
+		m_matches = new boolean[noteIds.length];
+		m_loaded = new boolean[noteIds.length];
+		m_errors = new int[noteIds.length];
+	}
+
+	/**
+	 * Stores the computation result for a note
+	 *
+	 * @param index index of the note
+	 * @param result result
+	 */
+	void setResult(int index, FormulaExecutionResult result) {
+		m_loaded[index] = true;
+		m_matches[index] = result.matchesFormula();
+
+		List<Object> value = result.getValue();
+		if (value==null || value.isEmpty()) {
+			m_strings[index] = "";
+			return;
+		}
+
+		Object firstValue = value.get(0);
+		if (firstValue instanceof Number) {
+			m_numbers[index] = ((Number) firstValue).doubleValue();
+		}
+		m_strings[index] = firstValue==null ? "" : firstValue.toString();
+	}
+
+	/**
+	 * Stores an error opening a note
+	 *
+	 * @param index index of the note
+	 * @param status error code
+	 */
+	void setError(int index, int status) {
+		m_errors[index] = status;
+	}
+
+	/**
+	 * Returns the number of notes
+	 *
+	 * @return count
+	 */
+	public int size() {
+		return m_noteIds.length;
+	}
+
+	/**
+	 * Returns the note ids in evaluation order
+	 *
+	 * @return note ids, not copied
+	 */
+	public int[] getNoteIds() {
+		return m_noteIds;
+	}
+
+	/**
+	 * Returns the first value of each result as number
+	 *
+	 * @return numbers, {@link Double#NaN} for non-numeric results and notes that could not be loaded; not copied
+	 */
+	public double[] getNumbers() {
+		return m_numbers;
+	}
+
+	/**
+	 * Returns the first value of each result as string
+	 *
+	 * @return strings, "" for empty results, null for notes that could not be loaded; not copied
+	 */
+	public String[] getStrings() {
+		return m_strings;
+	}
+
+	/**
+	 * Returns whether each note matches the formula, e.g. for SELECT formulas
+	 *
+	 * @return match flags, not copied
+	 */
+	public boolean[] getMatches() {
+		return m_matches;
+	}
+
+	/**
+	 * Returns whether the note at the specified index could be loaded and evaluated
+	 *
+	 * @param index index
+	 * @return true if loaded
+	 */
+	public boolean isLoaded(int index) {
+		return m_loaded[index];
+	}
+
+	/**
+	 * Returns the error code of a note that could not be loaded
+	 *
+	 * @param index index
+	 * @return error code or 0, e.g. if the note has been deleted before it could be read
+	 */
+	public int getError(int index) {
+		return m_errors[index];
+	}
+
+	/**
+	 * Returns the number of notes that could not be loaded
+	 *
+	 * @return count
+	 */
+	public int getNotLoadedCount() {
+		int count = 0;
+		for (boolean currLoaded : m_loaded) {
+			if (!currLoaded) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	@Override
+	public String toString() {
+		return "FormulaResultColumns [size="+m_noteIds.length+", notLoaded="+getNotLoadedCount()+"]";
+	}
+}
@@ -4,12 +4,14 @@ import java.io.PrintWriter;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
 import java.util.HashMap;
-import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicReference;
 
 import com.mindoo.domino.jna.errors.NotesError;
+import com.mindoo.domino.jna.internal.HandleRegistry;
 import com.mindoo.domino.jna.internal.NotesNativeAPI;
 import com.mindoo.domino.jna.utils.PlatformUtils;
 
@@ -36,6 +38,8 @@ import com.mindoo.domino.jna.utils.PlatformUtils;
  */
 public class NotesGC {
 	private static ThreadLocal<DominoGCContext> threadContext = new ThreadLocal<>();
+	private static volatile boolean m_trustedMode = "true".equals(System.getProperty("dominojna.gc.trusted"));
+	private static final NotesGCProfiler m_profiler = NotesGCProfiler.getInstance();
 
 	/**
 	 * Returns the GC context for the current thread
@@ -116,6 +120,16 @@ public class NotesGC {
 		}
 	}
 	
+	/**
+	 * Returns the sampling profiler that records allocation sites and lifetimes of
+	 * the tracked handles to find handle leaks
+	 * 
+	 * @return profiler
+	 */
+	public static NotesGCProfiler getProfiler() {
+		return m_profiler;
+	}
+	
 	/**
 	 * Method to get the current count of open Domino object handles
 	 * 
@@ -123,13 +137,7 @@ public class NotesGC {
 	 */
 	public static int getNumberOfOpenObjectHandles() {
 		DominoGCContext ctx = getThreadContext();
-
-		if (PlatformUtils.is64Bit()) {
-			return ctx.getOpenHandlesDominoObjects64().size();
-		}
-		else {
-			return ctx.getOpenHandlesDominoObjects32().size();
-		}
+		return ctx.getOpenHandlesDominoObjects().size();
 	}
 
 	/**
@@ -139,15 +147,15 @@ public class NotesGC {
 	 */
 	public static int getNumberOfOpenMemoryHandles() {
 		DominoGCContext ctx = getThreadContext();
-
-		if (PlatformUtils.is64Bit()) {
-			return ctx.getOpenHandlesMemory64().size();
-		}
-		else {
-			return ctx.getOpenHandlesMemory32().size();
-		}
+		return ctx.getOpenHandlesMemory().size();
 	}
-
+	
+	/**
+	 * Key of a 64 bit handle in the former per class handle maps
+	 * 
+	 * @deprecated no longer used, open handles are stored in a {@link HandleRegistry}
+	 */
+	@Deprecated
 	public static class HashKey64 {
 		private Class<?> m_clazz;
 		private long m_handle;
@@ -194,6 +202,12 @@ public class NotesGC {
 		}
 	}
 
+	/**
+	 * Key of a 32 bit handle in the former per class handle maps
+	 * 
+	 * @deprecated no longer used, open handles are stored in a {@link HandleRegistry}
+	 */
+	@Deprecated
 	public static class HashKey32 {
 		private Class<?> m_clazz;
 		private int m_handle;
@@ -240,6 +254,32 @@ public class NotesGC {
 		}
 	}
 
+	/**
+	 * Enables or disables the trusted mode. In trusted mode, the handle validity checks
+	 * that run before most native calls ({@link #__b64_checkValidObjectHandle(Class, long)} and
+	 * the other <code>check</code> methods) are skipped, which removes a thread local and a hash
+	 * lookup per call. Handles are still tracked and disposed at the end of the
+	 * {@link #runWithAutoGC(Callable)} block.<br>
+	 * <br>
+	 * Only use this mode for code that is known not to use recycled objects, because
+	 * passing an invalid handle to the C API may crash the JVM. The mode is global and can also be
+	 * enabled with the system property <code>dominojna.gc.trusted=true</code>.
+	 * 
+	 * @param trusted true to skip handle validity checks
+	 */
+	public static void setTrustedMode(boolean trusted) {
+		m_trustedMode = trusted;
+	}
+	
+	/**
+	 * Checks whether handle validity checks are skipped, see {@link #setTrustedMode(boolean)}
+	 * 
+	 * @return true if trusted mode is enabled
+	 */
+	public static boolean isTrustedMode() {
+		return m_trustedMode;
+	}
+
 	/**
 	 * Internal method to register a created Notes object that needs to be recycled
 	 * 
@@ -252,23 +292,14 @@ public class NotesGC {
 		if (obj.isRecycled())
 			throw new NotesError(0, "Object is already recycled");
 		
-		if (PlatformUtils.is64Bit()) {
-			HashKey64 key = new HashKey64(clazz, obj.getHandle64());
-			
-			LinkedHashMap<HashKey64, IRecyclableNotesObject> openHandles = ctx.getOpenHandlesDominoObjects64();
-			IRecyclableNotesObject oldObj = openHandles.put(key, obj);
-			if (oldObj!=null && oldObj!=obj) {
-				throw new IllegalStateException("Duplicate handle detected. Object to store: "+obj+", object found in open handle list: "+oldObj);
-			}
+		long handle = PlatformUtils.is64Bit() ? obj.getHandle64() : obj.getHandle32();
+		IRecyclableNotesObject oldObj = ctx.getOpenHandlesDominoObjects().put(clazz, handle, obj);
+		if (oldObj!=null && oldObj!=obj) {
+			throw new IllegalStateException("Duplicate handle detected. Object to store: "+obj+", object found in open handle list: "+oldObj);
 		}
-		else {
-			HashKey32 key = new HashKey32(clazz, obj.getHandle32());
-			
-			LinkedHashMap<HashKey32, IRecyclableNotesObject> openHandles = ctx.getOpenHandlesDominoObjects32();
-			IRecyclableNotesObject oldObj = openHandles.put(key, obj);
-			if (oldObj!=null && oldObj!=obj) {
-				throw new IllegalStateException("Duplicate handle detected. Object to store: "+obj+", object found in open handle list: "+oldObj);
-			}
+		
+		if (m_profiler.isEnabled()) {
+			m_profiler.handleCreated(ctx, clazz, handle, obj.getClass());
 		}
 		
 		if (ctx.isWriteDebugMessages()) {
@@ -287,19 +318,14 @@ public class NotesGC {
 		if (mem.isFreed())
 			throw new NotesError(0, "Memory is already freed");
 		
-		if (PlatformUtils.is64Bit()) {
-			LinkedHashMap<Long, IAllocatedMemory> openHandles = ctx.getOpenHandlesMemory64();
-			IAllocatedMemory oldObj = openHandles.put(mem.getHandle64(), mem);
-			if (oldObj!=null && oldObj!=mem) {
-				throw new IllegalStateException("Duplicate handle detected. Memory to store: "+mem+", object found in open handle list: "+oldObj);
-			}
+		long handle = PlatformUtils.is64Bit() ? mem.getHandle64() : mem.getHandle32();
+		IAllocatedMemory oldObj = ctx.getOpenHandlesMemory().put(null, handle, mem);
+		if (oldObj!=null && oldObj!=mem) {
+			throw new IllegalStateException("Duplicate handle detected. Memory to store: "+mem+", object found in open handle list: "+oldObj);
 		}
-		else {
-			LinkedHashMap<Integer, IAllocatedMemory> openHandles = ctx.getOpenHandlesMemory32();
-			IAllocatedMemory oldObj = openHandles.put(mem.getHandle32(), mem);
-			if (oldObj!=null && oldObj!=mem) {
-				throw new IllegalStateException("Duplicate handle detected. Memory to store: "+mem+", object found in open handle list: "+oldObj);
-			}
+		
+		if (m_profiler.isEnabled()) {
+			m_profiler.handleCreated(ctx, IAllocatedMemory.class, handle, mem.getClass());
 		}
 		
 		if (ctx.isWriteDebugMessages()) {
@@ -312,16 +338,16 @@ public class NotesGC {
 	 * 
 	 * @param objClazz class of Notes object
 	 * @param handle handle
-	 * @return Notes object
+	 * @return Notes object or null in trusted mode
 	 * @throws NotesError if handle does not exist
 	 */
 	public static IRecyclableNotesObject __b64_checkValidObjectHandle(Class<? extends IRecyclableNotesObject> objClazz, long handle) {
+		if (m_trustedMode) {
+			return null;
+		}
 		DominoGCContext ctx = getThreadContext();
 		
-		HashKey64 key = new HashKey64(objClazz, handle);
-		LinkedHashMap<HashKey64, IRecyclableNotesObject> openHandles = ctx.getOpenHandlesDominoObjects64();
-
-		IRecyclableNotesObject obj = openHandles.get(key);
+		IRecyclableNotesObject obj = ctx.getOpenHandlesDominoObjects().get(objClazz, handle);
 		if (obj==null) {
 			throw new NotesError(0, "The provided C handle "+handle+" of object with class "+objClazz.getName()+" does not seem to exist (anymore).");
 		}
@@ -338,12 +364,12 @@ public class NotesGC {
 	 * @throws NotesError if handle does not exist
 	 */
 	public static void __b64_checkValidMemHandle(Class<? extends IAllocatedMemory> memClazz, long handle) {
+		if (m_trustedMode) {
+			return;
+		}
 		DominoGCContext ctx = getThreadContext();
 		
-		LinkedHashMap<Long, IAllocatedMemory> openHandles = ctx.getOpenHandlesMemory64();
-
-		IAllocatedMemory obj = openHandles.get(handle);
-		if (obj==null) {
+		if (!ctx.getOpenHandlesMemory().contains(null, handle)) {
 			throw new NotesError(0, "The provided C handle "+handle+" of memory with class "+memClazz.getName()+" does not seem to exist (anymore).");
 		}
 	}
@@ -353,17 +379,16 @@ public class NotesGC {
 	 * 
 	 * @param objClazz class of Notes object
 	 * @param handle handle
-	 * @return Notes object
+	 * @return Notes object or null in trusted mode
 	 * @throws NotesError if handle does not exist
 	 */
 	public static IRecyclableNotesObject __b32_checkValidObjectHandle(Class<? extends IRecyclableNotesObject> objClazz, int handle) {
+		if (m_trustedMode) {
+			return null;
+		}
 		DominoGCContext ctx = getThreadContext();
 		
-		LinkedHashMap<HashKey32,IRecyclableNotesObject> openHandles = ctx.getOpenHandlesDominoObjects32();
-		
-		HashKey32 key = new HashKey32(objClazz, handle);
-
-		IRecyclableNotesObject obj = openHandles.get(key);
+		IRecyclableNotesObject obj = ctx.getOpenHandlesDominoObjects().get(objClazz, handle);
 		if (obj==null) {
 			throw new NotesError(0, "The provided C handle "+handle+" of object with class "+objClazz.getName()+" does not seem to exist (anymore).");
 		}
@@ -379,12 +404,12 @@ public class NotesGC {
 	 * @throws NotesError if handle does not exist
 	 */
 	public static void __b32_checkValidMemHandle(Class<? extends IAllocatedMemory> objClazz, int handle) {
+		if (m_trustedMode) {
+			return;
+		}
 		DominoGCContext ctx = getThreadContext();
 
-		LinkedHashMap<Integer, IAllocatedMemory> openHandles = ctx.getOpenHandlesMemory32();
-		
-		IAllocatedMemory obj = openHandles.get(handle);
-		if (obj==null) {
+		if (!ctx.getOpenHandlesMemory().contains(null, handle)) {
 			throw new NotesError(0, "The provided C handle "+handle+" of memory with class "+objClazz.getName()+" does not seem to exist (anymore).");
 		}
 	}
@@ -405,15 +430,11 @@ public class NotesGC {
 			System.out.println("AutoGC - Removing object: "+obj.getClass()+" with handle="+(PlatformUtils.is64Bit() ? obj.getHandle64() : obj.getHandle32()));
 		}
 		
-		if (PlatformUtils.is64Bit()) {
-			HashKey64 key = new HashKey64(clazz, obj.getHandle64());
-			LinkedHashMap<HashKey64, IRecyclableNotesObject> openHandles = ctx.getOpenHandlesDominoObjects64();
-			openHandles.remove(key);
-		}
-		else {
-			HashKey32 key = new HashKey32(clazz, obj.getHandle32());
-			LinkedHashMap<HashKey32, IRecyclableNotesObject> openHandles = ctx.getOpenHandlesDominoObjects32();
-			openHandles.remove(key);
+		long handle = PlatformUtils.is64Bit() ? obj.getHandle64() : obj.getHandle32();
+		ctx.getOpenHandlesDominoObjects().remove(clazz, handle);
+		HandleRegistry<NotesGCProfiler.Sample> samples = ctx.getProfilerSamples(false);
+		if (samples!=null) {
+			m_profiler.handleDisposed(samples, clazz, handle);
 		}
 	}
 
@@ -432,13 +453,11 @@ public class NotesGC {
 			System.out.println("AutoGC - Removing memory: "+mem.getClass()+" with handle="+(PlatformUtils.is64Bit() ? mem.getHandle64() : mem.getHandle32()));
 		}
 		
-		if (PlatformUtils.is64Bit()) {
-			LinkedHashMap<Long, IAllocatedMemory> openHandles = ctx.getOpenHandlesMemory64();
-			openHandles.remove(mem.getHandle64());
-		}
-		else {
-			LinkedHashMap<Integer, IAllocatedMemory> openHandles = ctx.getOpenHandlesMemory32();
-			openHandles.remove(mem.getHandle32());
+		long handle = PlatformUtils.is64Bit() ? mem.getHandle64() : mem.getHandle32();
+		ctx.getOpenHandlesMemory().remove(null, handle);
+		HandleRegistry<NotesGCProfiler.Sample> samples = ctx.getProfilerSamples(false);
+		if (samples!=null) {
+			m_profiler.handleDisposed(samples, IAllocatedMemory.class, handle);
 		}
 	}
 
@@ -586,29 +605,160 @@ public class NotesGC {
 			return new DominoGCContext(ctx);
 		}
 	}
+	
+	/**
+	 * Creates a new top level {@link DominoGCContext} that is not bound to any thread.<br>
+	 * <br>
+	 * Use {@link DominoGCContext#attach()} and {@link DominoGCContext#detach()} or
+	 * {@link #runWithContext(DominoGCContext, Callable)} to use the context in one thread
+	 * after the other, e.g. in the stages of a <code>CompletableFuture</code> chain
+	 * or when a request is processed by different pool threads. The context can only be attached to one
+	 * thread at a time, and detaching it makes all changes visible to the next thread that attaches it.<br>
+	 * <br>
+	 * Each thread that uses the context must have been initialized for the Notes C API, e.g. with
+	 * {@link NotesGCExecutors#newThreadFactory(String)}.<br>
+	 * <br>
+	 * <b>The returned context must be closed to free up all allocated resources.</b> It can be closed
+	 * from any thread if it is not attached to another one, even if that thread uses its own context.
+	 * 
+	 * @return detached context
+	 */
+	public static DominoGCContext createDetachedContext() {
+		NotesNativeAPI.initialize();
+		return new DominoGCContext(null, null);
+	}
+	
+	/**
+	 * Attaches a detached context to the current thread, runs a piece of code and
+	 * detaches the context again. Allocated Notes objects stay in the context
+	 * until it gets closed.
+	 * 
+	 * @param ctx context created via {@link #createDetachedContext()}
+	 * @param callable code to execute
+	 * @return computation result
+	 * @throws Exception in case of errors
+	 * 
+	 * @param <T> return value type of code to be run
+	 */
+	public static <T> T runWithContext(DominoGCContext ctx, final Callable<T> callable) throws Exception {
+		ctx.attach();
+		try {
+			return AccessController.doPrivileged(new PrivilegedAction<T>() {
+
+				@Override
+				public T run() {
+					try {
+						return callable.call();
+					} catch (Exception e) {
+						if (e instanceof RuntimeException) {
+							throw (RuntimeException) e;
+						}
+						else {
+							throw new NotesError(0, "Error during code execution", e);
+						}
+					}
+				}
+			});
+		}
+		finally {
+			ctx.detach();
+		}
+	}
 
 	/**
 	 * Domino handle collection context to collect all allocated C object
-	 * and memory handles for the current thread.
+	 * and memory handles for the current thread.<br>
+	 * <br>
+	 * A top level context can be moved to another thread with {@link #detach()} and
+	 * {@link #attach()}, see {@link NotesGC#createDetachedContext()}.
 	 * 
 	 * @author Karsten Lehmann
 	 */
 	public static class DominoGCContext implements AutoCloseable {
 		private DominoGCContext m_parentCtx;
-		private Thread m_parentThread;
+		/** thread that currently uses the context, null if detached; also used to safely publish the context state */
+		private final AtomicReference<Thread> m_ownerThread;
+		private volatile boolean m_closed;
 		private Map<String,Object> m_activeAutoGCCustomValues;
 		
-		//maps with open handles; using LinkedHashMap to keep insertion order for the keys and disposed in reverse order
-		private LinkedHashMap<HashKey32,IRecyclableNotesObject> m_b32OpenHandlesDominoObjects;
-		private LinkedHashMap<Integer, IAllocatedMemory> m_b32OpenHandlesMemory;
-		private LinkedHashMap<HashKey64, IRecyclableNotesObject> m_b64OpenHandlesDominoObjects;
-		private LinkedHashMap<Long, IAllocatedMemory> m_b64OpenHandlesMemory;
+		//maps with open handles; they keep the insertion order, handles are disposed in reverse order
+		private HandleRegistry<IRecyclableNotesObject> m_openHandlesDominoObjects;
+		private HandleRegistry<IAllocatedMemory> m_openHandlesMemory;
+		//creation data of the handles sampled by the NotesGCProfiler
+		private HandleRegistry<NotesGCProfiler.Sample> m_profilerSamples;
 		private boolean m_writeDebugMessages;
 		private boolean m_logCrashingThreadStackTrace;
 		
 		private DominoGCContext(DominoGCContext parentCtx) {
+			this(parentCtx, Thread.currentThread());
+		}
+		
+		private DominoGCContext(DominoGCContext parentCtx, Thread ownerThread) {
 			m_parentCtx = parentCtx;
-			m_parentThread = Thread.currentThread();
+			m_ownerThread = new AtomicReference<>(ownerThread);
+		}
+		
+		/**
+		 * Attaches this detached context to the current thread, so that Domino JNA objects
+		 * created in this thread are added to the context
+		 * 
+		 * @throws IllegalStateException if this is a nested context, if the context is already attached to a thread, if it is closed or if the current thread already has a context
+		 */
+		public void attach() {
+			if (!isTopContext()) {
+				throw new IllegalStateException("Nested contexts cannot be attached to other threads");
+			}
+			if (m_closed) {
+				throw new IllegalStateException("Context is already closed");
+			}
+			if (threadContext.get()!=null) {
+				throw new IllegalStateException("The current thread already uses a GC context");
+			}
+			Thread currentThread = Thread.currentThread();
+			if (!m_ownerThread.compareAndSet(null, currentThread)) {
+				throw new IllegalStateException("Context is already attached to thread "+m_ownerThread.get());
+			}
+			threadContext.set(this);
+		}
+		
+		/**
+		 * Detaches this context from the current thread. The context keeps the allocated
+		 * Domino JNA objects and can then be attached to another thread. Does nothing if the
+		 * context has already been closed.
+		 * 
+		 * @throws IllegalStateException if this is a nested context or if the context is not attached to the current thread
+		 */
+		public void detach() {
+			if (!isTopContext()) {
+				throw new IllegalStateException("Nested contexts cannot be detached from their thread");
+			}
+			if (m_closed) {
+				return;
+			}
+			checkValidThread();
+			threadContext.set(null);
+			m_ownerThread.set(null);
+		}
+		
+		/**
+		 * Returns the thread this context is currently attached to
+		 * 
+		 * @return thread or null if detached
+		 */
+		public Thread getAttachedThread() {
+			if (m_parentCtx!=null) {
+				return m_parentCtx.getAttachedThread();
+			}
+			return m_ownerThread.get();
+		}
+		
+		/**
+		 * Checks whether the context has been closed
+		 * 
+		 * @return true if closed
+		 */
+		public boolean isClosed() {
+			return m_closed;
 		}
 		
 		/**
@@ -632,8 +782,12 @@ public class NotesGC {
 		}
 		
 		private void checkValidThread() {
-			if (!m_parentThread.equals(Thread.currentThread())) {
-				throw new IllegalStateException("This context cannot be used across threads");
+			if (m_parentCtx!=null) {
+				m_parentCtx.checkValidThread();
+				return;
+			}
+			if (m_ownerThread.get()!=Thread.currentThread()) {
+				throw new IllegalStateException("This context is not attached to the current thread. Use attach()/detach() to move it between threads.");
 			}
 		}
 		
@@ -678,52 +832,48 @@ public class NotesGC {
 			return m_activeAutoGCCustomValues;
 		}
 		
-		private LinkedHashMap<HashKey32,IRecyclableNotesObject> getOpenHandlesDominoObjects32() {
+		private HandleRegistry<IRecyclableNotesObject> getOpenHandlesDominoObjects() {
 			checkValidThread();
 			if (m_parentCtx!=null) {
-				return m_parentCtx.getOpenHandlesDominoObjects32();
+				return m_parentCtx.getOpenHandlesDominoObjects();
 			}
-			if (m_b32OpenHandlesDominoObjects==null) {
-				m_b32OpenHandlesDominoObjects = new LinkedHashMap<>();
+			if (m_openHandlesDominoObjects==null) {
+				m_openHandlesDominoObjects = new HandleRegistry<>();
 			}
-			return m_b32OpenHandlesDominoObjects;
+			return m_openHandlesDominoObjects;
 		}
 		
-		private LinkedHashMap<Integer, IAllocatedMemory> getOpenHandlesMemory32() {
+		private HandleRegistry<IAllocatedMemory> getOpenHandlesMemory() {
 			checkValidThread();
 			if (m_parentCtx!=null) {
-				return m_parentCtx.getOpenHandlesMemory32();
+				return m_parentCtx.getOpenHandlesMemory();
 			}
-			if (m_b32OpenHandlesMemory==null) {
-				m_b32OpenHandlesMemory = new LinkedHashMap<>();
+			if (m_openHandlesMemory==null) {
+				m_openHandlesMemory = new HandleRegistry<>();
 			}
-			return m_b32OpenHandlesMemory;
+			return m_openHandlesMemory;
 		}
 		
-		private LinkedHashMap<HashKey64, IRecyclableNotesObject> getOpenHandlesDominoObjects64() {
+		HandleRegistry<NotesGCProfiler.Sample> getProfilerSamples(boolean create) {
 			checkValidThread();
 			if (m_parentCtx!=null) {
-				return m_parentCtx.getOpenHandlesDominoObjects64();
+				return m_parentCtx.getProfilerSamples(create);
 			}
-			if (m_b64OpenHandlesDominoObjects==null) {
-				m_b64OpenHandlesDominoObjects = new LinkedHashMap<>();
+			if (m_profilerSamples==null && create) {
+				m_profilerSamples = new HandleRegistry<>();
 			}
-			return m_b64OpenHandlesDominoObjects;
-		}
-		
-		private LinkedHashMap<Long, IAllocatedMemory> getOpenHandlesMemory64() {
-			checkValidThread();
-			if (m_parentCtx!=null) {
-				return m_parentCtx.getOpenHandlesMemory64();
-			}
-			if (m_b64OpenHandlesMemory==null) {
-				m_b64OpenHandlesMemory = new LinkedHashMap<>();
-			}
-			return m_b64OpenHandlesMemory;
+			return m_profilerSamples;
 		}
 		
 		@Override
 		public void close() throws Exception {
+			if (m_closed) {
+				return;
+			}
+			if (isTopContext() && m_ownerThread.get()==null) {
+				closeDetached();
+				return;
+			}
 			checkValidThread();
 			
 			if (!isTopContext()) {
@@ -731,147 +881,78 @@ public class NotesGC {
 				return;
 			}
 
-			if (PlatformUtils.is64Bit()) {
-				{
-					//recycle created Domino objects
-					if (m_b64OpenHandlesDominoObjects!=null && !m_b64OpenHandlesDominoObjects.isEmpty()) {
-						Entry[] mapEntries = m_b64OpenHandlesDominoObjects.entrySet().toArray(new Entry[m_b64OpenHandlesDominoObjects.size()]);
-						if (mapEntries.length>0) {
-							if (m_writeDebugMessages) {
-								System.out.println("AutoGC - Auto-recycling "+mapEntries.length+" Domino objects:");
-							}
-							
-							for (int i=mapEntries.length-1; i>=0; i--) {
-								Entry<HashKey64,IRecyclableNotesObject> currEntry = mapEntries[i];
-								IRecyclableNotesObject obj = currEntry.getValue();
-								try {
-									if (!obj.isRecycled()) {
-										if (m_writeDebugMessages) {
-											System.out.println("AutoGC - Auto-recycling "+obj);
-										}
-										obj.recycle();
-									}
-								}
-								catch (Throwable e) {
-									e.printStackTrace();
-								}
-								m_b64OpenHandlesDominoObjects.remove(currEntry.getKey());
-							}
-							
-							if (m_writeDebugMessages) {
-								System.out.println("AutoGC - Done auto-recycling "+mapEntries.length+" Domino objects");
-							}
-							
-							m_b64OpenHandlesDominoObjects.clear();
-							m_b64OpenHandlesDominoObjects = null;
-						}
-					}
+			if (m_profilerSamples!=null) {
+				int openHandles = (m_openHandlesDominoObjects==null ? 0 : m_openHandlesDominoObjects.size()) +
+						(m_openHandlesMemory==null ? 0 : m_openHandlesMemory.size());
+				m_profiler.contextClosing(this, openHandles);
+			}
+			
+			//recycle created Domino objects
+			if (m_openHandlesDominoObjects!=null && !m_openHandlesDominoObjects.isEmpty()) {
+				List<IRecyclableNotesObject> objects = m_openHandlesDominoObjects.values();
+				if (m_writeDebugMessages) {
+					System.out.println("AutoGC - Auto-recycling "+objects.size()+" Domino objects:");
 				}
-				{
-					//dispose allocated memory
-					if (m_b64OpenHandlesMemory!=null && !m_b64OpenHandlesMemory.isEmpty()) {
-						Entry[] mapEntries = m_b64OpenHandlesMemory.entrySet().toArray(new Entry[m_b64OpenHandlesMemory.size()]);
-						if (mapEntries.length>0) {
-							if (m_writeDebugMessages) {
-								System.out.println("AutoGC - Freeing "+mapEntries.length+" memory handles");
-							}
-
-							for (int i=mapEntries.length-1; i>=0; i--) {
-								Entry<Long,IAllocatedMemory> currEntry = mapEntries[i];
-								IAllocatedMemory obj = currEntry.getValue();
-								try {
-									if (!obj.isFreed()) {
-										if (m_writeDebugMessages) {
-											System.out.println("AutoGC - Freeing "+obj);
-										}
-										obj.free();
-									}
-								}
-								catch (Throwable e) {
-									e.printStackTrace();
-								}
-								m_b64OpenHandlesMemory.remove(currEntry.getKey());
-							}
-
+				
+				for (int i=objects.size()-1; i>=0; i--) {
+					IRecyclableNotesObject obj = objects.get(i);
+					try {
+						if (!obj.isRecycled()) {
 							if (m_writeDebugMessages) {
-								System.out.println("AutoGC - Done freeing "+mapEntries.length+" memory handles");
+								System.out.println("AutoGC - Auto-recycling "+obj);
 							}
-
-							m_b64OpenHandlesMemory.clear();
-							m_b64OpenHandlesMemory = null;
+							obj.recycle();
 						}
 					}
+					catch (Throwable e) {
+						e.printStackTrace();
+					}
+				}
+				
+				if (m_writeDebugMessages) {
+					System.out.println("AutoGC - Done auto-recycling "+objects.size()+" Domino objects");
 				}
+				
+				m_openHandlesDominoObjects.clear();
+				m_openHandlesDominoObjects = null;
 			}
-			else {
-				{
-					if (m_b32OpenHandlesDominoObjects!=null && !m_b32OpenHandlesDominoObjects.isEmpty()) {
-						//recycle created Domino objects
-						Entry[] mapEntries = m_b32OpenHandlesDominoObjects.entrySet().toArray(new Entry[m_b32OpenHandlesDominoObjects.size()]);
-						if (mapEntries.length>0) {
-							if (m_writeDebugMessages) {
-								System.out.println("AutoGC - Recycling "+mapEntries.length+" Domino objects:");
-							}
-
-							for (int i=mapEntries.length-1; i>=0; i--) {
-								Entry<HashKey32,IRecyclableNotesObject> currEntry = mapEntries[i];
-								IRecyclableNotesObject obj = currEntry.getValue();
-								try {
-									if (!obj.isRecycled()) {
-										if (m_writeDebugMessages) {
-											System.out.println("AutoGC - Recycling "+obj);
-										}
-										obj.recycle();
-									}
-								}
-								catch (Throwable e) {
-									e.printStackTrace();
-								}
-								m_b32OpenHandlesDominoObjects.remove(currEntry.getKey());
-							}
-							if (m_writeDebugMessages) {
-								System.out.println("AutoGC - Done recycling "+mapEntries.length+" memory handles");
-							}
-
-							m_b32OpenHandlesDominoObjects.clear();
-							m_b32OpenHandlesDominoObjects = null;
-						}
-					}
+			
+			//dispose allocated memory
+			if (m_openHandlesMemory!=null && !m_openHandlesMemory.isEmpty()) {
+				List<IAllocatedMemory> memObjects = m_openHandlesMemory.values();
+				if (m_writeDebugMessages) {
+					System.out.println("AutoGC - Freeing "+memObjects.size()+" memory handles");
 				}
-				{
-					if (m_b32OpenHandlesMemory!=null && !m_b32OpenHandlesMemory.isEmpty()) {
-						//dispose allocated memory
-						Entry[] mapEntries = m_b32OpenHandlesMemory.entrySet().toArray(new Entry[m_b32OpenHandlesMemory.size()]);
-						if (mapEntries.length>0) {
-							if (m_writeDebugMessages) {
-								System.out.println("AutoGC - Freeing "+mapEntries.length+" memory handles");
-							}
-
-							for (int i=mapEntries.length-1; i>=0; i--) {
-								Entry<Integer,IAllocatedMemory> currEntry = mapEntries[i];
-								IAllocatedMemory obj = currEntry.getValue();
-								try {
-									if (!obj.isFreed()) {
-										if (m_writeDebugMessages) {
-											System.out.println("AutoGC - Freeing "+obj);
-										}
-										obj.free();
-									}
-								}
-								catch (Throwable e) {
-									e.printStackTrace();
-								}
-								m_b32OpenHandlesMemory.remove(currEntry.getKey());
-							}
+				
+				for (int i=memObjects.size()-1; i>=0; i--) {
+					IAllocatedMemory obj = memObjects.get(i);
+					try {
+						if (!obj.isFreed()) {
 							if (m_writeDebugMessages) {
-								System.out.println("AutoGC - Done freeing "+mapEntries.length+" memory handles");
+								System.out.println("AutoGC - Freeing "+obj);
 							}
-
-							m_b32OpenHandlesMemory.clear();
-							m_b32OpenHandlesMemory = null;
+							obj.free();
 						}
 					}
+					catch (Throwable e) {
+						e.printStackTrace();
+					}
+				}
+				
+				if (m_writeDebugMessages) {
+					System.out.println("AutoGC - Done freeing "+memObjects.size()+" memory handles");
 				}
+				
+				m_openHandlesMemory.clear();
+				m_openHandlesMemory = null;
+			}
+			
+			if (m_profilerSamples!=null) {
+				//samples of handles that have not been unregistered while disposing them
+				if (!m_profilerSamples.isEmpty()) {
+					m_profiler.contextClosed(m_profilerSamples);
+				}
+				m_profilerSamples = null;
 			}
 			
 			if (m_activeAutoGCCustomValues!=null) {
@@ -880,7 +961,32 @@ public class NotesGC {
 				m_activeAutoGCCustomValues = null;
 			}
 			
+			m_closed = true;
 			threadContext.set(null);
+			m_ownerThread.set(null);
+		}
+		
+		/**
+		 * Closes a detached context in the current thread. The context is only installed
+		 * for the current thread while its objects get recycled, so this also works in threads
+		 * that use their own context, e.g. within {@link NotesGC#runWithAutoGC(Callable)}.
+		 * 
+		 * @throws Exception in case of errors
+		 */
+		private void closeDetached() throws Exception {
+			Thread currentThread = Thread.currentThread();
+			if (!m_ownerThread.compareAndSet(null, currentThread)) {
+				throw new IllegalStateException("Context is already attached to thread "+m_ownerThread.get());
+			}
+			DominoGCContext threadCtx = threadContext.get();
+			threadContext.set(this);
+			try {
+				close();
+			}
+			finally {
+				threadContext.set(threadCtx);
+				m_ownerThread.set(null);
+			}
 		}
 	}
 	
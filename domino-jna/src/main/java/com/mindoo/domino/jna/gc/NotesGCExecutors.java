@@ -0,0 +1,237 @@
+package com.mindoo.domino.jna.gc;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.mindoo.domino.jna.gc.NotesGC.DominoGCContext;
+import com.mindoo.domino.jna.utils.NotesInitUtils;
+
+/**
+ * Factory methods for thread factories and executors that can run Domino JNA code.<br>
+ * <br>
+ * The Notes C API needs to be initialized for each OS thread. The threads created by
+ * {@link #newThreadFactory(String)} call {@link NotesInitUtils#notesInitThread()} when they
+ * start and {@link NotesInitUtils#notesTermThread()} when they end, so the initialization
+ * is done once per pool thread and not once per task.<br>
+ * <br>
+ * Tasks submitted to the executors of {@link #newFixedThreadPool(int)} and {@link #newCachedThreadPool()}
+ * run in their own {@link NotesGC#runWithAutoGC(Callable)} block. To let a sequence of tasks share
+ * Domino JNA objects, e.g. the stages of a <code>CompletableFuture</code> chain, create a context with
+ * {@link NotesGC#createDetachedContext()} and run the tasks via {@link #withContext(DominoGCContext, Executor)}.
+ * The context then moves from pool thread to pool thread with the tasks.<br>
+ * <br>
+ * Since the C API initialization is bound to OS threads, the pool threads need to be platform threads.
+ * Lightweight request handlers can hand their work to a small pool and pass their
+ * {@link DominoGCContext} along instead of blocking a dedicated thread per request.
+ *
+ * @author Karsten Lehmann
+ */
+public class NotesGCExecutors {
+
+	private NotesGCExecutors() {
+	}
+
+	/**
+	 * Creates a thread factory for daemon threads that are initialized for the Notes C API
+	 *
+	 * @param namePrefix prefix for the thread names, a running number is appended
+	 * @return thread factory
+	 */
+	public static ThreadFactory newThreadFactory(String namePrefix) {
+		return new NotesThreadFactory(namePrefix);
+	}
+
+	/**
+	 * Creates a thread pool with a fixed number of threads that are initialized for the Notes C API.
+	 * Each task runs in its own auto GC block unless it is passed via {@link #withContext(DominoGCContext, Executor)}.
+	 *
+	 * @param threadCount number of threads
+	 * @return executor service
+	 */
+	public static ExecutorService newFixedThreadPool(int threadCount) {
+		return new AutoGCThreadPoolExecutor(threadCount, threadCount, 0L, TimeUnit.MILLISECONDS,
+				new LinkedBlockingQueue<Runnable>(), newThreadFactory("Domino JNA pool thread #"));
+	}
+
+	/**
+	 * Creates a thread pool that creates threads as needed and reuses idle threads for 60 seconds.
+	 * Each task runs in its own auto GC block unless it is passed via {@link #withContext(DominoGCContext, Executor)}.
+	 *
+	 * @return executor service
+	 */
+	public static ExecutorService newCachedThreadPool() {
+		return new AutoGCThreadPoolExecutor(0, Integer.MAX_VALUE, 60L, TimeUnit.SECONDS,
+				new SynchronousQueue<Runnable>(), newThreadFactory("Domino JNA pool thread #"));
+	}
+
+	/**
+	 * Returns an executor that runs tasks one after the other on the specified executor, with the
+	 * {@link DominoGCContext} attached to the thread that runs the task. This way, Domino JNA
+	 * objects created in one task can be used in the next one, even if the tasks run on different threads.
+	 * Detaching the context after each task hands it over safely to the thread that runs the next task.<br>
+	 * <br>
+	 * The target executor must run the tasks on threads initialized for the Notes C API, e.g.
+	 * one created via {@link #newFixedThreadPool(int)}. The context is not closed automatically.
+	 *
+	 * @param ctx context created via {@link NotesGC#createDetachedContext()}
+	 * @param executor executor to run the tasks
+	 * @return executor
+	 */
+	public static Executor withContext(DominoGCContext ctx, Executor executor) {
+		if (!ctx.isTopContext()) {
+			throw new IllegalArgumentException("Nested contexts cannot be moved between threads");
+		}
+		return new ContextExecutor(ctx, executor);
+	}
+
+	/**
+	 * Thread factory that initializes the Notes C API for each thread
+	 */
+	private static class NotesThreadFactory implements ThreadFactory {
+		private final String m_namePrefix;
+		private final AtomicInteger m_threadNumber = new AtomicInteger(1);
+
+		public NotesThreadFactory(String namePrefix) {
+			m_namePrefix = namePrefix;
+		}
+
+		@Override
+		public Thread newThread(final Runnable r) {
+			Thread t = new Thread(new Runnable() {
+
+				@Override
+				public void run() {
+					NotesInitUtils.notesInitThread();
+					try {
+						r.run();
+					}
+					finally {
+						NotesInitUtils.notesTermThread();
+					}
+				}
+			}, m_namePrefix + m_threadNumber.getAndIncrement());
+			t.setDaemon(true);
+			return t;
+		}
+	}
+
+	/**
+	 * Thread pool that runs each task in an auto GC block
+	 */
+	private static class AutoGCThreadPoolExecutor extends ThreadPoolExecutor {
+
+		public AutoGCThreadPoolExecutor(int corePoolSize, int maximumPoolSize, long keepAliveTime, TimeUnit unit,
+				BlockingQueue<Runnable> workQueue, ThreadFactory threadFactory) {
+			super(corePoolSize, maximumPoolSize, keepAliveTime, unit, workQueue, threadFactory);
+		}
+
+		@Override
+		public void execute(final Runnable command) {
+			if (command instanceof ContextTask) {
+				//runs with the attached context
+				super.execute(command);
+				return;
+			}
+
+			super.execute(new Runnable() {
+
+				@Override
+				public void run() {
+					try {
+						NotesGC.runWithAutoGC(new Callable<Object>() {
+
+							@Override
+							public Object call() throws Exception {
+								command.run();
+								return null;
+							}
+						});
+					}
+					catch (RuntimeException e) {
+						throw e;
+					}
+					catch (Exception e) {
+						//not thrown by Runnable.run(), runWithAutoGC wraps checked exceptions
+						throw new IllegalStateException(e);
+					}
+				}
+			});
+		}
+	}
+
+	/**
+	 * Task that runs with a {@link DominoGCContext} attached
+	 */
+	private static class ContextTask implements Runnable {
+		private final ContextExecutor m_executor;
+		private final Runnable m_task;
+
+		public ContextTask(ContextExecutor executor, Runnable task) {
+			m_executor = executor;
+			m_task = task;
+		}
+
+		@Override
+		public void run() {
+			DominoGCContext ctx = m_executor.m_ctx;
+			try {
+				ctx.attach();
+				try {
+					m_task.run();
+				}
+				finally {
+					ctx.detach();
+				}
+			}
+			finally {
+				m_executor.scheduleNext();
+			}
+		}
+	}
+
+	/**
+	 * Executor that runs tasks one after the other with a {@link DominoGCContext} attached
+	 */
+	private static class ContextExecutor implements Executor {
+		private final DominoGCContext m_ctx;
+		private final Executor m_executor;
+		private final ArrayDeque<Runnable> m_tasks = new ArrayDeque<Runnable>();
+		private Runnable m_active;
+
+		public ContextExecutor(DominoGCContext ctx, Executor executor) {
+			m_ctx = ctx;
+			m_executor = executor;
+		}
+
+		@Override
+		public synchronized void execute(Runnable command) {
+			m_tasks.offer(new ContextTask(this, command));
+			if (m_active == null) {
+				scheduleNext();
+			}
+		}
+
+		private synchronized void scheduleNext() {
+			if ((m_active = m_tasks.poll()) != null) {
+				try {
+					m_executor.execute(m_active);
+				}
+				catch (RejectedExecutionException e) {
+					//the rejected task is dropped; the next call to execute schedules the remaining tasks
+					m_active = null;
+					throw e;
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,565 @@
+package com.mindoo.domino.jna.gc;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanNotificationInfo;
+import javax.management.MBeanServer;
+import javax.management.Notification;
+import javax.management.NotificationBroadcasterSupport;
+import javax.management.ObjectName;
+
+import com.mindoo.domino.jna.gc.NotesGC.DominoGCContext;
+import com.mindoo.domino.jna.internal.HandleRegistry;
+
+/**
+ * Sampling profiler for the C handles tracked by {@link NotesGC}, used to find the code
+ * that leaks handles in long running applications.<br>
+ * <br>
+ * When enabled, the profiler records the allocation site (type and stack trace) for a
+ * fraction of the created Domino objects and memory handles, see {@link #setSampleRate(double)}.
+ * Handles are grouped by type and stack trace hash, and for each group it counts the
+ * open handles and records the lifetimes of the disposed ones. The data is available via
+ * JMX after calling {@link #registerMBean()}.<br>
+ * <br>
+ * Sampled handles that live longer than {@link #getLongLivedThresholdMillis()} emit a JMX
+ * notification of type {@link #NOTIFICATION_LONG_LIVED_HANDLE} when they get disposed. When a
+ * {@link DominoGCContext} is closed with more open handles than {@link #getLeakReportThreshold()},
+ * the top allocation sites of its open handles are written to the report stream and sent as
+ * notification of type {@link #NOTIFICATION_LEAK_REPORT}. Notification listeners are called
+ * in the thread that disposes the handle or closes the context.<br>
+ * <br>
+ * The profiler can be configured with these system properties:<br>
+ * <code>dominojna.gc.profiler=true</code> to enable it,<br>
+ * <code>dominojna.gc.profiler.sampleRate</code> (default 0.01),<br>
+ * <code>dominojna.gc.profiler.longLivedMillis</code> (default 600000) and<br>
+ * <code>dominojna.gc.profiler.leakThreshold</code> (default 1000).<br>
+ * Invalid values are ignored and the defaults are used instead.<br>
+ * <br>
+ * While disabled, the profiler just adds a volatile read per created handle.
+ *
+ * @author Karsten Lehmann
+ */
+public class NotesGCProfiler extends NotificationBroadcasterSupport implements NotesGCProfilerMXBean {
+	/** name of the MXBean registered via {@link #registerMBean()} */
+	public static final String OBJECT_NAME = "com.mindoo.domino.jna:type=NotesGCProfiler";
+	/** notification type for a disposed handle that exceeded the long-lived threshold */
+	public static final String NOTIFICATION_LONG_LIVED_HANDLE = "dominojna.gc.longLivedHandle";
+	/** notification type for the leak report of a closing context */
+	public static final String NOTIFICATION_LEAK_REPORT = "dominojna.gc.leakReport";
+
+	private static final int HISTOGRAM_BUCKETS = 32;
+	private static final int MAX_STACK_DEPTH = 16;
+	private static final int SITES_IN_LEAK_REPORT = 10;
+
+	private static final NotesGCProfiler m_instance = new NotesGCProfiler();
+
+	private volatile boolean m_enabled;
+	private volatile double m_sampleRate;
+	private volatile long m_longLivedThresholdMillis;
+	private volatile int m_leakReportThreshold;
+	private volatile PrintStream m_reportStream = System.err;
+
+	private final ConcurrentHashMap<SiteKey,AllocationSite> m_sites = new ConcurrentHashMap<>();
+	private final AtomicLongArray m_lifetimeHistogram = new AtomicLongArray(HISTOGRAM_BUCKETS);
+	private final LongAdder m_sampledHandleCount = new LongAdder();
+	private final LongAdder m_longLivedHandleCount = new LongAdder();
+	private final LongAdder m_leakReportCount = new LongAdder();
+	private final AtomicLong m_notificationSequence = new AtomicLong();
+
+	private NotesGCProfiler() {
+		m_enabled = "true".equals(System.getProperty("dominojna.gc.profiler"));
+		m_sampleRate = getDoubleProperty("dominojna.gc.profiler.sampleRate", 0.01, 0, 1);
+		m_longLivedThresholdMillis = getLongProperty("dominojna.gc.profiler.longLivedMillis", 600000, 0, Long.MAX_VALUE);
+		m_leakReportThreshold = (int) getLongProperty("dominojna.gc.profiler.leakThreshold", 1000, 0, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Reads a numeric system property. Invalid values must not prevent {@link NotesGC} from
+	 * loading, so they are ignored.
+	 *
+	 * @param name property name
+	 * @param defaultValue value if the property is missing, not a number or out of range
+	 * @param minValue minimum value
+	 * @param maxValue maximum value
+	 * @return value
+	 */
+	private static double getDoubleProperty(String name, double defaultValue, double minValue, double maxValue) {
+		String value = System.getProperty(name);
+		if (value==null) {
+			return defaultValue;
+		}
+		try {
+			double dVal = Double.parseDouble(value.trim());
+			return dVal>=minValue && dVal<=maxValue ? dVal : defaultValue;
+		}
+		catch (NumberFormatException e) {
+			return defaultValue;
+		}
+	}
+
+	/**
+	 * Reads a numeric system property, see {@link #getDoubleProperty(String, double, double, double)}
+	 *
+	 * @param name property name
+	 * @param defaultValue value if the property is missing, not a number or out of range
+	 * @param minValue minimum value
+	 * @param maxValue maximum value
+	 * @return value
+	 */
+	private static long getLongProperty(String name, long defaultValue, long minValue, long maxValue) {
+		String value = System.getProperty(name);
+		if (value==null) {
+			return defaultValue;
+		}
+		try {
+			long lVal = Long.parseLong(value.trim());
+			return lVal>=minValue && lVal<=maxValue ? lVal : defaultValue;
+		}
+		catch (NumberFormatException e) {
+			return defaultValue;
+		}
+	}
+
+	/**
+	 * Returns the profiler instance
+	 *
+	 * @return profiler
+	 */
+	public static NotesGCProfiler getInstance() {
+		return m_instance;
+	}
+
+	/**
+	 * Registers the profiler in the platform MBean server under the name {@link #OBJECT_NAME}.
+	 * Does nothing if it is already registered.
+	 */
+	public static synchronized void registerMBean() {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(OBJECT_NAME);
+			if (!server.isRegistered(name)) {
+				server.registerMBean(m_instance, name);
+			}
+		} catch (JMException e) {
+			throw new IllegalStateException("Error registering the GC profiler MBean", e);
+		}
+	}
+
+	/**
+	 * Removes the profiler from the platform MBean server
+	 */
+	public static synchronized void unregisterMBean() {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(OBJECT_NAME);
+			if (server.isRegistered(name)) {
+				server.unregisterMBean(name);
+			}
+		} catch (JMException e) {
+			throw new IllegalStateException("Error unregistering the GC profiler MBean", e);
+		}
+	}
+
+	@Override
+	public boolean isEnabled() {
+		return m_enabled;
+	}
+
+	@Override
+	public void setEnabled(boolean enabled) {
+		m_enabled = enabled;
+	}
+
+	@Override
+	public double getSampleRate() {
+		return m_sampleRate;
+	}
+
+	/**
+	 * Sets the fraction of created handles whose allocation site is recorded. Capturing the stack
+	 * trace is the expensive part of the profiler, so use small values in production.
+	 *
+	 * @param rate rate between 0 and 1, 1 to record all handles
+	 */
+	@Override
+	public void setSampleRate(double rate) {
+		if (rate<0 || rate>1)
+			throw new IllegalArgumentException("Sample rate must be between 0 and 1: "+rate);
+		m_sampleRate = rate;
+	}
+
+	@Override
+	public long getLongLivedThresholdMillis() {
+		return m_longLivedThresholdMillis;
+	}
+
+	/**
+	 * Sets the lifetime in milliseconds after which a handle is reported as long-lived
+	 *
+	 * @param millis milliseconds, 0 to disable the notifications
+	 */
+	@Override
+	public void setLongLivedThresholdMillis(long millis) {
+		if (millis<0)
+			throw new IllegalArgumentException("Threshold cannot be negative: "+millis);
+		m_longLivedThresholdMillis = millis;
+	}
+
+	@Override
+	public int getLeakReportThreshold() {
+		return m_leakReportThreshold;
+	}
+
+	/**
+	 * Sets the number of open handles of a closing {@link DominoGCContext} above which
+	 * a leak report is written
+	 *
+	 * @param handles handle count, 0 to disable the reports
+	 */
+	@Override
+	public void setLeakReportThreshold(int handles) {
+		if (handles<0)
+			throw new IllegalArgumentException("Threshold cannot be negative: "+handles);
+		m_leakReportThreshold = handles;
+	}
+
+	/**
+	 * Sets the stream to write leak reports to
+	 *
+	 * @param out stream, null to only send notifications; default is {@link System#err}
+	 */
+	public void setReportStream(PrintStream out) {
+		m_reportStream = out;
+	}
+
+	public PrintStream getReportStream() {
+		return m_reportStream;
+	}
+
+	@Override
+	public long getSampledHandleCount() {
+		return m_sampledHandleCount.sum();
+	}
+
+	@Override
+	public long getOpenSampledHandleCount() {
+		long count = 0;
+		for (AllocationSite currSite : m_sites.values()) {
+			count += currSite.m_open.sum();
+		}
+		return count;
+	}
+
+	@Override
+	public long getLongLivedHandleCount() {
+		return m_longLivedHandleCount.sum();
+	}
+
+	@Override
+	public long getLeakReportCount() {
+		return m_leakReportCount.sum();
+	}
+
+	@Override
+	public long[] getLifetimeHistogram() {
+		long[] histogram = new long[HISTOGRAM_BUCKETS];
+		for (int i=0; i<HISTOGRAM_BUCKETS; i++) {
+			histogram[i] = m_lifetimeHistogram.get(i);
+		}
+		return histogram;
+	}
+
+	@Override
+	public String[] getTopAllocationSites(int count) {
+		List<AllocationSite> sites = new ArrayList<>(m_sites.values());
+		final Map<AllocationSite,Long> openCounts = new IdentityHashMap<>();
+		for (AllocationSite currSite : sites) {
+			openCounts.put(currSite, currSite.m_open.sum());
+		}
+		Collections.sort(sites, new Comparator<AllocationSite>() {
+
+			@Override
+			public int compare(AllocationSite o1, AllocationSite o2) {
+				return Long.compare(openCounts.get(o2), openCounts.get(o1));
+			}
+		});
+
+		int resultCount = Math.min(count, sites.size());
+		String[] result = new String[resultCount];
+		for (int i=0; i<resultCount; i++) {
+			AllocationSite currSite = sites.get(i);
+			result[i] = currSite.toString(openCounts.get(currSite));
+		}
+		return result;
+	}
+
+	@Override
+	public void reset() {
+		m_sites.clear();
+		for (int i=0; i<HISTOGRAM_BUCKETS; i++) {
+			m_lifetimeHistogram.set(i, 0);
+		}
+		m_sampledHandleCount.reset();
+		m_longLivedHandleCount.reset();
+		m_leakReportCount.reset();
+	}
+
+	@Override
+	public MBeanNotificationInfo[] getNotificationInfo() {
+		return new MBeanNotificationInfo[] {
+				new MBeanNotificationInfo(new String[] {NOTIFICATION_LONG_LIVED_HANDLE, NOTIFICATION_LEAK_REPORT},
+						Notification.class.getName(), "Long-lived handles and leak reports of closing GC contexts")
+		};
+	}
+
+	/**
+	 * Called by {@link NotesGC} for each registered handle while the profiler is enabled
+	 *
+	 * @param ctx GC context
+	 * @param registryType type used as key in the open handle registry
+	 * @param handle handle
+	 * @param type class of the Domino object or memory
+	 */
+	void handleCreated(DominoGCContext ctx, Object registryType, long handle, Class<?> type) {
+		double rate = m_sampleRate;
+		if (rate<1 && ThreadLocalRandom.current().nextDouble()>=rate) {
+			return;
+		}
+
+		StackTraceElement[] stack = captureStack();
+		int stackHash = Arrays.hashCode(stack);
+		SiteKey key = new SiteKey(type, stackHash);
+		AllocationSite site = m_sites.get(key);
+		if (site==null) {
+			site = new AllocationSite(type, stackHash, stack);
+			AllocationSite existingSite = m_sites.putIfAbsent(key, site);
+			if (existingSite!=null) {
+				site = existingSite;
+			}
+		}
+		site.m_allocated.increment();
+		site.m_open.increment();
+		m_sampledHandleCount.increment();
+
+		Sample oldSample = ctx.getProfilerSamples(true).put(registryType, handle, new Sample(site, System.nanoTime()));
+		if (oldSample!=null) {
+			//handle has been reused without being unregistered
+			oldSample.m_site.m_open.decrement();
+		}
+	}
+
+	/**
+	 * Called by {@link NotesGC} when a handle is unregistered
+	 *
+	 * @param samples samples of the GC context
+	 * @param registryType type used as key in the open handle registry
+	 * @param handle handle
+	 */
+	void handleDisposed(HandleRegistry<Sample> samples, Object registryType, long handle) {
+		if (samples.isEmpty()) {
+			return;
+		}
+		Sample sample = samples.remove(registryType, handle);
+		if (sample!=null) {
+			recordDisposal(sample, handle);
+		}
+	}
+
+	/**
+	 * Called by {@link DominoGCContext#close()} before the open handles get disposed
+	 *
+	 * @param ctx GC context
+	 * @param openHandles number of open object and memory handles
+	 */
+	void contextClosing(DominoGCContext ctx, int openHandles) {
+		int threshold = m_leakReportThreshold;
+		if (threshold==0 || openHandles<threshold) {
+			return;
+		}
+		HandleRegistry<Sample> samples = ctx.getProfilerSamples(false);
+		if (samples==null || samples.isEmpty()) {
+			return;
+		}
+
+		final Map<AllocationSite,int[]> countsBySite = new IdentityHashMap<>();
+		for (Sample currSample : samples.values()) {
+			int[] count = countsBySite.get(currSample.m_site);
+			if (count==null) {
+				count = new int[1];
+				countsBySite.put(currSample.m_site, count);
+			}
+			count[0]++;
+		}
+		List<Entry<AllocationSite,int[]>> entries = new ArrayList<>(countsBySite.entrySet());
+		Collections.sort(entries, new Comparator<Entry<AllocationSite,int[]>>() {
+
+			@Override
+			public int compare(Entry<AllocationSite, int[]> o1, Entry<AllocationSite, int[]> o2) {
+				return Integer.compare(o2.getValue()[0], o1.getValue()[0]);
+			}
+		});
+
+		StringBuilder sb = new StringBuilder();
+		sb.append("AutoGC - Closing GC context of thread ").append(Thread.currentThread().getName())
+		.append(" with ").append(openHandles).append(" open handles (threshold ").append(threshold)
+		.append("). Top allocation sites of ").append(samples.size()).append(" sampled open handles:");
+		for (int i=0; i<entries.size() && i<SITES_IN_LEAK_REPORT; i++) {
+			Entry<AllocationSite,int[]> currEntry = entries.get(i);
+			sb.append('\n').append(currEntry.getKey().toString(currEntry.getValue()[0]));
+		}
+		String report = sb.toString();
+
+		m_leakReportCount.increment();
+		PrintStream out = m_reportStream;
+		if (out!=null) {
+			out.println(report);
+		}
+		sendNotification(new Notification(NOTIFICATION_LEAK_REPORT, OBJECT_NAME, m_notificationSequence.incrementAndGet(), report));
+	}
+
+	/**
+	 * Called by {@link DominoGCContext#close()} after the open handles have been disposed to
+	 * record the samples of handles that have not been unregistered
+	 *
+	 * @param samples remaining samples
+	 */
+	void contextClosed(HandleRegistry<Sample> samples) {
+		for (Sample currSample : samples.values()) {
+			recordDisposal(currSample, 0);
+		}
+	}
+
+	private void recordDisposal(Sample sample, long handle) {
+		long lifetimeMillis = (System.nanoTime() - sample.m_createdNanos) / 1000000;
+		int bucket = lifetimeMillis<=0 ? 0 : Math.min(64 - Long.numberOfLeadingZeros(lifetimeMillis), HISTOGRAM_BUCKETS-1);
+		m_lifetimeHistogram.incrementAndGet(bucket);
+
+		AllocationSite site = sample.m_site;
+		site.m_open.decrement();
+		site.m_lifetimeHistogram.incrementAndGet(bucket);
+		long maxLifetime;
+		while (lifetimeMillis > (maxLifetime = site.m_maxLifetimeMillis.get())) {
+			if (site.m_maxLifetimeMillis.compareAndSet(maxLifetime, lifetimeMillis)) {
+				break;
+			}
+		}
+
+		long threshold = m_longLivedThresholdMillis;
+		if (threshold>0 && lifetimeMillis>=threshold) {
+			m_longLivedHandleCount.increment();
+			Notification notification = new Notification(NOTIFICATION_LONG_LIVED_HANDLE, OBJECT_NAME, m_notificationSequence.incrementAndGet(),
+					"Handle "+handle+" of type "+site.m_type.getName()+" was open for "+lifetimeMillis+" ms\n"+site.toString(site.m_open.sum()));
+			notification.setUserData(lifetimeMillis);
+			sendNotification(notification);
+		}
+	}
+
+	private static StackTraceElement[] captureStack() {
+		StackTraceElement[] stack = new Throwable().getStackTrace();
+		int start = 0;
+		while (start<stack.length && stack[start].getClassName().startsWith("com.mindoo.domino.jna.gc.")) {
+			start++;
+		}
+		return Arrays.copyOfRange(stack, start, Math.min(stack.length, start + MAX_STACK_DEPTH));
+	}
+
+	/**
+	 * Creation data of a sampled handle
+	 */
+	static class Sample {
+		private final AllocationSite m_site;
+		private final long m_createdNanos;
+
+		private Sample(AllocationSite site, long createdNanos) {
+			m_site = site;
+			m_createdNanos = createdNanos;
+		}
+	}
+
+	private static class SiteKey {
+		private final Class<?> m_type;
+		private final int m_stackHash;
+
+		public SiteKey(Class<?> type, int stackHash) {
+			m_type = type;
+			m_stackHash = stackHash;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * m_type.hashCode() + m_stackHash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (!(obj instanceof SiteKey))
+				return false;
+			SiteKey other = (SiteKey) obj;
+			return m_type == other.m_type && m_stackHash == other.m_stackHash;
+		}
+	}
+
+	/**
+	 * Statistics for handles of one type created with the same stack trace
+	 */
+	private static class AllocationSite {
+		private final Class<?> m_type;
+		private final int m_stackHash;
+		private final StackTraceElement[] m_stack;
+		private final LongAdder m_allocated = new LongAdder();
+		private final LongAdder m_open = new LongAdder();
+		private final AtomicLong m_maxLifetimeMillis = new AtomicLong();
+		private final AtomicLongArray m_lifetimeHistogram = new AtomicLongArray(HISTOGRAM_BUCKETS);
+
+		public AllocationSite(Class<?> type, int stackHash, StackTraceElement[] stack) {
+			m_type = type;
+			m_stackHash = stackHash;
+			m_stack = stack;
+		}
+
+		public String toString(long openCount) {
+			StringBuilder sb = new StringBuilder();
+			sb.append(m_type.getName()).append(": ").append(openCount).append(" open, ")
+			.append(m_allocated.sum()).append(" sampled, max lifetime ").append(m_maxLifetimeMillis.get())
+			.append(" ms, stack hash ").append(Integer.toHexString(m_stackHash));
+
+			//print the histogram up to the last used bucket
+			int lastBucket = HISTOGRAM_BUCKETS-1;
+			while (lastBucket>=0 && m_lifetimeHistogram.get(lastBucket)==0) {
+				lastBucket--;
+			}
+			if (lastBucket>=0) {
+				sb.append(", lifetime histogram [");
+				for (int i=0; i<=lastBucket; i++) {
+					if (i>0) {
+						sb.append(", ");
+					}
+					sb.append(m_lifetimeHistogram.get(i));
+				}
+				sb.append(']');
+			}
+
+			for (StackTraceElement currElement : m_stack) {
+				sb.append("\n\tat ").append(currElement);
+			}
+			return sb.toString();
+		}
+	}
+}
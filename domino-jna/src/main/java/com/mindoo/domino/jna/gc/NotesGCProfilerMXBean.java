@@ -0,0 +1,92 @@
+package com.mindoo.domino.jna.gc;
+
+/**
+ * Management interface of the {@link NotesGCProfiler}, registered via
+ * {@link NotesGCProfiler#registerMBean()} under the name {@link NotesGCProfiler#OBJECT_NAME}.
+ *
+ * @author Karsten Lehmann
+ */
+public interface NotesGCProfilerMXBean {
+
+	public boolean isEnabled();
+
+	public void setEnabled(boolean enabled);
+
+	/**
+	 * Returns the fraction of created handles whose allocation site is recorded
+	 *
+	 * @return rate between 0 and 1
+	 */
+	public double getSampleRate();
+
+	public void setSampleRate(double rate);
+
+	/**
+	 * Returns the lifetime in milliseconds after which a handle is reported as long-lived
+	 *
+	 * @return milliseconds
+	 */
+	public long getLongLivedThresholdMillis();
+
+	public void setLongLivedThresholdMillis(long millis);
+
+	/**
+	 * Returns the number of open handles of a closing {@link NotesGC.DominoGCContext} above which
+	 * a leak report is written
+	 *
+	 * @return handle count
+	 */
+	public int getLeakReportThreshold();
+
+	public void setLeakReportThreshold(int handles);
+
+	/**
+	 * Returns the number of sampled handles since the profiler has been started or reset
+	 *
+	 * @return count
+	 */
+	public long getSampledHandleCount();
+
+	/**
+	 * Returns the number of sampled handles that have not been disposed yet
+	 *
+	 * @return count
+	 */
+	public long getOpenSampledHandleCount();
+
+	/**
+	 * Returns the number of sampled handles that exceeded the long-lived threshold
+	 *
+	 * @return count
+	 */
+	public long getLongLivedHandleCount();
+
+	/**
+	 * Returns the number of leak reports written for closing contexts
+	 *
+	 * @return count
+	 */
+	public long getLeakReportCount();
+
+	/**
+	 * Returns the lifetime histogram of all disposed sampled handles. Entry 0 contains the
+	 * handles that lived less than 1 ms, entry <code>i</code> the handles with a lifetime
+	 * between 2^(i-1) and 2^i ms. The last entry contains all longer lifetimes.
+	 *
+	 * @return histogram
+	 */
+	public long[] getLifetimeHistogram();
+
+	/**
+	 * Returns the allocation sites with the most open sampled handles
+	 *
+	 * @param count maximum number of sites
+	 * @return site descriptions with counts and stack trace
+	 */
+	public String[] getTopAllocationSites(int count);
+
+	/**
+	 * Clears all recorded allocation sites and counters
+	 */
+	public void reset();
+}
@@ -0,0 +1,300 @@
+package com.mindoo.domino.jna.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Map of open C handles used by {@link com.mindoo.domino.jna.gc.NotesGC} to track
+ * allocated objects and memory. Keys are a combination of an optional type
+ * (compared by identity) and a primitive handle value, so no key objects
+ * need to be allocated and no handles need to be boxed.<br>
+ * <br>
+ * The implementation uses open addressing with linear probing on an <code>int</code>
+ * index table that points into parallel entry arrays. Entries are appended in insertion
+ * order, which is used to dispose handles in reverse order. Removing the last inserted
+ * entry (the usual LIFO case) just shrinks the entry arrays.<br>
+ * <br>
+ * The class is not thread-safe.
+ *
+ * @author Karsten Lehmann
+ *
+ * @param <V> value type
+ */
+public class HandleRegistry<V> {
+	private static final int FREE = -1;
+	private static final int REMOVED = -2;
+	private static final int DEFAULT_CAPACITY = 16;
+
+	/** hash table with positions in the entry arrays, FREE or REMOVED */
+	private int[] m_index;
+	private long[] m_handles;
+	private Object[] m_types;
+	private Object[] m_values;
+	/** number of used positions in the entry arrays, including removed entries */
+	private int m_entryCount;
+	/** number of REMOVED slots in m_index */
+	private int m_removedSlots;
+	private int m_size;
+
+	public HandleRegistry() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Creates a new registry
+	 *
+	 * @param initialCapacity number of entries to reserve space for
+	 */
+	public HandleRegistry(int initialCapacity) {
+		int capacity = DEFAULT_CAPACITY;
+		while (capacity < initialCapacity) {
+			capacity <<= 1;
+		}
+		allocate(capacity);
+	}
+
+	private void allocate(int capacity) {
+		m_handles = new long[capacity];
+		m_types = new Object[capacity];
+		m_values = new Object[capacity];
+		m_index = new int[capacity << 1];
+		Arrays.fill(m_index, FREE);
+		m_entryCount = 0;
+		m_removedSlots = 0;
+		m_size = 0;
+	}
+
+	private static int hash(Object type, long handle) {
+		long h = handle * 0x9E3779B97F4A7C15L;
+		if (type!=null) {
+			h ^= System.identityHashCode(type);
+		}
+		return (int) (h ^ (h >>> 32));
+	}
+
+	/**
+	 * Returns the slot in the index table for the specified key
+	 *
+	 * @param type type or null
+	 * @param handle handle
+	 * @return slot or -1 if not found
+	 */
+	private int findSlot(Object type, long handle) {
+		int[] index = m_index;
+		int mask = index.length - 1;
+		int slot = hash(type, handle) & mask;
+
+		while (true) {
+			int pos = index[slot];
+			if (pos==FREE) {
+				return -1;
+			}
+			if (pos>=0 && m_handles[pos]==handle && m_types[pos]==type) {
+				return slot;
+			}
+			slot = (slot + 1) & mask;
+		}
+	}
+
+	/**
+	 * Returns the value stored for a handle
+	 *
+	 * @param type type or null
+	 * @param handle handle
+	 * @return value or null if not found
+	 */
+	@SuppressWarnings("unchecked")
+	public V get(Object type, long handle) {
+		int slot = findSlot(type, handle);
+		return slot==-1 ? null : (V) m_values[m_index[slot]];
+	}
+
+	/**
+	 * Checks if a handle is stored
+	 *
+	 * @param type type or null
+	 * @param handle handle
+	 * @return true if stored
+	 */
+	public boolean contains(Object type, long handle) {
+		return findSlot(type, handle)!=-1;
+	}
+
+	/**
+	 * Stores a value for a handle. If the handle is already stored, its value is
+	 * replaced and the insertion order is not changed.
+	 *
+	 * @param type type or null
+	 * @param handle handle
+	 * @param value value
+	 * @return previous value or null
+	 */
+	@SuppressWarnings("unchecked")
+	public V put(Object type, long handle, V value) {
+		if (value==null)
+			throw new IllegalArgumentException("Value cannot be null");
+
+		int slot = findSlot(type, handle);
+		if (slot!=-1) {
+			int pos = m_index[slot];
+			V oldValue = (V) m_values[pos];
+			m_values[pos] = value;
+			return oldValue;
+		}
+
+		if (m_entryCount == m_handles.length) {
+			//reuse the space of removed entries or grow the entry arrays
+			if (m_size <= (m_handles.length >>> 1)) {
+				compact();
+			}
+			else {
+				grow();
+			}
+		}
+		else if ((m_size + m_removedSlots + 1) > (m_index.length >>> 1)) {
+			rebuildIndex();
+		}
+
+		int pos = m_entryCount++;
+		m_handles[pos] = handle;
+		m_types[pos] = type;
+		m_values[pos] = value;
+
+		int[] index = m_index;
+		int mask = index.length - 1;
+		slot = hash(type, handle) & mask;
+		while (index[slot]>=0) {
+			slot = (slot + 1) & mask;
+		}
+		if (index[slot]==REMOVED) {
+			m_removedSlots--;
+		}
+		index[slot] = pos;
+		m_size++;
+		return null;
+	}
+
+	/**
+	 * Removes the value stored for a handle
+	 *
+	 * @param type type or null
+	 * @param handle handle
+	 * @return removed value or null if not found
+	 */
+	@SuppressWarnings("unchecked")
+	public V remove(Object type, long handle) {
+		int slot = findSlot(type, handle);
+		if (slot==-1) {
+			return null;
+		}
+
+		int pos = m_index[slot];
+		V oldValue = (V) m_values[pos];
+		m_index[slot] = REMOVED;
+		m_removedSlots++;
+		m_types[pos] = null;
+		m_values[pos] = null;
+		m_size--;
+
+		//drop removed entries at the end, e.g. when handles are disposed in reverse order
+		while (m_entryCount>0 && m_values[m_entryCount-1]==null) {
+			m_entryCount--;
+		}
+		return oldValue;
+	}
+
+	/**
+	 * Moves all entries to the start of the entry arrays, keeping their order, and rebuilds the index
+	 */
+	private void compact() {
+		int target = 0;
+		for (int i=0; i<m_entryCount; i++) {
+			if (m_values[i]!=null) {
+				if (target!=i) {
+					m_handles[target] = m_handles[i];
+					m_types[target] = m_types[i];
+					m_values[target] = m_values[i];
+				}
+				target++;
+			}
+		}
+		Arrays.fill(m_types, target, m_entryCount, null);
+		Arrays.fill(m_values, target, m_entryCount, null);
+		m_entryCount = target;
+		rebuildIndex();
+	}
+
+	private void grow() {
+		int newCapacity = m_handles.length << 1;
+		m_handles = Arrays.copyOf(m_handles, newCapacity);
+		m_types = Arrays.copyOf(m_types, newCapacity);
+		m_values = Arrays.copyOf(m_values, newCapacity);
+		m_index = new int[newCapacity << 1];
+		compact();
+	}
+
+	private void rebuildIndex() {
+		int[] index = m_index;
+		Arrays.fill(index, FREE);
+		int mask = index.length - 1;
+
+		for (int pos=0; pos<m_entryCount; pos++) {
+			if (m_values[pos]!=null) {
+				int slot = hash(m_types[pos], m_handles[pos]) & mask;
+				while (index[slot]!=FREE) {
+					slot = (slot + 1) & mask;
+				}
+				index[slot] = pos;
+			}
+		}
+		m_removedSlots = 0;
+	}
+
+	/**
+	 * Returns the number of stored handles
+	 *
+	 * @return size
+	 */
+	public int size() {
+		return m_size;
+	}
+
+	public boolean isEmpty() {
+		return m_size==0;
+	}
+
+	/**
+	 * Returns a snapshot of the stored values
+	 *
+	 * @return values in insertion order
+	 */
+	@SuppressWarnings("unchecked")
+	public List<V> values() {
+		List<V> values = new ArrayList<V>(m_size);
+		for (int i=0; i<m_entryCount; i++) {
+			Object currValue = m_values[i];
+			if (currValue!=null) {
+				values.add((V) currValue);
+			}
+		}
+		return values;
+	}
+
+	/**
+	 * Removes all entries
+	 */
+	public void clear() {
+		Arrays.fill(m_types, 0, m_entryCount, null);
+		Arrays.fill(m_values, 0, m_entryCount, null);
+		Arrays.fill(m_index, FREE);
+		m_entryCount = 0;
+		m_removedSlots = 0;
+		m_size = 0;
+	}
+
+	@Override
+	public String toString() {
+		return "HandleRegistry [size="+m_size+"]";
+	}
+}
@@ -0,0 +1,462 @@
+package com.mindoo.domino.jna.internal;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.mindoo.domino.jna.utils.NotesStringUtils.LineBreakConversion;
+
+/**
+ * Pure Java implementation of the LMBCS (Lotus Multi-Byte Character Set) conversion
+ * to avoid native OSTranslate calls for the strings that Domino typically produces.<br>
+ * <br>
+ * Supported LMBCS groups for decoding:
+ * <ul>
+ * <li>ASCII characters (single byte 0x20-0x7f as well as tab, CR and LF)</li>
+ * <li>group 0x01 (Western European, code page 850), with explicit group byte or as optimization group (bytes 0x80-0xff)</li>
+ * <li>groups 0x03-0x06, 0x08 and 0x0b (Hebrew, Arabic, Cyrillic, Central European, Turkish and Thai code pages)</li>
+ * <li>group 0x0f (C0/C1 control characters)</li>
+ * <li>groups 0x10, 0x12 and 0x13 (Japanese, Traditional and Simplified Chinese double byte code pages)</li>
+ * <li>group 0x14 (Unicode fallback)</li>
+ * </ul>
+ * The encoder writes ASCII characters as single bytes, characters of code page 850 with group
+ * byte 0x01, C1 control characters (0x80-0x9f) with group byte 0x0f and all other characters
+ * with the Unicode group 0x14.<br>
+ * <br>
+ * For ASCII, Western European and C1 control characters, the encoded bytes are the same as the
+ * result of OSTranslate. For other characters, OSTranslate uses the group of the matching code page
+ * (e.g. 0x05 for Cyrillic or 0x10 for Japanese), so the bytes differ, but both encodings decode
+ * to the same text.<br>
+ * <br>
+ * All methods return null or -1 for data they cannot handle (e.g. unsupported groups,
+ * unmappable characters, control characters or surrogate pairs). Callers are expected
+ * to use OSTranslate in that case.<br>
+ * <br>
+ * Runs of ASCII characters are processed 8 bytes at a time.
+ *
+ * @author Karsten Lehmann
+ */
+public class LMBCSCodec {
+	private static final int GRP_L1 = 0x01;
+	private static final int GRP_CTRL = 0x0f;
+	private static final int GRP_DBCS_START = 0x10;
+	private static final int GRP_DBCS_END = 0x13;
+	private static final int GRP_UNICODE = 0x14;
+	/** replaces the high byte in the Unicode group if the low byte is 0 */
+	private static final int UNICODE_COMPAT_ZERO = 0xf6;
+	private static final int CTRL_OFFSET = 0x20;
+
+	private static final long HIGH_BITS = 0x8080808080808080L;
+	private static final long SPACES = 0x2020202020202020L;
+
+	/** code page 850, bytes 0x80-0xff */
+	private static final String GROUP1_CHARS =
+			"\u00c7\u00fc\u00e9\u00e2\u00e4\u00e0\u00e5\u00e7\u00ea\u00eb\u00e8\u00ef\u00ee\u00ec\u00c4\u00c5" +
+			"\u00c9\u00e6\u00c6\u00f4\u00f6\u00f2\u00fb\u00f9\u00ff\u00d6\u00dc\u00f8\u00a3\u00d8\u00d7\u0192" +
+			"\u00e1\u00ed\u00f3\u00fa\u00f1\u00d1\u00aa\u00ba\u00bf\u00ae\u00ac\u00bd\u00bc\u00a1\u00ab\u00bb" +
+			"\u2591\u2592\u2593\u2502\u2524\u00c1\u00c2\u00c0\u00a9\u2563\u2551\u2557\u255d\u00a2\u00a5\u2510" +
+			"\u2514\u2534\u252c\u251c\u2500\u253c\u00e3\u00c3\u255a\u2554\u2569\u2566\u2560\u2550\u256c\u00a4" +
+			"\u00f0\u00d0\u00ca\u00cb\u00c8\u0131\u00cd\u00ce\u00cf\u2518\u250c\u2588\u2584\u00a6\u00cc\u2580" +
+			"\u00d3\u00df\u00d4\u00d2\u00f5\u00d5\u00b5\u00fe\u00de\u00da\u00db\u00d9\u00fd\u00dd\u00af\u00b4" +
+			"\u00ad\u00b1\u2017\u00be\u00b6\u00a7\u00f7\u00b8\u00b0\u00a8\u00b7\u00b9\u00b3\u00b2\u25a0\u00a0";
+
+	private static final char[] GROUP1_DECODE = GROUP1_CHARS.toCharArray();
+	/** maps chars below 0x2600 to code page 850 bytes, 0 if not mapped */
+	private static final byte[] GROUP1_ENCODE = new byte[0x2600];
+	static {
+		for (int i=0; i<GROUP1_DECODE.length; i++) {
+			GROUP1_ENCODE[GROUP1_DECODE[i]] = (byte) (0x80 + i);
+		}
+	}
+
+	/** code pages of the single byte groups, indexed by group byte */
+	private static final String[] SBCS_GROUP_CHARSETS = new String[GRP_CTRL];
+	static {
+		//group 0x02 (Greek) uses IBM-851, which is not available in the JRE
+		SBCS_GROUP_CHARSETS[0x03] = "windows-1255";
+		SBCS_GROUP_CHARSETS[0x04] = "windows-1256";
+		SBCS_GROUP_CHARSETS[0x05] = "windows-1251";
+		SBCS_GROUP_CHARSETS[0x06] = "IBM852";
+		SBCS_GROUP_CHARSETS[0x08] = "windows-1254";
+		SBCS_GROUP_CHARSETS[0x0b] = "x-IBM874";
+	}
+
+	/** code pages of the double byte groups 0x10-0x13 */
+	private static final String[] DBCS_GROUP_CHARSETS = new String[] {
+			"x-IBM943",
+			//group 0x11 (Korean) uses IBM-1261, which is not available in the JRE
+			null,
+			"x-IBM950",
+			"GBK"
+	};
+
+	/** lazily created decode tables for bytes 0x80-0xff of the single byte groups */
+	private static final AtomicReferenceArray<char[]> m_sbcsTables = new AtomicReferenceArray<char[]>(GRP_CTRL);
+	/** lazily created decode tables for the double byte groups, one entry for each lead/trail byte combination */
+	private static final AtomicReferenceArray<char[]> m_dbcsTables = new AtomicReferenceArray<char[]>(DBCS_GROUP_CHARSETS.length);
+	/** lazily created decode tables for the single byte characters of the double byte groups */
+	private static final AtomicReferenceArray<char[]> m_dbcsSingleByteTables = new AtomicReferenceArray<char[]>(DBCS_GROUP_CHARSETS.length);
+
+	/** marker for an unsupported group or missing JRE charset */
+	private static final char[] UNSUPPORTED = new char[0];
+
+	/**
+	 * Decodes LMBCS data between position and limit of the buffer. The position of
+	 * the buffer is not changed.
+	 *
+	 * @param buf buffer, e.g. from {@link com.sun.jna.Pointer#getByteBuffer(long, long)}
+	 * @param lineDelimiter string to insert for each null byte in the data
+	 * @return decoded string or null if the data contains LMBCS groups that are not supported
+	 */
+	public static String decode(ByteBuffer buf, String lineDelimiter) {
+		int pos = buf.position();
+		int limit = buf.limit();
+		boolean bigEndian = buf.order() == ByteOrder.BIG_ENDIAN;
+
+		char[] out = new char[limit - pos];
+		int outPos = 0;
+
+		while (pos < limit) {
+			//ASCII fast path, check 8 bytes at once for values between 0x20 and 0x7f
+			while (pos + 8 <= limit) {
+				long word = buf.getLong(pos);
+				if (((word | (word - SPACES)) & HIGH_BITS) != 0) {
+					break;
+				}
+				for (int i=0; i<8; i++) {
+					int shift = bigEndian ? (56 - 8*i) : 8*i;
+					out[outPos++] = (char) ((word >>> shift) & 0xff);
+				}
+				pos += 8;
+			}
+			if (pos >= limit) {
+				break;
+			}
+
+			int b = buf.get(pos++) & 0xff;
+
+			if (b >= 0x20 && b < 0x80) {
+				out[outPos++] = (char) b;
+			}
+			else if (b == 0) {
+				//make sure the remaining bytes still fit when the delimiter is longer than 1 char
+				int requiredSize = outPos + lineDelimiter.length() + (limit - pos);
+				if (requiredSize > out.length) {
+					char[] newOut = new char[Math.max(requiredSize, out.length + (out.length >> 1))];
+					System.arraycopy(out, 0, newOut, 0, outPos);
+					out = newOut;
+				}
+				for (int i=0; i<lineDelimiter.length(); i++) {
+					out[outPos++] = lineDelimiter.charAt(i);
+				}
+			}
+			else if (b == '\t' || b == '\n' || b == '\r') {
+				out[outPos++] = (char) b;
+			}
+			else if (b >= 0x80) {
+				//optimization group 1 without group byte
+				out[outPos++] = GROUP1_DECODE[b - 0x80];
+			}
+			else if (b == GRP_UNICODE) {
+				if (pos + 2 > limit) {
+					return null;
+				}
+				int high = buf.get(pos++) & 0xff;
+				int low = buf.get(pos++) & 0xff;
+				if (high == UNICODE_COMPAT_ZERO) {
+					high = low;
+					low = 0;
+				}
+				out[outPos++] = (char) ((high << 8) | low);
+			}
+			else if (b == GRP_L1) {
+				if (pos >= limit) {
+					return null;
+				}
+				int c = buf.get(pos++) & 0xff;
+				if (c < 0x80) {
+					return null;
+				}
+				out[outPos++] = GROUP1_DECODE[c - 0x80];
+			}
+			else if (b == GRP_CTRL) {
+				if (pos >= limit) {
+					return null;
+				}
+				int c = buf.get(pos++) & 0xff;
+				if (c < 0x80) {
+					if (c < CTRL_OFFSET || c >= 2 * CTRL_OFFSET) {
+						return null;
+					}
+					out[outPos++] = (char) (c - CTRL_OFFSET);
+				}
+				else {
+					out[outPos++] = (char) c;
+				}
+			}
+			else if (b < GRP_CTRL) {
+				//single byte groups
+				if (pos >= limit) {
+					return null;
+				}
+				int c = buf.get(pos++) & 0xff;
+				if (c < 0x80) {
+					return null;
+				}
+				char[] table = getSBCSTable(b);
+				if (table == UNSUPPORTED) {
+					return null;
+				}
+				char decoded = table[c - 0x80];
+				if (decoded == 0) {
+					return null;
+				}
+				out[outPos++] = decoded;
+			}
+			else if (b >= GRP_DBCS_START && b <= GRP_DBCS_END) {
+				if (pos >= limit) {
+					return null;
+				}
+				int dbcsIdx = b - GRP_DBCS_START;
+				int lead = buf.get(pos++) & 0xff;
+				char decoded;
+				if (lead == b) {
+					//group byte repeated: single byte character of the group
+					if (pos >= limit) {
+						return null;
+					}
+					int c = buf.get(pos++) & 0xff;
+					char[] table = getDBCSSingleByteTable(dbcsIdx);
+					if (table == UNSUPPORTED) {
+						return null;
+					}
+					decoded = table[c];
+				}
+				else {
+					if (pos >= limit) {
+						return null;
+					}
+					int trail = buf.get(pos++) & 0xff;
+					char[] table = getDBCSTable(dbcsIdx);
+					if (table == UNSUPPORTED) {
+						return null;
+					}
+					decoded = table[(lead << 8) | trail];
+				}
+				if (decoded == 0) {
+					return null;
+				}
+				out[outPos++] = decoded;
+			}
+			else {
+				//reserved / unknown group
+				return null;
+			}
+		}
+
+		return new String(out, 0, outPos);
+	}
+
+	/**
+	 * Decodes LMBCS data in a byte array
+	 *
+	 * @param data data
+	 * @param offset offset in array
+	 * @param length number of bytes to decode
+	 * @param lineDelimiter string to insert for each null byte in the data
+	 * @return decoded string or null if the data contains LMBCS groups that are not supported
+	 */
+	public static String decode(byte[] data, int offset, int length, String lineDelimiter) {
+		return decode(ByteBuffer.wrap(data, offset, length), lineDelimiter);
+	}
+
+	/**
+	 * Computes the number of bytes required to encode the string
+	 *
+	 * @param str string
+	 * @param lineBreakConversion how to convert linebreaks in the string
+	 * @return number of bytes (without terminating null byte) or -1 if the string contains characters not supported by the encoder
+	 */
+	public static int getEncodedLength(String str, LineBreakConversion lineBreakConversion) {
+		boolean convertLineBreaks = lineBreakConversion != LineBreakConversion.ORIGINAL;
+
+		int len = str.length();
+		int bytes = 0;
+		for (int i=0; i<len; i++) {
+			char c = str.charAt(i);
+			if (c >= 0x20 && c < 0x80) {
+				bytes++;
+			}
+			else if (c == '\n' || c == '\t') {
+				bytes++;
+			}
+			else if (c == '\r') {
+				if (!convertLineBreaks || i+1 >= len || str.charAt(i+1) != '\n') {
+					bytes++;
+				}
+			}
+			else if (c < 0x20 || Character.isSurrogate(c)) {
+				return -1;
+			}
+			else if (c < 0xa0) {
+				//C1 control character
+				bytes += 2;
+			}
+			else if (c < GROUP1_ENCODE.length && GROUP1_ENCODE[c] != 0) {
+				bytes += 2;
+			}
+			else {
+				bytes += 3;
+			}
+		}
+		return bytes;
+	}
+
+	/**
+	 * Encodes a string in LMBCS format. Call {@link #getEncodedLength(String, LineBreakConversion)} first
+	 * to make sure that the string can be encoded and the buffer is large enough.
+	 *
+	 * @param str string
+	 * @param lineBreakConversion how to convert linebreaks in the string
+	 * @param target target buffer, data is written at its current position, the position is not changed
+	 * @return number of bytes written
+	 */
+	public static int encode(String str, LineBreakConversion lineBreakConversion, ByteBuffer target) {
+		boolean convertLineBreaks = lineBreakConversion != LineBreakConversion.ORIGINAL;
+		byte lineBreak = lineBreakConversion == LineBreakConversion.NULL ? 0 : (byte) '\n';
+
+		int startPos = target.position();
+		int pos = startPos;
+		int len = str.length();
+		for (int i=0; i<len; i++) {
+			char c = str.charAt(i);
+			if (c >= 0x20 && c < 0x80) {
+				target.put(pos++, (byte) c);
+			}
+			else if (c == '\n') {
+				target.put(pos++, convertLineBreaks ? lineBreak : (byte) '\n');
+			}
+			else if (c == '\t') {
+				target.put(pos++, (byte) c);
+			}
+			else if (c == '\r') {
+				if (!convertLineBreaks || i+1 >= len || str.charAt(i+1) != '\n') {
+					target.put(pos++, (byte) c);
+				}
+			}
+			else if (c < 0x20 || Character.isSurrogate(c)) {
+				throw new IllegalArgumentException("Unsupported character at index "+i+": 0x"+Integer.toHexString(c));
+			}
+			else if (c < 0xa0) {
+				//C1 control characters would produce a 0 byte in the Unicode group
+				target.put(pos++, (byte) GRP_CTRL);
+				target.put(pos++, (byte) c);
+			}
+			else if (c < GROUP1_ENCODE.length && GROUP1_ENCODE[c] != 0) {
+				target.put(pos++, (byte) GRP_L1);
+				target.put(pos++, GROUP1_ENCODE[c]);
+			}
+			else {
+				int high = (c >>> 8) & 0xff;
+				int low = c & 0xff;
+				target.put(pos++, (byte) GRP_UNICODE);
+				if (low == 0) {
+					target.put(pos++, (byte) UNICODE_COMPAT_ZERO);
+					target.put(pos++, (byte) high);
+				}
+				else {
+					target.put(pos++, (byte) high);
+					target.put(pos++, (byte) low);
+				}
+			}
+		}
+		return pos - startPos;
+	}
+
+	private static char[] getSBCSTable(int group) {
+		char[] table = m_sbcsTables.get(group);
+		if (table == null) {
+			table = createTable(SBCS_GROUP_CHARSETS[group], 1);
+			m_sbcsTables.set(group, table);
+		}
+		return table;
+	}
+
+	private static char[] getDBCSTable(int dbcsIdx) {
+		char[] table = m_dbcsTables.get(dbcsIdx);
+		if (table == null) {
+			table = createTable(DBCS_GROUP_CHARSETS[dbcsIdx], 2);
+			m_dbcsTables.set(dbcsIdx, table);
+		}
+		return table;
+	}
+
+	private static char[] getDBCSSingleByteTable(int dbcsIdx) {
+		char[] table = m_dbcsSingleByteTables.get(dbcsIdx);
+		if (table == null) {
+			table = createTable(DBCS_GROUP_CHARSETS[dbcsIdx], 0);
+			m_dbcsSingleByteTables.set(dbcsIdx, table);
+		}
+		return table;
+	}
+
+	/**
+	 * Creates a decode table for a JRE charset. The result is deterministic, so
+	 * concurrent creation by multiple threads is not an issue.
+	 *
+	 * @param charsetName charset name or null
+	 * @param mode 0 for all single bytes, 1 for single bytes 0x80-0xff, 2 for all double bytes with lead byte &gt;= 0x80
+	 * @return table with 0 for unmapped values or {@link #UNSUPPORTED}
+	 */
+	private static char[] createTable(String charsetName, int mode) {
+		if (charsetName==null || !Charset.isSupported(charsetName)) {
+			return UNSUPPORTED;
+		}
+
+		CharsetDecoder decoder = Charset.forName(charsetName).newDecoder()
+				.onMalformedInput(CodingErrorAction.REPORT)
+				.onUnmappableCharacter(CodingErrorAction.REPORT);
+
+		if (mode == 2) {
+			char[] table = new char[0x10000];
+			byte[] pair = new byte[2];
+			for (int lead=0x80; lead<=0xff; lead++) {
+				for (int trail=0x40; trail<=0xff; trail++) {
+					pair[0] = (byte) lead;
+					pair[1] = (byte) trail;
+					table[(lead << 8) | trail] = decodeSingleChar(decoder, pair);
+				}
+			}
+			return table;
+		}
+		else {
+			int start = mode==1 ? 0x80 : 0;
+			char[] table = new char[0x100 - start];
+			byte[] single = new byte[1];
+			for (int c=start; c<=0xff; c++) {
+				single[0] = (byte) c;
+				table[c - start] = decodeSingleChar(decoder, single);
+			}
+			return table;
+		}
+	}
+
+	private static char decodeSingleChar(CharsetDecoder decoder, byte[] data) {
+		try {
+			CharBuffer decoded = decoder.reset().decode(ByteBuffer.wrap(data));
+			if (decoded.remaining() == 1) {
+				char c = decoded.get();
+				return c == '\ufffd' ? 0 : c;
+			}
+		}
+		catch (CharacterCodingException e) {
+			//not mapped
+		}
+		return 0;
+	}
+}
@@ -16,7 +16,7 @@ public class LMBCSStringConversionCache {
 
 	private static final int MAX_LMBCS2STRING_SIZE_BYTES = 1000000;
 
-	private static SizeLimitedLRUCache<LMBCSString,String> LMBCS2STRINGCACHE = new SizeLimitedLRUCache<LMBCSString,String>(MAX_LMBCS2STRING_SIZE_BYTES) {
+	private static SizeLimitedLRUCache<LMBCSString,String> LMBCS2STRINGCACHE = new SizeLimitedLRUCache<LMBCSString,String>("LMBCS2String", MAX_LMBCS2STRING_SIZE_BYTES) {
 		@Override
 		protected int computeSize(LMBCSString key, String value) {
 			return key.size() + value.length()*2;
@@ -0,0 +1,385 @@
+package com.mindoo.domino.jna.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.mindoo.domino.jna.gc.IAllocatedMemory;
+import com.mindoo.domino.jna.gc.NotesGC;
+import com.sun.jna.Memory;
+import com.sun.jna.Pointer;
+
+/**
+ * Arena for short-lived native memory, e.g. LMBCS encoded strings and C structures that
+ * are only needed for a single C API call.<br>
+ * <br>
+ * Memory is bump-allocated from native slabs of {@link #SLAB_SIZE} bytes that are
+ * shared between threads via a pool, so that most allocations neither call
+ * <code>malloc</code>/<code>free</code> nor create objects that need to be finalized.
+ * All memory of an arena is released at once when it gets closed:<br>
+ * <br>
+ * <code>
+ * try (NativeMemoryArena arena = NativeMemoryArena.open()) {<br>
+ * &nbsp;&nbsp;&nbsp;Memory mem = arena.allocate(100);<br>
+ * &nbsp;&nbsp;&nbsp;...<br>
+ * }
+ * </code><br>
+ * <br>
+ * Arenas are bound to the current thread and can be nested. A nested arena continues to
+ * allocate from the slabs of the outer one and just resets the allocation position when closed,
+ * so opening an arena inside a loop of an outer arena is cheap. {@link #current()} returns the
+ * innermost open arena, which lets code deep in the call stack use the arena of an
+ * import job.<br>
+ * <br>
+ * When opened in a {@link NotesGC#runWithAutoGC(java.util.concurrent.Callable)} block, the outermost
+ * arena is registered as allocated memory and gets released at the end of the block if it has not been
+ * closed.<br>
+ * <br>
+ * <b>The returned {@link Memory} objects must not be used after the arena has been closed.</b>
+ *
+ * @author Karsten Lehmann
+ */
+public class NativeMemoryArena implements AutoCloseable {
+	/** size of the pooled native slabs */
+	public static final int SLAB_SIZE = 64 * 1024;
+	/** maximum number of idle slabs kept in the pool */
+	private static final int MAX_POOLED_SLABS = 32;
+	private static final int ALIGNMENT = 8;
+
+	private static final ThreadLocal<NativeMemoryArena> m_currentArena = new ThreadLocal<NativeMemoryArena>();
+	private static final ConcurrentLinkedQueue<DisposableMemory> m_slabPool = new ConcurrentLinkedQueue<DisposableMemory>();
+	private static final AtomicInteger m_pooledSlabCount = new AtomicInteger();
+	private static final AtomicLong m_syntheticHandles = new AtomicLong();
+
+	private static final LongAdder m_slabAllocationCount = new LongAdder();
+	private static final LongAdder m_allocationCount = new LongAdder();
+	private static final LongAdder m_largeAllocationCount = new LongAdder();
+	private static final AtomicLong m_maxHighWaterMark = new AtomicLong();
+
+	private final ArenaState m_state;
+	private final NativeMemoryArena m_parent;
+	//allocation position when the arena was opened, restored on close
+	private final int m_markSlabIndex;
+	private final long m_markOffset;
+	private final int m_markLargeCount;
+	private final long m_markBytesInUse;
+	private boolean m_closed;
+
+	private NativeMemoryArena(ArenaState state, NativeMemoryArena parent) {
+		m_state = state;
+		m_parent = parent;
+		m_markSlabIndex = state.m_slabIndex;
+		m_markOffset = state.m_offset;
+		m_markLargeCount = state.m_largeAllocations.size();
+		m_markBytesInUse = state.m_bytesInUse;
+	}
+
+	/**
+	 * Opens a new arena for the current thread. If another arena is already open, the new
+	 * arena is nested inside it.
+	 *
+	 * @return arena, must be closed
+	 */
+	public static NativeMemoryArena open() {
+		NativeMemoryArena parent = m_currentArena.get();
+		NativeMemoryArena arena;
+		if (parent!=null) {
+			arena = new NativeMemoryArena(parent.m_state, parent);
+		}
+		else {
+			ArenaState state = new ArenaState();
+			arena = new NativeMemoryArena(state, null);
+			if (NotesGC.isAutoGCActive()) {
+				NotesGC.__memoryAllocated(state);
+				state.m_registeredInGC = true;
+			}
+		}
+		m_currentArena.set(arena);
+		return arena;
+	}
+
+	/**
+	 * Returns the innermost arena opened in the current thread
+	 *
+	 * @return arena or null
+	 */
+	public static NativeMemoryArena current() {
+		return m_currentArena.get();
+	}
+
+	/**
+	 * Allocates memory from this arena. The memory is not initialized.
+	 *
+	 * @param size number of bytes
+	 * @return memory, valid until this arena is closed
+	 */
+	public Memory allocate(long size) {
+		if (m_closed)
+			throw new IllegalStateException("Arena is already closed");
+		if (m_currentArena.get()!=this)
+			throw new IllegalStateException("Memory can only be allocated from the innermost arena of the current thread");
+		if (size<=0)
+			throw new IllegalArgumentException("Size must be greater than 0: "+size);
+
+		return m_state.allocate(size);
+	}
+
+	/**
+	 * Returns the number of bytes currently allocated from the slabs of this arena and its outer arenas
+	 *
+	 * @return bytes
+	 */
+	public long getBytesInUse() {
+		return m_state.m_bytesInUse;
+	}
+
+	/**
+	 * Returns the maximum number of bytes that have been in use at the same time
+	 * in this arena and its outer arenas
+	 *
+	 * @return high-water mark in bytes
+	 */
+	public long getHighWaterMark() {
+		return m_state.m_highWaterMark;
+	}
+
+	/**
+	 * Checks if this arena has been closed
+	 *
+	 * @return true if closed
+	 */
+	public boolean isClosed() {
+		return m_closed;
+	}
+
+	/**
+	 * Releases all memory allocated since this arena has been opened. The outermost
+	 * arena returns its slabs to the pool.
+	 */
+	@Override
+	public void close() {
+		if (m_closed) {
+			return;
+		}
+		if (m_state.m_freed) {
+			//already released at the end of the auto GC block
+			m_closed = true;
+			return;
+		}
+		if (m_currentArena.get()!=this)
+			throw new IllegalStateException("Nested arenas must be closed first");
+
+		m_closed = true;
+		if (m_parent!=null) {
+			m_state.resetTo(m_markSlabIndex, m_markOffset, m_markLargeCount, m_markBytesInUse);
+			m_currentArena.set(m_parent);
+		}
+		else {
+			if (m_state.m_registeredInGC && !m_state.m_freed && NotesGC.isAutoGCActive()) {
+				NotesGC.__memoryBeeingFreed(m_state);
+			}
+			m_state.free();
+		}
+	}
+
+	/**
+	 * Returns the number of slabs allocated via <code>malloc</code> since the start of the
+	 * application or the last call to {@link #resetStatistics()}
+	 *
+	 * @return count
+	 */
+	public static long getSlabAllocationCount() {
+		return m_slabAllocationCount.sum();
+	}
+
+	/**
+	 * Returns the number of allocations from arenas
+	 *
+	 * @return count
+	 */
+	public static long getAllocationCount() {
+		return m_allocationCount.sum();
+	}
+
+	/**
+	 * Returns the number of allocations that were too large for a slab and
+	 * have been allocated separately
+	 *
+	 * @return count
+	 */
+	public static long getLargeAllocationCount() {
+		return m_largeAllocationCount.sum();
+	}
+
+	/**
+	 * Returns the highest high-water mark of all arenas
+	 *
+	 * @return bytes
+	 */
+	public static long getMaxHighWaterMark() {
+		return m_maxHighWaterMark.get();
+	}
+
+	/**
+	 * Returns the number of idle slabs in the pool
+	 *
+	 * @return count
+	 */
+	public static int getPooledSlabCount() {
+		return m_pooledSlabCount.get();
+	}
+
+	/**
+	 * Resets the allocation counters and the high-water mark
+	 */
+	public static void resetStatistics() {
+		m_slabAllocationCount.reset();
+		m_allocationCount.reset();
+		m_largeAllocationCount.reset();
+		m_maxHighWaterMark.set(0);
+	}
+
+	private static DisposableMemory acquireSlab() {
+		DisposableMemory slab = m_slabPool.poll();
+		if (slab!=null) {
+			m_pooledSlabCount.decrementAndGet();
+			return slab;
+		}
+		m_slabAllocationCount.increment();
+		return new DisposableMemory(SLAB_SIZE);
+	}
+
+	private static void releaseSlab(DisposableMemory slab) {
+		if (m_pooledSlabCount.incrementAndGet() <= MAX_POOLED_SLABS) {
+			m_slabPool.offer(slab);
+		}
+		else {
+			m_pooledSlabCount.decrementAndGet();
+			slab.dispose();
+		}
+	}
+
+	/**
+	 * Slabs and allocation position shared by an outermost arena and its nested arenas
+	 */
+	private static class ArenaState implements IAllocatedMemory {
+		private final long m_handle = -m_syntheticHandles.incrementAndGet();
+		private final List<DisposableMemory> m_slabs = new ArrayList<DisposableMemory>();
+		private final List<DisposableMemory> m_largeAllocations = new ArrayList<DisposableMemory>();
+		private int m_slabIndex = -1;
+		private long m_offset = SLAB_SIZE;
+		private long m_bytesInUse;
+		private long m_highWaterMark;
+		private boolean m_registeredInGC;
+		private boolean m_freed;
+
+		private Memory allocate(long size) {
+			m_allocationCount.increment();
+			long alignedSize = (size + ALIGNMENT - 1) & ~(ALIGNMENT - 1);
+
+			Memory mem;
+			if (alignedSize > SLAB_SIZE) {
+				m_largeAllocationCount.increment();
+				DisposableMemory largeMem = new DisposableMemory(size);
+				m_largeAllocations.add(largeMem);
+				mem = largeMem;
+			}
+			else {
+				if (m_offset + alignedSize > SLAB_SIZE) {
+					//continue with the next slab; slabs stay assigned to the arena until it is freed
+					m_slabIndex++;
+					if (m_slabIndex == m_slabs.size()) {
+						m_slabs.add(acquireSlab());
+					}
+					m_offset = 0;
+				}
+				DisposableMemory slab = m_slabs.get(m_slabIndex);
+				mem = new ArenaMemory(Pointer.nativeValue(slab) + m_offset, size);
+				m_offset += alignedSize;
+			}
+
+			m_bytesInUse += alignedSize;
+			if (m_bytesInUse > m_highWaterMark) {
+				m_highWaterMark = m_bytesInUse;
+				long globalMax;
+				while (m_highWaterMark > (globalMax = m_maxHighWaterMark.get())) {
+					if (m_maxHighWaterMark.compareAndSet(globalMax, m_highWaterMark)) {
+						break;
+					}
+				}
+			}
+			return mem;
+		}
+
+		private void resetTo(int slabIndex, long offset, int largeCount, long bytesInUse) {
+			m_slabIndex = slabIndex;
+			m_offset = offset;
+			m_bytesInUse = bytesInUse;
+			for (int i=m_largeAllocations.size()-1; i>=largeCount; i--) {
+				m_largeAllocations.remove(i).dispose();
+			}
+		}
+
+		@Override
+		public void free() {
+			if (m_freed) {
+				return;
+			}
+			m_freed = true;
+			for (DisposableMemory currSlab : m_slabs) {
+				releaseSlab(currSlab);
+			}
+			m_slabs.clear();
+			for (DisposableMemory currMem : m_largeAllocations) {
+				currMem.dispose();
+			}
+			m_largeAllocations.clear();
+			m_bytesInUse = 0;
+
+			NativeMemoryArena current = m_currentArena.get();
+			if (current!=null && current.m_state==this) {
+				m_currentArena.remove();
+			}
+		}
+
+		@Override
+		public boolean isFreed() {
+			return m_freed;
+		}
+
+		@Override
+		public int getHandle32() {
+			return (int) m_handle;
+		}
+
+		@Override
+		public long getHandle64() {
+			return m_handle;
+		}
+
+		@Override
+		public String toString() {
+			return "NativeMemoryArena [slabs="+m_slabs.size()+", bytesInUse="+m_bytesInUse+", highWaterMark="+m_highWaterMark+"]";
+		}
+	}
+
+	/**
+	 * Memory inside an arena slab; not freed individually
+	 */
+	private static class ArenaMemory extends MemoryFromPointer {
+
+		public ArenaMemory(long peer, long size) {
+			super();
+			this.peer = peer;
+			this.size = size;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "NativeMemoryArena [nested="+(m_parent!=null)+", closed="+m_closed+", state="+m_state+"]";
+	}
+}
@@ -18,8 +18,11 @@ import com.mindoo.domino.jna.NotesCollectionStats;
 import com.mindoo.domino.jna.NotesDateRange;
 import com.mindoo.domino.jna.NotesIDTable;
 import com.mindoo.domino.jna.NotesItem;
+import com.mindoo.domino.jna.NotesSearch;
+import com.mindoo.domino.jna.NotesSearch.ISummaryBufferAccess;
 import com.mindoo.domino.jna.NotesTimeDate;
 import com.mindoo.domino.jna.NotesViewEntryData;
+import com.mindoo.domino.jna.NotesViewLookupColumnarResultData;
 import com.mindoo.domino.jna.NotesViewLookupResultData;
 import com.mindoo.domino.jna.constants.ReadMask;
 import com.mindoo.domino.jna.errors.NotesError;
@@ -29,6 +32,7 @@ import com.mindoo.domino.jna.internal.structs.NotesItemTableStruct;
 import com.mindoo.domino.jna.utils.LMBCSString;
 import com.mindoo.domino.jna.utils.NotesStringUtils;
 import com.mindoo.domino.jna.utils.PlatformUtils;
+import com.sun.jna.Memory;
 import com.sun.jna.Pointer;
 
 /**
@@ -321,6 +325,127 @@ public class NotesLookupResultBufferDecoder {
 		return new NotesViewLookupResultData(collectionStats, viewEntries, numEntriesSkipped, numEntriesReturned, signalFlags, pos, indexModifiedSequenceNo, retDiffTime);
 	}
 
+	/**
+	 * Decodes the buffer into primitive arrays per column, 32 bit mode
+	 *
+	 * @param parentCollection parent collection
+	 * @param bufferHandle buffer handle
+	 * @param bufferLength length of the buffer in bytes
+	 * @param numEntriesSkipped entries skipped during collection scan
+	 * @param numEntriesReturned entries read during collection scan
+	 * @param returnMask bitmask used to fill the buffer with data
+	 * @param signalFlags signal flags returned by NIFReadEntries, e.g. whether we have more data to read
+	 * @param indexModifiedSequenceNo index modified sequence no
+	 * @param retDiffTime diff time returned by NIFReadEntriesExt
+	 * @param singleColumnLookupName for single column lookups, programmatic name of lookup column
+	 * @return columnar collection data
+	 */
+	public static NotesViewLookupColumnarResultData b32_decodeCollectionLookupResultBufferColumnar(NotesCollection parentCollection,
+			int bufferHandle, int bufferLength, int numEntriesSkipped, int numEntriesReturned,
+			EnumSet<ReadMask> returnMask, short signalFlags, int indexModifiedSequenceNo, NotesTimeDate retDiffTime,
+			String singleColumnLookupName) {
+		return b64_decodeCollectionLookupResultBufferColumnar(parentCollection, bufferHandle, bufferLength,
+				numEntriesSkipped, numEntriesReturned, returnMask, signalFlags, indexModifiedSequenceNo, retDiffTime,
+				singleColumnLookupName);
+	}
+
+	/**
+	 * Decodes the buffer into primitive arrays per column, 64 bit mode
+	 *
+	 * @param parentCollection parent collection
+	 * @param bufferHandle buffer handle
+	 * @param bufferLength length of the buffer in bytes
+	 * @param numEntriesSkipped entries skipped during collection scan
+	 * @param numEntriesReturned entries read during collection scan
+	 * @param returnMask bitmask used to fill the buffer with data
+	 * @param signalFlags signal flags returned by NIFReadEntries, e.g. whether we have more data to read
+	 * @param indexModifiedSequenceNo index modified sequence no
+	 * @param retDiffTime diff time returned by NIFReadEntriesExt
+	 * @param singleColumnLookupName for single column lookups, programmatic name of lookup column
+	 * @return columnar collection data
+	 */
+	public static NotesViewLookupColumnarResultData b64_decodeCollectionLookupResultBufferColumnar(NotesCollection parentCollection,
+			long bufferHandle, int bufferLength, int numEntriesSkipped, int numEntriesReturned,
+			EnumSet<ReadMask> returnMask, short signalFlags, int indexModifiedSequenceNo, NotesTimeDate retDiffTime,
+			String singleColumnLookupName) {
+
+		Pointer bufferPtr;
+		if (PlatformUtils.is64Bit()) {
+			bufferPtr = Mem64.OSLockObject(bufferHandle);
+		}
+		else {
+			bufferPtr = Mem32.OSLockObject((int) bufferHandle);
+		}
+
+		try {
+			return decodeCollectionLookupResultBufferColumnar(parentCollection, bufferPtr, bufferLength,
+					numEntriesSkipped, numEntriesReturned, returnMask, signalFlags, indexModifiedSequenceNo, retDiffTime,
+					singleColumnLookupName);
+		}
+		finally {
+			if (PlatformUtils.is64Bit()) {
+				Mem64.OSUnlockObject(bufferHandle);
+				short result = Mem64.OSMemFree(bufferHandle);
+				NotesErrorUtils.checkResult(result);
+			}
+			else {
+				Mem32.OSUnlockObject((int)bufferHandle);
+				short result = Mem32.OSMemFree((int)bufferHandle);
+				NotesErrorUtils.checkResult(result);
+			}
+		}
+	}
+
+	/**
+	 * Decodes the buffer into primitive arrays per column. The buffer content is copied
+	 * to the Java heap with a single native call and parsed in Java, so no objects
+	 * get created per entry.
+	 *
+	 * @param parentCollection parent collection
+	 * @param bufferPtr buffer pointer
+	 * @param bufferLength length of the buffer in bytes
+	 * @param numEntriesSkipped entries skipped during collection scan
+	 * @param numEntriesReturned entries read during collection scan
+	 * @param returnMask bitmask used to fill the buffer with data
+	 * @param signalFlags signal flags returned by NIFReadEntries, e.g. whether we have more data to read
+	 * @param indexModifiedSequenceNo index modified sequence no
+	 * @param retDiffTime diff time returned by NIFReadEntriesExt
+	 * @param singleColumnLookupName for single column lookups, programmatic name of lookup column
+	 * @return columnar collection data
+	 */
+	public static NotesViewLookupColumnarResultData decodeCollectionLookupResultBufferColumnar(NotesCollection parentCollection,
+			Pointer bufferPtr, int bufferLength, int numEntriesSkipped, int numEntriesReturned,
+			EnumSet<ReadMask> returnMask, short signalFlags, int indexModifiedSequenceNo, NotesTimeDate retDiffTime,
+			String singleColumnLookupName) {
+
+		int bufferPos = 0;
+		NotesCollectionStats collectionStats = null;
+
+		if (returnMask.contains(ReadMask.COLLECTIONSTATS)) {
+			NotesCollectionStatsStruct tmpStats = NotesCollectionStatsStruct.newInstance(bufferPtr);
+			tmpStats.read();
+
+			collectionStats = new NotesCollectionStats(tmpStats.TopLevelEntries, tmpStats.LastModifiedTime);
+
+			bufferPos += tmpStats.size();
+		}
+
+		NotesViewLookupColumnarResultData data = new NotesViewLookupColumnarResultData(parentCollection, returnMask,
+				collectionStats, numEntriesSkipped, numEntriesReturned, signalFlags, indexModifiedSequenceNo, retDiffTime,
+				singleColumnLookupName);
+
+		byte[] bufferData = new byte[bufferLength];
+		bufferPtr.read(0, bufferData, 0, bufferLength);
+
+		if (returnMask.size()==1 && returnMask.contains(ReadMask.NOTEID)) {
+			//special optimized case for reading only note ids, the stats are not prepended to the buffer
+			bufferPos = 0;
+		}
+		data.decode(bufferData, bufferPos, numEntriesReturned);
+
+		return data;
+	}
+
 	/**
 	 * Produces an ITEM_TABLE by decoding an ITEM_VALUE_TABLE structure, which contains an ordered list of item values,
 	 * and adding an array of column names
@@ -549,6 +674,153 @@ public class NotesLookupResultBufferDecoder {
 		return data;
 	}
 
+	/**
+	 * Creates a lazy view on an ITEM_TABLE structure with item names and item values.<br>
+	 * <br>
+	 * In contrast to {@link #decodeItemTable(Pointer, boolean, boolean, boolean)}, only the
+	 * item lengths are read upfront. Item names are compared in place in the buffer and values are
+	 * decoded on first access, so the view is cheap to create when the caller only reads a few
+	 * items of a large summary buffer. The view references the buffer, use
+	 * {@link ISummaryBufferAccess#copy()} to keep the data after the buffer has been released.
+	 * 
+	 * @param bufferPtr pointer to a buffer
+	 * @param convertNotesTimeDateToCalendar true to convert {@link NotesTimeDate} values to {@link Calendar}
+	 * @return view
+	 */
+	public static ISummaryBufferAccess createItemTableView(Pointer bufferPtr, boolean convertNotesTimeDateToCalendar) {
+		int totalBufferLength = bufferPtr.getShort(0) & 0xffff;
+		int itemsCount = bufferPtr.getShort(2) & 0xffff;
+		
+		//read the ITEM structures (USHORT NameLength, USHORT ValueLength) for all items at once
+		short[] itemLengths = new short[itemsCount * 2];
+		if (itemsCount>0) {
+			bufferPtr.read(NotesConstants.itemTableSize, itemLengths, 0, itemLengths.length);
+		}
+		
+		int[] itemNameLengths = new int[itemsCount];
+		int[] itemValueLengths = new int[itemsCount];
+		for (int j=0; j<itemsCount; j++) {
+			itemNameLengths[j] = itemLengths[j*2] & 0xffff;
+			itemValueLengths[j] = itemLengths[j*2 + 1] & 0xffff;
+		}
+		
+		int bufferPos = NotesConstants.itemTableSize + itemsCount * NotesConstants.tableItemSize;
+		
+		SummaryBufferViewImpl view = new SummaryBufferViewImpl(bufferPtr, totalBufferLength,
+				null, itemNameLengths, itemValueLengths, bufferPos, !convertNotesTimeDateToCalendar);
+		return view;
+	}
+	
+	/**
+	 * Creates a lazy view on an ITEM_VALUE_TABLE structure, which contains an ordered list of item values,
+	 * and adds an array of column names (see {@link #createItemTableView(Pointer, boolean)})
+	 * 
+	 * @param columnItemNames column item names
+	 * @param bufferPtr pointer to a buffer
+	 * @param convertNotesTimeDateToCalendar true to convert {@link NotesTimeDate} values to {@link Calendar}
+	 * @return view
+	 */
+	public static ISummaryBufferAccess createItemValueTableViewWithColumnNames(String[] columnItemNames,
+			Pointer bufferPtr, boolean convertNotesTimeDateToCalendar) {
+		int totalBufferLength = bufferPtr.getShort(0) & 0xffff;
+		int itemsCount = bufferPtr.getShort(2) & 0xffff;
+		
+		//read the WORD lengths of all items at once
+		short[] itemLengths = new short[itemsCount];
+		if (itemsCount>0) {
+			bufferPtr.read(NotesConstants.itemValueTableSize, itemLengths, 0, itemsCount);
+		}
+		
+		int[] itemValueLengths = new int[itemsCount];
+		for (int j=0; j<itemsCount; j++) {
+			itemValueLengths[j] = itemLengths[j] & 0xffff;
+		}
+		
+		int bufferPos = NotesConstants.itemValueTableSize + itemsCount * 2;
+		
+		SummaryBufferViewImpl view = new SummaryBufferViewImpl(bufferPtr, totalBufferLength,
+				columnItemNames, null, itemValueLengths, bufferPos, !convertNotesTimeDateToCalendar);
+		return view;
+	}
+	
+	/**
+	 * Creates a copy of summary buffer data that no longer references the native buffer
+	 * it has been decoded from, e.g. to keep the data of a {@link NotesSearch} match after
+	 * the search callback has returned or pass it to another thread.<br>
+	 * <br>
+	 * The encoded item values are copied into a single memory block, so values that have
+	 * not been decoded yet are still decoded lazily on first access.
+	 * 
+	 * @param data data produced by this class
+	 * @return copy
+	 */
+	public static IItemTableData copyItemTable(IItemTableData data) {
+		if (data instanceof SummaryBufferViewImpl)
+			return ((SummaryBufferViewImpl) data).copy();
+		if (!(data instanceof ItemTableDataImpl))
+			throw new IllegalArgumentException("Unsupported item table implementation: "+(data==null ? "null" : data.getClass().getName()));
+		
+		ItemTableDataImpl source = (ItemTableDataImpl) data;
+		if (source.m_freed)
+			throw new NotesError(0, "Buffer already freed");
+		int itemsCount = source.m_itemsCount;
+		
+		int totalValueSize = 0;
+		for (int i=0; i<itemsCount; i++) {
+			if (source.m_itemValueBufferPointers[i]!=null) {
+				totalValueSize += source.m_itemValueBufferSizes[i];
+			}
+		}
+		
+		Pointer[] itemValueBufferPointers = new Pointer[itemsCount];
+		if (totalValueSize>0) {
+			byte[] valueData = new byte[totalValueSize];
+			int[] offsets = new int[itemsCount];
+			int offset = 0;
+			for (int i=0; i<itemsCount; i++) {
+				if (source.m_itemValueBufferPointers[i]!=null) {
+					int size = source.m_itemValueBufferSizes[i];
+					source.m_itemValueBufferPointers[i].read(0, valueData, offset, size);
+					offsets[i] = offset;
+					offset += size;
+				}
+			}
+			
+			Memory valueMem = new Memory(totalValueSize);
+			valueMem.write(0, valueData, 0, totalValueSize);
+			for (int i=0; i<itemsCount; i++) {
+				if (source.m_itemValueBufferPointers[i]!=null) {
+					//shared memory keeps a reference to valueMem
+					itemValueBufferPointers[i] = valueMem.share(offsets[i], source.m_itemValueBufferSizes[i]);
+				}
+			}
+		}
+		
+		Object[] itemValues = new Object[itemsCount];
+		for (int i=0; i<itemsCount; i++) {
+			Object val = source.m_itemValues[i];
+			if (val instanceof List) {
+				//lists get modified on read to replace LMBCSString values
+				itemValues[i] = new ArrayList<Object>((List<?>) val);
+			}
+			else {
+				itemValues[i] = val;
+			}
+		}
+		
+		ItemTableDataImpl copy = new ItemTableDataImpl(source.m_convertStringsLazily);
+		copy.setPreferNotesTimeDates(source.isPreferNotesTimeDates());
+		copy.m_itemNames = source.m_itemNames==null ? null : source.m_itemNames.clone();
+		copy.m_itemValueBufferPointers = itemValueBufferPointers;
+		copy.m_itemValueBufferSizes = source.m_itemValueBufferSizes.clone();
+		copy.m_itemValues = itemValues;
+		copy.m_itemDataTypes = source.m_itemDataTypes.clone();
+		copy.m_totalBufferLength = source.m_totalBufferLength;
+		copy.m_itemsCount = itemsCount;
+		copy.m_itemValueLengthsInBytes = source.m_itemValueLengthsInBytes==null ? null : source.m_itemValueLengthsInBytes.clone();
+		return copy;
+	}
+	
 	/**
 	 * Container class for the data parsed from an ITEM_VALUE_TABLE structure
 	 * 
@@ -596,27 +868,29 @@ public class NotesLookupResultBufferDecoder {
 				if (isFreed())
 					throw new NotesError(0, "Buffer already freed");
 				
+				Pointer valuePtr = getItemValuePointer(index);
+
 				if (type == NotesItem.TYPE_TEXT) {
-					m_itemValues[index] = ItemDecoder.decodeTextValue(m_itemValueBufferPointers[index], (int) (m_itemValueBufferSizes[index] & 0xffff), m_convertStringsLazily);
+					m_itemValues[index] = ItemDecoder.decodeTextValue(valuePtr, m_itemValueBufferSizes[index] & 0xffff, m_convertStringsLazily);
 				}
 				else if (type == NotesItem.TYPE_TEXT_LIST) {
 					//read a text list item value
-					int valueLength = (int) (m_itemValueBufferSizes[index] & 0xffff);
-					m_itemValues[index] = valueLength==0 ? Collections.emptyList() : ItemDecoder.decodeTextListValue(m_itemValueBufferPointers[index], m_convertStringsLazily);
+					int valueLength = m_itemValueBufferSizes[index] & 0xffff;
+					m_itemValues[index] = valueLength==0 ? Collections.emptyList() : ItemDecoder.decodeTextListValue(valuePtr, m_convertStringsLazily);
 				}
 				else if (type == NotesItem.TYPE_NUMBER) {
-					m_itemValues[index] = ItemDecoder.decodeNumber(m_itemValueBufferPointers[index], (int) (m_itemValueBufferSizes[index] & 0xffff));
+					m_itemValues[index] = ItemDecoder.decodeNumber(valuePtr, m_itemValueBufferSizes[index] & 0xffff);
 				}
 				else if (type == NotesItem.TYPE_TIME) {
 					//we always store NotesTimeDate and convert to Calendar if requested by caller
-					m_itemValues[index] = ItemDecoder.decodeTimeDateAsNotesTimeDate(m_itemValueBufferPointers[index], (int) (m_itemValueBufferSizes[index] & 0xffff));
+					m_itemValues[index] = ItemDecoder.decodeTimeDateAsNotesTimeDate(valuePtr, m_itemValueBufferSizes[index] & 0xffff);
 				}
 				else if (type == NotesItem.TYPE_NUMBER_RANGE) {
-					m_itemValues[index] = ItemDecoder.decodeNumberList(m_itemValueBufferPointers[index], (int) (m_itemValueBufferSizes[index] & 0xffff));
+					m_itemValues[index] = ItemDecoder.decodeNumberList(valuePtr, m_itemValueBufferSizes[index] & 0xffff);
 				}
 				else if (type == NotesItem.TYPE_TIME_RANGE) {
 					//we always store a List of NotesTimeDate and convert to Calendar if requested by caller
-					m_itemValues[index] = ItemDecoder.decodeTimeDateListAsNotesTimeDate(m_itemValueBufferPointers[index]);
+					m_itemValues[index] = ItemDecoder.decodeTimeDateListAsNotesTimeDate(valuePtr);
 				}
 			}
 			
@@ -665,6 +939,16 @@ public class NotesLookupResultBufferDecoder {
 				return m_itemValues[index];
 		}
 		
+		/**
+		 * Returns the pointer to the encoded value of an item (after the data type WORD)
+		 * 
+		 * @param index item index
+		 * @return pointer
+		 */
+		protected Pointer getItemValuePointer(int index) {
+			return m_itemValueBufferPointers[index];
+		}
+		
 		@Override
 		public int getItemDataType(int index) {
 			return m_itemDataTypes[index];
@@ -705,7 +989,13 @@ public class NotesLookupResultBufferDecoder {
 		protected String[] m_itemNames;
 		private ItemValueTableDataImpl m_wrappedValueTable;
 		private Map<String,Boolean> m_itemExistence;
-		private TypedItemAccess m_typedItems;
+		private TypedItemAccess m_typedItems = new TypedItemAccess() {
+			
+			@Override
+			public Object get(String itemName) {
+				return ItemTableDataImpl.this.get(itemName);
+			}
+		};
 		
 		public ItemTableDataImpl(String[] itemNames, ItemValueTableDataImpl valueTable) {
 			super(valueTable.m_convertStringsLazily);
@@ -720,14 +1010,6 @@ public class NotesLookupResultBufferDecoder {
 			m_totalBufferLength = valueTable.m_totalBufferLength;
 			m_itemsCount = valueTable.m_itemsCount;
 			m_itemValueLengthsInBytes = valueTable.m_itemValueLengthsInBytes;
-			
-			m_typedItems = new TypedItemAccess() {
-				
-				@Override
-				public Object get(String itemName) {
-					return ItemTableDataImpl.this.get(itemName);
-				}
-			};
 		}
 		
 		public ItemTableDataImpl(boolean convertStringsLazily) {
@@ -744,14 +1026,7 @@ public class NotesLookupResultBufferDecoder {
 			}
 			if (exists==null) {
 				//hash the result in case we have some really frequent calls for the same item
-				for (String currItem : m_itemNames) {
-					if (currItem.equalsIgnoreCase(itemName)) {
-						exists = Boolean.TRUE;
-						break;
-					}
-				}
-				if (exists==null)
-					exists = Boolean.FALSE;
+				exists = indexOfItem(itemName)!=-1;
 				
 				if (m_itemExistence==null)
 					m_itemExistence = new HashMap<String, Boolean>();
@@ -765,35 +1040,50 @@ public class NotesLookupResultBufferDecoder {
 			return m_itemNames;
 		}
 		
+		/**
+		 * Returns the index of an item
+		 * 
+		 * @param itemName item name, case insensitive
+		 * @return index or -1 if not found
+		 */
+		protected int indexOfItem(String itemName) {
+			for (int i=0; i<m_itemNames.length; i++) {
+				if (m_itemNames[i].equalsIgnoreCase(itemName)) {
+					return i;
+				}
+			}
+			return -1;
+		}
+		
 		@Override
 		public Object get(String itemName) {
 			if (m_wrappedValueTable!=null && m_wrappedValueTable.isFreed()) {
 				throw new NotesError(0, "Buffer already freed");
 			}
 			
-			for (int i=0; i<m_itemNames.length; i++) {
-				if (m_itemNames[i].equalsIgnoreCase(itemName)) {
-					Object val = getItemValue(i);
-					if (val instanceof LMBCSString) {
-						return ((LMBCSString)val).getValue();
-					}
-					else if (val instanceof List) {
-						List<Object> valAsList = (List<Object>) val;
-						for (int j=0; j<valAsList.size(); j++) {
-							Object currListValue = valAsList.get(j);
-							
-							if (currListValue instanceof LMBCSString) {
-								valAsList.set(j, ((LMBCSString)currListValue).getValue());
-							}
-						}
-						return valAsList;
-					}
-					else {
-						return val;
+			int i = indexOfItem(itemName);
+			if (i==-1) {
+				return null;
+			}
+			
+			Object val = getItemValue(i);
+			if (val instanceof LMBCSString) {
+				return ((LMBCSString)val).getValue();
+			}
+			else if (val instanceof List) {
+				List<Object> valAsList = (List<Object>) val;
+				for (int j=0; j<valAsList.size(); j++) {
+					Object currListValue = valAsList.get(j);
+					
+					if (currListValue instanceof LMBCSString) {
+						valAsList.set(j, ((LMBCSString)currListValue).getValue());
 					}
 				}
+				return valAsList;
+			}
+			else {
+				return val;
 			}
-			return null;
 		}
 		
 		@Override
@@ -995,20 +1285,21 @@ public class NotesLookupResultBufferDecoder {
 		@Override
 		public Map<String,Object> asMap(boolean decodeLMBCS) {
 			Map<String,Object> data = new TreeMap<String, Object>(String.CASE_INSENSITIVE_ORDER);
+			String[] itemNames = getItemNames();
 			int itemCount = getItemsCount();
 			for (int i=0; i<itemCount; i++) {
 				Object val = getItemValue(i);
 				
 				if (val instanceof LMBCSString) {
 					if (decodeLMBCS) {
-						data.put(m_itemNames[i], ((LMBCSString)val).getValue());
+						data.put(itemNames[i], ((LMBCSString)val).getValue());
 					}
 					else {
-						data.put(m_itemNames[i], val);
+						data.put(itemNames[i], val);
 					}
 				}
 				else if(!isPreferNotesTimeDates() && val instanceof NotesTimeDate) {
-					data.put(m_itemNames[i], ((NotesTimeDate)val).toCalendar());
+					data.put(itemNames[i], ((NotesTimeDate)val).toCalendar());
 				}
 				else if (val instanceof List) {
 					if (decodeLMBCS) {
@@ -1042,22 +1333,232 @@ public class NotesLookupResultBufferDecoder {
 									convList.add(currObj);
 								}
 							}
-							data.put(m_itemNames[i], convList);
+							data.put(itemNames[i], convList);
 						}
 						else {
-							data.put(m_itemNames[i], val);
+							data.put(itemNames[i], val);
 						}
 					}
 					else {
-						data.put(m_itemNames[i], val);
+						data.put(itemNames[i], val);
 					}
 				}
 				else {
-					data.put(m_itemNames[i], val);
+					data.put(itemNames[i], val);
 				}
 			}
 			return data;
 		}
 	}
 	
+	/**
+	 * Lazy view on an ITEM_TABLE or ITEM_VALUE_TABLE buffer that only knows the item lengths
+	 * and reads item names, data types and values on demand
+	 * 
+	 * @author Karsten Lehmann
+	 */
+	private static class SummaryBufferViewImpl extends ItemTableDataImpl implements ISummaryBufferAccess {
+		private Pointer m_bufferPtr;
+		private int m_bufferLength;
+		private int[] m_itemNameOffsets;
+		private int[] m_itemNameLengths;
+		/** offsets of the data type WORDs preceding the item values */
+		private int[] m_itemValueOffsets;
+		
+		/**
+		 * Creates a new view
+		 * 
+		 * @param bufferPtr buffer pointer
+		 * @param totalBufferLength length of the buffer as written in its header
+		 * @param itemNames item names or null to read them from the buffer
+		 * @param itemNameLengths lengths of the item names in the buffer if <code>itemNames</code> is null
+		 * @param itemValueLengths lengths of the item values including the data type WORD
+		 * @param bufferPos position of the first item name or value
+		 * @param preferNotesTimeDates true to return {@link NotesTimeDate} instead of {@link Calendar} values
+		 */
+		private SummaryBufferViewImpl(Pointer bufferPtr, int totalBufferLength, String[] itemNames,
+				int[] itemNameLengths, int[] itemValueLengths, int bufferPos, boolean preferNotesTimeDates) {
+			//strings are converted lazily as in the tables created by decodeItemTable for search callbacks
+			super(true);
+			setPreferNotesTimeDates(preferNotesTimeDates);
+			
+			int itemsCount = itemValueLengths.length;
+			
+			m_bufferPtr = bufferPtr;
+			m_itemNames = itemNames;
+			m_itemNameLengths = itemNameLengths;
+			m_itemNameOffsets = itemNameLengths==null ? null : new int[itemsCount];
+			m_itemValueOffsets = new int[itemsCount];
+			m_itemValueBufferSizes = new int[itemsCount];
+			m_itemValues = new Object[itemsCount];
+			m_itemDataTypes = new int[itemsCount];
+			m_itemValueLengthsInBytes = itemValueLengths;
+			m_totalBufferLength = totalBufferLength;
+			m_itemsCount = itemsCount;
+			
+			//the names and values are stored in the order name #1, data type #1, value #1, name #2...
+			for (int j=0; j<itemsCount; j++) {
+				if (m_itemNameOffsets!=null) {
+					m_itemNameOffsets[j] = bufferPos;
+					bufferPos += itemNameLengths[j];
+				}
+				
+				m_itemValueOffsets[j] = bufferPos;
+				if (itemValueLengths[j]==0) {
+					//empty item, no data type
+					m_itemDataTypes[j] = 0;
+				}
+				else {
+					//data type is read on first access
+					m_itemDataTypes[j] = -1;
+					m_itemValueBufferSizes[j] = itemValueLengths[j] - 2;
+					bufferPos += itemValueLengths[j];
+				}
+			}
+			m_bufferLength = bufferPos;
+		}
+		
+		/**
+		 * Creates a copy of a view
+		 * 
+		 * @param source source view
+		 * @param bufferPtr pointer to a copy of the source buffer
+		 */
+		private SummaryBufferViewImpl(SummaryBufferViewImpl source, Pointer bufferPtr) {
+			super(source.m_convertStringsLazily);
+			setPreferNotesTimeDates(source.isPreferNotesTimeDates());
+			
+			m_bufferPtr = bufferPtr;
+			m_bufferLength = source.m_bufferLength;
+			//offsets and lengths are never modified, so we can share them
+			m_itemNameOffsets = source.m_itemNameOffsets;
+			m_itemNameLengths = source.m_itemNameLengths;
+			m_itemValueOffsets = source.m_itemValueOffsets;
+			m_itemValueBufferSizes = source.m_itemValueBufferSizes;
+			m_itemValueLengthsInBytes = source.m_itemValueLengthsInBytes;
+			m_itemNames = source.m_itemNames==null ? null : source.m_itemNames.clone();
+			m_itemDataTypes = source.m_itemDataTypes.clone();
+			m_totalBufferLength = source.m_totalBufferLength;
+			m_itemsCount = source.m_itemsCount;
+			
+			m_itemValues = new Object[m_itemsCount];
+			for (int i=0; i<m_itemsCount; i++) {
+				Object val = source.m_itemValues[i];
+				if (val instanceof List) {
+					//lists get modified on read to replace LMBCSString values
+					m_itemValues[i] = new ArrayList<Object>((List<?>) val);
+				}
+				else {
+					m_itemValues[i] = val;
+				}
+			}
+		}
+		
+		private void checkFreed() {
+			if (isFreed())
+				throw new NotesError(0, "Buffer already freed");
+		}
+		
+		@Override
+		public SummaryBufferViewImpl copy() {
+			checkFreed();
+			
+			Memory bufferMem = new Memory(m_bufferLength);
+			bufferMem.write(0, m_bufferPtr.getByteArray(0, m_bufferLength), 0, m_bufferLength);
+			return new SummaryBufferViewImpl(this, bufferMem);
+		}
+		
+		@Override
+		public IItemTableData decodeWholeBuffer() {
+			getItemNames();
+			for (int i=0; i<m_itemsCount; i++) {
+				getItemValue(i);
+			}
+			return this;
+		}
+		
+		@Override
+		protected Pointer getItemValuePointer(int index) {
+			return m_bufferPtr.share(m_itemValueOffsets[index] + 2);
+		}
+		
+		@Override
+		public int getItemDataType(int index) {
+			int type = m_itemDataTypes[index];
+			if (type==-1) {
+				checkFreed();
+				type = m_bufferPtr.getShort(m_itemValueOffsets[index]) & 0xffff;
+				m_itemDataTypes[index] = type;
+			}
+			return type;
+		}
+		
+		@Override
+		public int getItemType(String itemName) {
+			int index = indexOfItem(itemName);
+			return index==-1 ? 0 : getItemDataType(index);
+		}
+		
+		@Override
+		public String[] getItemNames() {
+			if (m_itemNames==null) {
+				checkFreed();
+				
+				String[] itemNames = new String[m_itemsCount];
+				for (int j=0; j<m_itemsCount; j++) {
+					itemNames[j] = NotesStringUtils.fromLMBCS(m_bufferPtr.share(m_itemNameOffsets[j]), m_itemNameLengths[j]);
+				}
+				m_itemNames = itemNames;
+			}
+			return m_itemNames;
+		}
+		
+		@Override
+		protected int indexOfItem(String itemName) {
+			if (m_itemNames!=null) {
+				return super.indexOfItem(itemName);
+			}
+			checkFreed();
+			
+			//LMBCS stores characters 0x20-0x7e as single ASCII bytes, so we can compare those names
+			//in place without decoding all item names
+			int nameLength = itemName.length();
+			for (int i=0; i<nameLength; i++) {
+				char c = itemName.charAt(i);
+				if (c<0x20 || c>0x7e) {
+					getItemNames();
+					return super.indexOfItem(itemName);
+				}
+			}
+			
+			byte[] nameBytes = null;
+			for (int j=0; j<m_itemsCount; j++) {
+				if (m_itemNameLengths[j]!=nameLength) {
+					continue;
+				}
+				
+				if (nameBytes==null) {
+					nameBytes = new byte[nameLength];
+				}
+				m_bufferPtr.read(m_itemNameOffsets[j], nameBytes, 0, nameLength);
+				
+				boolean match = true;
+				for (int i=0; i<nameLength; i++) {
+					if (toLowerCaseASCII(nameBytes[i]) != toLowerCaseASCII((byte) itemName.charAt(i))) {
+						match = false;
+						break;
+					}
+				}
+				if (match) {
+					return j;
+				}
+			}
+			return -1;
+		}
+		
+		private static int toLowerCaseASCII(byte b) {
+			return (b>='A' && b<='Z') ? b + ('a' - 'A') : b;
+		}
+	}
+	
 }
@@ -60,72 +60,79 @@ public class NotesSearchKeyEncoder {
 		metaDataByteOut.write(0);
 		
 
-		for (int i=0; i<keys.length; i++) {
-			Object currKey = keys[i];
-			
-			if (currKey instanceof String) {
-				addStringKey(metaDataByteOut, valueDataByteOut, (String) currKey);
-			}
-			else if (currKey instanceof Double) {
-				addNumberKey(metaDataByteOut, valueDataByteOut, ((Double) currKey).doubleValue());
-			}
-			else if (currKey instanceof Float) {
-				addNumberKey(metaDataByteOut, valueDataByteOut, ((Float) currKey).doubleValue());
-			}
-			else if (currKey instanceof Integer) {
-				addNumberKey(metaDataByteOut, valueDataByteOut, ((Integer) currKey).doubleValue());
-			}
-			else if (currKey instanceof Long) {
-				addNumberKey(metaDataByteOut, valueDataByteOut, ((Long) currKey).doubleValue());
-			}
-			else if (currKey instanceof Date) {
-				Calendar cal = Calendar.getInstance();
-				cal.setTime((Date) currKey);
-				addCalendarKey(metaDataByteOut, valueDataByteOut, cal);
-			}
-			else if (currKey instanceof Calendar) {
-				addCalendarKey(metaDataByteOut, valueDataByteOut, (Calendar) currKey);
-			}
-			else if (currKey instanceof NotesTimeDate) {
-				addCalendarKey(metaDataByteOut, valueDataByteOut, (NotesTimeDate) currKey);
-			}
-			else if (currKey instanceof Date[]) {
-				Date[] dateArr = (Date[]) currKey;
-				Calendar[] calArr = new Calendar[dateArr.length];
-				for (int j=0; j<dateArr.length; j++) {
-					calArr[j] = Calendar.getInstance();
-					calArr[j].setTime(dateArr[j]);
+		//temporary memory for the ITEM and value structures
+		NativeMemoryArena arena = NativeMemoryArena.open();
+		try {
+			for (int i=0; i<keys.length; i++) {
+				Object currKey = keys[i];
+				
+				if (currKey instanceof String) {
+					addStringKey(arena, metaDataByteOut, valueDataByteOut, (String) currKey);
+				}
+				else if (currKey instanceof Double) {
+					addNumberKey(arena, metaDataByteOut, valueDataByteOut, ((Double) currKey).doubleValue());
+				}
+				else if (currKey instanceof Float) {
+					addNumberKey(arena, metaDataByteOut, valueDataByteOut, ((Float) currKey).doubleValue());
+				}
+				else if (currKey instanceof Integer) {
+					addNumberKey(arena, metaDataByteOut, valueDataByteOut, ((Integer) currKey).doubleValue());
+				}
+				else if (currKey instanceof Long) {
+					addNumberKey(arena, metaDataByteOut, valueDataByteOut, ((Long) currKey).doubleValue());
+				}
+				else if (currKey instanceof Date) {
+					Calendar cal = Calendar.getInstance();
+					cal.setTime((Date) currKey);
+					addCalendarKey(arena, metaDataByteOut, valueDataByteOut, cal);
 				}
+				else if (currKey instanceof Calendar) {
+					addCalendarKey(arena, metaDataByteOut, valueDataByteOut, (Calendar) currKey);
+				}
+				else if (currKey instanceof NotesTimeDate) {
+					addCalendarKey(arena, metaDataByteOut, valueDataByteOut, (NotesTimeDate) currKey);
+				}
+				else if (currKey instanceof Date[]) {
+					Date[] dateArr = (Date[]) currKey;
+					Calendar[] calArr = new Calendar[dateArr.length];
+					for (int j=0; j<dateArr.length; j++) {
+						calArr[j] = Calendar.getInstance();
+						calArr[j].setTime(dateArr[j]);
+					}
 				
-				addCalendarRangeKey(metaDataByteOut, valueDataByteOut, calArr);
-			}
-			else if (currKey instanceof Calendar[]) {
-				//date range
-				addCalendarRangeKey(metaDataByteOut, valueDataByteOut, (Calendar[]) currKey);
-			}
-			else if (currKey instanceof NotesDateRange) {
-				//date range
-				addCalendarRangeKey(metaDataByteOut, valueDataByteOut, (NotesDateRange) currKey);
-			}
-			else if (currKey instanceof double[]) {
-				//looks like this does not work (the C API documentation says it does not work either)
-				addNumberRangeKey(metaDataByteOut, valueDataByteOut, (double[]) currKey);
-			}
-			else if (currKey instanceof Double[]) {
-				Double[] objArr = (Double[]) currKey;
-				double[] doubleArr = new double[objArr.length];
-				for (int j=0; j<objArr.length; j++) {
-					if (objArr[j] != null) {
-						doubleArr[j] = objArr[j].doubleValue();
+					addCalendarRangeKey(arena, metaDataByteOut, valueDataByteOut, calArr);
+				}
+				else if (currKey instanceof Calendar[]) {
+					//date range
+					addCalendarRangeKey(arena, metaDataByteOut, valueDataByteOut, (Calendar[]) currKey);
+				}
+				else if (currKey instanceof NotesDateRange) {
+					//date range
+					addCalendarRangeKey(arena, metaDataByteOut, valueDataByteOut, (NotesDateRange) currKey);
+				}
+				else if (currKey instanceof double[]) {
+					//looks like this does not work (the C API documentation says it does not work either)
+					addNumberRangeKey(arena, metaDataByteOut, valueDataByteOut, (double[]) currKey);
+				}
+				else if (currKey instanceof Double[]) {
+					Double[] objArr = (Double[]) currKey;
+					double[] doubleArr = new double[objArr.length];
+					for (int j=0; j<objArr.length; j++) {
+						if (objArr[j] != null) {
+							doubleArr[j] = objArr[j].doubleValue();
+						}
 					}
+					//looks like this does not work (the C API documentation says it does not work either)
+					addNumberRangeKey(arena, metaDataByteOut, valueDataByteOut, doubleArr);
+				}
+				else {
+					throw new IllegalArgumentException("Unknown key type: "+currKey+", class="+(currKey==null ? "null" : currKey.getClass().getName()));
 				}
-				//looks like this does not work (the C API documentation says it does not work either)
-				addNumberRangeKey(metaDataByteOut, valueDataByteOut, doubleArr);
-			}
-			else {
-				throw new IllegalArgumentException("Unknown key type: "+currKey+", class="+(currKey==null ? "null" : currKey.getClass().getName()));
 			}
-		}		
+		}
+		finally {
+			arena.close();
+		}
 		
 		byte[] metaDataByteArr = metaDataByteOut.toByteArray();
 		byte[] valueDataByteArr = valueDataByteOut.toByteArray();
@@ -157,44 +164,47 @@ public class NotesSearchKeyEncoder {
 	/**
 	 * Writes data for a time search key
 	 * 
+	 * @param arena arena for temporary memory
 	 * @param itemOut output stream for ITEM structure
 	 * @param valueDataOut output stream for search key value
 	 * @param currKey search key
 	 * @throws Exception in case of errors
 	 */
-	private static void addCalendarKey(OutputStream itemOut, OutputStream valueDataOut, NotesTimeDate td) throws Exception {
+	private static void addCalendarKey(NativeMemoryArena arena, OutputStream itemOut, OutputStream valueDataOut, NotesTimeDate td) throws Exception {
 		int[] innards = td.getInnards();
-		addCalendarKey(itemOut, valueDataOut, innards[0], innards[1]);
+		addCalendarKey(arena, itemOut, valueDataOut, innards[0], innards[1]);
 	}
 	
 	/**
 	 * Writes data for a time search key
 	 * 
+	 * @param arena arena for temporary memory
 	 * @param itemOut output stream for ITEM structure
 	 * @param valueDataOut output stream for search key value
 	 * @param currKey search key
 	 * @throws Exception in case of errors
 	 */
-	private static void addCalendarKey(OutputStream itemOut, OutputStream valueDataOut, Calendar currKey) throws Exception {
+	private static void addCalendarKey(NativeMemoryArena arena, OutputStream itemOut, OutputStream valueDataOut, Calendar currKey) throws Exception {
 		boolean hasDate = NotesDateTimeUtils.hasDate(currKey);
 		boolean hasTime = NotesDateTimeUtils.hasTime(currKey);
 		
 		int[] innards = NotesDateTimeUtils.calendarToInnards(currKey, hasDate, hasTime);
 
-		addCalendarKey(itemOut, valueDataOut, innards[0], innards[1]);
+		addCalendarKey(arena, itemOut, valueDataOut, innards[0], innards[1]);
 	}
 	
 	/**
 	 * Writes data for a time search key
 	 * 
+	 * @param arena arena for temporary memory
 	 * @param itemOut output stream for ITEM structure
 	 * @param valueDataOut output stream for search key value
 	 * @param innard0 first innard of date
 	 * @param innard1 second innard of date
 	 * @throws Exception in case of errors
 	 */
-	private static void addCalendarKey(OutputStream itemOut, OutputStream valueDataOut, int innard0, int innard1) throws Exception {
-		Memory itemMem = new Memory(NotesConstants.tableItemSize);
+	private static void addCalendarKey(NativeMemoryArena arena, OutputStream itemOut, OutputStream valueDataOut, int innard0, int innard1) throws Exception {
+		Memory itemMem = arena.allocate(NotesConstants.tableItemSize);
 		NotesTableItemStruct item = NotesTableItemStruct.newInstance(itemMem);
 		item.NameLength = 0;
 		item.ValueLength = (short) (NotesConstants.timeDateSize + 2);
@@ -205,7 +215,7 @@ public class NotesSearchKeyEncoder {
 		}
 		
 		//write data type
-		Memory valueMem = new Memory(2 + 8);
+		Memory valueMem = arena.allocate(2 + 8);
 		valueMem.setShort(0, (short) NotesItem.TYPE_TIME);
 		
 		Pointer timeDatePtr = valueMem.share(2);
@@ -223,16 +233,17 @@ public class NotesSearchKeyEncoder {
 	 * Searching with number range keys is not supported yet (R9), as the 
 	 * <a href="http://www-12.lotus.com/ldd/doc/domino_notes/9.0/api90ref.nsf/70cfe734675fd140852561ce00718042/35abe18f9580ca2d8525622e0062c48d?OpenDocument">documentation</a> says.
 	 * 
+	 * @param arena arena for temporary memory
 	 * @param itemOut output stream for ITEM structure
 	 * @param valueDataOut output stream for search key value
 	 * @param currKey search key
 	 * @throws Exception in case of errors
 	 */
-	private static void addNumberRangeKey(OutputStream itemOut, OutputStream valueDataOut, double[] currKey) throws Exception {
+	private static void addNumberRangeKey(NativeMemoryArena arena, OutputStream itemOut, OutputStream valueDataOut, double[] currKey) throws Exception {
 		if (currKey.length!=2)
 			throw new IllegalArgumentException("Double search key array must have exactly 2 elements. We found "+currKey.length);
 		
-		Memory itemMem = new Memory(NotesConstants.tableItemSize);
+		Memory itemMem = arena.allocate(NotesConstants.tableItemSize);
 		NotesTableItemStruct item = NotesTableItemStruct.newInstance(itemMem);
 		item.NameLength = 0;
 		item.ValueLength = (short) ((NotesConstants.rangeSize + NotesConstants.numberPairSize + 2) & 0xffff);
@@ -242,7 +253,7 @@ public class NotesSearchKeyEncoder {
 			itemOut.write(itemMem.getByte(i));
 		}
 
-		Memory valueMem = new Memory(NotesConstants.rangeSize + NotesConstants.numberPairSize + 2);
+		Memory valueMem = arena.allocate(NotesConstants.rangeSize + NotesConstants.numberPairSize + 2);
 		valueMem.setShort(0, (short) NotesItem.TYPE_NUMBER_RANGE);
 
 		Pointer rangePtr = valueMem.share(2);
@@ -265,39 +276,42 @@ public class NotesSearchKeyEncoder {
 	/**
 	 * Writes data for a time range search key
 	 * 
+	 * @param arena arena for temporary memory
 	 * @param itemOut output stream for ITEM structure
 	 * @param valueDataOut output stream for search key value
 	 * @param currKey search key, array with two values
 	 * @throws Exception in case of errors
 	 */
-	private static void addCalendarRangeKey(OutputStream itemOut, OutputStream valueDataOut, NotesDateRange currKey) throws Exception {
+	private static void addCalendarRangeKey(NativeMemoryArena arena, OutputStream itemOut, OutputStream valueDataOut, NotesDateRange currKey) throws Exception {
 		int[] startInnards = currKey.getStartDateTime().getInnards();
 		int[] endInnards = currKey.getEndDateTime().getInnards();
 		
-		addCalendarRangeKey(itemOut, valueDataOut, startInnards[0], startInnards[1], endInnards[0], endInnards[1]);
+		addCalendarRangeKey(arena, itemOut, valueDataOut, startInnards[0], startInnards[1], endInnards[0], endInnards[1]);
 	}
 	
 	/**
 	 * Writes data for a time range search key
 	 * 
+	 * @param arena arena for temporary memory
 	 * @param itemOut output stream for ITEM structure
 	 * @param valueDataOut output stream for search key value
 	 * @param currKey search key, array with two values
 	 * @throws Exception in case of errors
 	 */
-	private static void addCalendarRangeKey(OutputStream itemOut, OutputStream valueDataOut, Calendar[] currKey) throws Exception {
+	private static void addCalendarRangeKey(NativeMemoryArena arena, OutputStream itemOut, OutputStream valueDataOut, Calendar[] currKey) throws Exception {
 		if (currKey.length!=2)
 			throw new IllegalArgumentException("Calendar search key array must have exactly 2 elements. We found "+currKey.length);
 		
 		int[] startInnards = NotesDateTimeUtils.calendarToInnards(currKey[0]);
 		int[] endInnards = NotesDateTimeUtils.calendarToInnards(currKey[1]);
 		
-		addCalendarRangeKey(itemOut, valueDataOut, startInnards[0], startInnards[1], endInnards[0], endInnards[1]);
+		addCalendarRangeKey(arena, itemOut, valueDataOut, startInnards[0], startInnards[1], endInnards[0], endInnards[1]);
 	}
 	
 	/**
 	 * Writes data for a time range search key
 	 * 
+	 * @param arena arena for temporary memory
 	 * @param itemOut output stream for ITEM structure
 	 * @param valueDataOut output stream for search key value
 	 * @param startInnard0 innard 0 of startdatetime
@@ -306,10 +320,10 @@ public class NotesSearchKeyEncoder {
 	 * @param endInnard1 innard 0 of enddatetime
 	 * @throws Exception in case of errors
 	 */
-	private static void addCalendarRangeKey(OutputStream itemOut, OutputStream valueDataOut, int startInnard0, int startInnard1,
+	private static void addCalendarRangeKey(NativeMemoryArena arena, OutputStream itemOut, OutputStream valueDataOut, int startInnard0, int startInnard1,
 			int endInnard0, int endInnard1) throws Exception {
 		
-		Memory itemMem = new Memory(NotesConstants.tableItemSize);
+		Memory itemMem = arena.allocate(NotesConstants.tableItemSize);
 		NotesTableItemStruct item = NotesTableItemStruct.newInstance(itemMem);
 		item.NameLength = 0;
 		item.ValueLength = (short) ((NotesConstants.rangeSize + NotesConstants.timeDatePairSize + 2) & 0xffff);
@@ -319,7 +333,7 @@ public class NotesSearchKeyEncoder {
 			itemOut.write(itemMem.getByte(i));
 		}
 
-		Memory valueMem = new Memory(NotesConstants.rangeSize + NotesConstants.timeDatePairSize + 2);
+		Memory valueMem = arena.allocate(NotesConstants.rangeSize + NotesConstants.timeDatePairSize + 2);
 		valueMem.setShort(0, (short) NotesItem.TYPE_TIME_RANGE);
 		
 		Pointer rangePtr = valueMem.share(2);
@@ -342,15 +356,16 @@ public class NotesSearchKeyEncoder {
 	/**
 	 * Writes data for a string search key
 	 * 
+	 * @param arena arena for temporary memory
 	 * @param itemOut output stream for ITEM structure
 	 * @param valueDataOut output stream for search key value
 	 * @param currKey search key
 	 * @throws Exception in case of errors
 	 */
-	private static void addStringKey(OutputStream itemOut, OutputStream valueDataOut, String currKey) throws Exception {
+	private static void addStringKey(NativeMemoryArena arena, OutputStream itemOut, OutputStream valueDataOut, String currKey) throws Exception {
 		Memory strValueMem = NotesStringUtils.toLMBCS(currKey, false);
 		
-		Memory itemMem = new Memory(NotesConstants.tableItemSize);
+		Memory itemMem = arena.allocate(NotesConstants.tableItemSize);
 		NotesTableItemStruct item = NotesTableItemStruct.newInstance(itemMem);
 		item.NameLength = 0;
 		item.ValueLength = (short) ((strValueMem.size() + 2) & 0xffff);
@@ -360,7 +375,7 @@ public class NotesSearchKeyEncoder {
 			itemOut.write(itemMem.getByte(i));
 		}
 
-		Memory valueMem = new Memory(strValueMem.size() + 2);
+		Memory valueMem = arena.allocate(strValueMem.size() + 2);
 		short txtType = (short) NotesItem.TYPE_TEXT;
 		valueMem.setShort(0, txtType);
 
@@ -378,13 +393,14 @@ public class NotesSearchKeyEncoder {
 	/**
 	 * Writes data for a number search key
 	 * 
+	 * @param arena arena for temporary memory
 	 * @param itemOut output stream for ITEM structure
 	 * @param valueDataOut output stream for search key value
 	 * @param doubleValue search key
 	 * @throws Exception in case of errors
 	 */
-	private static void addNumberKey(OutputStream itemOut, OutputStream valueDataOut, double doubleValue) throws Exception {
-		Memory itemMem = new Memory(NotesConstants.tableItemSize);
+	private static void addNumberKey(NativeMemoryArena arena, OutputStream itemOut, OutputStream valueDataOut, double doubleValue) throws Exception {
+		Memory itemMem = arena.allocate(NotesConstants.tableItemSize);
 		NotesTableItemStruct item = NotesTableItemStruct.newInstance(itemMem);
 		item.NameLength = 0;
 		item.ValueLength = (short) (8 + 2);
@@ -394,7 +410,7 @@ public class NotesSearchKeyEncoder {
 			itemOut.write(itemMem.getByte(i));
 		}
 
-		Memory valueMem = new Memory(8 + 2);
+		Memory valueMem = arena.allocate(8 + 2);
 		valueMem.setShort(0, (short) NotesItem.TYPE_NUMBER);
 		
 		Pointer doubleValPtr = valueMem.share(2);
@@ -1,89 +1,290 @@
 package com.mindoo.domino.jna.internal;
 
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
-import com.googlecode.concurrentlinkedhashmap.ConcurrentLinkedHashMap;
-import com.googlecode.concurrentlinkedhashmap.EntryWeigher;
+import com.mindoo.domino.jna.utils.CacheStatistics;
 
 /**
- * Abstract cache class that implements an LRU algorithm. Uses RW lock
- * internally to support concurrent access across threads.
- * 
+ * Abstract size limited cache class used for the string conversion and name caches.<br>
+ * <br>
+ * The cache is split into a power of two number of shards, each one with its own
+ * {@link ConcurrentHashMap} and weight counter, so that lookups from many threads
+ * do not contend on a shared lock or LRU list. Instead of maintaining a strict LRU order, each
+ * entry carries a "referenced" flag that is set on read; when a shard exceeds its
+ * share of the maximum size, a single thread sweeps through the shard (CLOCK algorithm), clears
+ * the flags of recently used entries and evicts the others until the weight is below
+ * the limit again. Other threads never wait for the eviction to finish.<br>
+ * <br>
+ * An entry that is heavier than the share of its shard evicts all other entries of the shard,
+ * so entries up to the maximum size of the whole cache can be stored. Caches with a small
+ * maximum size use fewer shards.<br>
+ * <br>
+ * Caches created with a name are registered globally and report hit/miss/eviction
+ * counts via {@link #getStatistics()} and {@link #getNamedCacheStatistics()}. The registry
+ * only holds weak references, so named caches can still be garbage collected.
+ *
  * @author Karsten Lehmann
  *
  * @param <K> key type
  * @param <V> value type
  */
 public abstract class SizeLimitedLRUCache<K,V> {
-	private ConcurrentLinkedHashMap<K, V> m_cache;
-	
+	private static final int MAX_SHARD_COUNT = 64;
+	private static final List<WeakReference<SizeLimitedLRUCache<?,?>>> m_namedCaches = new CopyOnWriteArrayList<WeakReference<SizeLimitedLRUCache<?,?>>>();
+
+	private final String m_name;
+	private final long m_maxSizeUnits;
+	private final Shard<K,V>[] m_shards;
+	private final int m_shardMask;
+
+	private final LongAdder m_hits = new LongAdder();
+	private final LongAdder m_misses = new LongAdder();
+	private final LongAdder m_evictions = new LongAdder();
+
+	/**
+	 * Creates a new unnamed cache that is not reported in {@link #getNamedCacheStatistics()}
+	 *
+	 * @param maxSizeUnits maximum size of all entries as computed by {@link #computeSize(Object, Object)}
+	 */
 	public SizeLimitedLRUCache(int maxSizeUnits) {
-		EntryWeigher<K, V> customWeigher = new EntryWeigher<K, V>() {
-			@Override public int weightOf(K key, V value) {
-				return computeSize(key, value);
+		this(null, maxSizeUnits);
+	}
+
+	/**
+	 * Creates a new cache with a default number of shards based on the number of processors
+	 *
+	 * @param name name for statistics or null to not register the cache
+	 * @param maxSizeUnits maximum size of all entries as computed by {@link #computeSize(Object, Object)}
+	 */
+	public SizeLimitedLRUCache(String name, int maxSizeUnits) {
+		this(name, maxSizeUnits, getDefaultShardCount());
+	}
+
+	/**
+	 * Creates a new cache
+	 *
+	 * @param name name for statistics or null to not register the cache
+	 * @param maxSizeUnits maximum size of all entries as computed by {@link #computeSize(Object, Object)}
+	 * @param shardCount number of shards, rounded up to a power of two
+	 */
+	@SuppressWarnings("unchecked")
+	public SizeLimitedLRUCache(String name, int maxSizeUnits, int shardCount) {
+		if (maxSizeUnits<=0)
+			throw new IllegalArgumentException("Max size must be greater than 0: "+maxSizeUnits);
+		if (shardCount<=0)
+			throw new IllegalArgumentException("Shard count must be greater than 0: "+shardCount);
+
+		int shards = 1;
+		while (shards < shardCount && shards < MAX_SHARD_COUNT) {
+			shards <<= 1;
+		}
+		//make sure each shard can hold at least a few entries
+		while (shards>1 && maxSizeUnits / shards < 1024) {
+			shards >>= 1;
+		}
+
+		m_name = name;
+		m_maxSizeUnits = maxSizeUnits;
+		m_shards = (Shard<K,V>[]) new Shard<?,?>[shards];
+		long shardMaxSize = Math.max(1, maxSizeUnits / shards);
+		for (int i=0; i<shards; i++) {
+			m_shards[i] = new Shard<K,V>(shardMaxSize);
+		}
+		m_shardMask = shards-1;
+
+		if (name!=null) {
+			removeCollectedNamedCaches();
+			m_namedCaches.add(new WeakReference<SizeLimitedLRUCache<?,?>>(this));
+		}
+	}
+
+	/**
+	 * Removes the registry entries of named caches that have been garbage collected
+	 */
+	private static void removeCollectedNamedCaches() {
+		List<WeakReference<SizeLimitedLRUCache<?,?>>> collectedRefs = null;
+		for (WeakReference<SizeLimitedLRUCache<?,?>> currRef : m_namedCaches) {
+			if (currRef.get()==null) {
+				if (collectedRefs==null) {
+					collectedRefs = new ArrayList<WeakReference<SizeLimitedLRUCache<?,?>>>();
+				}
+				collectedRefs.add(currRef);
 			}
-		};
-		m_cache = new ConcurrentLinkedHashMap.Builder<K, V>()
-			    .maximumWeightedCapacity(maxSizeUnits)
-			    .weigher(customWeigher)
-			    .build();
+		}
+		if (collectedRefs!=null) {
+			m_namedCaches.removeAll(collectedRefs);
+		}
+	}
+
+	private static int getDefaultShardCount() {
+		return Runtime.getRuntime().availableProcessors() * 2;
+	}
+
+	/**
+	 * Returns the statistics of all caches that have been created with a name
+	 *
+	 * @return statistics
+	 */
+	public static List<CacheStatistics> getNamedCacheStatistics() {
+		removeCollectedNamedCaches();
+
+		List<CacheStatistics> stats = new ArrayList<CacheStatistics>(m_namedCaches.size());
+		for (WeakReference<SizeLimitedLRUCache<?,?>> currRef : m_namedCaches) {
+			SizeLimitedLRUCache<?,?> currCache = currRef.get();
+			if (currCache!=null) {
+				stats.add(currCache.getStatistics());
+			}
+		}
+		return Collections.unmodifiableList(stats);
+	}
+
+	/**
+	 * Returns the cache name
+	 *
+	 * @return name or null
+	 */
+	public String getName() {
+		return m_name;
+	}
+
+	/**
+	 * Returns a snapshot of the cache statistics
+	 *
+	 * @return statistics
+	 */
+	public CacheStatistics getStatistics() {
+		int entryCount = 0;
+		for (Shard<K,V> currShard : m_shards) {
+			entryCount += currShard.m_map.size();
+		}
+		return new CacheStatistics(m_name, m_hits.sum(), m_misses.sum(), m_evictions.sum(),
+				entryCount, getCurrentCacheSizeInUnits(), m_maxSizeUnits);
+	}
+
+	/**
+	 * Resets the hit, miss and eviction counters
+	 */
+	public void resetStatistics() {
+		m_hits.reset();
+		m_misses.reset();
+		m_evictions.reset();
 	}
-	
+
 	public List<K> getKeys() {
-		return new ArrayList<K>(m_cache.keySet());
+		List<K> keys = new ArrayList<K>();
+		for (Shard<K,V> currShard : m_shards) {
+			keys.addAll(currShard.m_map.keySet());
+		}
+		return keys;
 	}
-	
+
 	public void clear() {
-		m_cache.clear();
+		for (Shard<K,V> currShard : m_shards) {
+			for (Entry<K,V> currEntry : currShard.m_map.values()) {
+				if (currShard.m_map.remove(currEntry.m_key, currEntry)) {
+					currShard.m_weight.addAndGet(-currEntry.m_weight);
+					entryRemoved(currEntry.m_key, currEntry.m_value);
+				}
+			}
+		}
 	}
-	
+
 	public final long getCurrentCacheSizeInUnits() {
-		return m_cache.weightedSize();
+		long size = 0;
+		for (Shard<K,V> currShard : m_shards) {
+			size += currShard.m_weight.get();
+		}
+		return size;
 	}
 
 	/**
 	 * Implement this method to compute a size for the cache entry
-	 * 
+	 *
 	 * @param key key
 	 * @param value value
 	 * @return size in units
 	 */
 	protected abstract int computeSize(K key, V value);
-	
+
+	/**
+	 * Override this method to dispose values that have been evicted, removed or replaced.
+	 * The method is called after the entry has been removed from the cache, by the thread
+	 * that removed it. The default implementation does nothing.
+	 *
+	 * @param key key
+	 * @param value removed value
+	 */
+	protected void entryRemoved(K key, V value) {
+	}
+
+	private Shard<K,V> getShard(Object key) {
+		int h = key.hashCode();
+		//spread the bits, so that keys with similar hash codes get distributed across shards
+		h ^= (h >>> 16);
+		h *= 0x9E3779B9;
+		return m_shards[(h >>> 16) & m_shardMask];
+	}
+
 	/**
 	 * Method to look up a cache entry
-	 * 
+	 *
 	 * @param key key
 	 * @return value or null if not found
 	 */
 	public V get(K key) {
-		return m_cache.get(key);
+		Entry<K,V> entry = getShard(key).m_map.get(key);
+		if (entry==null) {
+			m_misses.increment();
+			return null;
+		}
+
+		if (!entry.m_referenced) {
+			//only write when needed to not invalidate CPU caches on every read
+			entry.m_referenced = true;
+		}
+		m_hits.increment();
+		return entry.m_value;
 	}
-	
+
 	/**
 	 * Method to check whether the cache contains a key
-	 * 
+	 *
 	 * @param key key
 	 * @return true if value exists
 	 */
 	public boolean containsKey(K key) {
-		return m_cache.containsKey(key);
+		return getShard(key).m_map.containsKey(key);
 	}
-	
+
 	/**
 	 * Removes a key from the LRU cache
-	 * 
+	 *
 	 * @param key key
 	 * @return previously stored value or null
 	 */
 	public V remove(K key) {
-		return m_cache.remove(key);
+		Shard<K,V> shard = getShard(key);
+		Entry<K,V> oldEntry = shard.m_map.remove(key);
+		if (oldEntry==null) {
+			return null;
+		}
+		shard.m_weight.addAndGet(-oldEntry.m_weight);
+		entryRemoved(oldEntry.m_key, oldEntry.m_value);
+		return oldEntry.m_value;
 	}
-	
+
 	/**
 	 * Adds an entry to the LRU cache
-	 * 
+	 *
 	 * @param key key
 	 * @param newValue value, if null we remove the cache entry
 	 * @return previously stored value or null
@@ -92,9 +293,109 @@ public abstract class SizeLimitedLRUCache<K,V> {
 		if (newValue==null) {
 			return remove(key);
 		}
-		else {
-			return m_cache.put(key, newValue);
+
+		Shard<K,V> shard = getShard(key);
+		int weight = computeSize(key, newValue);
+		if (weight > m_maxSizeUnits) {
+			//entry does not fit into the cache
+			return remove(key);
+		}
+
+		Entry<K,V> newEntry = new Entry<K,V>(key, newValue, weight);
+		Entry<K,V> oldEntry = shard.m_map.put(key, newEntry);
+		long newWeight = shard.m_weight.addAndGet(oldEntry==null ? weight : (weight - oldEntry.m_weight));
+		if (oldEntry!=null && oldEntry.m_value!=newValue) {
+			entryRemoved(oldEntry.m_key, oldEntry.m_value);
+		}
+		if (newWeight > shard.m_maxWeight) {
+			evict(shard, newEntry);
+		}
+		return oldEntry==null ? null : oldEntry.m_value;
+	}
+
+	/**
+	 * Evicts entries from the shard until its weight is below the maximum. Returns immediately
+	 * if another thread is already evicting from the shard.
+	 *
+	 * @param shard shard
+	 * @param newEntry entry that has just been added and is not evicted, so that an entry heavier than the share of the shard stays in the cache
+	 */
+	private void evict(Shard<K,V> shard, Entry<K,V> newEntry) {
+		if (!shard.m_evicting.compareAndSet(false, true)) {
+			return;
+		}
+		try {
+			//limit the sweep in case other threads keep marking entries as referenced;
+			//after that, entries are evicted without second chance
+			int secondChances = 2 * shard.m_map.size();
+			//stop if a whole sweep does not find an entry to evict, e.g. if only the new entry is left
+			boolean progressInSweep = true;
+
+			while (shard.m_weight.get() > shard.m_maxWeight) {
+				if (shard.m_clockHand==null || !shard.m_clockHand.hasNext()) {
+					if (!progressInSweep) {
+						break;
+					}
+					progressInSweep = false;
+					shard.m_clockHand = shard.m_map.values().iterator();
+					if (!shard.m_clockHand.hasNext()) {
+						break;
+					}
+				}
+
+				Entry<K,V> currEntry = shard.m_clockHand.next();
+				if (currEntry==newEntry) {
+					continue;
+				}
+				progressInSweep = true;
+				if (currEntry.m_referenced && secondChances>0) {
+					currEntry.m_referenced = false;
+					secondChances--;
+					continue;
+				}
+
+				if (shard.m_map.remove(currEntry.m_key, currEntry)) {
+					shard.m_weight.addAndGet(-currEntry.m_weight);
+					m_evictions.increment();
+					entryRemoved(currEntry.m_key, currEntry.m_value);
+				}
+			}
+		}
+		finally {
+			shard.m_evicting.set(false);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "SizeLimitedLRUCache [name="+m_name+", shards="+m_shards.length+", size="+getCurrentCacheSizeInUnits()+
+				", maxSize="+m_maxSizeUnits+"]";
+	}
+
+	private static class Shard<K,V> {
+		private final ConcurrentHashMap<K, Entry<K,V>> m_map = new ConcurrentHashMap<K, Entry<K,V>>();
+		private final AtomicLong m_weight = new AtomicLong();
+		private final long m_maxWeight;
+		private final AtomicBoolean m_evicting = new AtomicBoolean();
+		/** current sweep position, only accessed by the thread owning m_evicting */
+		private Iterator<Entry<K,V>> m_clockHand;
+
+		public Shard(long maxWeight) {
+			m_maxWeight = maxWeight;
+		}
+	}
+
+	private static class Entry<K,V> {
+		private final K m_key;
+		private final V m_value;
+		private final int m_weight;
+		private volatile boolean m_referenced;
+
+		public Entry(K key, V value, int weight) {
+			m_key = key;
+			m_value = value;
+			m_weight = weight;
 		}
 	}
-	
+
 }
@@ -0,0 +1,283 @@
+package com.mindoo.domino.jna.internal;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+
+import com.mindoo.domino.jna.NotesDateRange;
+import com.mindoo.domino.jna.NotesTimeDate;
+import com.mindoo.domino.jna.utils.LMBCSString;
+import com.mindoo.domino.jna.utils.NotesDateTimeUtils;
+
+/**
+ * Utility class to write the decoded summary / column values of collection entries
+ * in a compact binary format and read them back. Used to store view data
+ * outside of the Java heap.<br>
+ * <br>
+ * Supports the value types produced by {@link ItemDecoder} and
+ * {@link NotesLookupResultBufferDecoder}: {@link String}, {@link LMBCSString}, {@link Double},
+ * {@link NotesTimeDate}, {@link Calendar}, {@link NotesDateRange}, <code>double[]</code> and
+ * <code>Calendar[]</code> ranges and lists of these values.
+ *
+ * @author Karsten Lehmann
+ */
+public class SummaryValueSerializer {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final byte TYPE_NULL = 0;
+	private static final byte TYPE_STRING = 1;
+	private static final byte TYPE_LMBCSSTRING = 2;
+	private static final byte TYPE_DOUBLE = 3;
+	private static final byte TYPE_INTEGER = 4;
+	private static final byte TYPE_LONG = 5;
+	private static final byte TYPE_BOOLEAN = 6;
+	private static final byte TYPE_TIMEDATE = 7;
+	private static final byte TYPE_CALENDAR = 8;
+	private static final byte TYPE_DATE = 9;
+	private static final byte TYPE_DATERANGE = 10;
+	private static final byte TYPE_DOUBLEARRAY = 11;
+	private static final byte TYPE_CALENDARARRAY = 12;
+	private static final byte TYPE_LIST = 13;
+
+	/**
+	 * Checks whether a value can be written with {@link #writeValue(DataOutput, Object)}
+	 *
+	 * @param val value
+	 * @return true if supported
+	 */
+	public static boolean isSupported(Object val) {
+		if (val==null || val instanceof String || val instanceof LMBCSString || val instanceof Double ||
+				val instanceof Integer || val instanceof Long || val instanceof Boolean ||
+				val instanceof NotesTimeDate || val instanceof Calendar || val instanceof Date ||
+				val instanceof double[]) {
+			return true;
+		}
+		else if (val instanceof NotesDateRange) {
+			NotesDateRange range = (NotesDateRange) val;
+			return range.getStartDateTime()!=null && range.getEndDateTime()!=null;
+		}
+		else if (val instanceof Calendar[]) {
+			for (Calendar currCal : (Calendar[]) val) {
+				if (currCal==null) {
+					return false;
+				}
+			}
+			return true;
+		}
+		else if (val instanceof List) {
+			for (Object currListVal : (List<?>) val) {
+				if (currListVal instanceof List || !isSupported(currListVal)) {
+					return false;
+				}
+			}
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Writes a single value
+	 *
+	 * @param out output
+	 * @param val value, see {@link #isSupported(Object)}
+	 * @throws IOException in case of I/O errors
+	 * @throws IllegalArgumentException if the value type is not supported
+	 */
+	public static void writeValue(DataOutput out, Object val) throws IOException {
+		if (val==null) {
+			out.writeByte(TYPE_NULL);
+		}
+		else if (val instanceof String) {
+			out.writeByte(TYPE_STRING);
+			writeString(out, (String) val);
+		}
+		else if (val instanceof LMBCSString) {
+			out.writeByte(TYPE_LMBCSSTRING);
+			byte[] data = ((LMBCSString) val).getData();
+			out.writeInt(data.length);
+			out.write(data);
+		}
+		else if (val instanceof Double) {
+			out.writeByte(TYPE_DOUBLE);
+			out.writeDouble(((Double) val).doubleValue());
+		}
+		else if (val instanceof Integer) {
+			out.writeByte(TYPE_INTEGER);
+			out.writeInt(((Integer) val).intValue());
+		}
+		else if (val instanceof Long) {
+			out.writeByte(TYPE_LONG);
+			out.writeLong(((Long) val).longValue());
+		}
+		else if (val instanceof Boolean) {
+			out.writeByte(TYPE_BOOLEAN);
+			out.writeBoolean(((Boolean) val).booleanValue());
+		}
+		else if (val instanceof NotesTimeDate) {
+			out.writeByte(TYPE_TIMEDATE);
+			writeInnards(out, ((NotesTimeDate) val).getInnards());
+		}
+		else if (val instanceof Calendar) {
+			out.writeByte(TYPE_CALENDAR);
+			writeInnards(out, NotesDateTimeUtils.calendarToInnards((Calendar) val));
+		}
+		else if (val instanceof Date) {
+			out.writeByte(TYPE_DATE);
+			out.writeLong(((Date) val).getTime());
+		}
+		else if (val instanceof NotesDateRange) {
+			NotesDateRange range = (NotesDateRange) val;
+			out.writeByte(TYPE_DATERANGE);
+			writeInnards(out, range.getStartDateTime().getInnards());
+			writeInnards(out, range.getEndDateTime().getInnards());
+		}
+		else if (val instanceof double[]) {
+			double[] arr = (double[]) val;
+			out.writeByte(TYPE_DOUBLEARRAY);
+			out.writeInt(arr.length);
+			for (int i=0; i<arr.length; i++) {
+				out.writeDouble(arr[i]);
+			}
+		}
+		else if (val instanceof Calendar[]) {
+			Calendar[] arr = (Calendar[]) val;
+			out.writeByte(TYPE_CALENDARARRAY);
+			out.writeInt(arr.length);
+			for (int i=0; i<arr.length; i++) {
+				writeInnards(out, NotesDateTimeUtils.calendarToInnards(arr[i]));
+			}
+		}
+		else if (val instanceof List) {
+			List<?> list = (List<?>) val;
+			out.writeByte(TYPE_LIST);
+			out.writeInt(list.size());
+			for (Object currListVal : list) {
+				writeValue(out, currListVal);
+			}
+		}
+		else {
+			throw new IllegalArgumentException("Unsupported value type: "+val.getClass().getName());
+		}
+	}
+
+	/**
+	 * Reads a single value written by {@link #writeValue(DataOutput, Object)}
+	 *
+	 * @param in input
+	 * @return value
+	 * @throws IOException in case of I/O errors
+	 */
+	public static Object readValue(DataInput in) throws IOException {
+		byte type = in.readByte();
+
+		switch (type) {
+		case TYPE_NULL:
+			return null;
+		case TYPE_STRING:
+			return readString(in);
+		case TYPE_LMBCSSTRING:
+		{
+			byte[] data = new byte[in.readInt()];
+			in.readFully(data);
+			return new LMBCSString(data);
+		}
+		case TYPE_DOUBLE:
+			return in.readDouble();
+		case TYPE_INTEGER:
+			return in.readInt();
+		case TYPE_LONG:
+			return in.readLong();
+		case TYPE_BOOLEAN:
+			return in.readBoolean();
+		case TYPE_TIMEDATE:
+			return new NotesTimeDate(readInnards(in));
+		case TYPE_CALENDAR:
+			return NotesDateTimeUtils.innardsToCalendar(readInnards(in));
+		case TYPE_DATE:
+			return new Date(in.readLong());
+		case TYPE_DATERANGE:
+		{
+			NotesTimeDate start = new NotesTimeDate(readInnards(in));
+			NotesTimeDate end = new NotesTimeDate(readInnards(in));
+			return new NotesDateRange(start, end);
+		}
+		case TYPE_DOUBLEARRAY:
+		{
+			double[] arr = new double[in.readInt()];
+			for (int i=0; i<arr.length; i++) {
+				arr[i] = in.readDouble();
+			}
+			return arr;
+		}
+		case TYPE_CALENDARARRAY:
+		{
+			Calendar[] arr = new Calendar[in.readInt()];
+			for (int i=0; i<arr.length; i++) {
+				arr[i] = NotesDateTimeUtils.innardsToCalendar(readInnards(in));
+			}
+			return arr;
+		}
+		case TYPE_LIST:
+		{
+			int size = in.readInt();
+			List<Object> list = new ArrayList<Object>(size);
+			for (int i=0; i<size; i++) {
+				list.add(readValue(in));
+			}
+			return list;
+		}
+		default:
+			throw new IOException("Unknown value type: "+type);
+		}
+	}
+
+	/**
+	 * Writes a string as UTF-8 with a length prefix. Other than {@link DataOutput#writeUTF(String)},
+	 * this method has no 64K length limit.
+	 *
+	 * @param out output
+	 * @param str string, may be null
+	 * @throws IOException in case of I/O errors
+	 */
+	public static void writeString(DataOutput out, String str) throws IOException {
+		if (str==null) {
+			out.writeInt(-1);
+		}
+		else {
+			byte[] data = str.getBytes(UTF8);
+			out.writeInt(data.length);
+			out.write(data);
+		}
+	}
+
+	/**
+	 * Reads a string written via {@link #writeString(DataOutput, String)}
+	 *
+	 * @param in input
+	 * @return string or null
+	 * @throws IOException in case of I/O errors
+	 */
+	public static String readString(DataInput in) throws IOException {
+		int len = in.readInt();
+		if (len==-1) {
+			return null;
+		}
+		byte[] data = new byte[len];
+		in.readFully(data);
+		return new String(data, UTF8);
+	}
+
+	private static void writeInnards(DataOutput out, int[] innards) throws IOException {
+		out.writeInt(innards[0]);
+		out.writeInt(innards[1]);
+	}
+
+	private static int[] readInnards(DataInput in) throws IOException {
+		return new int[] {in.readInt(), in.readInt()};
+	}
+}
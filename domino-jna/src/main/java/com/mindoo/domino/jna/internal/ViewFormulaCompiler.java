@@ -8,10 +8,12 @@ import java.util.Map.Entry;
 import com.mindoo.domino.jna.errors.FormulaCompilationError;
 import com.mindoo.domino.jna.errors.INotesErrorConstants;
 import com.mindoo.domino.jna.errors.NotesErrorUtils;
+import com.mindoo.domino.jna.formula.CompiledFormulaCache;
 import com.mindoo.domino.jna.utils.NotesStringUtils;
 import com.mindoo.domino.jna.utils.PlatformUtils;
 import com.mindoo.domino.jna.utils.StringUtil;
 import com.sun.jna.Memory;
+import com.sun.jna.Pointer;
 import com.sun.jna.ptr.IntByReference;
 import com.sun.jna.ptr.LongByReference;
 import com.sun.jna.ptr.ShortByReference;
@@ -34,6 +36,62 @@ public class ViewFormulaCompiler {
 		return (int) b64_compile(selectionFormula, columnItemNamesAndFormulas);
 	}
 	
+	/**
+	 * Variant of {@link #b32_compile(String, LinkedHashMap)} that takes the compiled formula
+	 * from {@link CompiledFormulaCache#getInstance()}, so that it is only compiled once,
+	 * and copies it into a new memory handle
+	 * 
+	 * @param selectionFormula selection formula
+	 * @param columnItemNamesAndFormulas map with programmatic column names as keys and their formula as values, will be processed in key order; if null, we simply compile the selection formula
+	 * @return handle to combined formula for 32 bit, to be freed with OSMemFree
+	 */
+	public static int b32_compileCached(String selectionFormula, LinkedHashMap<String,String> columnItemNamesAndFormulas) {
+		Memory compiledFormula = CompiledFormulaCache.getInstance().getCompiledSearchFormula(selectionFormula, columnItemNamesAndFormulas);
+		int size = (int) compiledFormula.size();
+		
+		IntByReference retHandle = new IntByReference();
+		short result = Mem32.OSMemAlloc((short) 0, size, retHandle);
+		NotesErrorUtils.checkResult(result);
+		int hFormula = retHandle.getValue();
+		
+		Pointer ptr = Mem32.OSLockObject(hFormula);
+		try {
+			ptr.write(0, compiledFormula.getByteArray(0, size), 0, size);
+		}
+		finally {
+			Mem32.OSUnlockObject(hFormula);
+		}
+		return hFormula;
+	}
+	
+	/**
+	 * Variant of {@link #b64_compile(String, LinkedHashMap)} that takes the compiled formula
+	 * from {@link CompiledFormulaCache#getInstance()}, so that it is only compiled once,
+	 * and copies it into a new memory handle
+	 * 
+	 * @param selectionFormula selection formula
+	 * @param columnItemNamesAndFormulas map with programmatic column names as keys and their formula as values, will be processed in key order; if null, we simply compile the selection formula
+	 * @return handle to combined formula for 64 bit, to be freed with OSMemFree
+	 */
+	public static long b64_compileCached(String selectionFormula, LinkedHashMap<String,String> columnItemNamesAndFormulas) {
+		Memory compiledFormula = CompiledFormulaCache.getInstance().getCompiledSearchFormula(selectionFormula, columnItemNamesAndFormulas);
+		int size = (int) compiledFormula.size();
+		
+		LongByReference retHandle = new LongByReference();
+		short result = Mem64.OSMemAlloc((short) 0, size, retHandle);
+		NotesErrorUtils.checkResult(result);
+		long hFormula = retHandle.getValue();
+		
+		Pointer ptr = Mem64.OSLockObject(hFormula);
+		try {
+			ptr.write(0, compiledFormula.getByteArray(0, size), 0, size);
+		}
+		finally {
+			Mem64.OSUnlockObject(hFormula);
+		}
+		return hFormula;
+	}
+	
 	/**
 	 * Method to generate the data for the $FORMULA item of a view definition by combining
 	 * the view's selection formula with the programmatic names and formulas of the columns
@@ -0,0 +1,65 @@
+package com.mindoo.domino.jna.sync;
+
+import com.mindoo.domino.jna.IItemTableData;
+import com.mindoo.domino.jna.NotesNote;
+
+/**
+ * Extension of {@link ISyncTarget} that splits the processing of notes matching the selection
+ * formula into a conversion step and a write step.<br>
+ * <br>
+ * In the pipelined sync mode of {@link SyncUtil} (see
+ * {@link SyncUtil#sync(com.mindoo.domino.jna.NotesDatabase, String, ISyncTarget, java.util.EnumSet, SyncPipelineSettings)}),
+ * {@link #convertNote(NotesOriginatorIdData, IItemTableData, NotesNote)} is called concurrently from
+ * a pool of worker threads that also open the notes, while
+ * {@link #noteChangedMatchingFormula(Object, NotesOriginatorIdData, Object)} and all other
+ * {@link ISyncTarget} methods are called from the thread that started the sync,
+ * so the target's transaction handling does not need to be thread-safe.<br>
+ * <br>
+ * The converted notes are passed to the target in the order in which the workers finish them,
+ * which is not the order of the search results. Targets must not rely on a specific
+ * order of the changes within a sync run.<br>
+ * <br>
+ * Without pipelining, {@link ISyncTarget#noteChangedMatchingFormula(Object, NotesOriginatorIdData, IItemTableData, NotesNote)}
+ * is used as before, so implementations usually delegate that method to
+ * the two methods of this interface.
+ * 
+ * @author Karsten Lehmann
+ *
+ * @param <CTX> sync context type
+ * @param <T> type of converted note data
+ */
+public interface IConvertingSyncTarget<CTX,T> extends ISyncTarget<CTX> {
+
+	/**
+	 * Converts the data of a note matching the selection formula to the target format.
+	 * This method is called concurrently from multiple threads and must not access
+	 * the sync context. The note gets recycled after the method call, so the returned
+	 * value must not reference it.
+	 * 
+	 * @param oid originator id containing the UNID, sequence number and sequence date ("modified initially") of the note
+	 * @param summaryBufferData summary buffer if {@link #getWhichDataToRead()} returned {@link DataToRead#SummaryBufferAllItems} or {@link DataToRead#SummaryBufferSelectedItems}, null otherwise
+	 * @param note note if {@link #getWhichDataToRead()} returned {@link DataToRead#NoteWithAllItems} or {@link DataToRead#NoteWithSummaryItems}, null otherwise
+	 * @return converted data
+	 */
+	public T convertNote(NotesOriginatorIdData oid, IItemTableData summaryBufferData, NotesNote note);
+	
+	/**
+	 * Writes the converted data of a note that has changed since the last sync end date and
+	 * that currently matches the selection formula.
+	 * 
+	 * @param ctx sync context
+	 * @param oid originator id containing the UNID, sequence number and sequence date ("modified initially") of the note
+	 * @param convertedData data returned by {@link #convertNote(NotesOriginatorIdData, IItemTableData, NotesNote)}
+	 * @return flag whether the note got added, removed or updated in the target, used for statistics
+	 */
+	public TargetResult noteChangedMatchingFormula(CTX ctx, NotesOriginatorIdData oid, T convertedData);
+	
+	/**
+	 * Method is called in pipelined sync mode after a batch of changes has been passed to
+	 * the target, e.g. to execute batched SQL statements.
+	 * 
+	 * @param ctx sync context
+	 */
+	public void flushBatch(CTX ctx);
+	
+}
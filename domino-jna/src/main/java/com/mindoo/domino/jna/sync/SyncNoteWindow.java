@@ -0,0 +1,253 @@
+package com.mindoo.domino.jna.sync;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+
+import com.mindoo.domino.jna.NotesDatabase;
+import com.mindoo.domino.jna.NotesDatabase.INoteOpenCallback;
+import com.mindoo.domino.jna.NotesNote;
+import com.mindoo.domino.jna.constants.GetNotes;
+import com.mindoo.domino.jna.constants.OpenNote;
+import com.mindoo.domino.jna.sync.ISyncTarget.DataToRead;
+
+/**
+ * Window of changes found by the database search of {@link SyncUtil}. If the {@link ISyncTarget}
+ * needs the notes of matching documents, the notes of all changes in the window are
+ * fetched with a single {@link NotesDatabase#getNotes(int[], EnumSet[], int[], EnumSet, NotesDatabase, com.mindoo.domino.jna.NotesDatabase.IGetNotesCallback, INoteOpenCallback, com.mindoo.domino.jna.NotesDatabase.IObjectAllocCallback, com.mindoo.domino.jna.NotesDatabase.IObjectWriteCallback, com.mindoo.domino.jna.NotesTimeDate, com.mindoo.domino.jna.NotesDatabase.IFolderAddCallback)}
+ * call instead of one {@link NotesDatabase#openNoteById(int, EnumSet)} call per note,
+ * which saves a server round trip per document for remote databases.<br>
+ * <br>
+ * The changes are passed to a {@link ChangeHandler} in the order they have been added.
+ * Notes that are not returned by the bulk call (e.g. because they have been deleted in the
+ * meantime) or that are returned with an error are opened one by one after the bulk call,
+ * so that the existing error handling applies. To keep the order, all following changes are processed
+ * after the bulk call as well; no other database call is made while the bulk call is running.
+ *
+ * @author Karsten Lehmann
+ */
+class SyncNoteWindow {
+	/** default number of notes fetched in one call */
+	static final int DEFAULT_WINDOW_SIZE = 100;
+
+	private final NotesDatabase m_db;
+	private final ISyncTarget<?> m_target;
+	private final EnumSet<OpenNote> m_openFlags;
+	private final int m_windowSize;
+	private final List<SyncWorkItem> m_items;
+
+	/**
+	 * Callback to process the changes of the window
+	 */
+	interface ChangeHandler {
+
+		/**
+		 * Called for every change of the window
+		 *
+		 * @param item change, {@link SyncWorkItem#m_skip} is true if the note could not be loaded
+		 * @param note note for matching documents if requested by the target, null otherwise; only valid during the call
+		 */
+		void process(SyncWorkItem item, NotesNote note);
+
+	}
+
+	/**
+	 * Creates a new window
+	 *
+	 * @param db database to load the notes from or null to not load any notes
+	 * @param target sync target, used to check which data needs to be read and for logging
+	 * @param windowSize maximum number of changes in the window, 1 to open notes one by one
+	 */
+	SyncNoteWindow(NotesDatabase db, ISyncTarget<?> target, int windowSize) {
+		if (windowSize<=0)
+			throw new IllegalArgumentException("Window size must be greater than 0: "+windowSize);
+
+		m_db = db;
+		m_target = target;
+		EnumSet<DataToRead> dataToRead = target.getWhichDataToRead();
+		if (db==null) {
+			m_openFlags = null;
+		}
+		else if (dataToRead.contains(DataToRead.NoteWithAllItems)) {
+			m_openFlags = EnumSet.noneOf(OpenNote.class);
+		}
+		else if (dataToRead.contains(DataToRead.NoteWithSummaryItems)) {
+			m_openFlags = EnumSet.of(OpenNote.SUMMARY);
+		}
+		else {
+			m_openFlags = null;
+		}
+		m_windowSize = windowSize;
+		m_items = new ArrayList<SyncWorkItem>(windowSize);
+	}
+
+	/**
+	 * Returns whether notes are opened for matching documents
+	 *
+	 * @return true if notes are loaded
+	 */
+	boolean isLoadingNotes() {
+		return m_openFlags!=null;
+	}
+
+	boolean isEmpty() {
+		return m_items.isEmpty();
+	}
+
+	boolean isFull() {
+		return m_items.size() >= m_windowSize;
+	}
+
+	/**
+	 * Adds a change to the window
+	 *
+	 * @param item change
+	 */
+	void add(SyncWorkItem item) {
+		m_items.add(item);
+	}
+
+	/**
+	 * Loads the notes for the changes in the window, passes the changes to the handler and empties the window
+	 *
+	 * @param handler handler
+	 */
+	void flush(ChangeHandler handler) {
+		if (m_items.isEmpty()) {
+			return;
+		}
+
+		try {
+			boolean[] processed = new boolean[m_items.size()];
+
+			if (m_openFlags!=null && m_windowSize>1) {
+				loadNotesInBulk(handler, processed);
+			}
+
+			//remaining changes after the last note processed during the bulk call
+			for (int i=0; i<m_items.size(); i++) {
+				if (!processed[i]) {
+					processSingle(m_items.get(i), handler);
+				}
+			}
+		}
+		finally {
+			m_items.clear();
+		}
+	}
+
+	private void loadNotesInBulk(final ChangeHandler handler, final boolean[] processed) {
+		final Map<Integer,Integer> indexByNoteId = new HashMap<Integer,Integer>();
+		for (int i=0; i<m_items.size(); i++) {
+			SyncWorkItem currItem = m_items.get(i);
+			if (currItem.m_type==SyncWorkItem.Type.NoteMatching && !currItem.m_skip) {
+				indexByNoteId.put(currItem.m_noteId, i);
+			}
+		}
+		if (indexByNoteId.isEmpty()) {
+			return;
+		}
+
+		int[] noteIds = new int[indexByNoteId.size()];
+		@SuppressWarnings("unchecked")
+		EnumSet<OpenNote>[] noteOpenFlags = (EnumSet<OpenNote>[]) new EnumSet<?>[noteIds.length];
+		int[] sinceSeqNum = new int[noteIds.length];
+		int idx = 0;
+		for (SyncWorkItem currItem : m_items) {
+			if (currItem.m_type==SyncWorkItem.Type.NoteMatching && !currItem.m_skip) {
+				noteIds[idx] = currItem.m_noteId;
+				noteOpenFlags[idx] = m_openFlags;
+				idx++;
+			}
+		}
+
+		final RuntimeException[] handlerException = new RuntimeException[1];
+		final Error[] handlerError = new Error[1];
+		final int[] nextIndex = new int[1];
+		//set on the first note that has not been returned or has an error; the remaining changes are processed after the bulk call
+		final boolean[] deferRemaining = new boolean[1];
+
+		try {
+			m_db.getNotes(noteIds, noteOpenFlags, sinceSeqNum, EnumSet.noneOf(GetNotes.class), null, null, new INoteOpenCallback() {
+
+				@Override
+				public void noteOpened(NotesNote note, int noteId, short status) {
+					Integer index = indexByNoteId.get(noteId);
+					if (deferRemaining[0] || index==null || processed[index.intValue()]) {
+						return;
+					}
+
+					try {
+						//pass earlier changes first to keep the order; they do not need a note
+						for (int i=nextIndex[0]; i<index.intValue(); i++) {
+							SyncWorkItem earlierItem = m_items.get(i);
+							if (earlierItem.m_type==SyncWorkItem.Type.NoteMatching && !earlierItem.m_skip) {
+								//note has not been returned; opening it here would be a nested call on the
+								//database handle, so this and all following changes are processed after the bulk call
+								deferRemaining[0] = true;
+								return;
+							}
+							handler.process(earlierItem, null);
+							processed[i] = true;
+						}
+
+						if (status!=0) {
+							//reopened one by one after the bulk call to get the error details
+							deferRemaining[0] = true;
+							return;
+						}
+						handler.process(m_items.get(index.intValue()), note);
+						processed[index.intValue()] = true;
+						nextIndex[0] = index.intValue() + 1;
+					}
+					catch (RuntimeException e) {
+						handlerException[0] = e;
+						throw e;
+					}
+					catch (Error e) {
+						handlerError[0] = e;
+						throw e;
+					}
+				}
+			}, null, null, null, null);
+		}
+		catch (RuntimeException e) {
+			if (handlerException[0]!=null) {
+				throw handlerException[0];
+			}
+			if (handlerError[0]!=null) {
+				throw handlerError[0];
+			}
+			m_target.log(Level.WARNING, "Error loading "+noteIds.length+" documents in bulk. Opening remaining documents one by one.", e);
+		}
+	}
+
+	private void processSingle(SyncWorkItem item, ChangeHandler handler) {
+		if (m_openFlags==null || item.m_type!=SyncWorkItem.Type.NoteMatching || item.m_skip) {
+			handler.process(item, null);
+			return;
+		}
+
+		NotesNote note;
+		try {
+			note = m_db.openNoteById(item.m_noteId, m_openFlags);
+		}
+		catch (Exception e) {
+			m_target.log(Level.WARNING, "Error loading document with note id "+item.m_noteId+" and UNID "+item.m_oid.getUNID()+
+					". Seems to have been deleted in the meantime and gets ignored.", e);
+			item.m_skip = true;
+			handler.process(item, null);
+			return;
+		}
+
+		try {
+			handler.process(item, note);
+		}
+		finally {
+			note.recycle();
+		}
+	}
+}
@@ -0,0 +1,522 @@
+package com.mindoo.domino.jna.sync;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.mindoo.domino.jna.IItemTableData;
+import com.mindoo.domino.jna.NotesDatabase;
+import com.mindoo.domino.jna.NotesIDTable;
+import com.mindoo.domino.jna.NotesNote;
+import com.mindoo.domino.jna.NotesSearch;
+import com.mindoo.domino.jna.NotesSearch.ISearchMatch;
+import com.mindoo.domino.jna.NotesSearch.SearchCallback;
+import com.mindoo.domino.jna.NotesTimeDate;
+import com.mindoo.domino.jna.constants.NoteClass;
+import com.mindoo.domino.jna.constants.Search;
+import com.mindoo.domino.jna.errors.NotesError;
+import com.mindoo.domino.jna.gc.NotesGC;
+import com.mindoo.domino.jna.internal.NotesLookupResultBufferDecoder;
+import com.mindoo.domino.jna.sync.ISyncTarget.DataToRead;
+import com.mindoo.domino.jna.sync.ISyncTarget.TargetResult;
+import com.mindoo.domino.jna.utils.NotesInitUtils;
+
+/**
+ * Implementation of the pipelined search and copy operation of
+ * {@link SyncUtil#sync(NotesDatabase, String, ISyncTarget, EnumSet, SyncPipelineSettings)}.<br>
+ * <br>
+ * A search thread runs {@link NotesSearch} on its own database handle and only enqueues
+ * the note id, originator id and a copy of the summary buffer of each match. For an
+ * {@link IConvertingSyncTarget}, a pool of worker threads loads the notes in windows (see
+ * {@link SyncNoteWindow}) and converts them.
+ * The calling thread is the writer stage: it drains the queue in batches and passes the changes to
+ * the {@link ISyncTarget}, so that the target is only used from the thread that started the sync.
+ * For other targets, the writer opens the notes itself.
+ *
+ * @author Karsten Lehmann
+ *
+ * @param <CTX> sync context type
+ */
+class SyncPipeline<CTX> {
+	private static final long POLL_INTERVAL_MS = 100;
+	private static final SyncWorkItem END_OF_DATA = new SyncWorkItem(SyncWorkItem.Type.NoteMatching, 0, null, null);
+
+	private final NotesDatabase m_dbSource;
+	private final ISyncTarget<CTX> m_target;
+	private final IConvertingSyncTarget<CTX,Object> m_convertingTarget;
+	private final CTX m_ctx;
+	private final SyncPipelineSettings m_settings;
+	private final int m_noteWindowSize;
+	private final boolean m_readSummary;
+
+	private final int[] m_searchFilterIds;
+	private final String m_selectionFormula;
+	private final LinkedHashMap<String,String> m_additionalComputedSummaryBufferEntries;
+	private final EnumSet<Search> m_searchFlags;
+	private final NotesTimeDate m_sinceDateForSearch;
+
+	/** queue between search and workers, null if the workers are not used */
+	private final BlockingQueue<SyncWorkItem> m_loadQueue;
+	/** queue between search/workers and writer */
+	private final BlockingQueue<SyncWorkItem> m_writeQueue;
+	private final AtomicInteger m_activeWorkers = new AtomicInteger();
+
+	private final AtomicReference<Throwable> m_error = new AtomicReference<Throwable>();
+	private volatile boolean m_aborted;
+	private volatile NotesTimeDate m_searchEndDate;
+
+	private final AtomicLong m_searchNanos = new AtomicLong();
+	private final AtomicLong m_searchBlockedNanos = new AtomicLong();
+	private final AtomicLong m_loadNanos = new AtomicLong();
+	private final AtomicLong m_workersBlockedNanos = new AtomicLong();
+	private long m_writeNanos;
+	private long m_writerIdleNanos;
+
+	private int m_addedToTarget;
+	private int m_updatedInTarget;
+	private int m_removedFromTarget;
+	private int m_notesMatchingFormula;
+	private int m_notesNotMatchingFormula;
+	private int m_notesDeleted;
+
+	@SuppressWarnings("unchecked")
+	SyncPipeline(NotesDatabase dbSource, ISyncTarget<CTX> target, CTX ctx, SyncPipelineSettings settings, int noteWindowSize,
+			NotesIDTable searchFilter, String selectionFormula, LinkedHashMap<String,String> additionalComputedSummaryBufferEntries,
+			EnumSet<Search> searchFlags, NotesTimeDate sinceDateForSearch) {
+		m_dbSource = dbSource;
+		m_target = target;
+		m_convertingTarget = target instanceof IConvertingSyncTarget ? (IConvertingSyncTarget<CTX,Object>) target : null;
+		m_ctx = ctx;
+		m_settings = settings;
+		m_noteWindowSize = noteWindowSize;
+		EnumSet<DataToRead> dataToRead = target.getWhichDataToRead();
+		m_readSummary = dataToRead.contains(DataToRead.SummaryBufferAllItems) || dataToRead.contains(DataToRead.SummaryBufferSelectedItems);
+
+		//ID tables are bound to the thread that allocated them, so the search thread creates its own copy
+		m_searchFilterIds = searchFilter==null ? null : searchFilter.toArray();
+		m_selectionFormula = selectionFormula;
+		m_additionalComputedSummaryBufferEntries = additionalComputedSummaryBufferEntries;
+		m_searchFlags = searchFlags;
+		m_sinceDateForSearch = sinceDateForSearch;
+
+		m_loadQueue = m_convertingTarget==null ? null : new ArrayBlockingQueue<SyncWorkItem>(settings.getQueueSize());
+		m_writeQueue = new ArrayBlockingQueue<SyncWorkItem>(settings.getQueueSize());
+	}
+
+	/**
+	 * Runs the search and copy operation and waits until all stages are done
+	 */
+	void execute() {
+		List<Thread> threads = new ArrayList<Thread>();
+
+		threads.add(startThread(new Callable<Object>() {
+
+			@Override
+			public Object call() throws Exception {
+				search();
+				return null;
+			}
+		}, "Domino JNA sync search"));
+
+		if (m_convertingTarget!=null) {
+			int workerCount = m_settings.getWorkerCount();
+			m_activeWorkers.set(workerCount);
+
+			for (int i=0; i<workerCount; i++) {
+				threads.add(startThread(new Callable<Object>() {
+
+					@Override
+					public Object call() throws Exception {
+						loadAndConvertNotes();
+						return null;
+					}
+				}, "Domino JNA sync worker #"+(i+1)));
+			}
+		}
+
+		try {
+			writeChanges();
+		}
+		finally {
+			//make sure that threads blocked on full queues do not wait forever
+			m_aborted = true;
+
+			boolean interrupted = false;
+			for (Thread currThread : threads) {
+				while (currThread.isAlive()) {
+					try {
+						currThread.join();
+					} catch (InterruptedException e) {
+						interrupted = true;
+					}
+				}
+			}
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		Throwable error = m_error.get();
+		if (error!=null) {
+			if (error instanceof RuntimeException) {
+				throw (RuntimeException) error;
+			}
+			else if (error instanceof Error) {
+				throw (Error) error;
+			}
+			else {
+				throw new NotesError(0, "Error running pipelined sync", error);
+			}
+		}
+	}
+
+	private Thread startThread(final Callable<Object> callable, String name) {
+		Thread thread = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					NotesInitUtils.notesInitThread();
+					try {
+						NotesGC.runWithAutoGC(callable);
+					}
+					finally {
+						NotesInitUtils.notesTermThread();
+					}
+				}
+				catch (Throwable t) {
+					fail(t);
+				}
+			}
+
+		}, name);
+		thread.setDaemon(true);
+		thread.start();
+		return thread;
+	}
+
+	private void fail(Throwable t) {
+		m_error.compareAndSet(null, t);
+		m_aborted = true;
+	}
+
+	/**
+	 * Search stage, runs the database search and enqueues all matches
+	 */
+	private void search() {
+		NotesDatabase db = new NotesDatabase(m_dbSource.getServer(), m_dbSource.getRelativeFilePath(), m_dbSource.getContextUser());
+		NotesIDTable searchFilter = m_searchFilterIds==null ? null : new NotesIDTable(m_searchFilterIds);
+
+		final BlockingQueue<SyncWorkItem> firstQueue = m_loadQueue!=null ? m_loadQueue : m_writeQueue;
+
+		long t0 = System.nanoTime();
+		NotesTimeDate endDate = NotesSearch.search(db, searchFilter, m_selectionFormula, m_additionalComputedSummaryBufferEntries, "-",
+				m_searchFlags, EnumSet.of(NoteClass.DOCUMENT), m_sinceDateForSearch, new SearchCallback() {
+
+			@Override
+			public Action noteFound(NotesDatabase parentDb, ISearchMatch searchMatch, IItemTableData summaryBufferData) {
+				//the summary buffer is only valid during the callback
+				IItemTableData summaryCopy = m_readSummary && summaryBufferData!=null ? NotesLookupResultBufferDecoder.copyItemTable(summaryBufferData) : null;
+				SyncWorkItem item = new SyncWorkItem(SyncWorkItem.Type.NoteMatching, searchMatch.getNoteId(), searchMatch.getOIDData(), summaryCopy);
+				return enqueue(firstQueue, item, m_searchBlockedNanos) ? Action.Continue : Action.Stop;
+			}
+
+			@Override
+			public Action noteFoundNotMatchingFormula(NotesDatabase parentDb, ISearchMatch searchMatch, IItemTableData summaryBufferData) {
+				SyncWorkItem item = new SyncWorkItem(SyncWorkItem.Type.NoteNotMatching, searchMatch.getNoteId(), searchMatch.getOIDData(), null);
+				return enqueue(firstQueue, item, m_searchBlockedNanos) ? Action.Continue : Action.Stop;
+			}
+
+			@Override
+			public Action deletionStubFound(NotesDatabase parentDb, ISearchMatch searchMatch, IItemTableData summaryBufferData) {
+				SyncWorkItem item = new SyncWorkItem(SyncWorkItem.Type.NoteDeleted, searchMatch.getNoteId(), searchMatch.getOIDData(), null);
+				return enqueue(firstQueue, item, m_searchBlockedNanos) ? Action.Continue : Action.Stop;
+			}
+		});
+		m_searchNanos.set(System.nanoTime() - t0 - m_searchBlockedNanos.get());
+
+		if (!m_aborted) {
+			m_searchEndDate = endDate;
+			enqueue(firstQueue, END_OF_DATA, null);
+		}
+	}
+
+	/**
+	 * Adds an item to a queue, blocking while the queue is full
+	 *
+	 * @param queue queue
+	 * @param item item
+	 * @param blockedNanos optional counter for the time spent waiting for free space in the queue
+	 * @return false if the sync has been aborted
+	 */
+	private boolean enqueue(BlockingQueue<SyncWorkItem> queue, SyncWorkItem item, AtomicLong blockedNanos) {
+		if (queue.offer(item)) {
+			return true;
+		}
+
+		long t0 = System.nanoTime();
+		try {
+			while (!m_aborted) {
+				try {
+					if (queue.offer(item, POLL_INTERVAL_MS, TimeUnit.MILLISECONDS)) {
+						return true;
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					fail(e);
+					return false;
+				}
+			}
+			return false;
+		}
+		finally {
+			if (blockedNanos!=null) {
+				blockedNanos.addAndGet(System.nanoTime() - t0);
+			}
+		}
+	}
+
+	/**
+	 * Worker stage, loads the notes with a separate database handle in windows
+	 * and converts them
+	 */
+	private void loadAndConvertNotes() {
+		NotesDatabase db = new NotesDatabase(m_dbSource.getServer(), m_dbSource.getRelativeFilePath(), m_dbSource.getContextUser());
+		SyncNoteWindow window = new SyncNoteWindow(db, m_target, m_noteWindowSize);
+		final List<SyncWorkItem> convertedItems = new ArrayList<SyncWorkItem>(m_noteWindowSize);
+
+		SyncNoteWindow.ChangeHandler convertHandler = new SyncNoteWindow.ChangeHandler() {
+
+			@Override
+			public void process(SyncWorkItem item, NotesNote note) {
+				if (item.m_type==SyncWorkItem.Type.NoteMatching && !item.m_skip) {
+					item.m_convertedData = m_convertingTarget.convertNote(item.m_oid, item.m_summaryBufferData, note);
+				}
+				//converted data replaces the summary buffer copy
+				item.m_summaryBufferData = null;
+				convertedItems.add(item);
+			}
+		};
+
+		try {
+			boolean endReached = false;
+
+			while (!m_aborted && !endReached) {
+				SyncWorkItem firstItem;
+				try {
+					firstItem = m_loadQueue.poll(POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					fail(e);
+					return;
+				}
+
+				if (firstItem==null) {
+					continue;
+				}
+
+				List<SyncWorkItem> items = new ArrayList<SyncWorkItem>(m_noteWindowSize);
+				items.add(firstItem);
+				m_loadQueue.drainTo(items, m_noteWindowSize-1);
+
+				for (SyncWorkItem currItem : items) {
+					if (currItem==END_OF_DATA) {
+						//let the other workers see the end marker as well
+						enqueue(m_loadQueue, END_OF_DATA, null);
+						endReached = true;
+						break;
+					}
+					window.add(currItem);
+				}
+
+				long t0 = System.nanoTime();
+				window.flush(convertHandler);
+				m_loadNanos.addAndGet(System.nanoTime() - t0);
+
+				for (SyncWorkItem currItem : convertedItems) {
+					if (!enqueue(m_writeQueue, currItem, m_workersBlockedNanos)) {
+						return;
+					}
+				}
+				convertedItems.clear();
+			}
+		}
+		finally {
+			if (m_activeWorkers.decrementAndGet()==0 && !m_aborted) {
+				enqueue(m_writeQueue, END_OF_DATA, null);
+			}
+		}
+	}
+
+	/**
+	 * Writer stage, runs in the calling thread and passes the changes to the sync target in batches
+	 */
+	private void writeChanges() {
+		int batchSize = m_settings.getBatchSize();
+		List<SyncWorkItem> batch = new ArrayList<SyncWorkItem>(batchSize);
+
+		//notes for targets that do not convert in the worker threads are loaded by the writer
+		SyncNoteWindow window = new SyncNoteWindow(m_convertingTarget==null ? m_dbSource : null, m_target, m_noteWindowSize);
+		final long[] writeNanos = new long[1];
+		SyncNoteWindow.ChangeHandler writeHandler = new SyncNoteWindow.ChangeHandler() {
+
+			@Override
+			public void process(SyncWorkItem item, NotesNote note) {
+				long t0 = System.nanoTime();
+				writeChange(item, note);
+				writeNanos[0] += System.nanoTime() - t0;
+			}
+		};
+
+		while (m_error.get()==null) {
+			long tWait = System.nanoTime();
+			SyncWorkItem firstItem;
+			try {
+				firstItem = m_writeQueue.poll(POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new NotesError(0, "Pipelined sync has been interrupted", e);
+			}
+			finally {
+				m_writerIdleNanos += System.nanoTime() - tWait;
+			}
+
+			if (firstItem==null) {
+				continue;
+			}
+
+			batch.add(firstItem);
+			m_writeQueue.drainTo(batch, batchSize-1);
+
+			boolean done = false;
+			long tBatch = System.nanoTime();
+			writeNanos[0] = 0;
+
+			for (SyncWorkItem currItem : batch) {
+				if (currItem==END_OF_DATA) {
+					done = true;
+					break;
+				}
+				window.add(currItem);
+				if (window.isFull()) {
+					window.flush(writeHandler);
+				}
+			}
+			window.flush(writeHandler);
+
+			if (m_convertingTarget!=null) {
+				long t0 = System.nanoTime();
+				m_convertingTarget.flushBatch(m_ctx);
+				writeNanos[0] += System.nanoTime() - t0;
+			}
+
+			m_writeNanos += writeNanos[0];
+			//remaining time has been spent loading notes
+			m_loadNanos.addAndGet(System.nanoTime() - tBatch - writeNanos[0]);
+			batch.clear();
+
+			if (done) {
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Passes a single change to the sync target
+	 *
+	 * @param item change
+	 * @param note loaded note for targets that do not convert notes in the worker threads
+	 */
+	private void writeChange(SyncWorkItem item, NotesNote note) {
+		TargetResult tResult;
+
+		if (item.m_type==SyncWorkItem.Type.NoteMatching) {
+			if (item.m_skip) {
+				return;
+			}
+
+			if (m_convertingTarget!=null) {
+				tResult = m_convertingTarget.noteChangedMatchingFormula(m_ctx, item.m_oid, item.m_convertedData);
+			}
+			else {
+				tResult = m_target.noteChangedMatchingFormula(m_ctx, item.m_oid, item.m_summaryBufferData, note);
+			}
+			m_notesMatchingFormula++;
+		}
+		else if (item.m_type==SyncWorkItem.Type.NoteNotMatching) {
+			tResult = m_target.noteChangedNotMatchingFormula(m_ctx, item.m_oid);
+			m_notesNotMatchingFormula++;
+		}
+		else {
+			tResult = m_target.noteDeleted(m_ctx, item.m_oid);
+			m_notesDeleted++;
+		}
+
+		if (tResult==TargetResult.Added)
+			m_addedToTarget++;
+		else if (tResult==TargetResult.Removed)
+			m_removedFromTarget++;
+		else if (tResult==TargetResult.Updated)
+			m_updatedInTarget++;
+	}
+
+	NotesTimeDate getSearchEndDate() {
+		return m_searchEndDate;
+	}
+
+	int getAddedToTarget() {
+		return m_addedToTarget;
+	}
+
+	int getUpdatedInTarget() {
+		return m_updatedInTarget;
+	}
+
+	int getRemovedFromTarget() {
+		return m_removedFromTarget;
+	}
+
+	int getNotesMatchingFormula() {
+		return m_notesMatchingFormula;
+	}
+
+	int getNotesNotMatchingFormula() {
+		return m_notesNotMatchingFormula;
+	}
+
+	int getNotesDeleted() {
+		return m_notesDeleted;
+	}
+
+	long getSearchNanos() {
+		return m_searchNanos.get();
+	}
+
+	long getSearchBlockedNanos() {
+		return m_searchBlockedNanos.get();
+	}
+
+	long getLoadNanos() {
+		return m_loadNanos.get();
+	}
+
+	long getWorkersBlockedNanos() {
+		return m_workersBlockedNanos.get();
+	}
+
+	long getWriteNanos() {
+		return m_writeNanos;
+	}
+
+	long getWriterIdleNanos() {
+		return m_writerIdleNanos;
+	}
+}
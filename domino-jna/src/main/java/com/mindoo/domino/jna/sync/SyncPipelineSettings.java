@@ -0,0 +1,82 @@
+package com.mindoo.domino.jna.sync;
+
+/**
+ * Settings for the pipelined sync mode of {@link SyncUtil}, in which the database search,
+ * the note loading/conversion and the writes into the {@link ISyncTarget} run in
+ * separate stages connected by bounded queues.<br>
+ * <br>
+ * With more than one worker, the changes are not passed to the sync target in the order
+ * of the search results, see {@link IConvertingSyncTarget}.
+ * 
+ * @author Karsten Lehmann
+ */
+public class SyncPipelineSettings {
+	private static final int DEFAULT_QUEUE_SIZE = 2000;
+	private static final int DEFAULT_BATCH_SIZE = 500;
+	private static final int MAX_DEFAULT_WORKER_COUNT = 8;
+	
+	private int m_workerCount;
+	private int m_queueSize;
+	private int m_batchSize;
+	
+	/**
+	 * Creates settings with default values: one worker thread per processor (max. 8),
+	 * a queue size of 2000 entries and a batch size of 500 entries
+	 */
+	public SyncPipelineSettings() {
+		this(Math.max(1, Math.min(MAX_DEFAULT_WORKER_COUNT, Runtime.getRuntime().availableProcessors())),
+				DEFAULT_QUEUE_SIZE, DEFAULT_BATCH_SIZE);
+	}
+	
+	/**
+	 * Creates new settings
+	 * 
+	 * @param workerCount number of threads to open and convert notes for an {@link IConvertingSyncTarget}
+	 * @param queueSize maximum number of entries buffered between two stages
+	 * @param batchSize maximum number of entries passed to the sync target before {@link IConvertingSyncTarget#flushBatch(Object)} is called
+	 */
+	public SyncPipelineSettings(int workerCount, int queueSize, int batchSize) {
+		if (workerCount<=0)
+			throw new IllegalArgumentException("Worker count must be greater than 0: "+workerCount);
+		if (queueSize<=0)
+			throw new IllegalArgumentException("Queue size must be greater than 0: "+queueSize);
+		if (batchSize<=0)
+			throw new IllegalArgumentException("Batch size must be greater than 0: "+batchSize);
+		
+		m_workerCount = workerCount;
+		m_queueSize = queueSize;
+		m_batchSize = batchSize;
+	}
+	
+	/**
+	 * Returns the number of threads to open and convert notes
+	 * 
+	 * @return count
+	 */
+	public int getWorkerCount() {
+		return m_workerCount;
+	}
+	
+	/**
+	 * Returns the maximum number of entries buffered between two stages
+	 * 
+	 * @return size
+	 */
+	public int getQueueSize() {
+		return m_queueSize;
+	}
+	
+	/**
+	 * Returns the maximum number of entries written to the sync target in one batch
+	 * 
+	 * @return size
+	 */
+	public int getBatchSize() {
+		return m_batchSize;
+	}
+	
+	@Override
+	public String toString() {
+		return "SyncPipelineSettings [workers="+m_workerCount+", queuesize="+m_queueSize+", batchsize="+m_batchSize+"]";
+	}
+}
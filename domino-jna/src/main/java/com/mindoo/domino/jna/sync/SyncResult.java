@@ -25,11 +25,32 @@ public class SyncResult {
 	private int m_notesNotMatchingFormula;
 	private int m_notesDeleted;
 	
+	private boolean m_pipelined;
+	private long m_searchDurationMS;
+	private long m_searchBlockedDurationMS;
+	private long m_loadDurationMS;
+	private long m_loadBlockedDurationMS;
+	private long m_writeDurationMS;
+	private long m_writeIdleDurationMS;
+	
 	public SyncResult(int syncDurationMS,
 			boolean replicaIdChanged, boolean selectionFormulaChanged,
 			NotesTimeDate prevSyncStart, NotesTimeDate nextSyncStart,
 			int addedToTarget, int updatedInTarget, int removedFromTarget,
 			int notesMatchingFormula, int notesNotMatchingFormula, int notesDeleted) {
+		this(syncDurationMS, replicaIdChanged, selectionFormulaChanged, prevSyncStart, nextSyncStart,
+				addedToTarget, updatedInTarget, removedFromTarget, notesMatchingFormula, notesNotMatchingFormula, notesDeleted,
+				false, 0, 0, 0, 0, 0, 0);
+	}
+	
+	public SyncResult(int syncDurationMS,
+			boolean replicaIdChanged, boolean selectionFormulaChanged,
+			NotesTimeDate prevSyncStart, NotesTimeDate nextSyncStart,
+			int addedToTarget, int updatedInTarget, int removedFromTarget,
+			int notesMatchingFormula, int notesNotMatchingFormula, int notesDeleted,
+			boolean pipelined, long searchDurationMS, long searchBlockedDurationMS,
+			long loadDurationMS, long loadBlockedDurationMS,
+			long writeDurationMS, long writeIdleDurationMS) {
 		
 		m_syncDurationMS = syncDurationMS;
 		
@@ -46,6 +67,14 @@ public class SyncResult {
 		m_notesMatchingFormula = notesMatchingFormula;
 		m_notesNotMatchingFormula = notesNotMatchingFormula;
 		m_notesDeleted = notesDeleted;
+		
+		m_pipelined = pipelined;
+		m_searchDurationMS = searchDurationMS;
+		m_searchBlockedDurationMS = searchBlockedDurationMS;
+		m_loadDurationMS = loadDurationMS;
+		m_loadBlockedDurationMS = loadBlockedDurationMS;
+		m_writeDurationMS = writeDurationMS;
+		m_writeIdleDurationMS = writeIdleDurationMS;
 	}
 	
 	public int getSyncDurationInMs() {
@@ -92,13 +121,83 @@ public class SyncResult {
 		return m_notesDeleted;
 	}
 	
+	/**
+	 * Returns whether the search and copy operation ran in pipelined mode
+	 * 
+	 * @return true if pipelined
+	 */
+	public boolean isPipelined() {
+		return m_pipelined;
+	}
+	
+	/**
+	 * Returns the time spent in the database search, excluding the time spent in the
+	 * other stages (inline mode) or waiting for free queue space (pipelined mode)
+	 * 
+	 * @return duration in milliseconds
+	 */
+	public long getSearchDurationInMs() {
+		return m_searchDurationMS;
+	}
+	
+	/**
+	 * Returns the time the database search had to wait because the queue to the next
+	 * stage was full, which means that loading or writing is the bottleneck
+	 * 
+	 * @return duration in milliseconds, always 0 in inline mode
+	 */
+	public long getSearchBlockedDurationInMs() {
+		return m_searchBlockedDurationMS;
+	}
+	
+	/**
+	 * Returns the time spent opening and converting notes. In pipelined mode, this is
+	 * the sum of all worker threads, so it can exceed the total sync duration.
+	 * 
+	 * @return duration in milliseconds
+	 */
+	public long getLoadDurationInMs() {
+		return m_loadDurationMS;
+	}
+	
+	/**
+	 * Returns the time the worker threads had to wait because the queue to the writer
+	 * was full, which means that the sync target is the bottleneck
+	 * 
+	 * @return sum of all worker threads in milliseconds, always 0 in inline mode
+	 */
+	public long getLoadBlockedDurationInMs() {
+		return m_loadBlockedDurationMS;
+	}
+	
+	/**
+	 * Returns the time spent in the sync target methods for the search results
+	 * 
+	 * @return duration in milliseconds
+	 */
+	public long getWriteDurationInMs() {
+		return m_writeDurationMS;
+	}
+	
+	/**
+	 * Returns the time the writer had to wait for data from the previous stages
+	 * 
+	 * @return duration in milliseconds, always 0 in inline mode
+	 */
+	public long getWriteIdleDurationInMs() {
+		return m_writeIdleDurationMS;
+	}
+	
 	public String toString() {
 		return "SyncResult [addedtotarget="+m_addedToTarget+", updatedintarget="+m_updatedInTarget+", removedfromtarget="+m_removedFromTarget+
 				", prevsyncstart="+m_prevSyncStart+", nextsyncstart="+m_nextSyncStart+
 				", durationinms="+m_syncDurationMS+
 				", replicaidchanged="+m_replicaIdChanged+", selectionchanged="+m_selectionFormulaChanged+
 				", matchessincelastsync="+m_notesMatchingFormula+", non-matchessincelastsync="+m_notesNotMatchingFormula+
-				", deletionssincelastsync="+m_notesDeleted+"]";
+				", deletionssincelastsync="+m_notesDeleted+
+				", pipelined="+m_pipelined+", searchms="+m_searchDurationMS+", searchblockedms="+m_searchBlockedDurationMS+
+				", loadms="+m_loadDurationMS+", loadblockedms="+m_loadBlockedDurationMS+
+				", writems="+m_writeDurationMS+", writeidlems="+m_writeIdleDurationMS+"]";
 	};
 	
 }
@@ -20,9 +20,9 @@ import com.mindoo.domino.jna.NotesSearch.ISearchMatch;
 import com.mindoo.domino.jna.NotesSearch.SearchCallback;
 import com.mindoo.domino.jna.NotesTimeDate;
 import com.mindoo.domino.jna.constants.NoteClass;
-import com.mindoo.domino.jna.constants.OpenNote;
 import com.mindoo.domino.jna.constants.Search;
 import com.mindoo.domino.jna.errors.NotesError;
+import com.mindoo.domino.jna.internal.NotesLookupResultBufferDecoder;
 import com.mindoo.domino.jna.sync.ISyncTarget.DataToRead;
 import com.mindoo.domino.jna.sync.ISyncTarget.TargetResult;
 import com.mindoo.domino.jna.utils.NotesDateTimeUtils;
@@ -69,7 +69,10 @@ public class SyncUtil {
 		EnforceWipe,
 		/** Compares the db and the sync target to check if they are in sync; without this setting,
 		 * this is only done on selection formula change */
-		EnforceFullComparison
+		EnforceFullComparison,
+		/** Opens the notes for {@link DataToRead#NoteWithAllItems} and {@link DataToRead#NoteWithSummaryItems}
+		 * one by one instead of loading them in windows with {@link NotesDatabase#getNotes(int[], EnumSet[], int[], EnumSet, NotesDatabase, com.mindoo.domino.jna.NotesDatabase.IGetNotesCallback, com.mindoo.domino.jna.NotesDatabase.INoteOpenCallback, com.mindoo.domino.jna.NotesDatabase.IObjectAllocCallback, com.mindoo.domino.jna.NotesDatabase.IObjectWriteCallback, NotesTimeDate, com.mindoo.domino.jna.NotesDatabase.IFolderAddCallback)} */
+		SingleNoteLoading
 	}
 	
 	/**
@@ -84,6 +87,33 @@ public class SyncUtil {
 	 * @param <CTX> sync context type
 	 */
 	public static <CTX> SyncResult sync(final NotesDatabase dbSource, String selectionFormula, final ISyncTarget<CTX> target, EnumSet<SyncSetting> settings) {
+		return sync(dbSource, selectionFormula, target, settings, null);
+	}
+	
+	/**
+	 * Synchronizes a subset of a Domino database with a {@link ISyncTarget}, optionally
+	 * running the database search, note loading and target writes in separate threads.<br>
+	 * <br>
+	 * In pipelined mode, a search thread only collects the note ids, originator ids and
+	 * summary buffer data of the changes and passes them on via bounded queues. For an
+	 * {@link IConvertingSyncTarget}, a pool of worker threads opens and converts the notes.
+	 * All other target methods are called from the current thread in batches of
+	 * {@link SyncPipelineSettings#getBatchSize()} entries, so the search does not have to wait while
+	 * the target writes data. The search and worker threads open their own database instances
+	 * with the server, filepath and context user of <code>dbSource</code>.
+	 * The order in which the changes are passed to the target is not defined.
+	 * 
+	 * @param dbSource source database
+	 * @param selectionFormula selection formula for content
+	 * @param target sync target
+	 * @param settings optional enum set of settings to control the sync process (e.g. to enforce a complete comparion between the database and the sync target, although we have a last sync end date) or null
+	 * @param pipelineSettings settings for the pipelined mode or null to process the search results inline in the search callback
+	 * @return result statistics
+	 * 
+	 * @param <CTX> sync context type
+	 */
+	public static <CTX> SyncResult sync(final NotesDatabase dbSource, String selectionFormula, final ISyncTarget<CTX> target, EnumSet<SyncSetting> settings,
+			SyncPipelineSettings pipelineSettings) {
 		long t0=System.currentTimeMillis();
 		
 		if (settings==null)
@@ -272,6 +302,7 @@ public class SyncUtil {
 			}
 			
 			final EnumSet<DataToRead> dataToRead = target.getWhichDataToRead();
+			final int noteWindowSize = settings.contains(SyncSetting.SingleNoteLoading) ? 1 : SyncNoteWindow.DEFAULT_WINDOW_SIZE;
 			if (dataToRead.contains(DataToRead.SummaryBufferAllItems) || dataToRead.contains(DataToRead.SummaryBufferSelectedItems)) {
 				searchFlags.add(Search.SUMMARY);
 			}
@@ -291,6 +322,13 @@ public class SyncUtil {
 			final int[] notesNotMatchingFormula = new int[1];
 			final int[] notesDeleted = new int[1];
 			
+			final long[] searchNanos = new long[1];
+			final long[] searchBlockedNanos = new long[1];
+			final long[] loadNanos = new long[1];
+			final long[] loadBlockedNanos = new long[1];
+			final long[] writeNanos = new long[1];
+			final long[] writeIdleNanos = new long[1];
+			
 			if (!purgeInTarget.isEmpty()) {
 				//purge entries from target, when they no longer match the changed formula
 				for (Entry<String,NotesOriginatorIdData> currEntry : purgeInTarget.entrySet()) {
@@ -305,88 +343,120 @@ public class SyncUtil {
 			}
 			
 			//the actual lookup and copy operation
-			if (!skipSearchAndCopy && (searchFilter==null || !searchFilter.isEmpty())) {
-				NotesTimeDate copyOpEndDate = NotesSearch.search(dbSource, searchFilter, selectionFormula, additionalComputedSummaryBufferEntriesSorted, "-", searchFlags, EnumSet.of(NoteClass.DOCUMENT),
-						sinceDateForSearch, new SearchCallback() {
-
+			if (!skipSearchAndCopy && (searchFilter==null || !searchFilter.isEmpty()) && pipelineSettings!=null) {
+				SyncPipeline<CTX> pipeline = new SyncPipeline<CTX>(dbSource, target, ctx, pipelineSettings, noteWindowSize,
+						searchFilter, selectionFormula, additionalComputedSummaryBufferEntriesSorted, searchFlags, sinceDateForSearch);
+				pipeline.execute();
+				
+				addedToTarget[0] += pipeline.getAddedToTarget();
+				updatedInTarget[0] += pipeline.getUpdatedInTarget();
+				removedFromTarget[0] += pipeline.getRemovedFromTarget();
+				notesMatchingFormula[0] = pipeline.getNotesMatchingFormula();
+				notesNotMatchingFormula[0] = pipeline.getNotesNotMatchingFormula();
+				notesDeleted[0] = pipeline.getNotesDeleted();
+				
+				searchNanos[0] = pipeline.getSearchNanos();
+				searchBlockedNanos[0] = pipeline.getSearchBlockedNanos();
+				loadNanos[0] = pipeline.getLoadNanos();
+				loadBlockedNanos[0] = pipeline.getWorkersBlockedNanos();
+				writeNanos[0] = pipeline.getWriteNanos();
+				writeIdleNanos[0] = pipeline.getWriterIdleNanos();
+				
+				if (startDateForNextSync==null) {
+					startDateForNextSync = pipeline.getSearchEndDate();
+				}
+			}
+			else if (!skipSearchAndCopy && (searchFilter==null || !searchFilter.isEmpty())) {
+				//notes of matching documents are loaded in windows to reduce server round trips
+				final SyncNoteWindow noteWindow = new SyncNoteWindow(dbSource, target, noteWindowSize);
+				
+				final SyncNoteWindow.ChangeHandler writeHandler = new SyncNoteWindow.ChangeHandler() {
+					
 					@Override
-					public Action noteFound(NotesDatabase parentDb, ISearchMatch searchMatch, IItemTableData summaryBufferData) {
-
-						NotesOriginatorIdData oidData = searchMatch.getOIDData();
-						int noteId = searchMatch.getNoteId();
-						String unid = searchMatch.getUNID();
+					public void process(SyncWorkItem item, NotesNote note) {
+						if (item.m_skip) {
+							return;
+						}
 						
-						NotesNote note = null;
-						if (dataToRead.contains(DataToRead.NoteWithAllItems)) {
-							try {
-								note = dbSource.openNoteById(noteId);
-							}
-							catch (Exception e) {
-								target.log(Level.WARNING, "Error loading document with note id "+noteId+" and UNID "+unid+". Seems to have been deleted in the meantime and gets ignored.", e);
-								return Action.Continue;
-							}
+						long tWrite = System.nanoTime();
+						TargetResult tResult;
+						if (item.m_type==SyncWorkItem.Type.NoteMatching) {
+							tResult = target.noteChangedMatchingFormula(ctx, item.m_oid, item.m_summaryBufferData, note);
+							notesMatchingFormula[0]++;
 						}
-						else if (dataToRead.contains(DataToRead.NoteWithSummaryItems)) {
-							try {
-								note = dbSource.openNoteById(noteId, EnumSet.of(OpenNote.SUMMARY));
-							}
-							catch (Exception e) {
-								target.log(Level.WARNING, "Error loading document with note id "+noteId+" and UNID "+unid+". Seems to have been deleted in the meantime and gets ignored.", e);
-								return Action.Continue;
-							}
+						else if (item.m_type==SyncWorkItem.Type.NoteNotMatching) {
+							tResult = target.noteChangedNotMatchingFormula(ctx, item.m_oid);
+							notesNotMatchingFormula[0]++;
+						}
+						else {
+							tResult = target.noteDeleted(ctx, item.m_oid);
+							notesDeleted[0]++;
 						}
+						writeNanos[0] += System.nanoTime() - tWrite;
 						
-						TargetResult tResult = target.noteChangedMatchingFormula(ctx, oidData, summaryBufferData, note);
 						if (tResult==TargetResult.Added)
 							addedToTarget[0]++;
 						else if (tResult==TargetResult.Removed)
 							removedFromTarget[0]++;
 						else if (tResult==TargetResult.Updated)
 							updatedInTarget[0]++;
-						
-						notesMatchingFormula[0]++;
-						
-						if (note!=null) {
-							note.recycle();
-						}
+					}
+				};
+				
+				long tSearch = System.nanoTime();
+				NotesTimeDate copyOpEndDate = NotesSearch.search(dbSource, searchFilter, selectionFormula, additionalComputedSummaryBufferEntriesSorted, "-", searchFlags, EnumSet.of(NoteClass.DOCUMENT),
+						sinceDateForSearch, new SearchCallback() {
 
+					@Override
+					public Action noteFound(NotesDatabase parentDb, ISearchMatch searchMatch, IItemTableData summaryBufferData) {
+						if (noteWindow.isLoadingNotes()) {
+							//the summary buffer is only valid during the callback
+							IItemTableData summaryCopy = summaryBufferData==null ? null : NotesLookupResultBufferDecoder.copyItemTable(summaryBufferData);
+							addToWindow(new SyncWorkItem(SyncWorkItem.Type.NoteMatching, searchMatch.getNoteId(), searchMatch.getOIDData(), summaryCopy));
+						}
+						else {
+							writeHandler.process(new SyncWorkItem(SyncWorkItem.Type.NoteMatching, searchMatch.getNoteId(), searchMatch.getOIDData(), summaryBufferData), null);
+						}
 						return Action.Continue;
 					}
 
 					@Override
 					public Action noteFoundNotMatchingFormula(NotesDatabase parentDb, ISearchMatch searchMatch, IItemTableData summaryBufferData) {
-						
-						NotesOriginatorIdData oidData = searchMatch.getOIDData();
-						
-						TargetResult tResult = target.noteChangedNotMatchingFormula(ctx, oidData);
-						if (tResult==TargetResult.Added)
-							addedToTarget[0]++;
-						else if (tResult==TargetResult.Removed)
-							removedFromTarget[0]++;
-						else if (tResult==TargetResult.Updated)
-							updatedInTarget[0]++;
-						
-						notesNotMatchingFormula[0]++;
+						SyncWorkItem item = new SyncWorkItem(SyncWorkItem.Type.NoteNotMatching, searchMatch.getNoteId(), searchMatch.getOIDData(), null);
+						if (noteWindow.isEmpty()) {
+							writeHandler.process(item, null);
+						}
+						else {
+							//keep the order of changes
+							addToWindow(item);
+						}
 						return Action.Continue;
 					}
 
 					@Override
 					public Action deletionStubFound(NotesDatabase parentDb, ISearchMatch searchMatch, IItemTableData summaryBufferData) {
-						
-						NotesOriginatorIdData oidData = searchMatch.getOIDData();
-						
-						TargetResult tResult = target.noteDeleted(ctx, oidData);
-						if (tResult==TargetResult.Added)
-							addedToTarget[0]++;
-						else if (tResult==TargetResult.Removed)
-							removedFromTarget[0]++;
-						else if (tResult==TargetResult.Updated)
-							updatedInTarget[0]++;
-						
-						notesDeleted[0]++;
+						SyncWorkItem item = new SyncWorkItem(SyncWorkItem.Type.NoteDeleted, searchMatch.getNoteId(), searchMatch.getOIDData(), null);
+						if (noteWindow.isEmpty()) {
+							writeHandler.process(item, null);
+						}
+						else {
+							//keep the order of changes
+							addToWindow(item);
+						}
 						return Action.Continue;
 					}
+					
+					private void addToWindow(SyncWorkItem item) {
+						noteWindow.add(item);
+						if (noteWindow.isFull()) {
+							flushNoteWindow(noteWindow, writeHandler, loadNanos, writeNanos);
+						}
+					}
 				});
+				flushNoteWindow(noteWindow, writeHandler, loadNanos, writeNanos);
+				
+				searchNanos[0] = System.nanoTime() - tSearch - loadNanos[0] - writeNanos[0];
+				
 				if (startDateForNextSync==null) {
 					startDateForNextSync = copyOpEndDate;
 				}
@@ -397,7 +467,10 @@ public class SyncUtil {
 			long t1=System.currentTimeMillis();
 			return new SyncResult((int) (t1-t0), isWipeReqired, selectionFormulaHasChanged, sinceDateForSearch, startDateForNextSync,
 					addedToTarget[0], updatedInTarget[0], removedFromTarget[0],
-					notesMatchingFormula[0], notesNotMatchingFormula[0], notesDeleted[0]);
+					notesMatchingFormula[0], notesNotMatchingFormula[0], notesDeleted[0],
+					pipelineSettings!=null, toMillis(searchNanos[0]), toMillis(searchBlockedNanos[0]),
+					toMillis(loadNanos[0]), toMillis(loadBlockedNanos[0]),
+					toMillis(writeNanos[0]), toMillis(writeIdleNanos[0]));
 		}
 		catch (Throwable t) {
 			target.log(Level.SEVERE, "Exception occurred during sync operation", t);
@@ -411,4 +484,23 @@ public class SyncUtil {
 		}
 	}
 	
+	/**
+	 * Loads the notes of the changes in the window and passes the changes to the sync target
+	 * 
+	 * @param noteWindow window
+	 * @param writeHandler handler to write the changes
+	 * @param loadNanos counter for the time spent loading notes
+	 * @param writeNanos counter for the time spent in the sync target, updated by the handler
+	 */
+	private static void flushNoteWindow(SyncNoteWindow noteWindow, SyncNoteWindow.ChangeHandler writeHandler, long[] loadNanos, long[] writeNanos) {
+		long writeNanosBefore = writeNanos[0];
+		long t0 = System.nanoTime();
+		noteWindow.flush(writeHandler);
+		loadNanos[0] += System.nanoTime() - t0 - (writeNanos[0] - writeNanosBefore);
+	}
+	
+	private static long toMillis(long nanos) {
+		return nanos / 1000000;
+	}
+	
 }
@@ -0,0 +1,30 @@
+package com.mindoo.domino.jna.sync;
+
+import com.mindoo.domino.jna.IItemTableData;
+
+/**
+ * Change found by the database search of {@link SyncUtil} that is buffered before
+ * being passed to the {@link ISyncTarget}
+ * 
+ * @author Karsten Lehmann
+ */
+class SyncWorkItem {
+	enum Type {NoteMatching, NoteNotMatching, NoteDeleted}
+
+	final Type m_type;
+	final int m_noteId;
+	final NotesOriginatorIdData m_oid;
+	/** summary buffer data, must not reference the search buffer if the item is used after the search callback */
+	IItemTableData m_summaryBufferData;
+	/** data produced by {@link IConvertingSyncTarget#convertNote(NotesOriginatorIdData, IItemTableData, com.mindoo.domino.jna.NotesNote)} */
+	Object m_convertedData;
+	/** true if the note could not be loaded and the change should be ignored */
+	boolean m_skip;
+
+	SyncWorkItem(Type type, int noteId, NotesOriginatorIdData oid, IItemTableData summaryBufferData) {
+		m_type = type;
+		m_noteId = noteId;
+		m_oid = oid;
+		m_summaryBufferData = summaryBufferData;
+	}
+}
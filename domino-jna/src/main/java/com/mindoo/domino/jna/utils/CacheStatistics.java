@@ -0,0 +1,108 @@
+package com.mindoo.domino.jna.utils;
+
+/**
+ * Snapshot of the usage statistics of an internal cache, e.g. the LMBCS string
+ * conversion caches of {@link NotesStringUtils} or the name caches of {@link NotesNamingUtils}.
+ *
+ * @author Karsten Lehmann
+ */
+public class CacheStatistics {
+	private final String m_name;
+	private final long m_hitCount;
+	private final long m_missCount;
+	private final long m_evictionCount;
+	private final int m_entryCount;
+	private final long m_size;
+	private final long m_maxSize;
+
+	public CacheStatistics(String name, long hitCount, long missCount, long evictionCount,
+			int entryCount, long size, long maxSize) {
+		m_name = name;
+		m_hitCount = hitCount;
+		m_missCount = missCount;
+		m_evictionCount = evictionCount;
+		m_entryCount = entryCount;
+		m_size = size;
+		m_maxSize = maxSize;
+	}
+
+	/**
+	 * Returns the cache name
+	 *
+	 * @return name
+	 */
+	public String getName() {
+		return m_name;
+	}
+
+	/**
+	 * Returns the number of successful lookups
+	 *
+	 * @return count
+	 */
+	public long getHitCount() {
+		return m_hitCount;
+	}
+
+	/**
+	 * Returns the number of lookups that did not find a value
+	 *
+	 * @return count
+	 */
+	public long getMissCount() {
+		return m_missCount;
+	}
+
+	/**
+	 * Returns the ratio of successful lookups
+	 *
+	 * @return hit rate between 0 and 1, 1 if there have not been any lookups yet
+	 */
+	public double getHitRate() {
+		long total = m_hitCount + m_missCount;
+		return total==0 ? 1.0 : (double) m_hitCount / total;
+	}
+
+	/**
+	 * Returns the number of entries removed to stay below the maximum size
+	 *
+	 * @return count
+	 */
+	public long getEvictionCount() {
+		return m_evictionCount;
+	}
+
+	/**
+	 * Returns the number of cache entries
+	 *
+	 * @return count
+	 */
+	public int getEntryCount() {
+		return m_entryCount;
+	}
+
+	/**
+	 * Returns the current cache size
+	 *
+	 * @return size in cache specific units (e.g. bytes)
+	 */
+	public long getSize() {
+		return m_size;
+	}
+
+	/**
+	 * Returns the maximum cache size
+	 *
+	 * @return size in cache specific units (e.g. bytes)
+	 */
+	public long getMaxSize() {
+		return m_maxSize;
+	}
+
+	@Override
+	public String toString() {
+		return "CacheStatistics [name="+m_name+", hits="+m_hitCount+", misses="+m_missCount+
+				", hitRate="+getHitRate()+", evictions="+m_evictionCount+", entries="+m_entryCount+
+				", size="+m_size+", maxSize="+m_maxSize+"]";
+	}
+}
@@ -0,0 +1,54 @@
+package com.mindoo.domino.jna.utils;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * Token to cancel long running operations like a {@link com.mindoo.domino.jna.NotesSearchIterator}
+ * from another thread, e.g. when the client of an HTTP response has disconnected.<br>
+ * <br>
+ * One token can be shared by several operations to cancel them all at once.
+ *
+ * @author Karsten Lehmann
+ */
+public class CancellationToken {
+	private volatile boolean m_cancelled;
+	private volatile String m_reason;
+
+	/**
+	 * Cancels all operations using this token
+	 */
+	public void cancel() {
+		cancel(null);
+	}
+
+	/**
+	 * Cancels all operations using this token
+	 *
+	 * @param reason optional reason, used as message of the {@link CancellationException}
+	 */
+	public void cancel(String reason) {
+		m_reason = reason;
+		m_cancelled = true;
+	}
+
+	/**
+	 * Returns whether {@link #cancel()} has been called
+	 *
+	 * @return true if cancelled
+	 */
+	public boolean isCancelled() {
+		return m_cancelled;
+	}
+
+	/**
+	 * Throws a {@link CancellationException} if {@link #cancel()} has been called
+	 *
+	 * @throws CancellationException if cancelled
+	 */
+	public void throwIfCancelled() {
+		if (m_cancelled) {
+			String reason = m_reason;
+			throw new CancellationException(reason==null ? "Operation has been cancelled" : reason);
+		}
+	}
+}
@@ -3,12 +3,10 @@ package com.mindoo.domino.jna.utils;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.EnumSet;
-import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Map;
 
 import com.mindoo.domino.jna.NotesNamesList;
 import com.mindoo.domino.jna.errors.NotesError;
@@ -23,6 +21,7 @@ import com.mindoo.domino.jna.internal.NotesConstants;
 import com.mindoo.domino.jna.internal.NotesNativeAPI;
 import com.mindoo.domino.jna.internal.NotesNativeAPI32;
 import com.mindoo.domino.jna.internal.NotesNativeAPI64;
+import com.mindoo.domino.jna.internal.SizeLimitedLRUCache;
 import com.mindoo.domino.jna.internal.structs.LinuxNotesNamesListHeader64Struct;
 import com.mindoo.domino.jna.internal.structs.MacNotesNamesListHeader64Struct;
 import com.mindoo.domino.jna.internal.structs.NotesNamesListHeader32Struct;
@@ -45,32 +44,17 @@ import com.sun.jna.ptr.ShortByReference;
 public class NotesNamingUtils {
 	private static final int MAX_STRINGCACHE_SIZE = 500;
 	
-	private static Map<String, String> m_nameAbbrCache = Collections.synchronizedMap(new LinkedHashMap<String, String>(16,0.75f, true) {
-		private static final long serialVersionUID = -5818239831757810895L;
-
-		@Override
-		protected boolean removeEldestEntry (Map.Entry<String,String> eldest) {
-			if (size() > MAX_STRINGCACHE_SIZE) {
-				return true;
-			}
-			else {
-				return false;
-			}
-		}
-	});
-	private static Map<String, String> m_nameCanonicalCache = Collections.synchronizedMap(new LinkedHashMap<String, String>(16,0.75f, true) {
-		private static final long serialVersionUID = -5818239831757810895L;
-
-		@Override
-		protected boolean removeEldestEntry (Map.Entry<String,String> eldest) {
-			if (size() > MAX_STRINGCACHE_SIZE) {
-				return true;
-			}
-			else {
-				return false;
-			}
-		}
-	});
+	private static NameCache m_nameAbbrCache = new NameCache("NameAbbreviated", MAX_STRINGCACHE_SIZE);
+	private static NameCache m_nameCanonicalCache = new NameCache("NameCanonical", MAX_STRINGCACHE_SIZE);
+	
+	/**
+	 * Returns hit/miss/eviction statistics for the internal caches for abbreviated and canonical names
+	 * 
+	 * @return statistics
+	 */
+	public static List<CacheStatistics> getCacheStatistics() {
+		return Arrays.asList(m_nameAbbrCache.getStatistics(), m_nameCanonicalCache.getStatistics());
+	}
 	
 	/**
 	 * This function converts a distinguished name in abbreviated format to canonical format.
@@ -892,4 +876,20 @@ public class NotesNamingUtils {
 		}
 		return privileges;
 	}
+	
+	/**
+	 * Cache for name conversions, limited to a number of entries
+	 */
+	private static class NameCache extends SizeLimitedLRUCache<String, String> {
+
+		public NameCache(String name, int maxEntries) {
+			super(name, maxEntries);
+		}
+
+		@Override
+		protected int computeSize(String key, String value) {
+			return 1;
+		}
+		
+	}
 }
@@ -0,0 +1,140 @@
+package com.mindoo.domino.jna.test;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.mindoo.domino.jna.NoteIdBitmap;
+import com.mindoo.domino.jna.NotesIDTable;
+import com.mindoo.domino.jna.gc.NotesGC;
+import com.mindoo.domino.jna.gc.NotesGC.DominoGCContext;
+
+/**
+ * JMH benchmark comparing the set algebra of {@link NoteIdBitmap} with the native
+ * operations of {@link NotesIDTable}. Each benchmark computes
+ * <code>(table1 intersect table2) minus table3</code>.<br>
+ * <br>
+ * The benchmark needs a Notes environment (environment variables <code>Notes_ExecDirectory</code>
+ * and <code>NotesINI</code> like for the test cases). Run it via the main method
+ * with the test classpath.
+ *
+ * @author Karsten Lehmann
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class NoteIdBitmapBenchmark {
+	/** number of ids in the first two tables, the third table has a tenth of it */
+	@Param({"10000", "500000"})
+	public int numIds;
+
+	private DominoGCContext m_ctx;
+	private NotesIDTable m_table1;
+	private NotesIDTable m_table2;
+	private NotesIDTable m_table3;
+	private NoteIdBitmap m_bitmap1;
+	private NoteIdBitmap m_bitmap2;
+	private NoteIdBitmap m_bitmap3;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		BaseJNATestClass.initNotes();
+		m_ctx = NotesGC.initThread();
+
+		int[] ids1 = new int[numIds];
+		int[] ids2 = new int[numIds];
+		int[] ids3 = new int[numIds / 10];
+		for (int i=0; i<numIds; i++) {
+			ids1[i] = 4 * (i + 1);
+			ids2[i] = 4 * (2 * i + 1);
+		}
+		for (int i=0; i<ids3.length; i++) {
+			ids3[i] = 4 * (3 * i + 1);
+		}
+
+		m_table1 = new NotesIDTable(ids1);
+		m_table2 = new NotesIDTable(ids2);
+		m_table3 = new NotesIDTable(ids3);
+		m_bitmap1 = m_table1.toBitmap();
+		m_bitmap2 = m_table2.toBitmap();
+		m_bitmap3 = m_table3.toBitmap();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		m_ctx.close();
+		BaseJNATestClass.termNotes();
+	}
+
+	/**
+	 * Native set operations on the ID tables
+	 *
+	 * @return result size
+	 */
+	@Benchmark
+	public int nativeIDTable() {
+		NotesIDTable result = m_table1.intersect(m_table2);
+		result.removeTable(m_table3);
+		int count = result.getCount();
+		result.recycle();
+		return count;
+	}
+
+	/**
+	 * Set operations on bitmaps that already exist
+	 *
+	 * @return result size
+	 */
+	@Benchmark
+	public int bitmap() {
+		return m_bitmap1.and(m_bitmap2, false).andNot(m_bitmap3, false).size();
+	}
+
+	@Benchmark
+	public int bitmap_parallel() {
+		return m_bitmap1.and(m_bitmap2, true).andNot(m_bitmap3, true).size();
+	}
+
+	/**
+	 * Set operations on bitmaps including the conversion from and to ID tables
+	 *
+	 * @return result size
+	 */
+	@Benchmark
+	public int bitmapWithConversion() {
+		NoteIdBitmap bitmap1 = m_table1.toBitmap();
+		NoteIdBitmap bitmap2 = m_table2.toBitmap();
+		NoteIdBitmap bitmap3 = m_table3.toBitmap();
+		NotesIDTable result = bitmap1.and(bitmap2, false).andNot(bitmap3, false).toIDTable();
+		int count = result.getCount();
+		result.recycle();
+		return count;
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		Options opt = new OptionsBuilder()
+				.include(NoteIdBitmapBenchmark.class.getSimpleName())
+				.build();
+
+		new Runner(opt).run();
+	}
+}
@@ -0,0 +1,149 @@
+package com.mindoo.domino.jna.test;
+
+import java.util.LinkedHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.mindoo.domino.jna.NotesDatabase;
+import com.mindoo.domino.jna.NotesNote;
+import com.mindoo.domino.jna.internal.HandleRegistry;
+
+/**
+ * JMH benchmark for the per-call overhead of the handle tracking in
+ * {@link com.mindoo.domino.jna.gc.NotesGC}. Compares the primitive {@link HandleRegistry}
+ * with the previous approach of a {@link LinkedHashMap} with one key object per handle.<br>
+ * <br>
+ * The benchmark does not need a Notes environment. Run it via the main method
+ * with the test classpath.
+ *
+ * @author Karsten Lehmann
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class NotesGCHandleRegistryBenchmark {
+	/** number of handles open at the same time, e.g. a database with some notes */
+	@Param({"10", "1000"})
+	public int openHandles;
+
+	private long[] m_handles;
+	private HandleRegistry<Object> m_registry;
+	private LinkedHashMap<HandleKey, Object> m_map;
+	private int m_pos;
+	private Object m_value = new Object();
+
+	@Setup
+	public void setup() {
+		m_handles = new long[openHandles];
+		m_registry = new HandleRegistry<Object>();
+		m_map = new LinkedHashMap<HandleKey, Object>();
+
+		for (int i=0; i<openHandles; i++) {
+			m_handles[i] = 0x10000L + i * 8;
+			m_registry.put(NotesNote.class, m_handles[i], m_value);
+			m_map.put(new HandleKey(NotesNote.class, m_handles[i]), m_value);
+		}
+	}
+
+	private long nextHandle() {
+		if (++m_pos >= m_handles.length) {
+			m_pos = 0;
+		}
+		return m_handles[m_pos];
+	}
+
+	/**
+	 * Handle validity check that runs before most native calls
+	 *
+	 * @param bh blackhole
+	 */
+	@Benchmark
+	public void checkHandle_registry(Blackhole bh) {
+		bh.consume(m_registry.get(NotesNote.class, nextHandle()));
+	}
+
+	@Benchmark
+	public void checkHandle_linkedHashMap(Blackhole bh) {
+		bh.consume(m_map.get(new HandleKey(NotesNote.class, nextHandle())));
+	}
+
+	/**
+	 * Registers and unregisters a short-lived object, e.g. a note that is opened and recycled
+	 *
+	 * @param bh blackhole
+	 */
+	@Benchmark
+	public void createAndRecycle_registry(Blackhole bh) {
+		long handle = 0x7fff0000L + m_pos;
+		bh.consume(m_registry.put(NotesDatabase.class, handle, m_value));
+		bh.consume(m_registry.remove(NotesDatabase.class, handle));
+		nextHandle();
+	}
+
+	@Benchmark
+	public void createAndRecycle_linkedHashMap(Blackhole bh) {
+		long handle = 0x7fff0000L + m_pos;
+		bh.consume(m_map.put(new HandleKey(NotesDatabase.class, handle), m_value));
+		bh.consume(m_map.remove(new HandleKey(NotesDatabase.class, handle)));
+		nextHandle();
+	}
+
+	/**
+	 * Key class as used before the introduction of {@link HandleRegistry}
+	 */
+	private static class HandleKey {
+		private Class<?> m_clazz;
+		private long m_handle;
+
+		public HandleKey(Class<?> clazz, long handle) {
+			m_clazz = clazz;
+			m_handle = handle;
+		}
+
+		@Override
+		public int hashCode() {
+			final int prime = 31;
+			int result = 1;
+			result = prime * result + m_clazz.hashCode();
+			result = prime * result + (int) (m_handle ^ (m_handle >>> 32));
+			return result;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (!(obj instanceof HandleKey))
+				return false;
+			HandleKey other = (HandleKey) obj;
+			return m_clazz.equals(other.m_clazz) && m_handle == other.m_handle;
+		}
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		Options opt = new OptionsBuilder()
+				.include(NotesGCHandleRegistryBenchmark.class.getSimpleName())
+				.build();
+
+		new Runner(opt).run();
+	}
+}
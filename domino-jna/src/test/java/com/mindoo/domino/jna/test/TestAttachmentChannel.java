@@ -0,0 +1,119 @@
+package com.mindoo.domino.jna.test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Date;
+import java.util.concurrent.Callable;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.mindoo.domino.jna.NotesAttachment;
+import com.mindoo.domino.jna.NotesAttachmentChannel;
+import com.mindoo.domino.jna.NotesDatabase;
+import com.mindoo.domino.jna.NotesNote;
+import com.mindoo.domino.jna.NotesNote.IAttachmentProducer;
+import com.mindoo.domino.jna.gc.NotesGC;
+import com.mindoo.domino.jna.gc.NotesGC.DominoGCContext;
+
+import lotus.domino.Session;
+
+/**
+ * Tests cases for streaming attachment data via {@link NotesAttachmentChannel}
+ *
+ * @author Karsten Lehmann
+ */
+public class TestAttachmentChannel extends BaseJNATestClass {
+	private static final int FILE_SIZE = 300000;
+
+	private static byte expectedByte(long position) {
+		return (byte) (position % 251);
+	}
+
+	private static NotesAttachment createAttachment(NotesDatabase db) throws Exception {
+		NotesNote note = db.createNote();
+		note.replaceItemValue("Form", "Person");
+
+		return note.attachFile(new IAttachmentProducer() {
+
+			@Override
+			public void produceAttachment(OutputStream out) throws IOException {
+				for (int i=0; i<FILE_SIZE; i++) {
+					out.write(expectedByte(i));
+				}
+			}
+
+			@Override
+			public int getSizeEstimation() {
+				return FILE_SIZE;
+			}
+		}, "testfile.bin", new Date(), new Date());
+	}
+
+	@Test
+	public void testAttachmentChannel_readWithReadAhead() {
+		runWithSession(new IDominoCallable<Object>() {
+
+			@Override
+			public Object call(Session session) throws Exception {
+				NotesAttachment att = createAttachment(getFakeNamesDb());
+
+				//read sequentially with a chunk size that does not match the buffer size
+				try (NotesAttachmentChannel channel = att.openChannel(10000, true)) {
+					Assert.assertEquals("Size is correct", FILE_SIZE, channel.size());
+
+					ByteBuffer buf = ByteBuffer.allocateDirect(4096);
+					long pos = 0;
+					int len;
+					while ((len = channel.read(buf)) != -1) {
+						buf.flip();
+						for (int i=0; i<len; i++) {
+							Assert.assertEquals("Byte at position "+pos+" is correct", expectedByte(pos), buf.get());
+							pos++;
+						}
+						buf.clear();
+					}
+					Assert.assertEquals("All data read", FILE_SIZE, pos);
+
+					//seek back into an earlier chunk
+					channel.position(12345);
+					buf.clear();
+					buf.limit(10);
+					Assert.assertEquals("Data read after seek", 10, channel.read(buf));
+					Assert.assertEquals("Data after seek is correct", expectedByte(12345), buf.get(0));
+					Assert.assertEquals("Position updated", 12355, channel.position());
+				}
+
+				try (InputStream in = att.getInputStream(65535, false)) {
+					Assert.assertEquals("Skipped", 1000, in.skip(1000));
+					byte[] data = new byte[100];
+					Assert.assertEquals("Stream read", 100, in.read(data));
+					Assert.assertEquals("Stream data correct", expectedByte(1000), data[0]);
+				}
+				return null;
+			}
+		});
+	}
+
+	@Test
+	public void testAttachmentChannel_closedWithGCContext() throws Exception {
+		final DominoGCContext ctx = NotesGC.createDetachedContext();
+		NotesAttachmentChannel channel = NotesGC.runWithContext(ctx, new Callable<NotesAttachmentChannel>() {
+
+			@Override
+			public NotesAttachmentChannel call() throws Exception {
+				NotesDatabase db = new NotesDatabase("", DBPATH_FAKENAMES_NSF, "");
+				NotesAttachmentChannel channel = createAttachment(db).openChannel(10000, true);
+				//starts reading the next chunk in the background
+				Assert.assertEquals("Data read", 100, channel.read(ByteBuffer.allocate(100)));
+				return channel;
+			}
+		});
+
+		//the channel gets closed before the database is recycled
+		ctx.close();
+		Assert.assertFalse("Channel closed with the context", channel.isOpen());
+	}
+}
@@ -3,10 +3,14 @@ package com.mindoo.domino.jna.test;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.EnumSet;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.Assert;
 import org.junit.Test;
@@ -15,8 +19,15 @@ import com.mindoo.domino.jna.IItemTableData;
 import com.mindoo.domino.jna.NotesCollection;
 import com.mindoo.domino.jna.NotesDatabase;
 import com.mindoo.domino.jna.NotesIDTable;
+import com.mindoo.domino.jna.NotesItem;
+import com.mindoo.domino.jna.NotesMultiDatabaseSearch;
+import com.mindoo.domino.jna.NotesMultiDatabaseSearch.DatabaseSearchResult;
+import com.mindoo.domino.jna.NotesMultiDatabaseSearch.DatabaseSearchStatistics;
 import com.mindoo.domino.jna.NotesSearch;
 import com.mindoo.domino.jna.NotesSearch.ISearchMatch;
+import com.mindoo.domino.jna.NotesSearch.ISummaryBufferAccess;
+import com.mindoo.domino.jna.NotesSearchIterator;
+import com.mindoo.domino.jna.NotesSearchIterator.SearchResult;
 import com.mindoo.domino.jna.NotesTimeDate;
 import com.mindoo.domino.jna.NotesViewEntryData;
 import com.mindoo.domino.jna.constants.FileType;
@@ -29,6 +40,7 @@ import com.mindoo.domino.jna.constants.UpdateCollectionFilters;
 import com.mindoo.domino.jna.directory.DirectoryScanner;
 import com.mindoo.domino.jna.directory.DirectoryScanner.DatabaseData;
 import com.mindoo.domino.jna.directory.DirectoryScanner.SearchResultData;
+import com.mindoo.domino.jna.utils.CancellationToken;
 
 import lotus.domino.Database;
 import lotus.domino.Document;
@@ -229,6 +241,253 @@ public class TestDbSearch extends BaseJNATestClass {
 		});
 	}
 	
+	@Test
+	public void testDbSearch_searchIterator() {
+
+		runWithSession(new IDominoCallable<Object>() {
+
+			@Override
+			public Object call(Session session) throws Exception {
+				NotesDatabase dbData = getFakeNamesDb();
+
+				String formula = "SELECT Form=\"Person\" & @Begins(Lastname;\"A\")";
+				EnumSet<Search> searchFlags = EnumSet.of(Search.SESSION_USERNAME, Search.SUMMARY);
+
+				final Set<Integer> noteIdsFromCallback = new HashSet<Integer>();
+				NotesSearch.search(dbData, null, formula, "-", searchFlags, EnumSet.of(NoteClass.DOCUMENT), null, new NotesSearch.SearchCallback() {
+
+					@Override
+					public Action noteFound(NotesDatabase parentDb, ISearchMatch searchMatch, IItemTableData summaryBufferData) {
+						noteIdsFromCallback.add(searchMatch.getNoteId());
+						return Action.Continue;
+					}
+				});
+
+				//small queue to make the producer wait for us
+				NotesSearchIterator searchIt = new NotesSearchIterator(dbData, null, formula, null, "-", searchFlags,
+						EnumSet.of(NoteClass.DOCUMENT), null, 10);
+				searchIt.setTimeout(5, TimeUnit.MINUTES);
+
+				Set<Integer> noteIdsFromIterator = new HashSet<Integer>();
+				try {
+					while (searchIt.hasNext()) {
+						SearchResult currResult = searchIt.next();
+						String lastName = currResult.getSummaryBufferData().getAsString("Lastname", "");
+						Assert.assertTrue("Lastname "+lastName+" starts with 'A'", lastName.startsWith("A"));
+						noteIdsFromIterator.add(currResult.getSearchMatch().getNoteId());
+					}
+				}
+				finally {
+					searchIt.close();
+				}
+
+				Assert.assertEquals("Iterator returns the same notes as the search callback", noteIdsFromCallback, noteIdsFromIterator);
+				Assert.assertNotNull("Search end date is set", searchIt.getSearchEndDate());
+
+				//same results when searching on the caller's thread
+				searchIt = new NotesSearchIterator(dbData, null, formula, null, "-", searchFlags,
+						EnumSet.of(NoteClass.DOCUMENT), null, 10);
+				searchIt.setSynchronous(true);
+				Set<Integer> noteIdsFromSyncIterator = new HashSet<Integer>();
+				try {
+					while (searchIt.hasNext()) {
+						noteIdsFromSyncIterator.add(searchIt.next().getSearchMatch().getNoteId());
+					}
+				}
+				finally {
+					searchIt.close();
+				}
+				Assert.assertEquals("Synchronous iterator returns the same notes as the search callback", noteIdsFromCallback, noteIdsFromSyncIterator);
+				Assert.assertNotNull("Search end date is set", searchIt.getSearchEndDate());
+
+				//cancelled search stops with an exception
+				CancellationToken token = new CancellationToken();
+				searchIt = new NotesSearchIterator(dbData, null, formula, null, "-", searchFlags,
+						EnumSet.of(NoteClass.DOCUMENT), null, 10);
+				searchIt.setCancellationToken(token);
+				try {
+					Assert.assertTrue("Search returns results", searchIt.hasNext());
+					searchIt.next();
+					token.cancel();
+					searchIt.hasNext();
+					Assert.fail("Cancelled search should throw an exception");
+				}
+				catch (CancellationException e) {
+					//expected
+				}
+				finally {
+					searchIt.close();
+				}
+				return null;
+			}
+		});
+	}
+
+	@Test
+	public void testDbSearch_summaryBufferAccess() {
+
+		runWithSession(new IDominoCallable<Object>() {
+
+			@Override
+			public Object call(Session session) throws Exception {
+				NotesDatabase dbData = getFakeNamesDb();
+
+				String formula = "SELECT Form=\"Person\" & @Begins(Lastname;\"A\")";
+				final List<ISummaryBufferAccess> copies = new ArrayList<ISummaryBufferAccess>();
+				final List<Map<String,Object>> decodedValues = new ArrayList<Map<String,Object>>();
+
+				NotesSearch.search(dbData, null, formula, "-", EnumSet.of(Search.SESSION_USERNAME, Search.SUMMARY),
+						EnumSet.of(NoteClass.DOCUMENT), null, new NotesSearch.SearchCallback() {
+
+					@Override
+					public Action noteFound(NotesDatabase parentDb, ISearchMatch searchMatch, IItemTableData summaryBufferData) {
+						Assert.assertTrue("Summary buffer is a lazy view", summaryBufferData instanceof ISummaryBufferAccess);
+						ISummaryBufferAccess summary = (ISummaryBufferAccess) summaryBufferData;
+
+						//lookup of a single item before all names are decoded
+						String lastName = summary.getAsString("LASTNAME", "");
+						Assert.assertTrue("Lastname "+lastName+" starts with 'A'", lastName.startsWith("A"));
+						Assert.assertEquals("Item type is text", NotesItem.TYPE_TEXT, summary.getItemType("lastname"));
+						Assert.assertFalse("Unknown item does not exist", summary.has("_doesnotexist_"));
+
+						copies.add(summary.copy());
+						decodedValues.add(summary.decodeWholeBuffer().asMap());
+						return Action.Continue;
+					}
+				});
+
+				Assert.assertFalse("Search returned results", copies.isEmpty());
+
+				//copies are still readable after the search
+				for (int i=0; i<copies.size(); i++) {
+					Assert.assertEquals("Copy contains the same values", decodedValues.get(i), copies.get(i).asMap());
+				}
+				return null;
+			}
+		});
+	}
+
+	@Test
+	public void testDbSearch_multiDatabaseSearch() {
+
+		runWithSession(new IDominoCallable<Object>() {
+
+			@Override
+			public Object call(Session session) throws Exception {
+				NotesDatabase dbData = getFakeNamesDb();
+
+				String formula = "SELECT Form=\"Person\" & @Begins(Lastname;\"A\")";
+				EnumSet<Search> searchFlags = EnumSet.of(Search.SESSION_USERNAME, Search.SUMMARY);
+
+				final int[] expectedCount = new int[1];
+				NotesSearch.search(dbData, null, formula, "-", searchFlags, EnumSet.of(NoteClass.DOCUMENT), null, new NotesSearch.SearchCallback() {
+
+					@Override
+					public Action noteFound(NotesDatabase parentDb, ISearchMatch searchMatch, IItemTableData summaryBufferData) {
+						expectedCount[0]++;
+						return Action.Continue;
+					}
+				});
+
+				//search the same database three times, at most two searches at a time
+				NotesMultiDatabaseSearch multiSearch = new NotesMultiDatabaseSearch(formula, null, "-", searchFlags,
+						EnumSet.of(NoteClass.DOCUMENT), null);
+				for (int i=0; i<3; i++) {
+					multiSearch.addDatabase(dbData.getServer(), dbData.getRelativeFilePath());
+				}
+				multiSearch.setThreadCount(3).setMaxConcurrentSearchesPerServer(2).setQueueSize(10);
+
+				int count = 0;
+				try {
+					while (multiSearch.hasNext()) {
+						DatabaseSearchResult currResult = multiSearch.next();
+						Assert.assertTrue("Result is tagged with the database", dbData.getRelativeFilePath().equalsIgnoreCase(currResult.getFilePath()));
+						count++;
+					}
+				}
+				finally {
+					multiSearch.close();
+				}
+				Assert.assertEquals("All databases have been searched", 3*expectedCount[0], count);
+
+				List<DatabaseSearchStatistics> stats = multiSearch.getDatabaseStatistics();
+				Assert.assertEquals("Statistics for each database", 3, stats.size());
+				for (DatabaseSearchStatistics currStats : stats) {
+					Assert.assertNull("Search did not fail", currStats.getError());
+					Assert.assertEquals("Result count per database", expectedCount[0], currStats.getResultCount());
+				}
+
+				//a database that cannot be opened is reported in the statistics, the other searches continue
+				String badFilePath = "doesnotexist-"+System.currentTimeMillis()+".nsf";
+				multiSearch = new NotesMultiDatabaseSearch(formula, null, "-", searchFlags,
+						EnumSet.of(NoteClass.DOCUMENT), null);
+				multiSearch.addDatabase(dbData.getServer(), badFilePath);
+				multiSearch.addDatabase(dbData.getServer(), dbData.getRelativeFilePath());
+				multiSearch.addDatabase(dbData.getServer(), dbData.getRelativeFilePath());
+				multiSearch.setThreadCount(2);
+
+				count = 0;
+				try {
+					while (multiSearch.hasNext()) {
+						DatabaseSearchResult currResult = multiSearch.next();
+						Assert.assertTrue("Result comes from the existing database", dbData.getRelativeFilePath().equalsIgnoreCase(currResult.getFilePath()));
+						count++;
+					}
+				}
+				finally {
+					multiSearch.close();
+				}
+				Assert.assertEquals("Existing databases have been searched", 2*expectedCount[0], count);
+
+				stats = multiSearch.getDatabaseStatistics();
+				Assert.assertEquals("Statistics for each database", 3, stats.size());
+				int failedSearches = 0;
+				for (DatabaseSearchStatistics currStats : stats) {
+					if (badFilePath.equals(currStats.getFilePath())) {
+						Assert.assertNotNull("Search of missing database failed", currStats.getError());
+						Assert.assertEquals("No results from missing database", 0, currStats.getResultCount());
+						Assert.assertNull("No search end date for missing database", currStats.getSearchEndDate());
+						failedSearches++;
+					}
+					else {
+						Assert.assertNull("Search did not fail", currStats.getError());
+						Assert.assertEquals("Result count per database", expectedCount[0], currStats.getResultCount());
+						Assert.assertNotNull("Search end date", currStats.getSearchEndDate());
+					}
+				}
+				Assert.assertEquals("One failed search", 1, failedSearches);
+
+				//with stopOnError, the error of the missing database stops the searches and gets thrown;
+				//one thread searches the databases in the order in which they were added
+				multiSearch = new NotesMultiDatabaseSearch(formula, null, "-", searchFlags,
+						EnumSet.of(NoteClass.DOCUMENT), null);
+				multiSearch.addDatabase(dbData.getServer(), badFilePath);
+				multiSearch.addDatabase(dbData.getServer(), dbData.getRelativeFilePath());
+				multiSearch.setThreadCount(1).setStopOnError(true);
+
+				Throwable thrownError = null;
+				try {
+					while (multiSearch.hasNext()) {
+						multiSearch.next();
+					}
+				}
+				catch (RuntimeException e) {
+					thrownError = e;
+				}
+				finally {
+					multiSearch.close();
+				}
+				Assert.assertNotNull("Error has been thrown", thrownError);
+
+				stats = multiSearch.getDatabaseStatistics();
+				Assert.assertEquals("Searches stopped after the error", 1, stats.size());
+				Assert.assertEquals("Statistics of missing database", badFilePath, stats.get(0).getFilePath());
+				Assert.assertSame("Thrown error is the error of the missing database", stats.get(0).getError(), thrownError);
+				return null;
+			}
+		});
+	}
+
 	@Test
 	public void testDbSearch_directoryScanWithFormula() {
 
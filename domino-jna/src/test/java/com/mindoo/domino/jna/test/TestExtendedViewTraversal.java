@@ -13,13 +13,18 @@ import org.junit.Test;
 
 import com.mindoo.domino.jna.CollectionDataCache;
 import com.mindoo.domino.jna.NotesCollection;
+import com.mindoo.domino.jna.NotesCollection.ViewChangeCallback;
+import com.mindoo.domino.jna.NotesCollection.ViewLookupCallback.Action;
 import com.mindoo.domino.jna.NotesCollectionPosition;
 import com.mindoo.domino.jna.NotesDatabase;
 import com.mindoo.domino.jna.NotesIDTable;
 import com.mindoo.domino.jna.NotesTimeDate;
+import com.mindoo.domino.jna.NotesViewChange;
 import com.mindoo.domino.jna.NotesIDTable.IEnumerateCallback;
 import com.mindoo.domino.jna.NotesViewEntryData;
 import com.mindoo.domino.jna.NotesViewLookupResultData;
+import com.mindoo.domino.jna.ShardedCollectionDataCache;
+import com.mindoo.domino.jna.ViewChangeToken;
 import com.mindoo.domino.jna.constants.Navigate;
 import com.mindoo.domino.jna.constants.OpenCollection;
 import com.mindoo.domino.jna.constants.ReadMask;
@@ -246,6 +251,64 @@ public class TestExtendedViewTraversal extends BaseJNATestClass {
 		});
 	}
 	
+	/**
+	 * Tests the differential view read feature of NIF with a {@link ShardedCollectionDataCache}
+	 * that stores the cached view data outside of the Java heap
+	 */
+	@Test
+	public void testExtViewTraversal_incrementalReadShardedCache() {
+		runWithSession(new IDominoCallable<Object>() {
+
+			@Override
+			public Object call(Session session) throws Exception {
+				NotesDatabase dbData = getFakeNamesDb();
+				
+				NotesCollection colFromDbData = dbData.openCollectionByName("PeopleFlatMultiColumnSortSingleValue",
+						EnumSet.of(OpenCollection.NOUPDATE));
+				colFromDbData.update();
+
+				final int numEntriesToRead = 50;
+				
+				//create our (shared) cache instance with 1 MB native memory
+				final ShardedCollectionDataCache collectionDataCache = new ShardedCollectionDataCache(1024*1024);
+				
+				NotesCollection.EntriesAsListCallback readCallback = new NotesCollection.EntriesAsListCallback(numEntriesToRead) {
+					@Override
+					public CollectionDataCache createDataCache() {
+						return collectionDataCache;
+					}
+				};
+				
+				List<NotesViewEntryData> entriesRun1 = colFromDbData.getAllEntries("0", 1, EnumSet.of(Navigate.NEXT), numEntriesToRead,
+						EnumSet.of(ReadMask.SUMMARYVALUES, ReadMask.NOTEID), readCallback);
+				
+				Assert.assertEquals("No cache hits on first run", 0, collectionDataCache.getHitCount());
+				Assert.assertEquals("Cache has been filled with collection data", entriesRun1.size(), collectionDataCache.size());
+				Assert.assertTrue("Cache data is stored in native memory", collectionDataCache.getSizeInBytes() > 0);
+				
+				List<NotesViewEntryData> entriesRun2 = colFromDbData.getAllEntries("0", 1, EnumSet.of(Navigate.NEXT), numEntriesToRead,
+						EnumSet.of(ReadMask.SUMMARYVALUES, ReadMask.NOTEID), readCallback);
+				
+				Assert.assertTrue("Cache has been used on second lookup", collectionDataCache.getHitCount() > 0);
+				Assert.assertEquals("Same number of entries", entriesRun1.size(), entriesRun2.size());
+				
+				for (int i=0; i<entriesRun1.size(); i++) {
+					NotesViewEntryData currEntry1 = entriesRun1.get(i);
+					NotesViewEntryData currEntry2 = entriesRun2.get(i);
+					
+					Assert.assertEquals("Note ids match", currEntry1.getNoteId(), currEntry2.getNoteId());
+					Assert.assertEquals("Column values match", currEntry1.getColumnDataAsMap(), currEntry2.getColumnDataAsMap());
+				}
+				
+				collectionDataCache.flush();
+				Assert.assertEquals("Cache is empty after flush", 0, collectionDataCache.size());
+				Assert.assertEquals("Native memory has been released", 0, collectionDataCache.getSizeInBytes());
+				
+				return null;
+			}
+		});
+	}
+	
 	@Test
 	public void testViewTraversal_selectViaFormula() {
 		runWithSession(new IDominoCallable<Object>() {
@@ -328,4 +391,47 @@ public class TestExtendedViewTraversal extends BaseJNATestClass {
 			}
 		});
 	}
+
+	@Test
+	public void testExtViewTraversal_readChangesSince() {
+		runWithSession(new IDominoCallable<Object>() {
+
+			@Override
+			public Object call(Session session) throws Exception {
+				NotesDatabase dbData = getFakeNamesDb();
+				
+				NotesCollection colFromDbData = dbData.openCollectionByName("PeopleFlatMultiColumnSortSingleValue",
+						EnumSet.of(OpenCollection.NOUPDATE));
+				colFromDbData.update();
+				
+				final List<NotesViewChange> changes = new ArrayList<NotesViewChange>();
+				ViewChangeCallback callback = new ViewChangeCallback() {
+					
+					@Override
+					public Action changeFound(NotesViewChange change) {
+						changes.add(change);
+						return Action.Continue;
+					}
+				};
+				
+				//initial read reports all documents as added
+				ViewChangeToken token = colFromDbData.readChangesSince(null, EnumSet.of(ReadMask.SUMMARYVALUES), callback);
+				Assert.assertNotNull("Token returned", token);
+				Assert.assertEquals("All documents reported", token.getDocumentCount(), changes.size());
+				for (NotesViewChange currChange : changes) {
+					Assert.assertEquals("Documents are added", NotesViewChange.Type.ADDED, currChange.getType());
+					Assert.assertTrue("Document is part of the token", token.contains(currChange.getNoteId()));
+				}
+				
+				//no changes without index modification
+				changes.clear();
+				colFromDbData.update();
+				ViewChangeToken token2 = colFromDbData.readChangesSince(token, EnumSet.of(ReadMask.SUMMARYVALUES), callback);
+				Assert.assertNotNull("Token returned", token2);
+				Assert.assertEquals("No changes reported", 0, changes.size());
+				Assert.assertEquals("Same number of documents", token.getDocumentCount(), token2.getDocumentCount());
+				return null;
+			}
+		});
+	}
 }
\ No newline at end of file
@@ -1,15 +1,23 @@
 package com.mindoo.domino.jna.test;
 
+import java.util.Arrays;
 import java.util.EnumSet;
+import java.util.LinkedHashSet;
+import java.util.List;
 
 import org.junit.Assert;
 import org.junit.Test;
 
+import com.mindoo.domino.jna.NotesCollection;
 import com.mindoo.domino.jna.NotesDatabase;
 import com.mindoo.domino.jna.NotesNote;
+import com.mindoo.domino.jna.constants.Navigate;
 import com.mindoo.domino.jna.constants.OpenNote;
+import com.mindoo.domino.jna.formula.CompiledFormulaCache;
+import com.mindoo.domino.jna.formula.CompiledFormulaCacheStatistics;
 import com.mindoo.domino.jna.formula.FormulaExecution;
 import com.mindoo.domino.jna.formula.FormulaExecution.FormulaExecutionResult;
+import com.mindoo.domino.jna.formula.FormulaResultColumns;
 import com.mindoo.domino.jna.gc.NotesGC;
 
 import lotus.domino.Database;
@@ -90,4 +98,96 @@ public class TestFormulaExecution extends BaseJNATestClass {
 			}
 		});
 	}
+
+	@Test
+	public void testFormulaExecution_compiledFormulaCache() {
+
+		runWithSession(new IDominoCallable<Object>() {
+
+			@Override
+			public Object call(Session session) throws Exception {
+				CompiledFormulaCache cache = new CompiledFormulaCache(null, 64*1024, 2, 3);
+				String formula = "@UpperCase(\"abc\")";
+
+				for (int i=0; i<10; i++) {
+					List<Object> result = cache.evaluate(formula, null);
+					Assert.assertEquals("Formula returned uppercase value", Arrays.asList((Object) "ABC"), result);
+				}
+
+				CompiledFormulaCacheStatistics stats = cache.getStatistics();
+				Assert.assertEquals("Formula compiled once", 1, stats.getCompileCount());
+				Assert.assertEquals("Formula found in cache", 9, stats.getHitCount());
+				Assert.assertEquals("Compute context reused", 1, stats.getComputeStartCount());
+
+				//two parallel checkouts need two compute contexts
+				FormulaExecution exec1 = cache.checkout(formula);
+				FormulaExecution exec2 = cache.checkout(formula);
+				Assert.assertNotSame("Checked out executions are exclusive", exec1, exec2);
+				cache.checkin(exec1);
+				cache.checkin(exec2);
+				Assert.assertEquals("Second compute context started", 2, cache.getStatistics().getComputeStartCount());
+				Assert.assertEquals("Both executions idle", 2, cache.getStatistics().getIdleExecutionCount());
+
+				//the idle executions of all formulas are limited as well
+				String formula2 = "@LowerCase(\"ABC\")";
+				FormulaExecution exec3 = cache.checkout(formula2);
+				FormulaExecution exec4 = cache.checkout(formula2);
+				cache.checkin(exec3);
+				cache.checkin(exec4);
+				Assert.assertFalse("Idle execution kept", exec3.isRecycled());
+				Assert.assertTrue("Execution beyond the total limit recycled", exec4.isRecycled());
+				Assert.assertEquals("Idle executions of all formulas", 3, cache.getStatistics().getIdleExecutionCount());
+
+				//clearing the cache recycles the idle executions
+				cache.clear();
+				Assert.assertTrue("Idle execution recycled", exec1.isRecycled());
+				Assert.assertTrue("Idle execution recycled", exec2.isRecycled());
+				Assert.assertTrue("Idle execution recycled", exec3.isRecycled());
+				Assert.assertEquals("No idle executions after clear", 0, cache.getStatistics().getIdleExecutionCount());
+				return null;
+			}
+		});
+	}
+
+	@Test
+	public void testFormulaExecution_evaluateAll() {
+
+		runWithSession(new IDominoCallable<Object>() {
+
+			@Override
+			public Object call(Session session) throws Exception {
+				NotesDatabase db = getFakeNamesDb();
+				NotesCollection peopleView = db.openCollectionByName("People");
+				LinkedHashSet<Integer> ids = peopleView.getAllIds(Navigate.NEXT_NONCATEGORY);
+				int[] noteIds = new int[ids.size()];
+				int idx = 0;
+				for (Integer currId : ids) {
+					noteIds[idx++] = currId.intValue();
+				}
+				
+				String formula = "@Text(@NoteID)";
+				
+				long t0=System.currentTimeMillis();
+				FormulaExecution formulaExec = new FormulaExecution(formula);
+				FormulaResultColumns singleThreadResult = formulaExec.evaluateAllToColumns(db, noteIds);
+				formulaExec.recycle();
+				long t1=System.currentTimeMillis();
+				System.out.println("Evaluated formula on "+noteIds.length+" notes in "+(t1-t0)+"ms");
+				
+				FormulaResultColumns parallelResult = FormulaExecution.evaluateAllToColumns(formula, db, noteIds, 4);
+				long t2=System.currentTimeMillis();
+				System.out.println("Evaluated formula on "+noteIds.length+" notes with 4 threads in "+(t2-t1)+"ms");
+				
+				Assert.assertEquals("All notes loaded", 0, singleThreadResult.getNotLoadedCount());
+				Assert.assertArrayEquals("Parallel evaluation returns the same values", singleThreadResult.getStrings(),
+						parallelResult.getStrings());
+				
+				for (int i=0; i<noteIds.length; i++) {
+					Assert.assertEquals("Result matches note id", Integer.toHexString(noteIds[i]).toUpperCase(),
+							singleThreadResult.getStrings()[i].replaceFirst("^NT0*", "").toUpperCase());
+				}
+				return null;
+			}
+		});
+	}
 }
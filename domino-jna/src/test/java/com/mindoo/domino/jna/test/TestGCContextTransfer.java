@@ -0,0 +1,101 @@
+package com.mindoo.domino.jna.test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.mindoo.domino.jna.NotesDatabase;
+import com.mindoo.domino.jna.gc.NotesGC;
+import com.mindoo.domino.jna.gc.NotesGC.DominoGCContext;
+import com.mindoo.domino.jna.gc.NotesGCExecutors;
+
+import lotus.domino.Session;
+
+/**
+ * Tests cases for moving a {@link DominoGCContext} between threads
+ * 
+ * @author Karsten Lehmann
+ */
+public class TestGCContextTransfer extends BaseJNATestClass {
+
+	@Test
+	public void testGCContextTransfer_completableFuture() throws Exception {
+		ExecutorService pool = NotesGCExecutors.newFixedThreadPool(2);
+		try {
+			final DominoGCContext ctx = NotesGC.createDetachedContext();
+			Executor ctxExecutor = NotesGCExecutors.withContext(ctx, pool);
+			
+			String title = CompletableFuture.supplyAsync(new Supplier<NotesDatabase>() {
+
+				@Override
+				public NotesDatabase get() {
+					Assert.assertEquals("Context attached to pool thread", Thread.currentThread(), ctx.getAttachedThread());
+					return new NotesDatabase("", DBPATH_FAKENAMES_NSF, "");
+				}
+			}, ctxExecutor).thenApplyAsync(new Function<NotesDatabase, String>() {
+
+				@Override
+				public String apply(NotesDatabase db) {
+					//database opened in the previous stage is still tracked by the context
+					Assert.assertTrue("Database handle tracked", NotesGC.getNumberOfOpenObjectHandles()>0);
+					return db.getTitle();
+				}
+			}, ctxExecutor).get();
+			
+			Assert.assertNotNull("Title read", title);
+			Assert.assertNull("Context detached after the tasks", ctx.getAttachedThread());
+			
+			//close in a pool thread, which recycles the database
+			CompletableFuture.runAsync(new Runnable() {
+
+				@Override
+				public void run() {
+					try {
+						ctx.close();
+					} catch (Exception e) {
+						throw new RuntimeException(e);
+					}
+				}
+			}, ctxExecutor).get();
+			
+			Assert.assertTrue("Context closed", ctx.isClosed());
+		}
+		finally {
+			pool.shutdown();
+		}
+	}
+	
+	@Test
+	public void testGCContextTransfer_closeInOtherContext() {
+		runWithSession(new IDominoCallable<Object>() {
+
+			@Override
+			public Object call(Session session) throws Exception {
+				final DominoGCContext ctx = NotesGC.createDetachedContext();
+				int openHandles = NotesGC.getNumberOfOpenObjectHandles();
+				
+				NotesGC.runWithContext(ctx, new Callable<Object>() {
+
+					@Override
+					public Object call() throws Exception {
+						new NotesDatabase("", DBPATH_FAKENAMES_NSF, "");
+						return null;
+					}
+				});
+				
+				//the current thread uses its own context from runWithAutoGC
+				ctx.close();
+				Assert.assertTrue("Context closed", ctx.isClosed());
+				Assert.assertTrue("Thread context restored", NotesGC.isAutoGCActive());
+				Assert.assertEquals("Handles of thread context unchanged", openHandles, NotesGC.getNumberOfOpenObjectHandles());
+				return null;
+			}
+		});
+	}
+}
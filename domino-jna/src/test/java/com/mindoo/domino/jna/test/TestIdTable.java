@@ -1,12 +1,15 @@
 package com.mindoo.domino.jna.test;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.PrimitiveIterator;
 
 import org.junit.Assert;
 import org.junit.Test;
 
+import com.mindoo.domino.jna.NoteIdBitmap;
 import com.mindoo.domino.jna.NotesIDTable;
 import com.mindoo.domino.jna.NotesTimeDate;
 import com.mindoo.domino.jna.NotesIDTable.ComparisonResult;
@@ -227,4 +230,103 @@ public class TestIdTable extends BaseJNATestClass {
 			}
 		});
 	}
+	
+	/**
+	 * Primitive note id access and conversion between ID tables and bitmaps
+	 */
+	@Test
+	public void testIDTable_primitiveAccessAndBitmap() {
+
+		runWithSession(new IDominoCallable<Object>() {
+
+			@Override
+			public Object call(Session session) throws Exception {
+				int[] ids = new int[] {4,8,12,16,48,1000,1004,1008,300000,300004};
+				
+				NotesIDTable table = new NotesIDTable(ids);
+				Assert.assertArrayEquals("Table has the right content", ids, table.toArray());
+				
+				int[] dest = new int[ids.length+2];
+				int copied = table.toArray(dest, 2);
+				Assert.assertEquals("All ids copied", ids.length, copied);
+				Assert.assertArrayEquals("Ids copied at offset", ids, Arrays.copyOfRange(dest, 2, dest.length));
+				
+				PrimitiveIterator.OfInt it = table.intIterator();
+				int idx = 0;
+				while (it.hasNext()) {
+					Assert.assertEquals("Iterator returns ids in ascending order", ids[idx++], it.nextInt());
+				}
+				Assert.assertEquals("Iterator returned all ids", ids.length, idx);
+				
+				NoteIdBitmap bitmap = NoteIdBitmap.fromIDTable(table);
+				Assert.assertEquals("Bitmap has all ids", ids.length, bitmap.size());
+				Assert.assertArrayEquals("Bitmap has the right content", ids, bitmap.toArray());
+				
+				bitmap.add(2000);
+				bitmap.remove(4);
+				NotesIDTable table2 = bitmap.toIDTable();
+				Assert.assertArrayEquals("Table created from bitmap has the right content", bitmap.toArray(), table2.toArray());
+				
+				table.recycle();
+				table2.recycle();
+				return null;
+			}
+		});
+	}
+	
+	/**
+	 * Compares chained set operations of native ID tables with the same operations
+	 * on {@link NoteIdBitmap} snapshots and prints the durations
+	 */
+	@Test
+	public void testIDTable_bitmapSetOperations() {
+
+		runWithSession(new IDominoCallable<Object>() {
+
+			@Override
+			public Object call(Session session) throws Exception {
+				final int numIds = 500000;
+				int[] ids1 = new int[numIds];
+				int[] ids2 = new int[numIds];
+				int[] ids3 = new int[numIds / 10];
+				for (int i=0; i<numIds; i++) {
+					ids1[i] = 4 * (i + 1);
+					ids2[i] = 4 * (2 * i + 1);
+				}
+				for (int i=0; i<ids3.length; i++) {
+					ids3[i] = 4 * (3 * i + 1);
+				}
+				
+				NotesIDTable table1 = new NotesIDTable(ids1);
+				NotesIDTable table2 = new NotesIDTable(ids2);
+				NotesIDTable table3 = new NotesIDTable(ids3);
+				
+				//(table1 intersect table2) minus table3, native
+				NotesIDTable nativeResult = table1.intersect(table2);
+				nativeResult.removeTable(table3);
+				
+				//same operations on bitmaps including conversions, see NoteIdBitmapBenchmark for timings
+				for (boolean parallel : new boolean[] {false, true}) {
+					NoteIdBitmap bitmap1 = table1.toBitmap();
+					NoteIdBitmap bitmap2 = table2.toBitmap();
+					NoteIdBitmap bitmap3 = table3.toBitmap();
+					Assert.assertEquals("Bitmap 1 has the same size", table1.getCount(), bitmap1.size());
+					Assert.assertArrayEquals("Bitmap 3 has the same ids", ids3, bitmap3.toArray());
+					
+					NoteIdBitmap bitmapResult = bitmap1.and(bitmap2, parallel).andNot(bitmap3, parallel);
+					Assert.assertEquals("Result has the same size", nativeResult.getCount(), bitmapResult.size());
+					
+					NotesIDTable bitmapResultTable = bitmapResult.toIDTable();
+					Assert.assertArrayEquals("Bitmap operations produce the same result", nativeResult.toArray(), bitmapResultTable.toArray());
+					bitmapResultTable.recycle();
+				}
+				
+				nativeResult.recycle();
+				table1.recycle();
+				table2.recycle();
+				table3.recycle();
+				return null;
+			}
+		});
+	}
 }
@@ -0,0 +1,63 @@
+package com.mindoo.domino.jna.test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.mindoo.domino.jna.NotesDatabase;
+import com.mindoo.domino.jna.NotesNote;
+import com.mindoo.domino.jna.internal.NativeMemoryArena;
+import com.mindoo.domino.jna.utils.NotesStringUtils;
+import com.mindoo.domino.jna.utils.NotesStringUtils.LineBreakConversion;
+import com.sun.jna.Memory;
+
+import lotus.domino.Session;
+
+/**
+ * Tests cases for arena allocated native memory
+ * 
+ * @author Karsten Lehmann
+ */
+public class TestNativeMemoryArena extends BaseJNATestClass {
+
+	@Test
+	public void testNativeMemoryArena_writeItems() {
+
+		runWithSession(new IDominoCallable<Object>() {
+
+			@Override
+			public Object call(Session session) throws Exception {
+				NotesDatabase db = getFakeNamesDb();
+				
+				try (NativeMemoryArena arena = NativeMemoryArena.open()) {
+					NotesNote note = db.createNote();
+					
+					for (int i=0; i<1000; i++) {
+						note.replaceItemValue("text", "Value "+i+" äöü");
+						note.replaceItemValue("textlist", Arrays.asList("a"+i, "b"+i));
+					}
+					//temporary strings are released after each call
+					Assert.assertEquals("Arena reset after item writes", 0, arena.getBytesInUse());
+					Assert.assertTrue("Arena was used", arena.getHighWaterMark()>0);
+					
+					Assert.assertEquals("Text value written", "Value 999 äöü", note.getItemValueString("text"));
+					List<Object> listValue = note.getItemValue("textlist");
+					Assert.assertEquals("Text list written", Arrays.asList("a999", "b999"), listValue);
+					
+					try (NativeMemoryArena nested = NativeMemoryArena.open()) {
+						Memory mem = NotesStringUtils.toLMBCS("äöü", true, LineBreakConversion.NULL, nested);
+						Assert.assertEquals("String decoded from arena memory", "äöü", NotesStringUtils.fromLMBCS(mem, -1));
+						Assert.assertTrue("Nested arena allocates from outer arena", arena.getBytesInUse()>0);
+					}
+					Assert.assertEquals("Nested arena released its memory", 0, arena.getBytesInUse());
+					
+					note.recycle();
+				}
+				Assert.assertNull("No open arena", NativeMemoryArena.current());
+				return null;
+			}
+		});
+	}
+}
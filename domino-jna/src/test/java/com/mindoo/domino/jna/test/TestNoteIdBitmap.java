@@ -0,0 +1,175 @@
+package com.mindoo.domino.jna.test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PrimitiveIterator;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.function.IntConsumer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.mindoo.domino.jna.NoteIdBitmap;
+
+/**
+ * Tests cases for the chunk logic of {@link NoteIdBitmap}, no Notes runtime required
+ *
+ * @author Karsten Lehmann
+ */
+public class TestNoteIdBitmap {
+	private static final Comparator<Integer> UNSIGNED_ORDER = new Comparator<Integer>() {
+
+		@Override
+		public int compare(Integer o1, Integer o2) {
+			return Integer.compareUnsigned(o1, o2);
+		}
+	};
+
+	private static TreeSet<Integer> newReferenceSet() {
+		return new TreeSet<Integer>(UNSIGNED_ORDER);
+	}
+
+	private static void assertContent(String msg, TreeSet<Integer> expected, NoteIdBitmap bitmap) {
+		Assert.assertEquals(msg+": size", expected.size(), bitmap.size());
+		Assert.assertEquals(msg+": isEmpty", expected.isEmpty(), bitmap.isEmpty());
+
+		int[] arr = bitmap.toArray();
+		Assert.assertEquals(msg+": array length", expected.size(), arr.length);
+		int i = 0;
+		for (Integer currId : expected) {
+			Assert.assertEquals(msg+": id at position "+i, currId.intValue(), arr[i]);
+			i++;
+		}
+
+		PrimitiveIterator.OfInt it = bitmap.intIterator();
+		for (Integer currId : expected) {
+			Assert.assertTrue(msg+": iterator has next", it.hasNext());
+			Assert.assertEquals(msg+": iterator value", currId.intValue(), it.nextInt());
+		}
+		Assert.assertFalse(msg+": iterator exhausted", it.hasNext());
+	}
+
+	@Test
+	public void testNoteIdBitmap_arrayToBitsetConversion() {
+		NoteIdBitmap bitmap = new NoteIdBitmap();
+		TreeSet<Integer> expected = newReferenceSet();
+
+		//fill one chunk beyond the array size limit so that it becomes a bitset
+		for (int i=0; i<10000; i++) {
+			int noteId = 4 + i*4;
+			Assert.assertTrue("Id added", bitmap.add(noteId));
+			expected.add(noteId);
+		}
+		Assert.assertFalse("Duplicate not added", bitmap.add(4));
+		assertContent("Bitset chunk", expected, bitmap);
+		Assert.assertFalse("Missing id", bitmap.contains(6));
+
+		//remove values until the chunk falls back to array storage
+		for (int i=0; i<9000; i++) {
+			int noteId = 4 + i*4;
+			Assert.assertTrue("Id removed", bitmap.remove(noteId));
+			expected.remove(noteId);
+		}
+		Assert.assertFalse("Removed id not removed again", bitmap.remove(4));
+		assertContent("Array chunk after removal", expected, bitmap);
+
+		bitmap.clear();
+		assertContent("Cleared", newReferenceSet(), bitmap);
+	}
+
+	@Test
+	public void testNoteIdBitmap_unsignedOrder() {
+		int[] ids = new int[] {0x80000004, 4, 0xfffffffc, 0x7ffffffc, 0x10004, 0x10000};
+		NoteIdBitmap bitmap = new NoteIdBitmap(ids);
+		TreeSet<Integer> expected = newReferenceSet();
+		for (int currId : ids) {
+			expected.add(currId);
+		}
+		assertContent("Ids of different chunks", expected, bitmap);
+		Assert.assertTrue("High id found", bitmap.contains(0xfffffffc));
+
+		final List<Integer> fromForEach = new ArrayList<Integer>();
+		bitmap.forEachNoteId(new IntConsumer() {
+
+			@Override
+			public void accept(int noteId) {
+				fromForEach.add(noteId);
+			}
+		});
+		List<Integer> expectedList = new ArrayList<Integer>(expected);
+		Assert.assertEquals("forEachNoteId in ascending unsigned order", expectedList, fromForEach);
+
+		List<Integer> sorted = new ArrayList<Integer>(fromForEach);
+		Collections.sort(sorted, UNSIGNED_ORDER);
+		Assert.assertEquals("Already sorted", sorted, fromForEach);
+	}
+
+	@Test
+	public void testNoteIdBitmap_setOperations() {
+		Random rnd = new Random(4711);
+
+		for (boolean parallel : new boolean[] {false, true}) {
+			//mix sparse and dense chunks to combine array with bitset chunks
+			NoteIdBitmap bitmap1 = new NoteIdBitmap();
+			NoteIdBitmap bitmap2 = new NoteIdBitmap();
+			TreeSet<Integer> set1 = newReferenceSet();
+			TreeSet<Integer> set2 = newReferenceSet();
+
+			for (int chunk=0; chunk<40; chunk++) {
+				int count1 = chunk % 3 == 0 ? 20000 : 300;
+				int count2 = chunk % 4 == 0 ? 20000 : 300;
+				for (int i=0; i<count1; i++) {
+					int noteId = (chunk << 16) | (rnd.nextInt(0x4000) << 2);
+					bitmap1.add(noteId);
+					set1.add(noteId);
+				}
+				for (int i=0; i<count2; i++) {
+					int noteId = (chunk << 16) | (rnd.nextInt(0x4000) << 2);
+					bitmap2.add(noteId);
+					set2.add(noteId);
+				}
+			}
+			//chunks only contained in one of the bitmaps
+			bitmap1.add(0x7fff0004);
+			set1.add(0x7fff0004);
+			bitmap2.add(0x80000008);
+			set2.add(0x80000008);
+
+			TreeSet<Integer> expectedAnd = newReferenceSet();
+			expectedAnd.addAll(set1);
+			expectedAnd.retainAll(set2);
+			assertContent("and, parallel="+parallel, expectedAnd, bitmap1.and(bitmap2, parallel));
+
+			TreeSet<Integer> expectedOr = newReferenceSet();
+			expectedOr.addAll(set1);
+			expectedOr.addAll(set2);
+			assertContent("or, parallel="+parallel, expectedOr, bitmap1.or(bitmap2, parallel));
+
+			TreeSet<Integer> expectedAndNot = newReferenceSet();
+			expectedAndNot.addAll(set1);
+			expectedAndNot.removeAll(set2);
+			assertContent("andNot, parallel="+parallel, expectedAndNot, bitmap1.andNot(bitmap2, parallel));
+
+			//the operands must not be modified
+			assertContent("Operand 1 unchanged", set1, bitmap1);
+			assertContent("Operand 2 unchanged", set2, bitmap2);
+
+			NoteIdBitmap copy = bitmap1.copy();
+			Assert.assertEquals("Copy equals original", bitmap1, copy);
+			Assert.assertEquals("Copy has same hash code", bitmap1.hashCode(), copy.hashCode());
+			copy.retainAll(bitmap2);
+			assertContent("retainAll", expectedAnd, copy);
+
+			copy = bitmap1.copy();
+			copy.removeAll(bitmap2);
+			assertContent("removeAll", expectedAndNot, copy);
+
+			copy = bitmap1.copy();
+			copy.addAll(bitmap2);
+			assertContent("addAll", expectedOr, copy);
+		}
+	}
+}
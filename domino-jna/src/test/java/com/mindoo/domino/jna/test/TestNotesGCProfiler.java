@@ -0,0 +1,80 @@
+package com.mindoo.domino.jna.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.mindoo.domino.jna.NotesDatabase;
+import com.mindoo.domino.jna.NotesNote;
+import com.mindoo.domino.jna.gc.NotesGC;
+import com.mindoo.domino.jna.gc.NotesGCExecutors;
+import com.mindoo.domino.jna.gc.NotesGCProfiler;
+
+/**
+ * Tests cases for the handle profiler of {@link NotesGC}
+ *
+ * @author Karsten Lehmann
+ */
+public class TestNotesGCProfiler extends BaseJNATestClass {
+
+	@Test
+	public void testNotesGCProfiler_leakReport() throws Exception {
+		NotesGCProfiler profiler = NotesGC.getProfiler();
+		boolean wasEnabled = profiler.isEnabled();
+		double oldSampleRate = profiler.getSampleRate();
+		int oldThreshold = profiler.getLeakReportThreshold();
+		PrintStream oldStream = profiler.getReportStream();
+
+		ByteArrayOutputStream reportOut = new ByteArrayOutputStream();
+		ExecutorService pool = NotesGCExecutors.newFixedThreadPool(1);
+		try {
+			profiler.reset();
+			profiler.setSampleRate(1);
+			profiler.setLeakReportThreshold(10);
+			profiler.setReportStream(new PrintStream(reportOut, true, "UTF-8"));
+			profiler.setEnabled(true);
+
+			//notes are not recycled and get disposed when the context of the task is closed
+			pool.submit(new Callable<Object>() {
+
+				@Override
+				public Object call() throws Exception {
+					NotesDatabase db = new NotesDatabase("", DBPATH_FAKENAMES_NSF, "");
+					for (int i=0; i<20; i++) {
+						NotesNote note = db.createNote();
+						note.replaceItemValue("Form", "Person");
+					}
+					Assert.assertTrue("All handles sampled", profiler.getOpenSampledHandleCount() >= NotesGC.getNumberOfOpenObjectHandles());
+					return null;
+				}
+			}).get();
+
+			String report = new String(reportOut.toByteArray(), "UTF-8");
+			Assert.assertTrue("Leak report written", report.contains(NotesNote.class.getName()+": 20 open"));
+			Assert.assertTrue("Leak report contains allocation site", report.contains(TestNotesGCProfiler.class.getName()));
+			Assert.assertEquals("One leak report", 1, profiler.getLeakReportCount());
+			Assert.assertEquals("No open handles after closing the context", 0, profiler.getOpenSampledHandleCount());
+
+			long histogramSum = 0;
+			for (long currCount : profiler.getLifetimeHistogram()) {
+				histogramSum += currCount;
+			}
+			Assert.assertEquals("Lifetimes recorded", profiler.getSampledHandleCount(), histogramSum);
+
+			String[] topSites = profiler.getTopAllocationSites(1);
+			Assert.assertEquals("Top site returned", 1, topSites.length);
+		}
+		finally {
+			pool.shutdown();
+			profiler.setEnabled(wasEnabled);
+			profiler.setSampleRate(oldSampleRate);
+			profiler.setLeakReportThreshold(oldThreshold);
+			profiler.setReportStream(oldStream);
+			profiler.reset();
+		}
+	}
+}
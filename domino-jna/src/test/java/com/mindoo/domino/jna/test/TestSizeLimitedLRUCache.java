@@ -0,0 +1,190 @@
+package com.mindoo.domino.jna.test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.mindoo.domino.jna.internal.SizeLimitedLRUCache;
+import com.mindoo.domino.jna.utils.CacheStatistics;
+
+/**
+ * Tests cases for eviction and weight accounting of {@link SizeLimitedLRUCache}, no Notes runtime required
+ *
+ * @author Karsten Lehmann
+ */
+public class TestSizeLimitedLRUCache {
+
+	/**
+	 * Cache with the string length as weight that records removed values
+	 */
+	private static class TestCache extends SizeLimitedLRUCache<Integer, String> {
+		private List<String> m_removedValues = new ArrayList<String>();
+
+		public TestCache(String name, int maxSizeUnits) {
+			this(name, maxSizeUnits, 1);
+		}
+
+		public TestCache(String name, int maxSizeUnits, int shardCount) {
+			super(name, maxSizeUnits, shardCount);
+		}
+
+		@Override
+		protected int computeSize(Integer key, String value) {
+			return value.length();
+		}
+
+		@Override
+		protected void entryRemoved(Integer key, String value) {
+			m_removedValues.add(value);
+		}
+
+		public List<String> getRemovedValues() {
+			return m_removedValues;
+		}
+	}
+
+	private static String value(int key) {
+		//all values have a weight of 10
+		return String.format("value%05d", key);
+	}
+
+	@Test
+	public void testSizeLimitedLRUCache_weight() {
+		TestCache cache = new TestCache(null, 100);
+
+		Assert.assertNull("No previous value", cache.put(1, value(1)));
+		Assert.assertEquals("Weight of one entry", 10, cache.getCurrentCacheSizeInUnits());
+
+		Assert.assertEquals("Previous value returned", value(1), cache.put(1, "short"));
+		Assert.assertEquals("Weight adjusted on replace", 5, cache.getCurrentCacheSizeInUnits());
+		Assert.assertEquals("Replaced value disposed", 1, cache.getRemovedValues().size());
+
+		//entries larger than the cache are not stored
+		StringBuilder tooLarge = new StringBuilder();
+		for (int i=0; i<101; i++) {
+			tooLarge.append('x');
+		}
+		cache.put(2, tooLarge.toString());
+		Assert.assertFalse("Oversized entry not stored", cache.containsKey(2));
+		Assert.assertEquals("Weight unchanged", 5, cache.getCurrentCacheSizeInUnits());
+
+		Assert.assertEquals("Removed value returned", "short", cache.remove(1));
+		Assert.assertEquals("Weight after remove", 0, cache.getCurrentCacheSizeInUnits());
+
+		cache.put(3, value(3));
+		cache.put(4, value(4));
+		cache.clear();
+		Assert.assertEquals("Weight after clear", 0, cache.getCurrentCacheSizeInUnits());
+		Assert.assertTrue("No keys after clear", cache.getKeys().isEmpty());
+		Assert.assertEquals("All values disposed", 4, cache.getRemovedValues().size());
+	}
+
+	@Test
+	public void testSizeLimitedLRUCache_clockEviction() {
+		TestCache cache = new TestCache(null, 100);
+		for (int i=0; i<10; i++) {
+			cache.put(i, value(i));
+		}
+		Assert.assertEquals("Cache is full", 100, cache.getCurrentCacheSizeInUnits());
+		Assert.assertTrue("Nothing evicted yet", cache.getRemovedValues().isEmpty());
+
+		//mark all entries but 3 and 7 as recently used
+		for (int i=0; i<10; i++) {
+			if (i!=3 && i!=7) {
+				Assert.assertEquals("Value found", value(i), cache.get(i));
+			}
+		}
+
+		//exceeding the limit evicts the first entry without second chance in sweep order
+		cache.put(10, value(10));
+		Assert.assertEquals("Weight back at limit", 100, cache.getCurrentCacheSizeInUnits());
+		Assert.assertEquals("One entry evicted", 1, cache.getRemovedValues().size());
+		String evicted = cache.getRemovedValues().get(0);
+		Assert.assertTrue("Unreferenced entry evicted: "+evicted, evicted.equals(value(3)) || evicted.equals(value(7)));
+
+		cache.put(11, value(11));
+		Assert.assertEquals("Two entries evicted", 2, cache.getRemovedValues().size());
+		Assert.assertFalse("Entry 3 evicted", cache.containsKey(3));
+		Assert.assertFalse("Entry 7 evicted", cache.containsKey(7));
+		for (int i=0; i<12; i++) {
+			if (i!=3 && i!=7) {
+				Assert.assertTrue("Referenced or new entry "+i+" kept", cache.containsKey(i));
+			}
+		}
+
+		//the sweep cleared the referenced flags, so further puts evict old entries as well
+		for (int i=12; i<30; i++) {
+			cache.put(i, value(i));
+		}
+		Assert.assertEquals("Weight at limit", 100, cache.getCurrentCacheSizeInUnits());
+		Assert.assertEquals("Entry count", 10, cache.getKeys().size());
+
+		CacheStatistics stats = cache.getStatistics();
+		Assert.assertEquals("Evictions counted", 20, stats.getEvictionCount());
+	}
+
+	private static String repeat(char c, int count) {
+		StringBuilder sb = new StringBuilder(count);
+		for (int i=0; i<count; i++) {
+			sb.append(c);
+		}
+		return sb.toString();
+	}
+
+	@Test
+	public void testSizeLimitedLRUCache_largeEntries() {
+		//4 shards with a share of 4096 units each
+		TestCache cache = new TestCache(null, 16384, 4);
+		for (int i=0; i<100; i++) {
+			cache.put(i, value(i));
+		}
+		Assert.assertEquals("Small entries stored", 1000, cache.getCurrentCacheSizeInUnits());
+
+		//entry heavier than the share of a shard, but smaller than the whole cache
+		String large = repeat('x', 10000);
+		cache.put(1000, large);
+		Assert.assertEquals("Large entry stored", large, cache.get(1000));
+		Assert.assertTrue("Other shards keep their entries", cache.getKeys().size() > 1);
+		Assert.assertTrue("Cache limit not exceeded", cache.getCurrentCacheSizeInUnits() <= 16384);
+
+		//entries heavier than the whole cache are not stored
+		cache.put(1001, repeat('y', 16385));
+		Assert.assertFalse("Oversized entry not stored", cache.containsKey(1001));
+		Assert.assertEquals("Large entry still stored", large, cache.get(1000));
+
+		//the large entry can be evicted by later entries of its shard
+		cache.clear();
+		cache.put(1000, large);
+		for (int i=0; i<1000 && cache.containsKey(1000); i++) {
+			cache.put(i, value(i));
+		}
+		Assert.assertFalse("Large entry evicted", cache.containsKey(1000));
+	}
+
+	@Test
+	public void testSizeLimitedLRUCache_namedCacheRegistry() throws InterruptedException {
+		String name = "TestSizeLimitedLRUCache-"+System.nanoTime();
+		TestCache cache = new TestCache(name, 100);
+		cache.put(1, value(1));
+		Assert.assertTrue("Named cache registered", containsStatistics(name));
+
+		//the registry must not keep the cache alive
+		cache = null;
+		for (int i=0; i<50 && containsStatistics(name); i++) {
+			System.gc();
+			Thread.sleep(20);
+		}
+		Assert.assertFalse("Collected cache removed from registry", containsStatistics(name));
+	}
+
+	private static boolean containsStatistics(String name) {
+		for (CacheStatistics currStats : SizeLimitedLRUCache.getNamedCacheStatistics()) {
+			if (name.equals(currStats.getName())) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -11,9 +11,12 @@ import com.mindoo.domino.jna.NotesDbReplicaInfo;
 import com.mindoo.domino.jna.NotesTimeDate;
 import com.mindoo.domino.jna.NotesUniversalNoteId;
 import com.mindoo.domino.jna.gc.NotesGC;
+import com.mindoo.domino.jna.internal.DisposableMemory;
+import com.mindoo.domino.jna.internal.LMBCSCodec;
 import com.mindoo.domino.jna.internal.structs.NotesUniversalNoteIdStruct;
 import com.mindoo.domino.jna.utils.DumpUtil;
 import com.mindoo.domino.jna.utils.NotesStringUtils;
+import com.mindoo.domino.jna.utils.NotesStringUtils.LineBreakConversion;
 import com.mindoo.domino.jna.utils.PlatformUtils;
 import com.mindoo.domino.jna.utils.StringUtil;
 import com.sun.jna.Memory;
@@ -338,6 +341,95 @@ public class TestStringUtils extends BaseJNATestClass {
 		});
 	}
 
+	/**
+	 * Compares the results of the pure Java LMBCS codec with the results of OSTranslate
+	 */
+	@Test
+	public void testStringUtils_pureJavaLMBCSCodecConformance() {
+		runWithSession(new IDominoCallable<Object>() {
+
+			@Override
+			public Object call(Session session) throws Exception {
+				//LMBCS data as produced by OSTranslate
+				Assert.assertEquals("Decoding group 1 is correct", "M"+UML_U_SMALL+"ller",
+						LMBCSCodec.decode(new byte[] {'M', 0x01, (byte) 0x81, 'l', 'l', 'e', 'r'}, 0, 7, "\n"));
+				Assert.assertEquals("Decoding Unicode group is correct", "\u4e00\u2192",
+						LMBCSCodec.decode(new byte[] {0x14, (byte) 0xf6, 0x4e, 0x14, 0x21, (byte) 0x92}, 0, 6, "\n"));
+				Assert.assertEquals("Decoding C1 control group is correct", "a\u0085",
+						LMBCSCodec.decode(new byte[] {'a', 0x0f, (byte) 0x85}, 0, 3, "\n"));
+				
+				String c1Str = "a\u0080b\u0085c\u009f"+UML_A_SMALL;
+				Assert.assertEquals("C1 control characters use two bytes", 11, LMBCSCodec.getEncodedLength(c1Str, LineBreakConversion.ORIGINAL));
+				
+				String westernStr = "Abc "+UML_A_SMALL+UML_O_SMALL+UML_U_SMALL+UML_A_BIG+UML_O_BIG+UML_U_BIG+SZ+" \u00e9\u00e8\u00ea\u00c7\u00f1\u00a3\u00a9\t123";
+				String[] testStrings = new String[] {
+						"Hello World, this is a longer ASCII string to test the fast path",
+						westernStr,
+						westernStr+"\n"+westernStr+"\r\n"+westernStr,
+						"\u03b1\u03b2\u03b3 \u0394\u03a9",
+						"\u0395\u03bb\u03bb\u03b7\u03bd\u03b9\u03ba\u03ac \u03ba\u03b5\u03af\u03bc\u03b5\u03bd\u03bf",
+						"\u0416\u0443\u0440\u043d\u0430\u043b",
+						"\u0420\u0443\u0441\u0441\u043a\u0438\u0439 \u0442\u0435\u043a\u0441\u0442, "+westernStr,
+						"\u05e9\u05dc\u05d5\u05dd \u0645\u0631\u062d\u0628\u0627",
+						"\u65e5\u672c\u8a9e\u30c6\u30ad\u30b9\u30c8 \uff76\uff80\uff76\uff85",
+						"\u4e2d\u6587\u7e41\u9ad4 \ud55c\uad6d\uc5b4",
+						"\u4e2d\u6587\u6587\u672c",
+						"\ud55c\uad6d\uc5b4 \ud14d\uc2a4\ud2b8",
+						"\u20ac \u2192 \u2122 \u0100\u0150\u0170 \u0e44\u0e17\u0e22",
+						c1Str,
+				};
+				
+				boolean oldUseJava = NotesStringUtils.isUsePureJavaLMBCSCodec();
+				try {
+					for (String currStr : testStrings) {
+						for (LineBreakConversion currConversion : LineBreakConversion.values()) {
+							NotesStringUtils.setUsePureJavaLMBCSCodec(false);
+							DisposableMemory nativeMem = NotesStringUtils.toLMBCSNoCache(currStr, false, currConversion);
+							byte[] nativeData = toByteArray(nativeMem);
+							nativeMem.dispose();
+							String nativeDecoded = NotesStringUtils.fromLMBCS(nativeData);
+							
+							NotesStringUtils.setUsePureJavaLMBCSCodec(true);
+							DisposableMemory javaMem = NotesStringUtils.toLMBCSNoCache(currStr, false, currConversion);
+							byte[] javaData = toByteArray(javaMem);
+							javaMem.dispose();
+							
+							//data produced by OSTranslate must be decoded the same way in Java; null means
+							//that the data uses a group that the Java codec leaves to OSTranslate
+							String javaDecodedFromNative = LMBCSCodec.decode(nativeData, 0, nativeData.length, "\n");
+							if (javaDecodedFromNative!=null) {
+								Assert.assertEquals("Java decoder returns the same result as OSTranslate for "+currStr,
+										nativeDecoded, javaDecodedFromNative);
+							}
+							
+							//round trip of the data produced by the Java encoder
+							String javaDecoded = LMBCSCodec.decode(javaData, 0, javaData.length, "\n");
+							Assert.assertNotNull("Java decoder can decode data produced by the Java encoder for "+currStr, javaDecoded);
+							Assert.assertEquals("Java round trip returns the same result as OSTranslate for "+currStr,
+									nativeDecoded, javaDecoded);
+							
+							//data produced in Java must be readable by OSTranslate
+							NotesStringUtils.setUsePureJavaLMBCSCodec(false);
+							Assert.assertEquals("OSTranslate can decode data produced by the Java encoder for "+currStr,
+									nativeDecoded, NotesStringUtils.fromLMBCS(javaData));
+							
+							//only Western European and C1 characters produce the same bytes; for other
+							//characters, OSTranslate uses the code page groups and the Java encoder the Unicode group
+							if (currStr.equals(westernStr) || currStr.equals(c1Str)) {
+								Assert.assertTrue("Java encoder returns the same bytes as OSTranslate for "+currStr,
+										Arrays.equals(nativeData, javaData));
+							}
+						}
+					}
+				}
+				finally {
+					NotesStringUtils.setUsePureJavaLMBCSCodec(oldUseJava);
+				}
+				return null;
+			}
+		});
+	}
+	
 	private static final short ULMBCS_GRP_L1   = 0x01; /* Latin-1      :ibm-850    */
 	private static final short ULMBCS_GRP_GR   = 0x02; /* Greek        :ibm-851    */
 	private static final short ULMBCS_GRP_HE   = 0x03; /* Hebrew       :ibm-1255   */
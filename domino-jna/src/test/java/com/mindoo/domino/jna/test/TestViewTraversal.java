@@ -1,7 +1,10 @@
 package com.mindoo.domino.jna.test;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collections;
+import java.util.ConcurrentModificationException;
 import java.util.EnumSet;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
@@ -15,9 +18,12 @@ import com.mindoo.domino.jna.NotesCollection;
 import com.mindoo.domino.jna.NotesCollection.Direction;
 import com.mindoo.domino.jna.NotesCollection.EntriesAsListCallback;
 import com.mindoo.domino.jna.NotesCollection.ViewLookupCallback;
+import com.mindoo.domino.jna.NotesCollectionPrefetchIterator;
 import com.mindoo.domino.jna.NotesDatabase;
 import com.mindoo.domino.jna.NotesIDTable;
+import com.mindoo.domino.jna.NotesNote;
 import com.mindoo.domino.jna.NotesViewEntryData;
+import com.mindoo.domino.jna.ViewPageSizeTuner;
 import com.mindoo.domino.jna.constants.Find;
 import com.mindoo.domino.jna.constants.Navigate;
 import com.mindoo.domino.jna.constants.OpenCollection;
@@ -844,4 +850,285 @@ public class TestViewTraversal extends BaseJNATestClass {
 		});
 	
 	}
-}
\ No newline at end of file
+	
+	@Test
+	public void testViewTraversal_parallelRead() {
+		runWithSession(new IDominoCallable<Object>() {
+
+			@Override
+			public Object call(Session session) throws Exception {
+				NotesDatabase dbData = getFakeNamesDb();
+				NotesCollection colFromDbData = dbData.openCollectionByName("Companies");
+				colFromDbData.update();
+
+				EnumSet<ReadMask> returnMask = EnumSet.of(ReadMask.NOTEID, ReadMask.INDEXPOSITION, ReadMask.SUMMARYVALUES);
+
+				long t0=System.currentTimeMillis();
+				List<NotesViewEntryData> seqEntries = colFromDbData.getAllEntries("0", 1, EnumSet.of(Navigate.NEXT),
+						Integer.MAX_VALUE, returnMask, new NotesCollection.EntriesAsListCallback(Integer.MAX_VALUE));
+				long t1=System.currentTimeMillis();
+				System.out.println("Sequential read: "+seqEntries.size()+" entries in "+(t1-t0)+"ms");
+
+				List<NotesViewEntryData> parEntries = colFromDbData.getAllEntriesParallel(4, EnumSet.of(Navigate.NEXT),
+						Integer.MAX_VALUE, returnMask, true, new NotesCollection.EntriesAsListCallback(Integer.MAX_VALUE));
+				long t2=System.currentTimeMillis();
+				System.out.println("Parallel ordered read: "+parEntries.size()+" entries in "+(t2-t1)+"ms");
+
+				Assert.assertEquals("Same number of entries", seqEntries.size(), parEntries.size());
+				for (int i=0; i<seqEntries.size(); i++) {
+					Assert.assertEquals("Same position", seqEntries.get(i).getPositionStr(), parEntries.get(i).getPositionStr());
+					Assert.assertEquals("Same note id", seqEntries.get(i).getNoteId(), parEntries.get(i).getNoteId());
+					Assert.assertEquals("Same column values", seqEntries.get(i).getColumnDataAsMap(), parEntries.get(i).getColumnDataAsMap());
+				}
+
+				//unordered read calls the callback from the worker threads
+				final Set<Integer> parNoteIds = Collections.synchronizedSet(new HashSet<Integer>());
+				colFromDbData.getAllEntriesParallel(4, EnumSet.of(Navigate.NEXT_NONCATEGORY), Integer.MAX_VALUE,
+						EnumSet.of(ReadMask.NOTEID), false, new ViewLookupCallback<Set<Integer>>() {
+
+					@Override
+					public Set<Integer> startingLookup() {
+						parNoteIds.clear();
+						return parNoteIds;
+					}
+
+					@Override
+					public Action entryRead(Set<Integer> result, NotesViewEntryData entryData) {
+						result.add(entryData.getNoteId());
+						return Action.Continue;
+					}
+
+					@Override
+					public Set<Integer> lookupDone(Set<Integer> result) {
+						return result;
+					}
+				});
+				long t3=System.currentTimeMillis();
+				System.out.println("Parallel unordered read: "+parNoteIds.size()+" note ids in "+(t3-t2)+"ms");
+
+				Set<Integer> seqNoteIds = new HashSet<Integer>();
+				for (NotesViewEntryData currEntry : seqEntries) {
+					if (!currEntry.isCategory()) {
+						seqNoteIds.add(currEntry.getNoteId());
+					}
+				}
+				Assert.assertEquals("Same note ids", seqNoteIds, parNoteIds);
+
+				//with many threads, categories get split at their child entries if there are fewer top level entries than ranges
+				List<NotesViewEntryData> splitEntries = colFromDbData.getAllEntriesParallel(64, EnumSet.of(Navigate.NEXT),
+						Integer.MAX_VALUE, returnMask, true, new NotesCollection.EntriesAsListCallback(Integer.MAX_VALUE));
+				Assert.assertEquals("Same number of entries with split categories", seqEntries.size(), splitEntries.size());
+				for (int i=0; i<seqEntries.size(); i++) {
+					Assert.assertEquals("Same position with split categories", seqEntries.get(i).getPositionStr(), splitEntries.get(i).getPositionStr());
+				}
+				return null;
+			}
+		});
+	}
+
+	@Test
+	public void testViewTraversal_adaptivePageSize() {
+		runWithSession(new IDominoCallable<Object>() {
+
+			@Override
+			public Object call(Session session) throws Exception {
+				NotesDatabase dbData = getFakeNamesDb();
+				NotesCollection colFromDbData = dbData.openCollectionByName("People");
+				colFromDbData.update();
+
+				EnumSet<ReadMask> returnMask = EnumSet.of(ReadMask.NOTEID, ReadMask.SUMMARYVALUES);
+
+				List<NotesViewEntryData> entries = colFromDbData.getAllEntries("0", 1, EnumSet.of(Navigate.NEXT),
+						Integer.MAX_VALUE, returnMask, new EntriesAsListCallback(Integer.MAX_VALUE));
+
+				final List<Integer> requestedCounts = new ArrayList<Integer>();
+				final ViewPageSizeTuner tuner = new ViewPageSizeTuner() {
+					@Override
+					protected void pageRead(int requestedCount, int returnedCount, int bytes, long readDurationNanos,
+							int nextReturnCount) {
+						System.out.println("Requested "+requestedCount+" entries, got "+returnedCount+" with "+bytes+
+								" bytes in "+(readDurationNanos/1000)+"us, next return count: "+nextReturnCount);
+						requestedCounts.add(requestedCount);
+					}
+				};
+
+				List<NotesViewEntryData> tunedEntries = colFromDbData.getAllEntries("0", 1, EnumSet.of(Navigate.NEXT),
+						Integer.MAX_VALUE, returnMask, new EntriesAsListCallback(Integer.MAX_VALUE) {
+					@Override
+					public ViewPageSizeTuner createPageSizeTuner() {
+						return tuner;
+					}
+				});
+				System.out.println(tuner);
+
+				Assert.assertEquals("Same number of entries", entries.size(), tunedEntries.size());
+				for (int i=0; i<entries.size(); i++) {
+					Assert.assertEquals("Same note id", entries.get(i).getNoteId(), tunedEntries.get(i).getNoteId());
+				}
+				Assert.assertTrue("Tuner measured the reads", tuner.getPagesRead()>0);
+				Assert.assertTrue("Bytes per entry measured", tuner.getAverageBytesPerEntry()>0);
+				if (requestedCounts.size()>1) {
+					Assert.assertTrue("Return count adapted to entry size", requestedCounts.get(1)<Integer.MAX_VALUE);
+				}
+				return null;
+			}
+		});
+	}
+
+	@Test
+	public void testViewTraversal_prefetchIterator() {
+		runWithSession(new IDominoCallable<Object>() {
+
+			@Override
+			public Object call(Session session) throws Exception {
+				NotesDatabase dbData = getFakeNamesDb();
+				NotesCollection colFromDbData = dbData.openCollectionByName("People");
+				colFromDbData.update();
+
+				EnumSet<ReadMask> returnMask = EnumSet.of(ReadMask.NOTEID, ReadMask.SUMMARYVALUES);
+
+				List<NotesViewEntryData> entries = colFromDbData.getAllEntries("0", 1, EnumSet.of(Navigate.NEXT),
+						Integer.MAX_VALUE, returnMask, new EntriesAsListCallback(Integer.MAX_VALUE));
+
+				List<NotesViewEntryData> prefetchedEntries = new ArrayList<NotesViewEntryData>();
+				NotesCollectionPrefetchIterator it = new NotesCollectionPrefetchIterator(colFromDbData, "0", 1,
+						EnumSet.of(Navigate.NEXT), 100, 2, returnMask);
+				try {
+					while (it.hasNext()) {
+						prefetchedEntries.add(it.next());
+					}
+				}
+				finally {
+					it.close();
+				}
+
+				Assert.assertEquals("Same number of entries", entries.size(), prefetchedEntries.size());
+				for (int i=0; i<entries.size(); i++) {
+					Assert.assertEquals("Same note id", entries.get(i).getNoteId(), prefetchedEntries.get(i).getNoteId());
+					Assert.assertEquals("Same column values", entries.get(i).getColumnDataAsMap(), prefetchedEntries.get(i).getColumnDataAsMap());
+				}
+				return null;
+			}
+		});
+	}
+
+	@Test
+	public void testViewTraversal_prefetchIteratorStopsOnIndexChange() {
+		runWithSession(new IDominoCallable<Object>() {
+
+			@Override
+			public Object call(Session session) throws Exception {
+				NotesDatabase dbData = getFakeNamesDb();
+				NotesCollection colFromDbData = dbData.openCollectionByName("People");
+				colFromDbData.update();
+
+				EnumSet<ReadMask> returnMask = EnumSet.of(ReadMask.NOTEID, ReadMask.SUMMARYVALUES);
+
+				//small pages and a single prefetched page, so that the reader is still busy when the index changes
+				NotesCollectionPrefetchIterator it = new NotesCollectionPrefetchIterator(colFromDbData, "0", 1,
+						EnumSet.of(Navigate.NEXT), 10, 1, returnMask) {
+
+					@Override
+					protected ViewLookupCallback.Action retryingReadBecauseViewIndexChanged(int nrOfRetries,
+							long durationSinceStart) {
+						return ViewLookupCallback.Action.Stop;
+					}
+				};
+
+				NotesNote newNote = null;
+				try {
+					Assert.assertTrue("View has entries", it.hasNext());
+					it.next();
+
+					newNote = dbData.createNote();
+					newNote.replaceItemValue("Form", "Person");
+					newNote.replaceItemValue("Lastname", "Prefetch iterator index change test");
+					newNote.update();
+					colFromDbData.update();
+
+					try {
+						while (it.hasNext()) {
+							it.next();
+						}
+						Assert.fail("Iteration should fail because the view index changed");
+					}
+					catch (ConcurrentModificationException e) {
+						//expected
+					}
+				}
+				finally {
+					it.close();
+					if (newNote!=null) {
+						newNote.delete();
+					}
+				}
+				return null;
+			}
+		});
+	}
+
+	@Test
+	public void testViewTraversal_prefetchIteratorResumesOnIndexChange() {
+		runWithSession(new IDominoCallable<Object>() {
+
+			@Override
+			public Object call(Session session) throws Exception {
+				NotesDatabase dbData = getFakeNamesDb();
+				NotesCollection colFromDbData = dbData.openCollectionByName("People");
+				colFromDbData.update();
+
+				EnumSet<ReadMask> returnMask = EnumSet.of(ReadMask.NOTEID);
+				final int[] retries = new int[1];
+
+				NotesCollectionPrefetchIterator it = new NotesCollectionPrefetchIterator(colFromDbData, "0", 1,
+						EnumSet.of(Navigate.NEXT_NONCATEGORY), 10, 1, returnMask) {
+
+					@Override
+					protected ViewLookupCallback.Action retryingReadBecauseViewIndexChanged(int nrOfRetries,
+							long durationSinceStart) {
+						retries[0]++;
+						return ViewLookupCallback.Action.Continue;
+					}
+				};
+
+				NotesNote newNote = null;
+				try {
+					Set<Integer> readNoteIds = new HashSet<Integer>();
+					Assert.assertTrue("View has entries", it.hasNext());
+					readNoteIds.add(it.next().getNoteId());
+
+					//inserted at the top of the view, which shifts the positions of all entries
+					newNote = dbData.createNote();
+					newNote.replaceItemValue("Form", "Person");
+					newNote.replaceItemValue("Lastname", "AAA Prefetch iterator resume test");
+					newNote.update();
+					colFromDbData.update();
+
+					while (it.hasNext()) {
+						int noteId = it.next().getNoteId();
+						Assert.assertTrue("Note id "+noteId+" returned once", readNoteIds.add(noteId));
+					}
+
+					List<NotesViewEntryData> entries = colFromDbData.getAllEntries("0", 1, EnumSet.of(Navigate.NEXT_NONCATEGORY),
+							Integer.MAX_VALUE, returnMask, new NotesCollection.EntriesAsListCallback(Integer.MAX_VALUE));
+					Set<Integer> expectedNoteIds = new HashSet<Integer>();
+					for (NotesViewEntryData currEntry : entries) {
+						expectedNoteIds.add(currEntry.getNoteId());
+					}
+					//the new document is before the restart position, so it is only returned if the reader was not ahead yet
+					expectedNoteIds.remove(newNote.getNoteId());
+					readNoteIds.remove(newNote.getNoteId());
+					Assert.assertTrue("Reading has been restarted", retries[0]>0);
+					Assert.assertEquals("All documents returned", expectedNoteIds, readNoteIds);
+				}
+				finally {
+					it.close();
+					if (newNote!=null) {
+						newNote.delete();
+					}
+				}
+				return null;
+			}
+		});
+	}
+}
@@ -0,0 +1,128 @@
+package com.mindoo.domino.jna.test;
+
+import java.util.EnumSet;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.mindoo.domino.jna.NotesCollection;
+import com.mindoo.domino.jna.NotesCollectionPosition;
+import com.mindoo.domino.jna.NotesDatabase;
+import com.mindoo.domino.jna.NotesViewEntryData;
+import com.mindoo.domino.jna.NotesViewLookupColumnarResultData;
+import com.mindoo.domino.jna.NotesViewLookupResultData;
+import com.mindoo.domino.jna.constants.Navigate;
+import com.mindoo.domino.jna.constants.ReadMask;
+
+import lotus.domino.Session;
+
+/**
+ * Test cases for the columnar read mode of {@link NotesCollection}
+ *
+ * @author Karsten Lehmann
+ */
+public class TestViewTraversalColumnar extends BaseJNATestClass {
+
+	@Test
+	public void testViewTraversal_columnarMatchesObjectDecoding() {
+		runWithSession(new IDominoCallable<Object>() {
+
+			@Override
+			public Object call(Session session) throws Exception {
+				NotesDatabase dbData = getFakeNamesDb();
+				NotesCollection col = dbData.openCollectionByName("People");
+				col.update();
+
+				EnumSet<ReadMask> returnMask = EnumSet.of(ReadMask.NOTEID, ReadMask.INDEXPOSITION, ReadMask.SUMMARYVALUES);
+
+				NotesViewLookupResultData objData = col.readEntriesExt(new NotesCollectionPosition("0"),
+						EnumSet.of(Navigate.NEXT_NONCATEGORY), 1, EnumSet.of(Navigate.NEXT_NONCATEGORY), 500,
+						returnMask, null, null, null);
+
+				NotesViewLookupColumnarResultData colData = col.readEntriesExtColumnar(new NotesCollectionPosition("0"),
+						EnumSet.of(Navigate.NEXT_NONCATEGORY), 1, EnumSet.of(Navigate.NEXT_NONCATEGORY), 500,
+						returnMask, null, null, null);
+
+				List<NotesViewEntryData> entries = objData.getEntries();
+				Assert.assertEquals("Same number of entries", entries.size(), colData.getRowCount());
+
+				NotesViewLookupColumnarResultData.Cursor cursor = colData.cursor();
+				int idx = 0;
+				while (cursor.next()) {
+					NotesViewEntryData currEntry = entries.get(idx++);
+					Assert.assertEquals("Note ids match", currEntry.getNoteId(), cursor.getNoteId());
+					Assert.assertEquals("Positions match", currEntry.getPositionStr(), cursor.getPositionStr());
+
+					for (int c=0; c<colData.getColumnCount(); c++) {
+						Object objValue = currEntry.getColumnValues()[c];
+						Object colValue = cursor.getColumnValue(c);
+						if (objValue!=null && !(objValue instanceof List)) {
+							Assert.assertEquals("Column values match", objValue.toString(), colValue.toString());
+						}
+					}
+				}
+				return null;
+			}
+		});
+	}
+
+	@Test
+	public void testViewTraversal_columnarPerformance() {
+		runWithSession(new IDominoCallable<Object>() {
+
+			@Override
+			public Object call(Session session) throws Exception {
+				NotesDatabase dbData = getFakeNamesDb();
+				NotesCollection col = dbData.openCollectionByName("People");
+				col.update();
+
+				EnumSet<ReadMask> returnMask = EnumSet.of(ReadMask.NOTEID, ReadMask.SUMMARYVALUES);
+
+				for (int i=0; i<3; i++) {
+					long t0=System.currentTimeMillis();
+					int objRows = 0;
+					NotesCollectionPosition pos = new NotesCollectionPosition("0");
+					int skipCount = 1;
+					while (true) {
+						NotesViewLookupResultData data = col.readEntriesExt(pos, EnumSet.of(Navigate.NEXT_NONCATEGORY), skipCount,
+								EnumSet.of(Navigate.NEXT_NONCATEGORY), Integer.MAX_VALUE, returnMask, null, null, null);
+						for (NotesViewEntryData currEntry : data.getEntries()) {
+							currEntry.getColumnDataAsMap();
+							objRows++;
+						}
+						if (!data.hasMoreToDo()) {
+							break;
+						}
+						skipCount = 1;
+					}
+					long t1=System.currentTimeMillis();
+
+					int colRows = 0;
+					pos = new NotesCollectionPosition("0");
+					skipCount = 1;
+					while (true) {
+						NotesViewLookupColumnarResultData data = col.readEntriesExtColumnar(pos, EnumSet.of(Navigate.NEXT_NONCATEGORY), skipCount,
+								EnumSet.of(Navigate.NEXT_NONCATEGORY), Integer.MAX_VALUE, returnMask, null, null, null);
+						NotesViewLookupColumnarResultData.Cursor cursor = data.cursor();
+						while (cursor.next()) {
+							for (int c=0; c<data.getColumnCount(); c++) {
+								cursor.getColumnValue(c);
+							}
+							colRows++;
+						}
+						if (!data.hasMoreToDo()) {
+							break;
+						}
+						skipCount = 1;
+					}
+					long t2=System.currentTimeMillis();
+
+					System.out.println("Object decoding: "+objRows+" rows in "+(t1-t0)+"ms, columnar decoding: "+colRows+" rows in "+(t2-t1)+"ms");
+					Assert.assertEquals("Same number of rows", objRows, colRows);
+				}
+				return null;
+			}
+		});
+	}
+}